@@ -17,6 +17,7 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Spectrum
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
 import com.compomics.util.math.BasicMathFunctions;
@@ -27,7 +28,9 @@ import eu.isas.reporter.calculation.Deisotoper;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
 import eu.isas.reporter.calculation.QuantificationFilter;
 import eu.isas.reporter.calculation.RatioEstimator;
+import eu.isas.reporter.calculation.SpectrumRegistry;
 import eu.isas.reporter.preferences.ReporterPathPreferences;
+import eu.isas.reporter.quantificationdetails.ChannelTable;
 import eu.isas.reporter.settings.RatioEstimationSettings;
 import eu.isas.reporter.settings.ReporterIonSelectionSettings;
 import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
@@ -40,8 +43,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 /**
  * Reporter performs reporter ion based quantification on MS2/MS3 spectra.
@@ -110,11 +117,23 @@ public class Reporter {
             WaitingHandler waitingHandler
     ) {
 
-        ProteinQuantificationDetails result = new ProteinQuantificationDetails();
-        HashMap<String, ArrayList<Double>> ratios = new HashMap<>();
-        HashMap<String, ArrayList<Double>> uniqueRatios = new HashMap<>();
-        HashMap<String, ArrayList<Double>> sharedRatios = new HashMap<>();
-        Set<String> indexes = reporterIonQuantification.getSampleIndexes();
+        ProteinQuantificationDetails result = new ProteinQuantificationDetails(quantificationFeaturesGenerator.getChannelTable());
+        Set<String> indexesSet = reporterIonQuantification.getSampleIndexes();
+        String[] indexes = indexesSet.toArray(new String[indexesSet.size()]);
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+
+        // The peptides of the protein are processed one after the other, every peptide contributing to all channels at once
+        ArrayList<ArrayList<Double>> ratios = new ArrayList<>(indexes.length);
+        ArrayList<ArrayList<Double>> uniqueRatios = new ArrayList<>(indexes.length);
+        ArrayList<ArrayList<Double>> sharedRatios = new ArrayList<>(indexes.length);
+
+        for (int i = 0; i < indexes.length; i++) {
+            ratios.add(new ArrayList<>(proteinMatch.getPeptideCount()));
+            uniqueRatios.add(new ArrayList<>(proteinMatch.getPeptideCount()));
+            sharedRatios.add(new ArrayList<>(proteinMatch.getPeptideCount()));
+        }
+
+        boolean validPeptide = false;
 
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), waitingHandler);
         PeptideMatch peptideMatch;
@@ -123,60 +142,45 @@ public class Reporter {
 
             if (QuantificationFilter.isPeptideValid(ratioEstimationSettings, identification, searchParameters, peptideMatch)) {
 
-                for (String index : indexes) {
+                validPeptide = true;
 
-                    PeptideQuantificationDetails peptideQuantification
-                            = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
-                                    spectrumProvider,
-                                    peptideMatch,
-                                    waitingHandler
-                            );
+                PeptideQuantificationDetails peptideQuantification
+                        = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+                                spectrumProvider,
+                                peptideMatch,
+                                waitingHandler
+                        );
 
-                    double ratio = peptideQuantification.getRatio(index, reporterIonQuantification.getNormalizationFactors());
-                    ArrayList<Double> channelRatios = ratios.get(index);
-                    ArrayList<Double> channelUniqueRatios = uniqueRatios.get(index);
-                    ArrayList<Double> channelSharedRatios = sharedRatios.get(index);
+                double[] peptideRatios = peptideQuantification.getRatios(indexes, normalizationFactors);
+                ArrayList<ArrayList<Double>> groupRatios = identificationFeaturesGenerator.getNValidatedProteinGroups(peptideMatch.getKey()) == 1
+                        ? uniqueRatios : sharedRatios;
 
-                    if (channelRatios == null) {
-                        channelRatios = new ArrayList<Double>(proteinMatch.getPeptideCount());
-                        ratios.put(index, channelRatios);
-                        channelUniqueRatios = new ArrayList<Double>(proteinMatch.getPeptideCount());
-                        uniqueRatios.put(index, channelUniqueRatios);
-                        channelSharedRatios = new ArrayList<Double>(proteinMatch.getPeptideCount());
-                        sharedRatios.put(index, channelSharedRatios);
-                    }
+                for (int i = 0; i < indexes.length; i++) {
 
-                    if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio)) {
+                    double ratio = peptideRatios[i];
 
-                        channelRatios.add(ratio);
+                    if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio)) {
 
-                        if (identificationFeaturesGenerator.getNValidatedProteinGroups(peptideMatch.getKey()) == 1) {
-                            channelUniqueRatios.add(ratio);
-                        } else {
-                            channelSharedRatios.add(ratio);
-                        }
+                        ratios.get(i).add(ratio);
+                        groupRatios.get(i).add(ratio);
 
                     }
-
                 }
-
             }
-
         }
 
-        for (String index : indexes) {
+        for (int i = 0; i < indexes.length; i++) {
 
-            ArrayList<Double> channelUniqueRatios = uniqueRatios.get(index);
+            String index = indexes[i];
+            ArrayList<Double> channelUniqueRatios = uniqueRatios.get(i);
             Double uniqueRatio = RatioEstimator.estimateRatios(ratioEstimationSettings, channelUniqueRatios);
             result.setUniqueRawRatio(index, uniqueRatio);
-            ArrayList<Double> channelSharedRatios = sharedRatios.get(index);
-            result.setSharedRawRatio(index, RatioEstimator.estimateRatios(ratioEstimationSettings, channelSharedRatios));
+            result.setSharedRawRatio(index, RatioEstimator.estimateRatios(ratioEstimationSettings, sharedRatios.get(i)));
 
-            if (ratioEstimationSettings.getMinUnique() >= 0 && channelUniqueRatios != null && channelUniqueRatios.size() >= ratioEstimationSettings.getMinUnique()) {
+            if (ratioEstimationSettings.getMinUnique() >= 0 && validPeptide && channelUniqueRatios.size() >= ratioEstimationSettings.getMinUnique()) {
                 result.setRawRatio(index, uniqueRatio);
             } else {
-                ArrayList<Double> channelRatios = ratios.get(index);
-                result.setRawRatio(index, RatioEstimator.estimateRatios(ratioEstimationSettings, channelRatios));
+                result.setRawRatio(index, RatioEstimator.estimateRatios(ratioEstimationSettings, ratios.get(i)));
             }
 
         }
@@ -185,7 +189,8 @@ public class Reporter {
     }
 
     /**
-     * Returns the quantification details of a PTM on a protein.//@TODO:
+     * Returns the quantification details of a PTM on a protein. Only the valid
+     * peptides carrying the PTM confidently on the given site are used.//@TODO:
      * discriminate peptides according to the neighboring sites?
      *
      * @param identification the identification containing identification
@@ -228,74 +233,173 @@ public class Reporter {
             WaitingHandler waitingHandler
     ) throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ProteinPtmQuantificationDetails result = new ProteinPtmQuantificationDetails();
-        HashMap<String, ArrayList<Double>> ratios = new HashMap<>();
         ProteinMatch proteinMatch = identification.getProteinMatch(matchKey);
-        Set<String> indexes = reporterIonQuantification.getSampleIndexes();
 
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), waitingHandler);
-        PeptideMatch peptideMatch;
+        HashMap<String, TreeMap<Integer, ArrayList<PeptideMatch>>> siteIndex = getModificationSiteIndex(
+                identification,
+                ratioEstimationSettings,
+                searchParameters,
+                proteinMatch,
+                Collections.singleton(ptmName),
+                waitingHandler
+        );
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+        ArrayList<PeptideMatch> sitePeptides = null;
+        TreeMap<Integer, ArrayList<PeptideMatch>> ptmSites = siteIndex.get(ptmName);
 
-            Peptide peptide = peptideMatch.getPeptide();
+        if (ptmSites != null) {
+            sitePeptides = ptmSites.get(site);
+        }
 
-            if (peptide.getNVariableModifications() > 0) {
+        if (sitePeptides == null) {
+            sitePeptides = new ArrayList<>(0);
+        }
 
-                boolean modified = false;
+        return estimatePTMQuantificationDetails(
+                spectrumProvider,
+                quantificationFeaturesGenerator,
+                ratioEstimationSettings,
+                reporterIonQuantification,
+                sitePeptides,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Returns the quantification details of a PTM site from the peptides
+     * covering this site.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator used to store and retrieve quantification details
+     * @param ratioEstimationSettings the ratio estimation settings
+     * @param reporterIonQuantification the reporter quantification settings
+     * @param sitePeptides the valid peptides carrying the PTM on the site of
+     * interest
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing canceling the process
+     *
+     * @return the quantification details of the site
+     */
+    public static ProteinPtmQuantificationDetails estimatePTMQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            RatioEstimationSettings ratioEstimationSettings,
+            ReporterIonQuantification reporterIonQuantification,
+            ArrayList<PeptideMatch> sitePeptides,
+            WaitingHandler waitingHandler
+    ) {
 
-                for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
+        ProteinPtmQuantificationDetails result = new ProteinPtmQuantificationDetails();
+        Set<String> indexesSet = reporterIonQuantification.getSampleIndexes();
+        String[] indexes = indexesSet.toArray(new String[indexesSet.size()]);
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        ArrayList<ArrayList<Double>> ratios = new ArrayList<>(indexes.length);
 
-                    if (modificationMatch.getModification().equals(ptmName) && modificationMatch.getConfident()) {
+        for (int i = 0; i < indexes.length; i++) {
+            ratios.add(new ArrayList<>(sitePeptides.size()));
+        }
 
-                        String leadingAccession = proteinMatch.getLeadingAccession();
-                        int[] startIndexes = peptideMatch.getPeptide().getProteinMapping().get(leadingAccession);
+        for (PeptideMatch peptideMatch : sitePeptides) {
 
-                        for (int index : startIndexes) {
-                            if (index + modificationMatch.getSite() == site) {
-                                modified = true;
-                                break;
-                            }
-                        }
+            PeptideQuantificationDetails peptideQuantification = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(spectrumProvider, peptideMatch, waitingHandler);
+            double[] peptideRatios = peptideQuantification.getRatios(indexes, normalizationFactors);
 
-                    }
+            for (int i = 0; i < indexes.length; i++) {
 
-                    if (modified) {
-                        break;
-                    }
+                double ratio = peptideRatios[i];
 
+                if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio)) {
+                    ratios.get(i).add(ratio);
                 }
-
             }
 
-            if (QuantificationFilter.isPeptideValid(ratioEstimationSettings, identification, searchParameters, peptideMatch)) {
+        }
 
-                for (String index : indexes) {
+        for (int i = 0; i < indexes.length; i++) {
+            result.setRatio(indexes[i], RatioEstimator.estimateRatios(ratioEstimationSettings, ratios.get(i)));
+        }
 
-                    PeptideQuantificationDetails peptideQuantification = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(spectrumProvider, peptideMatch, waitingHandler);
-                    double ratio = peptideQuantification.getRatio(index, reporterIonQuantification.getNormalizationFactors());
-                    ArrayList<Double> channelRatios = ratios.get(index);
+        return result;
+    }
 
-                    if (channelRatios == null) {
-                        channelRatios = new ArrayList<>(proteinMatch.getPeptideCount());
-                        ratios.put(index, channelRatios);
-                    }
+    /**
+     * Returns the index of the modification sites of a protein: PTM name &gt;
+     * site on the leading protein sequence &gt; valid peptides carrying the
+     * PTM confidently on this site. The peptides of the protein are iterated
+     * only once for all PTMs.
+     *
+     * @param identification the identification containing identification
+     * details
+     * @param ratioEstimationSettings the ratio estimation settings
+     * @param searchParameters the identification settings used
+     * @param proteinMatch the protein match
+     * @param ptmNames the names of the PTMs to index
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing canceling the process
+     *
+     * @return the index of the modification sites of the protein
+     */
+    public static HashMap<String, TreeMap<Integer, ArrayList<PeptideMatch>>> getModificationSiteIndex(
+            Identification identification,
+            RatioEstimationSettings ratioEstimationSettings,
+            SearchParameters searchParameters,
+            ProteinMatch proteinMatch,
+            Collection<String> ptmNames,
+            WaitingHandler waitingHandler
+    ) {
 
-                    if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio)) {
-                        channelRatios.add(ratio);
-                    }
-                }
+        HashMap<String, TreeMap<Integer, ArrayList<PeptideMatch>>> siteIndex = new HashMap<>(ptmNames.size());
+        String leadingAccession = proteinMatch.getLeadingAccession();
 
-            }
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), waitingHandler);
+        PeptideMatch peptideMatch;
 
-        }
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
 
-        for (String index : indexes) {
-            ArrayList<Double> channelRatios = ratios.get(index);
-            result.setRatio(index, RatioEstimator.estimateRatios(ratioEstimationSettings, channelRatios));
+            Peptide peptide = peptideMatch.getPeptide();
+
+            if (peptide.getNVariableModifications() > 0
+                    && QuantificationFilter.isPeptideValid(ratioEstimationSettings, identification, searchParameters, peptideMatch)) {
+
+                int[] startIndexes = peptide.getProteinMapping().get(leadingAccession);
+
+                if (startIndexes != null) {
+
+                    for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
+
+                        String ptmName = modificationMatch.getModification();
+
+                        if (modificationMatch.getConfident() && ptmNames.contains(ptmName)) {
+
+                            TreeMap<Integer, ArrayList<PeptideMatch>> ptmSites = siteIndex.get(ptmName);
+
+                            if (ptmSites == null) {
+                                ptmSites = new TreeMap<>();
+                                siteIndex.put(ptmName, ptmSites);
+                            }
+
+                            for (int index : startIndexes) {
+
+                                int site = index + modificationMatch.getSite();
+                                ArrayList<PeptideMatch> sitePeptides = ptmSites.get(site);
+
+                                if (sitePeptides == null) {
+                                    sitePeptides = new ArrayList<>(1);
+                                    ptmSites.put(site, sitePeptides);
+                                }
+
+                                if (!sitePeptides.contains(peptideMatch)) {
+                                    sitePeptides.add(peptideMatch);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
         }
 
-        return result;
+        return siteIndex;
     }
 
     /**
@@ -398,100 +502,26 @@ public class Reporter {
 
         // find the spectra corresponding to this PSM according 
         // to the matching type selected by the user
-        ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<>(1); // @TODO: find a way of avoiding the creation of new SpectrumMatch objects?
         SpectrumMatch spectrumMatch = identification.getSpectrumMatch(matchKey);
-
-        // @TODO: should we check if the spectrum is an ms2 spectrum?
-        switch (reporterIonSelectionSettings.getReporterIonsLocation()) {
-
-            case ms2Spectra:
-
-                spectrumMatches.add(spectrumMatch);
-                break;
-
-            case ms3Spectra:
-
-                // find the corresponding ms3 spectra
-                ArrayList<String> postprecursorTitles = spectrumProvider.getPostcursorSpectrumTitles(
-                        spectrumMatch.getSpectrumFile(),
-                        spectrumMatch.getSpectrumTitle()
-                );  // add them to the list
-
-                if (postprecursorTitles != null) {
-
-                    for (String tempPostcursorSpectrumTitle : postprecursorTitles) {
-
-                        int postcursorSpectrumLevel = spectrumProvider.getSpectrumLevel(
-                                spectrumMatch.getSpectrumFile(),
-                                tempPostcursorSpectrumTitle
-                        );
-
-                        if (postcursorSpectrumLevel == 3) {
-
-                            spectrumMatches.add(
-                                    new SpectrumMatch(
-                                            spectrumMatch.getSpectrumFile(),
-                                            tempPostcursorSpectrumTitle
-                                    )
-                            );
-
-                        }
-
-                    }
-
-                }
-                break;
-
-            case precursorMatching:
-
-                String refFile = spectrumMatch.getSpectrumFile();
-                Precursor refPrecursor = spectrumProvider.getPrecursor(
-                        spectrumMatch.getSpectrumFile(),
-                        spectrumMatch.getSpectrumTitle()
-                );
-
-                // match spectra by mass and retention time
-                for (String spectrumTitle : spectrumProvider.getSpectrumTitles(refFile)) {
-
-                    Precursor precursor = spectrumProvider.getPrecursor(refFile, spectrumTitle);
-
-                    if (Math.abs(precursor.rt - refPrecursor.rt)
-                            <= reporterIonSelectionSettings.getPrecursorRTTolerance()) {
-
-                        if (reporterIonSelectionSettings.isPrecursorMzPpm()) {
-
-                            double error = (precursor.mz - refPrecursor.mz) / refPrecursor.mz * 1000000;
-
-                            if (Math.abs(error) <= reporterIonSelectionSettings.getPrecursorMzTolerance()) {
-                                spectrumMatches.add(new SpectrumMatch(refFile, spectrumTitle));
-                            }
-
-                        } else if (Math.abs(precursor.mz - refPrecursor.mz)
-                                <= reporterIonSelectionSettings.getPrecursorMzTolerance()) {
-                            spectrumMatches.add(new SpectrumMatch(refFile, spectrumTitle));
-                        }
-                    }
-
-                }
-
-                break;
-
-            default:
-                break;
-        }
+        int[] spectrumIndexes = getReporterSpectrumIndexes(
+                spectrumProvider,
+                quantificationFeaturesGenerator.getSpectrumRegistry(spectrumProvider),
+                reporterIonSelectionSettings,
+                spectrumMatch
+        );
 
         // compute spectrum level ratios
         Set<String> indexes = reporterIonQuantification.getSampleIndexes();
         HashMap<String, ArrayList<Double>> ratios = new HashMap<>();
 
-        for (SpectrumMatch tempSpectrumMatch : spectrumMatches) {
+        for (int spectrumIndex : spectrumIndexes) {
 
             SpectrumQuantificationDetails spectrumQuantification
                     = quantificationFeaturesGenerator.getSpectrumQuantificationDetails(
                             spectrumProvider,
                             reporterIonQuantification,
                             reporterIonSelectionSettings,
-                            tempSpectrumMatch
+                            spectrumIndex
                     );
 
             ArrayList<String> controlIndexes = reporterIonQuantification.getControlSamples();
@@ -542,7 +572,7 @@ public class Reporter {
                 ArrayList<Double> channelRatios = ratios.get(index);
 
                 if (channelRatios == null) {
-                    channelRatios = new ArrayList<Double>(spectrumMatches.size());
+                    channelRatios = new ArrayList<Double>(spectrumIndexes.length);
                     ratios.put(index, channelRatios);
                 }
 
@@ -561,6 +591,121 @@ public class Reporter {
 
     }
 
+    /**
+     * Returns the indexes of the spectra carrying the reporter ions of a PSM
+     * according to the reporter ion location selected by the user, see
+     * SpectrumRegistry.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumRegistry the registry of the spectra of the project
+     * @param reporterIonSelectionSettings the reporter ion selection settings
+     * @param spectrumMatch the spectrum match of interest
+     *
+     * @return the indexes of the spectra carrying the reporter ions
+     */
+    public static int[] getReporterSpectrumIndexes(
+            SpectrumProvider spectrumProvider,
+            SpectrumRegistry spectrumRegistry,
+            ReporterIonSelectionSettings reporterIonSelectionSettings,
+            SpectrumMatch spectrumMatch
+    ) {
+
+        IntStream.Builder spectrumIndexesBuilder = IntStream.builder();
+        int refIndex = spectrumRegistry.getIndex(
+                spectrumMatch.getSpectrumFile(),
+                spectrumMatch.getSpectrumTitle()
+        );
+
+        // @TODO: should we check if the spectrum is an ms2 spectrum?
+        switch (reporterIonSelectionSettings.getReporterIonsLocation()) {
+
+            case ms2Spectra:
+
+                if (refIndex != -1) {
+                    spectrumIndexesBuilder.add(refIndex);
+                }
+                break;
+
+            case ms3Spectra:
+
+                // find the corresponding ms3 spectra
+                ArrayList<String> postprecursorTitles = spectrumProvider.getPostcursorSpectrumTitles(
+                        spectrumMatch.getSpectrumFile(),
+                        spectrumMatch.getSpectrumTitle()
+                );  // add them to the list
+
+                if (postprecursorTitles != null) {
+
+                    for (String tempPostcursorSpectrumTitle : postprecursorTitles) {
+
+                        int postcursorSpectrumLevel = spectrumProvider.getSpectrumLevel(
+                                spectrumMatch.getSpectrumFile(),
+                                tempPostcursorSpectrumTitle
+                        );
+
+                        if (postcursorSpectrumLevel == 3) {
+
+                            int postcursorIndex = spectrumRegistry.getIndex(
+                                    spectrumMatch.getSpectrumFile(),
+                                    tempPostcursorSpectrumTitle
+                            );
+
+                            if (postcursorIndex != -1) {
+                                spectrumIndexesBuilder.add(postcursorIndex);
+                            }
+                        }
+
+                    }
+
+                }
+                break;
+
+            case precursorMatching:
+
+                String refFile = spectrumMatch.getSpectrumFile();
+                Precursor refPrecursor = spectrumProvider.getPrecursor(
+                        spectrumMatch.getSpectrumFile(),
+                        spectrumMatch.getSpectrumTitle()
+                );
+
+                // match spectra by mass and retention time
+                int fileStart = spectrumRegistry.getFileStart(refFile);
+                double[] precursorsMz = spectrumRegistry.getPrecursorMz(refFile);
+                double[] precursorsRt = spectrumRegistry.getPrecursorRt(refFile);
+
+                if (precursorsMz != null) {
+
+                    for (int i = 0; i < precursorsMz.length; i++) {
+
+                        if (Math.abs(precursorsRt[i] - refPrecursor.rt)
+                                <= reporterIonSelectionSettings.getPrecursorRTTolerance()) {
+
+                            if (reporterIonSelectionSettings.isPrecursorMzPpm()) {
+
+                                double error = (precursorsMz[i] - refPrecursor.mz) / refPrecursor.mz * 1000000;
+
+                                if (Math.abs(error) <= reporterIonSelectionSettings.getPrecursorMzTolerance()) {
+                                    spectrumIndexesBuilder.add(fileStart + i);
+                                }
+
+                            } else if (Math.abs(precursorsMz[i] - refPrecursor.mz)
+                                    <= reporterIonSelectionSettings.getPrecursorMzTolerance()) {
+                                spectrumIndexesBuilder.add(fileStart + i);
+                            }
+                        }
+                    }
+                }
+
+                break;
+
+            default:
+                break;
+        }
+
+        return spectrumIndexesBuilder.build().toArray();
+
+    }
+
     /**
      * Returns the quantification details of a spectrum.
      *
@@ -584,59 +729,109 @@ public class Reporter {
             SpectrumMatch aSpectrumMatch
     ) {
 
-        ReporterMethod reporterMethod = reporterIonQuantification.getReporterMethod();
-
         Spectrum spectrum = spectrumProvider.getSpectrum(
                 aSpectrumMatch.getSpectrumFile(),
                 aSpectrumMatch.getSpectrumTitle()
         );
 
-        SpectrumQuantificationDetails result = new SpectrumQuantificationDetails();
+        return estimateSpectrumQuantificationDetails(
+                new Spectrum[]{spectrum},
+                quantificationFeaturesGenerator,
+                reporterIonQuantification,
+                reporterIonSelectionSettings
+        )[0];
+    }
 
-        // get reporter intensities
-        Set<String> labels = reporterIonQuantification.getSampleIndexes();
-        HashMap<String, IonMatch> matchesMap = new HashMap<>(labels.size());
+    /**
+     * Returns the quantification details of a block of spectra. The isotopes
+     * of the spectra are deisotoped together, see Deisotoper.
+     *
+     * @param spectra the spectra
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator used to store and retrieve quantification details
+     * @param reporterIonQuantification the reporter ion quantification details
+     * @param reporterIonSelectionSettings the reporter ion selection settings
+     *
+     * @return the quantification details of the spectra in the same order
+     */
+    public static SpectrumQuantificationDetails[] estimateSpectrumQuantificationDetails(
+            Spectrum[] spectra,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterIonSelectionSettings reporterIonSelectionSettings
+    ) {
 
-        for (String ionName : labels) {
+        ReporterMethod reporterMethod = reporterIonQuantification.getReporterMethod();
+        ChannelTable channelTable = quantificationFeaturesGenerator.getChannelTable();
+        double mzTolerance = reporterIonSelectionSettings.getReporterIonsMzTolerance();
+        double mzOffset = reporterIonSelectionSettings.getReporterIonsMzOffset();
+        boolean mostAccurate = reporterIonSelectionSettings.isMostAccurate();
+        int nChannels = channelTable.size();
 
+        ReporterIon[] reporterIons = new ReporterIon[nChannels];
+
+        for (int channel = 0; channel < nChannels; channel++) {
+
+            String ionName = channelTable.getSampleIndex(channel);
             ReporterIon reporterIon = reporterMethod.getReporterIon(ionName);
 
-            IonMatch bestMatch = getBestReporterIonMatch(
-                    reporterIon,
-                    1,
-                    spectrum,
-                    reporterIonSelectionSettings.getReporterIonsMzTolerance(),
-                    reporterIonSelectionSettings.isMostAccurate()
-            );
-
-            if (bestMatch != null) {
-                result.setReporterMatch(ionName, bestMatch);
-                matchesMap.put(ionName, bestMatch);
+            if (mzOffset != 0.0) {
+                reporterIon = new ReporterIon(ionName, reporterIon.getTheoreticMass() + mzOffset, false);
+            }
+
+            reporterIons[channel] = reporterIon;
+
+        }
+
+        // get reporter intensities
+        SpectrumQuantificationDetails[] result = new SpectrumQuantificationDetails[spectra.length];
+        boolean[] found = new boolean[spectra.length * nChannels];
+
+        for (int i = 0; i < spectra.length; i++) {
+
+            result[i] = new SpectrumQuantificationDetails(channelTable);
+
+            for (int channel = 0; channel < nChannels; channel++) {
+
+                IonMatch bestMatch = getBestReporterIonMatch(
+                        reporterIons[channel],
+                        1,
+                        spectra[i],
+                        mzTolerance,
+                        mostAccurate
+                );
+
+                if (bestMatch != null) {
+                    result[i].setReporterMatch(channelTable.getSampleIndex(channel), bestMatch);
+                    found[i * nChannels + channel] = bestMatch.peakIntensity > 0;
+                }
             }
         }
 
         // get deisotoped intensities
         Deisotoper deisotoper = quantificationFeaturesGenerator.getDeisotoper(
                 reporterMethod,
-                reporterIonSelectionSettings.getReporterIonsMzTolerance()
+                mzTolerance
         );
 
-        HashMap<String, Double> deisotoped = deisotoper.deisotope(
-                matchesMap,
-                spectrum,
-                reporterIonSelectionSettings.getReporterIonsMzTolerance(),
-                reporterIonSelectionSettings.isMostAccurate()
+        HashMap<String, double[]> deisotoped = deisotoper.deisotope(
+                spectra,
+                mzTolerance,
+                mzOffset,
+                mostAccurate
         );
 
-        for (String index : reporterIonQuantification.getSampleIndexes()) {
+        for (int channel = 0; channel < nChannels; channel++) {
 
-            Double intensity = deisotoped.get(index);
+            String index = channelTable.getSampleIndex(channel);
+            double[] intensities = deisotoped.get(index);
 
-            if (intensity == null || intensity < 0) {
-                intensity = 0.0;
-            }
+            for (int i = 0; i < spectra.length; i++) {
 
-            result.setDeisotopedIntensity(index, intensity);
+                double intensity = intensities != null && found[i * nChannels + channel] ? intensities[i] : 0.0;
+                result[i].setDeisotopedIntensity(index, intensity);
+
+            }
         }
 
         return result;
@@ -0,0 +1,599 @@
+package eu.isas.reporter.calculation;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+
+/**
+ * The capacity plan of a project: the metrics of the project, the estimated
+ * heap, disk and time needed per quantification stage, and the strategies
+ * selected to process the project with the resources available. See
+ * CapacityPlanner.
+ *
+ * @author Marc Vaudel
+ */
+public class CapacityPlan {
+
+    /**
+     * The quantification stages, in the order they are run.
+     */
+    public static final QuantificationLevel[] STAGES = {
+        QuantificationLevel.spectrum,
+        QuantificationLevel.psm,
+        QuantificationLevel.peptide,
+        QuantificationLevel.protein
+    };
+    /**
+     * The number of spectrum files.
+     */
+    private int nSpectrumFiles = 0;
+    /**
+     * The total size of the spectrum files in bytes.
+     */
+    private long spectrumFilesSize = 0;
+    /**
+     * The number of spectra.
+     */
+    private int nSpectra = 0;
+    /**
+     * The number of PSMs.
+     */
+    private int nPsms = 0;
+    /**
+     * The number of peptides.
+     */
+    private int nPeptides = 0;
+    /**
+     * The number of proteins.
+     */
+    private int nProteins = 0;
+    /**
+     * The number of channels.
+     */
+    private int nChannels = 0;
+    /**
+     * The heap available for the quantification in bytes.
+     */
+    private long availableHeap = 0;
+    /**
+     * The disk space available in the matches folder in bytes.
+     */
+    private long availableDisk = 0;
+    /**
+     * The estimated heap in use at the end of every stage in bytes.
+     */
+    private final EnumMap<QuantificationLevel, Long> heap = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * The estimated disk space needed by every stage in bytes if the details
+     * are spilled.
+     */
+    private final EnumMap<QuantificationLevel, Long> disk = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * The estimated time needed by every stage in milliseconds.
+     */
+    private final EnumMap<QuantificationLevel, Long> time = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * Boolean indicating whether the quantification details are expected to
+     * fit in memory.
+     */
+    private boolean fitsInMemory = true;
+    /**
+     * The share of the heap the quantification features cache can use.
+     */
+    private double memoryShare = QuantificationFeaturesCache.DEFAULT_MEMORY_SHARE;
+    /**
+     * Boolean indicating whether the details evicted from the cache are
+     * spilled to disk.
+     */
+    private boolean spill = true;
+    /**
+     * The maximal share of the matches sampled by the normalization preview.
+     */
+    private double previewSamplingFraction = 1.0;
+    /**
+     * The number of threads to use.
+     */
+    private int nThreads = 1;
+    /**
+     * The warnings raised while planning.
+     */
+    private final ArrayList<String> warnings = new ArrayList<>(0);
+
+    /**
+     * Constructor.
+     */
+    public CapacityPlan() {
+    }
+
+    /**
+     * Returns the number of spectrum files.
+     *
+     * @return the number of spectrum files
+     */
+    public int getnSpectrumFiles() {
+        return nSpectrumFiles;
+    }
+
+    /**
+     * Sets the number of spectrum files.
+     *
+     * @param nSpectrumFiles the number of spectrum files
+     */
+    public void setnSpectrumFiles(int nSpectrumFiles) {
+        this.nSpectrumFiles = nSpectrumFiles;
+    }
+
+    /**
+     * Returns the total size of the spectrum files in bytes.
+     *
+     * @return the total size of the spectrum files in bytes
+     */
+    public long getSpectrumFilesSize() {
+        return spectrumFilesSize;
+    }
+
+    /**
+     * Sets the total size of the spectrum files in bytes.
+     *
+     * @param spectrumFilesSize the total size of the spectrum files in bytes
+     */
+    public void setSpectrumFilesSize(long spectrumFilesSize) {
+        this.spectrumFilesSize = spectrumFilesSize;
+    }
+
+    /**
+     * Returns the number of spectra.
+     *
+     * @return the number of spectra
+     */
+    public int getnSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Sets the number of spectra.
+     *
+     * @param nSpectra the number of spectra
+     */
+    public void setnSpectra(int nSpectra) {
+        this.nSpectra = nSpectra;
+    }
+
+    /**
+     * Returns the number of PSMs.
+     *
+     * @return the number of PSMs
+     */
+    public int getnPsms() {
+        return nPsms;
+    }
+
+    /**
+     * Sets the number of PSMs.
+     *
+     * @param nPsms the number of PSMs
+     */
+    public void setnPsms(int nPsms) {
+        this.nPsms = nPsms;
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return the number of peptides
+     */
+    public int getnPeptides() {
+        return nPeptides;
+    }
+
+    /**
+     * Sets the number of peptides.
+     *
+     * @param nPeptides the number of peptides
+     */
+    public void setnPeptides(int nPeptides) {
+        this.nPeptides = nPeptides;
+    }
+
+    /**
+     * Returns the number of proteins.
+     *
+     * @return the number of proteins
+     */
+    public int getnProteins() {
+        return nProteins;
+    }
+
+    /**
+     * Sets the number of proteins.
+     *
+     * @param nProteins the number of proteins
+     */
+    public void setnProteins(int nProteins) {
+        this.nProteins = nProteins;
+    }
+
+    /**
+     * Returns the number of channels.
+     *
+     * @return the number of channels
+     */
+    public int getnChannels() {
+        return nChannels;
+    }
+
+    /**
+     * Sets the number of channels.
+     *
+     * @param nChannels the number of channels
+     */
+    public void setnChannels(int nChannels) {
+        this.nChannels = nChannels;
+    }
+
+    /**
+     * Returns the heap available for the quantification in bytes.
+     *
+     * @return the heap available for the quantification in bytes
+     */
+    public long getAvailableHeap() {
+        return availableHeap;
+    }
+
+    /**
+     * Sets the heap available for the quantification in bytes.
+     *
+     * @param availableHeap the heap available for the quantification in
+     * bytes
+     */
+    public void setAvailableHeap(long availableHeap) {
+        this.availableHeap = availableHeap;
+    }
+
+    /**
+     * Returns the disk space available in the matches folder in bytes.
+     *
+     * @return the disk space available in the matches folder in bytes
+     */
+    public long getAvailableDisk() {
+        return availableDisk;
+    }
+
+    /**
+     * Sets the disk space available in the matches folder in bytes.
+     *
+     * @param availableDisk the disk space available in the matches folder in
+     * bytes
+     */
+    public void setAvailableDisk(long availableDisk) {
+        this.availableDisk = availableDisk;
+    }
+
+    /**
+     * Returns the estimated heap in use at the end of the given stage in
+     * bytes.
+     *
+     * @param stage the stage
+     *
+     * @return the estimated heap in use at the end of the given stage
+     */
+    public long getHeap(QuantificationLevel stage) {
+        return heap.getOrDefault(stage, 0L);
+    }
+
+    /**
+     * Sets the estimated heap in use at the end of the given stage in bytes.
+     *
+     * @param stage the stage
+     * @param bytes the estimated heap in use at the end of the stage
+     */
+    public void setHeap(QuantificationLevel stage, long bytes) {
+        heap.put(stage, bytes);
+    }
+
+    /**
+     * Returns the estimated peak heap in use over all stages in bytes.
+     *
+     * @return the estimated peak heap in use over all stages
+     */
+    public long getPeakHeap() {
+        return heap.values().stream()
+                .mapToLong(Long::longValue)
+                .max()
+                .orElse(0L);
+    }
+
+    /**
+     * Returns the estimated disk space needed by the given stage in bytes if
+     * the details are spilled.
+     *
+     * @param stage the stage
+     *
+     * @return the estimated disk space needed by the given stage
+     */
+    public long getDisk(QuantificationLevel stage) {
+        return disk.getOrDefault(stage, 0L);
+    }
+
+    /**
+     * Sets the estimated disk space needed by the given stage in bytes if the
+     * details are spilled.
+     *
+     * @param stage the stage
+     * @param bytes the estimated disk space needed by the stage
+     */
+    public void setDisk(QuantificationLevel stage, long bytes) {
+        disk.put(stage, bytes);
+    }
+
+    /**
+     * Returns the estimated disk space needed by all stages in bytes if the
+     * details are spilled.
+     *
+     * @return the estimated disk space needed by all stages
+     */
+    public long getTotalDisk() {
+        return disk.values().stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    /**
+     * Returns the estimated time needed by the given stage in milliseconds.
+     *
+     * @param stage the stage
+     *
+     * @return the estimated time needed by the given stage
+     */
+    public long getTime(QuantificationLevel stage) {
+        return time.getOrDefault(stage, 0L);
+    }
+
+    /**
+     * Sets the estimated time needed by the given stage in milliseconds.
+     *
+     * @param stage the stage
+     * @param millis the estimated time needed by the stage
+     */
+    public void setTime(QuantificationLevel stage, long millis) {
+        time.put(stage, millis);
+    }
+
+    /**
+     * Returns the estimated time needed by all stages in milliseconds.
+     *
+     * @return the estimated time needed by all stages
+     */
+    public long getTotalTime() {
+        return time.values().stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    /**
+     * Indicates whether the quantification details are expected to fit in
+     * memory.
+     *
+     * @return a boolean indicating whether the quantification details are
+     * expected to fit in memory
+     */
+    public boolean fitsInMemory() {
+        return fitsInMemory;
+    }
+
+    /**
+     * Sets whether the quantification details are expected to fit in memory.
+     *
+     * @param fitsInMemory a boolean indicating whether the quantification
+     * details are expected to fit in memory
+     */
+    public void setFitsInMemory(boolean fitsInMemory) {
+        this.fitsInMemory = fitsInMemory;
+    }
+
+    /**
+     * Returns the share of the heap the quantification features cache can
+     * use.
+     *
+     * @return the share of the heap the quantification features cache can use
+     */
+    public double getMemoryShare() {
+        return memoryShare;
+    }
+
+    /**
+     * Sets the share of the heap the quantification features cache can use.
+     *
+     * @param memoryShare the share of the heap the quantification features
+     * cache can use
+     */
+    public void setMemoryShare(double memoryShare) {
+        this.memoryShare = memoryShare;
+    }
+
+    /**
+     * Indicates whether the details evicted from the cache are spilled to
+     * disk.
+     *
+     * @return a boolean indicating whether the details evicted from the cache
+     * are spilled to disk
+     */
+    public boolean isSpill() {
+        return spill;
+    }
+
+    /**
+     * Sets whether the details evicted from the cache are spilled to disk.
+     *
+     * @param spill a boolean indicating whether the details evicted from the
+     * cache are spilled to disk
+     */
+    public void setSpill(boolean spill) {
+        this.spill = spill;
+    }
+
+    /**
+     * Returns the maximal share of the matches sampled by the normalization
+     * preview.
+     *
+     * @return the maximal share of the matches sampled by the normalization
+     * preview
+     */
+    public double getPreviewSamplingFraction() {
+        return previewSamplingFraction;
+    }
+
+    /**
+     * Sets the maximal share of the matches sampled by the normalization
+     * preview.
+     *
+     * @param previewSamplingFraction the maximal share of the matches sampled
+     * by the normalization preview
+     */
+    public void setPreviewSamplingFraction(double previewSamplingFraction) {
+        this.previewSamplingFraction = previewSamplingFraction;
+    }
+
+    /**
+     * Returns the number of threads to use.
+     *
+     * @return the number of threads to use
+     */
+    public int getnThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Sets the number of threads to use.
+     *
+     * @param nThreads the number of threads to use
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Returns the warnings raised while planning.
+     *
+     * @return the warnings raised while planning
+     */
+    public ArrayList<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Adds a warning.
+     *
+     * @param warning the warning
+     */
+    public void addWarning(String warning) {
+        warnings.add(warning);
+    }
+
+    /**
+     * Indicates whether warnings were raised while planning.
+     *
+     * @return a boolean indicating whether warnings were raised while
+     * planning
+     */
+    public boolean hasWarnings() {
+        return !warnings.isEmpty();
+    }
+
+    /**
+     * Returns the plan as text.
+     *
+     * @return the plan as text
+     */
+    public String getReport() {
+
+        String lineBreak = System.getProperty("line.separator");
+        StringBuilder report = new StringBuilder();
+
+        report.append("Project: ")
+                .append(nSpectrumFiles).append(" spectrum files (").append(getMegaBytes(spectrumFilesSize)).append(" MB), ")
+                .append(nSpectra).append(" spectra, ")
+                .append(nPsms).append(" PSMs, ")
+                .append(nPeptides).append(" peptides, ")
+                .append(nProteins).append(" proteins, ")
+                .append(nChannels).append(" channels.")
+                .append(lineBreak);
+
+        report.append("Resources: ")
+                .append(getMegaBytes(availableHeap)).append(" MB of heap, ")
+                .append(getMegaBytes(availableDisk)).append(" MB of disk available.")
+                .append(lineBreak);
+
+        for (QuantificationLevel stage : STAGES) {
+
+            report.append(stage.name).append(" quantification: ")
+                    .append(getMegaBytes(getHeap(stage))).append(" MB of heap, ")
+                    .append(getMegaBytes(getDisk(stage))).append(" MB of disk if spilled, ")
+                    .append(getDuration(getTime(stage))).append(".")
+                    .append(lineBreak);
+
+        }
+
+        report.append("Total: ")
+                .append(getMegaBytes(getPeakHeap())).append(" MB of heap at peak, ")
+                .append(getMegaBytes(getTotalDisk())).append(" MB of disk if spilled, ")
+                .append(getDuration(getTotalTime())).append(".")
+                .append(lineBreak);
+
+        report.append("Strategy: ")
+                .append(fitsInMemory ? "details kept in memory" : "cache limited to " + Math.round(100 * memoryShare) + "% of the heap")
+                .append(", ")
+                .append(spill ? "spill to disk enabled" : "spill to disk disabled")
+                .append(", normalization preview on up to ").append(Math.round(100 * previewSamplingFraction)).append("% of the matches")
+                .append(", ").append(nThreads).append(nThreads == 1 ? " thread." : " threads.");
+
+        for (String warning : warnings) {
+
+            report.append(lineBreak)
+                    .append("Warning: ").append(warning);
+
+        }
+
+        return report.toString();
+
+    }
+
+    /**
+     * Returns the given number of bytes in MB, rounded to the unit.
+     *
+     * @param bytes the number of bytes
+     *
+     * @return the given number of bytes in MB
+     */
+    public static long getMegaBytes(
+            long bytes
+    ) {
+        return Math.round(bytes / 1048576.0);
+    }
+
+    /**
+     * Returns the given duration as text in seconds, minutes or hours.
+     *
+     * @param millis the duration in milliseconds
+     *
+     * @return the given duration as text
+     */
+    private static String getDuration(
+            long millis
+    ) {
+
+        if (millis < 1000) {
+            return "< 1 s";
+        }
+
+        if (millis < 60000) {
+            return Math.round(millis / 1000.0) + " s";
+        }
+
+        if (millis < 3600000) {
+            return Math.round(millis / 60000.0) + " min";
+        }
+
+        return Math.round(millis / 360000.0) / 10.0 + " h";
+
+    }
+}
@@ -0,0 +1,500 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import eu.isas.reporter.Reporter;
+import eu.isas.reporter.calculation.normalization.NormalizationPreview;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Plans the resources needed to quantify a project before the run. The
+ * metrics of the project are read from the identification, the spectrum
+ * provider and the reporter ion quantification, and the heap, disk and time
+ * needed are estimated per quantification stage. The heap is estimated from
+ * the memory layout of the quantification details, the time from the loading
+ * of a sample of matches and spectra timed on the project. The estimates are
+ * orders of magnitude meant to select the strategies: the share of the heap
+ * used by the cache, whether details are spilled to disk, the share of the
+ * matches sampled by the normalization preview, and the number of threads.
+ *
+ * @author Marc Vaudel
+ */
+public class CapacityPlanner {
+
+    /**
+     * The share of the available heap the quantification details can use
+     * and still be considered to fit in memory. The rest is left to the
+     * identification, the spectra and the garbage collector.
+     */
+    public static final double HEAP_HEADROOM = 0.7;
+    /**
+     * The share of the heap used by the cache when the details do not fit in
+     * memory. Evicting earlier than by default leaves room to the garbage
+     * collector.
+     */
+    public static final double LOW_MEMORY_SHARE = 0.9;
+    /**
+     * The share of the usable disk space the spill can use.
+     */
+    public static final double DISK_HEADROOM = 0.9;
+    /**
+     * The time the normalization preview should take at most in
+     * milliseconds.
+     */
+    public static final long PREVIEW_TIME_BUDGET = 60000;
+    /**
+     * The number of PSMs and spectra loaded to time the loading of matches.
+     */
+    public static final int CALIBRATION_SIZE = 50;
+    /**
+     * The approximate time needed to estimate a ratio in nanoseconds.
+     */
+    private static final long RATIO_NANOS = 1000;
+    /**
+     * The size of an object header in bytes.
+     */
+    private static final int HEADER = 16;
+    /**
+     * The size of a map entry in bytes, including the boxed key.
+     */
+    private static final int MAP_ENTRY = 48;
+    /**
+     * The heap used by the spectrum registry per spectrum in bytes: the title
+     * index entry, the title reference and the precursor m/z and retention
+     * time. The titles themselves are held by the spectrum provider.
+     */
+    private static final int REGISTRY_BYTES_PER_SPECTRUM = 80;
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The reporter ion quantification.
+     */
+    private final ReporterIonQuantification reporterIonQuantification;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param spectrumProvider the spectrum provider
+     * @param reporterIonQuantification the reporter ion quantification
+     */
+    public CapacityPlanner(
+            Identification identification,
+            SpectrumProvider spectrumProvider,
+            ReporterIonQuantification reporterIonQuantification
+    ) {
+
+        this.identification = identification;
+        this.spectrumProvider = spectrumProvider;
+        this.reporterIonQuantification = reporterIonQuantification;
+
+    }
+
+    /**
+     * Plans the quantification of the project.
+     *
+     * @param processingParameters the processing parameters
+     *
+     * @return the capacity plan
+     */
+    public CapacityPlan plan(
+            ProcessingParameters processingParameters
+    ) {
+
+        CapacityPlan plan = new CapacityPlan();
+
+        setMetrics(plan);
+        setResources(plan);
+
+        int nThreads = Math.max(1, Math.min(processingParameters.getnThreads(), Runtime.getRuntime().availableProcessors()));
+
+        if (nThreads < processingParameters.getnThreads()) {
+            plan.addWarning(processingParameters.getnThreads() + " threads requested, limited to the " + nThreads + " cores available.");
+        }
+
+        plan.setnThreads(nThreads);
+
+        setHeap(plan);
+        setDisk(plan);
+        setTime(plan);
+        setStrategies(plan);
+
+        return plan;
+
+    }
+
+    /**
+     * Applies the strategies of the given plan to the processing parameters
+     * and to the cache. The spill of the cache is closed and removed if the
+     * plan disables it.
+     *
+     * @param plan the capacity plan
+     * @param processingParameters the processing parameters
+     * @param quantificationFeaturesCache the quantification features cache
+     */
+    public static void apply(
+            CapacityPlan plan,
+            ProcessingParameters processingParameters,
+            QuantificationFeaturesCache quantificationFeaturesCache
+    ) {
+
+        processingParameters.setnThreads(plan.getnThreads());
+        quantificationFeaturesCache.setMemoryShare(plan.getMemoryShare());
+
+        if (!plan.isSpill() && quantificationFeaturesCache.getSpill() != null) {
+
+            quantificationFeaturesCache.getSpill().close();
+            quantificationFeaturesCache.setSpill(null);
+
+        }
+    }
+
+    /**
+     * Sets the metrics of the project.
+     *
+     * @param plan the plan to complete
+     */
+    private void setMetrics(
+            CapacityPlan plan
+    ) {
+
+        String[] spectrumFiles = spectrumProvider.getOrderedFileNamesWithoutExtensions();
+        plan.setnSpectrumFiles(spectrumFiles.length);
+
+        int nSpectra = 0;
+
+        for (String spectrumFile : spectrumFiles) {
+            nSpectra += spectrumProvider.getSpectrumTitles(spectrumFile).length;
+        }
+
+        plan.setnSpectra(nSpectra);
+
+        long spectrumFilesSize = 0;
+
+        for (String filePath : spectrumProvider.getFilePaths().values()) {
+
+            File file = new File(filePath);
+
+            if (file.exists()) {
+                spectrumFilesSize += file.length();
+            }
+        }
+
+        plan.setSpectrumFilesSize(spectrumFilesSize);
+        plan.setnPsms(identification.getSpectrumIdentificationSize());
+        plan.setnPeptides(identification.getPeptideIdentification().size());
+        plan.setnProteins(identification.getProteinIdentification().size());
+        plan.setnChannels(reporterIonQuantification.getSampleIndexes().size());
+
+    }
+
+    /**
+     * Sets the heap and disk available.
+     *
+     * @param plan the plan to complete
+     */
+    private static void setResources(
+            CapacityPlan plan
+    ) {
+
+        Runtime runtime = Runtime.getRuntime();
+        plan.setAvailableHeap(runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()));
+
+        File matchesFolder = Reporter.getMatchesFolder();
+
+        while (matchesFolder != null && !matchesFolder.exists()) {
+            matchesFolder = matchesFolder.getParentFile();
+        }
+
+        plan.setAvailableDisk(matchesFolder == null ? 0 : matchesFolder.getUsableSpace());
+
+    }
+
+    /**
+     * Estimates the heap in use at the end of every stage. The spectrum and
+     * PSM details are released after the peptide stage.
+     *
+     * @param plan the plan to complete
+     */
+    private static void setHeap(
+            CapacityPlan plan
+    ) {
+
+        int nChannels = plan.getnChannels();
+        int referenceSize = getReferenceSize();
+        long registry = ((long) plan.getnSpectra()) * (REGISTRY_BYTES_PER_SPECTRUM + referenceSize);
+        long spectra = ((long) plan.getnPsms()) * (HEADER + 5 * referenceSize + 3 * Long.BYTES + 4 * getArraySize(nChannels))
+                + ((long) plan.getnSpectra()) * referenceSize;
+        long psms = ((long) plan.getnPsms()) * (HEADER + referenceSize + getMapSize(nChannels, referenceSize))
+                + ((long) plan.getnSpectra()) * referenceSize;
+        long peptides = ((long) plan.getnPeptides()) * (MAP_ENTRY + HEADER + referenceSize + getMapSize(nChannels, referenceSize));
+        long proteins = ((long) plan.getnProteins()) * (MAP_ENTRY + HEADER + 4 * referenceSize + 3 * Long.BYTES + 3 * getArraySize(nChannels));
+
+        plan.setHeap(QuantificationLevel.spectrum, registry + spectra);
+        plan.setHeap(QuantificationLevel.psm, registry + spectra + psms);
+        plan.setHeap(QuantificationLevel.peptide, registry + spectra + psms + peptides);
+        plan.setHeap(QuantificationLevel.protein, registry + peptides + proteins);
+
+    }
+
+    /**
+     * Estimates the disk space needed to spill the details of every stage.
+     * The spectrum details are not spilled. The file is mapped by segments,
+     * the estimate is rounded up to the next segment.
+     *
+     * @param plan the plan to complete
+     */
+    private static void setDisk(
+            CapacityPlan plan
+    ) {
+
+        long setSize = Long.BYTES + ((long) plan.getnChannels()) * Double.BYTES;
+
+        plan.setDisk(QuantificationLevel.spectrum, 0);
+        plan.setDisk(QuantificationLevel.psm, getSegments(plan.getnPsms() * setSize));
+        plan.setDisk(QuantificationLevel.peptide, getSegments(plan.getnPeptides() * setSize));
+        plan.setDisk(QuantificationLevel.protein, getSegments(plan.getnProteins() * 3 * setSize));
+
+    }
+
+    /**
+     * Estimates the time needed by every stage from the time needed to load
+     * a sample of matches and spectra. The spectrum files are processed one
+     * per thread, the other stages use all threads.
+     *
+     * @param plan the plan to complete
+     */
+    private void setTime(
+            CapacityPlan plan
+    ) {
+
+        long matchNanos = 0;
+        long spectrumNanos = 0;
+        int nSampled = 0;
+
+        Iterator<HashSet<Long>> fileIterator = identification.getSpectrumIdentification().values().iterator();
+
+        while (fileIterator.hasNext() && nSampled < CALIBRATION_SIZE) {
+
+            Iterator<Long> keyIterator = fileIterator.next().iterator();
+
+            while (keyIterator.hasNext() && nSampled < CALIBRATION_SIZE) {
+
+                long start = System.nanoTime();
+                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(keyIterator.next());
+                long loaded = System.nanoTime();
+                spectrumProvider.getSpectrum(spectrumMatch.getSpectrumFile(), spectrumMatch.getSpectrumTitle());
+                long read = System.nanoTime();
+
+                matchNanos += loaded - start;
+                spectrumNanos += read - loaded;
+                nSampled++;
+
+            }
+        }
+
+        if (nSampled > 0) {
+
+            matchNanos /= nSampled;
+            spectrumNanos /= nSampled;
+
+        }
+
+        int nChannels = plan.getnChannels();
+        int nThreads = plan.getnThreads();
+        int nSpectrumThreads = Math.max(1, Math.min(nThreads, plan.getnSpectrumFiles()));
+
+        plan.setTime(QuantificationLevel.spectrum, getMillis(plan.getnPsms() * (matchNanos + spectrumNanos + nChannels * RATIO_NANOS), nSpectrumThreads));
+        plan.setTime(QuantificationLevel.psm, getMillis(plan.getnPsms() * (matchNanos + nChannels * RATIO_NANOS), nThreads));
+        plan.setTime(QuantificationLevel.peptide, getMillis(plan.getnPeptides() * matchNanos + ((long) plan.getnPsms()) * nChannels * RATIO_NANOS, nThreads));
+        plan.setTime(QuantificationLevel.protein, getMillis(plan.getnProteins() * matchNanos + ((long) plan.getnPeptides()) * nChannels * RATIO_NANOS, nThreads));
+
+        plan.setPreviewSamplingFraction(getPreviewSamplingFraction(plan, matchNanos));
+
+    }
+
+    /**
+     * Selects the share of the heap used by the cache and whether details are
+     * spilled to disk.
+     *
+     * @param plan the plan to complete
+     */
+    private static void setStrategies(
+            CapacityPlan plan
+    ) {
+
+        long peakHeap = plan.getPeakHeap();
+        boolean fitsInMemory = peakHeap <= HEAP_HEADROOM * plan.getAvailableHeap();
+        plan.setFitsInMemory(fitsInMemory);
+
+        if (fitsInMemory) {
+
+            plan.setMemoryShare(QuantificationFeaturesCache.DEFAULT_MEMORY_SHARE);
+            plan.setSpill(true);
+
+        } else {
+
+            plan.setMemoryShare(LOW_MEMORY_SHARE);
+
+            long requiredMemory = Runtime.getRuntime().maxMemory() - plan.getAvailableHeap() + (long) (peakHeap / HEAP_HEADROOM);
+            plan.addWarning("The quantification details are estimated to need " + CapacityPlan.getMegaBytes(peakHeap)
+                    + " MB of heap, more than available. Details will be evicted from the cache and the quantification will be slower."
+                    + " Increase the memory setting to at least " + 1000 * (CapacityPlan.getMegaBytes(requiredMemory) / 1000 + 1) + " MB to keep them in memory.");
+
+            boolean diskOk = plan.getTotalDisk() <= DISK_HEADROOM * plan.getAvailableDisk();
+            plan.setSpill(diskOk);
+
+            if (!diskOk) {
+
+                plan.addWarning("Not enough disk space in " + Reporter.getMatchesFolder().getAbsolutePath() + " to spill the details ("
+                        + CapacityPlan.getMegaBytes(plan.getTotalDisk()) + " MB needed). Evicted details will be computed again when needed.");
+
+            }
+
+            plan.setPreviewSamplingFraction(
+                    Math.min(plan.getPreviewSamplingFraction(), getPreviewSamplingFraction(plan.getTotalTime(), plan.getnPsms() + plan.getnPeptides() + plan.getnProteins()))
+            );
+        }
+    }
+
+    /**
+     * Returns the largest sampling fraction of the normalization preview
+     * expected to complete within the time budget when the details are in
+     * memory.
+     *
+     * @param plan the plan
+     * @param matchNanos the time needed to load a match in nanoseconds
+     *
+     * @return the largest sampling fraction of the normalization preview
+     */
+    private static double getPreviewSamplingFraction(
+            CapacityPlan plan,
+            long matchNanos
+    ) {
+
+        int nMatches = plan.getnPsms() + plan.getnPeptides() + plan.getnProteins();
+
+        return getPreviewSamplingFraction(getMillis(nMatches * matchNanos, 1), nMatches);
+
+    }
+
+    /**
+     * Returns the largest sampling fraction of the normalization preview
+     * expected to complete within the time budget given the time needed to
+     * sample all matches.
+     *
+     * @param fullSamplingTime the time needed to sample all matches in
+     * milliseconds
+     * @param nMatches the number of matches
+     *
+     * @return the largest sampling fraction of the normalization preview
+     */
+    private static double getPreviewSamplingFraction(
+            long fullSamplingTime,
+            int nMatches
+    ) {
+
+        double[] fractions = NormalizationPreview.SAMPLING_FRACTIONS;
+        double result = fractions[0];
+
+        for (double fraction : fractions) {
+
+            double sampledFraction = nMatches == 0 ? fraction : Math.max(fraction, Math.min(1.0, ((double) NormalizationPreview.MIN_SAMPLE_SIZE) / nMatches));
+
+            if (sampledFraction * fullSamplingTime <= PREVIEW_TIME_BUDGET) {
+                result = fraction;
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the size of a reference in bytes. References are compressed
+     * below 32 GB of heap.
+     *
+     * @return the size of a reference in bytes
+     */
+    private static int getReferenceSize() {
+        return Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024 ? 4 : 8;
+    }
+
+    /**
+     * Returns the size of an array of doubles in bytes.
+     *
+     * @param length the length of the array
+     *
+     * @return the size of an array of doubles in bytes
+     */
+    private static long getArraySize(
+            int length
+    ) {
+        return HEADER + ((long) length) * Double.BYTES;
+    }
+
+    /**
+     * Returns the size of a hash map of boxed doubles in bytes, the keys
+     * being shared.
+     *
+     * @param size the number of entries
+     * @param referenceSize the size of a reference in bytes
+     *
+     * @return the size of a hash map of boxed doubles in bytes
+     */
+    private static long getMapSize(
+            int size,
+            int referenceSize
+    ) {
+
+        int capacity = Integer.highestOneBit(((int) (size / 0.75f) + 1) * 2 - 1);
+
+        return 3 * HEADER + ((long) referenceSize) * capacity + ((long) size) * MAP_ENTRY;
+
+    }
+
+    /**
+     * Returns the given number of bytes rounded up to the next segment of the
+     * spill file.
+     *
+     * @param bytes the number of bytes
+     *
+     * @return the given number of bytes rounded up to the next segment
+     */
+    private static long getSegments(
+            long bytes
+    ) {
+
+        long segmentSize = QuantificationFeaturesSpill.SEGMENT_SIZE;
+
+        return ((bytes + segmentSize - 1) / segmentSize) * segmentSize;
+
+    }
+
+    /**
+     * Returns the wall time in milliseconds needed to process the given
+     * amount of work on the given number of threads.
+     *
+     * @param nanos the amount of work in nanoseconds
+     * @param nThreads the number of threads
+     *
+     * @return the wall time in milliseconds
+     */
+    private static long getMillis(
+            long nanos,
+            int nThreads
+    ) {
+        return nanos / nThreads / 1000000;
+    }
+}
@@ -1,14 +1,14 @@
 package eu.isas.reporter.calculation;
 
 import com.compomics.util.experiment.biology.atoms.Atom;
-import com.compomics.util.experiment.biology.ions.impl.ReporterIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.experiment.quantification.reporterion.Reagent;
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
-import eu.isas.reporter.Reporter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import org.ujmp.core.doublematrix.calculation.general.decomposition.Ginv;
 
 /**
@@ -20,9 +20,14 @@ import org.ujmp.core.doublematrix.calculation.general.decomposition.Ginv;
 public class Deisotoper {
 
     /**
-     * The correction matrix corresponding to every label.
+     * The deisotoping kernel corresponding to every label.
      */
-    private HashMap<String, CorrectionMatrix> correctionMatrices;
+    private HashMap<String, DeisotopingKernel> deisotopingKernels;
+    /**
+     * The deisotoping kernels of the reporter method, one per correction
+     * matrix.
+     */
+    private DeisotopingKernel[] kernels;
     /**
      * The reporter method used.
      */
@@ -47,7 +52,7 @@ public class Deisotoper {
      */
     private void estimateCorrectionFactors(double tolerance) {
 
-        correctionMatrices = new HashMap<>();
+        deisotopingKernels = new HashMap<>();
         ArrayList<String> labels = new ArrayList<>(method.getReagentNames());
         HashMap<Double, String> massesToLabelMap = new HashMap<>(labels.size());
 
@@ -153,19 +158,25 @@ public class Deisotoper {
 
             coefficients = Ginv.inverse(coefficients).toDoubleArray();
             CorrectionMatrix matrix = new CorrectionMatrix(coefficients, isotopes, refMass);
+            DeisotopingKernel deisotopingKernel = new DeisotopingKernel(matrix);
 
             for (String label : matrixLabels) {
-                correctionMatrices.put(label, matrix);
+                deisotopingKernels.put(label, deisotopingKernel);
             }
         }
+
+        kernels = new LinkedHashSet<>(deisotopingKernels.values()).toArray(new DeisotopingKernel[0]);
     }
 
     /**
-     * This method returns deisotoped intensities.
+     * This method returns deisotoped intensities. The isotopes are extracted
+     * from the spectrum once per correction matrix and corrected by the
+     * deisotoping kernel of the matrix.
      *
      * @param ionMatches the ion matches to deisotope
      * @param spectrum the spectrum to search the isotopic intensities in
      * @param mzTolerance the MS2 m/z tolerance
+     * @param mzOffset the systematic m/z offset of the reporter ions
      * @param mostAccurate boolean indicating whether the most accurate ion
      * should be selected
      *
@@ -175,10 +186,12 @@ public class Deisotoper {
             HashMap<String, IonMatch> ionMatches,
             Spectrum spectrum,
             double mzTolerance,
+            double mzOffset,
             boolean mostAccurate
     ) {
 
         HashMap<String, Double> result = new HashMap<>();
+        HashMap<DeisotopingKernel, double[]> kernelResults = new HashMap<>(1);
 
         for (String label : method.getReagentNames()) {
 
@@ -186,63 +199,77 @@ public class Deisotoper {
 
             if (refMatch != null && refMatch.peakIntensity > 0) {
 
-                CorrectionMatrix correctionMatrix = correctionMatrices.get(label);
-                HashMap<Integer, String> involvedReagents = correctionMatrix.getReagentsNames();
-                int dimension = correctionMatrix.getDimension();
-                double[] intensities = new double[dimension];
-                int lineNumber = -1;
+                DeisotopingKernel deisotopingKernel = deisotopingKernels.get(label);
+                double[] deisotoped = kernelResults.get(deisotopingKernel);
 
-                for (int i = 0; i < dimension; i++) {
+                if (deisotoped == null) {
 
-                    String reagentName = involvedReagents.get(i);
+                    double[] isotopeIntensities = new double[deisotopingKernel.getnIsotopes()];
+                    deisotopingKernel.setIsotopeIntensities(spectrum, mzTolerance, mzOffset, mostAccurate, isotopeIntensities, 0);
+                    deisotoped = deisotopingKernel.deisotope(isotopeIntensities, 1);
+                    kernelResults.put(deisotopingKernel, deisotoped);
 
-                    if (reagentName != null) {
+                }
 
-                        if (reagentName.equals(label)) {
-                            lineNumber = i;
-                        }
+                result.put(label, deisotoped[deisotopingKernel.getLabelIndex(label)]);
 
-                    }
+            } else {
 
-                    double reagentMass = correctionMatrix.getReagentMass(i);
-                    ReporterIon tempIon = new ReporterIon("tempIon", reagentMass, false);
-                    IonMatch ionMatch = Reporter.getBestReporterIonMatch(
-                            tempIon,
-                            1,
-                            spectrum,
-                            mzTolerance,
-                            mostAccurate
-                    );
-
-                    if (ionMatch != null) {
-                        intensities[i] = ionMatch.peakIntensity;
-                    }
-                }
-                if (lineNumber == -1) {
+                result.put(label, 0.0);
 
-                    throw new IllegalArgumentException(
-                            "Index of reagent "
-                            + label
-                            + " not found in the isotope correction matrix."
-                    );
+            }
+        }
 
-                }
+        return result;
 
-                double resultInt = 0;
+    }
 
-                for (int j = 0; j < intensities.length; j++) {
-                    resultInt += intensities[j] * correctionMatrix.getValueAt(lineNumber, j);
-                }
+    /**
+     * Returns the deisotoped intensities of a block of spectra. The isotopes
+     * of all spectra are extracted in one flat matrix per correction matrix
+     * and corrected at once by the deisotoping kernel of the matrix. Note
+     * that the intensities of the labels without reporter ion in a spectrum
+     * should be discarded by the caller.
+     *
+     * @param spectra the spectra to search the isotopic intensities in
+     * @param mzTolerance the MS2 m/z tolerance
+     * @param mzOffset the systematic m/z offset of the reporter ions
+     * @param mostAccurate boolean indicating whether the most accurate ion
+     * should be selected
+     *
+     * @return a map of the deisotoped intensities of the spectra in the given
+     * order (ion index &gt; intensities)
+     */
+    public HashMap<String, double[]> deisotope(
+            Spectrum[] spectra,
+            double mzTolerance,
+            double mzOffset,
+            boolean mostAccurate
+    ) {
 
-                if (resultInt < 0) {
-                    resultInt = 0;
-                }
+        HashMap<String, double[]> result = new HashMap<>(deisotopingKernels.size());
 
-                result.put(label, resultInt);
+        for (DeisotopingKernel deisotopingKernel : kernels) {
 
-            } else {
+            int nIsotopes = deisotopingKernel.getnIsotopes();
+            double[] isotopeIntensities = new double[spectra.length * nIsotopes];
 
-                result.put(label, 0.0);
+            for (int i = 0; i < spectra.length; i++) {
+                deisotopingKernel.setIsotopeIntensities(spectra[i], mzTolerance, mzOffset, mostAccurate, isotopeIntensities, i);
+            }
+
+            double[] deisotoped = deisotopingKernel.deisotope(isotopeIntensities, spectra.length);
+            String[] labels = deisotopingKernel.getLabels();
+
+            for (int label = 0; label < labels.length; label++) {
+
+                double[] labelIntensities = new double[spectra.length];
+
+                for (int i = 0; i < spectra.length; i++) {
+                    labelIntensities[i] = deisotoped[i * labels.length + label];
+                }
+
+                result.put(labels[label], labelIntensities);
 
             }
         }
@@ -250,4 +277,28 @@ public class Deisotoper {
         return result;
 
     }
+
+    /**
+     * Returns the deisotoping kernels of the reporter method, one per
+     * correction matrix. Use the kernels to deisotope blocks of spectra.
+     *
+     * @return the deisotoping kernels of the reporter method
+     */
+    public ArrayList<DeisotopingKernel> getDeisotopingKernels() {
+        return new ArrayList<>(Arrays.asList(kernels));
+    }
+
+    /**
+     * Returns the deisotoping kernel correcting the given label, null if
+     * none.
+     *
+     * @param label the label
+     *
+     * @return the deisotoping kernel correcting the given label
+     */
+    public DeisotopingKernel getDeisotopingKernel(
+            String label
+    ) {
+        return deisotopingKernels.get(label);
+    }
 }
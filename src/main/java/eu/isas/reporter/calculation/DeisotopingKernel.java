@@ -0,0 +1,287 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.experiment.biology.ions.impl.ReporterIon;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import eu.isas.reporter.Reporter;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Applies the isotope correction of a correction matrix to blocks of
+ * spectra. The intensities of the isotopes are given as a flat matrix, one
+ * row of isotope intensities per spectrum, and the deisotoped intensities are
+ * returned as a flat matrix, one row of label intensities per spectrum. The
+ * correction is the product of the isotope intensities with the rows of the
+ * correction matrix corresponding to the labels, negative intensities are set
+ * to zero in the same pass.
+ *
+ * The product is computed by blocks of spectra so that the block of results
+ * stays in the processor cache, the innermost loop runs over the labels on
+ * contiguous arrays and can be vectorized by the just-in-time compiler.
+ *
+ * Note that the kernel does not check whether the reporter ion of a label was
+ * found, the deisotoped intensity of labels without reporter ion should be
+ * discarded by the caller.
+ *
+ * @author Marc Vaudel
+ */
+public class DeisotopingKernel {
+
+    /**
+     * The number of spectra processed per block.
+     */
+    public static final int BLOCK_SIZE = 64;
+    /**
+     * The correction matrix.
+     */
+    private final CorrectionMatrix correctionMatrix;
+    /**
+     * The number of isotopes of the correction matrix.
+     */
+    private final int nIsotopes;
+    /**
+     * The labels corrected by this kernel in the order of the result columns.
+     */
+    private final String[] labels;
+    /**
+     * The index of the result column of every label.
+     */
+    private final HashMap<String, Integer> labelIndexes;
+    /**
+     * The correction coefficients as a flat matrix: isotope &gt; label.
+     */
+    private final double[] coefficients;
+    /**
+     * Ions at the masses of the isotopes.
+     */
+    private final ReporterIon[] isotopeIons;
+
+    /**
+     * Constructor.
+     *
+     * @param correctionMatrix the correction matrix
+     */
+    public DeisotopingKernel(
+            CorrectionMatrix correctionMatrix
+    ) {
+
+        this.correctionMatrix = correctionMatrix;
+        nIsotopes = correctionMatrix.getDimension();
+
+        TreeMap<Integer, String> sortedLabels = new TreeMap<>(correctionMatrix.getReagentsNames());
+        labels = new String[sortedLabels.size()];
+        labelIndexes = new HashMap<>(sortedLabels.size());
+        int[] rows = new int[sortedLabels.size()];
+        int labelIndex = 0;
+
+        for (Integer isotope : sortedLabels.keySet()) {
+
+            labels[labelIndex] = sortedLabels.get(isotope);
+            labelIndexes.put(labels[labelIndex], labelIndex);
+            rows[labelIndex] = isotope;
+            labelIndex++;
+
+        }
+
+        coefficients = new double[nIsotopes * labels.length];
+
+        for (int isotope = 0; isotope < nIsotopes; isotope++) {
+
+            for (int label = 0; label < labels.length; label++) {
+                coefficients[isotope * labels.length + label] = correctionMatrix.getValueAt(rows[label], isotope);
+            }
+        }
+
+        isotopeIons = new ReporterIon[nIsotopes];
+
+        for (int isotope = 0; isotope < nIsotopes; isotope++) {
+            isotopeIons[isotope] = new ReporterIon("tempIon", correctionMatrix.getReagentMass(isotope), false);
+        }
+    }
+
+    /**
+     * Returns the correction matrix.
+     *
+     * @return the correction matrix
+     */
+    public CorrectionMatrix getCorrectionMatrix() {
+        return correctionMatrix;
+    }
+
+    /**
+     * Returns the number of isotopes, i.e. the number of columns of the
+     * isotope intensities.
+     *
+     * @return the number of isotopes
+     */
+    public int getnIsotopes() {
+        return nIsotopes;
+    }
+
+    /**
+     * Returns the labels corrected by this kernel in the order of the columns
+     * of the results.
+     *
+     * @return the labels corrected by this kernel
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the index of the result column of the given label. Throws an
+     * exception if the label is not corrected by this kernel.
+     *
+     * @param label the label
+     *
+     * @return the index of the result column of the given label
+     */
+    public int getLabelIndex(
+            String label
+    ) {
+
+        Integer labelIndex = labelIndexes.get(label);
+
+        if (labelIndex == null) {
+
+            throw new IllegalArgumentException(
+                    "Index of reagent "
+                    + label
+                    + " not found in the isotope correction matrix."
+            );
+
+        }
+
+        return labelIndex;
+
+    }
+
+    /**
+     * Extracts the intensities of the isotopes from a spectrum and writes them
+     * in the row of the given spectrum in the isotope intensities. Isotopes
+     * not found get an intensity of zero.
+     *
+     * @param spectrum the spectrum
+     * @param mzTolerance the m/z tolerance
+     * @param mzOffset the systematic m/z offset of the reporter ions
+     * @param mostAccurate boolean indicating whether the most accurate ion
+     * should be selected
+     * @param isotopeIntensities the isotope intensities, one row of nIsotopes
+     * per spectrum
+     * @param spectrumIndex the index of the spectrum in the isotope
+     * intensities
+     */
+    public void setIsotopeIntensities(
+            Spectrum spectrum,
+            double mzTolerance,
+            double mzOffset,
+            boolean mostAccurate,
+            double[] isotopeIntensities,
+            int spectrumIndex
+    ) {
+
+        int offset = spectrumIndex * nIsotopes;
+
+        for (int isotope = 0; isotope < nIsotopes; isotope++) {
+
+            ReporterIon isotopeIon = mzOffset == 0.0
+                    ? isotopeIons[isotope]
+                    : new ReporterIon("tempIon", correctionMatrix.getReagentMass(isotope) + mzOffset, false);
+
+            IonMatch ionMatch = Reporter.getBestReporterIonMatch(
+                    isotopeIon,
+                    1,
+                    spectrum,
+                    mzTolerance,
+                    mostAccurate
+            );
+
+            isotopeIntensities[offset + isotope] = ionMatch == null ? 0.0 : ionMatch.peakIntensity;
+
+        }
+    }
+
+    /**
+     * Deisotopes the intensities of a block of spectra.
+     *
+     * @param isotopeIntensities the isotope intensities, one row of nIsotopes
+     * per spectrum
+     * @param nSpectra the number of spectra
+     *
+     * @return the deisotoped intensities, one row of labels per spectrum
+     */
+    public double[] deisotope(
+            double[] isotopeIntensities,
+            int nSpectra
+    ) {
+
+        double[] result = new double[nSpectra * labels.length];
+        deisotope(isotopeIntensities, nSpectra, result);
+
+        return result;
+
+    }
+
+    /**
+     * Deisotopes the intensities of a block of spectra and writes the result
+     * in the given array. Negative intensities are set to zero.
+     *
+     * @param isotopeIntensities the isotope intensities, one row of nIsotopes
+     * per spectrum
+     * @param nSpectra the number of spectra
+     * @param result the array where to write the deisotoped intensities, one
+     * row of labels per spectrum
+     */
+    public void deisotope(
+            double[] isotopeIntensities,
+            int nSpectra,
+            double[] result
+    ) {
+
+        if (isotopeIntensities.length < nSpectra * nIsotopes) {
+            throw new IllegalArgumentException(nSpectra * nIsotopes + " isotope intensities expected, " + isotopeIntensities.length + " found.");
+        }
+
+        if (result.length < nSpectra * labels.length) {
+            throw new IllegalArgumentException("Result array of size " + result.length + " too small for " + nSpectra * labels.length + " intensities.");
+        }
+
+        int nLabels = labels.length;
+
+        for (int blockStart = 0; blockStart < nSpectra; blockStart += BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + BLOCK_SIZE, nSpectra);
+
+            for (int i = blockStart * nLabels; i < blockEnd * nLabels; i++) {
+                result[i] = 0.0;
+            }
+
+            for (int isotope = 0; isotope < nIsotopes; isotope++) {
+
+                int coefficientOffset = isotope * nLabels;
+
+                for (int spectrum = blockStart; spectrum < blockEnd; spectrum++) {
+
+                    double intensity = isotopeIntensities[spectrum * nIsotopes + isotope];
+
+                    if (intensity != 0.0) {
+
+                        int resultOffset = spectrum * nLabels;
+
+                        for (int label = 0; label < nLabels; label++) {
+                            result[resultOffset + label] += intensity * coefficients[coefficientOffset + label];
+                        }
+                    }
+                }
+            }
+
+            for (int i = blockStart * nLabels; i < blockEnd * nLabels; i++) {
+
+                if (result[i] < 0) {
+                    result[i] = 0.0;
+                }
+            }
+        }
+    }
+}
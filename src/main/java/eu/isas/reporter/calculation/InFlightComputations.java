@@ -0,0 +1,150 @@
+package eu.isas.reporter.calculation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the computations in progress indexed by key. When a value is
+ * requested while it is already being computed by another thread, the
+ * request waits for the computation in progress instead of starting a new
+ * one.
+ *
+ * @author Marc Vaudel
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class InFlightComputations<K, V> {
+
+    /**
+     * The computations in progress indexed by key.
+     */
+    private final ConcurrentHashMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * The number of computations run.
+     */
+    private final AtomicLong nComputed = new AtomicLong();
+    /**
+     * The number of requests served by a computation started by another
+     * thread.
+     */
+    private final AtomicLong nSuppressed = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    public InFlightComputations() {
+
+    }
+
+    /**
+     * Returns the value of the given key. If the value is being computed by
+     * another thread, waits for this computation, otherwise runs the given
+     * computation in the current thread. The computation should check the
+     * cache again before computing the value, as another computation of the
+     * same key might have completed in the meantime.
+     *
+     * @param key the key
+     * @param computation the computation of the value
+     *
+     * @return the value of the key
+     */
+    public V get(
+            K key,
+            Supplier<V> computation
+    ) {
+
+        FutureTask<V> task = new FutureTask<>(computation::get);
+        FutureTask<V> inFlightTask = inFlight.putIfAbsent(key, task);
+
+        if (inFlightTask != null) {
+
+            nSuppressed.incrementAndGet();
+            return getResult(inFlightTask);
+
+        }
+
+        try {
+
+            task.run();
+            nComputed.incrementAndGet();
+            return getResult(task);
+
+        } finally {
+
+            inFlight.remove(key, task);
+
+        }
+    }
+
+    /**
+     * Waits for the given task and returns its result. Interruptions are
+     * deferred until the result is available. Exceptions thrown by the
+     * computation are rethrown.
+     *
+     * @param task the task
+     *
+     * @return the result of the task
+     */
+    private V getResult(
+            FutureTask<V> task
+    ) {
+
+        boolean interrupted = false;
+
+        try {
+
+            while (true) {
+
+                try {
+
+                    return task.get();
+
+                } catch (InterruptedException e) {
+
+                    interrupted = true;
+
+                } catch (ExecutionException e) {
+
+                    Throwable cause = e.getCause();
+
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+
+                    throw new IllegalStateException(cause);
+
+                }
+            }
+
+        } finally {
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of computations run.
+     *
+     * @return the number of computations run
+     */
+    public long getnComputed() {
+        return nComputed.get();
+    }
+
+    /**
+     * Returns the number of requests served by a computation started by
+     * another thread, i.e. the number of duplicate computations avoided.
+     *
+     * @return the number of duplicate computations avoided
+     */
+    public long getnSuppressed() {
+        return nSuppressed.get();
+    }
+}
@@ -0,0 +1,266 @@
+package eu.isas.reporter.calculation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The labelling efficiency of a set of modifications: for every modification
+ * the number of sites found modified and the number of possible sites, with
+ * the Wilson score confidence interval of the efficiency.
+ *
+ * @author Marc Vaudel
+ */
+public class LabellingEfficiency {
+
+    /**
+     * The z-score of the 95% confidence interval.
+     */
+    public static final double Z_95 = 1.959963984540054;
+    /**
+     * The names of the modifications.
+     */
+    private final ArrayList<String> modifications;
+    /**
+     * The index of every modification.
+     */
+    private final HashMap<String, Integer> modificationIndexes;
+    /**
+     * The number of modified sites per modification.
+     */
+    private final long[] nModified;
+    /**
+     * The number of possible sites per modification.
+     */
+    private final long[] nPossible;
+    /**
+     * The number of peptides inspected.
+     */
+    private long nPeptides = 0;
+    /**
+     * The total number of peptides.
+     */
+    private long nPeptidesTotal = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param modifications the names of the modifications
+     */
+    public LabellingEfficiency(
+            ArrayList<String> modifications
+    ) {
+
+        this.modifications = modifications;
+        this.nModified = new long[modifications.size()];
+        this.nPossible = new long[modifications.size()];
+
+        modificationIndexes = new HashMap<>(modifications.size());
+
+        for (int i = 0; i < modifications.size(); i++) {
+            modificationIndexes.put(modifications.get(i), i);
+        }
+    }
+
+    /**
+     * Adds the counts of a set of peptides.
+     *
+     * @param nModified the number of modified sites per modification
+     * @param nPossible the number of possible sites per modification
+     * @param nPeptides the number of peptides
+     */
+    public synchronized void add(
+            long[] nModified,
+            long[] nPossible,
+            long nPeptides
+    ) {
+
+        for (int i = 0; i < modifications.size(); i++) {
+
+            this.nModified[i] += nModified[i];
+            this.nPossible[i] += nPossible[i];
+
+        }
+
+        this.nPeptides += nPeptides;
+
+    }
+
+    /**
+     * Indicates whether the 95% confidence interval of every modification
+     * with possible sites is within the given margin of the estimate.
+     * Modifications without possible sites are ignored.
+     *
+     * @param margin the margin
+     *
+     * @return a boolean indicating whether the estimates are within the margin
+     */
+    public synchronized boolean isWithinMargin(
+            double margin
+    ) {
+
+        for (int i = 0; i < modifications.size(); i++) {
+
+            if (nPossible[i] > 0) {
+
+                double[] interval = getConfidenceInterval(i, Z_95);
+
+                if (interval[1] - interval[0] > 2 * margin) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the names of the modifications.
+     *
+     * @return the names of the modifications
+     */
+    public ArrayList<String> getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Returns the index of the given modification, null if not found.
+     *
+     * @param modification the name of the modification
+     *
+     * @return the index of the given modification
+     */
+    public Integer getModificationIndex(
+            String modification
+    ) {
+        return modificationIndexes.get(modification);
+    }
+
+    /**
+     * Returns the number of modified sites of the given modification.
+     *
+     * @param modification the name of the modification
+     *
+     * @return the number of modified sites
+     */
+    public synchronized long getnModified(
+            String modification
+    ) {
+        return nModified[modificationIndexes.get(modification)];
+    }
+
+    /**
+     * Returns the number of possible sites of the given modification.
+     *
+     * @param modification the name of the modification
+     *
+     * @return the number of possible sites
+     */
+    public synchronized long getnPossible(
+            String modification
+    ) {
+        return nPossible[modificationIndexes.get(modification)];
+    }
+
+    /**
+     * Returns the labelling efficiency of the given modification, NaN if no
+     * site was possible.
+     *
+     * @param modification the name of the modification
+     *
+     * @return the labelling efficiency
+     */
+    public synchronized double getEfficiency(
+            String modification
+    ) {
+
+        int index = modificationIndexes.get(modification);
+
+        return ((double) nModified[index]) / nPossible[index];
+
+    }
+
+    /**
+     * Returns the 95% confidence interval of the labelling efficiency of the
+     * given modification as an array of lower and upper bounds, NaN if no
+     * site was possible.
+     *
+     * @param modification the name of the modification
+     *
+     * @return the 95% confidence interval of the labelling efficiency
+     */
+    public synchronized double[] getConfidenceInterval(
+            String modification
+    ) {
+        return getConfidenceInterval(modificationIndexes.get(modification), Z_95);
+    }
+
+    /**
+     * Returns the Wilson score interval of the labelling efficiency of the
+     * modification at the given index.
+     *
+     * @param index the index of the modification
+     * @param z the z-score of the interval
+     *
+     * @return the confidence interval as an array of lower and upper bounds
+     */
+    private double[] getConfidenceInterval(
+            int index,
+            double z
+    ) {
+
+        double n = nPossible[index];
+
+        if (n == 0) {
+            return new double[]{Double.NaN, Double.NaN};
+        }
+
+        double p = Math.min(1.0, nModified[index] / n);
+        double z2 = z * z;
+        double denominator = 1 + z2 / n;
+        double center = (p + z2 / (2 * n)) / denominator;
+        double halfWidth = z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / denominator;
+
+        return new double[]{Math.max(0.0, center - halfWidth), Math.min(1.0, center + halfWidth)};
+
+    }
+
+    /**
+     * Returns the number of peptides inspected.
+     *
+     * @return the number of peptides inspected
+     */
+    public synchronized long getnPeptides() {
+        return nPeptides;
+    }
+
+    /**
+     * Returns the total number of peptides.
+     *
+     * @return the total number of peptides
+     */
+    public long getnPeptidesTotal() {
+        return nPeptidesTotal;
+    }
+
+    /**
+     * Sets the total number of peptides.
+     *
+     * @param nPeptidesTotal the total number of peptides
+     */
+    public void setnPeptidesTotal(
+            long nPeptidesTotal
+    ) {
+        this.nPeptidesTotal = nPeptidesTotal;
+    }
+
+    /**
+     * Indicates whether the estimation was done on a sample of the peptides.
+     *
+     * @return a boolean indicating whether the estimation was done on a sample
+     * of the peptides
+     */
+    public synchronized boolean isSampled() {
+        return nPeptides < nPeptidesTotal;
+    }
+}
@@ -0,0 +1,400 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.biology.modifications.Modification;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.utils.ModificationUtils;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the labelling efficiency of the variable modifications of a
+ * project in a parallel pass over the peptides. Every thread counts the sites
+ * independently and the number of possible sites is computed once per peptide
+ * sequence for modifications not depending on the protein context. In
+ * sampling mode, the estimation stops as soon as the confidence interval of
+ * every modification is within the requested margin.
+ *
+ * @author Marc Vaudel
+ */
+public class LabellingEfficiencyEstimator {
+
+    /**
+     * The number of peptides processed by a thread before its counts are
+     * added to the estimate.
+     */
+    public static final int BLOCK_SIZE = 1000;
+    /**
+     * The modification factory.
+     */
+    private final ModificationFactory modificationFactory = ModificationFactory.getInstance();
+    /**
+     * Boolean indicating whether the estimation should stop.
+     */
+    private volatile boolean stop = false;
+
+    /**
+     * Estimates the labelling efficiency of the variable modifications.
+     *
+     * @param identification the identification
+     * @param sequenceProvider the sequence provider
+     * @param identificationParameters the identification parameters
+     * @param samplingMargin the margin of the 95% confidence interval at which
+     * the estimation can stop, null to inspect all peptides
+     * @param nThreads the number of threads to use
+     * @param exceptionHandler handler in case exception occur
+     * @param waitingHandler waiting handler displaying progress to the user
+     *
+     * @return the labelling efficiency
+     *
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     */
+    public LabellingEfficiency estimateLabellingEfficiency(
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            IdentificationParameters identificationParameters,
+            Double samplingMargin,
+            int nThreads,
+            ExceptionHandler exceptionHandler,
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        stop = false;
+
+        ArrayList<String> sortedModifications = new ArrayList<>(
+                identificationParameters.getSearchParameters().getModificationParameters().getAllNotFixedModifications()
+        );
+        Collections.sort(sortedModifications);
+
+        ArrayList<Modification> modifications = new ArrayList<>(sortedModifications.size());
+
+        for (String modificationName : sortedModifications) {
+            modifications.add(modificationFactory.getModification(modificationName));
+        }
+
+        LabellingEfficiency labellingEfficiency = new LabellingEfficiency(sortedModifications);
+        int nPeptides = identification.getPeptideIdentification().size();
+        labellingEfficiency.setnPeptidesTotal(nPeptides);
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Estimating Labelling Efficiency. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nPeptides);
+        }
+
+        ConcurrentHashMap<String, int[]> sitesCache = new ConcurrentHashMap<>(nPeptides);
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        for (int i = 1; i <= nThreads && (waitingHandler == null || !waitingHandler.isRunCanceled()); i++) {
+
+            LabellingEfficiencyRunnable runnable = new LabellingEfficiencyRunnable(
+                    peptideMatchesIterator,
+                    modifications,
+                    sitesCache,
+                    labellingEfficiency,
+                    sequenceProvider,
+                    identificationParameters.getSequenceMatchingParameters(),
+                    samplingMargin,
+                    waitingHandler,
+                    exceptionHandler
+            );
+
+            pool.submit(runnable);
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return labellingEfficiency;
+        }
+
+        pool.shutdown();
+
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException(
+                    "Labelling efficiency estimation timed out. Please contact the developers."
+            );
+        }
+
+        return labellingEfficiency;
+
+    }
+
+    /**
+     * Indicates whether the possible sites of a modification only depend on
+     * the peptide sequence.
+     *
+     * @param modification the modification
+     *
+     * @return a boolean indicating whether the possible sites of a
+     * modification only depend on the peptide sequence
+     */
+    private static boolean dependsOnSequenceOnly(
+            Modification modification
+    ) {
+
+        switch (modification.getModificationType()) {
+
+            case modn_protein:
+            case modnaa_protein:
+            case modc_protein:
+            case modcaa_protein:
+                return false;
+
+            default:
+                return true;
+
+        }
+    }
+
+    /**
+     * Runnable counting the modified and possible sites of the peptides.
+     *
+     * @author Marc Vaudel
+     */
+    private class LabellingEfficiencyRunnable implements Runnable {
+
+        /**
+         * An iterator for the matches.
+         */
+        private final PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The modifications.
+         */
+        private final ArrayList<Modification> modifications;
+        /**
+         * The number of possible sites per modification for every peptide
+         * sequence, -1 for modifications depending on the protein context.
+         */
+        private final ConcurrentHashMap<String, int[]> sitesCache;
+        /**
+         * The labelling efficiency where to add the counts.
+         */
+        private final LabellingEfficiency labellingEfficiency;
+        /**
+         * The sequence provider.
+         */
+        private final SequenceProvider sequenceProvider;
+        /**
+         * The sequence matching parameters.
+         */
+        private final SequenceMatchingParameters sequenceMatchingParameters;
+        /**
+         * The sampling margin, null if all peptides should be inspected.
+         */
+        private final Double samplingMargin;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * The number of modified sites counted by this thread.
+         */
+        private final long[] nModified;
+        /**
+         * The number of possible sites counted by this thread.
+         */
+        private final long[] nPossible;
+        /**
+         * The number of peptides counted by this thread.
+         */
+        private long nPeptides = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator the iterator of the matches
+         * @param modifications the modifications
+         * @param sitesCache the number of possible sites per modification for
+         * every peptide sequence
+         * @param labellingEfficiency the labelling efficiency where to add the
+         * counts
+         * @param sequenceProvider the sequence provider
+         * @param sequenceMatchingParameters the sequence matching parameters
+         * @param samplingMargin the sampling margin, null if all peptides
+         * should be inspected
+         * @param waitingHandler a waiting handler
+         * @param exceptionHandler an exception handler
+         */
+        public LabellingEfficiencyRunnable(
+                PeptideMatchesIterator peptideMatchesIterator,
+                ArrayList<Modification> modifications,
+                ConcurrentHashMap<String, int[]> sitesCache,
+                LabellingEfficiency labellingEfficiency,
+                SequenceProvider sequenceProvider,
+                SequenceMatchingParameters sequenceMatchingParameters,
+                Double samplingMargin,
+                WaitingHandler waitingHandler,
+                ExceptionHandler exceptionHandler
+        ) {
+
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.modifications = modifications;
+            this.sitesCache = sitesCache;
+            this.labellingEfficiency = labellingEfficiency;
+            this.sequenceProvider = sequenceProvider;
+            this.sequenceMatchingParameters = sequenceMatchingParameters;
+            this.samplingMargin = samplingMargin;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+            this.nModified = new long[modifications.size()];
+            this.nPossible = new long[modifications.size()];
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                PeptideMatch peptideMatch;
+
+                while (!stop && (peptideMatch = peptideMatchesIterator.next()) != null) {
+
+                    Peptide peptide = peptideMatch.getPeptide();
+                    int[] sequenceSites = sitesCache.computeIfAbsent(peptide.getSequence(), sequence -> getSequenceSites(peptide));
+
+                    for (int i = 0; i < modifications.size(); i++) {
+
+                        nPossible[i] += sequenceSites[i] >= 0
+                                ? sequenceSites[i]
+                                : getPossibleSites(peptide, modifications.get(i));
+
+                    }
+
+                    if (peptide.getNVariableModifications() > 0) {
+
+                        for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
+
+                            Integer index = labellingEfficiency.getModificationIndex(modificationMatch.getModification());
+
+                            if (index != null) {
+                                nModified[index]++;
+                            }
+                        }
+                    }
+
+                    nPeptides++;
+
+                    if (samplingMargin != null && nPeptides == BLOCK_SIZE) {
+
+                        addCounts();
+
+                        if (labellingEfficiency.isWithinMargin(samplingMargin)) {
+                            stop = true;
+                        }
+                    }
+
+                    if (waitingHandler != null) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+
+                    }
+                }
+
+                addCounts();
+
+            } catch (Exception e) {
+
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+
+                exceptionHandler.catchException(e);
+
+            }
+        }
+
+        /**
+         * Adds the counts of this thread to the estimate and resets them.
+         */
+        private void addCounts() {
+
+            labellingEfficiency.add(nModified, nPossible, nPeptides);
+
+            for (int i = 0; i < modifications.size(); i++) {
+
+                nModified[i] = 0;
+                nPossible[i] = 0;
+
+            }
+
+            nPeptides = 0;
+
+        }
+
+        /**
+         * Returns the number of possible sites of every modification depending
+         * only on the sequence of the given peptide, -1 for the others.
+         *
+         * @param peptide the peptide
+         *
+         * @return the number of possible sites per modification
+         */
+        private int[] getSequenceSites(
+                Peptide peptide
+        ) {
+
+            int[] sites = new int[modifications.size()];
+
+            for (int i = 0; i < modifications.size(); i++) {
+
+                Modification modification = modifications.get(i);
+
+                sites[i] = dependsOnSequenceOnly(modification)
+                        ? getPossibleSites(peptide, modification)
+                        : -1;
+
+            }
+
+            return sites;
+
+        }
+
+        /**
+         * Returns the number of possible sites of the given modification on
+         * the given peptide.
+         *
+         * @param peptide the peptide
+         * @param modification the modification
+         *
+         * @return the number of possible sites
+         */
+        private int getPossibleSites(
+                Peptide peptide,
+                Modification modification
+        ) {
+
+            return ModificationUtils.getPossibleModificationSites(
+                    peptide,
+                    modification,
+                    sequenceProvider,
+                    sequenceMatchingParameters
+            ).length;
+
+        }
+    }
+}
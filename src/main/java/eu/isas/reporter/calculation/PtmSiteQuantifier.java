@@ -0,0 +1,217 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.settings.RatioEstimationSettings;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quantifies all the sites of a set of PTMs in a project in a single parallel
+ * pass over the proteins. The results are stored in the cache of the
+ * quantification features generator.
+ *
+ * @author Marc Vaudel
+ */
+public class PtmSiteQuantifier {
+
+    /**
+     * Estimates the quantification details of all the sites of the given PTMs
+     * on all the proteins of the project.
+     *
+     * @param identification the identification
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator where the site quantification details are stored
+     * @param ratioEstimationSettings the ratio estimation settings
+     * @param ptmNames the names of the PTMs to quantify
+     * @param processingParameters the processing parameters
+     * @param exceptionHandler handler in case exception occur
+     * @param waitingHandler waiting handler displaying progress to the user
+     *
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     */
+    public void quantifySites(
+            Identification identification,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            RatioEstimationSettings ratioEstimationSettings,
+            Collection<String> ptmNames,
+            ProcessingParameters processingParameters,
+            ExceptionHandler exceptionHandler,
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        if (ptmNames.isEmpty()) {
+            return;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("PTM Site Quantification. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size());
+        }
+
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(waitingHandler);
+
+        int nThreads = processingParameters.getnThreads();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<PtmSiteRunnable> runnables = new ArrayList<>(nThreads);
+
+        for (int i = 1; i <= nThreads && (waitingHandler == null || !waitingHandler.isRunCanceled()); i++) {
+
+            PtmSiteRunnable runnable = new PtmSiteRunnable(
+                    identification,
+                    spectrumProvider,
+                    quantificationFeaturesGenerator,
+                    proteinMatchesIterator,
+                    ratioEstimationSettings,
+                    ptmNames,
+                    waitingHandler,
+                    exceptionHandler
+            );
+
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+
+        pool.shutdown();
+
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException(
+                    "PTM site quantification timed out. Please contact the developers."
+            );
+        }
+    }
+
+    /**
+     * Runnable quantifying the PTM sites of the proteins.
+     *
+     * @author Marc Vaudel
+     */
+    private class PtmSiteRunnable implements Runnable {
+
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The spectrum provider.
+         */
+        private SpectrumProvider spectrumProvider;
+        /**
+         * The quantification features generator.
+         */
+        private QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+        /**
+         * An iterator for the matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The ratio estimation settings.
+         */
+        private RatioEstimationSettings ratioEstimationSettings;
+        /**
+         * The names of the PTMs to quantify.
+         */
+        private Collection<String> ptmNames;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identification the identification object
+         * @param spectrumProvider the spectrum provider
+         * @param quantificationFeaturesGenerator the quantification features
+         * generator
+         * @param proteinMatchesIterator the iterator of the matches
+         * @param ratioEstimationSettings the ratio estimation settings
+         * @param ptmNames the names of the PTMs to quantify
+         * @param waitingHandler a waiting handler
+         * @param exceptionHandler an exception handler
+         */
+        public PtmSiteRunnable(
+                Identification identification,
+                SpectrumProvider spectrumProvider,
+                QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+                ProteinMatchesIterator proteinMatchesIterator,
+                RatioEstimationSettings ratioEstimationSettings,
+                Collection<String> ptmNames,
+                WaitingHandler waitingHandler,
+                ExceptionHandler exceptionHandler
+        ) {
+
+            this.identification = identification;
+            this.spectrumProvider = spectrumProvider;
+            this.quantificationFeaturesGenerator = quantificationFeaturesGenerator;
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.ratioEstimationSettings = ratioEstimationSettings;
+            this.ptmNames = ptmNames;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                ProteinMatch proteinMatch;
+
+                while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+
+                    if (!proteinMatch.isDecoy()
+                            && QuantificationFilter.isProteinValid(ratioEstimationSettings, identification, proteinMatch.getKey())) {
+
+                        quantificationFeaturesGenerator.getPtmSitesQuantificationDetails(
+                                spectrumProvider,
+                                proteinMatch,
+                                ptmNames,
+                                waitingHandler
+                        );
+
+                    }
+
+                    if (waitingHandler != null) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+
+            } catch (Exception e) {
+
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+
+                exceptionHandler.catchException(e);
+            }
+        }
+    }
+}
@@ -5,21 +5,31 @@ import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.ProteinPtmQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.SpectrumQuantificationDetails;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
 
 /**
- * The quantification features cache stores quantification features.
+ * The quantification features cache stores quantification features. When
+ * memory runs low, PSM, peptide and protein details are spilled to a second
+ * tier on disk if set, other details are dropped.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
  */
 public class QuantificationFeaturesCache {
 
+    /**
+     * The default share of the memory to be used.
+     */
+    public static final double DEFAULT_MEMORY_SHARE = 0.99;
     /**
      * Share of the memory to be used.
      */
-    private double memoryShare = 0.99;
+    private double memoryShare = DEFAULT_MEMORY_SHARE;
     /**
      * The protein quantification details in a map: number of peptides > protein
      * match key > match quantification details.
@@ -36,21 +46,39 @@ public class QuantificationFeaturesCache {
      */
     private HashMap<Integer, HashMap<Long, PeptideQuantificationDetails>> peptideRatios = new HashMap<>();
     /**
-     * The PSM quantification details in a map: Spectrum file name > spectrum
-     * title > match quantification details.
+     * The PSM quantification details indexed by spectrum index, see
+     * SpectrumRegistry.
+     */
+    private PsmQuantificationDetails[] psmRatios = new PsmQuantificationDetails[0];
+    /**
+     * The number of PSM quantification details in the cache.
+     */
+    private int nPsms = 0;
+    /**
+     * The spectrum quantification details indexed by spectrum index, see
+     * SpectrumRegistry. Note: this is used in precursor matching mode only,
+     * otherwise the spectrum ratios are the same as the PSM ratios.
      */
-    private HashMap<String, HashMap<String, PsmQuantificationDetails>> psmRatios = new HashMap<>();
+    private SpectrumQuantificationDetails[] spectrumRatios = new SpectrumQuantificationDetails[0];
     /**
-     * The spectrum quantification details in a map: Spectrum file name >
-     * spectrum title > match quantification details Note: this is used in
-     * precursor matching mode only, otherwise the spectrum ratios are the same
-     * as the PSM ratios.
+     * The number of spectrum quantification details in the cache.
      */
-    private HashMap<String, HashMap<String, SpectrumQuantificationDetails>> spectrumRatios = new HashMap<>();
+    private int nSpectra = 0;
     /**
      * Boolean indicating whether a thread is editing the cache.
      */
     private boolean editing = false;
+    /**
+     * The second tier where PSM, peptide and protein details are spilled
+     * instead of being dropped when memory runs low. Null if none.
+     */
+    private QuantificationFeaturesSpill spill = null;
+    /**
+     * The number of times every level was invalidated, indexed by level
+     * index. Used to drop the details computed under settings changed in the
+     * meantime.
+     */
+    private final int[] generations = new int[QuantificationLevel.values().length];
 
     /**
      * Constructor.
@@ -80,13 +108,15 @@ public class QuantificationFeaturesCache {
         
         return peptideRatios.isEmpty()
                 && proteinRatios.isEmpty()
-                && spectrumRatios.isEmpty()
+                && nSpectra == 0
+                && nPsms == 0
                 && proteinPtmRatios.isEmpty();
         
     }
 
     /**
      * Checks whether there is still memory left and empties the cache if not.
+     * PSM, peptide and protein details are spilled to disk if a spill is set.
      */
     private synchronized void adaptCacheSizeSynchronized() {
 
@@ -98,7 +128,7 @@ public class QuantificationFeaturesCache {
 
         for (int i = 1; i < 10; i++) {
 
-            peptideRatios.remove(i);
+            spillPeptides(peptideRatios.remove(i));
             if (memoryCheck()) {
                 editing = false;
                 return;
@@ -107,7 +137,7 @@ public class QuantificationFeaturesCache {
 
         for (int i = 1; i < 10; i++) {
 
-            proteinRatios.remove(i);
+            spillProteins(proteinRatios.remove(i));
 
             if (memoryCheck()) {
                 editing = false;
@@ -115,53 +145,144 @@ public class QuantificationFeaturesCache {
             }
         }
 
-        spectrumRatios.clear();
+        spectrumRatios = new SpectrumQuantificationDetails[0];
+        nSpectra = 0;
 
         if (memoryCheck()) {
             editing = false;
             return;
         }
 
-        psmRatios.clear();
+        if (spill != null) {
+            spill.spillPsms(psmRatios);
+        }
+
+        psmRatios = new PsmQuantificationDetails[0];
+        nPsms = 0;
 
         if (memoryCheck()) {
             editing = false;
             return;
         }
 
-        int keyMax = Collections.max(peptideRatios.keySet());
+        // the peptide and protein maps are empty when only spectra and PSMs were quantified
+        if (!peptideRatios.isEmpty()) {
 
-        for (int i = 10; i <= keyMax; i++) {
+            int keyMax = Collections.max(peptideRatios.keySet());
 
-            peptideRatios.remove(i);
+            for (int i = 10; i <= keyMax; i++) {
 
-            if (memoryCheck()) {
-                editing = false;
-                return;
+                spillPeptides(peptideRatios.remove(i));
+
+                if (memoryCheck()) {
+                    editing = false;
+                    return;
+                }
             }
         }
 
-        keyMax = Collections.max(proteinRatios.keySet());
+        if (!proteinRatios.isEmpty()) {
 
-        for (int i = 10; i <= keyMax; i++) {
+            int keyMax = Collections.max(proteinRatios.keySet());
 
-            proteinRatios.remove(i);
+            for (int i = 10; i <= keyMax; i++) {
 
-            if (memoryCheck()) {
-                editing = false;
-                return;
+                spillProteins(proteinRatios.remove(i));
+
+                if (memoryCheck()) {
+                    editing = false;
+                    return;
+                }
             }
         }
 
-        for (String ptm : proteinPtmRatios.keySet()) {
+        Iterator<String> ptmIterator = proteinPtmRatios.keySet().iterator();
+
+        while (ptmIterator.hasNext()) {
 
-            proteinPtmRatios.remove(ptm);
+            ptmIterator.next();
+            ptmIterator.remove();
 
             if (memoryCheck()) {
                 editing = false;
                 return;
             }
         }
+
+        editing = false;
+
+    }
+
+    /**
+     * Spills the given peptide details if a spill is set.
+     *
+     * @param details the peptide details indexed by match key, can be null
+     */
+    private void spillPeptides(HashMap<Long, PeptideQuantificationDetails> details) {
+
+        if (spill != null && details != null) {
+            spill.spillPeptides(details);
+        }
+    }
+
+    /**
+     * Spills the given protein details if a spill is set.
+     *
+     * @param details the protein details indexed by match key, can be null
+     */
+    private void spillProteins(HashMap<Long, ProteinQuantificationDetails> details) {
+
+        if (spill != null && details != null) {
+            spill.spillProteins(details);
+        }
+    }
+
+    /**
+     * Returns the second tier of the cache, null if none.
+     *
+     * @return the second tier of the cache
+     */
+    public QuantificationFeaturesSpill getSpill() {
+        return spill;
+    }
+
+    /**
+     * Sets the second tier of the cache where PSM, peptide and protein details
+     * are spilled instead of being dropped when memory runs low.
+     *
+     * @param spill the second tier of the cache
+     */
+    public void setSpill(QuantificationFeaturesSpill spill) {
+        this.spill = spill;
+    }
+
+    /**
+     * Returns the share of the heap the cache can use before evicting
+     * details.
+     *
+     * @return the share of the heap the cache can use
+     */
+    public double getMemoryShare() {
+        return memoryShare;
+    }
+
+    /**
+     * Sets the share of the heap the cache can use before evicting details.
+     *
+     * @param memoryShare the share of the heap the cache can use
+     */
+    public void setMemoryShare(double memoryShare) {
+        this.memoryShare = memoryShare;
+    }
+
+    /**
+     * Closes the second tier of the cache if any and deletes its file.
+     */
+    public void close() {
+
+        if (spill != null) {
+            spill.close();
+        }
     }
 
     /**
@@ -169,13 +290,210 @@ public class QuantificationFeaturesCache {
      * given share of the heap size. The share is set by memoryShare.
      *
      * @return a boolean indicating whether the memory used by the application
-     * is lower than 99% of the heap
+     * is lower than the given share of the heap
      */
     public boolean memoryCheck() {
         return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()
                 < (long) (memoryShare * Runtime.getRuntime().maxMemory());
     }
 
+    /**
+     * Removes the quantification details of the given levels from the cache.
+     * The removed details are returned in a new cache so that they can still
+     * be displayed while being recomputed.
+     *
+     * @param levels the quantification levels to invalidate
+     *
+     * @return a cache containing the invalidated details
+     */
+    public synchronized QuantificationFeaturesCache invalidate(Set<QuantificationLevel> levels) {
+
+        editing = true;
+
+        QuantificationFeaturesCache staleCache = new QuantificationFeaturesCache();
+
+        if (levels.contains(QuantificationLevel.spectrum)) {
+            staleCache.spectrumRatios = spectrumRatios;
+            staleCache.nSpectra = nSpectra;
+            spectrumRatios = new SpectrumQuantificationDetails[0];
+            nSpectra = 0;
+        }
+
+        if (levels.contains(QuantificationLevel.psm)) {
+            staleCache.psmRatios = psmRatios;
+            staleCache.nPsms = nPsms;
+            psmRatios = new PsmQuantificationDetails[0];
+            nPsms = 0;
+        }
+
+        if (levels.contains(QuantificationLevel.peptide)) {
+            staleCache.peptideRatios = peptideRatios;
+            peptideRatios = new HashMap<>();
+        }
+
+        if (levels.contains(QuantificationLevel.protein)) {
+            staleCache.proteinRatios = proteinRatios;
+            proteinRatios = new HashMap<>();
+        }
+
+        if (levels.contains(QuantificationLevel.ptm)) {
+            staleCache.proteinPtmRatios = proteinPtmRatios;
+            proteinPtmRatios = new HashMap<>();
+        }
+
+        if (spill != null) {
+            spill.invalidate(levels);
+        }
+
+        for (QuantificationLevel level : levels) {
+            generations[level.index]++;
+        }
+
+        editing = false;
+
+        return staleCache;
+    }
+
+    /**
+     * Adds the details of another cache to this cache, the details of the
+     * other cache replace the ones of this cache. Used to merge the details
+     * invalidated by successive changes of settings.
+     *
+     * @param other the other cache
+     */
+    public synchronized void merge(QuantificationFeaturesCache other) {
+
+        editing = true;
+
+        for (int spectrumIndex = 0; spectrumIndex < other.spectrumRatios.length; spectrumIndex++) {
+
+            SpectrumQuantificationDetails details = other.spectrumRatios[spectrumIndex];
+
+            if (details != null) {
+
+                if (spectrumIndex >= spectrumRatios.length) {
+                    spectrumRatios = Arrays.copyOf(spectrumRatios, getCapacity(spectrumRatios.length, spectrumIndex));
+                }
+
+                if (spectrumRatios[spectrumIndex] == null) {
+                    nSpectra++;
+                }
+
+                spectrumRatios[spectrumIndex] = details;
+            }
+        }
+
+        for (int spectrumIndex = 0; spectrumIndex < other.psmRatios.length; spectrumIndex++) {
+
+            PsmQuantificationDetails details = other.psmRatios[spectrumIndex];
+
+            if (details != null) {
+
+                if (spectrumIndex >= psmRatios.length) {
+                    psmRatios = Arrays.copyOf(psmRatios, getCapacity(psmRatios.length, spectrumIndex));
+                }
+
+                if (psmRatios[spectrumIndex] == null) {
+                    nPsms++;
+                }
+
+                psmRatios[spectrumIndex] = details;
+            }
+        }
+
+        for (Entry<Integer, HashMap<Long, PeptideQuantificationDetails>> entry : other.peptideRatios.entrySet()) {
+            peptideRatios.computeIfAbsent(entry.getKey(), key -> new HashMap<>()).putAll(entry.getValue());
+        }
+
+        for (Entry<Integer, HashMap<Long, ProteinQuantificationDetails>> entry : other.proteinRatios.entrySet()) {
+            proteinRatios.computeIfAbsent(entry.getKey(), key -> new HashMap<>()).putAll(entry.getValue());
+        }
+
+        for (Entry<String, HashMap<Long, HashMap<String, ProteinPtmQuantificationDetails>>> ptmEntry : other.proteinPtmRatios.entrySet()) {
+
+            HashMap<Long, HashMap<String, ProteinPtmQuantificationDetails>> submap = proteinPtmRatios.computeIfAbsent(ptmEntry.getKey(), key -> new HashMap<>());
+
+            for (Entry<Long, HashMap<String, ProteinPtmQuantificationDetails>> matchEntry : ptmEntry.getValue().entrySet()) {
+                submap.computeIfAbsent(matchEntry.getKey(), key -> new HashMap<>()).putAll(matchEntry.getValue());
+            }
+        }
+
+        editing = false;
+
+    }
+
+    /**
+     * Returns the generation of the given level, i.e. the number of times it
+     * was invalidated. To be read before computing details of this level.
+     *
+     * @param level the quantification level
+     *
+     * @return the generation of the given level
+     */
+    public synchronized int getGeneration(QuantificationLevel level) {
+        return generations[level.index];
+    }
+
+    /**
+     * Runs the given addition of details to the cache if the level was not
+     * invalidated since the given generation was read, the details are
+     * dropped otherwise.
+     *
+     * @param level the quantification level of the details
+     * @param generation the generation of the level when the computation of
+     * the details started
+     * @param addition the addition of the details to the cache
+     *
+     * @return a boolean indicating whether the details were added
+     */
+    public synchronized boolean addIfCurrent(
+            QuantificationLevel level,
+            int generation,
+            Runnable addition
+    ) {
+
+        if (generations[level.index] != generation) {
+            return false;
+        }
+
+        addition.run();
+
+        return true;
+
+    }
+
+    /**
+     * Releases the quantification details of the given level from memory
+     * once the upper levels do not need them anymore. Spectrum details are
+     * dropped, PSM details are spilled to disk if a spill is set. The other
+     * levels are kept. Released details are computed again or read from the
+     * spill when requested.
+     *
+     * @param level the quantification level to release
+     */
+    public synchronized void release(QuantificationLevel level) {
+
+        editing = true;
+
+        if (level == QuantificationLevel.spectrum) {
+
+            spectrumRatios = new SpectrumQuantificationDetails[0];
+            nSpectra = 0;
+
+        } else if (level == QuantificationLevel.psm) {
+
+            if (spill != null) {
+                spill.spillPsms(psmRatios);
+            }
+
+            psmRatios = new PsmQuantificationDetails[0];
+            nPsms = 0;
+
+        }
+
+        editing = false;
+    }
+
     /**
      * Adds protein quantification details to the cache.
      *
@@ -224,6 +542,16 @@ public class QuantificationFeaturesCache {
             result = submap.get(matchKey);
         }
 
+        if (result == null && spill != null) {
+
+            result = spill.getProteinMatchQuantificationDetails(matchKey);
+
+            if (result != null) {
+                addProteinMatchQuantificationDetails(nPeptides, matchKey, result);
+                return result;
+            }
+        }
+
         adaptCacheSize();
 
         return result;
@@ -348,6 +676,16 @@ public class QuantificationFeaturesCache {
             result = submap.get(matchKey);
         }
 
+        if (result == null && spill != null) {
+
+            result = spill.getPeptideMatchQuantificationDetails(matchKey);
+
+            if (result != null) {
+                addPeptideMatchQuantificationDetails(nPsms, matchKey, result);
+                return result;
+            }
+        }
+
         adaptCacheSize();
 
         return result;
@@ -356,26 +694,25 @@ public class QuantificationFeaturesCache {
     /**
      * Adds PSM quantification details ratio to the cache.
      *
-     * @param spectrumFile the spectrum file
-     * @param spectrumTitle the spectrum title
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
      * @param matchQuantificationDetails the protein quantification details
      */
     public synchronized void addPSMQuantificationDetails(
-            String spectrumFile,
-            String spectrumTitle,
+            int spectrumIndex,
             PsmQuantificationDetails matchQuantificationDetails
     ) {
 
         editing = true;
 
-        HashMap<String, PsmQuantificationDetails> submap = psmRatios.get(spectrumFile);
+        if (spectrumIndex >= psmRatios.length) {
+            psmRatios = Arrays.copyOf(psmRatios, getCapacity(psmRatios.length, spectrumIndex));
+        }
 
-        if (submap == null) {
-            submap = new HashMap<String, PsmQuantificationDetails>();
-            psmRatios.put(spectrumFile, submap);
+        if (psmRatios[spectrumIndex] == null) {
+            nPsms++;
         }
 
-        submap.put(spectrumTitle, matchQuantificationDetails);
+        psmRatios[spectrumIndex] = matchQuantificationDetails;
         editing = false;
         adaptCacheSize();
 
@@ -384,22 +721,25 @@ public class QuantificationFeaturesCache {
     /**
      * Returns PSM quantification details, null if not in cache.
      *
-     * @param spectrumFile the spectrum file
-     * @param spectrumTitle the spectrum title
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
      *
      * @return the PSM quantification details
      */
     public PsmQuantificationDetails getPSMQuantificationDetails(
-            String spectrumFile,
-            String spectrumTitle
+            int spectrumIndex
     ) {
 
-        PsmQuantificationDetails result = null;
+        PsmQuantificationDetails[] submap = psmRatios;
+        PsmQuantificationDetails result = spectrumIndex < submap.length ? submap[spectrumIndex] : null;
 
-        HashMap<String, PsmQuantificationDetails> submap = psmRatios.get(spectrumFile);
+        if (result == null && spill != null) {
 
-        if (submap != null) {
-            result = submap.get(spectrumTitle);
+            result = spill.getPSMQuantificationDetails(spectrumIndex);
+
+            if (result != null) {
+                addPSMQuantificationDetails(spectrumIndex, result);
+                return result;
+            }
         }
 
         adaptCacheSize();
@@ -410,26 +750,25 @@ public class QuantificationFeaturesCache {
     /**
      * Adds spectrum quantification details ratio to the cache.
      *
-     * @param spectrumFile the spectrum file
-     * @param spectrumTitle the spectrum title
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
      * @param matchQuantificationDetails the spectrum quantification details
      */
     public synchronized void addSpectrumQuantificationDetails(
-            String spectrumFile,
-            String spectrumTitle,
+            int spectrumIndex,
             SpectrumQuantificationDetails matchQuantificationDetails
     ) {
 
         editing = true;
 
-        HashMap<String, SpectrumQuantificationDetails> submap = spectrumRatios.get(spectrumFile);
+        if (spectrumIndex >= spectrumRatios.length) {
+            spectrumRatios = Arrays.copyOf(spectrumRatios, getCapacity(spectrumRatios.length, spectrumIndex));
+        }
 
-        if (submap == null) {
-            submap = new HashMap<String, SpectrumQuantificationDetails>();
-            spectrumRatios.put(spectrumFile, submap);
+        if (spectrumRatios[spectrumIndex] == null) {
+            nSpectra++;
         }
 
-        submap.put(spectrumTitle, matchQuantificationDetails);
+        spectrumRatios[spectrumIndex] = matchQuantificationDetails;
         editing = false;
         adaptCacheSize();
 
@@ -438,26 +777,35 @@ public class QuantificationFeaturesCache {
     /**
      * Returns spectrum quantification details, null if not in cache.
      *
-     * @param spectrumFile the spectrum file
-     * @param spectrumTitle the spectrum title
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
      *
      * @return the spectrum quantification details
      */
     public SpectrumQuantificationDetails getSpectrumQuantificationDetails(
-            String spectrumFile,
-            String spectrumTitle
+            int spectrumIndex
     ) {
 
-        SpectrumQuantificationDetails result = null;
-
-        HashMap<String, SpectrumQuantificationDetails> submap = spectrumRatios.get(spectrumFile);
-
-        if (submap != null) {
-            result = submap.get(spectrumTitle);
-        }
+        SpectrumQuantificationDetails[] submap = spectrumRatios;
+        SpectrumQuantificationDetails result = spectrumIndex < submap.length ? submap[spectrumIndex] : null;
 
         adaptCacheSize();
 
         return result;
     }
+
+    /**
+     * Returns the capacity to use for an array indexed by spectrum in order
+     * to store the given index.
+     *
+     * @param length the current length of the array
+     * @param spectrumIndex the index to store
+     *
+     * @return the new capacity
+     */
+    private static int getCapacity(
+            int length,
+            int spectrumIndex
+    ) {
+        return Math.max(spectrumIndex + 1, Math.max(1024, length + (length >> 1)));
+    }
 }
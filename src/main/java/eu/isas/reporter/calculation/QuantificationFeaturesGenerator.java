@@ -1,11 +1,13 @@
 package eu.isas.reporter.calculation;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
@@ -14,6 +16,7 @@ import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.reporter.Reporter;
 import eu.isas.reporter.settings.ReporterIonSelectionSettings;
 import eu.isas.reporter.settings.ReporterSettings;
+import eu.isas.reporter.quantificationdetails.ChannelTable;
 import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
@@ -21,6 +24,12 @@ import eu.isas.reporter.quantificationdetails.ProteinPtmQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.SpectrumQuantificationDetails;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 /**
  * The quantification features generator provides various quantification
@@ -46,7 +55,7 @@ public class QuantificationFeaturesGenerator {
     /**
      * A deisotoper to deisotope reporter ion intensities.
      */
-    private Deisotoper deisotoper;
+    private volatile Deisotoper deisotoper;
     /**
      * The reporter settings.
      */
@@ -63,6 +72,45 @@ public class QuantificationFeaturesGenerator {
      * The sequence matching parameters.
      */
     private SequenceMatchingParameters sequenceMatchingParameters;
+    /**
+     * The exception handler.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * Cache containing the details invalidated by a change of settings, used
+     * to display the previous values while the new ones are computed. Null if
+     * no value is stale.
+     */
+    private volatile QuantificationFeaturesCache staleQuantificationFeaturesCache = null;
+    /**
+     * Generator used to compute the details after a change of settings, it
+     * never returns stale values. Null if no value is stale.
+     */
+    private QuantificationFeaturesGenerator updateGenerator = null;
+    /**
+     * The channel table shared by the quantification details of the project.
+     */
+    private volatile ChannelTable channelTable = null;
+    /**
+     * The registry of the spectra of the project.
+     */
+    private volatile SpectrumRegistry spectrumRegistry = null;
+    /**
+     * The protein details being computed under the current settings.
+     */
+    private volatile InFlightComputations<Long, ProteinQuantificationDetails> proteinComputations = new InFlightComputations<>();
+    /**
+     * The peptide details being computed under the current settings.
+     */
+    private volatile InFlightComputations<Long, PeptideQuantificationDetails> peptideComputations = new InFlightComputations<>();
+    /**
+     * The PSM details being computed under the current settings.
+     */
+    private volatile InFlightComputations<Integer, PsmQuantificationDetails> psmComputations = new InFlightComputations<>();
+    /**
+     * The spectrum details being computed under the current settings.
+     */
+    private volatile InFlightComputations<Integer, SpectrumQuantificationDetails> spectrumComputations = new InFlightComputations<>();
 
     /**
      * Constructor.
@@ -78,6 +126,8 @@ public class QuantificationFeaturesGenerator {
      * @param searchParameters the identification parameters used for the
      * identification of spectra
      * @param sequenceMatchingParameters the sequence matching preferences
+     * @param exceptionHandler the handler of the exceptions raised while
+     * spilling details to disk
      */
     public QuantificationFeaturesGenerator(
             QuantificationFeaturesCache quantificationFeaturesCache,
@@ -86,7 +136,8 @@ public class QuantificationFeaturesGenerator {
             ReporterSettings reporterSettings,
             ReporterIonQuantification reporterIonQuantification,
             SearchParameters searchParameters,
-            SequenceMatchingParameters sequenceMatchingParameters
+            SequenceMatchingParameters sequenceMatchingParameters,
+            ExceptionHandler exceptionHandler
     ) {
         this.quantificationFeaturesCache = quantificationFeaturesCache;
         this.identification = identification;
@@ -95,6 +146,18 @@ public class QuantificationFeaturesGenerator {
         this.reporterIonQuantification = reporterIonQuantification;
         this.searchParameters = searchParameters;
         this.sequenceMatchingParameters = sequenceMatchingParameters;
+        this.exceptionHandler = exceptionHandler;
+
+        if (quantificationFeaturesCache.getSpill() == null) {
+
+            quantificationFeaturesCache.setSpill(
+                    new QuantificationFeaturesSpill(
+                            Reporter.getMatchesFolder(),
+                            getChannelTable(),
+                            exceptionHandler
+                    )
+            );
+        }
     }
 
     /**
@@ -112,26 +175,72 @@ public class QuantificationFeaturesGenerator {
             WaitingHandler waitingHandler
     ) {
 
-        ProteinMatch proteinMatch = identification.getProteinMatch(matchKey);
+        return getProteinMatchQuantificationDetails(
+                spectrumProvider,
+                identification.getProteinMatch(matchKey),
+                waitingHandler
+        );
+
+    }
+
+    /**
+     * Returns the quantification details of a protein match.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param proteinMatch the match of interest
+     * @param waitingHandler the waiting handler
+     *
+     * @return the quantification details of the match
+     */
+    public ProteinQuantificationDetails getProteinMatchQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            ProteinMatch proteinMatch,
+            WaitingHandler waitingHandler
+    ) {
+
+        long matchKey = proteinMatch.getKey();
         int nPeptides = proteinMatch.getPeptideCount();
         ProteinQuantificationDetails result = quantificationFeaturesCache.getProteinMatchQuantificationDetails(nPeptides, matchKey);
+        QuantificationFeaturesCache staleCache = staleQuantificationFeaturesCache;
+
+        if (result == null && staleCache != null) {
+            result = staleCache.getProteinMatchQuantificationDetails(nPeptides, matchKey);
+        }
 
         if (result == null) {
 
-            result = Reporter.estimateProteinMatchQuantificationDetails(
-                    identification,
-                    spectrumProvider,
-                    identificationFeaturesGenerator,
-                    this,
-                    reporterSettings.getRatioEstimationSettings(),
-                    reporterIonQuantification,
-                    searchParameters,
-                    proteinMatch,
-                    waitingHandler
-            );
+            result = proteinComputations.get(matchKey, () -> {
 
-            quantificationFeaturesCache.addProteinMatchQuantificationDetails(nPeptides, matchKey, result);
+                int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.protein);
+                ProteinQuantificationDetails details = quantificationFeaturesCache.getProteinMatchQuantificationDetails(nPeptides, matchKey);
 
+                if (details == null) {
+
+                    ProteinQuantificationDetails estimate = Reporter.estimateProteinMatchQuantificationDetails(
+                            identification,
+                            spectrumProvider,
+                            identificationFeaturesGenerator,
+                            getUpdateGenerator(),
+                            reporterSettings.getRatioEstimationSettings(),
+                            reporterIonQuantification,
+                            searchParameters,
+                            proteinMatch,
+                            waitingHandler
+                    );
+
+                    quantificationFeaturesCache.addIfCurrent(
+                            QuantificationLevel.protein,
+                            generation,
+                            () -> quantificationFeaturesCache.addProteinMatchQuantificationDetails(nPeptides, matchKey, estimate)
+                    );
+
+                    details = estimate;
+
+                }
+
+                return details;
+
+            });
         }
 
         return result;
@@ -163,13 +272,19 @@ public class QuantificationFeaturesGenerator {
     ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         ProteinPtmQuantificationDetails result = quantificationFeaturesCache.getPtmQuantificationDetails(ptmName, matchKey, site);
+        QuantificationFeaturesCache staleCache = staleQuantificationFeaturesCache;
+
+        if (result == null && staleCache != null) {
+            result = staleCache.getPtmQuantificationDetails(ptmName, matchKey, site);
+        }
 
         if (result == null) {
 
-            result = Reporter.estimatePTMQuantificationDetails(
+            int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.ptm);
+            ProteinPtmQuantificationDetails estimate = Reporter.estimatePTMQuantificationDetails(
                     identification,
                     spectrumProvider,
-                    this,
+                    getUpdateGenerator(),
                     reporterSettings.getRatioEstimationSettings(),
                     reporterIonQuantification,
                     searchParameters,
@@ -180,7 +295,91 @@ public class QuantificationFeaturesGenerator {
                     waitingHandler
             );
 
-            quantificationFeaturesCache.addPtmQuantificationDetails(ptmName, matchKey, site, result);
+            quantificationFeaturesCache.addIfCurrent(
+                    QuantificationLevel.ptm,
+                    generation,
+                    () -> quantificationFeaturesCache.addPtmQuantificationDetails(ptmName, matchKey, site, estimate)
+            );
+
+            result = estimate;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the quantification details of all the sites of the given PTMs on
+     * a protein in a map: PTM name &gt; site &gt; quantification details. The
+     * peptides of the protein are indexed only once for all sites, and the
+     * results are stored in the cache.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param proteinMatch the protein match of interest
+     * @param ptmNames the names of the PTMs to quantify
+     * @param waitingHandler the waiting handler
+     *
+     * @return the quantification details of the sites in a map
+     */
+    public HashMap<String, TreeMap<Integer, ProteinPtmQuantificationDetails>> getPtmSitesQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            ProteinMatch proteinMatch,
+            Collection<String> ptmNames,
+            WaitingHandler waitingHandler
+    ) {
+
+        long matchKey = proteinMatch.getKey();
+        int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.ptm);
+
+        HashMap<String, TreeMap<Integer, ArrayList<PeptideMatch>>> siteIndex = Reporter.getModificationSiteIndex(
+                identification,
+                reporterSettings.getRatioEstimationSettings(),
+                searchParameters,
+                proteinMatch,
+                ptmNames,
+                waitingHandler
+        );
+
+        HashMap<String, TreeMap<Integer, ProteinPtmQuantificationDetails>> result = new HashMap<>(siteIndex.size());
+        QuantificationFeaturesCache staleCache = staleQuantificationFeaturesCache;
+
+        for (Entry<String, TreeMap<Integer, ArrayList<PeptideMatch>>> ptmEntry : siteIndex.entrySet()) {
+
+            String ptmName = ptmEntry.getKey();
+            TreeMap<Integer, ProteinPtmQuantificationDetails> ptmResult = new TreeMap<>();
+
+            for (Entry<Integer, ArrayList<PeptideMatch>> siteEntry : ptmEntry.getValue().entrySet()) {
+
+                int site = siteEntry.getKey();
+                ProteinPtmQuantificationDetails siteDetails = quantificationFeaturesCache.getPtmQuantificationDetails(ptmName, matchKey, site);
+
+                if (siteDetails == null && staleCache != null) {
+                    siteDetails = staleCache.getPtmQuantificationDetails(ptmName, matchKey, site);
+                }
+
+                if (siteDetails == null) {
+
+                    ProteinPtmQuantificationDetails estimate = Reporter.estimatePTMQuantificationDetails(
+                            spectrumProvider,
+                            getUpdateGenerator(),
+                            reporterSettings.getRatioEstimationSettings(),
+                            reporterIonQuantification,
+                            siteEntry.getValue(),
+                            waitingHandler
+                    );
+
+                    quantificationFeaturesCache.addIfCurrent(
+                            QuantificationLevel.ptm,
+                            generation,
+                            () -> quantificationFeaturesCache.addPtmQuantificationDetails(ptmName, matchKey, site, estimate)
+                    );
+
+                    siteDetails = estimate;
+                }
+
+                ptmResult.put(site, siteDetails);
+            }
+
+            result.put(ptmName, ptmResult);
         }
 
         return result;
@@ -204,20 +403,43 @@ public class QuantificationFeaturesGenerator {
         int nPsms = peptideMatch.getSpectrumCount();
         long matchKey = peptideMatch.getKey();
         PeptideQuantificationDetails result = quantificationFeaturesCache.getPeptideMatchQuantificationDetails(nPsms, matchKey);
+        QuantificationFeaturesCache staleCache = staleQuantificationFeaturesCache;
+
+        if (result == null && staleCache != null) {
+            result = staleCache.getPeptideMatchQuantificationDetails(nPsms, matchKey);
+        }
 
         if (result == null) {
 
-            result = Reporter.estimatePeptideMatchQuantificationDetails(
-                    identification,
-                    spectrumProvider,
-                    this,
-                    reporterSettings.getRatioEstimationSettings(),
-                    reporterIonQuantification,
-                    peptideMatch,
-                    waitingHandler
-            );
+            result = peptideComputations.get(matchKey, () -> {
 
-            quantificationFeaturesCache.addPeptideMatchQuantificationDetails(nPsms, matchKey, result);
+                int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.peptide);
+                PeptideQuantificationDetails details = quantificationFeaturesCache.getPeptideMatchQuantificationDetails(nPsms, matchKey);
+
+                if (details == null) {
+
+                    PeptideQuantificationDetails estimate = Reporter.estimatePeptideMatchQuantificationDetails(
+                            identification,
+                            spectrumProvider,
+                            getUpdateGenerator(),
+                            reporterSettings.getRatioEstimationSettings(),
+                            reporterIonQuantification,
+                            peptideMatch,
+                            waitingHandler
+                    );
+
+                    quantificationFeaturesCache.addIfCurrent(
+                            QuantificationLevel.peptide,
+                            generation,
+                            () -> quantificationFeaturesCache.addPeptideMatchQuantificationDetails(nPsms, matchKey, estimate)
+                    );
+
+                    details = estimate;
+                }
+
+                return details;
+
+            });
         }
 
         return result;
@@ -237,40 +459,120 @@ public class QuantificationFeaturesGenerator {
             Long matchKey
     ) {
 
-        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(matchKey);
-        String spectrumFile = spectrumMatch.getSpectrumFile();
-        String spectrumTitle = spectrumMatch.getSpectrumTitle();
+        return getPSMQuantificationDetails(
+                spectrumProvider,
+                identification.getSpectrumMatch(matchKey)
+        );
+
+    }
+
+    /**
+     * Returns the quantification details of a PSM.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumMatch the match of interest
+     *
+     * @return the quantification details of the match
+     */
+    public PsmQuantificationDetails getPSMQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            SpectrumMatch spectrumMatch
+    ) {
+
+        long matchKey = spectrumMatch.getKey();
+        int spectrumIndex = getSpectrumRegistry(spectrumProvider).getIndex(
+                spectrumMatch.getSpectrumFile(),
+                spectrumMatch.getSpectrumTitle()
+        );
+
+        if (spectrumIndex == -1) {
+            return estimatePSMQuantificationDetails(spectrumProvider, matchKey);
+        }
+
+        PsmQuantificationDetails result = quantificationFeaturesCache.getPSMQuantificationDetails(spectrumIndex);
+        QuantificationFeaturesCache staleCache = staleQuantificationFeaturesCache;
 
-        PsmQuantificationDetails result
-                = quantificationFeaturesCache.getPSMQuantificationDetails(
-                        spectrumFile,
-                        spectrumTitle
-                );
+        if (result == null && staleCache != null) {
+            result = staleCache.getPSMQuantificationDetails(spectrumIndex);
+        }
 
         if (result == null) {
 
-            result = Reporter.estimatePSMQuantificationDetails(
-                    identification,
-                    spectrumProvider,
-                    this,
-                    reporterSettings.getReporterIonSelectionSettings(),
-                    reporterSettings.getRatioEstimationSettings(),
-                    reporterIonQuantification,
-                    matchKey
-            );
+            result = psmComputations.get(spectrumIndex, () -> {
 
-            quantificationFeaturesCache.addPSMQuantificationDetails(
-                    spectrumFile,
-                    spectrumTitle,
-                    result
-            );
+                int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.psm);
+                PsmQuantificationDetails details = quantificationFeaturesCache.getPSMQuantificationDetails(spectrumIndex);
 
+                if (details == null) {
+
+                    PsmQuantificationDetails estimate = estimatePSMQuantificationDetails(spectrumProvider, matchKey);
+                    quantificationFeaturesCache.addIfCurrent(
+                            QuantificationLevel.psm,
+                            generation,
+                            () -> quantificationFeaturesCache.addPSMQuantificationDetails(spectrumIndex, estimate)
+                    );
+
+                    details = estimate;
+
+                }
+
+                return details;
+
+            });
         }
 
         return result;
 
     }
 
+    /**
+     * Estimates the quantification details of a PSM.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param matchKey the key of the match of interest
+     *
+     * @return the quantification details of the match
+     */
+    private PsmQuantificationDetails estimatePSMQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            long matchKey
+    ) {
+
+        return Reporter.estimatePSMQuantificationDetails(
+                identification,
+                spectrumProvider,
+                getUpdateGenerator(),
+                reporterSettings.getReporterIonSelectionSettings(),
+                reporterSettings.getRatioEstimationSettings(),
+                reporterIonQuantification,
+                matchKey
+        );
+
+    }
+
+    /**
+     * Returns the quantification details of the spectrum of a match using the
+     * settings of this generator.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumMatch the spectrum match of interest
+     *
+     * @return the quantification details of the spectrum
+     */
+    public SpectrumQuantificationDetails getSpectrumQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            SpectrumMatch spectrumMatch
+    ) {
+
+        return getSpectrumQuantificationDetails(
+                spectrumProvider,
+                reporterIonQuantification,
+                reporterSettings.getReporterIonSelectionSettings(),
+                spectrumMatch
+        );
+
+    }
+
     /**
      * Returns the quantification details of a spectrum.
      *
@@ -288,32 +590,275 @@ public class QuantificationFeaturesGenerator {
             SpectrumMatch aSpectrumMatch
     ) {
 
-        String spectrumFile = aSpectrumMatch.getSpectrumFile();
-        String spectrumTitle = aSpectrumMatch.getSpectrumTitle();
-
-        SpectrumQuantificationDetails result
-                = quantificationFeaturesCache.getSpectrumQuantificationDetails(
-                        spectrumFile,
-                        spectrumTitle
-                );
+        int spectrumIndex = getSpectrumRegistry(spectrumProvider).getIndex(
+                aSpectrumMatch.getSpectrumFile(),
+                aSpectrumMatch.getSpectrumTitle()
+        );
 
-        if (result == null) {
+        if (spectrumIndex == -1) {
 
-            result = Reporter.estimateSpectrumQuantificationDetails(
+            return Reporter.estimateSpectrumQuantificationDetails(
                     identification,
                     spectrumProvider,
-                    this,
+                    getUpdateGenerator(),
                     reporterIonQuantification,
                     reporterIonSelectionSettings,
                     aSpectrumMatch
             );
+        }
+
+        return getSpectrumQuantificationDetails(
+                spectrumProvider,
+                reporterIonQuantification,
+                reporterIonSelectionSettings,
+                spectrumIndex,
+                aSpectrumMatch
+        );
+
+    }
+
+    /**
+     * Returns the indexes of the spectra carrying the reporter ions of a PSM
+     * using the settings of this generator, see SpectrumRegistry. These are
+     * the spectra used to estimate the ratios of the PSM.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumMatch the spectrum match of interest
+     *
+     * @return the indexes of the spectra carrying the reporter ions
+     */
+    public int[] getReporterSpectrumIndexes(
+            SpectrumProvider spectrumProvider,
+            SpectrumMatch spectrumMatch
+    ) {
+
+        return Reporter.getReporterSpectrumIndexes(
+                spectrumProvider,
+                getSpectrumRegistry(spectrumProvider),
+                reporterSettings.getReporterIonSelectionSettings(),
+                spectrumMatch
+        );
+
+    }
 
-            quantificationFeaturesCache.addSpectrumQuantificationDetails(
-                    spectrumFile,
-                    spectrumTitle, 
-                    result
+    /**
+     * Returns the quantification details of a spectrum using the settings of
+     * this generator.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
+     *
+     * @return the quantification details of the spectrum
+     */
+    public SpectrumQuantificationDetails getSpectrumQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            int spectrumIndex
+    ) {
+
+        return getSpectrumQuantificationDetails(
+                spectrumProvider,
+                reporterIonQuantification,
+                reporterSettings.getReporterIonSelectionSettings(),
+                spectrumIndex,
+                null
+        );
+
+    }
+
+    /**
+     * Returns the quantification details of a spectrum.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param reporterIonQuantification the quantification object
+     * @param reporterIonSelectionSettings the reporter ion selection settings
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
+     *
+     * @return the quantification details of the spectrum
+     */
+    public SpectrumQuantificationDetails getSpectrumQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterIonSelectionSettings reporterIonSelectionSettings,
+            int spectrumIndex
+    ) {
+
+        return getSpectrumQuantificationDetails(
+                spectrumProvider,
+                reporterIonQuantification,
+                reporterIonSelectionSettings,
+                spectrumIndex,
+                null
+        );
+
+    }
+
+    /**
+     * Returns the quantification details of a spectrum.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param reporterIonQuantification the quantification object
+     * @param reporterIonSelectionSettings the reporter ion selection settings
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
+     * @param aSpectrumMatch the spectrum match of interest, created from the
+     * registry if null
+     *
+     * @return the quantification details of the spectrum
+     */
+    private SpectrumQuantificationDetails getSpectrumQuantificationDetails(
+            SpectrumProvider spectrumProvider,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterIonSelectionSettings reporterIonSelectionSettings,
+            int spectrumIndex,
+            SpectrumMatch aSpectrumMatch
+    ) {
+
+        SpectrumQuantificationDetails result = quantificationFeaturesCache.getSpectrumQuantificationDetails(spectrumIndex);
+        QuantificationFeaturesCache staleCache = staleQuantificationFeaturesCache;
+
+        if (result == null && staleCache != null) {
+            result = staleCache.getSpectrumQuantificationDetails(spectrumIndex);
+        }
+
+        if (result == null) {
+
+            result = spectrumComputations.get(spectrumIndex, () -> {
+
+                int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.spectrum);
+                SpectrumQuantificationDetails details = quantificationFeaturesCache.getSpectrumQuantificationDetails(spectrumIndex);
+
+                if (details == null) {
+
+                    SpectrumMatch spectrumMatch = aSpectrumMatch;
+
+                    if (spectrumMatch == null) {
+
+                        SpectrumRegistry spectrumRegistry = getSpectrumRegistry(spectrumProvider);
+                        spectrumMatch = new SpectrumMatch(
+                                spectrumRegistry.getSpectrumFile(spectrumIndex),
+                                spectrumRegistry.getSpectrumTitle(spectrumIndex)
+                        );
+                    }
+
+                    SpectrumQuantificationDetails estimate = Reporter.estimateSpectrumQuantificationDetails(
+                            identification,
+                            spectrumProvider,
+                            getUpdateGenerator(),
+                            reporterIonQuantification,
+                            reporterIonSelectionSettings,
+                            spectrumMatch
+                    );
+
+                    // details computed with other settings than the ones of the generator are not cached
+                    if (reporterIonSelectionSettings == reporterSettings.getReporterIonSelectionSettings()) {
+
+                        quantificationFeaturesCache.addIfCurrent(
+                                QuantificationLevel.spectrum,
+                                generation,
+                                () -> quantificationFeaturesCache.addSpectrumQuantificationDetails(spectrumIndex, estimate)
+                        );
+                    }
+
+                    details = estimate;
+
+                }
+
+                return details;
+
+            });
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Quantifies a block of spectra and stores their details in the cache.
+     * The spectra already in the cache are skipped, the others are deisotoped
+     * together. The block is not registered in the computations in progress,
+     * it is meant for the bottom-up scheduler where every spectrum is
+     * quantified once.
+     *
+     * @param spectrumProvider the spectrum provider
+     * @param reporterIonQuantification the quantification object
+     * @param reporterIonSelectionSettings the reporter ion selection settings
+     * @param spectrumIndexes the indexes of the spectra, see SpectrumRegistry
+     */
+    public void quantifySpectra(
+            SpectrumProvider spectrumProvider,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterIonSelectionSettings reporterIonSelectionSettings,
+            int[] spectrumIndexes
+    ) {
+
+        int generation = quantificationFeaturesCache.getGeneration(QuantificationLevel.spectrum);
+        SpectrumRegistry registry = getSpectrumRegistry(spectrumProvider);
+
+        int[] missingIndexes = Arrays.stream(spectrumIndexes)
+                .filter(spectrumIndex -> quantificationFeaturesCache.getSpectrumQuantificationDetails(spectrumIndex) == null)
+                .toArray();
+
+        if (missingIndexes.length == 0) {
+            return;
+        }
+
+        Spectrum[] spectra = new Spectrum[missingIndexes.length];
+
+        for (int i = 0; i < missingIndexes.length; i++) {
+
+            spectra[i] = spectrumProvider.getSpectrum(
+                    registry.getSpectrumFile(missingIndexes[i]),
+                    registry.getSpectrumTitle(missingIndexes[i])
+            );
+        }
+
+        SpectrumQuantificationDetails[] details = Reporter.estimateSpectrumQuantificationDetails(
+                spectra,
+                getUpdateGenerator(),
+                reporterIonQuantification,
+                reporterIonSelectionSettings
+        );
+
+        // details computed with other settings than the ones of the generator are not cached
+        if (reporterIonSelectionSettings == reporterSettings.getReporterIonSelectionSettings()) {
+
+            quantificationFeaturesCache.addIfCurrent(
+                    QuantificationLevel.spectrum,
+                    generation,
+                    () -> {
+
+                        for (int i = 0; i < missingIndexes.length; i++) {
+                            quantificationFeaturesCache.addSpectrumQuantificationDetails(missingIndexes[i], details[i]);
+                        }
+                    }
             );
+        }
+    }
+
+    /**
+     * Returns the registry of the spectra of the project, indexing the spectra
+     * of the given provider when called for the first time.
+     *
+     * @param spectrumProvider the spectrum provider
+     *
+     * @return the registry of the spectra of the project
+     */
+    public SpectrumRegistry getSpectrumRegistry(
+            SpectrumProvider spectrumProvider
+    ) {
 
+        SpectrumRegistry result = spectrumRegistry;
+
+        if (result == null) {
+
+            synchronized (this) {
+
+                result = spectrumRegistry;
+
+                if (result == null) {
+                    result = new SpectrumRegistry(spectrumProvider);
+                    spectrumRegistry = result;
+                }
+            }
         }
 
         return result;
@@ -321,7 +866,8 @@ public class QuantificationFeaturesGenerator {
     }
 
     /**
-     * Returns the deisotoper corresponding to the given method.
+     * Returns the deisotoper corresponding to the given method. The
+     * deisotoper is created only once when requested by concurrent threads.
      *
      * @param reporterMethod the reporter method
      * @param reporterIonMassAccuracy the mass accuracy in the reporter ion
@@ -334,14 +880,239 @@ public class QuantificationFeaturesGenerator {
             double reporterIonMassAccuracy
     ) {
 
-        if (deisotoper == null) {
-            deisotoper = new Deisotoper(reporterMethod, reporterIonMassAccuracy);
+        Deisotoper result = deisotoper;
+
+        if (result == null) {
+
+            synchronized (this) {
+
+                result = deisotoper;
+
+                if (result == null) {
+                    result = new Deisotoper(reporterMethod, reporterIonMassAccuracy);
+                    deisotoper = result;
+                }
+            }
         }
 
-        return deisotoper;
+        return result;
 
     }
 
+    /**
+     * Returns the computations in progress of the given level, or null if
+     * not tracked. The counters of the returned object indicate how many
+     * duplicate computations were avoided.
+     *
+     * @param quantificationLevel the quantification level
+     *
+     * @return the computations in progress of the given level
+     */
+    public InFlightComputations<?, ?> getInFlightComputations(
+            QuantificationLevel quantificationLevel
+    ) {
+
+        switch (quantificationLevel) {
+
+            case spectrum:
+                return spectrumComputations;
+
+            case psm:
+                return psmComputations;
+
+            case peptide:
+                return peptideComputations;
+
+            case protein:
+                return proteinComputations;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns a report on the duplicate computations avoided at every level.
+     *
+     * @return a report on the duplicate computations avoided
+     */
+    public String getDuplicateSuppressionReport() {
+
+        StringBuilder report = new StringBuilder();
+
+        for (QuantificationLevel quantificationLevel : QuantificationLevel.values()) {
+
+            InFlightComputations<?, ?> computations = getInFlightComputations(quantificationLevel);
+
+            if (computations != null) {
+
+                if (report.length() > 0) {
+                    report.append(' ');
+                }
+
+                report.append(quantificationLevel.name)
+                        .append(": ")
+                        .append(computations.getnComputed())
+                        .append(" computed, ")
+                        .append(computations.getnSuppressed())
+                        .append(" duplicates avoided.");
+
+            }
+        }
+
+        return report.toString();
+
+    }
+
+    /**
+     * Returns the reporter ion quantification of the project.
+     *
+     * @return the reporter ion quantification of the project
+     */
+    public ReporterIonQuantification getReporterIonQuantification() {
+        return reporterIonQuantification;
+    }
+
+    /**
+     * Returns the channel table shared by the quantification details of the
+     * project.
+     *
+     * @return the channel table
+     */
+    public ChannelTable getChannelTable() {
+
+        ChannelTable result = channelTable;
+
+        if (result == null) {
+            result = new ChannelTable(reporterIonQuantification);
+            channelTable = result;
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Updates the reporter settings and invalidates the quantification details
+     * affected by the change. The invalidated details are kept as stale values
+     * until clearStaleValues is called.
+     *
+     * @param newSettings the new reporter settings
+     *
+     * @return the dependencies of the change of settings
+     */
+    public SettingsDependencies updateSettings(ReporterSettings newSettings) {
+        return updateSettings(newSettings, reporterIonQuantification);
+    }
+
+    /**
+     * Updates the reporter settings and invalidates the quantification details
+     * affected by the change. The invalidated details are kept as stale values
+     * until clearStaleValues is called. The update generator uses the given
+     * reporter ion quantification, so that the normalization factors can be
+     * estimated again without changing the ones in use.
+     *
+     * @param newSettings the new reporter settings
+     * @param updateReporterIonQuantification the reporter ion quantification
+     * to use in the update generator, see Normalizer.getWorkingCopy
+     *
+     * @return the dependencies of the change of settings
+     */
+    public synchronized SettingsDependencies updateSettings(
+            ReporterSettings newSettings,
+            ReporterIonQuantification updateReporterIonQuantification
+    ) {
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(reporterSettings, newSettings);
+        reporterSettings = newSettings;
+
+        if (settingsDependencies.hasChanges()) {
+
+            QuantificationFeaturesCache staleCache = quantificationFeaturesCache.invalidate(settingsDependencies.getInvalidatedLevels());
+
+            if (staleQuantificationFeaturesCache == null) {
+                staleQuantificationFeaturesCache = staleCache;
+            } else {
+
+                // keep the values invalidated by the previous changes, the cache in use is not edited
+                QuantificationFeaturesCache mergedCache = new QuantificationFeaturesCache();
+                mergedCache.merge(staleQuantificationFeaturesCache);
+                mergedCache.merge(staleCache);
+                staleQuantificationFeaturesCache = mergedCache;
+
+            }
+
+            if (settingsDependencies.getInvalidatedLevels().contains(QuantificationLevel.spectrum)) {
+                deisotoper = null;
+            }
+
+        }
+
+        updateGenerator = new QuantificationFeaturesGenerator(
+                quantificationFeaturesCache,
+                identification,
+                identificationFeaturesGenerator,
+                reporterSettings,
+                updateReporterIonQuantification,
+                searchParameters,
+                sequenceMatchingParameters,
+                exceptionHandler
+        );
+        updateGenerator.channelTable = getChannelTable();
+        updateGenerator.spectrumRegistry = spectrumRegistry;
+
+        // the computations started under the previous settings are not shared with the new ones
+        if (settingsDependencies.hasChanges()) {
+
+            spectrumComputations = new InFlightComputations<>();
+            psmComputations = new InFlightComputations<>();
+            peptideComputations = new InFlightComputations<>();
+            proteinComputations = new InFlightComputations<>();
+
+        }
+
+        updateGenerator.spectrumComputations = spectrumComputations;
+        updateGenerator.psmComputations = psmComputations;
+        updateGenerator.peptideComputations = peptideComputations;
+        updateGenerator.proteinComputations = proteinComputations;
+
+        return settingsDependencies;
+    }
+
+    /**
+     * Returns the generator to use to compute quantification details. After a
+     * change of settings this generator never returns stale values.
+     *
+     * @return the generator to use to compute quantification details
+     */
+    public QuantificationFeaturesGenerator getUpdateGenerator() {
+
+        QuantificationFeaturesGenerator result = updateGenerator;
+
+        return result == null ? this : result;
+
+    }
+
+    /**
+     * Indicates whether some of the values returned may be stale, i.e.
+     * computed using previous settings.
+     *
+     * @return a boolean indicating whether some of the values returned may be
+     * stale
+     */
+    public boolean isShowingStaleValues() {
+        return staleQuantificationFeaturesCache != null;
+    }
+
+    /**
+     * Discards the stale values, to be called when the details have been
+     * recomputed using the new settings.
+     */
+    public synchronized void clearStaleValues() {
+        staleQuantificationFeaturesCache = null;
+        updateGenerator = null;
+    }
+
     /**
      * Returns the quantification features cache.
      *
@@ -0,0 +1,1050 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import eu.isas.reporter.quantificationdetails.ChannelTable;
+import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second tier of the quantification features cache. The PSM, peptide and
+ * protein details evicted from memory are written to a memory-mapped file in
+ * the temporary folder of the project, and read back when accessed again.
+ * Only the raw ratios are written, as a mask of the channels set followed by
+ * the values, so that a PSM takes a few dozen bytes. Writing happens in a
+ * background thread, the details waiting to be written can still be
+ * retrieved. When details are invalidated, the records still in use are
+ * copied to a new file and the old file is deleted, so that the file does not
+ * grow with every change of settings.
+ *
+ * @author Marc Vaudel
+ */
+public class QuantificationFeaturesSpill {
+
+    /**
+     * The size of the segments of the file mapped in memory.
+     */
+    public static final int SEGMENT_SIZE = 1 << 26;
+    /**
+     * The folder where to write the spill file.
+     */
+    private final File folder;
+    /**
+     * The channel table of the project.
+     */
+    private final ChannelTable channelTable;
+    /**
+     * The handler of the exceptions raised while writing or closing the spill
+     * file.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * The spill file, null until the first details are spilled.
+     */
+    private File spillFile = null;
+    /**
+     * The random access file of the spill file.
+     */
+    private RandomAccessFile randomAccessFile = null;
+    /**
+     * The segments of the spill file mapped in memory.
+     */
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    /**
+     * The position where the next record is written.
+     */
+    private long writePosition = 0;
+    /**
+     * The executor writing the records.
+     */
+    private ExecutorService writer = null;
+    /**
+     * The position of the protein details in the file indexed by match key.
+     */
+    private final HashMap<Long, Long> proteinIndex = new HashMap<>();
+    /**
+     * The position of the peptide details in the file indexed by match key.
+     */
+    private final HashMap<Long, Long> peptideIndex = new HashMap<>();
+    /**
+     * The position of the PSM details in the file indexed by spectrum index,
+     * -1 if not spilled.
+     */
+    private long[] psmIndex = new long[0];
+    /**
+     * The protein details waiting to be written.
+     */
+    private final HashMap<Long, ProteinQuantificationDetails> pendingProteins = new HashMap<>();
+    /**
+     * The peptide details waiting to be written.
+     */
+    private final HashMap<Long, PeptideQuantificationDetails> pendingPeptides = new HashMap<>();
+    /**
+     * The PSM details waiting to be written indexed by spectrum index.
+     */
+    private final HashMap<Integer, PsmQuantificationDetails> pendingPsms = new HashMap<>();
+    /**
+     * The number of times the protein details were invalidated.
+     */
+    private int proteinGeneration = 0;
+    /**
+     * The number of times the peptide details were invalidated.
+     */
+    private int peptideGeneration = 0;
+    /**
+     * The number of times the PSM details were invalidated.
+     */
+    private int psmGeneration = 0;
+    /**
+     * Boolean indicating whether the spill is closed or failed, details are
+     * then dropped instead of spilled.
+     */
+    private volatile boolean closed = false;
+    /**
+     * The number of records written.
+     */
+    private long nWritten = 0;
+    /**
+     * The number of bytes written.
+     */
+    private long bytesWritten = 0;
+    /**
+     * The time spent writing in nanoseconds.
+     */
+    private long writeTime = 0;
+    /**
+     * The number of records read.
+     */
+    private final AtomicLong nRead = new AtomicLong();
+    /**
+     * The number of bytes read.
+     */
+    private final AtomicLong bytesRead = new AtomicLong();
+    /**
+     * The time spent reading in nanoseconds.
+     */
+    private final AtomicLong readTime = new AtomicLong();
+
+    /**
+     * Constructor. The spill file is only created when details are spilled.
+     *
+     * @param folder the folder where to write the spill file
+     * @param channelTable the channel table of the project
+     * @param exceptionHandler the handler of the exceptions raised while
+     * writing or closing the spill file
+     */
+    public QuantificationFeaturesSpill(
+            File folder,
+            ChannelTable channelTable,
+            ExceptionHandler exceptionHandler
+    ) {
+
+        this.folder = folder;
+        this.channelTable = channelTable;
+        this.exceptionHandler = exceptionHandler;
+
+    }
+
+    /**
+     * Spills the given protein details.
+     *
+     * @param details the protein details indexed by match key
+     */
+    public synchronized void spillProteins(
+            HashMap<Long, ProteinQuantificationDetails> details
+    ) {
+
+        if (closed || details == null) {
+            return;
+        }
+
+        final HashMap<Long, ProteinQuantificationDetails> toWrite = new HashMap<>(details.size());
+
+        for (Entry<Long, ProteinQuantificationDetails> entry : details.entrySet()) {
+
+            if (!proteinIndex.containsKey(entry.getKey())) {
+
+                toWrite.put(entry.getKey(), entry.getValue());
+                pendingProteins.put(entry.getKey(), entry.getValue());
+
+            }
+        }
+
+        final int generation = proteinGeneration;
+
+        submit(() -> {
+
+            HashMap<Long, Long> positions = new HashMap<>(toWrite.size());
+            ByteBuffer record = ByteBuffer.allocate(3 * getSetSize());
+
+            for (Entry<Long, ProteinQuantificationDetails> entry : toWrite.entrySet()) {
+
+                ProteinQuantificationDetails proteinDetails = entry.getValue();
+
+                record.clear();
+                putRatios(record, proteinDetails::getRawRatio);
+                putRatios(record, proteinDetails::getUniqueRawRatio);
+                putRatios(record, proteinDetails::getSharedRawRatio);
+                record.flip();
+
+                positions.put(entry.getKey(), write(record));
+
+            }
+
+            synchronized (this) {
+
+                if (generation == proteinGeneration) {
+
+                    proteinIndex.putAll(positions);
+                    pendingProteins.keySet().removeAll(positions.keySet());
+
+                }
+            }
+        });
+    }
+
+    /**
+     * Spills the given peptide details.
+     *
+     * @param details the peptide details indexed by match key
+     */
+    public synchronized void spillPeptides(
+            HashMap<Long, PeptideQuantificationDetails> details
+    ) {
+
+        if (closed || details == null) {
+            return;
+        }
+
+        final HashMap<Long, PeptideQuantificationDetails> toWrite = new HashMap<>(details.size());
+
+        for (Entry<Long, PeptideQuantificationDetails> entry : details.entrySet()) {
+
+            if (!peptideIndex.containsKey(entry.getKey())) {
+
+                toWrite.put(entry.getKey(), entry.getValue());
+                pendingPeptides.put(entry.getKey(), entry.getValue());
+
+            }
+        }
+
+        final int generation = peptideGeneration;
+
+        submit(() -> {
+
+            HashMap<Long, Long> positions = new HashMap<>(toWrite.size());
+            ByteBuffer record = ByteBuffer.allocate(getSetSize());
+
+            for (Entry<Long, PeptideQuantificationDetails> entry : toWrite.entrySet()) {
+
+                record.clear();
+                putRatios(record, entry.getValue()::getRawRatio);
+                record.flip();
+
+                positions.put(entry.getKey(), write(record));
+
+            }
+
+            synchronized (this) {
+
+                if (generation == peptideGeneration) {
+
+                    peptideIndex.putAll(positions);
+                    pendingPeptides.keySet().removeAll(positions.keySet());
+
+                }
+            }
+        });
+    }
+
+    /**
+     * Spills the given PSM details.
+     *
+     * @param details the PSM details indexed by spectrum index, null where
+     * not set
+     */
+    public synchronized void spillPsms(
+            PsmQuantificationDetails[] details
+    ) {
+
+        if (closed || details == null) {
+            return;
+        }
+
+        int nToWrite = 0;
+        final int[] spectrumIndexes = new int[details.length];
+        final PsmQuantificationDetails[] toWrite = new PsmQuantificationDetails[details.length];
+
+        for (int spectrumIndex = 0; spectrumIndex < details.length; spectrumIndex++) {
+
+            PsmQuantificationDetails psmDetails = details[spectrumIndex];
+
+            if (psmDetails != null && getPsmPosition(spectrumIndex) == -1) {
+
+                spectrumIndexes[nToWrite] = spectrumIndex;
+                toWrite[nToWrite] = psmDetails;
+                nToWrite++;
+                pendingPsms.put(spectrumIndex, psmDetails);
+
+            }
+        }
+
+        final int n = nToWrite;
+        final int generation = psmGeneration;
+
+        submit(() -> {
+
+            long[] positions = new long[n];
+            ByteBuffer record = ByteBuffer.allocate(getSetSize());
+
+            for (int i = 0; i < n; i++) {
+
+                record.clear();
+                putRatios(record, toWrite[i]::getRawRatio);
+                record.flip();
+
+                positions[i] = write(record);
+
+            }
+
+            synchronized (this) {
+
+                if (generation == psmGeneration) {
+
+                    if (n > 0 && spectrumIndexes[n - 1] >= psmIndex.length) {
+
+                        int oldLength = psmIndex.length;
+                        psmIndex = Arrays.copyOf(psmIndex, spectrumIndexes[n - 1] + 1);
+                        Arrays.fill(psmIndex, oldLength, psmIndex.length, -1);
+
+                    }
+
+                    for (int i = 0; i < n; i++) {
+
+                        psmIndex[spectrumIndexes[i]] = positions[i];
+                        pendingPsms.remove(spectrumIndexes[i]);
+
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the position of the details of the given PSM in the file, -1 if
+     * not spilled. The caller must hold the lock of this object.
+     *
+     * @param spectrumIndex the index of the spectrum
+     *
+     * @return the position of the details of the given PSM in the file
+     */
+    private long getPsmPosition(
+            int spectrumIndex
+    ) {
+        return spectrumIndex < psmIndex.length ? psmIndex[spectrumIndex] : -1;
+    }
+
+    /**
+     * Returns the spilled protein details, null if not spilled.
+     *
+     * @param matchKey the key of the protein match
+     *
+     * @return the spilled protein details
+     */
+    public ProteinQuantificationDetails getProteinMatchQuantificationDetails(
+            long matchKey
+    ) {
+
+        long position;
+        MappedByteBuffer segment;
+
+        synchronized (this) {
+
+            ProteinQuantificationDetails pending = pendingProteins.get(matchKey);
+
+            if (pending != null) {
+                return pending;
+            }
+
+            Long indexedPosition = proteinIndex.get(matchKey);
+
+            if (indexedPosition == null || closed) {
+                return null;
+            }
+
+            position = indexedPosition;
+            segment = getMappedSegment(position);
+
+        }
+
+        long start = System.nanoTime();
+        ProteinQuantificationDetails result = new ProteinQuantificationDetails(channelTable);
+        long end = getRatios(segment, position, result::setRawRatio);
+        end = getRatios(segment, end, result::setUniqueRawRatio);
+        end = getRatios(segment, end, result::setSharedRawRatio);
+        recordRead(end - position, start);
+
+        return result;
+
+    }
+
+    /**
+     * Returns the spilled peptide details, null if not spilled.
+     *
+     * @param matchKey the key of the peptide match
+     *
+     * @return the spilled peptide details
+     */
+    public PeptideQuantificationDetails getPeptideMatchQuantificationDetails(
+            long matchKey
+    ) {
+
+        long position;
+        MappedByteBuffer segment;
+
+        synchronized (this) {
+
+            PeptideQuantificationDetails pending = pendingPeptides.get(matchKey);
+
+            if (pending != null) {
+                return pending;
+            }
+
+            Long indexedPosition = peptideIndex.get(matchKey);
+
+            if (indexedPosition == null || closed) {
+                return null;
+            }
+
+            position = indexedPosition;
+            segment = getMappedSegment(position);
+
+        }
+
+        long start = System.nanoTime();
+        PeptideQuantificationDetails result = new PeptideQuantificationDetails();
+        long end = getRatios(segment, position, result::setRawRatio);
+        recordRead(end - position, start);
+
+        return result;
+
+    }
+
+    /**
+     * Returns the spilled PSM details, null if not spilled.
+     *
+     * @param spectrumIndex the index of the spectrum, see SpectrumRegistry
+     *
+     * @return the spilled PSM details
+     */
+    public PsmQuantificationDetails getPSMQuantificationDetails(
+            int spectrumIndex
+    ) {
+
+        long position;
+        MappedByteBuffer segment;
+
+        synchronized (this) {
+
+            PsmQuantificationDetails pending = pendingPsms.get(spectrumIndex);
+
+            if (pending != null) {
+                return pending;
+            }
+
+            position = getPsmPosition(spectrumIndex);
+
+            if (position == -1 || closed) {
+                return null;
+            }
+
+            segment = getMappedSegment(position);
+
+        }
+
+        long start = System.nanoTime();
+        PsmQuantificationDetails result = new PsmQuantificationDetails();
+        long end = getRatios(segment, position, result::setRawRatio);
+        recordRead(end - position, start);
+
+        return result;
+
+    }
+
+    /**
+     * Discards the spilled details of the given levels. Details of the levels
+     * waiting to be written are discarded as well. The space of the
+     * discarded records is reclaimed in the writer thread, see compact.
+     *
+     * @param levels the quantification levels to invalidate
+     */
+    public synchronized void invalidate(
+            Set<QuantificationLevel> levels
+    ) {
+
+        if (closed) {
+            return;
+        }
+
+        if (levels.contains(QuantificationLevel.psm)) {
+
+            psmIndex = new long[0];
+            pendingPsms.clear();
+            psmGeneration++;
+
+        }
+
+        if (levels.contains(QuantificationLevel.peptide)) {
+
+            peptideIndex.clear();
+            pendingPeptides.clear();
+            peptideGeneration++;
+
+        }
+
+        if (levels.contains(QuantificationLevel.protein)) {
+
+            proteinIndex.clear();
+            pendingProteins.clear();
+            proteinGeneration++;
+
+        }
+
+        if (writer != null) {
+            submit(this::compact);
+        }
+    }
+
+    /**
+     * Copies the records still indexed to a new spill file and deletes the
+     * old one. If no record is indexed anymore, the file is only deleted and
+     * the next record is written at the start of a new file. Only called from
+     * the writer thread, after the writes submitted before the invalidation.
+     * The lock is held during the copy so that no position is read while
+     * being moved. Readers having obtained a segment before the copy keep
+     * reading the old mapping, which remains valid after the file is closed.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating or mapping the new file
+     */
+    private synchronized void compact() throws IOException {
+
+        if (closed || randomAccessFile == null) {
+            return;
+        }
+
+        ArrayList<MappedByteBuffer> oldSegments = new ArrayList<>(segments);
+        RandomAccessFile oldRandomAccessFile = randomAccessFile;
+        File oldSpillFile = spillFile;
+
+        segments.clear();
+        randomAccessFile = null;
+        spillFile = null;
+        writePosition = 0;
+
+        try {
+
+            for (Entry<Long, Long> entry : proteinIndex.entrySet()) {
+                entry.setValue(move(oldSegments, entry.getValue(), 3));
+            }
+
+            for (Entry<Long, Long> entry : peptideIndex.entrySet()) {
+                entry.setValue(move(oldSegments, entry.getValue(), 1));
+            }
+
+            for (int spectrumIndex = 0; spectrumIndex < psmIndex.length; spectrumIndex++) {
+
+                if (psmIndex[spectrumIndex] != -1) {
+                    psmIndex[spectrumIndex] = move(oldSegments, psmIndex[spectrumIndex], 1);
+                }
+            }
+
+        } finally {
+
+            oldRandomAccessFile.close();
+
+            if (!oldSpillFile.delete()) {
+                oldSpillFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Copies a record of the old spill file at the end of the current spill
+     * file.
+     *
+     * @param oldSegments the segments of the old spill file
+     * @param position the position of the record in the old spill file
+     * @param nSets the number of sets of ratios in the record
+     *
+     * @return the position of the record in the current spill file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating or mapping the file
+     */
+    private long move(
+            ArrayList<MappedByteBuffer> oldSegments,
+            long position,
+            int nSets
+    ) throws IOException {
+
+        MappedByteBuffer segment = oldSegments.get((int) (position / SEGMENT_SIZE));
+        int offset = (int) (position % SEGMENT_SIZE);
+        int length = 0;
+
+        for (int i = 0; i < nSets; i++) {
+            length += Long.BYTES + Long.bitCount(segment.getLong(offset + length)) * Double.BYTES;
+        }
+
+        ByteBuffer record = segment.duplicate();
+        record.position(offset);
+        record.limit(offset + length);
+
+        return append(record);
+
+    }
+
+    /**
+     * Waits for the details submitted to be written.
+     *
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+
+        Future<?> future;
+
+        synchronized (this) {
+
+            if (writer == null || closed) {
+                return;
+            }
+
+            future = writer.submit(() -> {
+            });
+
+        }
+
+        try {
+
+            future.get();
+
+        } catch (ExecutionException e) {
+
+            throw new IllegalStateException(e.getCause());
+
+        }
+    }
+
+    /**
+     * Closes the spill and deletes the spill file. Details are dropped from
+     * the cache after closing.
+     */
+    public synchronized void close() {
+
+        if (closed && randomAccessFile == null) {
+            return;
+        }
+
+        closed = true;
+
+        if (writer != null) {
+            writer.shutdownNow();
+        }
+
+        proteinIndex.clear();
+        peptideIndex.clear();
+        psmIndex = new long[0];
+        pendingProteins.clear();
+        pendingPeptides.clear();
+        pendingPsms.clear();
+        segments.clear();
+
+        if (randomAccessFile != null) {
+
+            try {
+
+                randomAccessFile.close();
+
+            } catch (IOException e) {
+
+                exceptionHandler.catchException(e);
+
+            }
+
+            randomAccessFile = null;
+
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Returns a report of the amount of details spilled and of the read and
+     * write throughput.
+     *
+     * @return a report of the amount of details spilled and of the read and
+     * write throughput
+     */
+    public synchronized String getThroughputReport() {
+
+        return "Written: " + nWritten + " details, " + getMegaBytes(bytesWritten) + " MB at " + getThroughput(bytesWritten, writeTime) + " MB/s."
+                + " Read: " + nRead.get() + " details, " + getMegaBytes(bytesRead.get()) + " MB at " + getThroughput(bytesRead.get(), readTime.get()) + " MB/s.";
+
+    }
+
+    /**
+     * Indicates whether details were spilled.
+     *
+     * @return a boolean indicating whether details were spilled
+     */
+    public synchronized boolean hasSpilled() {
+        return nWritten > 0;
+    }
+
+    /**
+     * Submits a write to the writer thread. If writing fails, the spill is
+     * closed, the details are dropped and the error is passed to the
+     * exception handler.
+     *
+     * @param task the write task
+     */
+    private void submit(
+            SpillTask task
+    ) {
+
+        if (writer == null) {
+
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+
+                Thread thread = new Thread(runnable, "QuantificationFeaturesSpill");
+                thread.setDaemon(true);
+                return thread;
+
+            });
+        }
+
+        writer.submit(() -> {
+
+            try {
+
+                task.run();
+
+            } catch (IOException e) {
+
+                close();
+                exceptionHandler.catchException(e);
+
+            }
+        });
+    }
+
+    /**
+     * Writes a record in the spill file and counts it in the write
+     * throughput. Only called from the writer thread.
+     *
+     * @param record the record to write
+     *
+     * @return the position of the record in the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private long write(
+            ByteBuffer record
+    ) throws IOException {
+
+        long start = System.nanoTime();
+        int length = record.remaining();
+        long position = append(record);
+
+        synchronized (this) {
+
+            nWritten++;
+            bytesWritten += length;
+            writeTime += System.nanoTime() - start;
+
+        }
+
+        return position;
+
+    }
+
+    /**
+     * Appends a record at the end of the spill file. Records do not span two
+     * segments. Only called from the writer thread.
+     *
+     * @param record the record to write
+     *
+     * @return the position of the record in the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private long append(
+            ByteBuffer record
+    ) throws IOException {
+
+        int length = record.remaining();
+        long segmentOffset = writePosition % SEGMENT_SIZE;
+
+        if (segmentOffset + length > SEGMENT_SIZE) {
+            writePosition += SEGMENT_SIZE - segmentOffset;
+        }
+
+        long position = writePosition;
+        ByteBuffer target = getSegment((int) (position / SEGMENT_SIZE)).duplicate();
+        target.position((int) (position % SEGMENT_SIZE));
+        target.put(record);
+        writePosition += length;
+
+        return position;
+
+    }
+
+    /**
+     * Returns the segment of the given index, creating the file and mapping
+     * new segments as needed.
+     *
+     * @param index the index of the segment
+     *
+     * @return the segment
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating or mapping the file
+     */
+    private synchronized MappedByteBuffer getSegment(
+            int index
+    ) throws IOException {
+
+        if (closed) {
+            throw new IOException("Quantification features spill closed.");
+        }
+
+        if (randomAccessFile == null) {
+
+            if (!folder.exists()) {
+                folder.mkdirs();
+            }
+
+            spillFile = File.createTempFile("quantification_features_", ".spill", folder);
+            spillFile.deleteOnExit();
+            randomAccessFile = new RandomAccessFile(spillFile, "rw");
+
+        }
+
+        while (segments.size() <= index) {
+
+            segments.add(
+                    randomAccessFile.getChannel().map(
+                            FileChannel.MapMode.READ_WRITE,
+                            ((long) segments.size()) * SEGMENT_SIZE,
+                            SEGMENT_SIZE
+                    )
+            );
+        }
+
+        return segments.get(index);
+
+    }
+
+    /**
+     * Returns the maximal size of a set of ratios in bytes.
+     *
+     * @return the maximal size of a set of ratios in bytes
+     */
+    private int getSetSize() {
+        return Long.BYTES + channelTable.size() * Double.BYTES;
+    }
+
+    /**
+     * Puts a set of ratios in the given buffer: the mask of the channels set
+     * followed by the values of these channels.
+     *
+     * @param buffer the buffer
+     * @param ratios the ratios indexed by sample index
+     */
+    private void putRatios(
+            ByteBuffer buffer,
+            RatioGetter ratios
+    ) {
+
+        int maskPosition = buffer.position();
+        long mask = 0;
+        buffer.putLong(0L);
+
+        for (int channel = 0; channel < channelTable.size(); channel++) {
+
+            Double ratio = ratios.get(channelTable.getSampleIndex(channel));
+
+            if (ratio != null) {
+
+                mask |= 1L << channel;
+                buffer.putDouble(ratio);
+
+            }
+        }
+
+        buffer.putLong(maskPosition, mask);
+
+    }
+
+    /**
+     * Returns the mapped segment containing the given position. Must be called
+     * while holding the lock of the spill, in the same block as the lookup of
+     * the position, so that the segments cannot be cleared in between.
+     *
+     * @param position the position in the file
+     *
+     * @return the mapped segment containing the given position
+     */
+    private MappedByteBuffer getMappedSegment(
+            long position
+    ) {
+        return segments.get((int) (position / SEGMENT_SIZE));
+    }
+
+    /**
+     * Reads a set of ratios at the given position of the spill file.
+     *
+     * @param segment the segment containing the set, see getMappedSegment
+     * @param position the position of the set in the file
+     * @param ratios the setter of the ratios indexed by sample index
+     *
+     * @return the position after the set
+     */
+    private long getRatios(
+            MappedByteBuffer segment,
+            long position,
+            RatioSetter ratios
+    ) {
+
+        int offset = (int) (position % SEGMENT_SIZE);
+        long mask = segment.getLong(offset);
+        offset += Long.BYTES;
+
+        for (int channel = 0; channel < channelTable.size(); channel++) {
+
+            if ((mask & (1L << channel)) != 0) {
+
+                ratios.set(channelTable.getSampleIndex(channel), segment.getDouble(offset));
+                offset += Double.BYTES;
+
+            }
+        }
+
+        return position - position % SEGMENT_SIZE + offset;
+
+    }
+
+    /**
+     * Records the reading of a record.
+     *
+     * @param length the length of the record in bytes
+     * @param start the start of the reading as given by System.nanoTime()
+     */
+    private void recordRead(
+            long length,
+            long start
+    ) {
+
+        nRead.incrementAndGet();
+        bytesRead.addAndGet(length);
+        readTime.addAndGet(System.nanoTime() - start);
+
+    }
+
+    /**
+     * Returns the given number of bytes in MB, rounded to one decimal.
+     *
+     * @param bytes the number of bytes
+     *
+     * @return the given number of bytes in MB
+     */
+    private static double getMegaBytes(
+            long bytes
+    ) {
+        return Math.round(bytes / 1e5) / 10.0;
+    }
+
+    /**
+     * Returns the throughput in MB/s, rounded to one decimal.
+     *
+     * @param bytes the number of bytes
+     * @param nanos the time in nanoseconds
+     *
+     * @return the throughput in MB/s
+     */
+    private static double getThroughput(
+            long bytes,
+            long nanos
+    ) {
+
+        if (nanos == 0) {
+            return 0.0;
+        }
+
+        return Math.round(10 * bytes * 1e3 / nanos) / 10.0;
+
+    }
+
+    /**
+     * Getter for the ratio of a sample.
+     */
+    private interface RatioGetter {
+
+        /**
+         * Returns the ratio of the given sample, null if not set.
+         *
+         * @param sampleIndex the sample index
+         *
+         * @return the ratio of the given sample
+         */
+        Double get(String sampleIndex);
+    }
+
+    /**
+     * Setter for the ratio of a sample.
+     */
+    private interface RatioSetter {
+
+        /**
+         * Sets the ratio of the given sample.
+         *
+         * @param sampleIndex the sample index
+         * @param ratio the ratio
+         */
+        void set(String sampleIndex, double ratio);
+    }
+
+    /**
+     * A write task.
+     */
+    private interface SpillTask {
+
+        /**
+         * Runs the task.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing
+         */
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,36 @@
+package eu.isas.reporter.calculation;
+
+/**
+ * Enum for the levels at which quantification details are computed and
+ * cached, from spectrum to protein PTM site.
+ *
+ * @author Marc Vaudel
+ */
+public enum QuantificationLevel {
+
+    spectrum(0, "Spectrum"),
+    psm(1, "PSM"),
+    peptide(2, "Peptide"),
+    protein(3, "Protein"),
+    ptm(4, "PTM Site");
+
+    /**
+     * The index of the level.
+     */
+    public final int index;
+    /**
+     * The name of the level.
+     */
+    public final String name;
+
+    /**
+     * Constructor.
+     *
+     * @param index the index of the level
+     * @param name the name of the level
+     */
+    private QuantificationLevel(int index, String name) {
+        this.index = index;
+        this.name = name;
+    }
+}
@@ -0,0 +1,500 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.Reporter;
+import eu.isas.reporter.settings.ReporterIonSelectionSettings;
+import eu.isas.reporter.settings.ReporterSettings;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Bottom-up scheduler for the quantification of a whole project. The spectra
+ * carrying the reporter ions of the PSMs are quantified first, one file per
+ * thread, then the PSMs, the peptides and the proteins, every level in
+ * parallel over its matches. Every level thus
+ * finds the details of the level below in the cache instead of computing them
+ * recursively. Once the peptides are done, the spectrum and PSM details are
+ * released from the cache. The spectrum details are kept until then for the
+ * PSM normalization by sum of intensities. Interactive lookups keep going
+ * through the quantification features generator, which computes missing
+ * details on demand.
+ *
+ * @author Marc Vaudel
+ */
+public class QuantificationScheduler {
+
+    /**
+     * The number of matches processed by a thread at a time.
+     */
+    private static final int CHUNK_SIZE = 256;
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The quantification features generator.
+     */
+    private final QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The reporter ion quantification.
+     */
+    private final ReporterIonQuantification reporterIonQuantification;
+    /**
+     * The reporter ion selection settings.
+     */
+    private final ReporterIonSelectionSettings reporterIonSelectionSettings;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The exception handler.
+     */
+    private final ExceptionHandler exceptionHandler;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator where to store the quantification details
+     * @param reporterIonQuantification the reporter ion quantification
+     * @param reporterSettings the reporter settings
+     * @param processingParameters the processing parameters
+     * @param exceptionHandler the exception handler
+     */
+    public QuantificationScheduler(
+            Identification identification,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            ProcessingParameters processingParameters,
+            ExceptionHandler exceptionHandler
+    ) {
+
+        this.identification = identification;
+        this.spectrumProvider = spectrumProvider;
+        this.quantificationFeaturesGenerator = quantificationFeaturesGenerator;
+        this.reporterIonQuantification = reporterIonQuantification;
+        this.reporterIonSelectionSettings = reporterSettings.getReporterIonSelectionSettings();
+        this.nThreads = processingParameters.getnThreads();
+        this.exceptionHandler = exceptionHandler;
+
+    }
+
+    /**
+     * Quantifies the spectra carrying the reporter ions of all PSMs, i.e. the
+     * spectra used for the PSM ratios according to the reporter ion location,
+     * see Reporter.getReporterSpectrumIndexes. The spectra of every PSM are
+     * selected first, then quantified by blocks deisotoped together, see
+     * DeisotopingKernel. The spectrum files are processed in parallel.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    public void quantifySpectra(
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        HashMap<String, HashSet<Long>> spectrumIdentification = identification.getSpectrumIdentification();
+        String[] spectrumFiles = spectrumIdentification.keySet().stream()
+                .sorted()
+                .toArray(String[]::new);
+        SpectrumRegistry spectrumRegistry = quantificationFeaturesGenerator.getSpectrumRegistry(spectrumProvider);
+        int[][] spectrumIndexes = new int[spectrumFiles.length][];
+
+        startProgress("Spectrum Selection. Please Wait...", identification.getSpectrumIdentificationSize(), waitingHandler);
+
+        run(
+                "Spectrum selection",
+                spectrumFiles.length,
+                1,
+                fileIndex -> {
+
+                    long[] keys = getSortedKeys(spectrumIdentification.get(spectrumFiles[fileIndex]));
+                    IntStream.Builder fileSpectrumIndexes = IntStream.builder();
+
+                    for (long key : keys) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(key);
+
+                        for (int spectrumIndex : Reporter.getReporterSpectrumIndexes(spectrumProvider, spectrumRegistry, reporterIonSelectionSettings, spectrumMatch)) {
+                            fileSpectrumIndexes.add(spectrumIndex);
+                        }
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+
+                    }
+
+                    spectrumIndexes[fileIndex] = fileSpectrumIndexes.build()
+                            .distinct()
+                            .sorted()
+                            .toArray();
+
+                },
+                waitingHandler
+        );
+
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        int nSpectra = Arrays.stream(spectrumIndexes)
+                .mapToInt(fileSpectrumIndexes -> fileSpectrumIndexes.length)
+                .sum();
+
+        startProgress("Spectrum Quantification. Please Wait...", nSpectra, waitingHandler);
+
+        run(
+                "Spectrum",
+                spectrumFiles.length,
+                1,
+                fileIndex -> {
+
+                    int[] fileSpectrumIndexes = spectrumIndexes[fileIndex];
+
+                    for (int start = 0; start < fileSpectrumIndexes.length; start += DeisotopingKernel.BLOCK_SIZE) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        int[] block = Arrays.copyOfRange(
+                                fileSpectrumIndexes,
+                                start,
+                                Math.min(start + DeisotopingKernel.BLOCK_SIZE, fileSpectrumIndexes.length)
+                        );
+
+                        quantificationFeaturesGenerator.quantifySpectra(
+                                spectrumProvider,
+                                reporterIonQuantification,
+                                reporterIonSelectionSettings,
+                                block
+                        );
+
+                        for (int i = 0; i < block.length; i++) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+                    }
+                },
+                waitingHandler
+        );
+    }
+
+    /**
+     * Quantifies all PSMs.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    public void quantifyPsms(
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        long[] keys = identification.getSpectrumIdentification().values().stream()
+                .flatMapToLong(fileKeys -> Arrays.stream(getSortedKeys(fileKeys)))
+                .toArray();
+
+        startProgress("PSM Quantification. Please Wait...", keys.length, waitingHandler);
+
+        run(
+                "PSM",
+                keys.length,
+                CHUNK_SIZE,
+                index -> {
+
+                    quantificationFeaturesGenerator.getPSMQuantificationDetails(spectrumProvider, keys[index]);
+                    waitingHandler.increaseSecondaryProgressCounter();
+
+                },
+                waitingHandler
+        );
+    }
+
+    /**
+     * Quantifies all peptides. The spectrum and PSM details are released from
+     * the cache when done.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    public void quantifyPeptides(
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        long[] keys = getSortedKeys(identification.getPeptideIdentification());
+
+        startProgress("Peptide Quantification. Please Wait...", keys.length, waitingHandler);
+
+        run(
+                "Peptide",
+                keys.length,
+                CHUNK_SIZE,
+                index -> {
+
+                    quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+                            spectrumProvider,
+                            identification.getPeptideMatch(keys[index]),
+                            waitingHandler
+                    );
+                    waitingHandler.increaseSecondaryProgressCounter();
+
+                },
+                waitingHandler
+        );
+
+        if (!waitingHandler.isRunCanceled()) {
+
+            QuantificationFeaturesCache quantificationFeaturesCache = quantificationFeaturesGenerator.getQuantificationFeaturesCache();
+            quantificationFeaturesCache.release(QuantificationLevel.spectrum);
+            quantificationFeaturesCache.release(QuantificationLevel.psm);
+
+        }
+    }
+
+    /**
+     * Quantifies all proteins.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    public void quantifyProteins(
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        long[] keys = getSortedKeys(identification.getProteinIdentification());
+
+        startProgress("Protein Quantification. Please Wait...", keys.length, waitingHandler);
+
+        run(
+                "Protein",
+                keys.length,
+                CHUNK_SIZE,
+                index -> {
+
+                    quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
+                            spectrumProvider,
+                            keys[index],
+                            waitingHandler
+                    );
+                    waitingHandler.increaseSecondaryProgressCounter();
+
+                },
+                waitingHandler
+        );
+    }
+
+    /**
+     * Returns the given keys sorted in an array.
+     *
+     * @param keys the keys
+     *
+     * @return the keys sorted in an array
+     */
+    private static long[] getSortedKeys(
+            Collection<Long> keys
+    ) {
+
+        long[] result = keys.stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+        Arrays.sort(result);
+
+        return result;
+
+    }
+
+    /**
+     * Resets the secondary progress of the waiting handler.
+     *
+     * @param waitingText the text to display
+     * @param nMatches the number of matches to process
+     * @param waitingHandler the waiting handler
+     */
+    private static void startProgress(
+            String waitingText,
+            int nMatches,
+            WaitingHandler waitingHandler
+    ) {
+
+        waitingHandler.setWaitingText(waitingText);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(nMatches);
+
+    }
+
+    /**
+     * Runs the given task on all indexes in parallel. The indexes are taken
+     * by chunks from a shared counter.
+     *
+     * @param levelName the name of the level, used in error messages
+     * @param nIndexes the number of indexes
+     * @param chunkSize the number of indexes taken at a time by a thread
+     * @param task the task to run
+     * @param waitingHandler the waiting handler
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    private void run(
+            String levelName,
+            int nIndexes,
+            int chunkSize,
+            IndexTask task,
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        int nChunks = (nIndexes + chunkSize - 1) / chunkSize;
+        int nPoolThreads = Math.max(1, Math.min(nThreads, nChunks));
+        AtomicInteger nextIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(nPoolThreads);
+
+        for (int i = 1; i <= nPoolThreads; i++) {
+
+            pool.submit(
+                    new SchedulerRunnable(
+                            task,
+                            nIndexes,
+                            chunkSize,
+                            nextIndex,
+                            waitingHandler
+                    )
+            );
+        }
+
+        pool.shutdown();
+
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException(levelName + " quantification timed out. Please contact the developers.");
+        }
+    }
+
+    /**
+     * Task run on an index.
+     */
+    private interface IndexTask {
+
+        /**
+         * Runs the task on the given index.
+         *
+         * @param index the index
+         *
+         * @throws Exception exception thrown whenever an error occurred
+         */
+        public void run(int index) throws Exception;
+    }
+
+    /**
+     * Runnable processing chunks of indexes taken from a shared counter.
+     *
+     * @author Marc Vaudel
+     */
+    private class SchedulerRunnable implements Runnable {
+
+        /**
+         * The task to run on every index.
+         */
+        private final IndexTask task;
+        /**
+         * The number of indexes.
+         */
+        private final int nIndexes;
+        /**
+         * The number of indexes taken at a time.
+         */
+        private final int chunkSize;
+        /**
+         * The shared index of the next chunk.
+         */
+        private final AtomicInteger nextIndex;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param task the task to run on every index
+         * @param nIndexes the number of indexes
+         * @param chunkSize the number of indexes taken at a time
+         * @param nextIndex the shared index of the next chunk
+         * @param waitingHandler the waiting handler
+         */
+        public SchedulerRunnable(
+                IndexTask task,
+                int nIndexes,
+                int chunkSize,
+                AtomicInteger nextIndex,
+                WaitingHandler waitingHandler
+        ) {
+
+            this.task = task;
+            this.nIndexes = nIndexes;
+            this.chunkSize = chunkSize;
+            this.nextIndex = nextIndex;
+            this.waitingHandler = waitingHandler;
+
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                int start;
+
+                while ((start = nextIndex.getAndAdd(chunkSize)) < nIndexes) {
+
+                    int end = Math.min(start + chunkSize, nIndexes);
+
+                    for (int index = start; index < end; index++) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        task.run(index);
+
+                    }
+                }
+
+            } catch (Exception e) {
+                waitingHandler.setRunCanceled();
+                exceptionHandler.catchException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package eu.isas.reporter.calculation;
+
+import eu.isas.reporter.settings.ReporterIonSelectionSettings;
+import java.util.Arrays;
+
+/**
+ * The calibration of the reporter ion m/z: the distribution of the m/z errors
+ * of the reporter ions per channel, and the tolerance and systematic offset
+ * proposed from it. The distributions are fitted robustly by their median and
+ * median absolute deviation, so that interfering peaks in the tails do not
+ * bias the fit. The proposed offset is the median of all errors, and the
+ * proposed tolerance covers COVERAGE standard deviations of every channel
+ * around the offset. See ReporterMzCalibrator.
+ *
+ * @author Marc Vaudel
+ */
+public class ReporterMzCalibration {
+
+    /**
+     * The number of standard deviations of the error distribution of every
+     * channel covered by the proposed tolerance.
+     */
+    public static final double COVERAGE = 3.0;
+    /**
+     * The minimal number of reporter ions needed to propose a tolerance.
+     */
+    public static final int MIN_IONS = 100;
+    /**
+     * The minimal number of reporter ions needed to consider a channel in the
+     * proposed tolerance.
+     */
+    public static final int MIN_CHANNEL_IONS = 20;
+    /**
+     * The factor converting the median absolute deviation in standard
+     * deviation for a normal distribution.
+     */
+    private static final double MAD_TO_SD = 1.4826;
+    /**
+     * The inverse of the resolution used to round the proposed tolerance and
+     * offset, i.e. 0.00001 m/z.
+     */
+    private static final double PRECISION = 100000.0;
+    /**
+     * The labels of the channels.
+     */
+    private final String[] labels;
+    /**
+     * The number of reporter ions found per channel.
+     */
+    private final int[] counts;
+    /**
+     * The median error per channel.
+     */
+    private final double[] medians;
+    /**
+     * The standard deviation of the error estimated from the median absolute
+     * deviation per channel.
+     */
+    private final double[] sds;
+    /**
+     * The number of spectra sampled.
+     */
+    private final int nSpectra;
+    /**
+     * The m/z tolerance used to search the reporter ions.
+     */
+    private final double searchTolerance;
+    /**
+     * The reporter ion m/z tolerance of the settings.
+     */
+    private final double currentTolerance;
+    /**
+     * The reporter ion m/z offset of the settings.
+     */
+    private final double currentOffset;
+    /**
+     * The proposed reporter ion m/z tolerance.
+     */
+    private double tolerance;
+    /**
+     * The proposed reporter ion m/z offset.
+     */
+    private double offset;
+    /**
+     * The share of the reporter ions found within the current tolerance.
+     */
+    private double shareWithinCurrent;
+    /**
+     * The share of the reporter ions found within the proposed tolerance.
+     */
+    private double shareWithinProposed;
+    /**
+     * The total number of reporter ions found.
+     */
+    private int nIons = 0;
+
+    /**
+     * Constructor. Fits the error distributions.
+     *
+     * @param labels the labels of the channels
+     * @param errors the m/z errors of the reporter ions found, indexed by
+     * channel
+     * @param nSpectra the number of spectra sampled
+     * @param searchTolerance the m/z tolerance used to search the reporter
+     * ions
+     * @param maxTolerance the maximal tolerance to propose
+     * @param reporterIonSelectionSettings the current reporter ion selection
+     * settings
+     */
+    public ReporterMzCalibration(
+            String[] labels,
+            double[][] errors,
+            int nSpectra,
+            double searchTolerance,
+            double maxTolerance,
+            ReporterIonSelectionSettings reporterIonSelectionSettings
+    ) {
+
+        this.labels = labels;
+        this.nSpectra = nSpectra;
+        this.searchTolerance = searchTolerance;
+        this.currentTolerance = reporterIonSelectionSettings.getReporterIonsMzTolerance();
+        this.currentOffset = reporterIonSelectionSettings.getReporterIonsMzOffset();
+
+        counts = new int[labels.length];
+        medians = new double[labels.length];
+        sds = new double[labels.length];
+
+        for (int channel = 0; channel < labels.length; channel++) {
+
+            double[] channelErrors = errors[channel];
+            counts[channel] = channelErrors.length;
+            nIons += channelErrors.length;
+
+            if (channelErrors.length > 0) {
+
+                medians[channel] = median(channelErrors);
+                sds[channel] = MAD_TO_SD * medianAbsoluteDeviation(channelErrors, medians[channel]);
+
+            }
+        }
+
+        fit(errors, maxTolerance);
+
+    }
+
+    /**
+     * Estimates the proposed tolerance and offset.
+     *
+     * @param errors the m/z errors of the reporter ions found, indexed by
+     * channel
+     * @param maxTolerance the maximal tolerance to propose
+     */
+    private void fit(
+            double[][] errors,
+            double maxTolerance
+    ) {
+
+        if (!isReliable()) {
+
+            tolerance = currentTolerance;
+            offset = currentOffset;
+
+            return;
+        }
+
+        double[] allErrors = new double[nIons];
+        int index = 0;
+
+        for (double[] channelErrors : errors) {
+
+            System.arraycopy(channelErrors, 0, allErrors, index, channelErrors.length);
+            index += channelErrors.length;
+
+        }
+
+        offset = Math.round(median(allErrors) * PRECISION) / PRECISION;
+
+        double width = 0.0;
+
+        for (int channel = 0; channel < labels.length; channel++) {
+
+            if (counts[channel] >= MIN_CHANNEL_IONS) {
+                width = Math.max(width, Math.abs(medians[channel] - offset) + COVERAGE * sds[channel]);
+            }
+        }
+
+        tolerance = Math.min(Math.ceil(width * PRECISION) / PRECISION, maxTolerance);
+
+        if (tolerance <= 0) {
+            tolerance = currentTolerance;
+        }
+
+        int nWithinCurrent = 0;
+        int nWithinProposed = 0;
+
+        for (double error : allErrors) {
+
+            if (Math.abs(error - currentOffset) <= currentTolerance) {
+                nWithinCurrent++;
+            }
+
+            if (Math.abs(error - offset) <= tolerance) {
+                nWithinProposed++;
+            }
+        }
+
+        shareWithinCurrent = ((double) nWithinCurrent) / nIons;
+        shareWithinProposed = ((double) nWithinProposed) / nIons;
+
+    }
+
+    /**
+     * Indicates whether enough reporter ions were found to propose a
+     * tolerance and an offset.
+     *
+     * @return a boolean indicating whether enough reporter ions were found
+     */
+    public boolean isReliable() {
+        return nIons >= MIN_IONS;
+    }
+
+    /**
+     * Returns the proposed reporter ion m/z tolerance. The current tolerance
+     * if the calibration is not reliable.
+     *
+     * @return the proposed reporter ion m/z tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Returns the proposed reporter ion m/z offset. The current offset if the
+     * calibration is not reliable.
+     *
+     * @return the proposed reporter ion m/z offset
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the labels of the channels.
+     *
+     * @return the labels of the channels
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the number of reporter ions found for the given channel.
+     *
+     * @param channel the index of the channel
+     *
+     * @return the number of reporter ions found for the given channel
+     */
+    public int getCount(int channel) {
+        return counts[channel];
+    }
+
+    /**
+     * Returns the median m/z error of the given channel.
+     *
+     * @param channel the index of the channel
+     *
+     * @return the median m/z error of the given channel
+     */
+    public double getMedian(int channel) {
+        return medians[channel];
+    }
+
+    /**
+     * Returns the standard deviation of the m/z error of the given channel,
+     * estimated from the median absolute deviation.
+     *
+     * @param channel the index of the channel
+     *
+     * @return the standard deviation of the m/z error of the given channel
+     */
+    public double getSd(int channel) {
+        return sds[channel];
+    }
+
+    /**
+     * Sets the proposed tolerance and offset in the given settings if the
+     * calibration is reliable.
+     *
+     * @param reporterIonSelectionSettings the settings to update
+     *
+     * @return a boolean indicating whether the settings were updated
+     */
+    public boolean apply(
+            ReporterIonSelectionSettings reporterIonSelectionSettings
+    ) {
+
+        if (!isReliable()) {
+            return false;
+        }
+
+        reporterIonSelectionSettings.setReporterIonsMzTolerance(tolerance);
+        reporterIonSelectionSettings.setReporterIonsMzOffset(offset);
+
+        return true;
+
+    }
+
+    /**
+     * Returns the calibration as text.
+     *
+     * @return the calibration as text
+     */
+    public String getReport() {
+
+        String lineBreak = System.getProperty("line.separator");
+        StringBuilder report = new StringBuilder();
+
+        report.append("Reporter ions searched in ").append(nSpectra).append(" spectra with a tolerance of ")
+                .append(format(searchTolerance)).append(" m/z, ").append(nIons).append(" found.")
+                .append(lineBreak);
+
+        for (int channel = 0; channel < labels.length; channel++) {
+
+            report.append(labels[channel]).append(": ")
+                    .append(counts[channel]).append(" ions");
+
+            if (counts[channel] > 0) {
+
+                report.append(", error ").append(format(medians[channel]))
+                        .append(" +/- ").append(format(sds[channel])).append(" m/z");
+
+            }
+
+            report.append(".").append(lineBreak);
+
+        }
+
+        if (!isReliable()) {
+
+            report.append("Not enough reporter ions found to calibrate the tolerance (")
+                    .append(MIN_IONS).append(" needed).");
+
+        } else {
+
+            report.append("Current: tolerance ").append(format(currentTolerance))
+                    .append(" m/z, offset ").append(format(currentOffset))
+                    .append(" m/z, ").append(Math.round(1000 * shareWithinCurrent) / 10.0).append("% of the ions found.")
+                    .append(lineBreak)
+                    .append("Proposed: tolerance ").append(format(tolerance))
+                    .append(" m/z, offset ").append(format(offset))
+                    .append(" m/z, ").append(Math.round(1000 * shareWithinProposed) / 10.0).append("% of the ions found.");
+
+        }
+
+        return report.toString();
+
+    }
+
+    /**
+     * Formats an m/z value for the report.
+     *
+     * @param mz the m/z value
+     *
+     * @return the m/z value as text
+     */
+    private static String format(
+            double mz
+    ) {
+        return String.format("%.5f", mz);
+    }
+
+    /**
+     * Returns the median of the given values.
+     *
+     * @param values the values
+     *
+     * @return the median of the given values
+     */
+    private static double median(
+            double[] values
+    ) {
+
+        double[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+
+    }
+
+    /**
+     * Returns the median absolute deviation of the given values to the given
+     * median.
+     *
+     * @param values the values
+     * @param median the median of the values
+     *
+     * @return the median absolute deviation of the given values
+     */
+    private static double medianAbsoluteDeviation(
+            double[] values,
+            double median
+    ) {
+
+        double[] deviations = new double[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            deviations[i] = Math.abs(values[i] - median);
+        }
+
+        return median(deviations);
+
+    }
+}
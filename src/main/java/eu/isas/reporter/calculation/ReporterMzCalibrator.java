@@ -0,0 +1,426 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.biology.ions.impl.ReporterIon;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.Reporter;
+import eu.isas.reporter.settings.ReporterIonSelectionSettings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibrates the reporter ion m/z tolerance and offset on a sample of the
+ * PSMs. The reporter ions are searched in a window wider than the current
+ * tolerance in the spectra used for the ratios of the PSMs according to the
+ * reporter ion location, see Reporter.getReporterSpectrumIndexes, and the m/z
+ * errors found are fitted per channel, see ReporterMzCalibration. The PSMs
+ * are sampled at regular intervals in every file and processed in parallel.
+ *
+ * @author Marc Vaudel
+ */
+public class ReporterMzCalibrator {
+
+    /**
+     * The number of spectra to sample.
+     */
+    public static final int SAMPLE_SIZE = 3000;
+    /**
+     * The factor applied to the current tolerance to obtain the search
+     * window.
+     */
+    public static final double SEARCH_FACTOR = 3.0;
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The quantification features generator providing the spectrum registry.
+     */
+    private final QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The reporter ion quantification.
+     */
+    private final ReporterIonQuantification reporterIonQuantification;
+    /**
+     * Handler for the exceptions.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator
+     * @param reporterIonQuantification the reporter ion quantification
+     * @param nThreads the number of threads to use
+     * @param exceptionHandler handler in case exception occur
+     */
+    public ReporterMzCalibrator(
+            Identification identification,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            int nThreads,
+            ExceptionHandler exceptionHandler
+    ) {
+
+        this.identification = identification;
+        this.spectrumProvider = spectrumProvider;
+        this.quantificationFeaturesGenerator = quantificationFeaturesGenerator;
+        this.reporterIonQuantification = reporterIonQuantification;
+        this.nThreads = nThreads;
+        this.exceptionHandler = exceptionHandler;
+
+    }
+
+    /**
+     * Calibrates the reporter ion m/z tolerance and offset starting from the
+     * given settings. The reporter ions are searched in the spectra selected
+     * by the reporter ion location of the settings. Returns null if the
+     * calibration was canceled.
+     *
+     * @param reporterIonSelectionSettings the reporter ion selection settings
+     * @param waitingHandler waiting handler displaying progress to the user,
+     * can be null
+     *
+     * @return the calibration
+     *
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     */
+    public ReporterMzCalibration calibrate(
+            ReporterIonSelectionSettings reporterIonSelectionSettings,
+            WaitingHandler waitingHandler
+    ) throws InterruptedException {
+
+        ReporterMethod reporterMethod = reporterIonQuantification.getReporterMethod();
+        ArrayList<String> reagents = reporterMethod.getReagentsSortedByMass();
+        Set<String> sampleIndexes = reporterIonQuantification.getSampleIndexes();
+
+        ArrayList<String> labelsList = new ArrayList<>(sampleIndexes.size());
+        double minSpacing = Double.POSITIVE_INFINITY;
+        double previousMass = Double.NaN;
+
+        for (String reagent : reagents) {
+
+            double mass = reporterMethod.getReporterIon(reagent).getTheoreticMass();
+
+            if (!Double.isNaN(previousMass) && mass > previousMass) {
+                minSpacing = Math.min(minSpacing, mass - previousMass);
+            }
+
+            previousMass = mass;
+
+            if (sampleIndexes.contains(reagent)) {
+                labelsList.add(reagent);
+            }
+        }
+
+        String[] labels = labelsList.toArray(new String[labelsList.size()]);
+        ReporterIon[] reporterIons = new ReporterIon[labels.length];
+
+        for (int i = 0; i < labels.length; i++) {
+            reporterIons[i] = reporterMethod.getReporterIon(labels[i]);
+        }
+
+        double maxTolerance = minSpacing / 2;
+        double searchTolerance = Math.min(
+                SEARCH_FACTOR * reporterIonSelectionSettings.getReporterIonsMzTolerance() + Math.abs(reporterIonSelectionSettings.getReporterIonsMzOffset()),
+                maxTolerance
+        );
+
+        long[] keys = getSample();
+        SpectrumRegistry spectrumRegistry = quantificationFeaturesGenerator.getSpectrumRegistry(spectrumProvider);
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Calibrating Reporter Ions. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(keys.length);
+        }
+
+        int[] nSearched = new int[keys.length];
+        double[][] errors = new double[labels.length][keys.length];
+
+        for (double[] channelErrors : errors) {
+            Arrays.fill(channelErrors, Double.NaN);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        for (int i = 0; i < nThreads && (waitingHandler == null || !waitingHandler.isRunCanceled()); i++) {
+
+            CalibrationRunnable runnable = new CalibrationRunnable(
+                    keys,
+                    nSearched,
+                    i,
+                    nThreads,
+                    spectrumRegistry,
+                    reporterIonSelectionSettings,
+                    reporterIons,
+                    searchTolerance,
+                    errors,
+                    waitingHandler
+            );
+
+            pool.submit(runnable);
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return null;
+        }
+
+        pool.shutdown();
+
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException(
+                    "Reporter ion calibration timed out. Please contact the developers."
+            );
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        int nSpectra = Arrays.stream(nSearched).sum();
+
+        double[][] foundErrors = new double[labels.length][];
+
+        for (int channel = 0; channel < labels.length; channel++) {
+
+            foundErrors[channel] = Arrays.stream(errors[channel])
+                    .filter(error -> !Double.isNaN(error))
+                    .toArray();
+
+        }
+
+        return new ReporterMzCalibration(
+                labels,
+                foundErrors,
+                nSpectra,
+                searchTolerance,
+                maxTolerance,
+                reporterIonSelectionSettings
+        );
+    }
+
+    /**
+     * Returns the keys of the spectrum matches to sample, taken at regular
+     * intervals in the sorted keys of every file.
+     *
+     * @return the keys of the spectrum matches to sample
+     */
+    private long[] getSample() {
+
+        int nMatches = identification.getSpectrumIdentificationSize();
+        int step = Math.max(1, nMatches / SAMPLE_SIZE);
+        ArrayList<Long> sample = new ArrayList<>(Math.min(nMatches, SAMPLE_SIZE + 1));
+
+        for (String spectrumFile : new TreeSet<>(identification.getSpectrumIdentification().keySet())) {
+
+            HashSet<Long> fileKeys = identification.getSpectrumIdentification().get(spectrumFile);
+            long[] sortedKeys = fileKeys.stream()
+                    .mapToLong(Long::longValue)
+                    .sorted()
+                    .toArray();
+
+            for (int i = 0; i < sortedKeys.length; i += step) {
+                sample.add(sortedKeys[i]);
+            }
+        }
+
+        return sample.stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+
+    }
+
+    /**
+     * Runnable searching the reporter ions in the spectra of a share of the
+     * sampled PSMs. Every runnable processes the PSMs at an index congruent
+     * to its own index modulo the number of runnables, and writes the errors
+     * at the index of the PSM. When a PSM has several reporter spectra, the
+     * first ion found per channel is kept.
+     *
+     * @author Marc Vaudel
+     */
+    private class CalibrationRunnable implements Runnable {
+
+        /**
+         * The keys of the sampled spectrum matches.
+         */
+        private final long[] keys;
+        /**
+         * The number of spectra searched for every sampled spectrum match.
+         */
+        private final int[] nSearched;
+        /**
+         * The index of this runnable.
+         */
+        private final int runnableIndex;
+        /**
+         * The number of runnables.
+         */
+        private final int nRunnables;
+        /**
+         * The registry of the spectra of the project.
+         */
+        private final SpectrumRegistry spectrumRegistry;
+        /**
+         * The reporter ion selection settings.
+         */
+        private final ReporterIonSelectionSettings reporterIonSelectionSettings;
+        /**
+         * The reporter ions of the channels.
+         */
+        private final ReporterIon[] reporterIons;
+        /**
+         * The m/z tolerance used to search the reporter ions.
+         */
+        private final double searchTolerance;
+        /**
+         * The m/z errors indexed by channel and spectrum.
+         */
+        private final double[][] errors;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param keys the keys of the sampled spectrum matches
+         * @param nSearched array where to write the number of spectra
+         * searched for every sampled spectrum match
+         * @param runnableIndex the index of this runnable
+         * @param nRunnables the number of runnables
+         * @param spectrumRegistry the registry of the spectra of the project
+         * @param reporterIonSelectionSettings the reporter ion selection
+         * settings
+         * @param reporterIons the reporter ions of the channels
+         * @param searchTolerance the m/z tolerance used to search the
+         * reporter ions
+         * @param errors the m/z errors indexed by channel and spectrum
+         * @param waitingHandler a waiting handler
+         */
+        public CalibrationRunnable(
+                long[] keys,
+                int[] nSearched,
+                int runnableIndex,
+                int nRunnables,
+                SpectrumRegistry spectrumRegistry,
+                ReporterIonSelectionSettings reporterIonSelectionSettings,
+                ReporterIon[] reporterIons,
+                double searchTolerance,
+                double[][] errors,
+                WaitingHandler waitingHandler
+        ) {
+
+            this.keys = keys;
+            this.nSearched = nSearched;
+            this.runnableIndex = runnableIndex;
+            this.nRunnables = nRunnables;
+            this.spectrumRegistry = spectrumRegistry;
+            this.reporterIonSelectionSettings = reporterIonSelectionSettings;
+            this.reporterIons = reporterIons;
+            this.searchTolerance = searchTolerance;
+            this.errors = errors;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                for (int i = runnableIndex; i < keys.length; i += nRunnables) {
+
+                    SpectrumMatch spectrumMatch = identification.getSpectrumMatch(keys[i]);
+
+                    if (spectrumMatch.getBestPeptideAssumption() != null) {
+
+                        int[] spectrumIndexes = Reporter.getReporterSpectrumIndexes(
+                                spectrumProvider,
+                                spectrumRegistry,
+                                reporterIonSelectionSettings,
+                                spectrumMatch
+                        );
+
+                        for (int spectrumIndex : spectrumIndexes) {
+
+                            Spectrum spectrum = spectrumProvider.getSpectrum(
+                                    spectrumRegistry.getSpectrumFile(spectrumIndex),
+                                    spectrumRegistry.getSpectrumTitle(spectrumIndex)
+                            );
+
+                            for (int channel = 0; channel < reporterIons.length; channel++) {
+
+                                if (Double.isNaN(errors[channel][i])) {
+
+                                    IonMatch ionMatch = Reporter.getBestReporterIonMatch(
+                                            reporterIons[channel],
+                                            1,
+                                            spectrum,
+                                            searchTolerance,
+                                            reporterIonSelectionSettings.isMostAccurate()
+                                    );
+
+                                    if (ionMatch != null) {
+                                        errors[channel][i] = ionMatch.getAbsoluteError();
+                                    }
+                                }
+                            }
+                        }
+
+                        nSearched[i] = spectrumIndexes.length;
+
+                    }
+
+                    if (waitingHandler != null) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+
+                    }
+                }
+
+            } catch (Exception e) {
+
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+
+                exceptionHandler.catchException(e);
+
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package eu.isas.reporter.calculation;
+
+import eu.isas.reporter.settings.NormalizationSettings;
+import eu.isas.reporter.settings.RatioEstimationSettings;
+import eu.isas.reporter.settings.ReporterIonSelectionSettings;
+import eu.isas.reporter.settings.ReporterSettings;
+import java.io.File;
+import java.util.EnumSet;
+
+/**
+ * This class models the dependencies between the reporter settings and the
+ * quantification levels: it indicates which cached quantification details and
+ * which normalization factors are affected by a change of settings.
+ *
+ * @author Marc Vaudel
+ */
+public class SettingsDependencies {
+
+    /**
+     * The quantification levels whose cached details are invalidated.
+     */
+    private final EnumSet<QuantificationLevel> invalidatedLevels = EnumSet.noneOf(QuantificationLevel.class);
+    /**
+     * The quantification levels whose normalization factors need to be
+     * estimated again. Only the PSM, peptide, and protein levels are
+     * normalized.
+     */
+    private final EnumSet<QuantificationLevel> normalizationLevels = EnumSet.noneOf(QuantificationLevel.class);
+
+    /**
+     * Constructor. Compares the old and new settings and propagates the
+     * changes through the quantification levels.
+     *
+     * @param oldSettings the settings used to compute the cached details
+     * @param newSettings the new settings
+     */
+    public SettingsDependencies(
+            ReporterSettings oldSettings,
+            ReporterSettings newSettings
+    ) {
+
+        setReporterIonSelectionDependencies(
+                oldSettings.getReporterIonSelectionSettings(),
+                newSettings.getReporterIonSelectionSettings()
+        );
+
+        setRatioEstimationDependencies(
+                oldSettings.getRatioEstimationSettings(),
+                newSettings.getRatioEstimationSettings()
+        );
+
+        setNormalizationDependencies(
+                oldSettings.getNormalizationSettings(),
+                newSettings.getNormalizationSettings()
+        );
+
+        propagate();
+
+    }
+
+    /**
+     * Sets the dependencies for a change of reporter ion selection settings:
+     * the reporter ion matching and deisotoping are affected.
+     *
+     * @param oldSettings the old settings
+     * @param newSettings the new settings
+     */
+    private void setReporterIonSelectionDependencies(
+            ReporterIonSelectionSettings oldSettings,
+            ReporterIonSelectionSettings newSettings
+    ) {
+
+        if (!oldSettings.isSameAs(newSettings)) {
+            invalidatedLevels.add(QuantificationLevel.spectrum);
+        }
+
+    }
+
+    /**
+     * Sets the dependencies for a change of ratio estimation settings.
+     *
+     * @param oldSettings the old settings
+     * @param newSettings the new settings
+     */
+    private void setRatioEstimationDependencies(
+            RatioEstimationSettings oldSettings,
+            RatioEstimationSettings newSettings
+    ) {
+
+        // ratio filtering and estimation from the PSM level up
+        if (oldSettings.isIgnoreNullIntensities() != newSettings.isIgnoreNullIntensities()
+                || oldSettings.getPercentile() != newSettings.getPercentile()
+                || oldSettings.getRatioResolution() != newSettings.getRatioResolution()) {
+
+            invalidatedLevels.add(QuantificationLevel.psm);
+
+        }
+
+        // selection of the PSMs used for peptides and PSM normalization
+        if (oldSettings.getPsmValidationLevel() != newSettings.getPsmValidationLevel()) {
+
+            invalidatedLevels.add(QuantificationLevel.peptide);
+            normalizationLevels.add(QuantificationLevel.psm);
+
+        }
+
+        // selection of the peptides used for proteins and peptide normalization
+        if (oldSettings.getPeptideValidationLevel() != newSettings.getPeptideValidationLevel()
+                || oldSettings.isIgnoreMissedCleavages() != newSettings.isIgnoreMissedCleavages()
+                || !oldSettings.getExcludingPtms().equals(newSettings.getExcludingPtms())) {
+
+            invalidatedLevels.add(QuantificationLevel.protein);
+            invalidatedLevels.add(QuantificationLevel.ptm);
+            normalizationLevels.add(QuantificationLevel.peptide);
+
+        }
+
+        // unique peptides are only used for proteins
+        if (oldSettings.getMinUnique() != newSettings.getMinUnique()) {
+
+            invalidatedLevels.add(QuantificationLevel.protein);
+
+        }
+
+        // selection of the proteins used for protein normalization
+        if (oldSettings.getProteinValidationLevel() != newSettings.getProteinValidationLevel()) {
+
+            normalizationLevels.add(QuantificationLevel.protein);
+
+        }
+    }
+
+    /**
+     * Sets the dependencies for a change of normalization settings.
+     *
+     * @param oldSettings the old settings
+     * @param newSettings the new settings
+     */
+    private void setNormalizationDependencies(
+            NormalizationSettings oldSettings,
+            NormalizationSettings newSettings
+    ) {
+
+        if (!isSameFile(oldSettings.getStableProteinsFastaFile(), newSettings.getStableProteinsFastaFile())
+                || !isSameFile(oldSettings.getContaminantsFastaFile(), newSettings.getContaminantsFastaFile())) {
+
+            normalizationLevels.add(QuantificationLevel.psm);
+            normalizationLevels.add(QuantificationLevel.peptide);
+            normalizationLevels.add(QuantificationLevel.protein);
+
+        }
+
+        if (oldSettings.getPsmNormalization() != newSettings.getPsmNormalization()) {
+            normalizationLevels.add(QuantificationLevel.psm);
+        }
+
+        if (oldSettings.getPeptideNormalization() != newSettings.getPeptideNormalization()) {
+            normalizationLevels.add(QuantificationLevel.peptide);
+        }
+
+        if (oldSettings.getProteinNormalization() != newSettings.getProteinNormalization()) {
+            normalizationLevels.add(QuantificationLevel.protein);
+        }
+    }
+
+    /**
+     * Propagates the changes from the spectrum level up. The details of a
+     * level are computed from the normalized ratios of the level below, and
+     * the normalization factors of a level are computed from its details.
+     */
+    private void propagate() {
+
+        if (invalidatedLevels.contains(QuantificationLevel.spectrum)) {
+            invalidatedLevels.add(QuantificationLevel.psm);
+        }
+
+        if (invalidatedLevels.contains(QuantificationLevel.psm)) {
+            invalidatedLevels.add(QuantificationLevel.peptide);
+            normalizationLevels.add(QuantificationLevel.psm);
+        }
+
+        if (normalizationLevels.contains(QuantificationLevel.psm)) {
+            invalidatedLevels.add(QuantificationLevel.peptide);
+        }
+
+        if (invalidatedLevels.contains(QuantificationLevel.peptide)) {
+            invalidatedLevels.add(QuantificationLevel.protein);
+            invalidatedLevels.add(QuantificationLevel.ptm);
+            normalizationLevels.add(QuantificationLevel.peptide);
+        }
+
+        if (normalizationLevels.contains(QuantificationLevel.peptide)) {
+            invalidatedLevels.add(QuantificationLevel.protein);
+            invalidatedLevels.add(QuantificationLevel.ptm);
+        }
+
+        if (invalidatedLevels.contains(QuantificationLevel.protein)) {
+            normalizationLevels.add(QuantificationLevel.protein);
+        }
+    }
+
+    /**
+     * Indicates whether two files point to the same path. Null files are
+     * considered the same.
+     *
+     * @param file1 the first file
+     * @param file2 the second file
+     *
+     * @return a boolean indicating whether two files point to the same path
+     */
+    private static boolean isSameFile(
+            File file1,
+            File file2
+    ) {
+
+        if (file1 == null || file2 == null) {
+            return file1 == file2;
+        }
+
+        return file1.getAbsolutePath().equals(file2.getAbsolutePath());
+
+    }
+
+    /**
+     * Returns the quantification levels whose cached details are invalidated
+     * by the change of settings.
+     *
+     * @return the quantification levels whose cached details are invalidated
+     */
+    public EnumSet<QuantificationLevel> getInvalidatedLevels() {
+        return invalidatedLevels;
+    }
+
+    /**
+     * Returns the quantification levels whose normalization factors need to be
+     * estimated again.
+     *
+     * @return the quantification levels whose normalization factors need to
+     * be estimated again
+     */
+    public EnumSet<QuantificationLevel> getNormalizationLevels() {
+        return normalizationLevels;
+    }
+
+    /**
+     * Indicates whether the change of settings affects the quantification
+     * results.
+     *
+     * @return a boolean indicating whether the change of settings affects the
+     * quantification results
+     */
+    public boolean hasChanges() {
+        return !invalidatedLevels.isEmpty() || !normalizationLevels.isEmpty();
+    }
+}
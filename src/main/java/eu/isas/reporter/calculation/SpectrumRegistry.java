@@ -0,0 +1,298 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Registry of the spectra of a project, mapping every spectrum file and
+ * title to a dense integer index. The spectra of a file have consecutive
+ * indexes in the order of the spectrum provider. The precursor m/z and
+ * retention times are loaded per file in arrays indexed by spectrum when
+ * first needed.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumRegistry {
+
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The spectrum files.
+     */
+    private final String[] spectrumFiles;
+    /**
+     * The index of the first spectrum of every file, followed by the total
+     * number of spectra.
+     */
+    private final int[] fileStarts;
+    /**
+     * The index of every spectrum file.
+     */
+    private final HashMap<String, Integer> fileIndexes;
+    /**
+     * The spectrum titles indexed by file.
+     */
+    private final String[][] spectrumTitles;
+    /**
+     * The position of every title in its file indexed by file.
+     */
+    private final ArrayList<HashMap<String, Integer>> titleIndexes;
+    /**
+     * The precursor m/z indexed by file, null if not loaded.
+     */
+    private final double[][] precursorMz;
+    /**
+     * The precursor retention times indexed by file, null if not loaded.
+     */
+    private final double[][] precursorRt;
+
+    /**
+     * Constructor. Indexes all the spectra of the given provider.
+     *
+     * @param spectrumProvider the spectrum provider
+     */
+    public SpectrumRegistry(
+            SpectrumProvider spectrumProvider
+    ) {
+
+        this.spectrumProvider = spectrumProvider;
+
+        spectrumFiles = spectrumProvider.getOrderedFileNamesWithoutExtensions();
+        fileStarts = new int[spectrumFiles.length + 1];
+        fileIndexes = new HashMap<>(spectrumFiles.length);
+        spectrumTitles = new String[spectrumFiles.length][];
+        titleIndexes = new ArrayList<>(spectrumFiles.length);
+        precursorMz = new double[spectrumFiles.length][];
+        precursorRt = new double[spectrumFiles.length][];
+
+        for (int fileIndex = 0; fileIndex < spectrumFiles.length; fileIndex++) {
+
+            String[] titles = spectrumProvider.getSpectrumTitles(spectrumFiles[fileIndex]);
+            HashMap<String, Integer> fileTitleIndexes = new HashMap<>(titles.length);
+
+            for (int i = 0; i < titles.length; i++) {
+                fileTitleIndexes.put(titles[i], i);
+            }
+
+            fileIndexes.put(spectrumFiles[fileIndex], fileIndex);
+            spectrumTitles[fileIndex] = titles;
+            titleIndexes.add(fileTitleIndexes);
+            fileStarts[fileIndex + 1] = fileStarts[fileIndex] + titles.length;
+
+        }
+    }
+
+    /**
+     * Returns the number of spectra.
+     *
+     * @return the number of spectra
+     */
+    public int size() {
+        return fileStarts[spectrumFiles.length];
+    }
+
+    /**
+     * Returns the index of the given spectrum, -1 if not found.
+     *
+     * @param spectrumFile the spectrum file
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the index of the given spectrum
+     */
+    public int getIndex(
+            String spectrumFile,
+            String spectrumTitle
+    ) {
+
+        Integer fileIndex = fileIndexes.get(spectrumFile);
+
+        if (fileIndex == null) {
+            return -1;
+        }
+
+        Integer titleIndex = titleIndexes.get(fileIndex).get(spectrumTitle);
+
+        if (titleIndex == null) {
+            return -1;
+        }
+
+        return fileStarts[fileIndex] + titleIndex;
+
+    }
+
+    /**
+     * Returns the index of the first spectrum of the given file, -1 if not
+     * found.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the index of the first spectrum of the given file
+     */
+    public int getFileStart(
+            String spectrumFile
+    ) {
+
+        Integer fileIndex = fileIndexes.get(spectrumFile);
+
+        return fileIndex == null ? -1 : fileStarts[fileIndex];
+
+    }
+
+    /**
+     * Returns the index following the last spectrum of the given file, -1 if
+     * not found.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the index following the last spectrum of the given file
+     */
+    public int getFileEnd(
+            String spectrumFile
+    ) {
+
+        Integer fileIndex = fileIndexes.get(spectrumFile);
+
+        return fileIndex == null ? -1 : fileStarts[fileIndex + 1];
+
+    }
+
+    /**
+     * Returns the index of the file of the given spectrum.
+     *
+     * @param spectrumIndex the index of the spectrum
+     *
+     * @return the index of the file of the spectrum
+     */
+    private int getFileIndex(
+            int spectrumIndex
+    ) {
+
+        int fileIndex = Arrays.binarySearch(fileStarts, spectrumIndex);
+
+        if (fileIndex < 0) {
+            return -fileIndex - 2;
+        }
+
+        // Skip files without spectra
+        while (fileStarts[fileIndex + 1] == spectrumIndex) {
+            fileIndex++;
+        }
+
+        return fileIndex;
+
+    }
+
+    /**
+     * Returns the file of the given spectrum.
+     *
+     * @param spectrumIndex the index of the spectrum
+     *
+     * @return the file of the spectrum
+     */
+    public String getSpectrumFile(
+            int spectrumIndex
+    ) {
+        return spectrumFiles[getFileIndex(spectrumIndex)];
+    }
+
+    /**
+     * Returns the title of the given spectrum.
+     *
+     * @param spectrumIndex the index of the spectrum
+     *
+     * @return the title of the spectrum
+     */
+    public String getSpectrumTitle(
+            int spectrumIndex
+    ) {
+
+        int fileIndex = getFileIndex(spectrumIndex);
+
+        return spectrumTitles[fileIndex][spectrumIndex - fileStarts[fileIndex]];
+
+    }
+
+    /**
+     * Returns the precursor m/z of the spectra of the given file, indexed
+     * from the start of the file, null if the file is not found.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the precursor m/z of the spectra of the file
+     */
+    public double[] getPrecursorMz(
+            String spectrumFile
+    ) {
+
+        Integer fileIndex = fileIndexes.get(spectrumFile);
+
+        if (fileIndex == null) {
+            return null;
+        }
+
+        loadPrecursors(fileIndex);
+
+        return precursorMz[fileIndex];
+
+    }
+
+    /**
+     * Returns the precursor retention times of the spectra of the given file,
+     * indexed from the start of the file, null if the file is not found.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the precursor retention times of the spectra of the file
+     */
+    public double[] getPrecursorRt(
+            String spectrumFile
+    ) {
+
+        Integer fileIndex = fileIndexes.get(spectrumFile);
+
+        if (fileIndex == null) {
+            return null;
+        }
+
+        loadPrecursors(fileIndex);
+
+        return precursorRt[fileIndex];
+
+    }
+
+    /**
+     * Loads the precursor m/z and retention times of the given file if not
+     * done already.
+     *
+     * @param fileIndex the index of the file
+     */
+    private synchronized void loadPrecursors(
+            int fileIndex
+    ) {
+
+        if (precursorMz[fileIndex] == null) {
+
+            String spectrumFile = spectrumFiles[fileIndex];
+            String[] titles = spectrumTitles[fileIndex];
+            double[] fileMz = new double[titles.length];
+            double[] fileRt = new double[titles.length];
+
+            for (int i = 0; i < titles.length; i++) {
+
+                Precursor precursor = spectrumProvider.getPrecursor(spectrumFile, titles[i]);
+                fileMz[i] = precursor.mz;
+                fileRt[i] = precursor.rt;
+
+            }
+
+            precursorMz[fileIndex] = fileMz;
+            precursorRt[fileIndex] = fileRt;
+
+        }
+    }
+}
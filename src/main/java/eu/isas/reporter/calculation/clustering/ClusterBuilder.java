@@ -1,43 +1,39 @@
 package eu.isas.reporter.calculation.clustering;
 
-import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.identification.Identification;
-import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
-import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
-import com.compomics.util.experiment.identification.matches_iterators.SpectrumMatchesIterator;
 import com.compomics.util.experiment.identification.peptide_shaker.Metrics;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
-import com.compomics.util.experiment.identification.utils.PeptideUtils;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
-import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.math.clustering.KMeansClustering;
 import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
-import eu.isas.reporter.calculation.clustering.keys.PeptideClusterClassKey;
-import eu.isas.reporter.calculation.clustering.keys.ProteinClusterClassKey;
-import eu.isas.reporter.calculation.clustering.keys.PsmClusterClassKey;
 import eu.isas.reporter.preferences.DisplayPreferences;
 import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.ProteinRatioType;
 import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
-import eu.isas.reporter.settings.ClusteringSettings;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Methods for building clusters based on a reporter project.
@@ -47,6 +43,10 @@ import java.util.TreeSet;
  */
 public class ClusterBuilder {
 
+    /**
+     * The number of matches loaded at a time by every thread.
+     */
+    private static final int CHUNK_SIZE = 256;
     /**
      * The filtered protein keys indexed by cluster class key.
      */
@@ -119,6 +119,7 @@ public class ClusterBuilder {
      * @param quantificationFeaturesGenerator the quantification features
      * generator
      * @param displayPreferences the display preferences
+     * @param processingParameters the processing parameters
      * @param loadData if true, the data is (re-)loaded
      * @param waitingHandler a waiting handler
      *
@@ -138,6 +139,7 @@ public class ClusterBuilder {
             ReporterIonQuantification reporterIonQuantification,
             QuantificationFeaturesGenerator quantificationFeaturesGenerator,
             DisplayPreferences displayPreferences,
+            ProcessingParameters processingParameters,
             boolean loadData,
             WaitingHandler waitingHandler
     ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
@@ -158,6 +160,7 @@ public class ClusterBuilder {
                     displayPreferences,
                     reporterIonQuantification,
                     quantificationFeaturesGenerator,
+                    processingParameters,
                     waitingHandler
             );
 
@@ -195,8 +198,11 @@ public class ClusterBuilder {
     }
 
     /**
-     * Filters the proteins and indexes them according to the clustering
-     * settings and stores the result in the attribute maps.
+     * Filters the matches and indexes them according to the clustering
+     * settings and stores the result in the attribute maps. The matches of
+     * every level are loaded in parallel by chunks of keys, and the loaded
+     * matches are then added in the order of the keys so that the result
+     * does not depend on the number of threads.
      *
      * @param identification the identification
      * @param identificationParameters the identification parameters
@@ -207,6 +213,7 @@ public class ClusterBuilder {
      * @param reporterIonQuantification the reporter ion quantification
      * @param quantificationFeaturesGenerator the quantification features
      * generator
+     * @param processingParameters the processing parameters
      * @param waitingHandler the waiting handler
      *
      * @throws SQLException if an exception occurs while interacting with the
@@ -226,43 +233,32 @@ public class ClusterBuilder {
             DisplayPreferences displayPreferences,
             ReporterIonQuantification reporterIonQuantification,
             QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ProcessingParameters processingParameters,
             WaitingHandler waitingHandler
     ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ClusteringSettings clusteringSettings = displayPreferences.getClusteringSettings();
-        HashSet<Long> proteinKeys = identification.getProteinIdentification();
-        HashSet<Long> peptideKeys = identification.getPeptideIdentification();
+        ClusterClassFilter classFilter = new ClusterClassFilter(displayPreferences.getClusteringSettings());
 
-        int nProteinClusters = clusteringSettings.getSelectedProteinClasses().size();
-        int nPeptideClusters = clusteringSettings.getSelectedPeptideClasses().size();
-        int nPsmClusters = clusteringSettings.getSelectedPsmClasses().size();
-        int progressTotal = 1;
-
-        if (nProteinClusters > 0) {
-            progressTotal += proteinKeys.size();
-        }
-
-        if (nPeptideClusters > 0) {
-            progressTotal += peptideKeys.size();
-        }
+        int nProteinClusters = classFilter.getnProteinClasses();
+        int nPeptideClusters = classFilter.getnPeptideClasses();
+        int nPsmClusters = classFilter.getnPsmClasses();
 
-        if (nPsmClusters > 0) {
-            progressTotal += identification.getSpectrumIdentificationSize();
-        }
+        long[] proteinKeys = nProteinClusters > 0 ? metrics.getProteinKeys() : new long[0];
+        long[] peptideKeys = nPeptideClusters > 0 ? getSortedKeys(identification.getPeptideIdentification()) : new long[0];
+        long[] psmKeys = nPsmClusters > 0 ? getPsmKeys(identification, classFilter) : new long[0];
 
         waitingHandler.resetPrimaryProgressCounter();
         waitingHandler.setPrimaryProgressCounterIndeterminate(false);
-        waitingHandler.setMaxPrimaryProgressCounter(progressTotal);
+        waitingHandler.setMaxPrimaryProgressCounter(1 + proteinKeys.length + peptideKeys.length + psmKeys.length);
         waitingHandler.increasePrimaryProgressCounter();
 
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<>(1);
-        parameters.add(psParameter);
-
-        ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
-        Collections.sort(sampleIndexes);
+        ArrayList<String> sampleIndexesList = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
+        Collections.sort(sampleIndexesList);
+        String[] sampleIndexes = sampleIndexesList.toArray(new String[sampleIndexesList.size()]);
 
-        Integer clusteringIndex = 0;
+        int nThreads = processingParameters.getnThreads();
+        minRatio = null;
+        maxRatio = null;
         clusterKeys = new ArrayList<>(metrics.getnValidatedProteins());
         ArrayList<double[]> ratiosList = new ArrayList<>(metrics.getnValidatedProteins());
 
@@ -274,69 +270,33 @@ public class ClusterBuilder {
 
             int selectedRatioType = displayPreferences.getProteinRatioType();
             ProteinRatioType proteinRatioType = ProteinRatioType.getProteinRatioType(selectedRatioType);
-            
+
             if (proteinRatioType == null) {
                 throw new IllegalArgumentException("Ratio type of index " + selectedRatioType + " not recognized.");
             }
 
-            ProteinMatchesIterator proteinMatchesIterator;
-            
-            if (quantificationFeaturesGenerator.getQuantificationFeaturesCache().memoryCheck()) {
-                proteinMatchesIterator = identification.getProteinMatchesIterator(metrics.getProteinKeys(), waitingHandler);
-            } else {
-                proteinMatchesIterator = identification.getProteinMatchesIterator(metrics.getProteinKeys(), waitingHandler);
-            }
+            LoadedMatch[] proteinMatches = loadMatches(
+                    proteinKeys.length,
+                    index -> {
 
-            ProteinMatch proteinMatch;
-
-            while ((proteinMatch = proteinMatchesIterator.next()) != null) {
-
-                long proteinKey = proteinMatch.getKey();
-                String proteinKeyAsString = Long.toString(proteinKey);
-                psParameter = (PSParameter) identification.getProteinMatch(proteinKey).getUrParam(psParameter);
-
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    
-                    boolean found = false;
-                    
-                    for (String keyName : clusteringSettings.getSelectedProteinClasses()) {
-                        
-                        boolean inCluster = true;
-                        ProteinClusterClassKey proteinClusterClassKey = clusteringSettings.getProteinClassKey(keyName);
-                        
-                        if (proteinClusterClassKey.isStarred() && !psParameter.getStarred()) {
-                            inCluster = false;
+                        long proteinKey = proteinKeys[index];
+                        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+                        PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+
+                        if (!psParameter.getMatchValidationLevel().isValidated()) {
+                            return null;
                         }
-                        
-                        if (inCluster) {
-                            
-                            ArrayList<Long> tempClusterKeys = filteredProteinKeys.get(keyName);
-                            
-                            if (tempClusterKeys == null) {
-                                tempClusterKeys = new ArrayList<Long>();
-                                filteredProteinKeys.put(keyName, tempClusterKeys);
-                            }
-                            
-                            tempClusterKeys.add(proteinKey);
-                            ArrayList<String> clusters = proteinClusters.get(proteinKey);
-                            
-                            if (clusters == null) {
-                                clusters = new ArrayList<String>(nProteinClusters);
-                                proteinClusters.put(proteinKey, clusters);
-                            }
-                            
-                            clusters.add(keyName);
-                            found = true;
-                        
+
+                        ArrayList<String> classes = classFilter.getProteinClasses(psParameter);
+
+                        if (classes == null) {
+                            return null;
                         }
-                    }
-                    
-                    if (found) {
-                        
+
                         ProteinQuantificationDetails quantificationDetails = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(spectrumProvider, proteinKey, waitingHandler);
-                        double[] proteinRatios = new double[sampleIndexes.size()];
+                        double[] proteinRatios = new double[sampleIndexes.length];
 
-                        for (int sampleIndex = 0; sampleIndex < sampleIndexes.size(); sampleIndex++) {
+                        for (int sampleIndex = 0; sampleIndex < sampleIndexes.length; sampleIndex++) {
 
                             Double ratio;
 
@@ -344,21 +304,21 @@ public class ClusterBuilder {
 
                                 case all:
                                     ratio = quantificationDetails.getRatio(
-                                            sampleIndexes.get(sampleIndex),
+                                            sampleIndexes[sampleIndex],
                                             reporterIonQuantification.getNormalizationFactors()
                                     );
                                     break;
 
                                 case shared:
                                     ratio = quantificationDetails.getSharedRatio(
-                                            sampleIndexes.get(sampleIndex),
+                                            sampleIndexes[sampleIndex],
                                             reporterIonQuantification.getNormalizationFactors()
                                     );
                                     break;
 
                                 case unique:
                                     ratio = quantificationDetails.getUniqueRatio(
-                                            sampleIndexes.get(sampleIndex),
+                                            sampleIndexes[sampleIndex],
                                             reporterIonQuantification.getNormalizationFactors()
                                     );
                                     break;
@@ -371,296 +331,271 @@ public class ClusterBuilder {
                                     );
                             }
 
-                            if (ratio != null) {
-
-                                if (ratio != 0) {
-
-                                    double logRatio = BasicMathFunctions.log(ratio, 2);
-                                    proteinRatios[sampleIndex] = logRatio;
-
-                                    if (maxRatio == null || logRatio > maxRatio) {
-                                        maxRatio = logRatio;
-                                    }
-
-                                    if (minRatio == null || logRatio < minRatio) {
-                                        minRatio = logRatio;
-                                    }
-
-                                }
-
-                            }
+                            proteinRatios[sampleIndex] = ratio == null ? Double.NaN : ratio;
                         }
 
-                        clusterKeys.add(proteinKeyAsString);
-                        proteinKeysIndexes.put(proteinKey, clusteringIndex);
-                        ratiosList.add(proteinRatios);
-                        clusteringIndex++;
-                    }
-                }
+                        return new LoadedMatch(proteinKey, classes, proteinRatios);
+                    },
+                    nThreads,
+                    waitingHandler
+            );
 
-                waitingHandler.increasePrimaryProgressCounter();
-            }
+            addMatches(proteinMatches, filteredProteinKeys, proteinClusters, proteinKeysIndexes, ratiosList);
         }
 
         filteredPeptideKeys = new HashMap<String, ArrayList<Long>>(metrics.getnValidatedProteins());
         peptideKeysIndexes = new HashMap<Long, Integer>(metrics.getnValidatedProteins());
         peptideClusters = new HashMap<Long, ArrayList<String>>(nPeptideClusters);
 
-        if (nPeptideClusters > 0) {
-
-            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
-            PeptideMatch peptideMatch;
-
-            while ((peptideMatch = peptideMatchesIterator.next()) != null) {
-
-                Peptide peptide = peptideMatch.getPeptide();
-                long peptideKey = peptideMatch.getKey();
-                String peptideKeyAsString = Long.toString(peptideKey);
+        if (nPeptideClusters > 0 && !waitingHandler.isRunCanceled()) {
 
-                psParameter = (PSParameter) identification.getPeptideMatch(peptideKey).getUrParam(psParameter);
+            LoadedMatch[] peptideMatches = loadMatches(
+                    peptideKeys.length,
+                    index -> {
 
-                if (psParameter.getMatchValidationLevel().isValidated()) {
+                        long peptideKey = peptideKeys[index];
+                        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                        PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
 
-                    boolean found = false;
-
-                    for (String keyName : clusteringSettings.getSelectedPeptideClasses()) {
-
-                        boolean inCluster = true;
-                        PeptideClusterClassKey peptideClusterClassKey = clusteringSettings.getPeptideClassKey(keyName);
-
-                        if (peptideClusterClassKey.isStarred() && !psParameter.getStarred()) {
-                            inCluster = false;
+                        if (!psParameter.getMatchValidationLevel().isValidated()) {
+                            return null;
                         }
 
-                        if (inCluster && peptideClusterClassKey.isNotModified()) {
-
-                            if (peptide.getNVariableModifications() > 0) {
-                                inCluster = false;
-                                break;
+                        ArrayList<String> classes = classFilter.getPeptideClasses(peptideMatch.getPeptide(), psParameter, sequenceProvider);
 
-                            }
+                        if (classes == null) {
+                            return null;
                         }
 
-                        if (inCluster && peptideClusterClassKey.getPossiblePtms() != null) {
-
-                            boolean possiblePtms = false;
-
-                            if (peptide.getNVariableModifications() > 0) {
-
-                                for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
-
-                                    if (peptideClusterClassKey.getPossiblePtmsAsSet().contains(modificationMatch.getModification())) {
-                                        possiblePtms = true;
-                                        break;
-                                    }
+                        PeptideQuantificationDetails quantificationDetails = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(spectrumProvider, peptideMatch, waitingHandler);
+                        double[] peptideRatios = new double[sampleIndexes.length];
 
-                                }
+                        for (int sampleIndex = 0; sampleIndex < sampleIndexes.length; sampleIndex++) {
 
-                            }
+                            Double ratio = quantificationDetails.getRatio(sampleIndexes[sampleIndex], reporterIonQuantification.getNormalizationFactors());
+                            peptideRatios[sampleIndex] = ratio == null ? Double.NaN : ratio;
 
-                            if (!possiblePtms) {
-                                inCluster = false;
-                            }
                         }
 
-                        if (inCluster && peptideClusterClassKey.getForbiddenPtms() != null) {
-
-                            boolean forbiddenPtms = false;
+                        return new LoadedMatch(peptideKey, classes, peptideRatios);
+                    },
+                    nThreads,
+                    waitingHandler
+            );
 
-                            if (peptide.getNVariableModifications() > 0) {
+            addMatches(peptideMatches, filteredPeptideKeys, peptideClusters, peptideKeysIndexes, ratiosList);
+        }
 
-                                for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
+        filteredPsmKeys = new HashMap<String, ArrayList<Long>>(metrics.getnValidatedProteins());
+        psmKeysIndexes = new HashMap<Long, Integer>(metrics.getnValidatedProteins());
+        psmClusters = new HashMap<Long, ArrayList<String>>(nPsmClusters);
 
-                                    if (peptideClusterClassKey.getForbiddenPtmsAsSet().contains(modificationMatch.getModification())) {
-                                        forbiddenPtms = true;
-                                        break;
-                                    }
+        if (nPsmClusters > 0 && !waitingHandler.isRunCanceled()) {
 
-                                }
+            LoadedMatch[] psmMatches = loadMatches(
+                    psmKeys.length,
+                    index -> {
 
-                            }
+                        long spectrumKey = psmKeys[index];
+                        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+                        PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
-                            if (forbiddenPtms) {
-                                inCluster = false;
-                            }
+                        if (!psParameter.getMatchValidationLevel().isValidated()) {
+                            return null;
                         }
 
-                        if (inCluster && peptideClusterClassKey.isNTerm() && PeptideUtils.isNterm(peptide, sequenceProvider)) {
-                            inCluster = false;
-                        }
+                        ArrayList<String> classes = classFilter.getPsmClasses(spectrumMatch.getSpectrumFile(), psParameter);
 
-                        if (inCluster && peptideClusterClassKey.isCTerm() && PeptideUtils.isCterm(peptide, sequenceProvider)) {
-                            inCluster = false;
+                        if (classes == null) {
+                            return null;
                         }
 
-                        if (inCluster) {
-
-                            ArrayList<Long> tempClusterKeys = filteredPeptideKeys.get(keyName);
-
-                            if (tempClusterKeys == null) {
-                                tempClusterKeys = new ArrayList<Long>();
-                                filteredPeptideKeys.put(keyName, tempClusterKeys);
-                            }
-
-                            tempClusterKeys.add(peptideKey);
-                            ArrayList<String> clusters = peptideClusters.get(peptideKey);
-
-                            if (clusters == null) {
-                                clusters = new ArrayList<String>(nPeptideClusters);
-                                peptideClusters.put(peptideKey, clusters);
-                            }
-
-                            clusters.add(keyName);
-                            found = true;
-                        }
-                    }
-
-                    if (found) {
-
-                        PeptideQuantificationDetails quantificationDetails = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(spectrumProvider, peptideMatch, waitingHandler);
-                        double[] peptideRatios = new double[sampleIndexes.size()];
-
-                        for (int sampleIndex = 0; sampleIndex < sampleIndexes.size(); sampleIndex++) {
-
-                            Double ratio = quantificationDetails.getRatio(sampleIndexes.get(sampleIndex), reporterIonQuantification.getNormalizationFactors());
+                        PsmQuantificationDetails quantificationDetails = quantificationFeaturesGenerator.getPSMQuantificationDetails(spectrumProvider, spectrumKey);
+                        double[] psmRatios = new double[sampleIndexes.length];
 
-                            if (ratio != null) {
+                        for (int sampleIndex = 0; sampleIndex < sampleIndexes.length; sampleIndex++) {
 
-                                if (ratio != 0) {
+                            Double ratio = quantificationDetails.getRatio(sampleIndexes[sampleIndex], reporterIonQuantification.getNormalizationFactors());
+                            psmRatios[sampleIndex] = ratio == null ? Double.NaN : ratio;
 
-                                    double logRatio = BasicMathFunctions.log(ratio, 2);
-                                    peptideRatios[sampleIndex] = logRatio;
-
-                                    if (maxRatio == null || logRatio > maxRatio) {
-                                        maxRatio = logRatio;
-                                    }
-
-                                    if (minRatio == null || logRatio < minRatio) {
-                                        minRatio = logRatio;
-                                    }
-                                }
-                            }
                         }
 
-                        clusterKeys.add(peptideKeyAsString);
-                        peptideKeysIndexes.put(peptideKey, clusteringIndex);
-                        ratiosList.add(peptideRatios);
-                        clusteringIndex++;
-                    }
-                }
+                        return new LoadedMatch(spectrumKey, classes, psmRatios);
+                    },
+                    nThreads,
+                    waitingHandler
+            );
 
-                waitingHandler.increasePrimaryProgressCounter();
-            }
+            addMatches(psmMatches, filteredPsmKeys, psmClusters, psmKeysIndexes, ratiosList);
         }
 
-        filteredPsmKeys = new HashMap<String, ArrayList<Long>>(metrics.getnValidatedProteins());
-        psmKeysIndexes = new HashMap<Long, Integer>(metrics.getnValidatedProteins());
-        psmClusters = new HashMap<Long, ArrayList<String>>(nPsmClusters);
+        ratios = ratiosList.toArray(new double[ratiosList.size()][sampleIndexes.length]);
+    }
 
-        if (nPsmClusters > 0) {
+    /**
+     * Returns the given keys as a sorted array.
+     *
+     * @param keys the keys
+     *
+     * @return the keys as a sorted array
+     */
+    private static long[] getSortedKeys(
+            Collection<Long> keys
+    ) {
 
-            TreeSet<String> allMsFiles = new TreeSet<>(identification.getSpectrumIdentification().keySet());
-            HashSet<String> neededFiles = new HashSet<>();
+        return keys.stream()
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
 
-            for (String keyName : clusteringSettings.getSelectedPsmClasses()) {
+    }
 
-                PsmClusterClassKey psmClusterClassKey = clusteringSettings.getPsmClassKey(keyName);
+    /**
+     * Returns the keys of the PSMs of the files needed by the PSM classes,
+     * sorted by file and key.
+     *
+     * @param identification the identification
+     * @param classFilter the cluster class filter
+     *
+     * @return the keys of the PSMs to load
+     */
+    private static long[] getPsmKeys(
+            Identification identification,
+            ClusterClassFilter classFilter
+    ) {
 
-                if (psmClusterClassKey.getFile() == null) {
-                    neededFiles.addAll(allMsFiles);
-                    break;
-                }
+        HashMap<String, HashSet<Long>> spectrumIdentification = identification.getSpectrumIdentification();
+        TreeSet<String> neededFiles = classFilter.getNeededFiles(spectrumIdentification.keySet());
 
-                neededFiles.add(psmClusterClassKey.getFile());
-            }
+        return neededFiles.stream()
+                .filter(spectrumFile -> spectrumIdentification.containsKey(spectrumFile))
+                .flatMapToLong(spectrumFile -> Arrays.stream(getSortedKeys(spectrumIdentification.get(spectrumFile))))
+                .toArray();
 
-            for (String spectrumFile : neededFiles) {
+    }
 
-                SpectrumMatchesIterator spectrumMatchesIterator = identification.getSpectrumMatchesIterator(waitingHandler); //@TODO: sort the PSMs in some way?
-                SpectrumMatch spectrumMatch;
+    /**
+     * Loads the matches of the given indexes in parallel.
+     *
+     * @param nMatches the number of matches to load
+     * @param matchLoader the loader of the matches
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler
+     *
+     * @return the loaded matches indexed as the keys, null for the matches not
+     * retained
+     *
+     * @throws SQLException if an exception occurs while interacting with the
+     * database
+     * @throws IOException if an exception occurs while reading or writing a
+     * file
+     * @throws ClassNotFoundException if a exception occurs while deserializing
+     * an object
+     * @throws InterruptedException if an threading exception occurs
+     */
+    private LoadedMatch[] loadMatches(
+            int nMatches,
+            MatchLoader matchLoader,
+            int nThreads,
+            WaitingHandler waitingHandler
+    ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-                while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
+        LoadedMatch[] matches = new LoadedMatch[nMatches];
+        AtomicInteger nextIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<MatchLoaderRunnable> runnables = new ArrayList<>(nThreads);
 
-                    long spectrumKey = spectrumMatch.getKey();
-                    String spectrumKeyAsString = Long.toString(spectrumKey);
-                    psParameter = (PSParameter) identification.getSpectrumMatch(spectrumMatch.getKey()).getUrParam(psParameter);
+        for (int i = 1; i <= nThreads; i++) {
 
-                    if (psParameter.getMatchValidationLevel().isValidated()) {
+            MatchLoaderRunnable runnable = new MatchLoaderRunnable(
+                    matchLoader,
+                    matches,
+                    nextIndex,
+                    waitingHandler
+            );
 
-                        boolean found = false;
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
 
-                        for (String keyName : clusteringSettings.getSelectedPsmClasses()) {
+        pool.shutdown();
 
-                            boolean inCluster = true;
-                            PsmClusterClassKey psmClusterClassKey = clusteringSettings.getPsmClassKey(keyName);
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Cluster data loading timed out. Please contact the developers.");
+        }
 
-                            if (psmClusterClassKey.getFile() != null && !spectrumFile.equals(psmClusterClassKey.getFile())) {
-                                inCluster = false;
-                            }
+        for (MatchLoaderRunnable runnable : runnables) {
 
-                            if (inCluster && psmClusterClassKey.isStarred() && !psParameter.getStarred()) {
-                                inCluster = false;
-                            }
+            Exception exception = runnable.getException();
 
-                            if (inCluster) {
+            if (exception != null) {
 
-                                ArrayList<Long> tempClusterKeys = filteredPsmKeys.get(keyName);
+                if (exception instanceof SQLException) {
+                    throw (SQLException) exception;
+                } else if (exception instanceof IOException) {
+                    throw (IOException) exception;
+                } else if (exception instanceof ClassNotFoundException) {
+                    throw (ClassNotFoundException) exception;
+                } else if (exception instanceof InterruptedException) {
+                    throw (InterruptedException) exception;
+                }
 
-                                if (tempClusterKeys == null) {
-                                    tempClusterKeys = new ArrayList<Long>();
-                                    filteredPsmKeys.put(keyName, tempClusterKeys);
-                                }
+                throw (RuntimeException) exception;
+            }
 
-                                tempClusterKeys.add(spectrumKey);
-                                ArrayList<String> clusters = psmClusters.get(spectrumKey);
+            if (runnable.getMinRatio() != null && (minRatio == null || runnable.getMinRatio() < minRatio)) {
+                minRatio = runnable.getMinRatio();
+            }
 
-                                if (clusters == null) {
-                                    clusters = new ArrayList<String>(nPsmClusters);
-                                    psmClusters.put(spectrumKey, clusters);
-                                }
+            if (runnable.getMaxRatio() != null && (maxRatio == null || runnable.getMaxRatio() > maxRatio)) {
+                maxRatio = runnable.getMaxRatio();
+            }
+        }
 
-                                clusters.add(keyName);
-                                found = true;
-                            }
-                        }
-                        if (found) {
+        return matches;
+    }
 
-                            PsmQuantificationDetails quantificationDetails = quantificationFeaturesGenerator.getPSMQuantificationDetails(spectrumProvider, spectrumKey);
-                            double[] psmRatios = new double[sampleIndexes.size()];
+    /**
+     * Adds the loaded matches to the attribute maps in the order of their
+     * keys.
+     *
+     * @param matches the loaded matches
+     * @param filteredKeys the filtered keys indexed by cluster class key
+     * @param clusters the clusters corresponding to every match
+     * @param keysIndexes the index of the keys in clusterKeys
+     * @param ratiosList the list of the ratios used for clustering
+     */
+    private void addMatches(
+            LoadedMatch[] matches,
+            HashMap<String, ArrayList<Long>> filteredKeys,
+            HashMap<Long, ArrayList<String>> clusters,
+            HashMap<Long, Integer> keysIndexes,
+            ArrayList<double[]> ratiosList
+    ) {
 
-                            for (int sampleIndex = 0; sampleIndex < sampleIndexes.size(); sampleIndex++) {
+        for (LoadedMatch loadedMatch : matches) {
 
-                                Double ratio = quantificationDetails.getRatio(sampleIndexes.get(sampleIndex), reporterIonQuantification.getNormalizationFactors());
+            if (loadedMatch != null) {
 
-                                if (ratio != null) {
+                for (String keyName : loadedMatch.classes) {
 
-                                    if (ratio != 0) {
+                    ArrayList<Long> tempClusterKeys = filteredKeys.get(keyName);
 
-                                        double logRatio = BasicMathFunctions.log(ratio, 2);
-                                        psmRatios[sampleIndex] = logRatio;
+                    if (tempClusterKeys == null) {
+                        tempClusterKeys = new ArrayList<Long>();
+                        filteredKeys.put(keyName, tempClusterKeys);
+                    }
 
-                                        if (maxRatio == null || logRatio > maxRatio) {
-                                            maxRatio = logRatio;
-                                        }
+                    tempClusterKeys.add(loadedMatch.key);
+                }
 
-                                        if (minRatio == null || logRatio < minRatio) {
-                                            minRatio = logRatio;
-                                        }
-                                    }
-                                }
-                            }
+                clusters.put(loadedMatch.key, loadedMatch.classes);
+                keysIndexes.put(loadedMatch.key, clusterKeys.size());
+                clusterKeys.add(Long.toString(loadedMatch.key));
+                ratiosList.add(loadedMatch.ratios);
 
-                            clusterKeys.add(spectrumKeyAsString);
-                            psmKeysIndexes.put(spectrumKey, clusteringIndex);
-                            ratiosList.add(psmRatios);
-                            clusteringIndex++;
-                        }
-                    }
-                    waitingHandler.increasePrimaryProgressCounter();
-                }
             }
         }
-        ratios = ratiosList.toArray(new double[ratiosList.size()][sampleIndexes.size()]);
     }
 
     /**
@@ -808,4 +743,214 @@ public class ClusterBuilder {
     public ArrayList<String> getPsmClasses(Long key) {
         return psmClusters.get(key);
     }
+
+    /**
+     * Interface for the loading of the match of a given index.
+     */
+    private interface MatchLoader {
+
+        /**
+         * Loads the match of the given index.
+         *
+         * @param index the index of the match
+         *
+         * @return the loaded match, null if not retained
+         *
+         * @throws SQLException if an exception occurs while interacting with
+         * the database
+         * @throws IOException if an exception occurs while reading or writing
+         * a file
+         * @throws ClassNotFoundException if a exception occurs while
+         * deserializing an object
+         * @throws InterruptedException if an threading exception occurs
+         */
+        public LoadedMatch load(
+                int index
+        ) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+    }
+
+    /**
+     * A match retained for clustering.
+     */
+    private static class LoadedMatch {
+
+        /**
+         * The key of the match.
+         */
+        private final long key;
+        /**
+         * The cluster classes of the match.
+         */
+        private final ArrayList<String> classes;
+        /**
+         * The ratios of the match indexed by sample, NaN if not set. Replaced
+         * by their log when loaded.
+         */
+        private final double[] ratios;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the match
+         * @param classes the cluster classes of the match
+         * @param ratios the ratios of the match indexed by sample, NaN if not
+         * set
+         */
+        public LoadedMatch(
+                long key,
+                ArrayList<String> classes,
+                double[] ratios
+        ) {
+
+            this.key = key;
+            this.classes = classes;
+            this.ratios = ratios;
+
+        }
+    }
+
+    /**
+     * Runnable loading chunks of matches. The chunks are taken from a shared
+     * index, and every match is stored at the index of its key.
+     *
+     * @author Marc Vaudel
+     */
+    private class MatchLoaderRunnable implements Runnable {
+
+        /**
+         * The loader of the matches.
+         */
+        private final MatchLoader matchLoader;
+        /**
+         * The loaded matches indexed as the keys.
+         */
+        private final LoadedMatch[] matches;
+        /**
+         * The index of the next chunk to load.
+         */
+        private final AtomicInteger nextIndex;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The minimal log ratio found by this runnable.
+         */
+        private Double minRatio = null;
+        /**
+         * The maximal log ratio found by this runnable.
+         */
+        private Double maxRatio = null;
+        /**
+         * The exception encountered while loading, null if none.
+         */
+        private Exception exception = null;
+
+        /**
+         * Constructor.
+         *
+         * @param matchLoader the loader of the matches
+         * @param matches the array where to store the loaded matches
+         * @param nextIndex the shared index of the next chunk to load
+         * @param waitingHandler the waiting handler
+         */
+        public MatchLoaderRunnable(
+                MatchLoader matchLoader,
+                LoadedMatch[] matches,
+                AtomicInteger nextIndex,
+                WaitingHandler waitingHandler
+        ) {
+
+            this.matchLoader = matchLoader;
+            this.matches = matches;
+            this.nextIndex = nextIndex;
+            this.waitingHandler = waitingHandler;
+
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                int start;
+
+                while ((start = nextIndex.getAndAdd(CHUNK_SIZE)) < matches.length) {
+
+                    int end = Math.min(start + CHUNK_SIZE, matches.length);
+
+                    for (int index = start; index < end; index++) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        LoadedMatch loadedMatch = matchLoader.load(index);
+
+                        if (loadedMatch != null) {
+
+                            for (int sampleIndex = 0; sampleIndex < loadedMatch.ratios.length; sampleIndex++) {
+
+                                double ratio = loadedMatch.ratios[sampleIndex];
+
+                                if (!Double.isNaN(ratio) && ratio != 0) {
+
+                                    double logRatio = BasicMathFunctions.log(ratio, 2);
+                                    loadedMatch.ratios[sampleIndex] = logRatio;
+
+                                    if (maxRatio == null || logRatio > maxRatio) {
+                                        maxRatio = logRatio;
+                                    }
+
+                                    if (minRatio == null || logRatio < minRatio) {
+                                        minRatio = logRatio;
+                                    }
+
+                                } else {
+
+                                    loadedMatch.ratios[sampleIndex] = 0;
+
+                                }
+                            }
+
+                            matches[index] = loadedMatch;
+                        }
+
+                        waitingHandler.increasePrimaryProgressCounter();
+                    }
+                }
+
+            } catch (Exception e) {
+                exception = e;
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the minimal log ratio found by this runnable.
+         *
+         * @return the minimal log ratio found by this runnable
+         */
+        public Double getMinRatio() {
+            return minRatio;
+        }
+
+        /**
+         * Returns the maximal log ratio found by this runnable.
+         *
+         * @return the maximal log ratio found by this runnable
+         */
+        public Double getMaxRatio() {
+            return maxRatio;
+        }
+
+        /**
+         * Returns the exception encountered while loading, null if none.
+         *
+         * @return the exception encountered while loading
+         */
+        public Exception getException() {
+            return exception;
+        }
+    }
 }
@@ -0,0 +1,445 @@
+package eu.isas.reporter.calculation.clustering;
+
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.identification.utils.PeptideUtils;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import eu.isas.reporter.calculation.clustering.keys.PeptideClusterClassKey;
+import eu.isas.reporter.calculation.clustering.keys.ProteinClusterClassKey;
+import eu.isas.reporter.calculation.clustering.keys.PsmClusterClassKey;
+import eu.isas.reporter.settings.ClusteringSettings;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * The cluster class keys selected in the clustering settings, compiled once
+ * so that matches can be assigned to their classes without looking up the
+ * keys again. The names of the modifications used by the peptide classes are
+ * indexed and the modifications of a peptide are compared to the classes as
+ * bitmasks. Instances are not modified after construction and can be shared
+ * between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class ClusterClassFilter {
+
+    /**
+     * The names of the selected protein classes.
+     */
+    private final String[] proteinClasses;
+    /**
+     * Indicates whether the protein classes are restricted to starred matches.
+     */
+    private final boolean[] proteinStarred;
+    /**
+     * The names of the selected peptide classes.
+     */
+    private final String[] peptideClasses;
+    /**
+     * Indicates whether the peptide classes are restricted to starred matches.
+     */
+    private final boolean[] peptideStarred;
+    /**
+     * Indicates whether the peptide classes are restricted to unmodified
+     * peptides.
+     */
+    private final boolean[] peptideNotModified;
+    /**
+     * Mask of the modifications of which at least one must be found for every
+     * peptide class, null if not restricted.
+     */
+    private final long[][] peptidePossibleModifications;
+    /**
+     * Mask of the modifications that must not be found for every peptide
+     * class, null if not restricted.
+     */
+    private final long[][] peptideForbiddenModifications;
+    /**
+     * Indicates whether the peptide classes exclude N-terminal peptides.
+     */
+    private final boolean[] peptideNTerm;
+    /**
+     * Indicates whether the peptide classes exclude C-terminal peptides.
+     */
+    private final boolean[] peptideCTerm;
+    /**
+     * Indicates whether the terminus of the peptides is needed.
+     */
+    private final boolean terminusNeeded;
+    /**
+     * The index of the modification names used by the peptide classes.
+     */
+    private final HashMap<String, Integer> modificationIndexes = new HashMap<>();
+    /**
+     * The number of words of the modification masks.
+     */
+    private final int nWords;
+    /**
+     * The names of the selected PSM classes.
+     */
+    private final String[] psmClasses;
+    /**
+     * Indicates whether the PSM classes are restricted to starred matches.
+     */
+    private final boolean[] psmStarred;
+    /**
+     * The spectrum file of every PSM class, null if not restricted.
+     */
+    private final String[] psmFiles;
+
+    /**
+     * Constructor.
+     *
+     * @param clusteringSettings the clustering settings
+     */
+    public ClusterClassFilter(
+            ClusteringSettings clusteringSettings
+    ) {
+
+        ArrayList<String> selectedProteinClasses = clusteringSettings.getSelectedProteinClasses();
+        proteinClasses = selectedProteinClasses.toArray(new String[selectedProteinClasses.size()]);
+        proteinStarred = new boolean[proteinClasses.length];
+
+        for (int i = 0; i < proteinClasses.length; i++) {
+
+            ProteinClusterClassKey proteinClusterClassKey = clusteringSettings.getProteinClassKey(proteinClasses[i]);
+            proteinStarred[i] = proteinClusterClassKey.isStarred();
+
+        }
+
+        ArrayList<String> selectedPeptideClasses = clusteringSettings.getSelectedPeptideClasses();
+        peptideClasses = selectedPeptideClasses.toArray(new String[selectedPeptideClasses.size()]);
+        PeptideClusterClassKey[] peptideClassKeys = new PeptideClusterClassKey[peptideClasses.length];
+
+        for (int i = 0; i < peptideClasses.length; i++) {
+
+            peptideClassKeys[i] = clusteringSettings.getPeptideClassKey(peptideClasses[i]);
+            indexModifications(peptideClassKeys[i].getPossiblePtms());
+            indexModifications(peptideClassKeys[i].getForbiddenPtms());
+
+        }
+
+        nWords = (modificationIndexes.size() + Long.SIZE - 1) / Long.SIZE;
+        peptideStarred = new boolean[peptideClasses.length];
+        peptideNotModified = new boolean[peptideClasses.length];
+        peptidePossibleModifications = new long[peptideClasses.length][];
+        peptideForbiddenModifications = new long[peptideClasses.length][];
+        peptideNTerm = new boolean[peptideClasses.length];
+        peptideCTerm = new boolean[peptideClasses.length];
+        boolean terminus = false;
+
+        for (int i = 0; i < peptideClasses.length; i++) {
+
+            PeptideClusterClassKey peptideClusterClassKey = peptideClassKeys[i];
+            peptideStarred[i] = peptideClusterClassKey.isStarred();
+            peptideNotModified[i] = peptideClusterClassKey.isNotModified();
+            peptidePossibleModifications[i] = getMask(peptideClusterClassKey.getPossiblePtms());
+            peptideForbiddenModifications[i] = getMask(peptideClusterClassKey.getForbiddenPtms());
+            peptideNTerm[i] = peptideClusterClassKey.isNTerm();
+            peptideCTerm[i] = peptideClusterClassKey.isCTerm();
+            terminus = terminus || peptideNTerm[i] || peptideCTerm[i];
+
+        }
+
+        terminusNeeded = terminus;
+
+        ArrayList<String> selectedPsmClasses = clusteringSettings.getSelectedPsmClasses();
+        psmClasses = selectedPsmClasses.toArray(new String[selectedPsmClasses.size()]);
+        psmStarred = new boolean[psmClasses.length];
+        psmFiles = new String[psmClasses.length];
+
+        for (int i = 0; i < psmClasses.length; i++) {
+
+            PsmClusterClassKey psmClusterClassKey = clusteringSettings.getPsmClassKey(psmClasses[i]);
+            psmStarred[i] = psmClusterClassKey.isStarred();
+            psmFiles[i] = psmClusterClassKey.getFile();
+
+        }
+    }
+
+    /**
+     * Adds the given modifications to the index.
+     *
+     * @param modifications the modification names, can be null
+     */
+    private void indexModifications(
+            ArrayList<String> modifications
+    ) {
+
+        if (modifications != null) {
+
+            for (String modification : modifications) {
+
+                if (!modificationIndexes.containsKey(modification)) {
+                    modificationIndexes.put(modification, modificationIndexes.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the mask of the given modifications.
+     *
+     * @param modifications the modification names, can be null
+     *
+     * @return the mask of the given modifications, null if no modifications
+     * are given
+     */
+    private long[] getMask(
+            ArrayList<String> modifications
+    ) {
+
+        if (modifications == null) {
+            return null;
+        }
+
+        long[] mask = new long[nWords];
+
+        for (String modification : modifications) {
+
+            int index = modificationIndexes.get(modification);
+            mask[index / Long.SIZE] |= 1L << (index % Long.SIZE);
+
+        }
+
+        return mask;
+
+    }
+
+    /**
+     * Returns the mask of the indexed variable modifications carried by the
+     * given peptide.
+     *
+     * @param peptide the peptide
+     *
+     * @return the mask of the modifications of the peptide
+     */
+    private long[] getModificationMask(
+            Peptide peptide
+    ) {
+
+        long[] mask = new long[nWords];
+
+        if (nWords > 0 && peptide.getNVariableModifications() > 0) {
+
+            for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
+
+                Integer index = modificationIndexes.get(modificationMatch.getModification());
+
+                if (index != null) {
+                    mask[index / Long.SIZE] |= 1L << (index % Long.SIZE);
+                }
+            }
+        }
+
+        return mask;
+
+    }
+
+    /**
+     * Indicates whether two masks have a modification in common.
+     *
+     * @param mask1 the first mask
+     * @param mask2 the second mask
+     *
+     * @return a boolean indicating whether two masks have a modification in
+     * common
+     */
+    private static boolean intersects(
+            long[] mask1,
+            long[] mask2
+    ) {
+
+        for (int i = 0; i < mask1.length; i++) {
+
+            if ((mask1[i] & mask2[i]) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the number of protein classes.
+     *
+     * @return the number of protein classes
+     */
+    public int getnProteinClasses() {
+        return proteinClasses.length;
+    }
+
+    /**
+     * Returns the number of peptide classes.
+     *
+     * @return the number of peptide classes
+     */
+    public int getnPeptideClasses() {
+        return peptideClasses.length;
+    }
+
+    /**
+     * Returns the number of PSM classes.
+     *
+     * @return the number of PSM classes
+     */
+    public int getnPsmClasses() {
+        return psmClasses.length;
+    }
+
+    /**
+     * Returns the spectrum files needed by the PSM classes.
+     *
+     * @param allFiles all the spectrum files of the project
+     *
+     * @return the spectrum files needed by the PSM classes
+     */
+    public TreeSet<String> getNeededFiles(
+            Collection<String> allFiles
+    ) {
+
+        TreeSet<String> neededFiles = new TreeSet<>();
+
+        for (String file : psmFiles) {
+
+            if (file == null) {
+                neededFiles.addAll(allFiles);
+                break;
+            }
+
+            neededFiles.add(file);
+        }
+
+        return neededFiles;
+
+    }
+
+    /**
+     * Returns the classes of a protein match.
+     *
+     * @param psParameter the PeptideShaker parameter of the match
+     *
+     * @return the classes of the protein match, null if none
+     */
+    public ArrayList<String> getProteinClasses(
+            PSParameter psParameter
+    ) {
+
+        ArrayList<String> classes = null;
+
+        for (int i = 0; i < proteinClasses.length; i++) {
+
+            if (proteinStarred[i] && !psParameter.getStarred()) {
+                continue;
+            }
+
+            if (classes == null) {
+                classes = new ArrayList<>(proteinClasses.length);
+            }
+
+            classes.add(proteinClasses[i]);
+        }
+
+        return classes;
+
+    }
+
+    /**
+     * Returns the classes of a peptide match.
+     *
+     * @param peptide the peptide
+     * @param psParameter the PeptideShaker parameter of the match
+     * @param sequenceProvider the sequence provider
+     *
+     * @return the classes of the peptide match, null if none
+     */
+    public ArrayList<String> getPeptideClasses(
+            Peptide peptide,
+            PSParameter psParameter,
+            SequenceProvider sequenceProvider
+    ) {
+
+        boolean modified = peptide.getNVariableModifications() > 0;
+        long[] modificationMask = getModificationMask(peptide);
+        boolean nTerm = terminusNeeded && PeptideUtils.isNterm(peptide, sequenceProvider);
+        boolean cTerm = terminusNeeded && PeptideUtils.isCterm(peptide, sequenceProvider);
+
+        ArrayList<String> classes = null;
+
+        for (int i = 0; i < peptideClasses.length; i++) {
+
+            if (peptideStarred[i] && !psParameter.getStarred()) {
+                continue;
+            }
+
+            if (peptideNotModified[i] && modified) {
+                continue;
+            }
+
+            if (peptidePossibleModifications[i] != null && !intersects(peptidePossibleModifications[i], modificationMask)) {
+                continue;
+            }
+
+            if (peptideForbiddenModifications[i] != null && intersects(peptideForbiddenModifications[i], modificationMask)) {
+                continue;
+            }
+
+            if (peptideNTerm[i] && nTerm) {
+                continue;
+            }
+
+            if (peptideCTerm[i] && cTerm) {
+                continue;
+            }
+
+            if (classes == null) {
+                classes = new ArrayList<>(peptideClasses.length);
+            }
+
+            classes.add(peptideClasses[i]);
+        }
+
+        return classes;
+
+    }
+
+    /**
+     * Returns the classes of a PSM.
+     *
+     * @param spectrumFile the spectrum file of the PSM
+     * @param psParameter the PeptideShaker parameter of the match
+     *
+     * @return the classes of the PSM, null if none
+     */
+    public ArrayList<String> getPsmClasses(
+            String spectrumFile,
+            PSParameter psParameter
+    ) {
+
+        ArrayList<String> classes = null;
+
+        for (int i = 0; i < psmClasses.length; i++) {
+
+            if (psmFiles[i] != null && !spectrumFile.equals(psmFiles[i])) {
+                continue;
+            }
+
+            if (psmStarred[i] && !psParameter.getStarred()) {
+                continue;
+            }
+
+            if (classes == null) {
+                classes = new ArrayList<>(psmClasses.length);
+            }
+
+            classes.add(psmClasses[i]);
+        }
+
+        return classes;
+
+    }
+}
@@ -0,0 +1,268 @@
+package eu.isas.reporter.calculation.normalization;
+
+import eu.isas.reporter.quantificationdetails.ChannelTable;
+import java.util.Collection;
+
+/**
+ * Sums of values per channel, used for the total intensity (sum)
+ * normalization, where the sum of every channel is divided by the sum of the
+ * reference channels. The memory used only depends on the number of
+ * channels. The sums are compensated (Kahan-Babuska) so that adding millions
+ * of intensities of different magnitudes does not lose precision. Instances
+ * are not thread safe, every thread should use its own sums and merge them
+ * when done.
+ *
+ * @author Marc Vaudel
+ */
+public class ChannelSums {
+
+    /**
+     * The channel table.
+     */
+    private final ChannelTable channelTable;
+    /**
+     * The sums indexed by channel.
+     */
+    private final double[] sums;
+    /**
+     * The compensations of the sums indexed by channel.
+     */
+    private final double[] compensations;
+    /**
+     * The number of values summed indexed by channel.
+     */
+    private final long[] counts;
+
+    /**
+     * Constructor.
+     *
+     * @param channelTable the channel table
+     */
+    public ChannelSums(
+            ChannelTable channelTable
+    ) {
+
+        this.channelTable = channelTable;
+        sums = new double[channelTable.size()];
+        compensations = new double[channelTable.size()];
+        counts = new long[channelTable.size()];
+
+    }
+
+    /**
+     * Adds a value to the sum of the given sample index.
+     *
+     * @param sampleIndex the sample index
+     * @param value the value to add
+     */
+    public void add(
+            String sampleIndex,
+            double value
+    ) {
+        add(channelTable.getExistingChannel(sampleIndex), value);
+    }
+
+    /**
+     * Adds a value to the sum of the given channel.
+     *
+     * @param channel the channel
+     * @param value the value to add
+     */
+    public void add(
+            int channel,
+            double value
+    ) {
+
+        addCompensated(channel, value);
+        counts[channel]++;
+
+    }
+
+    /**
+     * Adds a value to the sum of the given channel and updates the
+     * compensation.
+     *
+     * @param channel the channel
+     * @param value the value to add
+     */
+    private void addCompensated(
+            int channel,
+            double value
+    ) {
+
+        double sum = sums[channel];
+        double newSum = sum + value;
+
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensations[channel] += (sum - newSum) + value;
+        } else {
+            compensations[channel] += (value - newSum) + sum;
+        }
+
+        sums[channel] = newSum;
+
+    }
+
+    /**
+     * Adds the sums of another instance to these sums.
+     *
+     * @param other the other sums
+     */
+    public void merge(
+            ChannelSums other
+    ) {
+
+        for (int channel = 0; channel < sums.length; channel++) {
+
+            addCompensated(channel, other.sums[channel]);
+            addCompensated(channel, other.compensations[channel]);
+            counts[channel] += other.counts[channel];
+
+        }
+    }
+
+    /**
+     * Returns the sum of the given channel.
+     *
+     * @param channel the channel
+     *
+     * @return the sum of the given channel
+     */
+    public double getSum(
+            int channel
+    ) {
+        return sums[channel] + compensations[channel];
+    }
+
+    /**
+     * Returns the number of values summed for the given channel.
+     *
+     * @param channel the channel
+     *
+     * @return the number of values summed for the given channel
+     */
+    public long getCount(
+            int channel
+    ) {
+        return counts[channel];
+    }
+
+    /**
+     * Indicates whether no value was summed.
+     *
+     * @return a boolean indicating whether no value was summed
+     */
+    public boolean isEmpty() {
+
+        for (long count : counts) {
+
+            if (count > 0) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the normalization factor of the given sample index, i.e. the
+     * sum of the channel divided by the reference sum. The reference sum is
+     * the mean of the sums of the reference channels where values were
+     * found, or of all channels where values were found if none. Returns 1
+     * if no value was found for the channel.
+     *
+     * @param sampleIndex the sample index
+     * @param referenceSampleIndexes the sample indexes of the reference
+     * channels, can be null
+     *
+     * @return the normalization factor of the given sample index
+     */
+    public double getNormalizationFactor(
+            String sampleIndex,
+            Collection<String> referenceSampleIndexes
+    ) {
+
+        int[] referenceChannels = referenceSampleIndexes == null
+                ? new int[0]
+                : referenceSampleIndexes.stream()
+                        .mapToInt(channelTable::getChannel)
+                        .filter(channel -> channel >= 0)
+                        .toArray();
+
+        return getNormalizationFactor(channelTable.getExistingChannel(sampleIndex), referenceChannels);
+
+    }
+
+    /**
+     * Returns the normalization factor of the given channel, i.e. the sum of
+     * the channel divided by the reference sum. The reference sum is the mean
+     * of the sums of the reference channels where values were found, or of
+     * all channels where values were found if none. Returns 1 if no value was
+     * found for the channel.
+     *
+     * @param channel the channel
+     * @param referenceChannels the reference channels
+     *
+     * @return the normalization factor of the given channel
+     */
+    public double getNormalizationFactor(
+            int channel,
+            int[] referenceChannels
+    ) {
+
+        double sum = getSum(channel);
+
+        if (counts[channel] == 0 || sum <= 0) {
+            return 1;
+        }
+
+        double referenceSum = getReferenceSum(referenceChannels);
+
+        if (Double.isNaN(referenceSum)) {
+
+            int[] allChannels = new int[sums.length];
+
+            for (int i = 0; i < sums.length; i++) {
+                allChannels[i] = i;
+            }
+
+            referenceSum = getReferenceSum(allChannels);
+
+        }
+
+        return sum / referenceSum;
+
+    }
+
+    /**
+     * Returns the mean of the sums of the given channels where values were
+     * found, NaN if none.
+     *
+     * @param referenceChannels the reference channels
+     *
+     * @return the mean of the sums of the given channels
+     */
+    private double getReferenceSum(
+            int[] referenceChannels
+    ) {
+
+        double total = 0.0;
+        int nChannels = 0;
+
+        for (int channel : referenceChannels) {
+
+            double sum = getSum(channel);
+
+            if (counts[channel] > 0 && sum > 0) {
+
+                total += sum;
+                nChannels++;
+
+            }
+        }
+
+        return nChannels == 0 ? Double.NaN : total / nChannels;
+
+    }
+}
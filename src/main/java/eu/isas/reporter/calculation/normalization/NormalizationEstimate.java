@@ -0,0 +1,118 @@
+package eu.isas.reporter.calculation.normalization;
+
+/**
+ * Approximate normalization factor estimated from a sample of the matches,
+ * with the bounds of its confidence interval.
+ *
+ * @author Marc Vaudel
+ */
+public class NormalizationEstimate {
+
+    /**
+     * The estimated normalization factor.
+     */
+    private final double factor;
+    /**
+     * The lower bound of the confidence interval.
+     */
+    private final double lowerBound;
+    /**
+     * The upper bound of the confidence interval.
+     */
+    private final double upperBound;
+    /**
+     * The number of ratios used for the estimation.
+     */
+    private final int nRatios;
+    /**
+     * The share of the matches sampled.
+     */
+    private final double samplingFraction;
+
+    /**
+     * Constructor.
+     *
+     * @param factor the estimated normalization factor
+     * @param lowerBound the lower bound of the confidence interval
+     * @param upperBound the upper bound of the confidence interval
+     * @param nRatios the number of ratios used for the estimation
+     * @param samplingFraction the share of the matches sampled
+     */
+    public NormalizationEstimate(
+            double factor,
+            double lowerBound,
+            double upperBound,
+            int nRatios,
+            double samplingFraction
+    ) {
+
+        this.factor = factor;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.nRatios = nRatios;
+        this.samplingFraction = samplingFraction;
+
+    }
+
+    /**
+     * Returns the estimated normalization factor.
+     *
+     * @return the estimated normalization factor
+     */
+    public double getFactor() {
+        return factor;
+    }
+
+    /**
+     * Returns the lower bound of the confidence interval.
+     *
+     * @return the lower bound of the confidence interval
+     */
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * Returns the upper bound of the confidence interval.
+     *
+     * @return the upper bound of the confidence interval
+     */
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * Returns the number of ratios used for the estimation.
+     *
+     * @return the number of ratios used for the estimation
+     */
+    public int getnRatios() {
+        return nRatios;
+    }
+
+    /**
+     * Returns the share of the matches sampled.
+     *
+     * @return the share of the matches sampled
+     */
+    public double getSamplingFraction() {
+        return samplingFraction;
+    }
+
+    /**
+     * Returns the half width of the confidence interval relative to the
+     * factor.
+     *
+     * @return the half width of the confidence interval relative to the
+     * factor
+     */
+    public double getRelativePrecision() {
+
+        if (factor == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        return (upperBound - lowerBound) / (2 * factor);
+
+    }
+}
@@ -0,0 +1,1173 @@
+package eu.isas.reporter.calculation.normalization;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
+import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
+import com.compomics.util.parameters.identification.advanced.PeptideVariantsParameters;
+import com.compomics.util.parameters.identification.search.SearchParameters;
+import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationFilter;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.quantificationdetails.ChannelTable;
+import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
+import eu.isas.reporter.settings.NormalizationSettings;
+import eu.isas.reporter.settings.RatioEstimationSettings;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Previews the normalization factors from a sample of the matches. The PSMs
+ * are sampled per spectrum file, the peptides and proteins among all matches,
+ * in an order given by a hash of the match key. The sample is hence the same
+ * every time the preview is run, and grows by inclusion when the sampling
+ * fraction increases. The sampled matches are counted per file and validation
+ * level. The ratios of the sampled peptides and proteins are aggregated from
+ * the lower level ratios normalized with the factors applied when the preview
+ * was created. When previewing other settings, they are renormalized with the
+ * factors previewed for the lower levels before estimating the factors of
+ * their level. Changing the normalization type or the FASTA files therefore
+ * only requires estimating the factors again.
+ *
+ * The preview is computed with the ratio estimation settings of the
+ * quantification features generator, the exact factors are computed by the
+ * Normalizer when the settings are applied.
+ *
+ * @author Marc Vaudel
+ */
+public class NormalizationPreview {
+
+    /**
+     * The share of the matches sampled at every round.
+     */
+    public static final double[] SAMPLING_FRACTIONS = {0.01, 0.02, 0.05, 0.1, 0.2, 0.5};
+    /**
+     * The minimal number of matches to sample per level.
+     */
+    public static final int MIN_SAMPLE_SIZE = 500;
+    /**
+     * The relative precision of the median factors at which the sampling of a
+     * level stops.
+     */
+    public static final double TARGET_PRECISION = 0.01;
+    /**
+     * The quantile of the normal distribution used for the 95% confidence
+     * intervals.
+     */
+    private static final double Z = 1.96;
+    /**
+     * The levels previewed.
+     */
+    public static final QuantificationLevel[] LEVELS = {
+        QuantificationLevel.psm,
+        QuantificationLevel.peptide,
+        QuantificationLevel.protein
+    };
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The quantification features generator.
+     */
+    private final QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The ratio estimation settings.
+     */
+    private final RatioEstimationSettings ratioEstimationSettings;
+    /**
+     * The search parameters.
+     */
+    private final SearchParameters searchParameters;
+    /**
+     * The FASTA parameters.
+     */
+    private final FastaParameters fastaParameters;
+    /**
+     * The peptide variants parameters.
+     */
+    private final PeptideVariantsParameters peptideVariantsParameters;
+    /**
+     * The exception handler.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * The channel table of the project.
+     */
+    private final ChannelTable channelTable;
+    /**
+     * The reference channels of the sum normalization, i.e. the channels of
+     * the control samples.
+     */
+    private final int[] referenceChannels;
+    /**
+     * The normalization factors applied to the ratios of the lower levels
+     * when aggregated in the ratios of the next level, indexed by level and
+     * channel.
+     */
+    private final EnumMap<QuantificationLevel, double[]> appliedFactors = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * The strata of matches to sample per level.
+     */
+    private EnumMap<QuantificationLevel, ArrayList<Stratum>> strata = null;
+    /**
+     * The sampled matches per level.
+     */
+    private final EnumMap<QuantificationLevel, ArrayList<SampledMatch>> samples = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * The number of matches sampled per level, file and validation level.
+     */
+    private final EnumMap<QuantificationLevel, TreeMap<String, Integer>> sampledCounts = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * The share of the matches sampled per level.
+     */
+    private final EnumMap<QuantificationLevel, Double> samplingFractions = new EnumMap<>(QuantificationLevel.class);
+    /**
+     * The maximal share of the matches to sample.
+     */
+    private double maxSamplingFraction = SAMPLING_FRACTIONS[SAMPLING_FRACTIONS.length - 1];
+    /**
+     * The sampling round.
+     */
+    private int round = 0;
+    /**
+     * The accessions of the FASTA files indexed by path.
+     */
+    private final HashMap<String, Collection<String>> accessionsCache = new HashMap<>();
+    /**
+     * The sampling thread.
+     */
+    private Thread samplingThread = null;
+    /**
+     * Boolean indicating whether the sampling should stop.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator
+     * @param ratioEstimationSettings the ratio estimation settings
+     * @param searchParameters the search parameters
+     * @param fastaParameters the FASTA parameters
+     * @param peptideVariantsParameters the peptide variants parameters
+     * @param exceptionHandler the exception handler
+     */
+    public NormalizationPreview(
+            Identification identification,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            RatioEstimationSettings ratioEstimationSettings,
+            SearchParameters searchParameters,
+            FastaParameters fastaParameters,
+            PeptideVariantsParameters peptideVariantsParameters,
+            ExceptionHandler exceptionHandler
+    ) {
+
+        this.identification = identification;
+        this.spectrumProvider = spectrumProvider;
+        this.quantificationFeaturesGenerator = quantificationFeaturesGenerator;
+        this.ratioEstimationSettings = ratioEstimationSettings;
+        this.searchParameters = searchParameters;
+        this.fastaParameters = fastaParameters;
+        this.peptideVariantsParameters = peptideVariantsParameters;
+        this.exceptionHandler = exceptionHandler;
+        this.channelTable = quantificationFeaturesGenerator.getChannelTable();
+
+        ArrayList<String> controlSamples = quantificationFeaturesGenerator.getReporterIonQuantification().getControlSamples();
+        this.referenceChannels = controlSamples == null
+                ? new int[0]
+                : controlSamples.stream()
+                        .mapToInt(channelTable::getChannel)
+                        .filter(channel -> channel >= 0)
+                        .toArray();
+
+        NormalizationFactors normalizationFactors = quantificationFeaturesGenerator.getReporterIonQuantification().getNormalizationFactors();
+        double[] psmFactors = new double[channelTable.size()];
+        double[] peptideFactors = new double[channelTable.size()];
+
+        for (int channel = 0; channel < channelTable.size(); channel++) {
+
+            String sampleIndex = channelTable.getSampleIndex(channel);
+            psmFactors[channel] = normalizationFactors.hasPsmNormalisationFactors()
+                    ? normalizationFactors.getPsmNormalisationFactor(sampleIndex) : 1.0;
+            peptideFactors[channel] = normalizationFactors.hasPeptideNormalisationFactors()
+                    ? normalizationFactors.getPeptideNormalisationFactor(sampleIndex) : 1.0;
+
+        }
+
+        appliedFactors.put(QuantificationLevel.psm, psmFactors);
+        appliedFactors.put(QuantificationLevel.peptide, peptideFactors);
+
+        for (QuantificationLevel level : LEVELS) {
+
+            samples.put(level, new ArrayList<>());
+            sampledCounts.put(level, new TreeMap<>());
+            samplingFractions.put(level, 0.0);
+
+        }
+    }
+
+    /**
+     * Starts or resumes the sampling in a background thread. The listener is
+     * notified every time the sample of a level has grown. Does nothing if
+     * the sampling is running or complete.
+     *
+     * @param listener the listener to notify when the sample has grown
+     */
+    public synchronized void start(
+            Runnable listener
+    ) {
+
+        if (samplingThread != null && samplingThread.isAlive() || isComplete()) {
+            return;
+        }
+
+        stopped = false;
+
+        samplingThread = new Thread(() -> {
+
+            try {
+
+                sample(listener);
+
+            } catch (Exception e) {
+
+                stopped = true;
+                exceptionHandler.catchException(e);
+
+            }
+
+        }, "NormalizationPreview");
+
+        samplingThread.setDaemon(true);
+        samplingThread.start();
+
+    }
+
+    /**
+     * Stops the sampling. The matches sampled so far are kept and the
+     * sampling can be resumed.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Sets the maximal share of the matches to sample. Rounds sampling a
+     * larger share are skipped. The first round is always run.
+     *
+     * @param maxSamplingFraction the maximal share of the matches to sample
+     */
+    public synchronized void setMaxSamplingFraction(
+            double maxSamplingFraction
+    ) {
+        this.maxSamplingFraction = maxSamplingFraction;
+    }
+
+    /**
+     * Indicates whether all sampling rounds are done.
+     *
+     * @return a boolean indicating whether all sampling rounds are done
+     */
+    public synchronized boolean isComplete() {
+        return round >= SAMPLING_FRACTIONS.length
+                || round > 0 && SAMPLING_FRACTIONS[round] > maxSamplingFraction;
+    }
+
+    /**
+     * Samples the matches round by round until all rounds are done or the
+     * sampling is stopped.
+     *
+     * @param listener the listener to notify when the sample has grown
+     */
+    private void sample(
+            Runnable listener
+    ) {
+
+        if (strata == null) {
+            strata = getStrata();
+        }
+
+        while (!stopped && !isComplete()) {
+
+            double fraction = SAMPLING_FRACTIONS[round];
+
+            for (QuantificationLevel level : LEVELS) {
+
+                if (getSamplingFraction(level) < fraction && !isPrecise(level)) {
+
+                    sampleLevel(level, fraction);
+
+                    if (stopped) {
+                        return;
+                    }
+
+                    listener.run();
+
+                }
+            }
+
+            synchronized (this) {
+                round++;
+            }
+        }
+    }
+
+    /**
+     * Returns the strata of matches to sample per level, with the keys sorted
+     * by hash.
+     *
+     * @return the strata of matches to sample per level
+     */
+    private EnumMap<QuantificationLevel, ArrayList<Stratum>> getStrata() {
+
+        EnumMap<QuantificationLevel, ArrayList<Stratum>> result = new EnumMap<>(QuantificationLevel.class);
+
+        ArrayList<Stratum> psmStrata = new ArrayList<>();
+
+        for (String spectrumFile : new TreeSet<>(identification.getSpectrumIdentification().keySet())) {
+
+            long[] keys = identification.getSpectrumIdentification().get(spectrumFile).stream()
+                    .sorted(Comparator.comparingLong(NormalizationPreview::hash))
+                    .mapToLong(Long::longValue)
+                    .toArray();
+
+            psmStrata.add(new Stratum(spectrumFile, keys));
+
+        }
+
+        result.put(QuantificationLevel.psm, psmStrata);
+
+        long[] peptideKeys = identification.getPeptideIdentification().stream()
+                .sorted(Comparator.comparingLong(NormalizationPreview::hash))
+                .mapToLong(Long::longValue)
+                .toArray();
+
+        ArrayList<Stratum> peptideStrata = new ArrayList<>(1);
+        peptideStrata.add(new Stratum(QuantificationLevel.peptide.name, peptideKeys));
+        result.put(QuantificationLevel.peptide, peptideStrata);
+
+        long[] proteinKeys = identification.getProteinIdentification().stream()
+                .sorted(Comparator.comparingLong(NormalizationPreview::hash))
+                .mapToLong(Long::longValue)
+                .toArray();
+
+        ArrayList<Stratum> proteinStrata = new ArrayList<>(1);
+        proteinStrata.add(new Stratum(QuantificationLevel.protein.name, proteinKeys));
+        result.put(QuantificationLevel.protein, proteinStrata);
+
+        return result;
+
+    }
+
+    /**
+     * Samples the given share of every stratum of a level. At least
+     * MIN_SAMPLE_SIZE matches are sampled, the same share of every stratum is
+     * sampled so that the sample is not biased towards a file.
+     *
+     * @param level the level
+     * @param fraction the share of the matches to sample
+     */
+    private void sampleLevel(
+            QuantificationLevel level,
+            double fraction
+    ) {
+
+        ArrayList<Stratum> levelStrata = strata.get(level);
+        int nMatches = levelStrata.stream()
+                .mapToInt(stratum -> stratum.keys.length)
+                .sum();
+
+        if (nMatches == 0) {
+
+            synchronized (samples) {
+                samplingFractions.put(level, 1.0);
+            }
+
+            return;
+        }
+
+        double levelFraction = Math.max(fraction, Math.min(1.0, ((double) MIN_SAMPLE_SIZE) / nMatches));
+        PSParameter psParameter = new PSParameter();
+
+        for (Stratum stratum : levelStrata) {
+
+            int end = (int) Math.ceil(levelFraction * stratum.keys.length);
+
+            while (stratum.nSampled < end) {
+
+                if (stopped) {
+                    return;
+                }
+
+                sampleMatch(level, stratum.name, stratum.keys[stratum.nSampled], psParameter);
+                stratum.nSampled++;
+
+            }
+        }
+
+        synchronized (samples) {
+            samplingFractions.put(level, levelFraction);
+        }
+    }
+
+    /**
+     * Adds a match to the sample.
+     *
+     * @param level the level of the match
+     * @param stratumName the name of the stratum of the match
+     * @param key the key of the match
+     * @param psParameter a PSParameter used to retrieve the validation level
+     */
+    private void sampleMatch(
+            QuantificationLevel level,
+            String stratumName,
+            long key,
+            PSParameter psParameter
+    ) {
+
+        switch (level) {
+
+            case psm:
+
+                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(key);
+                PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+                if (peptideAssumption == null) {
+                    return;
+                }
+
+                psParameter = (PSParameter) spectrumMatch.getUrParam(psParameter);
+                MatchValidationLevel psmValidationLevel = psParameter.getMatchValidationLevel();
+
+                if (psmValidationLevel.getIndex() >= ratioEstimationSettings.getPsmValidationLevel().getIndex()) {
+
+                    PsmQuantificationDetails psmDetails = quantificationFeaturesGenerator.getPSMQuantificationDetails(
+                            spectrumProvider,
+                            spectrumMatch
+                    );
+                    double[] ratios = new double[channelTable.size()];
+
+                    for (int channel = 0; channel < channelTable.size(); channel++) {
+                        ratios[channel] = getValidRatio(psmDetails.getRawRatio(channelTable.getSampleIndex(channel)));
+                    }
+
+                    addSample(
+                            level,
+                            stratumName,
+                            psmValidationLevel,
+                            peptideAssumption.getPeptide().getProteinMapping().keySet().stream().toArray(String[]::new),
+                            ratios
+                    );
+
+                } else {
+
+                    addSample(level, stratumName, psmValidationLevel, null, null);
+
+                }
+
+                return;
+
+            case peptide:
+
+                PeptideMatch peptideMatch = identification.getPeptideMatch(key);
+                psParameter = (PSParameter) peptideMatch.getUrParam(psParameter);
+                MatchValidationLevel peptideValidationLevel = psParameter.getMatchValidationLevel();
+
+                if (peptideValidationLevel.getIndex() >= ratioEstimationSettings.getPeptideValidationLevel().getIndex()) {
+
+                    PeptideQuantificationDetails peptideDetails = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+                            spectrumProvider,
+                            peptideMatch,
+                            null
+                    );
+                    double[] ratios = new double[channelTable.size()];
+
+                    for (int channel = 0; channel < channelTable.size(); channel++) {
+                        ratios[channel] = getValidRatio(peptideDetails.getRawRatio(channelTable.getSampleIndex(channel)));
+                    }
+
+                    addSample(
+                            level,
+                            stratumName,
+                            peptideValidationLevel,
+                            peptideMatch.getPeptide().getProteinMapping().keySet().stream().toArray(String[]::new),
+                            ratios
+                    );
+
+                } else {
+
+                    addSample(level, stratumName, peptideValidationLevel, null, null);
+
+                }
+
+                return;
+
+            case protein:
+
+                ProteinMatch proteinMatch = identification.getProteinMatch(key);
+                psParameter = (PSParameter) proteinMatch.getUrParam(psParameter);
+                MatchValidationLevel proteinValidationLevel = psParameter.getMatchValidationLevel();
+
+                if (proteinValidationLevel.getIndex() >= ratioEstimationSettings.getProteinValidationLevel().getIndex()) {
+
+                    ProteinQuantificationDetails proteinDetails = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
+                            spectrumProvider,
+                            key,
+                            null
+                    );
+                    double[] ratios = new double[channelTable.size()];
+
+                    for (int channel = 0; channel < channelTable.size(); channel++) {
+                        ratios[channel] = getValidRatio(proteinDetails.getRawRatio(channelTable.getSampleIndex(channel)));
+                    }
+
+                    addSample(
+                            level,
+                            stratumName,
+                            proteinValidationLevel,
+                            proteinMatch.getAccessions(),
+                            ratios
+                    );
+
+                } else {
+
+                    addSample(level, stratumName, proteinValidationLevel, null, null);
+
+                }
+
+                return;
+
+            default:
+                throw new UnsupportedOperationException("Normalization preview not implemented for level " + level.name + ".");
+        }
+    }
+
+    /**
+     * Returns the given ratio if valid for normalization, NaN otherwise.
+     *
+     * @param ratio the ratio
+     *
+     * @return the given ratio if valid for normalization, NaN otherwise
+     */
+    private double getValidRatio(
+            Double ratio
+    ) {
+
+        if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio) && ratio > 0) {
+            return ratio;
+        }
+
+        return Double.NaN;
+
+    }
+
+    /**
+     * Adds a sampled match.
+     *
+     * @param level the level of the match
+     * @param stratumName the name of the stratum of the match
+     * @param validationLevel the validation level of the match
+     * @param accessions the accessions of the proteins of the match, null if
+     * the match is not used for normalization
+     * @param ratios the ratios of the match indexed by channel, null if the
+     * match is not used for normalization
+     */
+    private void addSample(
+            QuantificationLevel level,
+            String stratumName,
+            MatchValidationLevel validationLevel,
+            String[] accessions,
+            double[] ratios
+    ) {
+
+        String countKey = stratumName + ", " + validationLevel.getName();
+
+        synchronized (samples) {
+
+            sampledCounts.get(level).merge(countKey, 1, Integer::sum);
+
+            if (ratios != null) {
+                samples.get(level).add(new SampledMatch(accessions, ratios));
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the median factors of the given level are estimated
+     * with the target precision.
+     *
+     * @param level the level
+     *
+     * @return a boolean indicating whether the median factors of the given
+     * level are estimated with the target precision
+     */
+    private boolean isPrecise(
+            QuantificationLevel level
+    ) {
+
+        if (getSamplingFraction(level) == 0.0) {
+            return false;
+        }
+
+        HashMap<String, NormalizationEstimate> estimates = getEstimates(level, NormalizationType.median, null, null, null);
+
+        return estimates.values().stream()
+                .allMatch(estimate -> estimate.getnRatios() > 0 && estimate.getRelativePrecision() <= TARGET_PRECISION);
+
+    }
+
+    /**
+     * Returns the estimated normalization factors of the given level for the
+     * given settings, indexed by sample index. The factors of the lower levels
+     * are estimated first, and the sampled ratios of the level are
+     * renormalized with them.
+     *
+     * @param level the level
+     * @param normalizationSettings the normalization settings
+     *
+     * @return the estimated normalization factors
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a FASTA file
+     */
+    public HashMap<String, NormalizationEstimate> getEstimates(
+            QuantificationLevel level,
+            NormalizationSettings normalizationSettings
+    ) throws IOException {
+
+        Collection<String> seeds = getAccessions(normalizationSettings.getStableProteinsFastaFile());
+        Collection<String> exclusion = getAccessions(normalizationSettings.getContaminantsFastaFile());
+
+        double[] scales = null;
+
+        for (QuantificationLevel previewedLevel : LEVELS) {
+
+            HashMap<String, NormalizationEstimate> estimates = getEstimates(
+                    previewedLevel,
+                    getNormalizationType(previewedLevel, normalizationSettings),
+                    seeds,
+                    exclusion,
+                    scales
+            );
+
+            if (previewedLevel == level) {
+                return estimates;
+            }
+
+            scales = getScales(previewedLevel, estimates, scales);
+
+        }
+
+        throw new UnsupportedOperationException("Normalization preview not implemented for level " + level.name + ".");
+
+    }
+
+    /**
+     * Returns the normalization type of the given level in the given
+     * settings.
+     *
+     * @param level the level
+     * @param normalizationSettings the normalization settings
+     *
+     * @return the normalization type of the given level
+     */
+    private static NormalizationType getNormalizationType(
+            QuantificationLevel level,
+            NormalizationSettings normalizationSettings
+    ) {
+
+        switch (level) {
+            case psm:
+                return normalizationSettings.getPsmNormalization();
+            case peptide:
+                return normalizationSettings.getPeptideNormalization();
+            case protein:
+                return normalizationSettings.getProteinNormalization();
+            default:
+                throw new UnsupportedOperationException("Normalization preview not implemented for level " + level.name + ".");
+        }
+    }
+
+    /**
+     * Returns the factors by which the sampled ratios of the level above the
+     * given level are renormalized: the factors applied to the ratios of the
+     * given level when the sampled ratios were computed, over the factors
+     * previewed. Factors which could not be estimated are not changed.
+     *
+     * @param level the level of the previewed factors
+     * @param estimates the previewed factors of the level
+     * @param scales the factors by which the ratios of the level were
+     * renormalized, null if none
+     *
+     * @return the factors by which the ratios of the level above are
+     * renormalized indexed by channel
+     */
+    private double[] getScales(
+            QuantificationLevel level,
+            HashMap<String, NormalizationEstimate> estimates,
+            double[] scales
+    ) {
+
+        double[] applied = appliedFactors.get(level);
+        double[] result = new double[channelTable.size()];
+
+        for (int channel = 0; channel < channelTable.size(); channel++) {
+
+            NormalizationEstimate estimate = estimates.get(channelTable.getSampleIndex(channel));
+            double factor = estimate == null || estimate.getnRatios() == 0 ? applied[channel] : estimate.getFactor();
+
+            if (!(factor > 0) || Double.isInfinite(factor)) {
+                factor = applied[channel];
+            }
+
+            result[channel] = (scales == null ? 1.0 : scales[channel]) * applied[channel] / factor;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the estimated normalization factors of the given level, indexed
+     * by sample index.
+     *
+     * @param level the level
+     * @param normalizationType the normalization type
+     * @param seeds the accessions of the stable proteins, null if none
+     * @param exclusion the accessions of the contaminants, null if none
+     * @param scales the factors by which the sampled ratios are renormalized
+     * indexed by channel, null if none
+     *
+     * @return the estimated normalization factors
+     */
+    private HashMap<String, NormalizationEstimate> getEstimates(
+            QuantificationLevel level,
+            NormalizationType normalizationType,
+            Collection<String> seeds,
+            Collection<String> exclusion,
+            double[] scales
+    ) {
+
+        SampledMatch[] sampledMatches;
+        double fraction;
+
+        synchronized (samples) {
+
+            sampledMatches = samples.get(level).toArray(new SampledMatch[0]);
+            fraction = samplingFractions.get(level);
+
+        }
+
+        if (scales != null) {
+
+            SampledMatch[] renormalizedMatches = new SampledMatch[sampledMatches.length];
+
+            for (int i = 0; i < sampledMatches.length; i++) {
+
+                double[] ratios = new double[channelTable.size()];
+
+                for (int channel = 0; channel < channelTable.size(); channel++) {
+                    ratios[channel] = sampledMatches[i].ratios[channel] * scales[channel];
+                }
+
+                renormalizedMatches[i] = new SampledMatch(sampledMatches[i].accessions, ratios);
+
+            }
+
+            sampledMatches = renormalizedMatches;
+
+        }
+
+        boolean[] excluded = new boolean[sampledMatches.length];
+        boolean[] seed = new boolean[sampledMatches.length];
+
+        for (int i = 0; i < sampledMatches.length; i++) {
+
+            excluded[i] = exclusion != null && Normalizer.isContaminant(exclusion, sampledMatches[i].accessions);
+            seed[i] = seeds != null && Normalizer.isSeed(seeds, sampledMatches[i].accessions);
+
+        }
+
+        if (normalizationType == NormalizationType.sum) {
+            return getSumEstimates(sampledMatches, excluded, seed, fraction);
+        }
+
+        HashMap<String, NormalizationEstimate> result = new HashMap<>(channelTable.size());
+        double[] allRatios = new double[sampledMatches.length];
+        double[] seedRatios = new double[sampledMatches.length];
+
+        for (int channel = 0; channel < channelTable.size(); channel++) {
+
+            int nAll = 0;
+            int nSeeds = 0;
+
+            for (int i = 0; i < sampledMatches.length; i++) {
+
+                double ratio = sampledMatches[i].ratios[channel];
+
+                if (!excluded[i] && !Double.isNaN(ratio)) {
+
+                    allRatios[nAll++] = ratio;
+
+                    if (seed[i]) {
+                        seedRatios[nSeeds++] = ratio;
+                    }
+                }
+            }
+
+            NormalizationEstimate estimate = nSeeds > 0
+                    ? estimate(normalizationType, seedRatios, nSeeds, fraction)
+                    : estimate(normalizationType, allRatios, nAll, fraction);
+
+            result.put(channelTable.getSampleIndex(channel), estimate);
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the normalization factors by sum estimated from the sampled
+     * ratios, indexed by sample index. The ratios of the seeds are used if
+     * any, otherwise the ratios of all matches not excluded. At the PSM level,
+     * the sum of the ratios is used as approximation of the sum of the
+     * reporter intensities. The 95% confidence interval is estimated from the
+     * standard error of the sum of every channel.
+     *
+     * @param sampledMatches the sampled matches
+     * @param excluded indicates for every match whether it is excluded
+     * @param seed indicates for every match whether it is a seed
+     * @param fraction the share of the matches sampled
+     *
+     * @return the estimated normalization factors
+     */
+    private HashMap<String, NormalizationEstimate> getSumEstimates(
+            SampledMatch[] sampledMatches,
+            boolean[] excluded,
+            boolean[] seed,
+            double fraction
+    ) {
+
+        boolean useSeeds = false;
+
+        for (int i = 0; i < sampledMatches.length; i++) {
+
+            if (!excluded[i] && seed[i]) {
+                useSeeds = true;
+                break;
+            }
+        }
+
+        ChannelSums sums = new ChannelSums(channelTable);
+        ChannelSums squares = new ChannelSums(channelTable);
+
+        for (int i = 0; i < sampledMatches.length; i++) {
+
+            if (!excluded[i] && (!useSeeds || seed[i])) {
+
+                for (int channel = 0; channel < channelTable.size(); channel++) {
+
+                    double ratio = sampledMatches[i].ratios[channel];
+
+                    if (!Double.isNaN(ratio)) {
+
+                        sums.add(channel, ratio);
+                        squares.add(channel, ratio * ratio);
+
+                    }
+                }
+            }
+        }
+
+        double correction = Math.sqrt(Math.max(0.0, 1.0 - fraction));
+        HashMap<String, NormalizationEstimate> result = new HashMap<>(channelTable.size());
+
+        for (int channel = 0; channel < channelTable.size(); channel++) {
+
+            int nRatios = (int) sums.getCount(channel);
+            double factor = sums.getNormalizationFactor(channel, referenceChannels);
+            NormalizationEstimate estimate;
+
+            if (nRatios == 0 || sums.getSum(channel) <= 0) {
+
+                estimate = new NormalizationEstimate(1, 1, 1, nRatios, fraction);
+
+            } else {
+
+                double mean = sums.getSum(channel) / nRatios;
+                double variance = nRatios > 1
+                        ? Math.max(0.0, (squares.getSum(channel) - nRatios * mean * mean) / (nRatios - 1))
+                        : mean * mean;
+                double relativeError = Math.sqrt(variance / nRatios) / mean;
+                double width = factor * Z * relativeError * correction;
+
+                estimate = new NormalizationEstimate(factor, factor - width, factor + width, nRatios, fraction);
+
+            }
+
+            result.put(channelTable.getSampleIndex(channel), estimate);
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Estimates a normalization factor from the given ratios. The 95%
+     * confidence interval of the mean is estimated from the standard error,
+     * the one of the median from the order statistics of the sample. Both are
+     * corrected for the share of the matches sampled. Note that the given
+     * array is sorted.
+     *
+     * @param normalizationType the normalization type
+     * @param ratios the ratios
+     * @param nRatios the number of ratios to use in the array
+     * @param fraction the share of the matches sampled
+     *
+     * @return the estimated normalization factor
+     */
+    private static NormalizationEstimate estimate(
+            NormalizationType normalizationType,
+            double[] ratios,
+            int nRatios,
+            double fraction
+    ) {
+
+        if (nRatios == 0 || normalizationType == NormalizationType.none) {
+            return new NormalizationEstimate(1, 1, 1, nRatios, fraction);
+        }
+
+        double correction = Math.sqrt(Math.max(0.0, 1.0 - fraction));
+
+        switch (normalizationType) {
+
+            case mean:
+
+                double sum = 0.0;
+
+                for (int i = 0; i < nRatios; i++) {
+                    sum += ratios[i];
+                }
+
+                double mean = sum / nRatios;
+                double squares = 0.0;
+
+                for (int i = 0; i < nRatios; i++) {
+                    squares += (ratios[i] - mean) * (ratios[i] - mean);
+                }
+
+                double standardError = nRatios > 1 ? Math.sqrt(squares / (nRatios - 1) / nRatios) : mean;
+                double meanWidth = Z * standardError * correction;
+
+                return new NormalizationEstimate(mean, mean - meanWidth, mean + meanWidth, nRatios, fraction);
+
+            case median:
+
+                Arrays.sort(ratios, 0, nRatios);
+
+                double median = nRatios % 2 == 1
+                        ? ratios[nRatios / 2]
+                        : (ratios[nRatios / 2 - 1] + ratios[nRatios / 2]) / 2;
+
+                double center = (nRatios - 1) / 2.0;
+                double rankWidth = Z * Math.sqrt(nRatios) / 2 * correction;
+                int lowerRank = Math.max(0, (int) Math.floor(center - rankWidth));
+                int upperRank = Math.min(nRatios - 1, (int) Math.ceil(center + rankWidth));
+
+                return new NormalizationEstimate(median, ratios[lowerRank], ratios[upperRank], nRatios, fraction);
+
+            default:
+                throw new UnsupportedOperationException("Normalization method not implemented.");
+
+        }
+    }
+
+    /**
+     * Returns the accessions of the proteins in the given FASTA file. The
+     * accessions are cached, null if the file is null.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the accessions of the proteins in the given FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private synchronized Collection<String> getAccessions(
+            File fastaFile
+    ) throws IOException {
+
+        if (fastaFile == null) {
+            return null;
+        }
+
+        String path = fastaFile.getAbsolutePath();
+        Collection<String> accessions = accessionsCache.get(path);
+
+        if (accessions == null) {
+
+            NormalizationSettings fileSettings = new NormalizationSettings();
+            fileSettings.setStableProteinsFastaFile(fastaFile);
+
+            accessions = fileSettings.getStableProteins(
+                    searchParameters,
+                    fastaParameters,
+                    peptideVariantsParameters,
+                    null
+            );
+
+            accessionsCache.put(path, accessions);
+
+        }
+
+        return accessions;
+
+    }
+
+    /**
+     * Returns the share of the matches of the given level sampled.
+     *
+     * @param level the level
+     *
+     * @return the share of the matches of the given level sampled
+     */
+    public double getSamplingFraction(
+            QuantificationLevel level
+    ) {
+
+        synchronized (samples) {
+            return samplingFractions.get(level);
+        }
+    }
+
+    /**
+     * Returns the number of matches sampled for the given level, indexed by
+     * file or level name and validation level.
+     *
+     * @param level the level
+     *
+     * @return the number of matches sampled
+     */
+    public TreeMap<String, Integer> getSampledCounts(
+            QuantificationLevel level
+    ) {
+
+        synchronized (samples) {
+            return new TreeMap<>(sampledCounts.get(level));
+        }
+    }
+
+    /**
+     * Hashes a match key, used to sort the matches in a deterministic order
+     * uncorrelated with the key.
+     *
+     * @param key the key
+     *
+     * @return the hash
+     */
+    private static long hash(
+            long key
+    ) {
+
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+
+        return key ^ (key >>> 31);
+
+    }
+
+    /**
+     * The keys of a stratum of matches sorted by hash, and the number sampled.
+     */
+    private static class Stratum {
+
+        /**
+         * The name of the stratum.
+         */
+        private final String name;
+        /**
+         * The keys of the matches sorted by hash.
+         */
+        private final long[] keys;
+        /**
+         * The number of matches sampled.
+         */
+        private int nSampled = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the stratum
+         * @param keys the keys of the matches sorted by hash
+         */
+        private Stratum(
+                String name,
+                long[] keys
+        ) {
+
+            this.name = name;
+            this.keys = keys;
+
+        }
+    }
+
+    /**
+     * The ratios and protein accessions of a sampled match.
+     */
+    private static class SampledMatch {
+
+        /**
+         * The accessions of the proteins of the match.
+         */
+        private final String[] accessions;
+        /**
+         * The raw ratios indexed by channel, NaN if not valid.
+         */
+        private final double[] ratios;
+
+        /**
+         * Constructor.
+         *
+         * @param accessions the accessions of the proteins of the match
+         * @param ratios the raw ratios indexed by channel
+         */
+        private SampledMatch(
+                String[] accessions,
+                double[] ratios
+        ) {
+
+            this.accessions = accessions;
+            this.ratios = ratios;
+
+        }
+    }
+}
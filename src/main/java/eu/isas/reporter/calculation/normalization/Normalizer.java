@@ -16,6 +16,7 @@ import com.compomics.util.experiment.io.biology.protein.FastaParameters;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.experiment.normalization.NormalizationFactors;
 import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.experiment.quantification.Quantification;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.parameters.identification.advanced.PeptideVariantsParameters;
@@ -25,15 +26,18 @@ import com.compomics.util.parameters.tools.ProcessingParameters;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
 import eu.isas.reporter.calculation.QuantificationFilter;
+import eu.isas.reporter.calculation.QuantificationLevel;
 import eu.isas.reporter.settings.NormalizationSettings;
 import eu.isas.reporter.settings.RatioEstimationSettings;
 import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
 import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.SpectrumQuantificationDetails;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -101,6 +105,9 @@ public class Normalizer {
             seedRawRatios.put(sampleIndex, new ArrayList<>());
         }
 
+        ChannelSums allSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+        ChannelSums seedSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<>(1);
         parameters.add(psParameter);
@@ -147,6 +154,7 @@ public class Normalizer {
                         exclusion,
                         ratioEstimationSettings,
                         sequenceMatchingParameters,
+                        normalizationSettings.getPsmNormalization() == NormalizationType.sum,
                         waitingHandler,
                         exceptionHandler
                 );
@@ -168,6 +176,11 @@ public class Normalizer {
 
             for (PsmNormalizerRunnable runnable : runnables) {
 
+                if (runnable.getAllSums() != null) {
+                    allSums.merge(runnable.getAllSums());
+                    seedSums.merge(runnable.getSeedSums());
+                }
+
                 for (String reagent : runnable.getAllRawRatios().keySet()) {
 
                     ArrayList<Double> ratios = allRawRatios.get(reagent);
@@ -197,6 +210,8 @@ public class Normalizer {
         }
 
         NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        NormalizationType normalizationType = normalizationSettings.getPsmNormalization();
+        ChannelSums channelSums = seedSums.isEmpty() ? allSums : seedSums;
 
         for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
 
@@ -204,9 +219,11 @@ public class Normalizer {
             ArrayList<Double> rawRatios = allRawRatios.get(sampleIndex);
             ArrayList<Double> seedRatios = seedRawRatios.get(sampleIndex);
 
-            if (allRawRatios.get(sampleIndex) != null && !rawRatios.isEmpty()) {
+            if (normalizationType == NormalizationType.sum) {
+
+                normalisationFactor = channelSums.getNormalizationFactor(sampleIndex, reporterIonQuantification.getControlSamples());
 
-                NormalizationType normalizationType = normalizationSettings.getPsmNormalization();
+            } else if (allRawRatios.get(sampleIndex) != null && !rawRatios.isEmpty()) {
 
                 if (null == normalizationType) {
                     throw new UnsupportedOperationException("Normalization method not implemented.");
@@ -231,8 +248,6 @@ public class Normalizer {
                             break;
                         case mode:
                             throw new UnsupportedOperationException("Normalization method not implemented.");
-                        case sum:
-                            throw new UnsupportedOperationException("Normalization method not implemented.");
                         default:
                             throw new UnsupportedOperationException("Normalization method not implemented.");
                     }
@@ -300,6 +315,9 @@ public class Normalizer {
             seedRawRatios.put(sampleIndex, new ArrayList<Double>());
         }
 
+        ChannelSums allSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+        ChannelSums seedSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<>(1);
         parameters.add(psParameter);
@@ -352,6 +370,7 @@ public class Normalizer {
                         exclusion,
                         ratioEstimationSettings,
                         sequenceMatchingParameters,
+                        normalizationSettings.getPeptideNormalization() == NormalizationType.sum,
                         waitingHandler,
                         exceptionHandler
                 );
@@ -376,6 +395,11 @@ public class Normalizer {
 
             for (PeptideNormalizerRunnable runnable : runnables) {
 
+                if (runnable.getAllSums() != null) {
+                    allSums.merge(runnable.getAllSums());
+                    seedSums.merge(runnable.getSeedSums());
+                }
+
                 for (String reagent : runnable.getAllRawRatios().keySet()) {
 
                     ArrayList<Double> ratios = allRawRatios.get(reagent);
@@ -405,6 +429,8 @@ public class Normalizer {
         }
 
         NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        NormalizationType normalizationType = normalizationSettings.getPeptideNormalization();
+        ChannelSums channelSums = seedSums.isEmpty() ? allSums : seedSums;
 
         for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
 
@@ -412,9 +438,11 @@ public class Normalizer {
             ArrayList<Double> rawRatios = allRawRatios.get(sampleIndex);
             ArrayList<Double> seedRatios = seedRawRatios.get(sampleIndex);
 
-            if (allRawRatios.get(sampleIndex) != null && !rawRatios.isEmpty()) {
+            if (normalizationType == NormalizationType.sum) {
 
-                NormalizationType normalizationType = normalizationSettings.getPeptideNormalization();
+                normalisationFactor = channelSums.getNormalizationFactor(sampleIndex, reporterIonQuantification.getControlSamples());
+
+            } else if (allRawRatios.get(sampleIndex) != null && !rawRatios.isEmpty()) {
 
                 if (null == normalizationType) {
                     throw new UnsupportedOperationException("Normalization method not implemented.");
@@ -439,8 +467,6 @@ public class Normalizer {
                             break;
                         case mode:
                             throw new UnsupportedOperationException("Normalization method not implemented.");
-                        case sum:
-                            throw new UnsupportedOperationException("Normalization method not implemented.");
                         default:
                             throw new UnsupportedOperationException("Normalization method not implemented.");
                     }
@@ -508,6 +534,9 @@ public class Normalizer {
             seedRawRatios.put(sampleIndex, new ArrayList<Double>(metrics.getnValidatedProteins()));
         }
 
+        ChannelSums allSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+        ChannelSums seedSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<>(1);
         parameters.add(psParameter);
@@ -559,6 +588,7 @@ public class Normalizer {
                         seeds,
                         exclusion,
                         ratioEstimationSettings,
+                        normalizationSettings.getProteinNormalization() == NormalizationType.sum,
                         waitingHandler,
                         exceptionHandler
                 );
@@ -582,6 +612,11 @@ public class Normalizer {
 
             for (ProteinNormalizerRunnable runnable : runnables) {
 
+                if (runnable.getAllSums() != null) {
+                    allSums.merge(runnable.getAllSums());
+                    seedSums.merge(runnable.getSeedSums());
+                }
+
                 for (String reagent : runnable.getAllRawRatios().keySet()) {
 
                     ArrayList<Double> ratios = allRawRatios.get(reagent);
@@ -611,6 +646,8 @@ public class Normalizer {
         }
 
         NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        NormalizationType normalizationType = normalizationSettings.getProteinNormalization();
+        ChannelSums channelSums = seedSums.isEmpty() ? allSums : seedSums;
 
         for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
 
@@ -618,9 +655,11 @@ public class Normalizer {
             ArrayList<Double> rawRatios = allRawRatios.get(sampleIndex);
             ArrayList<Double> seedRatios = seedRawRatios.get(sampleIndex);
 
-            if (rawRatios != null && !rawRatios.isEmpty()) {
+            if (normalizationType == NormalizationType.sum) {
+
+                normalisationFactor = channelSums.getNormalizationFactor(sampleIndex, reporterIonQuantification.getControlSamples());
 
-                NormalizationType normalizationType = normalizationSettings.getProteinNormalization();
+            } else if (rawRatios != null && !rawRatios.isEmpty()) {
 
                 if (null == normalizationType) {
                     throw new UnsupportedOperationException("Normalization method not implemented.");
@@ -645,8 +684,6 @@ public class Normalizer {
                             break;
                         case mode:
                             throw new UnsupportedOperationException("Normalization method not implemented.");
-                        case sum:
-                            throw new UnsupportedOperationException("Normalization method not implemented.");
                         default:
                             throw new UnsupportedOperationException("Normalization method not implemented.");
                     }
@@ -670,7 +707,7 @@ public class Normalizer {
      * @return a boolean indicating whether all the given accessions are seed
      * proteins
      */
-    private static boolean isSeed(Collection<String> seeds, String[] accessions) {
+    static boolean isSeed(Collection<String> seeds, String[] accessions) {
 
         for (String accession : accessions) {
 
@@ -692,7 +729,7 @@ public class Normalizer {
      * @return a boolean indicating whether all the given accessions are seed
      * proteins
      */
-    private static boolean isContaminant(
+    static boolean isContaminant(
             Collection<String> contaminants, 
             String[] accessions
     ) {
@@ -708,6 +745,76 @@ public class Normalizer {
         return false;
     }
 
+    /**
+     * Returns a copy of the given reporter ion quantification with its own
+     * normalization factors, so that new factors can be estimated while the
+     * current ones are in use. The factors of the levels that are not
+     * estimated again are copied.
+     *
+     * @param reporterIonQuantification the reporter ion quantification
+     * @param normalizationLevels the levels whose factors will be estimated
+     * again
+     *
+     * @return a copy of the reporter ion quantification
+     */
+    public static ReporterIonQuantification getWorkingCopy(
+            ReporterIonQuantification reporterIonQuantification,
+            Set<QuantificationLevel> normalizationLevels
+    ) {
+
+        ReporterIonQuantification workingCopy = new ReporterIonQuantification(Quantification.QuantificationMethod.REPORTER_IONS);
+
+        for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
+            workingCopy.assignSample(sampleIndex, reporterIonQuantification.getSample(sampleIndex));
+        }
+
+        workingCopy.setMethod(reporterIonQuantification.getReporterMethod());
+        workingCopy.setControlSamples(reporterIonQuantification.getControlSamples());
+
+        EnumSet<QuantificationLevel> copiedLevels = EnumSet.of(QuantificationLevel.psm, QuantificationLevel.peptide, QuantificationLevel.protein);
+        copiedLevels.removeAll(normalizationLevels);
+
+        copyNormalizationFactors(reporterIonQuantification, workingCopy, copiedLevels);
+
+        return workingCopy;
+
+    }
+
+    /**
+     * Copies the normalization factors of the given levels from a reporter
+     * ion quantification to another. The factors of every sample are
+     * replaced.
+     *
+     * @param source the reporter ion quantification to copy the factors from
+     * @param destination the reporter ion quantification to copy the factors
+     * to
+     * @param levels the levels whose factors should be copied
+     */
+    public static void copyNormalizationFactors(
+            ReporterIonQuantification source,
+            ReporterIonQuantification destination,
+            Set<QuantificationLevel> levels
+    ) {
+
+        NormalizationFactors sourceFactors = source.getNormalizationFactors();
+        NormalizationFactors destinationFactors = destination.getNormalizationFactors();
+
+        for (String sampleIndex : source.getSampleIndexes()) {
+
+            if (levels.contains(QuantificationLevel.psm) && sourceFactors.hasPsmNormalisationFactors()) {
+                destinationFactors.addPsmNormalisationFactor(sampleIndex, sourceFactors.getPsmNormalisationFactor(sampleIndex));
+            }
+
+            if (levels.contains(QuantificationLevel.peptide) && sourceFactors.hasPeptideNormalisationFactors()) {
+                destinationFactors.addPeptideNormalisationFactor(sampleIndex, sourceFactors.getPeptideNormalisationFactor(sampleIndex));
+            }
+
+            if (levels.contains(QuantificationLevel.protein) && sourceFactors.hasProteinNormalisationFactors()) {
+                destinationFactors.addProteinNormalisationFactor(sampleIndex, sourceFactors.getProteinNormalisationFactor(sampleIndex));
+            }
+        }
+    }
+
     /**
      * Runnable gathering values for the normalization of proteins.
      *
@@ -771,6 +878,15 @@ public class Normalizer {
          * The raw seed shared ratios gathered in a map.
          */
         private HashMap<String, ArrayList<Double>> seedSharedRawRatios = new HashMap<>();
+        /**
+         * The sums of the values per channel, null if not normalizing by sum.
+         */
+        private ChannelSums allSums = null;
+        /**
+         * The sums of the seed values per channel, null if not normalizing by
+         * sum.
+         */
+        private ChannelSums seedSums = null;
         /**
          * The waiting handler.
          */
@@ -793,6 +909,8 @@ public class Normalizer {
          * @param seeds the seed proteins
          * @param exclusion the exclusion proteins
          * @param ratioEstimationSettings the ratio estimation settings
+         * @param sumNormalization boolean indicating whether the ratios
+         * should be summed for the sum normalization instead of being gathered
          * @param waitingHandler a waiting handler
          * @param exceptionHandler an exception handler
          */
@@ -805,6 +923,7 @@ public class Normalizer {
                 Collection<String> seeds,
                 Collection<String> exclusion,
                 RatioEstimationSettings ratioEstimationSettings,
+                boolean sumNormalization,
                 WaitingHandler waitingHandler,
                 ExceptionHandler exceptionHandler
         ) {
@@ -819,6 +938,11 @@ public class Normalizer {
             this.ratioEstimationSettings = ratioEstimationSettings;
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
+
+            if (sumNormalization) {
+                allSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+                seedSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+            }
         }
 
         @Override
@@ -853,6 +977,17 @@ public class Normalizer {
 
                                     if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio) && ratio > 0) {
 
+                                        if (allSums != null) {
+
+                                            allSums.add(sampleIndex, ratio);
+
+                                            if (seeds != null && isSeed(seeds, proteinMatch.getAccessions())) {
+                                                seedSums.add(sampleIndex, ratio);
+                                            }
+
+                                            continue;
+                                        }
+
                                         ArrayList<Double> ratios = allRawRatios.get(sampleIndex);
 
                                         if (ratios == null) {
@@ -1008,6 +1143,26 @@ public class Normalizer {
         public HashMap<String, ArrayList<Double>> getSeedSharedRawRatios() {
             return seedSharedRawRatios;
         }
+
+        /**
+         * Returns the sums of the values per channel, null if not normalizing
+         * by sum.
+         *
+         * @return the sums of the values per channel
+         */
+        public ChannelSums getAllSums() {
+            return allSums;
+        }
+
+        /**
+         * Returns the sums of the seed values per channel, null if not
+         * normalizing by sum.
+         *
+         * @return the sums of the seed values per channel
+         */
+        public ChannelSums getSeedSums() {
+            return seedSums;
+        }
     }
 
     /**
@@ -1061,6 +1216,15 @@ public class Normalizer {
          * The raw seed peptide ratios gathered in a map.
          */
         private HashMap<String, ArrayList<Double>> seedRawRatios = new HashMap<>();
+        /**
+         * The sums of the values per channel, null if not normalizing by sum.
+         */
+        private ChannelSums allSums = null;
+        /**
+         * The sums of the seed values per channel, null if not normalizing by
+         * sum.
+         */
+        private ChannelSums seedSums = null;
         /**
          * The waiting handler.
          */
@@ -1084,6 +1248,8 @@ public class Normalizer {
          * @param exclusion the exclusion proteins
          * @param ratioEstimationSettings the ratio estimation settings
          * @param sequenceMatchingParameters the sequence matching parameters
+         * @param sumNormalization boolean indicating whether the ratios
+         * should be summed for the sum normalization instead of being gathered
          * @param waitingHandler a waiting handler
          * @param exceptionHandler an exception handler
          */
@@ -1097,6 +1263,7 @@ public class Normalizer {
                 Collection<String> exclusion,
                 RatioEstimationSettings ratioEstimationSettings,
                 SequenceMatchingParameters sequenceMatchingParameters,
+                boolean sumNormalization,
                 WaitingHandler waitingHandler,
                 ExceptionHandler exceptionHandler
         ) {
@@ -1112,6 +1279,11 @@ public class Normalizer {
             this.ratioEstimationSettings = ratioEstimationSettings;
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
+
+            if (sumNormalization) {
+                allSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+                seedSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+            }
         }
 
         @Override
@@ -1148,6 +1320,17 @@ public class Normalizer {
 
                                     if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio) && ratio > 0) {
 
+                                        if (allSums != null) {
+
+                                            allSums.add(sampleIndex, ratio);
+
+                                            if (seeds != null && isSeed(seeds, parentProteins)) {
+                                                seedSums.add(sampleIndex, ratio);
+                                            }
+
+                                            continue;
+                                        }
+
                                         ArrayList<Double> ratios = allRawRatios.get(sampleIndex);
 
                                         if (ratios == null) {
@@ -1213,6 +1396,26 @@ public class Normalizer {
         public HashMap<String, ArrayList<Double>> getSeedRawRatios() {
             return seedRawRatios;
         }
+
+        /**
+         * Returns the sums of the values per channel, null if not normalizing
+         * by sum.
+         *
+         * @return the sums of the values per channel
+         */
+        public ChannelSums getAllSums() {
+            return allSums;
+        }
+
+        /**
+         * Returns the sums of the seed values per channel, null if not
+         * normalizing by sum.
+         *
+         * @return the sums of the seed values per channel
+         */
+        public ChannelSums getSeedSums() {
+            return seedSums;
+        }
     }
 
     /**
@@ -1266,6 +1469,15 @@ public class Normalizer {
          * The raw seed peptide ratios gathered in a map.
          */
         private HashMap<String, ArrayList<Double>> seedRawRatios = new HashMap<>();
+        /**
+         * The sums of the values per channel, null if not normalizing by sum.
+         */
+        private ChannelSums allSums = null;
+        /**
+         * The sums of the seed values per channel, null if not normalizing by
+         * sum.
+         */
+        private ChannelSums seedSums = null;
         /**
          * The waiting handler.
          */
@@ -1289,6 +1501,9 @@ public class Normalizer {
          * @param exclusion the exclusion proteins
          * @param ratioEstimationSettings the ratio estimation settings
          * @param sequenceMatchingParameters the sequence matching parameters
+         * @param sumNormalization boolean indicating whether the reporter
+         * intensities should be summed for the sum normalization instead of
+         * gathering the ratios
          * @param waitingHandler a waiting handler
          * @param exceptionHandler an exception handler
          */
@@ -1302,6 +1517,7 @@ public class Normalizer {
                 Collection<String> exclusion,
                 RatioEstimationSettings ratioEstimationSettings,
                 SequenceMatchingParameters sequenceMatchingParameters,
+                boolean sumNormalization,
                 WaitingHandler waitingHandler,
                 ExceptionHandler exceptionHandler
         ) {
@@ -1317,6 +1533,11 @@ public class Normalizer {
             this.ratioEstimationSettings = ratioEstimationSettings;
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
+
+            if (sumNormalization) {
+                allSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+                seedSums = new ChannelSums(quantificationFeaturesGenerator.getChannelTable());
+            }
         }
 
         @Override
@@ -1345,37 +1566,65 @@ public class Normalizer {
 
                                 if (psParameter.getMatchValidationLevel().getIndex() >= ratioEstimationSettings.getPsmValidationLevel().getIndex()) {
 
-                                    PsmQuantificationDetails matchQuantificationDetails = quantificationFeaturesGenerator.getPSMQuantificationDetails(spectrumProvider, spectrumMatch.getKey());
+                                    if (allSums != null) {
 
-                                    for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
+                                        // sum the spectra used for the ratios of the PSM
+                                        int[] spectrumIndexes = quantificationFeaturesGenerator.getReporterSpectrumIndexes(spectrumProvider, spectrumMatch);
+                                        boolean seed = seeds != null && isSeed(seeds, parentProteins);
 
-                                        Double ratio = matchQuantificationDetails.getRawRatio(sampleIndex);
+                                        for (int spectrumIndex : spectrumIndexes) {
 
-                                        if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio) && ratio > 0) {
+                                            SpectrumQuantificationDetails spectrumQuantificationDetails = quantificationFeaturesGenerator.getSpectrumQuantificationDetails(spectrumProvider, spectrumIndex);
 
-                                            ArrayList<Double> ratios = allRawRatios.get(sampleIndex);
+                                            for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
 
-                                            if (ratios == null) {
-                                                ratios = new ArrayList<Double>();
-                                                allRawRatios.put(sampleIndex, ratios);
+                                                Double intensity = spectrumQuantificationDetails.getDeisotopedIntensity(sampleIndex);
+
+                                                if (intensity != null && intensity > 0) {
+
+                                                    allSums.add(sampleIndex, intensity);
+
+                                                    if (seed) {
+                                                        seedSums.add(sampleIndex, intensity);
+                                                    }
+                                                }
                                             }
+                                        }
 
-                                            ratios.add(ratio);
+                                    } else {
 
-                                            if (seeds != null && isSeed(seeds, parentProteins)) {
+                                        PsmQuantificationDetails matchQuantificationDetails = quantificationFeaturesGenerator.getPSMQuantificationDetails(spectrumProvider, spectrumMatch.getKey());
 
-                                                ratios = seedRawRatios.get(sampleIndex);
+                                        for (String sampleIndex : reporterIonQuantification.getSampleIndexes()) {
+
+                                            Double ratio = matchQuantificationDetails.getRawRatio(sampleIndex);
+
+                                            if (QuantificationFilter.isRatioValid(ratioEstimationSettings, ratio) && ratio > 0) {
+
+                                                ArrayList<Double> ratios = allRawRatios.get(sampleIndex);
 
                                                 if (ratios == null) {
                                                     ratios = new ArrayList<Double>();
-                                                    seedRawRatios.put(sampleIndex, ratios);
+                                                    allRawRatios.put(sampleIndex, ratios);
                                                 }
 
                                                 ratios.add(ratio);
 
+                                                if (seeds != null && isSeed(seeds, parentProteins)) {
+
+                                                    ratios = seedRawRatios.get(sampleIndex);
+
+                                                    if (ratios == null) {
+                                                        ratios = new ArrayList<Double>();
+                                                        seedRawRatios.put(sampleIndex, ratios);
+                                                    }
+
+                                                    ratios.add(ratio);
+
+                                                }
                                             }
-                                        }
 
+                                        }
                                     }
 
                                 }
@@ -1420,5 +1669,25 @@ public class Normalizer {
         public HashMap<String, ArrayList<Double>> getSeedRawRatios() {
             return seedRawRatios;
         }
+
+        /**
+         * Returns the sums of the values per channel, null if not normalizing
+         * by sum.
+         *
+         * @return the sums of the values per channel
+         */
+        public ChannelSums getAllSums() {
+            return allSums;
+        }
+
+        /**
+         * Returns the sums of the seed values per channel, null if not
+         * normalizing by sum.
+         *
+         * @return the sums of the seed values per channel
+         */
+        public ChannelSums getSeedSums() {
+            return seedSums;
+        }
     }
 }
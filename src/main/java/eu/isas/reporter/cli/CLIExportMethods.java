@@ -1,5 +1,6 @@
 package eu.isas.reporter.cli;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.genes.GeneMaps;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
@@ -11,14 +12,21 @@ import com.compomics.util.io.export.ExportFormat;
 import com.compomics.util.io.export.ExportScheme;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.quantification.spectrum_counting.SpectrumCountingParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
+import eu.isas.reporter.calculation.LabellingEfficiency;
+import eu.isas.reporter.calculation.LabellingEfficiencyEstimator;
+import eu.isas.reporter.calculation.PtmSiteQuantifier;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.export.report.MultiReportExporter;
 import eu.isas.reporter.export.report.ReporterExportFactory;
 import eu.isas.reporter.settings.ReporterSettings;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import org.apache.commons.math.MathException;
 
 /**
@@ -93,18 +101,7 @@ public class CLIExportMethods {
 
         ReporterExportFactory exportFactory = ReporterExportFactory.getInstance();
         ExportScheme exportScheme = exportFactory.getExportScheme(reportType);
-
-        String reportName = reportType.replaceAll(" ", "_");
-        reportName = ReporterExportFactory.getDefaultReportName(experiment, reportName);
-
-        if (reportCLIInputBean.getReportNamePrefix() != null) {
-            reportName = reportCLIInputBean.getReportNamePrefix() + reportName;
-        }
-
-        File reportFile = new File(
-                reportCLIInputBean.getReportOutputFolder(),
-                reportName
-        );
+        File reportFile = getReportFile(reportCLIInputBean, reportType, experiment);
 
         //@TODO: allow format selection
         ReporterExportFactory.writeExport(
@@ -133,6 +130,340 @@ public class CLIExportMethods {
         );
     }
 
+    /**
+     * Writes all the exports required in the command line settings. The
+     * matches are iterated once for all reports.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param experiment the experiment of the project
+     * @param projectDetails the project details of the project
+     * @param identification the identification of the project
+     * @param geneMaps the gene maps
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param quantificationFeaturesGenerator the object generating the
+     * quantification features
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param identificationParameters the identification parameters used
+     * @param nSurroundingAA the number of amino acids to export on the side of
+     * peptide sequences
+     * @param spectrumCountingParameters the spectrum counting parameters
+     * @param waitingHandler waiting handler displaying feedback to the user
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an exception occurred while estimating the theoretical coverage of a
+     * protein
+     */
+    public static void exportReports(
+            ReportCLIInputBean reportCLIInputBean,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            GeneMaps geneMaps,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            IdentificationParameters identificationParameters,
+            int nSurroundingAA,
+            SpectrumCountingParameters spectrumCountingParameters,
+            WaitingHandler waitingHandler
+    )
+            throws IOException, IllegalArgumentException,
+            SQLException, ClassNotFoundException,
+            InterruptedException, MathException {
+
+        ReporterExportFactory exportFactory = ReporterExportFactory.getInstance();
+        ArrayList<String> reportTypes = reportCLIInputBean.getReportTypes();
+        ArrayList<ExportScheme> exportSchemes = new ArrayList<>(reportTypes.size());
+        ArrayList<File> reportFiles = new ArrayList<>(reportTypes.size());
+
+        for (String reportType : reportTypes) {
+
+            exportSchemes.add(exportFactory.getExportScheme(reportType));
+            reportFiles.add(getReportFile(reportCLIInputBean, reportType, experiment));
+
+        }
+
+        MultiReportExporter multiReportExporter = new MultiReportExporter(
+                experiment,
+                projectDetails,
+                identification,
+                identificationFeaturesGenerator,
+                sequenceProvider,
+                spectrumProvider,
+                proteinDetailsProvider,
+                geneMaps,
+                quantificationFeaturesGenerator,
+                reporterIonQuantification,
+                reporterSettings,
+                identificationParameters,
+                nSurroundingAA,
+                spectrumCountingParameters
+        );
+
+        //@TODO: allow format selection
+        multiReportExporter.writeExports(
+                exportSchemes,
+                reportFiles,
+                ExportFormat.text,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Returns the file where to write the report of the given type according
+     * to the command line settings.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param reportType the report type
+     * @param experiment the experiment of the project
+     *
+     * @return the file where to write the report
+     */
+    private static File getReportFile(
+            ReportCLIInputBean reportCLIInputBean,
+            String reportType,
+            String experiment
+    ) {
+
+        String reportName = reportType.replaceAll(" ", "_");
+        reportName = ReporterExportFactory.getDefaultReportName(experiment, reportName);
+
+        return getTextReportFile(reportCLIInputBean, reportName);
+
+    }
+
+    /**
+     * Returns the file where to write a text report according to the command
+     * line settings: the prefix is added to the name of the report, and the
+     * gzip extension if the reports should be compressed.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param reportName the default name of the report
+     *
+     * @return the file where to write the report
+     */
+    private static File getTextReportFile(
+            ReportCLIInputBean reportCLIInputBean,
+            String reportName
+    ) {
+
+        if (reportCLIInputBean.getReportNamePrefix() != null) {
+            reportName = reportCLIInputBean.getReportNamePrefix() + reportName;
+        }
+
+        if (reportCLIInputBean.isGzip()) {
+            reportName += ReporterExportFactory.GZIP_EXTENSION;
+        }
+
+        return new File(
+                reportCLIInputBean.getReportOutputFolder(),
+                reportName
+        );
+    }
+
+    /**
+     * Quantifies the PTM sites required in the command line settings and
+     * writes the PTM site report.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param experiment the experiment of the project
+     * @param identification the identification of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the object generating the
+     * quantification features
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param processingParameters the processing parameters
+     * @param exceptionHandler handler in case exception occur
+     * @param waitingHandler waiting handler displaying feedback to the user
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while quantifying the sites
+     */
+    public static void exportPtmSiteReport(
+            ReportCLIInputBean reportCLIInputBean,
+            String experiment,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            ProcessingParameters processingParameters,
+            ExceptionHandler exceptionHandler,
+            WaitingHandler waitingHandler
+    ) throws IOException, InterruptedException {
+
+        PtmSiteQuantifier ptmSiteQuantifier = new PtmSiteQuantifier();
+        ptmSiteQuantifier.quantifySites(
+                identification,
+                spectrumProvider,
+                quantificationFeaturesGenerator,
+                reporterSettings.getRatioEstimationSettings(),
+                reportCLIInputBean.getPtmSites(),
+                processingParameters,
+                exceptionHandler,
+                waitingHandler
+        );
+
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        String reportName = ReporterExportFactory.getDefaultPtmSiteReportName(experiment);
+        File reportFile = getTextReportFile(reportCLIInputBean, reportName);
+
+        ReporterExportFactory.writePtmSiteExport(
+                reportFile,
+                ExportFormat.text,
+                identification,
+                sequenceProvider,
+                spectrumProvider,
+                quantificationFeaturesGenerator,
+                reporterIonQuantification,
+                reportCLIInputBean.getPtmSites(),
+                null,
+                false,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Estimates the labelling efficiency of the variable modifications and
+     * writes the labelling efficiency report.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param experiment the experiment of the project
+     * @param identification the identification of the project
+     * @param sequenceProvider the sequence provider
+     * @param identificationParameters the identification parameters used
+     * @param processingParameters the processing parameters
+     * @param exceptionHandler handler in case exception occur
+     * @param waitingHandler waiting handler displaying feedback to the user
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while estimating the labelling efficiency
+     */
+    public static void exportLabellingEfficiency(
+            ReportCLIInputBean reportCLIInputBean,
+            String experiment,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            IdentificationParameters identificationParameters,
+            ProcessingParameters processingParameters,
+            ExceptionHandler exceptionHandler,
+            WaitingHandler waitingHandler
+    ) throws IOException, InterruptedException {
+
+        LabellingEfficiencyEstimator labellingEfficiencyEstimator = new LabellingEfficiencyEstimator();
+        LabellingEfficiency labellingEfficiency = labellingEfficiencyEstimator.estimateLabellingEfficiency(
+                identification,
+                sequenceProvider,
+                identificationParameters,
+                reportCLIInputBean.getLabellingEfficiencyMargin(),
+                processingParameters.getnThreads(),
+                exceptionHandler,
+                waitingHandler
+        );
+
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        String reportName = ReporterExportFactory.getDefaultLabellingEfficiencyReportName(experiment);
+        File reportFile = getTextReportFile(reportCLIInputBean, reportName);
+
+        ReporterExportFactory.writeLabellingEfficiencyExport(
+                reportFile,
+                ExportFormat.text,
+                labellingEfficiency
+        );
+    }
+
+    /**
+     * Writes the quantification of the levels required in the command line
+     * settings in the columnar binary format.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param experiment the experiment of the project
+     * @param identification the identification of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the object generating the
+     * quantification features
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param waitingHandler waiting handler displaying feedback to the user
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void exportColumnar(
+            ReportCLIInputBean reportCLIInputBean,
+            String experiment,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        for (QuantificationLevel quantificationLevel : reportCLIInputBean.getColumnarLevels()) {
+
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            String reportName = ReporterExportFactory.getDefaultColumnarReportName(experiment, quantificationLevel);
+
+            if (reportCLIInputBean.getReportNamePrefix() != null) {
+                reportName = reportCLIInputBean.getReportNamePrefix() + reportName;
+            }
+
+            File reportFile = new File(
+                    reportCLIInputBean.getReportOutputFolder(),
+                    reportName
+            );
+
+            ReporterExportFactory.writeColumnarExport(
+                    reportFile,
+                    quantificationLevel,
+                    identification,
+                    sequenceProvider,
+                    spectrumProvider,
+                    quantificationFeaturesGenerator,
+                    reporterIonQuantification,
+                    false,
+                    waitingHandler
+            );
+        }
+    }
+
     /**
      * Writes the documentation corresponding to an export given the command
      * line arguments.
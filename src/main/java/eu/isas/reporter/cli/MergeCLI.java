@@ -0,0 +1,249 @@
+package eu.isas.reporter.cli;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.Reporter;
+import eu.isas.reporter.utils.ReporterMerger;
+import java.io.File;
+import java.io.PrintWriter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class merges the protein reports of several experiments in command
+ * line.
+ *
+ * @author Marc Vaudel
+ */
+public class MergeCLI {
+
+    /**
+     * The merge command line options.
+     */
+    private final MergeCLIInputBean mergeCLIInputBean;
+
+    /**
+     * Constructor.
+     *
+     * @param mergeCLIInputBean the input bean
+     */
+    public MergeCLI(MergeCLIInputBean mergeCLIInputBean) {
+        this.mergeCLIInputBean = mergeCLIInputBean;
+    }
+
+    /**
+     * Merges the reports.
+     *
+     * @return returns 1 if the process was canceled
+     */
+    public Object call() {
+
+        WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+
+        ReporterMerger reporterMerger = new ReporterMerger(
+                mergeCLIInputBean.getKeyColumn(),
+                mergeCLIInputBean.getPepColumn(),
+                mergeCLIInputBean.getDecoyColumn(),
+                mergeCLIInputBean.getRatioColumn(),
+                mergeCLIInputBean.getFdr(),
+                mergeCLIInputBean.isNormalize(),
+                new File(Reporter.getTempFolderPath(Reporter.getConfigFolder()))
+        );
+        reporterMerger.setFdrEstimator(mergeCLIInputBean.getFdrEstimator());
+        reporterMerger.setControlChannels(mergeCLIInputBean.getControlChannels());
+        reporterMerger.setPathwayFiles(mergeCLIInputBean.getPathwayFiles());
+
+        try {
+
+            reporterMerger.merge(
+                    mergeCLIInputBean.getReports(),
+                    mergeCLIInputBean.getOutputFile(),
+                    mergeCLIInputBean.isExternal(),
+                    waitingHandler
+            );
+
+        } catch (OutOfMemoryError error) {
+
+            System.out.println("Ran out of memory! (runtime.maxMemory(): " + Runtime.getRuntime().maxMemory() + ")");
+            waitingHandler.appendReport("Reporter used up all the available memory and had to be stopped. Please try again with the option -"
+                    + MergeCLIParams.EXTERNAL.id + " 1.", true, true);
+            error.printStackTrace();
+            return 1;
+
+        } catch (Exception e) {
+
+            waitingHandler.appendReport("An error occurred while merging the reports.", true, true);
+            e.printStackTrace();
+            return 1;
+
+        }
+
+        if (waitingHandler.isRunCanceled()) {
+            return 1;
+        }
+
+        waitingHandler.appendReport("Merged report written to " + mergeCLIInputBean.getOutputFile() + ".", true, true);
+
+        return 0;
+
+    }
+
+    /**
+     * Reporter merge CLI header message when printing the usage.
+     */
+    private static String getHeader() {
+
+        return System.getProperty("line.separator")
+                + "The Reporter merge command line takes the protein reports of several experiments and merges them into a single report."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "For further help see https://compomics.github.io/projects/reporter.html "
+                + "and https://compomics.github.io/projects/reporter/wiki/reportercli.html."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "Or contact the developers at https://groups.google.com/group/reporter_software."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "----------------------"
+                + System.getProperty("line.separator")
+                + "OPTIONS"
+                + System.getProperty("line.separator")
+                + "----------------------" + System.getProperty("line.separator")
+                + System.getProperty("line.separator");
+
+    }
+
+    /**
+     * Verifies the command line start parameters.
+     *
+     * @return true if the startup was valid
+     */
+    private static boolean isValidStartup(CommandLine aLine) {
+
+        if (aLine.getOptions().length == 0) {
+            return false;
+        }
+
+        if (!aLine.hasOption(MergeCLIParams.REPORTS.id)
+                || aLine.getOptionValue(MergeCLIParams.REPORTS.id).trim().equals("")) {
+
+            System.out.println("\n" + MergeCLIParams.REPORTS.description + " not specified.\n");
+            return false;
+
+        }
+
+        for (String path : aLine.getOptionValue(MergeCLIParams.REPORTS.id).split(",")) {
+
+            File testFile = new File(path.trim());
+
+            if (!testFile.exists()) {
+
+                System.out.println(
+                        "\n"
+                        + MergeCLIParams.REPORTS.description
+                        + " \'"
+                        + testFile.getAbsolutePath()
+                        + "\' not found.\n"
+                );
+
+                return false;
+
+            }
+        }
+
+        if (!aLine.hasOption(MergeCLIParams.OUTPUT_FILE.id)
+                || aLine.getOptionValue(MergeCLIParams.OUTPUT_FILE.id).trim().equals("")) {
+
+            System.out.println("\n" + MergeCLIParams.OUTPUT_FILE.description + " not specified.\n");
+            return false;
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts the launcher by calling the launch method. Use this as the main
+     * class in the jar file.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+
+        try {
+            // check if there are updates to the paths
+            String[] nonPathSettingArgsAsList = PathSettingsCLI.extractAndUpdatePathOptions(args);
+
+            // parse the rest of the options
+            Options nonPathOptions = new Options();
+            MergeCLIParams.createOptionsCLI(nonPathOptions);
+            DefaultParser parser = new DefaultParser();
+            CommandLine line = parser.parse(nonPathOptions, nonPathSettingArgsAsList);
+
+            if (!isValidStartup(line)) {
+
+                PrintWriter lPrintWriter = new PrintWriter(System.out);
+
+                lPrintWriter.print(
+                        System.getProperty("line.separator")
+                        + "==============================================="
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(
+                        "Reporter Report Merger - Command Line"
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(
+                        "==============================================="
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(getHeader());
+                lPrintWriter.print(MergeCLIParams.getOptionsAsString());
+                lPrintWriter.flush();
+                lPrintWriter.close();
+
+                System.exit(0);
+
+            } else {
+
+                MergeCLIInputBean lCLIBean = new MergeCLIInputBean(line);
+                MergeCLI cli = new MergeCLI(lCLIBean);
+                Object result = cli.call();
+                System.exit(result.equals(0) ? 0 : 1);
+
+            }
+
+        } catch (OutOfMemoryError e) {
+
+            System.out.println(
+                    "<CompomicsError>Reporter used up all the memory and had to be stopped. "
+                    + "See the Reporter log for details.</CompomicsError>"
+            );
+
+            System.err.println("Ran out of memory!");
+
+            System.err.println(
+                    "Memory given to the Java virtual machine: "
+                    + Runtime.getRuntime().maxMemory() + "."
+            );
+
+            e.printStackTrace();
+            System.exit(1);
+
+        } catch (Exception e) {
+
+            System.out.print(
+                    "<CompomicsError>Reporter processing failed. "
+                    + "See the Reporter log for details.</CompomicsError>"
+            );
+
+            e.printStackTrace();
+            System.exit(1);
+
+        }
+    }
+}
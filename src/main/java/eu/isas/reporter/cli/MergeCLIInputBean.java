@@ -0,0 +1,343 @@
+package eu.isas.reporter.cli;
+
+import com.compomics.software.cli.CommandLineUtils;
+import eu.isas.reporter.utils.MergeFdrEstimator;
+import eu.isas.reporter.utils.ReporterMerger;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * This class is a simple bean wrapping the CLI parameters of the merging of
+ * protein reports.
+ *
+ * @author Marc Vaudel
+ */
+public class MergeCLIInputBean {
+
+    /**
+     * The protein reports to merge.
+     */
+    private ArrayList<File> reports = new ArrayList<>();
+    /**
+     * The file where to write the merged report.
+     */
+    private File outputFile = null;
+    /**
+     * The FDR threshold.
+     */
+    private double fdr = ReporterMerger.DEFAULT_FDR;
+    /**
+     * The estimator of the FDR.
+     */
+    private MergeFdrEstimator fdrEstimator = MergeFdrEstimator.pepWindows;
+    /**
+     * The names, or part of the names, of the control channels.
+     */
+    private String[] controlChannels = new String[0];
+    /**
+     * The files listing the proteins of the pathways.
+     */
+    private ArrayList<File> pathwayFiles = new ArrayList<>();
+    /**
+     * Boolean indicating whether the ratios should be normalized.
+     */
+    private boolean normalize = true;
+    /**
+     * Boolean indicating whether the merge should be done on disk, null if it
+     * should be decided based on the available memory.
+     */
+    private Boolean external = null;
+    /**
+     * The index of the protein group column.
+     */
+    private int keyColumn = ReporterMerger.DEFAULT_KEY_COLUMN;
+    /**
+     * The index of the PEP column.
+     */
+    private int pepColumn = ReporterMerger.DEFAULT_PEP_COLUMN;
+    /**
+     * The index of the decoy column.
+     */
+    private int decoyColumn = ReporterMerger.DEFAULT_DECOY_COLUMN;
+    /**
+     * The index of the first ratio column.
+     */
+    private int ratioColumn = ReporterMerger.DEFAULT_RATIO_COLUMN;
+    /**
+     * The path settings.
+     */
+    private PathSettingsCLIInputBean pathSettingsCLIInputBean;
+
+    /**
+     * Construct a MergeCLIInputBean from an Apache CLI instance.
+     *
+     * @param aLine the command line
+     */
+    public MergeCLIInputBean(CommandLine aLine) {
+
+        if (aLine.hasOption(MergeCLIParams.REPORTS.id)) {
+
+            for (String path : CommandLineUtils.splitInput(aLine.getOptionValue(MergeCLIParams.REPORTS.id))) {
+
+                File file = new File(path);
+
+                if (file.isDirectory()) {
+
+                    File[] folderFiles = file.listFiles((dir, name) -> name.toLowerCase().endsWith(".txt"));
+                    Arrays.sort(folderFiles);
+                    reports.addAll(Arrays.asList(folderFiles));
+
+                } else {
+
+                    reports.add(file);
+
+                }
+            }
+        }
+
+        if (aLine.hasOption(MergeCLIParams.OUTPUT_FILE.id)) {
+            outputFile = new File(aLine.getOptionValue(MergeCLIParams.OUTPUT_FILE.id));
+        }
+
+        if (aLine.hasOption(MergeCLIParams.FDR.id)) {
+
+            String input = aLine.getOptionValue(MergeCLIParams.FDR.id);
+
+            try {
+                fdr = Double.parseDouble(input) / 100;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Could not parse \'" + input + "\' as FDR threshold.");
+            }
+
+            if (fdr < 0 || fdr > 1) {
+                throw new IllegalArgumentException("The FDR threshold (" + input + ") should be between 0 and 100.");
+            }
+        }
+
+        if (aLine.hasOption(MergeCLIParams.FDR_ESTIMATOR.id)) {
+
+            String input = aLine.getOptionValue(MergeCLIParams.FDR_ESTIMATOR.id).trim();
+
+            try {
+                fdrEstimator = MergeFdrEstimator.getMergeFdrEstimator(Integer.parseInt(input));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Could not parse \'" + input + "\' as FDR estimator.");
+            }
+        }
+
+        if (aLine.hasOption(MergeCLIParams.CONTROL_CHANNELS.id)) {
+
+            ArrayList<String> channels = CommandLineUtils.splitInput(aLine.getOptionValue(MergeCLIParams.CONTROL_CHANNELS.id));
+            controlChannels = channels.toArray(new String[channels.size()]);
+
+        }
+
+        if (aLine.hasOption(MergeCLIParams.PATHWAYS.id)) {
+
+            for (String path : CommandLineUtils.splitInput(aLine.getOptionValue(MergeCLIParams.PATHWAYS.id))) {
+                pathwayFiles.add(new File(path));
+            }
+        }
+
+        if (aLine.hasOption(MergeCLIParams.NORMALIZE.id)) {
+            normalize = getBoolean(aLine, MergeCLIParams.NORMALIZE);
+        }
+
+        if (aLine.hasOption(MergeCLIParams.EXTERNAL.id)) {
+            external = getBoolean(aLine, MergeCLIParams.EXTERNAL);
+        }
+
+        if (aLine.hasOption(MergeCLIParams.KEY_COLUMN.id)) {
+            keyColumn = getColumn(aLine, MergeCLIParams.KEY_COLUMN);
+        }
+
+        if (aLine.hasOption(MergeCLIParams.PEP_COLUMN.id)) {
+            pepColumn = getColumn(aLine, MergeCLIParams.PEP_COLUMN);
+        }
+
+        if (aLine.hasOption(MergeCLIParams.DECOY_COLUMN.id)) {
+            decoyColumn = getColumn(aLine, MergeCLIParams.DECOY_COLUMN);
+        }
+
+        if (aLine.hasOption(MergeCLIParams.RATIO_COLUMN.id)) {
+            ratioColumn = getColumn(aLine, MergeCLIParams.RATIO_COLUMN);
+        }
+
+        pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
+    }
+
+    /**
+     * Parses a boolean option given as 0 or 1.
+     *
+     * @param aLine the command line
+     * @param parameter the parameter
+     *
+     * @return the value of the option
+     */
+    private static boolean getBoolean(
+            CommandLine aLine,
+            MergeCLIParams parameter
+    ) {
+
+        String input = aLine.getOptionValue(parameter.id).trim();
+
+        if (input.equals("1")) {
+            return true;
+        } else if (input.equals("0")) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("Unexpected value \'" + input + "\' for " + parameter.id + ", 0 or 1 expected.");
+
+    }
+
+    /**
+     * Parses a column index.
+     *
+     * @param aLine the command line
+     * @param parameter the parameter
+     *
+     * @return the column index
+     */
+    private static int getColumn(
+            CommandLine aLine,
+            MergeCLIParams parameter
+    ) {
+
+        String input = aLine.getOptionValue(parameter.id).trim();
+        int column;
+
+        try {
+            column = Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Could not parse \'" + input + "\' as column index for " + parameter.id + ".");
+        }
+
+        if (column < 0) {
+            throw new IllegalArgumentException("Negative column index (" + column + ") for " + parameter.id + ".");
+        }
+
+        return column;
+
+    }
+
+    /**
+     * Returns the protein reports to merge.
+     *
+     * @return the protein reports to merge
+     */
+    public ArrayList<File> getReports() {
+        return reports;
+    }
+
+    /**
+     * Returns the file where to write the merged report.
+     *
+     * @return the file where to write the merged report
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Returns the FDR threshold.
+     *
+     * @return the FDR threshold
+     */
+    public double getFdr() {
+        return fdr;
+    }
+
+    /**
+     * Returns the estimator of the FDR.
+     *
+     * @return the estimator of the FDR
+     */
+    public MergeFdrEstimator getFdrEstimator() {
+        return fdrEstimator;
+    }
+
+    /**
+     * Returns the names, or part of the names, of the control channels.
+     *
+     * @return the names, or part of the names, of the control channels
+     */
+    public String[] getControlChannels() {
+        return controlChannels;
+    }
+
+    /**
+     * Returns the files listing the proteins of the pathways.
+     *
+     * @return the files listing the proteins of the pathways
+     */
+    public ArrayList<File> getPathwayFiles() {
+        return pathwayFiles;
+    }
+
+    /**
+     * Indicates whether the ratios should be normalized.
+     *
+     * @return a boolean indicating whether the ratios should be normalized
+     */
+    public boolean isNormalize() {
+        return normalize;
+    }
+
+    /**
+     * Indicates whether the merge should be done on disk, null if it should be
+     * decided based on the available memory.
+     *
+     * @return a boolean indicating whether the merge should be done on disk
+     */
+    public Boolean isExternal() {
+        return external;
+    }
+
+    /**
+     * Returns the index of the protein group column.
+     *
+     * @return the index of the protein group column
+     */
+    public int getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Returns the index of the PEP column.
+     *
+     * @return the index of the PEP column
+     */
+    public int getPepColumn() {
+        return pepColumn;
+    }
+
+    /**
+     * Returns the index of the decoy column.
+     *
+     * @return the index of the decoy column
+     */
+    public int getDecoyColumn() {
+        return decoyColumn;
+    }
+
+    /**
+     * Returns the index of the first ratio column.
+     *
+     * @return the index of the first ratio column
+     */
+    public int getRatioColumn() {
+        return ratioColumn;
+    }
+
+    /**
+     * Returns the path settings provided by the user.
+     *
+     * @return the path settings provided by the user
+     */
+    public PathSettingsCLIInputBean getPathSettingsCLIInputBean() {
+        return pathSettingsCLIInputBean;
+    }
+}
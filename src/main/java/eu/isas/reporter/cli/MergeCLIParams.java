@@ -0,0 +1,116 @@
+package eu.isas.reporter.cli;
+
+import eu.isas.reporter.utils.ReporterMerger;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class provides the parameters of the command line merging protein
+ * reports.
+ *
+ * @author Marc Vaudel
+ */
+public enum MergeCLIParams {
+
+    REPORTS("in", "Comma separated list of the protein reports to merge, or a folder containing them (.txt files).", true, true),
+    OUTPUT_FILE("out", "The file where to write the merged report. (Existing file will be overwritten.)", true, true),
+    FDR("fdr", "The FDR threshold at the protein level in percent. Default: " + 100 * ReporterMerger.DEFAULT_FDR + ".", false, true),
+    NORMALIZE("normalize", "Normalize the ratios of every report by the median of the target proteins. 0: no, 1: yes. Default: 1.", false, true),
+    FDR_ESTIMATOR("fdr_estimator", "The estimator of the FDR of the combined scores. 0: summed PEP windows, 1: cumulative target/decoy counts. Default: 0.", false, true),
+    CONTROL_CHANNELS("control_channels", "Comma separated list of the control channels, e.g. 126,127. The ratios of every protein are also written normalized by the median of the control channels of its report. Default: none.", false, true),
+    PATHWAYS("pathways", "Comma separated list of pathway files, tab separated with a header line and the protein accessions in the second column. The proteins of every pathway are written to [pathway]_quantification.txt next to the merged report. Default: none.", false, true),
+    EXTERNAL("external", "Merge the reports on disk. 0: no, 1: yes. Default: decided based on the available memory.", false, true),
+    KEY_COLUMN("key_column", "The index of the protein group column (0 for the first column). Default: " + ReporterMerger.DEFAULT_KEY_COLUMN + ".", false, true),
+    PEP_COLUMN("pep_column", "The index of the PEP column. Default: " + ReporterMerger.DEFAULT_PEP_COLUMN + ".", false, true),
+    DECOY_COLUMN("decoy_column", "The index of the decoy column. Default: " + ReporterMerger.DEFAULT_DECOY_COLUMN + ".", false, true),
+    RATIO_COLUMN("ratio_column", "The index of the first ratio column, all following columns are considered as ratios. Default: " + ReporterMerger.DEFAULT_RATIO_COLUMN + ".", false, true);
+
+    /**
+     * Short Id for the CLI parameter.
+     */
+    public final String id;
+    /**
+     * Explanation for the CLI parameter.
+     */
+    public final String description;
+    /**
+     * Boolean indicating whether the parameter is mandatory.
+     */
+    public final boolean mandatory;
+    /**
+     * Boolean indicating whether the parameter has arguments.
+     */
+    public final boolean hasArg;
+
+    /**
+     * Private constructor managing the various variables for the enum
+     * instances.
+     *
+     * @param id the parameter id
+     * @param description the parameter description
+     * @param mandatory boolean indicating whether the parameter mandatory
+     * @param hasArg boolean indicating whether the parameter needs an argument
+     */
+    private MergeCLIParams(
+            String id,
+            String description,
+            boolean mandatory,
+            boolean hasArg
+    ) {
+        this.id = id;
+        this.description = description;
+        this.mandatory = mandatory;
+        this.hasArg = hasArg;
+    }
+
+    /**
+     * Creates the options for the command line interface based on the possible
+     * values.
+     *
+     * @param aOptions the options object where the options will be added
+     */
+    public static void createOptionsCLI(Options aOptions) {
+
+        for (MergeCLIParams mergeCLIParams : values()) {
+            aOptions.addOption(mergeCLIParams.id, mergeCLIParams.hasArg, mergeCLIParams.description);
+        }
+
+        // Path setup
+        aOptions.addOption(PathSettingsCLIParams.ALL.id, true, PathSettingsCLIParams.ALL.description);
+
+        // note: remember to add new parameters to the getOptionsAsString below as well
+    }
+
+    /**
+     * Returns the options as a string.
+     *
+     * @return the options as a string
+     */
+    public static String getOptionsAsString() {
+
+        String output = "";
+        String formatter = "%-35s";
+
+        output += "Mandatory parameters:\n\n";
+        output += "-" + String.format(formatter, REPORTS.id) + REPORTS.description + "\n";
+        output += "-" + String.format(formatter, OUTPUT_FILE.id) + OUTPUT_FILE.description + "\n";
+
+        output += "\n\nOptional merging parameters:\n\n";
+        output += "-" + String.format(formatter, FDR.id) + FDR.description + "\n";
+        output += "-" + String.format(formatter, FDR_ESTIMATOR.id) + FDR_ESTIMATOR.description + "\n";
+        output += "-" + String.format(formatter, NORMALIZE.id) + NORMALIZE.description + "\n";
+        output += "-" + String.format(formatter, CONTROL_CHANNELS.id) + CONTROL_CHANNELS.description + "\n";
+        output += "-" + String.format(formatter, PATHWAYS.id) + PATHWAYS.description + "\n";
+        output += "-" + String.format(formatter, EXTERNAL.id) + EXTERNAL.description + "\n";
+
+        output += "\n\nOptional report columns:\n\n";
+        output += "-" + String.format(formatter, KEY_COLUMN.id) + KEY_COLUMN.description + "\n";
+        output += "-" + String.format(formatter, PEP_COLUMN.id) + PEP_COLUMN.description + "\n";
+        output += "-" + String.format(formatter, DECOY_COLUMN.id) + DECOY_COLUMN.description + "\n";
+        output += "-" + String.format(formatter, RATIO_COLUMN.id) + RATIO_COLUMN.description + "\n";
+
+        output += "\n\nOptional temporary folder:\n\n";
+        output += "-" + String.format(formatter, PathSettingsCLIParams.ALL.id) + PathSettingsCLIParams.ALL.description + "\n";
+
+        return output;
+    }
+}
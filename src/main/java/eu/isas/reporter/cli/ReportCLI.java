@@ -1,24 +1,28 @@
 package eu.isas.reporter.cli;
 
-import com.compomics.util.experiment.biology.enzymes.EnzymeFactory;
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
 import com.compomics.util.experiment.biology.modifications.Modification;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
 import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
-import com.compomics.util.experiment.quantification.reporterion.ReporterMethodFactory;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.io.IoUtil;
 import com.compomics.util.parameters.UtilitiesUserParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.cmd.PeptideShakerCLI;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import eu.isas.reporter.Reporter;
+import eu.isas.reporter.calculation.CapacityPlan;
+import eu.isas.reporter.calculation.CapacityPlanner;
 import eu.isas.reporter.calculation.QuantificationFeaturesCache;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
 import eu.isas.reporter.io.ProjectImporter;
 import eu.isas.reporter.settings.ReporterSettings;
+import eu.isas.reporter.utils.StartupLoader;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -42,10 +46,6 @@ public class ReportCLI extends PsdbParent {
      * The report command line options.
      */
     private ReportCLIInputBean reportCLIInputBean;
-    /**
-     * The enzyme factory.
-     */
-    private EnzymeFactory enzymeFactory;
     /**
      * The Progress messaging handler reports the status throughout all Reporter
      * processes.
@@ -55,10 +55,6 @@ public class ReportCLI extends PsdbParent {
      * The modification factory.
      */
     private ModificationFactory modificationFactory;
-    /**
-     * The compomics reporter methods factory.
-     */
-    private ReporterMethodFactory methodsFactory = ReporterMethodFactory.getInstance();
     /**
      * The utilities user preferences.
      */
@@ -67,6 +63,10 @@ public class ReportCLI extends PsdbParent {
      * The spectrum files loaded.
      */
     private ArrayList<File> spectrumFiles = new ArrayList<>();
+    /**
+     * The exception handler.
+     */
+    private ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
 
     /**
      * Construct a new ReportCLI runnable from a ReportCLI Bean. When
@@ -105,24 +105,22 @@ public class ReportCLI extends PsdbParent {
         setDbFolder(PeptideShaker.getMatchesFolder());
 
         // load user preferences
+        long start = System.nanoTime();
         utilitiesUserParameters = UtilitiesUserParameters.loadUserParameters();
+        StartupLoader.logTiming("User parameters", start);
 
         // instantiate factories
+        start = System.nanoTime();
         PeptideShaker.instantiateFacories(utilitiesUserParameters);
         modificationFactory = ModificationFactory.getInstance();
-        enzymeFactory = EnzymeFactory.getInstance();
+        StartupLoader.logTiming("PeptideShaker factories", start);
 
         // load the species
+        start = System.nanoTime();
         loadSpecies();
+        StartupLoader.logTiming("Species", start);
 
-        // load default methods
-        try {
-            methodsFactory.importMethods(Reporter.getMethodsFile());
-        } catch (Exception e) {
-            System.out.println("An error occurred while loading the methods.");
-            e.printStackTrace();
-            return 1;
-        }
+        // the default methods are only needed for projects without reporter settings and are loaded on first use
 
         // set waiting handler
         waitingHandler = new WaitingHandlerCLIImpl();
@@ -202,42 +200,48 @@ public class ReportCLI extends PsdbParent {
                 getIdentificationFeaturesGenerator(),
                 reporterSettings, reporterIonQuantification,
                 identificationParameters.getSearchParameters(),
-                identificationParameters.getSequenceMatchingParameters()
+                identificationParameters.getSequenceMatchingParameters(),
+                exceptionHandler
         );
 
+        // plan the resources needed by the quantification of the exported matches
+        CapacityPlan capacityPlan = new CapacityPlanner(
+                identification,
+                msFileHandler,
+                reporterIonQuantification
+        ).plan(new ProcessingParameters());
+        CapacityPlanner.apply(capacityPlan, new ProcessingParameters(), quantificationFeaturesGenerator.getQuantificationFeaturesCache());
+        System.out.println(System.getProperty("line.separator") + capacityPlan.getReport() + System.getProperty("line.separator"));
+
         // export report(s)
         if (reportCLIInputBean.exportNeeded()) {
 
-            for (String reportType : reportCLIInputBean.getReportTypes()) {
-
-                try {
-
-                    CLIExportMethods.exportReport(
-                            reportCLIInputBean,
-                            reportType,
-                            projectParameters.getProjectUniqueName(),
-                            projectDetails,
-                            identification,
-                            geneMaps,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            msFileHandler,
-                            proteinDetailsProvider,
-                            quantificationFeaturesGenerator,
-                            reporterIonQuantification,
-                            reporterSettings,
-                            identificationParameters,
-                            displayParameters.getnAASurroundingPeptides(),
-                            spectrumCountingParameters, waitingHandler
-                    );
+            try {
+
+                CLIExportMethods.exportReports(
+                        reportCLIInputBean,
+                        projectParameters.getProjectUniqueName(),
+                        projectDetails,
+                        identification,
+                        geneMaps,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        msFileHandler,
+                        proteinDetailsProvider,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        reporterSettings,
+                        identificationParameters,
+                        displayParameters.getnAASurroundingPeptides(),
+                        spectrumCountingParameters, waitingHandler
+                );
 
-                } catch (Exception e) {
+            } catch (Exception e) {
 
-                    waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
-                    e.printStackTrace();
-                    waitingHandler.setRunCanceled();
+                waitingHandler.appendReport("An error occurred while exporting the reports.", true, true);
+                e.printStackTrace();
+                waitingHandler.setRunCanceled();
 
-                }
             }
         }
 
@@ -266,6 +270,84 @@ public class ReportCLI extends PsdbParent {
             }
         }
 
+        // export the PTM site report
+        if (reportCLIInputBean.ptmSiteExportNeeded()) {
+
+            try {
+
+                CLIExportMethods.exportPtmSiteReport(
+                        reportCLIInputBean,
+                        projectParameters.getProjectUniqueName(),
+                        identification,
+                        sequenceProvider,
+                        msFileHandler,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        reporterSettings,
+                        new ProcessingParameters(),
+                        exceptionHandler,
+                        waitingHandler
+                );
+
+            } catch (Exception e) {
+
+                waitingHandler.appendReport("An error occurred while exporting the PTM site report.", true, true);
+                e.printStackTrace();
+                waitingHandler.setRunCanceled();
+
+            }
+        }
+
+        // export the columnar files
+        if (reportCLIInputBean.columnarExportNeeded()) {
+
+            try {
+
+                CLIExportMethods.exportColumnar(
+                        reportCLIInputBean,
+                        projectParameters.getProjectUniqueName(),
+                        identification,
+                        sequenceProvider,
+                        msFileHandler,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        waitingHandler
+                );
+
+            } catch (Exception e) {
+
+                waitingHandler.appendReport("An error occurred while exporting the columnar files.", true, true);
+                e.printStackTrace();
+                waitingHandler.setRunCanceled();
+
+            }
+        }
+
+        // export the labelling efficiency
+        if (reportCLIInputBean.labellingEfficiencyExportNeeded()) {
+
+            try {
+
+                CLIExportMethods.exportLabellingEfficiency(
+                        reportCLIInputBean,
+                        projectParameters.getProjectUniqueName(),
+                        identification,
+                        sequenceProvider,
+                        identificationParameters,
+                        new ProcessingParameters(),
+                        exceptionHandler,
+                        waitingHandler
+                );
+
+            } catch (Exception e) {
+
+                waitingHandler.appendReport("An error occurred while exporting the labelling efficiency report.", true, true);
+                e.printStackTrace();
+                waitingHandler.setRunCanceled();
+
+            }
+        }
+
         try {
 
             PeptideShakerCLI.closePeptideShaker(identification);
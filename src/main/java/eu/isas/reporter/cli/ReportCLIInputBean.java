@@ -1,6 +1,7 @@
 package eu.isas.reporter.cli;
 
 import com.compomics.software.cli.CommandLineUtils;
+import eu.isas.reporter.calculation.QuantificationLevel;
 import eu.isas.reporter.export.report.ReporterExportFactory;
 import java.io.File;
 import java.util.ArrayList;
@@ -35,6 +36,27 @@ public class ReportCLIInputBean {
      * The documentation types required by the user.
      */
     private ArrayList<String> documentationTypes = new ArrayList<>();
+    /**
+     * The PTMs to quantify at the site level.
+     */
+    private ArrayList<String> ptmSites = new ArrayList<>();
+    /**
+     * The quantification levels to export in the columnar binary format.
+     */
+    private ArrayList<QuantificationLevel> columnarLevels = new ArrayList<>();
+    /**
+     * Boolean indicating whether the labelling efficiency should be exported.
+     */
+    private boolean labellingEfficiency = false;
+    /**
+     * The margin of the confidence interval at which the labelling efficiency
+     * estimation stops, null to inspect all peptides.
+     */
+    private Double labellingEfficiencyMargin = null;
+    /**
+     * Boolean indicating whether the text reports should be compressed.
+     */
+    private boolean gzip = false;
     /**
      * The path settings.
      */
@@ -89,6 +111,64 @@ public class ReportCLIInputBean {
 
         }
 
+        if (aLine.hasOption(ReportCLIParams.PTM_SITES.id)) {
+            ptmSites = CommandLineUtils.splitInput(aLine.getOptionValue(ReportCLIParams.PTM_SITES.id));
+        }
+
+        if (aLine.hasOption(ReportCLIParams.COLUMNAR.id)) {
+
+            for (String levelName : CommandLineUtils.splitInput(aLine.getOptionValue(ReportCLIParams.COLUMNAR.id))) {
+
+                QuantificationLevel quantificationLevel;
+
+                try {
+                    quantificationLevel = QuantificationLevel.valueOf(levelName.toLowerCase());
+                } catch (IllegalArgumentException e) {
+                    quantificationLevel = null;
+                }
+
+                if (quantificationLevel != QuantificationLevel.psm
+                        && quantificationLevel != QuantificationLevel.peptide
+                        && quantificationLevel != QuantificationLevel.protein) {
+                    throw new IllegalArgumentException("Unknown quantification level \'" + levelName + "\' for columnar export.");
+                }
+
+                columnarLevels.add(quantificationLevel);
+
+            }
+        }
+
+        if (aLine.hasOption(ReportCLIParams.LABELLING_EFFICIENCY.id)) {
+
+            String input = aLine.getOptionValue(ReportCLIParams.LABELLING_EFFICIENCY.id).trim();
+            double margin;
+
+            try {
+                margin = Double.parseDouble(input) / 100;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Could not parse \'" + input + "\' as labelling efficiency margin.");
+            }
+
+            if (margin < 0 || margin > 1) {
+                throw new IllegalArgumentException("The labelling efficiency margin (" + input + ") should be between 0 and 100.");
+            }
+
+            labellingEfficiency = true;
+            labellingEfficiencyMargin = margin > 0 ? margin : null;
+
+        }
+
+        if (aLine.hasOption(ReportCLIParams.GZIP.id)) {
+
+            String input = aLine.getOptionValue(ReportCLIParams.GZIP.id).trim();
+
+            if (input.equals("1")) {
+                gzip = true;
+            } else if (!input.equals("0")) {
+                throw new IllegalArgumentException("Unknown value \'" + input + "\' for report compression, should be 0 or 1.");
+            }
+        }
+
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
     }
 
@@ -155,13 +235,55 @@ public class ReportCLIInputBean {
         return documentationTypes;
     }
 
+    /**
+     * Returns the PTMs to quantify at the site level.
+     *
+     * @return the PTMs to quantify at the site level
+     */
+    public ArrayList<String> getPtmSites() {
+        return ptmSites;
+    }
+
+    /**
+     * Returns the quantification levels to export in the columnar binary
+     * format.
+     *
+     * @return the quantification levels to export in the columnar binary
+     * format
+     */
+    public ArrayList<QuantificationLevel> getColumnarLevels() {
+        return columnarLevels;
+    }
+
+    /**
+     * Returns the margin of the confidence interval at which the labelling
+     * efficiency estimation stops, null to inspect all peptides.
+     *
+     * @return the margin of the confidence interval at which the labelling
+     * efficiency estimation stops
+     */
+    public Double getLabellingEfficiencyMargin() {
+        return labellingEfficiencyMargin;
+    }
+
+    /**
+     * Indicates whether the text reports should be compressed in the gzip
+     * format.
+     *
+     * @return a boolean indicating whether the text reports should be
+     * compressed
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
     /**
      * Indicates whether a report export is needed.
      *
      * @return true if a report export is needed
      */
     public boolean exportNeeded() {
-        return reportExportNeeded() || documentationExportNeeded();
+        return reportExportNeeded() || documentationExportNeeded() || ptmSiteExportNeeded() || columnarExportNeeded() || labellingEfficiencyExportNeeded();
     }
 
     /**
@@ -182,6 +304,34 @@ public class ReportCLIInputBean {
         return reportOutputFolder != null && !documentationTypes.isEmpty();
     }
 
+    /**
+     * Indicates whether a PTM site report export is required by the user.
+     *
+     * @return true if a PTM site report export is required
+     */
+    public boolean ptmSiteExportNeeded() {
+        return reportOutputFolder != null && !ptmSites.isEmpty();
+    }
+
+    /**
+     * Indicates whether a columnar export is required by the user.
+     *
+     * @return true if a columnar export is required
+     */
+    public boolean columnarExportNeeded() {
+        return reportOutputFolder != null && !columnarLevels.isEmpty();
+    }
+
+    /**
+     * Indicates whether a labelling efficiency report export is required by
+     * the user.
+     *
+     * @return true if a labelling efficiency report export is required
+     */
+    public boolean labellingEfficiencyExportNeeded() {
+        return reportOutputFolder != null && labellingEfficiency;
+    }
+
     /**
      * Returns the path settings provided by the user.
      *
@@ -15,7 +15,11 @@ public enum ReportCLIParams {
     EXPORT_FOLDER("out_reports", "Output folder for report files. (Existing files will be overwritten.)", true, true),
     EXPORT_PREFIX("report_prefix", "Prefix added to the report file name.", false, true),
     REPORT_TYPE("reports", "Comma separated list of types of report to export. " + ReporterExportFactory.getInstance().getCommandLineOptions(), false, true),
-    DOCUMENTATION_TYPE("documentation", "Comma separated list of types of report documentation to export. " + ReporterExportFactory.getInstance().getCommandLineOptions(), false, true);
+    DOCUMENTATION_TYPE("documentation", "Comma separated list of types of report documentation to export. " + ReporterExportFactory.getInstance().getCommandLineOptions(), false, true),
+    PTM_SITES("ptm_sites", "Comma separated list of PTMs to quantify at the site level, exported as a PTM site report.", false, true),
+    COLUMNAR("columnar", "Comma separated list of quantification levels to export in the columnar binary format: psm, peptide, protein.", false, true),
+    LABELLING_EFFICIENCY("labelling_efficiency", "Estimate the labelling efficiency and export it as a report. 0: on all peptides, otherwise the margin of the 95% confidence interval in percent at which the estimation stops on a sample of the peptides.", false, true),
+    GZIP("gzip", "Compress the text reports in the gzip format using multiple threads. 0: no, 1: yes (default is 0).", false, true);
 
     /**
      * Short Id for the CLI parameter.
@@ -113,6 +117,18 @@ public enum ReportCLIParams {
         output += "\nReport Documentation export:\n\n";
         output += "-" + String.format(formatter, DOCUMENTATION_TYPE.id) + DOCUMENTATION_TYPE.description + "\n";
 
+        output += "\nPTM site report export:\n\n";
+        output += "-" + String.format(formatter, PTM_SITES.id) + PTM_SITES.description + "\n";
+
+        output += "\nColumnar binary export:\n\n";
+        output += "-" + String.format(formatter, COLUMNAR.id) + COLUMNAR.description + "\n";
+
+        output += "\nLabelling efficiency report export:\n\n";
+        output += "-" + String.format(formatter, LABELLING_EFFICIENCY.id) + LABELLING_EFFICIENCY.description + "\n";
+
+        output += "\nReport compression:\n\n";
+        output += "-" + String.format(formatter, GZIP.id) + GZIP.description + "\n";
+
         return output;
     }
 }
@@ -25,8 +25,13 @@ import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.export.ProjectExport;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import eu.isas.reporter.Reporter;
+import eu.isas.reporter.calculation.CapacityPlan;
+import eu.isas.reporter.calculation.CapacityPlanner;
 import eu.isas.reporter.calculation.QuantificationFeaturesCache;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationScheduler;
+import eu.isas.reporter.calculation.ReporterMzCalibration;
+import eu.isas.reporter.calculation.ReporterMzCalibrator;
 import eu.isas.reporter.calculation.normalization.NormalizationType;
 import eu.isas.reporter.calculation.normalization.Normalizer;
 import eu.isas.reporter.io.ProjectImporter;
@@ -38,6 +43,7 @@ import eu.isas.reporter.settings.ReporterIonSelectionSettings;
 import eu.isas.reporter.settings.ReporterIonsLocationType;
 import eu.isas.reporter.settings.ReporterSettings;
 import eu.isas.reporter.utils.Properties;
+import eu.isas.reporter.utils.StartupLoader;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -192,6 +198,17 @@ public class ReporterCLI extends PsdbParent implements Callable {
 
         }
 
+        // The number of spectrum files loaded in parallel
+        if (aLine.hasOption(ReporterCLIParameters.SPECTRUM_THREADS.id)) {
+
+            String arg = aLine.getOptionValue(ReporterCLIParameters.SPECTRUM_THREADS.id);
+
+            if (!CommandParameter.isPositiveInteger(ReporterCLIParameters.SPECTRUM_THREADS.id, arg, false)) {
+                return false;
+            }
+
+        }
+
         // The ion tolerance
         if (aLine.hasOption(ReporterCLIParameters.ION_TOL.id)) {
 
@@ -214,6 +231,22 @@ public class ReporterCLI extends PsdbParent implements Callable {
 
         }
 
+        // Reporter ion calibration option
+        if (aLine.hasOption(ReporterCLIParameters.ION_CALIBRATION.id)) {
+
+            String arg = aLine.getOptionValue(ReporterCLIParameters.ION_CALIBRATION.id);
+
+            ArrayList<String> calibrationModes = new ArrayList<String>(3);
+            calibrationModes.add("0");
+            calibrationModes.add("1");
+            calibrationModes.add("2");
+
+            if (!CommandParameter.isInList(ReporterCLIParameters.ION_CALIBRATION.id, arg, calibrationModes)) {
+                return false;
+            }
+
+        }
+
         // Reporter ions location option
         if (aLine.hasOption(ReporterCLIParameters.REPORTER_IONS_LOCATION.id)) {
 
@@ -452,10 +485,14 @@ public class ReporterCLI extends PsdbParent implements Callable {
         reporterCLIInputBean = new ReporterCLIInputBean(line);
 
         // Load user preferences
+        long start = System.nanoTime();
         utilitiesUserParameters = utilitiesUserParameters.loadUserParameters();
+        StartupLoader.logTiming("User parameters", start);
 
         // Instantiate factories
+        start = System.nanoTime();
         PeptideShaker.instantiateFacories(utilitiesUserParameters);
+        StartupLoader.logTiming("PeptideShaker factories", start);
 
         // Load species
         try {
@@ -468,7 +505,7 @@ public class ReporterCLI extends PsdbParent implements Callable {
 
         // Load default methods
         try {
-            methodsFactory.importMethods(Reporter.getMethodsFile());
+            StartupLoader.getMethodsFactory();
         } catch (Exception e) {
             System.out.println("An error occurred while loading the methods.");
             e.printStackTrace();
@@ -504,6 +541,7 @@ public class ReporterCLI extends PsdbParent implements Callable {
 
         // Load the project from the psdb file
         ProjectImporter projectImporter = new ProjectImporter();
+        projectImporter.setSpectrumLoadingThreads(reporterCLIInputBean.getSpectrumLoadingThreads());
         psdbFile = reporterCLIInputBean.getPeptideShakerFile();
         setDbFolder(Reporter.getMatchesFolder());
 
@@ -665,90 +703,158 @@ public class ReporterCLI extends PsdbParent implements Callable {
                 reporterSettings,
                 reporterIonQuantification,
                 identificationParameters.getSearchParameters(),
-                identificationParameters.getSequenceMatchingParameters()
+                identificationParameters.getSequenceMatchingParameters(),
+                exceptionHandler
         );
 
-        // Set Normalization factors
-        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        // Plan the resources needed and select the strategies accordingly
+        CapacityPlan capacityPlan = new CapacityPlanner(
+                getIdentification(),
+                spectrumProvider,
+                reporterIonQuantification
+        ).plan(processingParameters);
+        CapacityPlanner.apply(capacityPlan, processingParameters, quantificationFeaturesGenerator.getQuantificationFeaturesCache());
+        System.out.println(System.getProperty("line.separator") + capacityPlan.getReport() + System.getProperty("line.separator"));
+
+        // Calibrate the reporter ion m/z tolerance and offset on a sample of the spectra
+        if (reporterCLIInputBean.getIonCalibration() > 0) {
 
-        if (!normalizationFactors.hasNormalizationFactors()) {
+            ReporterIonSelectionSettings reporterIonSelectionSettings = reporterSettings.getReporterIonSelectionSettings();
+            ReporterMzCalibration reporterMzCalibration;
 
             try {
-                Normalizer normalizer = new Normalizer();
 
-                if (!normalizationFactors.hasPsmNormalisationFactors()) {
+                reporterMzCalibration = new ReporterMzCalibrator(
+                        getIdentification(),
+                        spectrumProvider,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        processingParameters.getnThreads(),
+                        exceptionHandler
+                ).calibrate(
+                        reporterIonSelectionSettings,
+                        waitingHandler
+                );
 
-                    normalizer.setPsmNormalizationFactors(
-                            reporterIonQuantification,
-                            reporterSettings.getRatioEstimationSettings(),
-                            reporterSettings.getNormalizationSettings(),
-                            getIdentificationParameters().getSequenceMatchingParameters(),
-                            getIdentification(),
-                            spectrumProvider,
-                            quantificationFeaturesGenerator,
-                            processingParameters,
-                            getIdentificationParameters().getSearchParameters(),
-                            getIdentificationParameters().getFastaParameters(),
-                            getIdentificationParameters().getPeptideVariantsParameters(),
-                            exceptionHandler,
-                            waitingHandler
-                    );
+            } catch (Exception e) {
 
-                }
+                System.out.println(
+                        System.getProperty("line.separator")
+                        + "An error occurred while calibrating the reporter ions."
+                        + System.getProperty("line.separator")
+                );
 
-                if (!normalizationFactors.hasPeptideNormalisationFactors()) {
+                e.printStackTrace();
 
-                    normalizer.setPeptideNormalizationFactors(
-                            reporterIonQuantification,
-                            reporterSettings.getRatioEstimationSettings(),
-                            reporterSettings.getNormalizationSettings(),
-                            getIdentificationParameters().getSequenceMatchingParameters(),
-                            getIdentification(),
-                            spectrumProvider,
-                            quantificationFeaturesGenerator,
-                            processingParameters,
-                            getIdentificationParameters().getSearchParameters(),
-                            getIdentificationParameters().getFastaParameters(),
-                            getIdentificationParameters().getPeptideVariantsParameters(),
-                            exceptionHandler,
-                            waitingHandler
-                    );
+                return 1;
+            }
+
+            if (reporterMzCalibration != null) {
 
+                System.out.println(System.getProperty("line.separator") + reporterMzCalibration.getReport() + System.getProperty("line.separator"));
+
+                if (reporterCLIInputBean.getIonCalibration() == 2 && reporterMzCalibration.apply(reporterIonSelectionSettings)) {
+                    System.out.println("Reporter ion m/z tolerance set to " + reporterIonSelectionSettings.getReporterIonsMzTolerance()
+                            + " and offset to " + reporterIonSelectionSettings.getReporterIonsMzOffset() + "." + System.getProperty("line.separator"));
                 }
+            }
+        }
 
-                if (!normalizationFactors.hasProteinNormalisationFactors()) {
+        // Quantify the matches from the spectra up, and set the normalization factors level by level
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        boolean normalize = !normalizationFactors.hasNormalizationFactors();
+        QuantificationScheduler quantificationScheduler = new QuantificationScheduler(
+                getIdentification(),
+                spectrumProvider,
+                quantificationFeaturesGenerator,
+                reporterIonQuantification,
+                reporterSettings,
+                processingParameters,
+                exceptionHandler
+        );
 
-                    normalizer.setProteinNormalizationFactors(
-                            reporterIonQuantification,
-                            reporterSettings.getRatioEstimationSettings(),
-                            reporterSettings.getNormalizationSettings(),
-                            getIdentification(),
-                            spectrumProvider,
-                            getMetrics(),
-                            quantificationFeaturesGenerator,
-                            processingParameters,
-                            getIdentificationParameters().getSearchParameters(),
-                            getIdentificationParameters().getFastaParameters(),
-                            getIdentificationParameters().getPeptideVariantsParameters(),
-                            exceptionHandler,
-                            waitingHandler
-                    );
+        try {
 
-                }
+            Normalizer normalizer = new Normalizer();
+
+            quantificationScheduler.quantifySpectra(waitingHandler);
+            quantificationScheduler.quantifyPsms(waitingHandler);
+
+            if (normalize && !normalizationFactors.hasPsmNormalisationFactors()) {
+
+                normalizer.setPsmNormalizationFactors(
+                        reporterIonQuantification,
+                        reporterSettings.getRatioEstimationSettings(),
+                        reporterSettings.getNormalizationSettings(),
+                        getIdentificationParameters().getSequenceMatchingParameters(),
+                        getIdentification(),
+                        spectrumProvider,
+                        quantificationFeaturesGenerator,
+                        processingParameters,
+                        getIdentificationParameters().getSearchParameters(),
+                        getIdentificationParameters().getFastaParameters(),
+                        getIdentificationParameters().getPeptideVariantsParameters(),
+                        exceptionHandler,
+                        waitingHandler
+                );
 
-            } catch (Exception e) {
+            }
 
-                System.out.println(
-                        System.getProperty("line.separator")
-                        + "An error occurred while estimating the ratios."
-                        + System.getProperty("line.separator")
+            quantificationScheduler.quantifyPeptides(waitingHandler);
+
+            if (normalize && !normalizationFactors.hasPeptideNormalisationFactors()) {
+
+                normalizer.setPeptideNormalizationFactors(
+                        reporterIonQuantification,
+                        reporterSettings.getRatioEstimationSettings(),
+                        reporterSettings.getNormalizationSettings(),
+                        getIdentificationParameters().getSequenceMatchingParameters(),
+                        getIdentification(),
+                        spectrumProvider,
+                        quantificationFeaturesGenerator,
+                        processingParameters,
+                        getIdentificationParameters().getSearchParameters(),
+                        getIdentificationParameters().getFastaParameters(),
+                        getIdentificationParameters().getPeptideVariantsParameters(),
+                        exceptionHandler,
+                        waitingHandler
                 );
 
-                e.printStackTrace();
+            }
+
+            quantificationScheduler.quantifyProteins(waitingHandler);
+
+            if (normalize && !normalizationFactors.hasProteinNormalisationFactors()) {
+
+                normalizer.setProteinNormalizationFactors(
+                        reporterIonQuantification,
+                        reporterSettings.getRatioEstimationSettings(),
+                        reporterSettings.getNormalizationSettings(),
+                        getIdentification(),
+                        spectrumProvider,
+                        getMetrics(),
+                        quantificationFeaturesGenerator,
+                        processingParameters,
+                        getIdentificationParameters().getSearchParameters(),
+                        getIdentificationParameters().getFastaParameters(),
+                        getIdentificationParameters().getPeptideVariantsParameters(),
+                        exceptionHandler,
+                        waitingHandler
+                );
 
-                return 1;
             }
 
+        } catch (Exception e) {
+
+            System.out.println(
+                    System.getProperty("line.separator")
+                    + "An error occurred while estimating the ratios."
+                    + System.getProperty("line.separator")
+            );
+
+            e.printStackTrace();
+
+            return 1;
         }
 
         // Save the project in the psdb file
@@ -792,41 +898,37 @@ public class ReporterCLI extends PsdbParent implements Callable {
             // export report(s)
             if (reportCLIInputBean.exportNeeded()) {
 
-                for (String reportType : reportCLIInputBean.getReportTypes()) {
-
-                    try {
-
-                        CLIExportMethods.exportReport(
-                                reportCLIInputBean,
-                                reportType,
-                                projectParameters.getProjectUniqueName(),
-                                projectDetails,
-                                identification,
-                                geneMaps,
-                                identificationFeaturesGenerator,
-                                sequenceProvider,
-                                msFileHandler,
-                                proteinDetailsProvider,
-                                quantificationFeaturesGenerator,
-                                reporterIonQuantification,
-                                reporterSettings,
-                                identificationParameters,
-                                displayParameters.getnAASurroundingPeptides(),
-                                spectrumCountingParameters,
-                                waitingHandler
-                        );
+                try {
+
+                    CLIExportMethods.exportReports(
+                            reportCLIInputBean,
+                            projectParameters.getProjectUniqueName(),
+                            projectDetails,
+                            identification,
+                            geneMaps,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            msFileHandler,
+                            proteinDetailsProvider,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            identificationParameters,
+                            displayParameters.getnAASurroundingPeptides(),
+                            spectrumCountingParameters,
+                            waitingHandler
+                    );
 
-                    } catch (Exception e) {
+                } catch (Exception e) {
 
-                        waitingHandler.appendReport(
-                                "An error occurred while exporting the " + reportType + ".",
-                                true,
-                                true);
+                    waitingHandler.appendReport(
+                            "An error occurred while exporting the reports.",
+                            true,
+                            true);
 
-                        e.printStackTrace();
-                        waitingHandler.setRunCanceled();
+                    e.printStackTrace();
+                    waitingHandler.setRunCanceled();
 
-                    }
                 }
             }
 
@@ -852,6 +954,96 @@ public class ReporterCLI extends PsdbParent implements Callable {
 
                 }
             }
+
+            // export the PTM site report
+            if (reportCLIInputBean.ptmSiteExportNeeded()) {
+
+                try {
+
+                    CLIExportMethods.exportPtmSiteReport(
+                            reportCLIInputBean,
+                            projectParameters.getProjectUniqueName(),
+                            identification,
+                            sequenceProvider,
+                            msFileHandler,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            processingParameters,
+                            exceptionHandler,
+                            waitingHandler
+                    );
+
+                } catch (Exception e) {
+
+                    waitingHandler.appendReport(
+                            "An error occurred while exporting the PTM site report.",
+                            true,
+                            true
+                    );
+
+                    e.printStackTrace();
+                    waitingHandler.setRunCanceled();
+                }
+            }
+
+            // export the columnar files
+            if (reportCLIInputBean.columnarExportNeeded()) {
+
+                try {
+
+                    CLIExportMethods.exportColumnar(
+                            reportCLIInputBean,
+                            projectParameters.getProjectUniqueName(),
+                            identification,
+                            sequenceProvider,
+                            msFileHandler,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            waitingHandler
+                    );
+
+                } catch (Exception e) {
+
+                    waitingHandler.appendReport(
+                            "An error occurred while exporting the columnar files.",
+                            true,
+                            true
+                    );
+
+                    e.printStackTrace();
+                    waitingHandler.setRunCanceled();
+                }
+            }
+
+            // export the labelling efficiency
+            if (reportCLIInputBean.labellingEfficiencyExportNeeded()) {
+
+                try {
+
+                    CLIExportMethods.exportLabellingEfficiency(
+                            reportCLIInputBean,
+                            projectParameters.getProjectUniqueName(),
+                            identification,
+                            sequenceProvider,
+                            identificationParameters,
+                            processingParameters,
+                            exceptionHandler,
+                            waitingHandler
+                    );
+
+                } catch (Exception e) {
+
+                    waitingHandler.appendReport(
+                            "An error occurred while exporting the labelling efficiency report.",
+                            true,
+                            true
+                    );
+
+                    e.printStackTrace();
+                    waitingHandler.setRunCanceled();
+                }
+            }
         }
 
         // export as zip
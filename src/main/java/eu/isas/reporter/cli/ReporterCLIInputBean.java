@@ -4,6 +4,7 @@ import com.compomics.software.cli.CommandLineUtils;
 import com.compomics.cli.identification_parameters.IdentificationParametersInputBean;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import eu.isas.reporter.calculation.normalization.NormalizationType;
+import eu.isas.reporter.io.ProjectImporter;
 import eu.isas.reporter.settings.ReporterIonsLocationType;
 import java.io.File;
 import java.io.IOException;
@@ -40,6 +41,10 @@ public class ReporterCLIInputBean {
      * The number of threads.
      */
     private int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The number of spectrum files loaded in parallel.
+     */
+    private int spectrumLoadingThreads = ProjectImporter.DEFAULT_SPECTRUM_LOADING_THREADS;
     /**
      * The identification parameters input.
      */
@@ -70,6 +75,11 @@ public class ReporterCLIInputBean {
      * Boolean indicating whether the most accurate reporter ion should be used.
      */
     private Boolean mostAccurate = null;
+    /**
+     * The reporter ion m/z calibration mode: 0 for none, 1 for report only,
+     * 2 for report and apply.
+     */
+    private int ionCalibration = 1;
     /**
      * The location of the reporter ions.
      */
@@ -190,6 +200,12 @@ public class ReporterCLIInputBean {
             nThreads = Integer.parseInt(arg);
         }
 
+        // get the number of spectrum files loaded in parallel
+        if (aLine.hasOption(ReporterCLIParameters.SPECTRUM_THREADS.id)) {
+            arg = aLine.getOptionValue(ReporterCLIParameters.SPECTRUM_THREADS.id);
+            spectrumLoadingThreads = Integer.parseInt(arg);
+        }
+
         // get the reporter ion method
         if (aLine.hasOption(ReporterCLIParameters.METHOD.id)) {
             arg = aLine.getOptionValue(ReporterCLIParameters.METHOD.id);
@@ -217,6 +233,12 @@ public class ReporterCLIInputBean {
             mostAccurate = input.equals(1);
         }
 
+        // get the reporter ion m/z calibration mode
+        if (aLine.hasOption(ReporterCLIParameters.ION_CALIBRATION.id)) {
+            arg = aLine.getOptionValue(ReporterCLIParameters.ION_CALIBRATION.id);
+            ionCalibration = Integer.parseInt(arg);
+        }
+
         // get the same spectra option
         if (aLine.hasOption(ReporterCLIParameters.REPORTER_IONS_LOCATION.id)) {
             arg = aLine.getOptionValue(ReporterCLIParameters.REPORTER_IONS_LOCATION.id);
@@ -398,6 +420,15 @@ public class ReporterCLIInputBean {
         return nThreads;
     }
 
+    /**
+     * Returns the number of spectrum files to load in parallel.
+     *
+     * @return the number of spectrum files to load in parallel
+     */
+    public int getSpectrumLoadingThreads() {
+        return spectrumLoadingThreads;
+    }
+
     /**
      * Returns the name of the reporter methods provided by the user.
      *
@@ -426,6 +457,16 @@ public class ReporterCLIInputBean {
         return mostAccurate;
     }
 
+    /**
+     * Returns the reporter ion m/z calibration mode: 0 for none, 1 for report
+     * only, 2 for report and apply.
+     *
+     * @return the reporter ion m/z calibration mode
+     */
+    public int getIonCalibration() {
+        return ionCalibration;
+    }
+
     /**
      * Indicates whether the quantification peaks are in the same spectra as the
      * identification peaks.
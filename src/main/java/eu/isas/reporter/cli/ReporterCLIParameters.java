@@ -2,6 +2,7 @@ package eu.isas.reporter.cli;
 
 import com.compomics.cli.identification_parameters.IdentificationParametersCLIParams;
 import eu.isas.reporter.calculation.normalization.NormalizationType;
+import eu.isas.reporter.io.ProjectImporter;
 import eu.isas.reporter.settings.ReporterIonsLocationType;
 import org.apache.commons.cli.Options;
 
@@ -24,6 +25,7 @@ public enum ReporterCLIParameters {
     REFERENCE("ref_samples", "The reference sample(s) as a comma separated list of integers where each sample is represented by its reagent ordered by mass starting from 1. Ex: 1,3 represent reagents 144 and 116 with iTRAQ 4-plex. Default: no reference.", false),
     ION_TOL("ion_tol", "The reporter ion m/z tolerance. Default value inferred from the identification parameters and reporter method.", false),
     MOST_ACCURATE("most_accurate", "Indicates whether the ion within the m/z tolerance with the most accurate m/z should be selected (1: yes, 0: no). If no, the most intense ion will be selected. Default value inferred from the identification parameters.", false),
+    ION_CALIBRATION("ion_calibration", "Calibration of the reporter ion m/z tolerance and offset on a sample of the identified spectra (0: none, 1: report only, 2: report and apply). Default is 1.", false),
     REPORTER_IONS_LOCATION("reporter_ions_location", "The location of the reporter ions (" + ReporterIonsLocationType.getCommandLineDescription() + "). Default is 0.", false),
     PREC_WINDOW_MZ_TOL("prec_window_mz_tol", "If " + REPORTER_IONS_LOCATION.name() + " is set to " + ReporterIonsLocationType.precursorMatching + ", the m/z tolerance to use. Default is 1.", false),
     PREC_WINDOW_MZ_TOL_PPM("prec_window_mz_tol_ppm", "If " + REPORTER_IONS_LOCATION.name() + " is set to " + ReporterIonsLocationType.precursorMatching + ", indicates whether the m/z tolerance to use is in ppm (1: yes, 0: no). Default is 1.", false),
@@ -44,6 +46,7 @@ public enum ReporterCLIParameters {
     CONTAMINANTS("contaminants", "Path to a FASTA file containing proteins to consider as contaminants. Default is resources/crap.fasta.", false),
     ZIP("zip", "Exports the entire project as a zip file in the file specified.", false),
     THREADS("threads", "Number of threads to use for the processing, default: the number of cores on the machine.", false),
+    SPECTRUM_THREADS("spectrum_threads", "Number of spectrum files to load in parallel, default: " + ProjectImporter.DEFAULT_SPECTRUM_LOADING_THREADS + ".", false),
     CONFIG_FOLDER("config_folder", "The complete path to the config folder. Default resources\\conf.", false);;
 
     /**
@@ -115,6 +118,8 @@ public enum ReporterCLIParameters {
 
         output += "\n\nProcessing Options:\n";
         output += "-" + String.format(formatter, THREADS.id) + " " + THREADS.description + "\n";
+        output += "-" + String.format(formatter, SPECTRUM_THREADS.id) + " " + SPECTRUM_THREADS.description + "\n";
+        output += "-" + String.format(formatter, ION_CALIBRATION.id) + " " + ION_CALIBRATION.description + "\n";
 
         output += "\n\nAdvanced Options:\n";
 //        output += "-" + String.format(formatter, REFERENCE_MASS.id) + " " + REFERENCE_MASS.description + "\n"; TODO
@@ -128,6 +133,9 @@ public enum ReporterCLIParameters {
 
         output += "\n\n\nFor identification parameters options:\nReplace eu.isas.reporter.cmd.ReporterCLI with eu.isas.reportergui.cmd.IdentificationParametersCLI\n\n";
         output += "\nFor report export options:\nReplace eu.isas.reporter.cli.ReporterCLI with eu.isas.reporter.cli.ReportCLI\n";
+        output += "\nFor merging the protein reports of several experiments:\nReplace eu.isas.reporter.cli.ReporterCLI with eu.isas.reporter.cli.MergeCLI\n";
+        output += "\nFor merging the MS2 and MS3 spectra of SPS acquisitions:\nReplace eu.isas.reporter.cli.ReporterCLI with eu.isas.reporter.cli.SpectrumMergerCLI\n";
+        output += "\nFor starting a local service keeping projects open:\nReplace eu.isas.reporter.cli.ReporterCLI with eu.isas.reporter.cli.ServiceCLI\n";
 
         return output;
     }
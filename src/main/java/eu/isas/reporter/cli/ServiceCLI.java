@@ -0,0 +1,234 @@
+package eu.isas.reporter.cli;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
+import com.compomics.util.parameters.UtilitiesUserParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.reporter.Reporter;
+import eu.isas.reporter.service.ReporterService;
+import eu.isas.reporter.utils.StartupLoader;
+import java.io.PrintWriter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class starts the local quantification service in command line. The
+ * factories are loaded once and the projects stay open until closed by a
+ * client or the service is stopped.
+ *
+ * @author Marc Vaudel
+ */
+public class ServiceCLI {
+
+    /**
+     * The service command line options.
+     */
+    private final ServiceCLIInputBean serviceCLIInputBean;
+    /**
+     * Handler for the exceptions.
+     */
+    private final ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
+
+    /**
+     * Constructor.
+     *
+     * @param serviceCLIInputBean the input bean
+     */
+    public ServiceCLI(ServiceCLIInputBean serviceCLIInputBean) {
+        this.serviceCLIInputBean = serviceCLIInputBean;
+    }
+
+    /**
+     * Starts the service and waits until it is stopped.
+     *
+     * @return returns 1 if the service could not be started
+     */
+    public Object call() {
+
+        // instantiate factories
+        PeptideShaker.instantiateFacories(UtilitiesUserParameters.loadUserParameters());
+
+        // load the species
+        try {
+
+            SpeciesFactory.getInstance().initiate(Reporter.getConfigFolder());
+
+        } catch (Exception e) {
+
+            System.out.println("An error occurred while loading the species.");
+            e.printStackTrace();
+
+        }
+
+        // load default methods
+        try {
+
+            StartupLoader.getMethodsFactory();
+
+        } catch (Exception e) {
+
+            System.out.println("An error occurred while loading the methods.");
+            e.printStackTrace();
+            return 1;
+
+        }
+
+        ProcessingParameters processingParameters = new ProcessingParameters();
+        processingParameters.setnThreads(serviceCLIInputBean.getnThreads());
+
+        ReporterService reporterService = new ReporterService(
+                serviceCLIInputBean.getPort(),
+                serviceCLIInputBean.getnThreads(),
+                serviceCLIInputBean.getMaxExpensive(),
+                processingParameters,
+                exceptionHandler
+        );
+
+        try {
+
+            reporterService.start();
+
+        } catch (Exception e) {
+
+            System.out.println("The service could not be started on port " + serviceCLIInputBean.getPort() + ".");
+            e.printStackTrace();
+            return 1;
+
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(reporterService::stop));
+
+        System.out.println("Reporter service listening on http://localhost:" + serviceCLIInputBean.getPort() + "/projects");
+        System.out.println("Access token: " + reporterService.getToken() + " (to send in the " + ReporterService.TOKEN_HEADER + " header of every request)");
+
+        try {
+
+            reporterService.awaitStop();
+
+        } catch (InterruptedException e) {
+
+            reporterService.stop();
+
+        }
+
+        return 0;
+
+    }
+
+    /**
+     * Reporter service CLI header message when printing the usage.
+     */
+    private static String getHeader() {
+
+        return System.getProperty("line.separator")
+                + "The Reporter service command line starts a local service keeping Reporter projects open and serving their quantification over http."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "For further help see https://compomics.github.io/projects/reporter.html "
+                + "and https://compomics.github.io/projects/reporter/wiki/reportercli.html."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "Or contact the developers at https://groups.google.com/group/reporter_software."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "----------------------"
+                + System.getProperty("line.separator")
+                + "OPTIONS"
+                + System.getProperty("line.separator")
+                + "----------------------" + System.getProperty("line.separator")
+                + System.getProperty("line.separator");
+
+    }
+
+    /**
+     * Starts the launcher by calling the launch method. Use this as the main
+     * class in the jar file.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+
+        try {
+            // check if there are updates to the paths
+            String[] nonPathSettingArgsAsList = PathSettingsCLI.extractAndUpdatePathOptions(args);
+
+            // parse the rest of the options
+            Options nonPathOptions = new Options();
+            ServiceCLIParams.createOptionsCLI(nonPathOptions);
+            DefaultParser parser = new DefaultParser();
+            CommandLine line = parser.parse(nonPathOptions, nonPathSettingArgsAsList);
+
+            ServiceCLIInputBean lCLIBean;
+
+            try {
+
+                lCLIBean = new ServiceCLIInputBean(line);
+
+            } catch (IllegalArgumentException e) {
+
+                PrintWriter lPrintWriter = new PrintWriter(System.out);
+
+                lPrintWriter.print(
+                        System.getProperty("line.separator")
+                        + "==============================================="
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(
+                        "Reporter Service - Command Line"
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(
+                        "==============================================="
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(System.getProperty("line.separator") + e.getMessage() + System.getProperty("line.separator"));
+                lPrintWriter.print(getHeader());
+                lPrintWriter.print(ServiceCLIParams.getOptionsAsString());
+                lPrintWriter.flush();
+                lPrintWriter.close();
+
+                System.exit(1);
+                return;
+
+            }
+
+            ServiceCLI cli = new ServiceCLI(lCLIBean);
+            Object result = cli.call();
+            System.exit(result.equals(0) ? 0 : 1);
+
+        } catch (OutOfMemoryError e) {
+
+            System.out.println(
+                    "<CompomicsError>Reporter used up all the memory and had to be stopped. "
+                    + "See the Reporter log for details.</CompomicsError>"
+            );
+
+            System.err.println("Ran out of memory!");
+
+            System.err.println(
+                    "Memory given to the Java virtual machine: "
+                    + Runtime.getRuntime().maxMemory() + "."
+            );
+
+            e.printStackTrace();
+            System.exit(1);
+
+        } catch (Exception e) {
+
+            System.out.print(
+                    "<CompomicsError>Reporter processing failed. "
+                    + "See the Reporter log for details.</CompomicsError>"
+            );
+
+            e.printStackTrace();
+            System.exit(1);
+
+        }
+    }
+}
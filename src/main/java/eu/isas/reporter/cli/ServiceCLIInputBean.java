@@ -0,0 +1,123 @@
+package eu.isas.reporter.cli;
+
+import eu.isas.reporter.service.ReporterService;
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * This class is a simple bean wrapping the CLI parameters of the local
+ * quantification service.
+ *
+ * @author Marc Vaudel
+ */
+public class ServiceCLIInputBean {
+
+    /**
+     * The port to listen on.
+     */
+    private int port = ReporterService.DEFAULT_PORT;
+    /**
+     * The number of threads to use.
+     */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The number of expensive operations running concurrently.
+     */
+    private int maxExpensive = ReporterService.DEFAULT_MAX_EXPENSIVE;
+    /**
+     * The path settings.
+     */
+    private PathSettingsCLIInputBean pathSettingsCLIInputBean;
+
+    /**
+     * Construct a ServiceCLIInputBean from an Apache CLI instance.
+     *
+     * @param aLine the command line
+     */
+    public ServiceCLIInputBean(CommandLine aLine) {
+
+        if (aLine.hasOption(ServiceCLIParams.PORT.id)) {
+
+            port = getPositiveInteger(aLine, ServiceCLIParams.PORT);
+
+            if (port > 65535) {
+                throw new IllegalArgumentException("The port (" + port + ") should be lower than 65536.");
+            }
+        }
+
+        if (aLine.hasOption(ServiceCLIParams.THREADS.id)) {
+            nThreads = getPositiveInteger(aLine, ServiceCLIParams.THREADS);
+        }
+
+        if (aLine.hasOption(ServiceCLIParams.MAX_EXPENSIVE.id)) {
+            maxExpensive = getPositiveInteger(aLine, ServiceCLIParams.MAX_EXPENSIVE);
+        }
+
+        pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
+    }
+
+    /**
+     * Parses a strictly positive integer option.
+     *
+     * @param aLine the command line
+     * @param parameter the parameter
+     *
+     * @return the value of the option
+     */
+    private static int getPositiveInteger(
+            CommandLine aLine,
+            ServiceCLIParams parameter
+    ) {
+
+        String input = aLine.getOptionValue(parameter.id).trim();
+        int value;
+
+        try {
+            value = Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Could not parse \'" + input + "\' as integer for " + parameter.id + ".");
+        }
+
+        if (value <= 0) {
+            throw new IllegalArgumentException("The value of " + parameter.id + " (" + value + ") should be strictly positive.");
+        }
+
+        return value;
+
+    }
+
+    /**
+     * Returns the port to listen on.
+     *
+     * @return the port to listen on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the number of threads to use.
+     *
+     * @return the number of threads to use
+     */
+    public int getnThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Returns the number of expensive operations running concurrently.
+     *
+     * @return the number of expensive operations running concurrently
+     */
+    public int getMaxExpensive() {
+        return maxExpensive;
+    }
+
+    /**
+     * Returns the path settings provided by the user.
+     *
+     * @return the path settings provided by the user
+     */
+    public PathSettingsCLIInputBean getPathSettingsCLIInputBean() {
+        return pathSettingsCLIInputBean;
+    }
+}
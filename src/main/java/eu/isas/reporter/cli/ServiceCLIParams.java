@@ -0,0 +1,94 @@
+package eu.isas.reporter.cli;
+
+import eu.isas.reporter.service.ReporterService;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class provides the parameters of the command line starting the local
+ * quantification service.
+ *
+ * @author Marc Vaudel
+ */
+public enum ServiceCLIParams {
+
+    PORT("port", "The port to listen on, the service is only reachable from the local machine. Default: " + ReporterService.DEFAULT_PORT + ".", false, true),
+    THREADS("threads", "The number of threads serving the requests and processing the projects. Default: the number of cores on the machine.", false, true),
+    MAX_EXPENSIVE("max_expensive", "The number of project openings, exports, and settings changes running concurrently, further requests are rejected until a slot is free. Default: " + ReporterService.DEFAULT_MAX_EXPENSIVE + ".", false, true);
+
+    /**
+     * Short Id for the CLI parameter.
+     */
+    public final String id;
+    /**
+     * Explanation for the CLI parameter.
+     */
+    public final String description;
+    /**
+     * Boolean indicating whether the parameter is mandatory.
+     */
+    public final boolean mandatory;
+    /**
+     * Boolean indicating whether the parameter has arguments.
+     */
+    public final boolean hasArg;
+
+    /**
+     * Private constructor managing the various variables for the enum
+     * instances.
+     *
+     * @param id the parameter id
+     * @param description the parameter description
+     * @param mandatory boolean indicating whether the parameter mandatory
+     * @param hasArg boolean indicating whether the parameter needs an argument
+     */
+    private ServiceCLIParams(
+            String id,
+            String description,
+            boolean mandatory,
+            boolean hasArg
+    ) {
+        this.id = id;
+        this.description = description;
+        this.mandatory = mandatory;
+        this.hasArg = hasArg;
+    }
+
+    /**
+     * Creates the options for the command line interface based on the possible
+     * values.
+     *
+     * @param aOptions the options object where the options will be added
+     */
+    public static void createOptionsCLI(Options aOptions) {
+
+        for (ServiceCLIParams serviceCLIParams : values()) {
+            aOptions.addOption(serviceCLIParams.id, serviceCLIParams.hasArg, serviceCLIParams.description);
+        }
+
+        // Path setup
+        aOptions.addOption(PathSettingsCLIParams.ALL.id, true, PathSettingsCLIParams.ALL.description);
+
+        // note: remember to add new parameters to the getOptionsAsString below as well
+    }
+
+    /**
+     * Returns the options as a string.
+     *
+     * @return the options as a string
+     */
+    public static String getOptionsAsString() {
+
+        String output = "";
+        String formatter = "%-35s";
+
+        output += "Optional service parameters:\n\n";
+        output += "-" + String.format(formatter, PORT.id) + PORT.description + "\n";
+        output += "-" + String.format(formatter, THREADS.id) + THREADS.description + "\n";
+        output += "-" + String.format(formatter, MAX_EXPENSIVE.id) + MAX_EXPENSIVE.description + "\n";
+
+        output += "\n\nOptional temporary folder:\n\n";
+        output += "-" + String.format(formatter, PathSettingsCLIParams.ALL.id) + PathSettingsCLIParams.ALL.description + "\n";
+
+        return output;
+    }
+}
@@ -0,0 +1,242 @@
+package eu.isas.reporter.cli;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.io.IoUtil;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.utils.SpectrumMerger;
+import java.io.File;
+import java.io.PrintWriter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class merges the MS2 and MS3 spectra of SPS acquisitions in command
+ * line.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMergerCLI {
+
+    /**
+     * The spectrum merger command line options.
+     */
+    private final SpectrumMergerCLIInputBean spectrumMergerCLIInputBean;
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumMergerCLIInputBean the input bean
+     */
+    public SpectrumMergerCLI(SpectrumMergerCLIInputBean spectrumMergerCLIInputBean) {
+        this.spectrumMergerCLIInputBean = spectrumMergerCLIInputBean;
+    }
+
+    /**
+     * Merges the spectra.
+     *
+     * @return returns 1 if the process was canceled
+     */
+    public Object call() {
+
+        WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+
+        SpectrumMerger spectrumMerger = new SpectrumMerger(
+                spectrumMergerCLIInputBean.getUpperReporterRange(),
+                spectrumMergerCLIInputBean.getMaxPendingMs2(),
+                spectrumMergerCLIInputBean.getnThreads()
+        );
+
+        File outputFolder = spectrumMergerCLIInputBean.getOutputFolder();
+
+        if (!outputFolder.exists()) {
+            outputFolder.mkdirs();
+        }
+
+        for (File mzmlFile : spectrumMergerCLIInputBean.getSpectrumFiles()) {
+
+            File mgfFile = new File(outputFolder, IoUtil.removeExtension(mzmlFile.getName()) + ".mgf");
+
+            waitingHandler.appendReport("Merging MS2 and MS3 spectra of " + mzmlFile.getName() + ".", true, true);
+
+            try {
+
+                int nMerged = spectrumMerger.merge(mzmlFile, mgfFile, waitingHandler);
+
+                waitingHandler.appendReport(nMerged + " merged spectra written to " + mgfFile + ".", true, true);
+
+            } catch (Exception e) {
+
+                waitingHandler.appendReport("An error occurred while merging the spectra of " + mzmlFile.getName() + ".", true, true);
+                e.printStackTrace();
+                return 1;
+
+            }
+
+            if (waitingHandler.isRunCanceled()) {
+                return 1;
+            }
+        }
+
+        return 0;
+
+    }
+
+    /**
+     * Reporter spectrum merger CLI header message when printing the usage.
+     */
+    private static String getHeader() {
+
+        return System.getProperty("line.separator")
+                + "The Reporter spectrum merger command line merges the reporter ions of MS3 spectra into the MS2 spectra of SPS acquisitions and writes them as mgf files."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "For further help see https://compomics.github.io/projects/reporter.html "
+                + "and https://compomics.github.io/projects/reporter/wiki/reportercli.html."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "Or contact the developers at https://groups.google.com/group/reporter_software."
+                + System.getProperty("line.separator")
+                + System.getProperty("line.separator")
+                + "----------------------"
+                + System.getProperty("line.separator")
+                + "OPTIONS"
+                + System.getProperty("line.separator")
+                + "----------------------" + System.getProperty("line.separator")
+                + System.getProperty("line.separator");
+
+    }
+
+    /**
+     * Verifies the command line start parameters.
+     *
+     * @return true if the startup was valid
+     */
+    private static boolean isValidStartup(CommandLine aLine) {
+
+        if (aLine.getOptions().length == 0) {
+            return false;
+        }
+
+        if (!aLine.hasOption(SpectrumMergerCLIParams.SPECTRUM_FILES.id)
+                || aLine.getOptionValue(SpectrumMergerCLIParams.SPECTRUM_FILES.id).trim().equals("")) {
+
+            System.out.println("\n" + SpectrumMergerCLIParams.SPECTRUM_FILES.description + " not specified.\n");
+            return false;
+
+        }
+
+        for (String path : aLine.getOptionValue(SpectrumMergerCLIParams.SPECTRUM_FILES.id).split(",")) {
+
+            File testFile = new File(path.trim());
+
+            if (!testFile.exists()) {
+
+                System.out.println(
+                        "\n"
+                        + SpectrumMergerCLIParams.SPECTRUM_FILES.description
+                        + " \'"
+                        + testFile.getAbsolutePath()
+                        + "\' not found.\n"
+                );
+
+                return false;
+
+            }
+        }
+
+        if (!aLine.hasOption(SpectrumMergerCLIParams.OUTPUT_FOLDER.id)
+                || aLine.getOptionValue(SpectrumMergerCLIParams.OUTPUT_FOLDER.id).trim().equals("")) {
+
+            System.out.println("\n" + SpectrumMergerCLIParams.OUTPUT_FOLDER.description + " not specified.\n");
+            return false;
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts the launcher by calling the launch method. Use this as the main
+     * class in the jar file.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+
+        try {
+            // check if there are updates to the paths
+            String[] nonPathSettingArgsAsList = PathSettingsCLI.extractAndUpdatePathOptions(args);
+
+            // parse the rest of the options
+            Options nonPathOptions = new Options();
+            SpectrumMergerCLIParams.createOptionsCLI(nonPathOptions);
+            DefaultParser parser = new DefaultParser();
+            CommandLine line = parser.parse(nonPathOptions, nonPathSettingArgsAsList);
+
+            if (!isValidStartup(line)) {
+
+                PrintWriter lPrintWriter = new PrintWriter(System.out);
+
+                lPrintWriter.print(
+                        System.getProperty("line.separator")
+                        + "==============================================="
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(
+                        "Reporter Spectrum Merger - Command Line"
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(
+                        "==============================================="
+                        + System.getProperty("line.separator")
+                );
+
+                lPrintWriter.print(getHeader());
+                lPrintWriter.print(SpectrumMergerCLIParams.getOptionsAsString());
+                lPrintWriter.flush();
+                lPrintWriter.close();
+
+                System.exit(0);
+
+            } else {
+
+                SpectrumMergerCLIInputBean lCLIBean = new SpectrumMergerCLIInputBean(line);
+                SpectrumMergerCLI cli = new SpectrumMergerCLI(lCLIBean);
+                Object result = cli.call();
+                System.exit(result.equals(0) ? 0 : 1);
+
+            }
+
+        } catch (OutOfMemoryError e) {
+
+            System.out.println(
+                    "<CompomicsError>Reporter used up all the memory and had to be stopped. "
+                    + "See the Reporter log for details.</CompomicsError>"
+            );
+
+            System.err.println("Ran out of memory!");
+
+            System.err.println(
+                    "Memory given to the Java virtual machine: "
+                    + Runtime.getRuntime().maxMemory() + "."
+            );
+
+            e.printStackTrace();
+            System.exit(1);
+
+        } catch (Exception e) {
+
+            System.out.print(
+                    "<CompomicsError>Reporter processing failed. "
+                    + "See the Reporter log for details.</CompomicsError>"
+            );
+
+            e.printStackTrace();
+            System.exit(1);
+
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package eu.isas.reporter.cli;
+
+import com.compomics.software.cli.CommandLineUtils;
+import eu.isas.reporter.utils.SpectrumMerger;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * This class is a simple bean wrapping the CLI parameters of the merging of
+ * MS2 and MS3 spectra.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMergerCLIInputBean {
+
+    /**
+     * The mzML files to merge.
+     */
+    private ArrayList<File> spectrumFiles = new ArrayList<>();
+    /**
+     * The folder where to write the merged mgf files.
+     */
+    private File outputFolder = null;
+    /**
+     * The upper m/z of the reporter ion region.
+     */
+    private double upperReporterRange = SpectrumMerger.DEFAULT_UPPER_REPORTER_RANGE;
+    /**
+     * The maximal number of MS2 spectra waiting for their MS3.
+     */
+    private int maxPendingMs2 = SpectrumMerger.DEFAULT_MAX_PENDING_MS2;
+    /**
+     * The number of threads to use for decoding.
+     */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The path settings.
+     */
+    private PathSettingsCLIInputBean pathSettingsCLIInputBean;
+
+    /**
+     * Construct a SpectrumMergerCLIInputBean from an Apache CLI instance.
+     *
+     * @param aLine the command line
+     */
+    public SpectrumMergerCLIInputBean(CommandLine aLine) {
+
+        if (aLine.hasOption(SpectrumMergerCLIParams.SPECTRUM_FILES.id)) {
+
+            for (String path : CommandLineUtils.splitInput(aLine.getOptionValue(SpectrumMergerCLIParams.SPECTRUM_FILES.id))) {
+
+                File file = new File(path);
+
+                if (file.isDirectory()) {
+
+                    File[] folderFiles = file.listFiles((dir, name) -> name.toLowerCase().endsWith(".mzml"));
+                    Arrays.sort(folderFiles);
+                    spectrumFiles.addAll(Arrays.asList(folderFiles));
+
+                } else {
+
+                    spectrumFiles.add(file);
+
+                }
+            }
+        }
+
+        if (aLine.hasOption(SpectrumMergerCLIParams.OUTPUT_FOLDER.id)) {
+            outputFolder = new File(aLine.getOptionValue(SpectrumMergerCLIParams.OUTPUT_FOLDER.id));
+        }
+
+        if (aLine.hasOption(SpectrumMergerCLIParams.REPORTER_RANGE.id)) {
+
+            String input = aLine.getOptionValue(SpectrumMergerCLIParams.REPORTER_RANGE.id).trim();
+
+            try {
+                upperReporterRange = Double.parseDouble(input);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Could not parse \'" + input + "\' as reporter ion m/z range.");
+            }
+
+            if (upperReporterRange <= 0) {
+                throw new IllegalArgumentException("The reporter ion m/z range (" + input + ") should be positive.");
+            }
+        }
+
+        if (aLine.hasOption(SpectrumMergerCLIParams.MAX_PENDING.id)) {
+            maxPendingMs2 = getPositiveInteger(aLine, SpectrumMergerCLIParams.MAX_PENDING);
+        }
+
+        if (aLine.hasOption(SpectrumMergerCLIParams.THREADS.id)) {
+            nThreads = getPositiveInteger(aLine, SpectrumMergerCLIParams.THREADS);
+        }
+
+        pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
+    }
+
+    /**
+     * Parses a strictly positive integer option.
+     *
+     * @param aLine the command line
+     * @param parameter the parameter
+     *
+     * @return the value of the option
+     */
+    private static int getPositiveInteger(
+            CommandLine aLine,
+            SpectrumMergerCLIParams parameter
+    ) {
+
+        String input = aLine.getOptionValue(parameter.id).trim();
+        int value;
+
+        try {
+            value = Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Could not parse \'" + input + "\' as integer for " + parameter.id + ".");
+        }
+
+        if (value <= 0) {
+            throw new IllegalArgumentException("The value of " + parameter.id + " (" + value + ") should be strictly positive.");
+        }
+
+        return value;
+
+    }
+
+    /**
+     * Returns the mzML files to merge.
+     *
+     * @return the mzML files to merge
+     */
+    public ArrayList<File> getSpectrumFiles() {
+        return spectrumFiles;
+    }
+
+    /**
+     * Returns the folder where to write the merged mgf files.
+     *
+     * @return the folder where to write the merged mgf files
+     */
+    public File getOutputFolder() {
+        return outputFolder;
+    }
+
+    /**
+     * Returns the upper m/z of the reporter ion region.
+     *
+     * @return the upper m/z of the reporter ion region
+     */
+    public double getUpperReporterRange() {
+        return upperReporterRange;
+    }
+
+    /**
+     * Returns the maximal number of MS2 spectra waiting for their MS3.
+     *
+     * @return the maximal number of MS2 spectra waiting for their MS3
+     */
+    public int getMaxPendingMs2() {
+        return maxPendingMs2;
+    }
+
+    /**
+     * Returns the number of threads to use for decoding.
+     *
+     * @return the number of threads to use for decoding
+     */
+    public int getnThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Returns the path settings provided by the user.
+     *
+     * @return the path settings provided by the user
+     */
+    public PathSettingsCLIInputBean getPathSettingsCLIInputBean() {
+        return pathSettingsCLIInputBean;
+    }
+}
@@ -0,0 +1,100 @@
+package eu.isas.reporter.cli;
+
+import eu.isas.reporter.utils.SpectrumMerger;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class provides the parameters of the command line merging MS2 and MS3
+ * spectra.
+ *
+ * @author Marc Vaudel
+ */
+public enum SpectrumMergerCLIParams {
+
+    SPECTRUM_FILES("in", "Comma separated list of the mzML files to merge, or a folder containing them (.mzML files).", true, true),
+    OUTPUT_FOLDER("out", "The folder where to write the merged mgf files. (Existing files will be overwritten.)", true, true),
+    REPORTER_RANGE("reporter_range", "The upper m/z of the reporter ion region taken from the MS3 spectra. Default: " + SpectrumMerger.DEFAULT_UPPER_REPORTER_RANGE + ".", false, true),
+    MAX_PENDING("max_pending", "The maximal number of MS2 spectra kept in memory while waiting for their MS3. Default: " + SpectrumMerger.DEFAULT_MAX_PENDING_MS2 + ".", false, true),
+    THREADS("threads", "The number of threads to use for decoding the spectra. Default: the number of available processors.", false, true);
+
+    /**
+     * Short Id for the CLI parameter.
+     */
+    public final String id;
+    /**
+     * Explanation for the CLI parameter.
+     */
+    public final String description;
+    /**
+     * Boolean indicating whether the parameter is mandatory.
+     */
+    public final boolean mandatory;
+    /**
+     * Boolean indicating whether the parameter has arguments.
+     */
+    public final boolean hasArg;
+
+    /**
+     * Private constructor managing the various variables for the enum
+     * instances.
+     *
+     * @param id the parameter id
+     * @param description the parameter description
+     * @param mandatory boolean indicating whether the parameter mandatory
+     * @param hasArg boolean indicating whether the parameter needs an argument
+     */
+    private SpectrumMergerCLIParams(
+            String id,
+            String description,
+            boolean mandatory,
+            boolean hasArg
+    ) {
+        this.id = id;
+        this.description = description;
+        this.mandatory = mandatory;
+        this.hasArg = hasArg;
+    }
+
+    /**
+     * Creates the options for the command line interface based on the possible
+     * values.
+     *
+     * @param aOptions the options object where the options will be added
+     */
+    public static void createOptionsCLI(Options aOptions) {
+
+        for (SpectrumMergerCLIParams spectrumMergerCLIParams : values()) {
+            aOptions.addOption(spectrumMergerCLIParams.id, spectrumMergerCLIParams.hasArg, spectrumMergerCLIParams.description);
+        }
+
+        // Path setup
+        aOptions.addOption(PathSettingsCLIParams.ALL.id, true, PathSettingsCLIParams.ALL.description);
+
+        // note: remember to add new parameters to the getOptionsAsString below as well
+    }
+
+    /**
+     * Returns the options as a string.
+     *
+     * @return the options as a string
+     */
+    public static String getOptionsAsString() {
+
+        String output = "";
+        String formatter = "%-35s";
+
+        output += "Mandatory parameters:\n\n";
+        output += "-" + String.format(formatter, SPECTRUM_FILES.id) + SPECTRUM_FILES.description + "\n";
+        output += "-" + String.format(formatter, OUTPUT_FOLDER.id) + OUTPUT_FOLDER.description + "\n";
+
+        output += "\n\nOptional merging parameters:\n\n";
+        output += "-" + String.format(formatter, REPORTER_RANGE.id) + REPORTER_RANGE.description + "\n";
+        output += "-" + String.format(formatter, MAX_PENDING.id) + MAX_PENDING.description + "\n";
+        output += "-" + String.format(formatter, THREADS.id) + THREADS.description + "\n";
+
+        output += "\n\nOptional temporary folder:\n\n";
+        output += "-" + String.format(formatter, PathSettingsCLIParams.ALL.id) + PathSettingsCLIParams.ALL.description + "\n";
+
+        return output;
+    }
+}
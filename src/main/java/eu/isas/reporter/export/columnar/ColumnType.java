@@ -0,0 +1,39 @@
+package eu.isas.reporter.export.columnar;
+
+/**
+ * Enum for the types of column supported by the columnar export.
+ *
+ * @author Marc Vaudel
+ */
+public enum ColumnType {
+
+    int64(0, "64 bits signed integer", 8),
+    float32(1, "32 bits floating point number", 4),
+    dictionary(2, "Index of a string in the dictionary of the column, -1 for missing values", 4);
+
+    /**
+     * The index of the type as written in the file.
+     */
+    public final int index;
+    /**
+     * The description of the type.
+     */
+    public final String description;
+    /**
+     * The number of bytes used per value.
+     */
+    public final int width;
+
+    /**
+     * Constructor.
+     *
+     * @param index the index of the type as written in the file
+     * @param description the description of the type
+     * @param width the number of bytes used per value
+     */
+    private ColumnType(int index, String description, int width) {
+        this.index = index;
+        this.description = description;
+        this.width = width;
+    }
+}
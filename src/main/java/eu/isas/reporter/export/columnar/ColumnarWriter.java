@@ -0,0 +1,503 @@
+package eu.isas.reporter.export.columnar;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writer for the Reporter columnar binary format. All numbers are written in
+ * little endian. The file is organized as follows:
+ *
+ * <pre>
+ * header:     magic "RCOL", int32 version, int32 number of columns, and for
+ *             every column its name (int32 length + UTF-8 bytes) and its type
+ *             index (byte)
+ * row groups: int32 number of rows, then for every column a chunk made of a
+ *             codec (byte, 0: none, 1: deflate), the raw length (int32), the
+ *             stored length (int32) and the stored bytes
+ * footer:     for every dictionary column the number of entries (int32) and
+ *             the entries (int32 length + UTF-8 bytes), the number of row
+ *             groups (int32) and their offsets (int64), the total number of
+ *             rows (int64), the offset of the footer (int64) and the magic
+ *             "RCOL"
+ * </pre>
+ *
+ * Chunks which do not benefit from compression are stored raw and can be
+ * mapped directly as typed arrays.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarWriter implements Closeable {
+
+    /**
+     * The magic bytes at the beginning and end of the file.
+     */
+    public static final byte[] MAGIC = "RCOL".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The default number of rows per row group.
+     */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+    /**
+     * Codec of the chunks stored raw.
+     */
+    public static final byte CODEC_NONE = 0;
+    /**
+     * Codec of the chunks compressed using deflate.
+     */
+    public static final byte CODEC_DEFLATE = 1;
+    /**
+     * The stream to write to.
+     */
+    private final OutputStream outputStream;
+    /**
+     * The number of bytes written.
+     */
+    private long offset = 0;
+    /**
+     * The types of the columns.
+     */
+    private final ColumnType[] columnTypes;
+    /**
+     * The number of rows per row group.
+     */
+    private final int rowGroupSize;
+    /**
+     * The values of the int64 columns in the current row group, null for
+     * other columns.
+     */
+    private final long[][] longValues;
+    /**
+     * The values of the float32 columns in the current row group, null for
+     * other columns.
+     */
+    private final float[][] floatValues;
+    /**
+     * The values of the dictionary columns in the current row group, null for
+     * other columns.
+     */
+    private final int[][] dictionaryValues;
+    /**
+     * The index of the entries of the dictionary columns, null for other
+     * columns.
+     */
+    private final ArrayList<HashMap<String, Integer>> dictionaryIndexes;
+    /**
+     * The entries of the dictionary columns, null for other columns.
+     */
+    private final ArrayList<ArrayList<String>> dictionaryEntries;
+    /**
+     * The number of rows in the current row group.
+     */
+    private int nRows = 0;
+    /**
+     * The total number of rows written.
+     */
+    private long totalRows = 0;
+    /**
+     * The offsets of the row groups.
+     */
+    private final ArrayList<Long> rowGroupOffsets = new ArrayList<>();
+    /**
+     * The deflater used to compress the chunks.
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    /**
+     * Buffer used to write numbers.
+     */
+    private final ByteBuffer numberBuffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the file where to write
+     * @param columnNames the names of the columns
+     * @param columnTypes the types of the columns
+     * @param rowGroupSize the number of rows per row group
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public ColumnarWriter(
+            File destinationFile,
+            ArrayList<String> columnNames,
+            ArrayList<ColumnType> columnTypes,
+            int rowGroupSize
+    ) throws IOException {
+
+        if (columnNames.size() != columnTypes.size()) {
+            throw new IllegalArgumentException("The number of column names (" + columnNames.size() + ") does not match the number of column types (" + columnTypes.size() + ").");
+        }
+
+        this.columnTypes = columnTypes.toArray(new ColumnType[columnTypes.size()]);
+        this.rowGroupSize = rowGroupSize;
+
+        int nColumns = this.columnTypes.length;
+        longValues = new long[nColumns][];
+        floatValues = new float[nColumns][];
+        dictionaryValues = new int[nColumns][];
+        dictionaryIndexes = new ArrayList<>(nColumns);
+        dictionaryEntries = new ArrayList<>(nColumns);
+
+        for (int column = 0; column < nColumns; column++) {
+
+            HashMap<String, Integer> dictionaryIndex = null;
+            ArrayList<String> entries = null;
+
+            switch (this.columnTypes[column]) {
+
+                case int64:
+                    longValues[column] = new long[rowGroupSize];
+                    break;
+
+                case float32:
+                    floatValues[column] = new float[rowGroupSize];
+                    break;
+
+                case dictionary:
+                    dictionaryValues[column] = new int[rowGroupSize];
+                    dictionaryIndex = new HashMap<>();
+                    entries = new ArrayList<>();
+                    break;
+
+                default:
+                    throw new UnsupportedOperationException("Column type " + this.columnTypes[column] + " not implemented.");
+            }
+
+            dictionaryIndexes.add(dictionaryIndex);
+            dictionaryEntries.add(entries);
+
+        }
+
+        resetValues();
+
+        outputStream = new BufferedOutputStream(new FileOutputStream(destinationFile));
+
+        writeBytes(MAGIC);
+        writeInt(VERSION);
+        writeInt(nColumns);
+
+        for (int column = 0; column < nColumns; column++) {
+
+            writeString(columnNames.get(column));
+            writeBytes(new byte[]{(byte) this.columnTypes[column].index});
+
+        }
+    }
+
+    /**
+     * Sets the value of an int64 column in the current row.
+     *
+     * @param column the index of the column
+     * @param value the value
+     */
+    public void setLong(
+            int column,
+            long value
+    ) {
+        longValues[column][nRows] = value;
+    }
+
+    /**
+     * Sets the value of a float32 column in the current row. Missing values
+     * are written as NaN.
+     *
+     * @param column the index of the column
+     * @param value the value
+     */
+    public void setFloat(
+            int column,
+            float value
+    ) {
+        floatValues[column][nRows] = value;
+    }
+
+    /**
+     * Sets the value of a dictionary column in the current row.
+     *
+     * @param column the index of the column
+     * @param value the value, can be null
+     */
+    public void setString(
+            int column,
+            String value
+    ) {
+
+        if (value == null) {
+
+            dictionaryValues[column][nRows] = -1;
+
+        } else {
+
+            HashMap<String, Integer> dictionaryIndex = dictionaryIndexes.get(column);
+            Integer index = dictionaryIndex.get(value);
+
+            if (index == null) {
+
+                ArrayList<String> entries = dictionaryEntries.get(column);
+                index = entries.size();
+                entries.add(value);
+                dictionaryIndex.put(value, index);
+
+            }
+
+            dictionaryValues[column][nRows] = index;
+
+        }
+    }
+
+    /**
+     * Ends the current row. The row group is written when full.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void endRow() throws IOException {
+
+        nRows++;
+
+        if (nRows == rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    /**
+     * Writes the current row group.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeRowGroup() throws IOException {
+
+        rowGroupOffsets.add(offset);
+        writeInt(nRows);
+
+        for (int column = 0; column < columnTypes.length; column++) {
+
+            ColumnType columnType = columnTypes[column];
+            ByteBuffer chunk = ByteBuffer.allocate(nRows * columnType.width).order(ByteOrder.LITTLE_ENDIAN);
+
+            switch (columnType) {
+
+                case int64:
+                    chunk.asLongBuffer().put(longValues[column], 0, nRows);
+                    break;
+
+                case float32:
+                    chunk.asFloatBuffer().put(floatValues[column], 0, nRows);
+                    break;
+
+                case dictionary:
+                    chunk.asIntBuffer().put(dictionaryValues[column], 0, nRows);
+                    break;
+
+                default:
+                    throw new UnsupportedOperationException("Column type " + columnType + " not implemented.");
+            }
+
+            writeChunk(chunk.array());
+
+        }
+
+        totalRows += nRows;
+        nRows = 0;
+        resetValues();
+
+    }
+
+    /**
+     * Writes a chunk, compressed if this reduces its size.
+     *
+     * @param raw the raw bytes of the chunk
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeChunk(
+            byte[] raw
+    ) throws IOException {
+
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        byte[] compressed = new byte[raw.length];
+        int compressedLength = 0;
+
+        while (!deflater.finished() && compressedLength < compressed.length) {
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        if (deflater.finished() && compressedLength < raw.length) {
+
+            writeBytes(new byte[]{CODEC_DEFLATE});
+            writeInt(raw.length);
+            writeInt(compressedLength);
+            outputStream.write(compressed, 0, compressedLength);
+            offset += compressedLength;
+
+        } else {
+
+            writeBytes(new byte[]{CODEC_NONE});
+            writeInt(raw.length);
+            writeInt(raw.length);
+            writeBytes(raw);
+
+        }
+    }
+
+    /**
+     * Resets the values of the current row group to the missing values.
+     */
+    private void resetValues() {
+
+        for (int column = 0; column < columnTypes.length; column++) {
+
+            switch (columnTypes[column]) {
+
+                case int64:
+                    Arrays.fill(longValues[column], 0L);
+                    break;
+
+                case float32:
+                    Arrays.fill(floatValues[column], Float.NaN);
+                    break;
+
+                case dictionary:
+                    Arrays.fill(dictionaryValues[column], -1);
+                    break;
+
+                default:
+                    throw new UnsupportedOperationException("Column type " + columnTypes[column] + " not implemented.");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+
+            if (nRows > 0) {
+                writeRowGroup();
+            }
+
+            long footerOffset = offset;
+
+            for (int column = 0; column < columnTypes.length; column++) {
+
+                if (columnTypes[column] == ColumnType.dictionary) {
+
+                    ArrayList<String> entries = dictionaryEntries.get(column);
+                    writeInt(entries.size());
+
+                    for (String entry : entries) {
+                        writeString(entry);
+                    }
+                }
+            }
+
+            writeInt(rowGroupOffsets.size());
+
+            for (long rowGroupOffset : rowGroupOffsets) {
+                writeLong(rowGroupOffset);
+            }
+
+            writeLong(totalRows);
+            writeLong(footerOffset);
+            writeBytes(MAGIC);
+
+        } finally {
+
+            deflater.end();
+            outputStream.close();
+
+        }
+    }
+
+    /**
+     * Writes bytes.
+     *
+     * @param bytes the bytes to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeBytes(
+            byte[] bytes
+    ) throws IOException {
+
+        outputStream.write(bytes);
+        offset += bytes.length;
+
+    }
+
+    /**
+     * Writes an int32.
+     *
+     * @param value the value to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeInt(
+            int value
+    ) throws IOException {
+
+        numberBuffer.clear();
+        numberBuffer.putInt(value);
+        outputStream.write(numberBuffer.array(), 0, 4);
+        offset += 4;
+
+    }
+
+    /**
+     * Writes an int64.
+     *
+     * @param value the value to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeLong(
+            long value
+    ) throws IOException {
+
+        numberBuffer.clear();
+        numberBuffer.putLong(value);
+        outputStream.write(numberBuffer.array(), 0, 8);
+        offset += 8;
+
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.
+     *
+     * @param value the value to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeString(
+            String value
+    ) throws IOException {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes);
+
+    }
+}
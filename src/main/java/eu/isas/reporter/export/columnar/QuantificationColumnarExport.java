@@ -0,0 +1,402 @@
+package eu.isas.reporter.export.columnar;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.SpectrumMatchesIterator;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.utils.PeptideUtils;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Exports the quantification of a level in the columnar binary format: one
+ * row per match with its key, a few dictionary encoded descriptors, and the
+ * normalized ratio of every sample. The values are written directly from the
+ * quantification details without string conversion.
+ *
+ * @author Marc Vaudel
+ */
+public class QuantificationColumnarExport {
+
+    /**
+     * The extension of the columnar files.
+     */
+    public static final String EXTENSION = ".rcol";
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The sequence provider.
+     */
+    private final SequenceProvider sequenceProvider;
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The quantification features generator.
+     */
+    private final QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The reporter ion quantification.
+     */
+    private final ReporterIonQuantification reporterIonQuantification;
+    /**
+     * The sorted sample indexes.
+     */
+    private final ArrayList<String> sampleIndexes;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator
+     * @param reporterIonQuantification the reporter ion quantification
+     */
+    public QuantificationColumnarExport(
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification
+    ) {
+
+        this.identification = identification;
+        this.sequenceProvider = sequenceProvider;
+        this.spectrumProvider = spectrumProvider;
+        this.quantificationFeaturesGenerator = quantificationFeaturesGenerator;
+        this.reporterIonQuantification = reporterIonQuantification;
+
+        sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
+        Collections.sort(sampleIndexes);
+
+    }
+
+    /**
+     * Writes the quantification of the given level to a file. Decoy matches
+     * are not exported.
+     *
+     * @param destinationFile the file where to write
+     * @param quantificationLevel the level to export, PSM, peptide, or protein
+     * @param validatedOnly whether only validated matches should be exported
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeExport(
+            File destinationFile,
+            QuantificationLevel quantificationLevel,
+            boolean validatedOnly,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        switch (quantificationLevel) {
+
+            case protein:
+                writeProteins(destinationFile, validatedOnly, waitingHandler);
+                return;
+
+            case peptide:
+                writePeptides(destinationFile, validatedOnly, waitingHandler);
+                return;
+
+            case psm:
+                writePsms(destinationFile, validatedOnly, waitingHandler);
+                return;
+
+            default:
+                throw new UnsupportedOperationException("Columnar export not implemented for level " + quantificationLevel.name + ".");
+        }
+    }
+
+    /**
+     * Writes the protein quantification.
+     *
+     * @param destinationFile the file where to write
+     * @param validatedOnly whether only validated matches should be exported
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeProteins(
+            File destinationFile,
+            boolean validatedOnly,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        startProgress(identification.getProteinIdentification().size(), waitingHandler);
+
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        PSParameter psParameter = new PSParameter();
+
+        try (ColumnarWriter writer = getWriter(destinationFile, "Accession")) {
+
+            ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(waitingHandler);
+            ProteinMatch proteinMatch;
+
+            while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+
+                if (isCanceled(waitingHandler)) {
+                    return;
+                }
+
+                psParameter = (PSParameter) proteinMatch.getUrParam(psParameter);
+
+                if (!proteinMatch.isDecoy()
+                        && (!validatedOnly || psParameter.getMatchValidationLevel().isValidated())) {
+
+                    ProteinQuantificationDetails details = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
+                            spectrumProvider,
+                            proteinMatch.getKey(),
+                            waitingHandler
+                    );
+
+                    writer.setLong(0, proteinMatch.getKey());
+                    writer.setString(1, psParameter.getMatchValidationLevel().getName());
+                    writer.setString(2, proteinMatch.getLeadingAccession());
+
+                    for (int i = 0; i < sampleIndexes.size(); i++) {
+                        writer.setFloat(3 + i, getValue(details.getRatio(sampleIndexes.get(i), normalizationFactors)));
+                    }
+
+                    writer.endRow();
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the peptide quantification.
+     *
+     * @param destinationFile the file where to write
+     * @param validatedOnly whether only validated matches should be exported
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writePeptides(
+            File destinationFile,
+            boolean validatedOnly,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        startProgress(identification.getPeptideIdentification().size(), waitingHandler);
+
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        PSParameter psParameter = new PSParameter();
+
+        try (ColumnarWriter writer = getWriter(destinationFile, "Sequence")) {
+
+            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
+            PeptideMatch peptideMatch;
+
+            while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+                if (isCanceled(waitingHandler)) {
+                    return;
+                }
+
+                psParameter = (PSParameter) peptideMatch.getUrParam(psParameter);
+
+                if (!PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)
+                        && (!validatedOnly || psParameter.getMatchValidationLevel().isValidated())) {
+
+                    PeptideQuantificationDetails details = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+                            spectrumProvider,
+                            peptideMatch,
+                            waitingHandler
+                    );
+
+                    writer.setLong(0, peptideMatch.getKey());
+                    writer.setString(1, psParameter.getMatchValidationLevel().getName());
+                    writer.setString(2, peptideMatch.getPeptide().getSequence());
+
+                    for (int i = 0; i < sampleIndexes.size(); i++) {
+                        writer.setFloat(3 + i, getValue(details.getRatio(sampleIndexes.get(i), normalizationFactors)));
+                    }
+
+                    writer.endRow();
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the PSM quantification.
+     *
+     * @param destinationFile the file where to write
+     * @param validatedOnly whether only validated matches should be exported
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writePsms(
+            File destinationFile,
+            boolean validatedOnly,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        startProgress(identification.getSpectrumIdentificationSize(), waitingHandler);
+
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        PSParameter psParameter = new PSParameter();
+
+        try (ColumnarWriter writer = getWriter(destinationFile, "Spectrum File")) {
+
+            SpectrumMatchesIterator spectrumMatchesIterator = identification.getSpectrumMatchesIterator(waitingHandler);
+            SpectrumMatch spectrumMatch;
+
+            while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
+
+                if (isCanceled(waitingHandler)) {
+                    return;
+                }
+
+                psParameter = (PSParameter) spectrumMatch.getUrParam(psParameter);
+                PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+                if (peptideAssumption != null
+                        && !PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider)
+                        && (!validatedOnly || psParameter.getMatchValidationLevel().isValidated())) {
+
+                    PsmQuantificationDetails details = quantificationFeaturesGenerator.getPSMQuantificationDetails(
+                            spectrumProvider,
+                            spectrumMatch.getKey()
+                    );
+
+                    writer.setLong(0, spectrumMatch.getKey());
+                    writer.setString(1, psParameter.getMatchValidationLevel().getName());
+                    writer.setString(2, spectrumMatch.getSpectrumFile());
+
+                    for (int i = 0; i < sampleIndexes.size(); i++) {
+                        writer.setFloat(3 + i, getValue(details.getRatio(sampleIndexes.get(i), normalizationFactors)));
+                    }
+
+                    writer.endRow();
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a writer with the key, validation, descriptor and sample ratio
+     * columns.
+     *
+     * @param destinationFile the file where to write
+     * @param descriptorName the name of the dictionary encoded descriptor
+     *
+     * @return a writer with the key, validation, descriptor and sample ratio
+     * columns
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private ColumnarWriter getWriter(
+            File destinationFile,
+            String descriptorName
+    ) throws IOException {
+
+        ArrayList<String> columnNames = new ArrayList<>(3 + sampleIndexes.size());
+        ArrayList<ColumnType> columnTypes = new ArrayList<>(3 + sampleIndexes.size());
+
+        columnNames.add("Key");
+        columnTypes.add(ColumnType.int64);
+        columnNames.add("Validation");
+        columnTypes.add(ColumnType.dictionary);
+        columnNames.add(descriptorName);
+        columnTypes.add(ColumnType.dictionary);
+
+        for (String sampleIndex : sampleIndexes) {
+
+            columnNames.add(reporterIonQuantification.getSample(sampleIndex));
+            columnTypes.add(ColumnType.float32);
+
+        }
+
+        return new ColumnarWriter(destinationFile, columnNames, columnTypes, ColumnarWriter.DEFAULT_ROW_GROUP_SIZE);
+
+    }
+
+    /**
+     * Returns the float value of a ratio, NaN if null.
+     *
+     * @param ratio the ratio
+     *
+     * @return the float value of a ratio
+     */
+    private static float getValue(
+            Double ratio
+    ) {
+        return ratio == null ? Float.NaN : ratio.floatValue();
+    }
+
+    /**
+     * Sets up the progress of the waiting handler.
+     *
+     * @param nMatches the number of matches to process
+     * @param waitingHandler the waiting handler
+     */
+    private static void startProgress(
+            int nMatches,
+            WaitingHandler waitingHandler
+    ) {
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Exporting. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nMatches);
+        }
+    }
+
+    /**
+     * Increases the progress and indicates whether the process was canceled.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @return a boolean indicating whether the process was canceled
+     */
+    private static boolean isCanceled(
+            WaitingHandler waitingHandler
+    ) {
+
+        if (waitingHandler != null) {
+
+            if (waitingHandler.isRunCanceled()) {
+                return true;
+            }
+
+            waitingHandler.increaseSecondaryProgressCounter();
+
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,143 @@
+package eu.isas.reporter.export.report;
+
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.export.ExportWriter;
+import com.compomics.util.io.export.WorkbookStyle;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Export writer writing a text report compressed in the gzip format. The
+ * report is formatted like the standard text reports, and compressed in
+ * parallel while the report is being written.
+ *
+ * @author Marc Vaudel
+ */
+public class GzipTextWriter extends ExportWriter {
+
+    /**
+     * The size of the buffer of the writer in characters.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The writer.
+     */
+    private final BufferedWriter writer;
+    /**
+     * The separator between the columns.
+     */
+    private final String separator;
+    /**
+     * The number of lines separating the sections.
+     */
+    private final int nSeparationLines;
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the file where to write the report
+     * @param separator the separator between the columns
+     * @param nSeparationLines the number of lines separating the sections
+     * @param nThreads the number of threads to use for the compression
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public GzipTextWriter(
+            File destinationFile,
+            String separator,
+            int nSeparationLines,
+            int nThreads
+    ) throws IOException {
+
+        exportFormat = ExportFormat.text;
+        this.separator = separator;
+        this.nSeparationLines = nSeparationLines;
+
+        writer = new BufferedWriter(
+                new OutputStreamWriter(
+                        new ParallelGzipOutputStream(destinationFile, nThreads),
+                        StandardCharsets.UTF_8
+                ),
+                BUFFER_SIZE
+        );
+    }
+
+    @Override
+    public void write(
+            String text,
+            WorkbookStyle textStyle
+    ) throws IOException {
+        writer.write(text);
+    }
+
+    @Override
+    public void writeMainTitle(
+            String text,
+            WorkbookStyle textStyle
+    ) throws IOException {
+
+        if (text != null) {
+
+            writer.write(text);
+            writer.newLine();
+
+        }
+    }
+
+    @Override
+    public void startNewSection(
+            String sectionTitle,
+            WorkbookStyle textStyle
+    ) throws IOException {
+
+        for (int i = 1; i <= nSeparationLines; i++) {
+            writer.newLine();
+        }
+
+        if (sectionTitle != null) {
+
+            writer.write(sectionTitle);
+            writer.newLine();
+
+        }
+    }
+
+    @Override
+    public void writeHeaderText(
+            String text,
+            WorkbookStyle textStyle
+    ) throws IOException {
+        writer.write(text);
+    }
+
+    @Override
+    public void addSeparator(
+            WorkbookStyle textStyle
+    ) throws IOException {
+        writer.write(separator);
+    }
+
+    @Override
+    public void newLine() throws IOException {
+        writer.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    @Override
+    public void increaseDepth() {
+        // Depth is not shown in text reports
+    }
+
+    @Override
+    public void decreseDepth() {
+        // Depth is not shown in text reports
+    }
+}
@@ -0,0 +1,866 @@
+package eu.isas.reporter.export.report;
+
+import com.compomics.util.experiment.biology.genes.GeneMaps;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.IdentificationMatch;
+import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.SpectrumMatchesIterator;
+import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.export.ExportScheme;
+import com.compomics.util.io.export.ExportWriter;
+import com.compomics.util.io.export.features.reporter.ReporterPeptideFeature;
+import com.compomics.util.io.export.features.reporter.ReporterProteinFeatures;
+import com.compomics.util.io.export.features.reporter.ReporterPsmFeatures;
+import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.quantification.spectrum_counting.SpectrumCountingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.preferences.ProjectDetails;
+import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.export.report.sections.ReporterPeptideSection;
+import eu.isas.reporter.export.report.sections.ReporterProteinSection;
+import eu.isas.reporter.export.report.sections.ReporterPsmSection;
+import eu.isas.reporter.settings.ReporterSettings;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.math.MathException;
+
+/**
+ * Writes several reports in a single traversal of the matches. The sections of
+ * every report are written in order. When reports reach a protein, peptide or
+ * PSM section, the matches of this level are iterated once, and every batch of
+ * matches is written to the sections of all the reports waiting at this level
+ * in parallel, one thread per report. The next batch is read while the
+ * previous one is written. The reports are identical to the ones written
+ * separately using ReporterExportFactory.writeExport.
+ *
+ * @author Marc Vaudel
+ */
+public class MultiReportExporter {
+
+    /**
+     * The number of matches read at a time.
+     */
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * The experiment name.
+     */
+    private final String experiment;
+    /**
+     * The project details.
+     */
+    private final ProjectDetails projectDetails;
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The identification features generator.
+     */
+    private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The sequence provider.
+     */
+    private final SequenceProvider sequenceProvider;
+    /**
+     * The spectrum provider.
+     */
+    private final SpectrumProvider spectrumProvider;
+    /**
+     * The protein details provider.
+     */
+    private final ProteinDetailsProvider proteinDetailsProvider;
+    /**
+     * The gene maps.
+     */
+    private final GeneMaps geneMaps;
+    /**
+     * The quantification features generator.
+     */
+    private final QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The reporter ion quantification.
+     */
+    private final ReporterIonQuantification reporterIonQuantification;
+    /**
+     * The reporter settings.
+     */
+    private final ReporterSettings reporterSettings;
+    /**
+     * The identification parameters.
+     */
+    private final IdentificationParameters identificationParameters;
+    /**
+     * The number of surrounding amino acids to export.
+     */
+    private final int nSurroundingAA;
+    /**
+     * The spectrum counting parameters.
+     */
+    private final SpectrumCountingParameters spectrumCountingParameters;
+
+    /**
+     * Constructor.
+     *
+     * @param experiment the experiment corresponding to this project
+     * @param projectDetails the project details
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param geneMaps the gene maps
+     * @param quantificationFeaturesGenerator the object generating the
+     * quantification features
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param identificationParameters the identification parameters
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param spectrumCountingParameters the spectrum counting preferences
+     */
+    public MultiReportExporter(
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            GeneMaps geneMaps,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            IdentificationParameters identificationParameters,
+            int nSurroundingAA,
+            SpectrumCountingParameters spectrumCountingParameters
+    ) {
+
+        this.experiment = experiment;
+        this.projectDetails = projectDetails;
+        this.identification = identification;
+        this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+        this.sequenceProvider = sequenceProvider;
+        this.spectrumProvider = spectrumProvider;
+        this.proteinDetailsProvider = proteinDetailsProvider;
+        this.geneMaps = geneMaps;
+        this.quantificationFeaturesGenerator = quantificationFeaturesGenerator;
+        this.reporterIonQuantification = reporterIonQuantification;
+        this.reporterSettings = reporterSettings;
+        this.identificationParameters = identificationParameters;
+        this.nSurroundingAA = nSurroundingAA;
+        this.spectrumCountingParameters = spectrumCountingParameters;
+
+    }
+
+    /**
+     * Writes the reports of the given schemes to the given files.
+     *
+     * @param exportSchemes the schemes of the reports
+     * @param destinationFiles the destination files, in the same order as the
+     * schemes
+     * @param exportFormat the export format
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an exception occurred while estimating the theoretical coverage of a
+     * protein
+     */
+    public void writeExports(
+            ArrayList<ExportScheme> exportSchemes,
+            ArrayList<File> destinationFiles,
+            ExportFormat exportFormat,
+            WaitingHandler waitingHandler
+    ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
+
+        if (exportSchemes.size() != destinationFiles.size()) {
+            throw new IllegalArgumentException(
+                    exportSchemes.size()
+                    + " export schemes provided for "
+                    + destinationFiles.size()
+                    + " destination files."
+            );
+        }
+
+        ArrayList<Report> reports = new ArrayList<>(exportSchemes.size());
+
+        for (int i = 0; i < exportSchemes.size(); i++) {
+
+            ExportScheme exportScheme = exportSchemes.get(i);
+            ExportWriter exportWriter = ReporterExportFactory.getExportWriter(
+                    exportFormat,
+                    destinationFiles.get(i),
+                    exportScheme.getSeparator(),
+                    exportScheme.getSeparationLines()
+            );
+
+            exportWriter.writeMainTitle(exportScheme.getMainTitle());
+
+            reports.add(new Report(exportScheme, exportWriter));
+
+        }
+
+        while (true) {
+
+            // write the sections until the next match section
+            for (Report report : reports) {
+
+                writeSections(report, waitingHandler);
+
+            }
+
+            // iterate the matches of the highest level waited for
+            QuantificationLevel level = null;
+
+            for (Report report : reports) {
+
+                if (report.level != null && (level == null || report.level.index > level.index)) {
+
+                    level = report.level;
+
+                }
+            }
+
+            if (level == null) {
+                break;
+            }
+
+            ArrayList<Report> waitingReports = new ArrayList<>(reports.size());
+
+            for (Report report : reports) {
+
+                if (report.level == level) {
+
+                    waitingReports.add(report);
+
+                }
+            }
+
+            writeMatches(level, waitingReports, waitingHandler);
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+
+            for (Report report : waitingReports) {
+
+                report.endMatchSection();
+
+            }
+        }
+
+        for (Report report : reports) {
+
+            report.exportWriter.close();
+
+        }
+    }
+
+    /**
+     * Writes the sections of the given report until a protein, peptide or PSM
+     * section is reached or all sections are written. The match section
+     * reached, if any, is started.
+     *
+     * @param report the report
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an exception occurred while estimating the theoretical coverage of a
+     * protein
+     */
+    private void writeSections(
+            Report report,
+            WaitingHandler waitingHandler
+    ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
+
+        while (report.level == null && report.sectionIndex < report.sections.size()) {
+
+            String sectionName = report.sections.get(report.sectionIndex);
+
+            if (report.exportScheme.isIncludeSectionTitles()) {
+                report.exportWriter.startNewSection(sectionName);
+            } else {
+                report.exportWriter.startNewSection();
+            }
+
+            QuantificationLevel level = getLevel(sectionName);
+
+            if (level != null) {
+
+                report.startMatchSection(sectionName, level);
+
+            } else {
+
+                ReporterExportFactory.writeSection(
+                        report.exportScheme,
+                        sectionName,
+                        report.exportWriter,
+                        experiment,
+                        projectDetails,
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        spectrumProvider,
+                        proteinDetailsProvider,
+                        geneMaps,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        reporterSettings,
+                        identificationParameters,
+                        null,
+                        null,
+                        nSurroundingAA,
+                        spectrumCountingParameters,
+                        waitingHandler
+                );
+
+                report.sectionIndex++;
+
+            }
+        }
+    }
+
+    /**
+     * Iterates the matches of the given level once and writes them to the
+     * given reports.
+     *
+     * @param level the level of the matches
+     * @param reports the reports waiting for the matches of this level
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an exception occurred while estimating the theoretical coverage of a
+     * protein
+     */
+    private void writeMatches(
+            QuantificationLevel level,
+            ArrayList<Report> reports,
+            WaitingHandler waitingHandler
+    ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
+
+        MatchIterator matchIterator;
+        int nMatches;
+
+        switch (level) {
+
+            case protein:
+
+                long[] proteinKeys = identification.getProteinIdentification().stream()
+                        .mapToLong(Long::longValue)
+                        .toArray();
+                ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(proteinKeys, waitingHandler);
+                matchIterator = proteinMatchesIterator::next;
+                nMatches = proteinKeys.length;
+                break;
+
+            case peptide:
+
+                long[] peptideKeys = identification.getPeptideIdentification().stream()
+                        .mapToLong(Long::longValue)
+                        .toArray();
+                PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(peptideKeys, waitingHandler);
+                matchIterator = peptideMatchesIterator::next;
+                nMatches = peptideKeys.length;
+                break;
+
+            case psm:
+
+                long[] psmKeys = null;
+                SpectrumMatchesIterator spectrumMatchesIterator = identification.getSpectrumMatchesIterator(psmKeys, waitingHandler);
+                matchIterator = spectrumMatchesIterator::next;
+                nMatches = identification.getNumber(SpectrumMatch.class);
+                break;
+
+            default:
+
+                throw new UnsupportedOperationException(
+                        "Export of "
+                        + level.name
+                        + " matches not implemented."
+                );
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setWaitingText("Exporting. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nMatches);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(reports.size());
+
+        try {
+
+            ArrayList<IdentificationMatch> batch = readBatch(matchIterator, waitingHandler);
+
+            while (!batch.isEmpty()) {
+
+                ArrayList<IdentificationMatch> currentBatch = batch;
+                ArrayList<Future<?>> futures = new ArrayList<>(reports.size());
+
+                for (Report report : reports) {
+
+                    futures.add(
+                            pool.submit(() -> {
+
+                                report.writeMatches(currentBatch, waitingHandler);
+                                return null;
+
+                            })
+                    );
+                }
+
+                batch = readBatch(matchIterator, waitingHandler);
+
+                for (Future<?> future : futures) {
+
+                    getResult(future);
+
+                }
+            }
+
+        } finally {
+
+            pool.shutdown();
+
+        }
+    }
+
+    /**
+     * Reads the next batch of matches. Returns an empty batch when all matches
+     * were read or the process was canceled.
+     *
+     * @param matchIterator the iterator of the matches
+     * @param waitingHandler the waiting handler
+     *
+     * @return the next batch of matches
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading the matches
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     */
+    private static ArrayList<IdentificationMatch> readBatch(
+            MatchIterator matchIterator,
+            WaitingHandler waitingHandler
+    ) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<IdentificationMatch> batch = new ArrayList<>(BATCH_SIZE);
+        IdentificationMatch match;
+
+        while (batch.size() < BATCH_SIZE && (match = matchIterator.next()) != null) {
+
+            if (waitingHandler != null) {
+
+                if (waitingHandler.isRunCanceled()) {
+                    return new ArrayList<>(0);
+                }
+
+                waitingHandler.increaseSecondaryProgressCounter();
+
+            }
+
+            batch.add(match);
+
+        }
+
+        return batch;
+
+    }
+
+    /**
+     * Waits for the given future and rethrows the exception thrown by the
+     * task, if any.
+     *
+     * @param future the future
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an exception occurred while estimating the theoretical coverage of a
+     * protein
+     */
+    private static void getResult(
+            Future<?> future
+    ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
+
+        try {
+
+            future.get();
+
+        } catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof MathException) {
+                throw (MathException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause);
+
+        }
+    }
+
+    /**
+     * Returns the level of the matches exported in the given section, null if
+     * the section does not export matches.
+     *
+     * @param sectionName the name of the section
+     *
+     * @return the level of the matches exported in the given section
+     */
+    private static QuantificationLevel getLevel(
+            String sectionName
+    ) {
+
+        switch (sectionName) {
+
+            case ReporterProteinFeatures.type:
+                return QuantificationLevel.protein;
+
+            case ReporterPeptideFeature.type:
+                return QuantificationLevel.peptide;
+
+            case ReporterPsmFeatures.type:
+                return QuantificationLevel.psm;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Iterator of the matches of a level.
+     */
+    private interface MatchIterator {
+
+        /**
+         * Returns the next match, null if all matches were iterated.
+         *
+         * @return the next match
+         *
+         * @throws IOException exception thrown whenever an IO exception
+         * occurred while reading the matches
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred while interacting with the database
+         * @throws SQLException exception thrown whenever an SQL exception
+         * occurred while interacting with the database
+         * @throws ClassNotFoundException exception thrown whenever an
+         * exception occurred while deserializing an object
+         */
+        public IdentificationMatch next() throws IOException, SQLException, ClassNotFoundException, InterruptedException;
+    }
+
+    /**
+     * Writer of a match in a match section.
+     */
+    private interface MatchWriter {
+
+        /**
+         * Writes the line of the given match.
+         *
+         * @param match the match
+         * @param line the index of the line
+         * @param waitingHandler the waiting handler
+         *
+         * @return a boolean indicating whether the line was written
+         *
+         * @throws IOException exception thrown whenever an IO exception
+         * occurred while reading or writing to a file
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred while interacting with the database
+         * @throws SQLException exception thrown whenever an SQL exception
+         * occurred while interacting with the database
+         * @throws ClassNotFoundException exception thrown whenever an
+         * exception occurred while deserializing an object
+         * @throws org.apache.commons.math.MathException exception thrown
+         * whenever an exception occurred while transforming the ratios
+         */
+        public boolean write(
+                IdentificationMatch match,
+                int line,
+                WaitingHandler waitingHandler
+        ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException;
+    }
+
+    /**
+     * The state of a report being written.
+     */
+    private class Report {
+
+        /**
+         * The scheme of the report.
+         */
+        private final ExportScheme exportScheme;
+        /**
+         * The writer of the report.
+         */
+        private final ExportWriter exportWriter;
+        /**
+         * The sections of the report.
+         */
+        private final ArrayList<String> sections;
+        /**
+         * The index of the current section.
+         */
+        private int sectionIndex = 0;
+        /**
+         * The level of the matches of the current section, null if the
+         * current section does not export matches.
+         */
+        private QuantificationLevel level = null;
+        /**
+         * The writer of the matches of the current section.
+         */
+        private MatchWriter matchWriter = null;
+        /**
+         * The index of the next line of the current section.
+         */
+        private int line = 1;
+
+        /**
+         * Constructor.
+         *
+         * @param exportScheme the scheme of the report
+         * @param exportWriter the writer of the report
+         */
+        public Report(
+                ExportScheme exportScheme,
+                ExportWriter exportWriter
+        ) {
+
+            this.exportScheme = exportScheme;
+            this.exportWriter = exportWriter;
+            this.sections = new ArrayList<>(exportScheme.getSections());
+
+        }
+
+        /**
+         * Starts the given match section.
+         *
+         * @param sectionName the name of the section
+         * @param level the level of the matches of the section
+         *
+         * @throws IOException exception thrown whenever an IO exception
+         * occurred while writing to the file
+         */
+        public void startMatchSection(
+                String sectionName,
+                QuantificationLevel level
+        ) throws IOException {
+
+            boolean validatedOnly = exportScheme.isValidatedOnly();
+            boolean decoys = exportScheme.isIncludeDecoy();
+
+            switch (level) {
+
+                case protein:
+
+                    ReporterProteinSection proteinSection = new ReporterProteinSection(
+                            exportScheme.getExportFeatures(sectionName),
+                            exportScheme.isIndexes(),
+                            exportScheme.isHeader(),
+                            exportWriter
+                    );
+                    proteinSection.startSection(reporterIonQuantification);
+
+                    matchWriter = (match, matchLine, waitingHandler) -> proteinSection.writeMatch(
+                            (ProteinMatch) match,
+                            matchLine,
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            spectrumProvider,
+                            proteinDetailsProvider,
+                            geneMaps,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            identificationParameters,
+                            nSurroundingAA,
+                            validatedOnly,
+                            decoys,
+                            waitingHandler
+                    );
+                    break;
+
+                case peptide:
+
+                    ReporterPeptideSection peptideSection = new ReporterPeptideSection(
+                            exportScheme.getExportFeatures(sectionName),
+                            exportScheme.isIndexes(),
+                            exportScheme.isHeader(),
+                            exportWriter
+                    );
+                    peptideSection.startSection(reporterIonQuantification);
+
+                    matchWriter = (match, matchLine, waitingHandler) -> peptideSection.writeMatch(
+                            (PeptideMatch) match,
+                            matchLine,
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            spectrumProvider,
+                            proteinDetailsProvider,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            identificationParameters,
+                            nSurroundingAA,
+                            "",
+                            validatedOnly,
+                            decoys,
+                            waitingHandler
+                    );
+                    break;
+
+                case psm:
+
+                    ReporterPsmSection psmSection = new ReporterPsmSection(
+                            exportScheme.getExportFeatures(sectionName),
+                            exportScheme.isIndexes(),
+                            exportScheme.isHeader(),
+                            exportWriter
+                    );
+                    psmSection.startSection(reporterIonQuantification);
+
+                    matchWriter = (match, matchLine, waitingHandler) -> psmSection.writeMatch(
+                            (SpectrumMatch) match,
+                            matchLine,
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            spectrumProvider,
+                            proteinDetailsProvider,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            identificationParameters,
+                            "",
+                            nSurroundingAA,
+                            validatedOnly,
+                            decoys,
+                            waitingHandler
+                    );
+                    break;
+
+                default:
+
+                    throw new UnsupportedOperationException(
+                            "Section "
+                            + sectionName
+                            + " not implemented."
+                    );
+            }
+
+            this.level = level;
+            line = 1;
+
+        }
+
+        /**
+         * Writes the given matches in the current match section.
+         *
+         * @param matches the matches
+         * @param waitingHandler the waiting handler
+         *
+         * @throws IOException exception thrown whenever an IO exception
+         * occurred while reading or writing to a file
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred while interacting with the database
+         * @throws SQLException exception thrown whenever an SQL exception
+         * occurred while interacting with the database
+         * @throws ClassNotFoundException exception thrown whenever an
+         * exception occurred while deserializing an object
+         * @throws org.apache.commons.math.MathException exception thrown
+         * whenever an exception occurred while transforming the ratios
+         */
+        public void writeMatches(
+                ArrayList<IdentificationMatch> matches,
+                WaitingHandler waitingHandler
+        ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
+
+            for (IdentificationMatch match : matches) {
+
+                if (matchWriter.write(match, line, waitingHandler)) {
+
+                    line++;
+
+                }
+            }
+        }
+
+        /**
+         * Ends the current match section.
+         */
+        public void endMatchSection() {
+
+            level = null;
+            matchWriter = null;
+            sectionIndex++;
+
+        }
+    }
+}
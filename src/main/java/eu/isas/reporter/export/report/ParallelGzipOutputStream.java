@@ -0,0 +1,321 @@
+package eu.isas.reporter.export.report;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream compressing the data in the gzip format using multiple
+ * threads. The data is cut in blocks compressed in parallel as independent
+ * gzip members, written to the file in order. The resulting file is a
+ * standard multi-member gzip file, readable by gzip and by GZIPInputStream.
+ * The number of blocks in memory is bounded, the writing thread waits for the
+ * oldest block when the limit is reached. Instances are not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * The default size of a block in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    /**
+     * The stream where to write the compressed data.
+     */
+    private final OutputStream outputStream;
+    /**
+     * The size of a block in bytes.
+     */
+    private final int blockSize;
+    /**
+     * The compression level.
+     */
+    private final int compressionLevel;
+    /**
+     * The maximal number of blocks being compressed.
+     */
+    private final int maxPendingBlocks;
+    /**
+     * The thread pool compressing the blocks.
+     */
+    private final ExecutorService pool;
+    /**
+     * The blocks being compressed in the order of the file.
+     */
+    private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    /**
+     * The block being filled.
+     */
+    private byte[] block;
+    /**
+     * The number of bytes in the block being filled.
+     */
+    private int blockLength = 0;
+    /**
+     * Boolean indicating whether the stream is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor using the default block size and compression level.
+     *
+     * @param destinationFile the file where to write the compressed data
+     * @param nThreads the number of threads to use for the compression
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public ParallelGzipOutputStream(
+            File destinationFile,
+            int nThreads
+    ) throws IOException {
+        this(new FileOutputStream(destinationFile), nThreads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream the stream where to write the compressed data
+     * @param nThreads the number of threads to use for the compression
+     * @param blockSize the size of a block in bytes
+     * @param compressionLevel the compression level, see Deflater
+     */
+    public ParallelGzipOutputStream(
+            OutputStream outputStream,
+            int nThreads,
+            int blockSize,
+            int compressionLevel
+    ) {
+
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("At least one thread needed for the compression, " + nThreads + " provided.");
+        }
+
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive, " + blockSize + " provided.");
+        }
+
+        this.outputStream = outputStream;
+        this.blockSize = blockSize;
+        this.compressionLevel = compressionLevel;
+        this.maxPendingBlocks = 2 * nThreads;
+        this.pool = Executors.newFixedThreadPool(nThreads);
+
+        block = new byte[blockSize];
+
+    }
+
+    @Override
+    public void write(
+            int b
+    ) throws IOException {
+
+        ensureOpen();
+
+        block[blockLength++] = (byte) b;
+
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(
+            byte[] bytes,
+            int offset,
+            int length
+    ) throws IOException {
+
+        ensureOpen();
+
+        while (length > 0) {
+
+            int toCopy = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, toCopy);
+            blockLength += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compresses the data written so far and writes it to the file. Note that
+     * the data is compressed in a new block, flushing often thus deteriorates
+     * the compression.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or writing the data
+     */
+    @Override
+    public void flush() throws IOException {
+
+        ensureOpen();
+
+        if (blockLength > 0) {
+            submitBlock();
+        }
+
+        while (!pendingBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+
+        outputStream.flush();
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        try {
+
+            if (blockLength > 0) {
+                submitBlock();
+            }
+
+            while (!pendingBlocks.isEmpty()) {
+                writeOldestBlock();
+            }
+
+        } finally {
+
+            closed = true;
+            pool.shutdownNow();
+            outputStream.close();
+
+        }
+    }
+
+    /**
+     * Submits the current block for compression and starts a new block. If
+     * the maximal number of blocks is being compressed, waits for the oldest
+     * block and writes it first.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or writing a block
+     */
+    private void submitBlock() throws IOException {
+
+        if (pendingBlocks.size() >= maxPendingBlocks) {
+            writeOldestBlock();
+        }
+
+        byte[] data = block;
+        int length = blockLength;
+
+        pendingBlocks.add(pool.submit(() -> compress(data, length)));
+
+        block = new byte[blockSize];
+        blockLength = 0;
+
+    }
+
+    /**
+     * Waits for the compression of the oldest block and writes it to the
+     * file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or writing the block
+     */
+    private void writeOldestBlock() throws IOException {
+
+        Future<byte[]> future = pendingBlocks.poll();
+
+        try {
+
+            outputStream.write(future.get());
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing the data.", e);
+
+        } catch (ExecutionException e) {
+
+            throw new IOException("An error occurred while compressing the data.", e.getCause());
+
+        }
+    }
+
+    /**
+     * Compresses the given data in a gzip member.
+     *
+     * @param data the data
+     * @param length the number of bytes to compress
+     *
+     * @return the compressed data
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing the data
+     */
+    private byte[] compress(
+            byte[] data,
+            int length
+    ) throws IOException {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+
+        try (GZIPOutputStream gzipOutputStream = new LeveledGzipOutputStream(compressed, compressionLevel)) {
+
+            gzipOutputStream.write(data, 0, length);
+
+        }
+
+        return compressed.toByteArray();
+
+    }
+
+    /**
+     * Throws an exception if the stream is closed.
+     *
+     * @throws IOException exception thrown if the stream is closed
+     */
+    private void ensureOpen() throws IOException {
+
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+    }
+
+    /**
+     * Gzip output stream with a given compression level.
+     */
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        /**
+         * Constructor.
+         *
+         * @param outputStream the stream where to write the compressed data
+         * @param compressionLevel the compression level, see Deflater
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the header
+         */
+        public LeveledGzipOutputStream(
+                OutputStream outputStream,
+                int compressionLevel
+        ) throws IOException {
+
+            super(outputStream);
+            def.setLevel(compressionLevel);
+
+        }
+    }
+}
@@ -39,7 +39,10 @@ import eu.isas.peptideshaker.export.sections.PsSpectrumCountingSection;
 import eu.isas.peptideshaker.export.sections.PsValidationSection;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.scoring.PSMaps;
+import eu.isas.reporter.calculation.LabellingEfficiency;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.export.columnar.QuantificationColumnarExport;
 import com.compomics.util.io.export.features.reporter.ReporterPeptideFeature;
 import com.compomics.util.io.export.features.reporter.ReporterProteinFeatures;
 import com.compomics.util.io.export.features.reporter.ReporterPsmFeatures;
@@ -47,12 +50,14 @@ import eu.isas.peptideshaker.utils.ExportFactoryMarshaller;
 import eu.isas.reporter.export.report.sections.ReporterPeptideSection;
 import eu.isas.reporter.export.report.sections.ReporterProteinSection;
 import eu.isas.reporter.export.report.sections.ReporterPsmSection;
+import eu.isas.reporter.export.report.sections.ReporterPtmSiteSection;
 import eu.isas.reporter.settings.ReporterSettings;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import org.apache.commons.math.MathException;
@@ -81,6 +86,14 @@ public class ReporterExportFactory implements ExportFactory {
      * Sorted list of the implemented reports.
      */
     private ArrayList<String> implementedReports = null;
+    /**
+     * The extension of the Excel files streamed to the disk.
+     */
+    public static final String STREAMING_EXCEL_EXTENSION = ".xlsx";
+    /**
+     * The extension of the text files compressed in the gzip format.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
 
     /**
      * Constructor.
@@ -93,7 +106,7 @@ public class ReporterExportFactory implements ExportFactory {
      *
      * @return the instance of the factory
      */
-    public static ReporterExportFactory getInstance() {
+    public static synchronized ReporterExportFactory getInstance() {
 
         if (instance == null) {
 
@@ -344,20 +357,13 @@ public class ReporterExportFactory implements ExportFactory {
             WaitingHandler waitingHandler
     ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
 
-        ExportWriter exportWriter = ExportWriter.getExportWriter(
+        ExportWriter exportWriter = getExportWriter(
                 exportFormat,
                 destinationFile,
                 exportScheme.getSeparator(),
-                exportScheme.getSeparationLines(),
-                false
+                exportScheme.getSeparationLines()
         );
 
-        if (exportWriter instanceof ExcelWriter) {
-            ExcelWriter excelWriter = (ExcelWriter) exportWriter;
-            PsExportStyle exportStyle = PsExportStyle.getReportStyle(excelWriter);
-            excelWriter.setWorkbookStyle(exportStyle);
-        }
-
         exportWriter.writeMainTitle(exportScheme.getMainTitle());
 
         for (String sectionName : exportScheme.getSections()) {
@@ -368,217 +374,551 @@ public class ReporterExportFactory implements ExportFactory {
                 exportWriter.startNewSection();
             }
 
-            switch (sectionName) {
-
-                case PsAnnotationFeature.type:
-
-                    PsAnnotationSection psAnnotationSection = new PsAnnotationSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    psAnnotationSection.writeSection(identificationParameters.getAnnotationParameters(), waitingHandler);
-
-                    break;
-
-                case PsInputFilterFeature.type:
-
-                    PsInputFilterSection psInputFilterSection = new PsInputFilterSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    psInputFilterSection.writeSection(identificationParameters.getPeptideAssumptionFilter(), waitingHandler);
-
-                    break;
-
-                case ReporterPeptideFeature.type:
-
-                    ReporterPeptideSection reporterPeptideSection = new ReporterPeptideSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    reporterPeptideSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            spectrumProvider,
-                            proteinDetailsProvider,
-                            quantificationFeaturesGenerator,
-                            reporterIonQuantification,
-                            reporterSettings,
-                            identificationParameters,
-                            peptideKeys,
-                            nSurroundingAA,
-                            "",
-                            exportScheme.isValidatedOnly(),
-                            exportScheme.isIncludeDecoy(),
-                            waitingHandler
-                    );
-
-                    break;
-
-                case PsProjectFeature.type:
-
-                    PsProjectSection psProjectSection = new PsProjectSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    psProjectSection.writeSection(
-                            experiment,
-                            projectDetails,
-                            waitingHandler
-                    );
-
-                    break;
-
-                case ReporterProteinFeatures.type:
-
-                    ReporterProteinSection reporterProteinSection = new ReporterProteinSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    reporterProteinSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            spectrumProvider,
-                            proteinDetailsProvider,
-                            geneMaps,
-                            quantificationFeaturesGenerator,
-                            reporterIonQuantification,
-                            reporterSettings,
-                            identificationParameters,
-                            psmKeys,
-                            nSurroundingAA,
-                            exportScheme.isValidatedOnly(),
-                            exportScheme.isIncludeDecoy(),
-                            waitingHandler
-                    );
-
-                    break;
-
-                case ReporterPsmFeatures.type:
-
-                    ReporterPsmSection reporterPsmSection = new ReporterPsmSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    reporterPsmSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            spectrumProvider,
-                            proteinDetailsProvider,
-                            quantificationFeaturesGenerator,
-                            reporterIonQuantification,
-                            reporterSettings,
-                            identificationParameters,
-                            psmKeys,
-                            "",
-                            nSurroundingAA,
-                            exportScheme.isValidatedOnly(),
-                            exportScheme.isIncludeDecoy(),
-                            waitingHandler
-                    );
-
-                    break;
-
-                case PsPtmScoringFeature.type:
-
-                    PsPtmScoringSection psPtmScoringSection = new PsPtmScoringSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    psPtmScoringSection.writeSection(
-                            identificationParameters.getModificationLocalizationParameters(),
-                            waitingHandler
-                    );
-
-                    break;
-
-                case PsSearchFeature.type:
-
-                    PsSearchParametersSection psSearchParametersSection = new PsSearchParametersSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    psSearchParametersSection.writeSection(
-                            identificationParameters.getSearchParameters(),
-                            projectDetails,
-                            waitingHandler
-                    );
-
-                    break;
-
-                case PsSpectrumCountingFeature.type:
-
-                    PsSpectrumCountingSection psSpectrumCountingSection = new PsSpectrumCountingSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    psSpectrumCountingSection.writeSection(
-                            spectrumCountingParameters,
-                            waitingHandler
-                    );
-
-                    break;
-
-                case PsValidationFeature.type:
-
-                    PsValidationSection psValidationSection = new PsValidationSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-
-                    PSMaps psMaps = new PSMaps();
-                    psMaps = (PSMaps) identification.getUrParam(psMaps);
-                    psValidationSection.writeSection(psMaps, identificationParameters, waitingHandler);
-
-                    break;
-
-                default:
-
-                    throw new UnsupportedOperationException(
-                            "Section "
-                            + sectionName
-                            + " not implemented."
-                    );
+            writeSection(
+                    exportScheme,
+                    sectionName,
+                    exportWriter,
+                    experiment,
+                    projectDetails,
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    spectrumProvider,
+                    proteinDetailsProvider,
+                    geneMaps,
+                    quantificationFeaturesGenerator,
+                    reporterIonQuantification,
+                    reporterSettings,
+                    identificationParameters,
+                    peptideKeys,
+                    psmKeys,
+                    nSurroundingAA,
+                    spectrumCountingParameters,
+                    waitingHandler
+            );
+        }
+
+        exportWriter.close();
+    }
+
+    /**
+     * Writes a section of an export. The section title must be written
+     * already.
+     *
+     * @param exportScheme the scheme of the export
+     * @param sectionName the name of the section
+     * @param exportWriter the writer of the export
+     * @param experiment the experiment corresponding to this project
+     * (mandatory for the Project section)
+     * @param projectDetails the project details (mandatory for the Project
+     * section)
+     * @param identification the identification (mandatory for the Protein,
+     * Peptide and PSM sections)
+     * @param identificationFeaturesGenerator the identification features
+     * generator (mandatory for the Protein, Peptide and PSM sections)
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param geneMaps the gene maps
+     * @param quantificationFeaturesGenerator the object generating the
+     * quantification features
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param identificationParameters the identification parameters
+     * @param peptideKeys the peptide keys to export (mandatory for the Peptide
+     * section)
+     * @param psmKeys the keys of the PSMs to export (mandatory for the PSM
+     * section)
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * (mandatory for the Peptide section)
+     * @param spectrumCountingParameters the spectrum counting preferences
+     * (mandatory for the spectrum counting section)
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an exception occurred while estimating the theoretical coverage of a
+     * protein
+     */
+    static void writeSection(
+            ExportScheme exportScheme,
+            String sectionName,
+            ExportWriter exportWriter,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            GeneMaps geneMaps,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            IdentificationParameters identificationParameters,
+            long[] peptideKeys,
+            long[] psmKeys,
+            int nSurroundingAA,
+            SpectrumCountingParameters spectrumCountingParameters,
+            WaitingHandler waitingHandler
+    ) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MathException {
+
+        switch (sectionName) {
+
+            case PsAnnotationFeature.type:
+
+                PsAnnotationSection psAnnotationSection = new PsAnnotationSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                psAnnotationSection.writeSection(identificationParameters.getAnnotationParameters(), waitingHandler);
+
+                break;
+
+            case PsInputFilterFeature.type:
+
+                PsInputFilterSection psInputFilterSection = new PsInputFilterSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                psInputFilterSection.writeSection(identificationParameters.getPeptideAssumptionFilter(), waitingHandler);
+
+                break;
+
+            case ReporterPeptideFeature.type:
+
+                ReporterPeptideSection reporterPeptideSection = new ReporterPeptideSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                reporterPeptideSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        spectrumProvider,
+                        proteinDetailsProvider,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        reporterSettings,
+                        identificationParameters,
+                        peptideKeys,
+                        nSurroundingAA,
+                        "",
+                        exportScheme.isValidatedOnly(),
+                        exportScheme.isIncludeDecoy(),
+                        waitingHandler
+                );
+
+                break;
+
+            case PsProjectFeature.type:
+
+                PsProjectSection psProjectSection = new PsProjectSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                psProjectSection.writeSection(
+                        experiment,
+                        projectDetails,
+                        waitingHandler
+                );
+
+                break;
+
+            case ReporterProteinFeatures.type:
+
+                ReporterProteinSection reporterProteinSection = new ReporterProteinSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                reporterProteinSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        spectrumProvider,
+                        proteinDetailsProvider,
+                        geneMaps,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        reporterSettings,
+                        identificationParameters,
+                        psmKeys,
+                        nSurroundingAA,
+                        exportScheme.isValidatedOnly(),
+                        exportScheme.isIncludeDecoy(),
+                        waitingHandler
+                );
+
+                break;
+
+            case ReporterPsmFeatures.type:
+
+                ReporterPsmSection reporterPsmSection = new ReporterPsmSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                reporterPsmSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        spectrumProvider,
+                        proteinDetailsProvider,
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        reporterSettings,
+                        identificationParameters,
+                        psmKeys,
+                        "",
+                        nSurroundingAA,
+                        exportScheme.isValidatedOnly(),
+                        exportScheme.isIncludeDecoy(),
+                        waitingHandler
+                );
+
+                break;
+
+            case PsPtmScoringFeature.type:
+
+                PsPtmScoringSection psPtmScoringSection = new PsPtmScoringSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                psPtmScoringSection.writeSection(
+                        identificationParameters.getModificationLocalizationParameters(),
+                        waitingHandler
+                );
+
+                break;
+
+            case PsSearchFeature.type:
+
+                PsSearchParametersSection psSearchParametersSection = new PsSearchParametersSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                psSearchParametersSection.writeSection(
+                        identificationParameters.getSearchParameters(),
+                        projectDetails,
+                        waitingHandler
+                );
+
+                break;
+
+            case PsSpectrumCountingFeature.type:
+
+                PsSpectrumCountingSection psSpectrumCountingSection = new PsSpectrumCountingSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                psSpectrumCountingSection.writeSection(
+                        spectrumCountingParameters,
+                        waitingHandler
+                );
+
+                break;
+
+            case PsValidationFeature.type:
+
+                PsValidationSection psValidationSection = new PsValidationSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+
+                PSMaps psMaps = new PSMaps();
+                psMaps = (PSMaps) identification.getUrParam(psMaps);
+                psValidationSection.writeSection(psMaps, identificationParameters, waitingHandler);
+
+                break;
+
+            default:
+
+                throw new UnsupportedOperationException(
+                        "Section "
+                        + sectionName
+                        + " not implemented."
+                );
+
+        }
+    }
+
+    /**
+     * Writes the PTM site level quantification report.
+     *
+     * @param destinationFile the destination file
+     * @param exportFormat the export format
+     * @param identification the identification
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the object generating the
+     * quantification features
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param ptmNames the names of the PTMs to export
+     * @param proteinKeys the keys of the proteins to export, all proteins if
+     * null
+     * @param validatedOnly whether only validated proteins should be exported
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void writePtmSiteExport(
+            File destinationFile,
+            ExportFormat exportFormat,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            Collection<String> ptmNames,
+            long[] proteinKeys,
+            boolean validatedOnly,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        ExportWriter exportWriter = getExportWriter(
+                exportFormat,
+                destinationFile,
+                "\t",
+                0
+        );
+
+        exportWriter.startNewSection();
+
+        ReporterPtmSiteSection reporterPtmSiteSection = new ReporterPtmSiteSection(
+                false,
+                true,
+                exportWriter
+        );
+
+        reporterPtmSiteSection.writeSection(
+                identification,
+                sequenceProvider,
+                spectrumProvider,
+                quantificationFeaturesGenerator,
+                reporterIonQuantification,
+                ptmNames,
+                proteinKeys,
+                validatedOnly,
+                false,
+                waitingHandler
+        );
+
+        exportWriter.close();
+    }
+
+    /**
+     * Writes the quantification of a level in the columnar binary format, see
+     * ColumnarWriter for the description of the format. Decoy matches are not
+     * exported.
+     *
+     * @param destinationFile the destination file
+     * @param quantificationLevel the level to export, PSM, peptide, or protein
+     * @param identification the identification
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param validatedOnly whether only validated matches should be exported
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void writeColumnarExport(
+            File destinationFile,
+            QuantificationLevel quantificationLevel,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            boolean validatedOnly,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        QuantificationColumnarExport columnarExport = new QuantificationColumnarExport(
+                identification,
+                sequenceProvider,
+                spectrumProvider,
+                quantificationFeaturesGenerator,
+                reporterIonQuantification
+        );
+
+        columnarExport.writeExport(
+                destinationFile,
+                quantificationLevel,
+                validatedOnly,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Writes the labelling efficiency report: for every modification the
+     * number of modified and possible sites, the efficiency, and its 95%
+     * confidence interval.
+     *
+     * @param destinationFile the destination file
+     * @param exportFormat the export format
+     * @param labellingEfficiency the labelling efficiency
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void writeLabellingEfficiencyExport(
+            File destinationFile,
+            ExportFormat exportFormat,
+            LabellingEfficiency labellingEfficiency
+    ) throws IOException {
+
+        ExportWriter exportWriter = getExportWriter(
+                exportFormat,
+                destinationFile,
+                "\t",
+                0
+        );
+
+        exportWriter.startNewSection();
+
+        String[] header = {"Modification", "#Modified", "#Possible", "Efficiency", "Lower 95% CI", "Upper 95% CI", "#Peptides", "Sampled"};
+
+        for (int i = 0; i < header.length; i++) {
 
+            if (i > 0) {
+                exportWriter.addSeparator();
             }
 
+            exportWriter.writeHeaderText(header[i]);
+
+        }
+
+        exportWriter.newLine();
+
+        for (String modification : labellingEfficiency.getModifications()) {
+
+            double[] confidenceInterval = labellingEfficiency.getConfidenceInterval(modification);
+
+            exportWriter.write(modification);
+            exportWriter.addSeparator();
+            exportWriter.write(labellingEfficiency.getnModified(modification) + "");
+            exportWriter.addSeparator();
+            exportWriter.write(labellingEfficiency.getnPossible(modification) + "");
+            exportWriter.addSeparator();
+            exportWriter.write(labellingEfficiency.getEfficiency(modification) + "");
+            exportWriter.addSeparator();
+            exportWriter.write(confidenceInterval[0] + "");
+            exportWriter.addSeparator();
+            exportWriter.write(confidenceInterval[1] + "");
+            exportWriter.addSeparator();
+            exportWriter.write(labellingEfficiency.getnPeptides() + "");
+            exportWriter.addSeparator();
+            exportWriter.write(labellingEfficiency.isSampled() ? "1" : "0");
+            exportWriter.newLine();
+
         }
 
         exportWriter.close();
     }
 
+    /**
+     * Returns the export writer to use for the given format and file. Excel
+     * exports to an xlsx file are streamed to the disk, allowing large
+     * reports to be exported with a bounded memory footprint. Other Excel
+     * exports are written in an xls workbook kept in memory. Text exports to a
+     * gz file are compressed in parallel using all available processors.
+     *
+     * @param exportFormat the export format
+     * @param destinationFile the destination file
+     * @param separator the separator to use for text exports
+     * @param nSeparationLines the number of lines separating sections in
+     * text exports
+     *
+     * @return the export writer to use
+     *
+     * @throws IOException if an IOException occurs
+     */
+    public static ExportWriter getExportWriter(
+            ExportFormat exportFormat,
+            File destinationFile,
+            String separator,
+            int nSeparationLines
+    ) throws IOException {
+
+        if (exportFormat == ExportFormat.excel
+                && destinationFile.getName().toLowerCase().endsWith(STREAMING_EXCEL_EXTENSION)) {
+
+            return new StreamingExcelWriter(destinationFile);
+
+        }
+
+        if (exportFormat == ExportFormat.text
+                && destinationFile.getName().toLowerCase().endsWith(GZIP_EXTENSION)) {
+
+            return new GzipTextWriter(
+                    destinationFile,
+                    separator,
+                    nSeparationLines,
+                    Runtime.getRuntime().availableProcessors()
+            );
+
+        }
+
+        ExportWriter exportWriter = ExportWriter.getExportWriter(
+                exportFormat,
+                destinationFile,
+                separator,
+                nSeparationLines,
+                false
+        );
+
+        if (exportWriter instanceof ExcelWriter) {
+            ExcelWriter excelWriter = (ExcelWriter) exportWriter;
+            PsExportStyle exportStyle = PsExportStyle.getReportStyle(excelWriter);
+            excelWriter.setWorkbookStyle(exportStyle);
+        }
+
+        return exportWriter;
+    }
+
     /**
      * Writes the documentation related to a report.
      *
@@ -692,6 +1032,43 @@ public class ReporterExportFactory implements ExportFactory {
         return experiment + "_" + exportName + ".txt";
     }
 
+    /**
+     * Returns the default file name for the export of the PTM site report
+     * based on the project details.
+     *
+     * @param experiment the experiment of the project
+     *
+     * @return the default file name for the export
+     */
+    public static String getDefaultPtmSiteReportName(String experiment) {
+        return getDefaultReportName(experiment, "PTM_Sites");
+    }
+
+    /**
+     * Returns the default file name for the export of the labelling
+     * efficiency report based on the project details.
+     *
+     * @param experiment the experiment of the project
+     *
+     * @return the default file name for the export
+     */
+    public static String getDefaultLabellingEfficiencyReportName(String experiment) {
+        return getDefaultReportName(experiment, "Labelling_Efficiency");
+    }
+
+    /**
+     * Returns the default file name for the columnar export of a
+     * quantification level.
+     *
+     * @param experiment the experiment of the project
+     * @param quantificationLevel the quantification level
+     *
+     * @return the default file name for the export
+     */
+    public static String getDefaultColumnarReportName(String experiment, QuantificationLevel quantificationLevel) {
+        return experiment + "_" + quantificationLevel.name().toUpperCase() + QuantificationColumnarExport.EXTENSION;
+    }
+
     /**
      * Returns the default file name for the export of the documentation of the
      * given report export type.
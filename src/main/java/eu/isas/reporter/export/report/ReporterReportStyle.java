@@ -3,7 +3,6 @@ package eu.isas.reporter.export.report;
 import com.compomics.util.io.export.WorkbookStyle;
 import com.compomics.util.io.export.writers.ExcelWriter;
 import java.util.HashMap;
-import org.apache.poi.hssf.usermodel.HSSFPalette;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.BorderStyle;
@@ -12,6 +11,9 @@ import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFColor;
 
 /**
  * This class contains the style for a Reporter Excel export.
@@ -24,7 +26,7 @@ public class ReporterReportStyle implements WorkbookStyle {
     /**
      * Workbook.
      */
-    private HSSFWorkbook workbook;
+    private Workbook workbook;
     /**
      * The implemented cell styles.
      */
@@ -40,7 +42,7 @@ public class ReporterReportStyle implements WorkbookStyle {
     /**
      * Map of the different styles available.
      */
-    private static HashMap<HSSFWorkbook, ReporterReportStyle> styles = new HashMap<>();
+    private static HashMap<Workbook, ReporterReportStyle> styles = new HashMap<>();
 
     /**
      * Returns the style attached to that writer or create a new one if none
@@ -51,26 +53,48 @@ public class ReporterReportStyle implements WorkbookStyle {
      * @return the style attached to that writer
      */
     public static ReporterReportStyle getReportStyle(ExcelWriter excelWriter) {
+        return getReportStyle(excelWriter.getWorkbook());
+    }
+
+    /**
+     * Returns the style attached to that workbook or create a new one if none
+     * found. The cell styles are created once per workbook and shared by all
+     * cells.
+     *
+     * @param workbook the workbook of interest
+     *
+     * @return the style attached to that workbook
+     */
+    public static synchronized ReporterReportStyle getReportStyle(Workbook workbook) {
 
-        HSSFWorkbook workbook = excelWriter.getWorkbook();
         ReporterReportStyle result = styles.get(workbook);
 
         if (result == null) {
-            result = new ReporterReportStyle(excelWriter);
+            result = new ReporterReportStyle(workbook);
             styles.put(workbook, result);
         }
 
         return result;
     }
 
+    /**
+     * Removes the style attached to the given workbook, to be called when the
+     * workbook is closed.
+     *
+     * @param workbook the workbook of interest
+     */
+    public static synchronized void removeReportStyle(Workbook workbook) {
+        styles.remove(workbook);
+    }
+
     /**
      * Constructor.
      *
-     * @param excelWriter the excel writer for this style
+     * @param workbook the workbook for this style
      */
-    private ReporterReportStyle(ExcelWriter excelWriter) { //@TODO: possible to make a generic style workbook independent?
+    private ReporterReportStyle(Workbook workbook) {
 
-        this.workbook = excelWriter.getWorkbook();
+        this.workbook = workbook;
         setCellStyles();
 
     }
@@ -103,16 +127,14 @@ public class ReporterReportStyle implements WorkbookStyle {
         standardHeader.setBorderRight(BorderStyle.THIN);
         standardHeader.setAlignment(HorizontalAlignment.CENTER);
         standardHeader.setVerticalAlignment(VerticalAlignment.CENTER);
-        standardHeader.setFillForegroundColor(HSSFColor.HSSFColorPredefined.PALE_BLUE.getIndex());
-        standardHeader.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Change PALE_BLUE to actually pale blue
-        HSSFPalette palette = workbook.getCustomPalette();
-        palette.setColorAtIndex(HSSFColor.HSSFColorPredefined.PALE_BLUE.getIndex(),
+        setFillColor(
+                standardHeader,
+                HSSFColor.HSSFColorPredefined.PALE_BLUE,
                 (byte) 250,
                 (byte) 200,
                 (byte) 200
         );
+        standardHeader.setFillPattern(FillPatternType.SOLID_FOREGROUND);
 
         // Hierarchical headers
         hierarchicalHeaders.put(0, standardHeader);
@@ -125,10 +147,10 @@ public class ReporterReportStyle implements WorkbookStyle {
         subHeader.setBorderRight(BorderStyle.THIN);
         subHeader.setAlignment(HorizontalAlignment.CENTER);
         subHeader.setVerticalAlignment(VerticalAlignment.CENTER);
-        subHeader.setFillForegroundColor(HSSFColor.HSSFColorPredefined.GREY_50_PERCENT.getIndex());
 
-        palette.setColorAtIndex(
-                HSSFColor.HSSFColorPredefined.GREY_50_PERCENT.getIndex(),
+        setFillColor(
+                subHeader,
+                HSSFColor.HSSFColorPredefined.GREY_50_PERCENT,
                 (byte) 250,
                 (byte) 220,
                 (byte) 220
@@ -145,10 +167,10 @@ public class ReporterReportStyle implements WorkbookStyle {
         subHeader.setBorderRight(BorderStyle.THIN);
         subHeader.setAlignment(HorizontalAlignment.CENTER);
         subHeader.setVerticalAlignment(VerticalAlignment.CENTER);
-        subHeader.setFillForegroundColor(HSSFColor.HSSFColorPredefined.GREY_40_PERCENT.getIndex());
 
-        palette.setColorAtIndex(
-                HSSFColor.HSSFColorPredefined.GREY_40_PERCENT.getIndex(),
+        setFillColor(
+                subHeader,
+                HSSFColor.HSSFColorPredefined.GREY_40_PERCENT,
                 (byte) 250,
                 (byte) 230,
                 (byte) 230
@@ -165,10 +187,10 @@ public class ReporterReportStyle implements WorkbookStyle {
         subHeader.setBorderRight(BorderStyle.THIN);
         subHeader.setAlignment(HorizontalAlignment.CENTER);
         subHeader.setVerticalAlignment(VerticalAlignment.CENTER);
-        subHeader.setFillForegroundColor(HSSFColor.HSSFColorPredefined.GREY_25_PERCENT.getIndex());
 
-        palette.setColorAtIndex(
-                HSSFColor.HSSFColorPredefined.GREY_25_PERCENT.getIndex(),
+        setFillColor(
+                subHeader,
+                HSSFColor.HSSFColorPredefined.GREY_25_PERCENT,
                 (byte) 250,
                 (byte) 240,
                 (byte) 240
@@ -182,6 +204,39 @@ public class ReporterReportStyle implements WorkbookStyle {
 
     }
 
+    /**
+     * Sets the fill color of a cell style. For xls workbooks the color of the
+     * given index of the palette is changed, for xlsx workbooks the color is
+     * set directly.
+     *
+     * @param cellStyle the cell style
+     * @param color the palette color to use for xls workbooks
+     * @param red the red component
+     * @param green the green component
+     * @param blue the blue component
+     */
+    private void setFillColor(
+            CellStyle cellStyle,
+            HSSFColor.HSSFColorPredefined color,
+            byte red,
+            byte green,
+            byte blue
+    ) {
+
+        if (cellStyle instanceof XSSFCellStyle) {
+
+            ((XSSFCellStyle) cellStyle).setFillForegroundColor(new XSSFColor(new byte[]{red, green, blue}, null));
+
+        } else {
+
+            cellStyle.setFillForegroundColor(color.getIndex());
+
+            if (workbook instanceof HSSFWorkbook) {
+                ((HSSFWorkbook) workbook).getCustomPalette().setColorAtIndex(color.getIndex(), red, green, blue);
+            }
+        }
+    }
+
     @Override
     public CellStyle getMainTitleStyle() {
         return mainTitle;
@@ -0,0 +1,349 @@
+package eu.isas.reporter.export.report;
+
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.export.ExportWriter;
+import com.compomics.util.io.export.WorkbookStyle;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Export writer streaming an Excel workbook (xlsx) to the disk. Only a window
+ * of rows is kept in memory, the other rows are flushed to temporary files.
+ * When a sheet reaches the maximal number of rows, the section is continued
+ * on a new sheet starting with the last header of the section.
+ *
+ * @author Marc Vaudel
+ */
+public class StreamingExcelWriter extends ExportWriter {
+
+    /**
+     * The default number of rows kept in memory.
+     */
+    public static final int DEFAULT_ROW_WINDOW = 1000;
+    /**
+     * The maximal number of characters in a sheet name.
+     */
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
+    /**
+     * The workbook.
+     */
+    private final SXSSFWorkbook workbook;
+    /**
+     * The file where to write the workbook.
+     */
+    private final File destinationFile;
+    /**
+     * The maximal number of rows per sheet.
+     */
+    private final int maxRows;
+    /**
+     * The style of the workbook, the cell styles are shared by all cells.
+     */
+    private final ReporterReportStyle reportStyle;
+    /**
+     * The names of the sheets already used.
+     */
+    private final HashSet<String> sheetNames = new HashSet<>();
+    /**
+     * The current sheet.
+     */
+    private Sheet sheet = null;
+    /**
+     * The title of the current section.
+     */
+    private String sectionTitle = null;
+    /**
+     * The number of sheets used by the current section.
+     */
+    private int nSectionSheets = 0;
+    /**
+     * The number of sections.
+     */
+    private int nSections = 0;
+    /**
+     * The current row, null if not created yet.
+     */
+    private Row currentRow = null;
+    /**
+     * The index of the current row.
+     */
+    private int rowNumber = 0;
+    /**
+     * The index of the current cell.
+     */
+    private int cellNumber = 0;
+    /**
+     * The current hierarchical depth.
+     */
+    private int depth = 0;
+    /**
+     * The header cells of the current row, null if the row is not a header.
+     */
+    private ArrayList<String> currentHeader = null;
+    /**
+     * The last header of the section, repeated at the top of new sheets.
+     */
+    private ArrayList<String> sectionHeader = null;
+    /**
+     * The depth of the last header of the section.
+     */
+    private int sectionHeaderDepth = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the file where to write the workbook
+     */
+    public StreamingExcelWriter(
+            File destinationFile
+    ) {
+        this(destinationFile, DEFAULT_ROW_WINDOW, SpreadsheetVersion.EXCEL2007.getMaxRows());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the file where to write the workbook
+     * @param rowWindow the number of rows to keep in memory
+     * @param maxRows the maximal number of rows per sheet
+     */
+    public StreamingExcelWriter(
+            File destinationFile,
+            int rowWindow,
+            int maxRows
+    ) {
+
+        exportFormat = ExportFormat.excel;
+        this.destinationFile = destinationFile;
+        this.maxRows = Math.min(maxRows, SpreadsheetVersion.EXCEL2007.getMaxRows());
+
+        workbook = new SXSSFWorkbook(rowWindow);
+        workbook.setCompressTempFiles(true);
+        reportStyle = ReporterReportStyle.getReportStyle(workbook);
+
+    }
+
+    @Override
+    public void write(
+            String text,
+            WorkbookStyle textStyle
+    ) throws IOException {
+
+        writeCell(text, reportStyle.getStandardStyle(depth));
+        currentHeader = null;
+
+    }
+
+    @Override
+    public void writeMainTitle(
+            String text,
+            WorkbookStyle textStyle
+    ) throws IOException {
+
+        if (sheet == null) {
+            startNewSection();
+        }
+
+        writeCell(text, reportStyle.getMainTitleStyle());
+        currentRow.setHeightInPoints(reportStyle.getMainTitleRowHeight());
+        newLine();
+
+    }
+
+    @Override
+    public void startNewSection(
+            String sectionTitle,
+            WorkbookStyle textStyle
+    ) throws IOException {
+
+        nSections++;
+        this.sectionTitle = sectionTitle == null ? "Section " + nSections : sectionTitle;
+        nSectionSheets = 0;
+        sectionHeader = null;
+
+        createSheet();
+
+    }
+
+    @Override
+    public void writeHeaderText(
+            String text,
+            WorkbookStyle textStyle
+    ) throws IOException {
+
+        if (currentRow == null || currentHeader != null) {
+
+            if (currentHeader == null) {
+                currentHeader = new ArrayList<>();
+            }
+
+            while (currentHeader.size() < cellNumber) {
+                currentHeader.add(null);
+            }
+
+            currentHeader.add(text);
+
+        }
+
+        writeCell(text, reportStyle.getHeaderStyle(depth));
+
+    }
+
+    @Override
+    public void addSeparator(
+            WorkbookStyle textStyle
+    ) throws IOException {
+        cellNumber++;
+    }
+
+    @Override
+    public void newLine() throws IOException {
+
+        if (currentHeader != null) {
+            sectionHeader = currentHeader;
+            sectionHeaderDepth = depth;
+            currentHeader = null;
+        }
+
+        currentRow = null;
+        cellNumber = 0;
+        rowNumber++;
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (sheet == null) {
+            startNewSection();
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(destinationFile)) {
+
+            workbook.write(outputStream);
+
+        } finally {
+
+            workbook.dispose();
+            workbook.close();
+            ReporterReportStyle.removeReportStyle(workbook);
+
+        }
+    }
+
+    @Override
+    public void increaseDepth() {
+        depth++;
+    }
+
+    @Override
+    public void decreseDepth() {
+        depth--;
+    }
+
+    /**
+     * Writes the given text in the current cell with the given style. A new
+     * sheet is started if the current sheet is full.
+     *
+     * @param text the text to write
+     * @param cellStyle the style of the cell
+     */
+    private void writeCell(
+            String text,
+            CellStyle cellStyle
+    ) {
+
+        if (sheet == null) {
+            nSections++;
+            sectionTitle = "Section " + nSections;
+            createSheet();
+        }
+
+        if (currentRow == null) {
+
+            if (rowNumber >= maxRows) {
+                rollOver();
+            }
+
+            currentRow = sheet.createRow(rowNumber);
+
+        }
+
+        Cell cell = currentRow.createCell(cellNumber);
+        cell.setCellValue(text);
+        cell.setCellStyle(cellStyle);
+
+    }
+
+    /**
+     * Continues the current section on a new sheet and repeats the last header
+     * of the section at its top.
+     */
+    private void rollOver() {
+
+        createSheet();
+
+        if (sectionHeader != null) {
+
+            Row headerRow = sheet.createRow(rowNumber);
+            CellStyle headerStyle = reportStyle.getHeaderStyle(sectionHeaderDepth);
+
+            for (int i = 0; i < sectionHeader.size(); i++) {
+
+                String text = sectionHeader.get(i);
+
+                if (text != null) {
+
+                    Cell cell = headerRow.createCell(i);
+                    cell.setCellValue(text);
+                    cell.setCellStyle(headerStyle);
+
+                }
+            }
+
+            rowNumber++;
+
+        }
+    }
+
+    /**
+     * Creates a new sheet for the current section.
+     */
+    private void createSheet() {
+
+        nSectionSheets++;
+
+        String suffix = nSectionSheets == 1 ? "" : " (" + nSectionSheets + ")";
+        String baseName = WorkbookUtil.createSafeSheetName(sectionTitle);
+
+        if (baseName.length() + suffix.length() > MAX_SHEET_NAME_LENGTH) {
+            baseName = baseName.substring(0, MAX_SHEET_NAME_LENGTH - suffix.length());
+        }
+
+        String sheetName = baseName + suffix;
+
+        for (int i = 2; !sheetNames.add(sheetName); i++) {
+
+            String counter = " " + i;
+            sheetName = baseName.substring(0, Math.min(baseName.length(), MAX_SHEET_NAME_LENGTH - suffix.length() - counter.length()))
+                    + counter + suffix;
+
+        }
+
+        sheet = workbook.createSheet(sheetName);
+        currentRow = null;
+        rowNumber = 0;
+        cellNumber = 0;
+
+    }
+}
@@ -0,0 +1,205 @@
+package eu.isas.reporter.export.report.sections;
+
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.io.export.features.ReporterExportFeature;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The quantification columns of a report section compiled once from the
+ * selected export features: one column per feature, or one column per sample
+ * for channel dependent features. The values of a row are evaluated from
+ * details resolved once per match and numbers are formatted using a reused
+ * buffer.
+ *
+ * @author Marc Vaudel
+ *
+ * @param <F> the type of quantification feature
+ */
+public class QuantificationExportPlan<F extends ReporterExportFeature> {
+
+    /**
+     * The reporter ion quantification the plan was compiled for.
+     */
+    private final ReporterIonQuantification reporterIonQuantification;
+    /**
+     * The feature of every column.
+     */
+    private final ArrayList<F> columnFeatures = new ArrayList<>();
+    /**
+     * The sample index of every column, empty for features without channels.
+     */
+    private final ArrayList<String> columnSampleIndexes = new ArrayList<>();
+    /**
+     * The features in the plan.
+     */
+    private final ArrayList<F> features;
+    /**
+     * Buffer used to format numbers.
+     */
+    private final StringBuilder buffer = new StringBuilder(32);
+
+    /**
+     * Constructor.
+     *
+     * @param features the quantification features to export
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     */
+    public QuantificationExportPlan(
+            ArrayList<F> features,
+            ReporterIonQuantification reporterIonQuantification
+    ) {
+
+        this.features = features;
+        this.reporterIonQuantification = reporterIonQuantification;
+
+        ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
+        Collections.sort(sampleIndexes);
+
+        for (F feature : features) {
+
+            if (feature.hasChannels()) {
+
+                for (String sampleIndex : sampleIndexes) {
+
+                    columnFeatures.add(feature);
+                    columnSampleIndexes.add(sampleIndex);
+
+                }
+
+            } else {
+
+                columnFeatures.add(feature);
+                columnSampleIndexes.add("");
+
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the plan was compiled for the given reporter ion
+     * quantification.
+     *
+     * @param reporterIonQuantification the reporter ion quantification
+     *
+     * @return a boolean indicating whether the plan was compiled for the given
+     * reporter ion quantification
+     */
+    public boolean isCompiledFor(
+            ReporterIonQuantification reporterIonQuantification
+    ) {
+        return this.reporterIonQuantification == reporterIonQuantification;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the number of columns
+     */
+    public int size() {
+        return columnFeatures.size();
+    }
+
+    /**
+     * Returns the feature of the given column.
+     *
+     * @param column the index of the column
+     *
+     * @return the feature of the given column
+     */
+    public F getFeature(
+            int column
+    ) {
+        return columnFeatures.get(column);
+    }
+
+    /**
+     * Returns the sample index of the given column, empty for features without
+     * channels.
+     *
+     * @param column the index of the column
+     *
+     * @return the sample index of the given column
+     */
+    public String getSampleIndex(
+            int column
+    ) {
+        return columnSampleIndexes.get(column);
+    }
+
+    /**
+     * Indicates whether the plan contains any of the given features.
+     *
+     * @param features the features
+     *
+     * @return a boolean indicating whether the plan contains any of the given
+     * features
+     */
+    @SafeVarargs
+    public final boolean containsAny(
+            F... features
+    ) {
+
+        for (F feature : features) {
+
+            if (this.features.contains(feature)) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the buffer used to format numbers.
+     *
+     * @return the buffer used to format numbers
+     */
+    public StringBuilder getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Formats a number using the given buffer. Null values are returned as an
+     * empty string.
+     *
+     * @param buffer the buffer
+     * @param value the value
+     *
+     * @return the formatted value
+     */
+    public static String format(
+            StringBuilder buffer,
+            Double value
+    ) {
+
+        if (value == null) {
+            return "";
+        }
+
+        return format(buffer, value.doubleValue());
+
+    }
+
+    /**
+     * Formats a number using the given buffer.
+     *
+     * @param buffer the buffer
+     * @param value the value
+     *
+     * @return the formatted value
+     */
+    public static String format(
+            StringBuilder buffer,
+            double value
+    ) {
+
+        buffer.setLength(0);
+        buffer.append(value);
+
+        return buffer.toString();
+
+    }
+}
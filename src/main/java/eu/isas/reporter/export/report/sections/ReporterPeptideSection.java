@@ -9,7 +9,7 @@ import com.compomics.util.experiment.identification.utils.PeptideUtils;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
-import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
@@ -49,7 +49,11 @@ public class ReporterPeptideSection {
     /**
      * The peptide quantification features to export.
      */
-    private ArrayList<ReporterExportFeature> quantificationFeatures = new ArrayList<>();
+    private ArrayList<ReporterPeptideFeature> quantificationFeatures = new ArrayList<>();
+    /**
+     * The quantification columns compiled from the quantification features.
+     */
+    private QuantificationExportPlan<ReporterPeptideFeature> quantificationPlan = null;
     /**
      * The PSM subsection if needed.
      */
@@ -93,7 +97,7 @@ public class ReporterPeptideSection {
             if (exportFeature instanceof PsPeptideFeature) {
                 identificationFeatures.add(exportFeature);
             } else if (exportFeature instanceof ReporterPeptideFeature) {
-                quantificationFeatures.add((ReporterExportFeature) exportFeature);
+                quantificationFeatures.add((ReporterPeptideFeature) exportFeature);
             } else if (exportFeature instanceof ReporterPsmFeatures
                     || exportFeature instanceof PsPsmFeature
                     || exportFeature instanceof PsIdentificationAlgorithmMatchesFeature
@@ -128,6 +132,29 @@ public class ReporterPeptideSection {
 
     }
 
+    /**
+     * Starts the section: writes the header if needed and compiles the
+     * quantification columns.
+     *
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     */
+    public void startSection(
+            ReporterIonQuantification reporterIonQuantification
+    ) throws IOException {
+
+        if (header) {
+            writeHeader(reporterIonQuantification);
+        }
+
+        if (quantificationPlan == null || !quantificationPlan.isCompiledFor(reporterIonQuantification)) {
+            quantificationPlan = new QuantificationExportPlan<>(quantificationFeatures, reporterIonQuantification);
+        }
+    }
+
     /**
      * Writes the desired section.
      *
@@ -184,9 +211,7 @@ public class ReporterPeptideSection {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        if (header) {
-            writeHeader(reporterIonQuantification);
-        }
+        startSection(reporterIonQuantification);
 
         if (keys == null) {
             keys = identification.getPeptideIdentification().stream()
@@ -195,9 +220,6 @@ public class ReporterPeptideSection {
         }
 
         int line = 1;
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<>(1);
-        parameters.add(psParameter);
 
         if (waitingHandler != null) {
             waitingHandler.setWaitingText("Exporting. Please Wait...");
@@ -217,148 +239,204 @@ public class ReporterPeptideSection {
                 waitingHandler.increaseSecondaryProgressCounter();
             }
 
-            long peptideKey = peptideMatch.getKey();
-
-            psParameter = (PSParameter) identification.getPeptideMatch(peptideKey).getUrParam(psParameter);
+            if (writeMatch(
+                    peptideMatch,
+                    line,
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    spectrumProvider,
+                    proteinDetailsProvider,
+                    quantificationFeaturesGenerator,
+                    reporterIonQuantification,
+                    reporterSettings,
+                    identificationParameters,
+                    nSurroundingAA,
+                    linePrefix,
+                    validatedOnly,
+                    decoys,
+                    waitingHandler
+            )) {
+                line++;
+            }
+        }
+    }
 
-            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+    /**
+     * Writes the line of the given peptide match, followed by its PSM
+     * subsection if any. Nothing is written if the match is filtered out.
+     *
+     * @param peptideMatch the peptide match
+     * @param line the index of the line
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator containing the quantification information
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param identificationParameters the identification parameters
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param linePrefix the line prefix to use
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return a boolean indicating whether the line was written
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while transforming the ratios
+     */
+    public boolean writeMatch(
+            PeptideMatch peptideMatch,
+            int line,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            IdentificationParameters identificationParameters,
+            int nSurroundingAA,
+            String linePrefix,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MathException {
 
-                peptideMatch = identification.getPeptideMatch(peptideKey);
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
 
-                if (decoys || !PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
+        PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
 
-                    boolean first = true;
+        if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                    if (indexes) {
+            if (decoys || !PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
 
-                        if (linePrefix != null) {
-                            writer.write(linePrefix);
-                        }
+                boolean first = true;
 
-                        writer.write(line + "");
-                        first = false;
+                if (indexes) {
 
+                    if (linePrefix != null) {
+                        writer.write(linePrefix);
                     }
 
-                    for (ExportFeature exportFeature : identificationFeatures) {
-
-                        if (!first) {
-                            writer.addSeparator();
-                        } else {
-                            first = false;
-                        }
+                    writer.write(line + "");
+                    first = false;
 
-                        PsPeptideFeature peptideFeature = (PsPeptideFeature) exportFeature;
+                }
 
-                        writer.write(PsPeptideSection.getfeature(
-                                identification,
-                                identificationFeaturesGenerator,
-                                sequenceProvider,
-                                proteinDetailsProvider,
-                                identificationParameters,
-                                nSurroundingAA,
-                                linePrefix,
-                                peptideMatch,
-                                peptideFeature,
-                                validatedOnly,
-                                decoys,
-                                waitingHandler)
-                        );
+                for (ExportFeature exportFeature : identificationFeatures) {
 
+                    if (!first) {
+                        writer.addSeparator();
+                    } else {
+                        first = false;
                     }
 
-                    ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
-                    Collections.sort(sampleIndexes);
+                    PsPeptideFeature peptideFeature = (PsPeptideFeature) exportFeature;
+
+                    writer.write(PsPeptideSection.getfeature(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            identificationParameters,
+                            nSurroundingAA,
+                            linePrefix,
+                            peptideMatch,
+                            peptideFeature,
+                            validatedOnly,
+                            decoys,
+                            waitingHandler)
+                    );
 
-                    for (ExportFeature exportFeature : quantificationFeatures) {
-
-                        ReporterPeptideFeature peptideFeature = (ReporterPeptideFeature) exportFeature;
-
-                        if (peptideFeature.hasChannels()) {
-
-                            for (String sampleIndex : sampleIndexes) {
+                }
 
-                                if (!first) {
-                                    writer.addSeparator();
-                                } else {
-                                    first = false;
-                                }
+                PeptideQuantificationDetails quantificationDetails = quantificationPlan.size() > 0
+                        ? quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+                                spectrumProvider,
+                                peptideMatch,
+                                waitingHandler
+                        )
+                        : null;
 
-                                writer.write(
-                                        getFeature(
-                                                spectrumProvider,
-                                                quantificationFeaturesGenerator,
-                                                reporterIonQuantification,
-                                                peptideMatch,
-                                                peptideFeature,
-                                                sampleIndex,
-                                                waitingHandler
-                                        ),
-                                        reporterStyle
-                                );
-                            }
-                        } else {
+                for (int column = 0; column < quantificationPlan.size(); column++) {
 
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-
-                            writer.write(
-                                    getFeature(
-                                            spectrumProvider,
-                                            quantificationFeaturesGenerator,
-                                            reporterIonQuantification,
-                                            peptideMatch,
-                                            peptideFeature,
-                                            "",
-                                            waitingHandler
-                                    ),
-                                    reporterStyle
-                            );
-                        }
+                    if (!first) {
+                        writer.addSeparator();
+                    } else {
+                        first = false;
                     }
 
-                    if (psmSection != null) {
-
-                        writer.newLine();
-                        String psmSectionPrefix = "";
+                    writer.write(
+                            getFeature(
+                                    quantificationDetails,
+                                    normalizationFactors,
+                                    quantificationPlan.getFeature(column),
+                                    quantificationPlan.getSampleIndex(column),
+                                    quantificationPlan.getBuffer()
+                            ),
+                            reporterStyle
+                    );
+                }
 
-                        if (linePrefix != null) {
-                            psmSectionPrefix += linePrefix;
-                        }
+                if (psmSection != null) {
 
-                        psmSectionPrefix += line + ".";
-                        writer.increaseDepth();
+                    writer.newLine();
+                    String psmSectionPrefix = "";
 
-                        psmSection.writeSection(
-                                identification,
-                                identificationFeaturesGenerator,
-                                sequenceProvider,
-                                spectrumProvider,
-                                proteinDetailsProvider,
-                                quantificationFeaturesGenerator,
-                                reporterIonQuantification,
-                                reporterSettings,
-                                identificationParameters,
-                                peptideMatch.getSpectrumMatchesKeys(),
-                                psmSectionPrefix,
-                                nSurroundingAA,
-                                validatedOnly,
-                                decoys,
-                                null
-                        );
-
-                        writer.decreaseDepth();
+                    if (linePrefix != null) {
+                        psmSectionPrefix += linePrefix;
                     }
 
-                    line++;
-                    writer.newLine();
-
+                    psmSectionPrefix += line + ".";
+                    writer.increaseDepth();
+
+                    psmSection.writeSection(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            spectrumProvider,
+                            proteinDetailsProvider,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            identificationParameters,
+                            peptideMatch.getSpectrumMatchesKeys(),
+                            psmSectionPrefix,
+                            nSurroundingAA,
+                            validatedOnly,
+                            decoys,
+                            null
+                    );
+
+                    writer.decreaseDepth();
                 }
+
+                writer.newLine();
+
+                return true;
+
             }
         }
+
+        return false;
+
     }
 
     /**
@@ -398,28 +476,51 @@ public class ReporterPeptideSection {
             WaitingHandler waitingHandler
     ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        switch (peptideFeatures) {
-
-            case raw_ratio:
-
-                PeptideQuantificationDetails quantificationDetails
-                        = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
-                                spectrumProvider,
-                                peptideMatch,
-                                waitingHandler
-                        );
-
-                return quantificationDetails.getRawRatio(sampleIndex).toString();
-
-            case normalized_ratio:
-
-                quantificationDetails = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+        PeptideQuantificationDetails quantificationDetails
+                = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
                         spectrumProvider,
                         peptideMatch,
                         waitingHandler
                 );
 
-                return quantificationDetails.getRatio(sampleIndex, reporterIonQuantification.getNormalizationFactors()).toString();
+        return getFeature(
+                quantificationDetails,
+                reporterIonQuantification.getNormalizationFactors(),
+                peptideFeatures,
+                sampleIndex,
+                new StringBuilder()
+        );
+    }
+
+    /**
+     * Returns the report component corresponding to a feature at a given
+     * channel from the quantification details of the match.
+     *
+     * @param quantificationDetails the quantification details of the peptide
+     * @param normalizationFactors the normalization factors
+     * @param peptideFeatures the peptide feature to export
+     * @param sampleIndex the index of the sample in case the feature is channel
+     * dependent, ignored otherwise
+     * @param buffer the buffer to use to format numbers
+     *
+     * @return the report component corresponding to a feature at a given
+     * channel
+     */
+    public static String getFeature(
+            PeptideQuantificationDetails quantificationDetails,
+            NormalizationFactors normalizationFactors,
+            ReporterPeptideFeature peptideFeatures,
+            String sampleIndex,
+            StringBuilder buffer
+    ) {
+
+        switch (peptideFeatures) {
+
+            case raw_ratio:
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getRawRatio(sampleIndex));
+
+            case normalized_ratio:
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getRatio(sampleIndex, normalizationFactors));
 
             default:
                 return "Not implemented";
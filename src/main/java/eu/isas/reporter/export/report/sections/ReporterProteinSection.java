@@ -9,7 +9,7 @@ import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
-import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
@@ -51,7 +51,11 @@ public class ReporterProteinSection {
     /**
      * The protein quantification features to export.
      */
-    private ArrayList<ReporterExportFeature> quantificationFeatures = new ArrayList<>();
+    private ArrayList<ReporterProteinFeatures> quantificationFeatures = new ArrayList<>();
+    /**
+     * The quantification columns compiled from the quantification features.
+     */
+    private QuantificationExportPlan<ReporterProteinFeatures> quantificationPlan = null;
     /**
      * The peptide subsection if any.
      */
@@ -95,7 +99,7 @@ public class ReporterProteinSection {
         for (ExportFeature exportFeature : exportFeatures) {
 
             if (exportFeature instanceof ReporterProteinFeatures) {
-                quantificationFeatures.add((ReporterExportFeature) exportFeature);
+                quantificationFeatures.add((ReporterProteinFeatures) exportFeature);
             } else if (exportFeature instanceof ReporterPeptideFeature
                     || exportFeature instanceof ReporterPsmFeatures
                     || exportFeature instanceof PsPeptideFeature
@@ -127,6 +131,29 @@ public class ReporterProteinSection {
         }
     }
 
+    /**
+     * Starts the section: writes the header if needed and compiles the
+     * quantification columns.
+     *
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     */
+    public void startSection(
+            ReporterIonQuantification reporterIonQuantification
+    ) throws IOException {
+
+        if (header) {
+            writeHeader(reporterIonQuantification);
+        }
+
+        if (quantificationPlan == null || !quantificationPlan.isCompiledFor(reporterIonQuantification)) {
+            quantificationPlan = new QuantificationExportPlan<>(quantificationFeatures, reporterIonQuantification);
+        }
+    }
+
     /**
      * Writes the desired section.
      *
@@ -186,19 +213,15 @@ public class ReporterProteinSection {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        if (header) {
-            writeHeader(reporterIonQuantification);
-        }
+        startSection(reporterIonQuantification);
 
         if (keys == null) {
             keys = identification.getProteinIdentification().stream()
                     .mapToLong(Long::longValue)
                     .toArray();
         }
+
         int line = 1;
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<>(1);
-        parameters.add(psParameter);
 
         if (waitingHandler != null) {
             waitingHandler.setWaitingText("Exporting. Please Wait...");
@@ -218,135 +241,193 @@ public class ReporterProteinSection {
                 waitingHandler.increaseSecondaryProgressCounter();
             }
 
-            long proteinKey = proteinMatch.getKey();
-
-            if (decoys || !proteinMatch.isDecoy()) {
-
-                psParameter = (PSParameter) identification.getProteinMatch(proteinKey).getUrParam(psParameter);
-
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
-
-                    boolean first = true;
-
-                    if (indexes) {
-                        writer.write(line + "");
-                        first = false;
-                    }
-
-                    for (ExportFeature exportFeature : identificationFeatures) {
-
-                        if (!first) {
-                            writer.addSeparator();
-                        } else {
-                            first = false;
-                        }
-
-                        PsProteinFeature tempProteinFeatures = (PsProteinFeature) exportFeature;
-
-                        writer.write(
-                                PsProteinSection.getFeature(
-                                        identificationFeaturesGenerator,
-                                        sequenceProvider,
-                                        proteinDetailsProvider,
-                                        geneMaps,
-                                        identificationParameters,
-                                        nSurroundingAas,
-                                        proteinKey,
-                                        proteinMatch,
-                                        psParameter,
-                                        tempProteinFeatures,
-                                        waitingHandler
-                                )
-                        );
-                    }
-
-                    ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
-                    Collections.sort(sampleIndexes);
+            if (writeMatch(
+                    proteinMatch,
+                    line,
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    spectrumProvider,
+                    proteinDetailsProvider,
+                    geneMaps,
+                    quantificationFeaturesGenerator,
+                    reporterIonQuantification,
+                    reporterSettings,
+                    identificationParameters,
+                    nSurroundingAas,
+                    validatedOnly,
+                    decoys,
+                    waitingHandler
+            )) {
+                line++;
+            }
+        }
+    }
 
-                    for (ExportFeature exportFeature : quantificationFeatures) {
+    /**
+     * Writes the line of the given protein match, followed by its peptide
+     * subsection if any. Nothing is written if the match is filtered out.
+     *
+     * @param proteinMatch the protein match
+     * @param line the index of the line
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param geneMaps the gene maps
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator containing the quantification information
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param identificationParameters the identification parameters
+     * @param nSurroundingAas in case a peptide export is included with
+     * surrounding amino-acids, the number of surrounding amino acids to use
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return a boolean indicating whether the line was written
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while transforming the ratios
+     */
+    public boolean writeMatch(
+            ProteinMatch proteinMatch,
+            int line,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            GeneMaps geneMaps,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            IdentificationParameters identificationParameters,
+            int nSurroundingAas,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    )
+            throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MathException {
 
-                        ReporterProteinFeatures tempProteinFeatures = (ReporterProteinFeatures) exportFeature;
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        long proteinKey = proteinMatch.getKey();
 
-                        if (tempProteinFeatures.hasChannels()) {
+        if (decoys || !proteinMatch.isDecoy()) {
 
-                            for (String sampleIndex : sampleIndexes) {
+            PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
 
-                                if (!first) {
-                                    writer.addSeparator();
-                                } else {
-                                    first = false;
-                                }
+            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                                writer.write(
-                                        getFeature(
-                                                spectrumProvider,
-                                                quantificationFeaturesGenerator,
-                                                reporterIonQuantification,
-                                                proteinKey,
-                                                tempProteinFeatures,
-                                                sampleIndex,
-                                                waitingHandler
-                                        ),
-                                        reporterStyle
-                                );
-                            }
+                boolean first = true;
 
-                        } else {
+                if (indexes) {
+                    writer.write(line + "");
+                    first = false;
+                }
 
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-
-                            writer.write(
-                                    getFeature(
-                                            spectrumProvider,
-                                            quantificationFeaturesGenerator,
-                                            reporterIonQuantification,
-                                            proteinKey,
-                                            tempProteinFeatures,
-                                            "",
-                                            waitingHandler
-                                    ),
-                                    reporterStyle
-                            );
+                for (ExportFeature exportFeature : identificationFeatures) {
 
-                        }
+                    if (!first) {
+                        writer.addSeparator();
+                    } else {
+                        first = false;
                     }
 
-                    writer.newLine();
+                    PsProteinFeature tempProteinFeatures = (PsProteinFeature) exportFeature;
+
+                    writer.write(
+                            PsProteinSection.getFeature(
+                                    identificationFeaturesGenerator,
+                                    sequenceProvider,
+                                    proteinDetailsProvider,
+                                    geneMaps,
+                                    identificationParameters,
+                                    nSurroundingAas,
+                                    proteinKey,
+                                    proteinMatch,
+                                    psParameter,
+                                    tempProteinFeatures,
+                                    waitingHandler
+                            )
+                    );
+                }
 
-                    if (peptideSection != null) {
+                ProteinQuantificationDetails quantificationDetails = quantificationPlan.size() > 0
+                        ? quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
+                                spectrumProvider,
+                                proteinMatch,
+                                waitingHandler
+                        )
+                        : null;
 
-                        writer.increaseDepth();
+                for (int column = 0; column < quantificationPlan.size(); column++) {
 
-                        peptideSection.writeSection(
-                                identification,
-                                identificationFeaturesGenerator,
-                                sequenceProvider,
-                                spectrumProvider,
-                                proteinDetailsProvider,
-                                quantificationFeaturesGenerator,
-                                reporterIonQuantification,
-                                reporterSettings,
-                                identificationParameters,
-                                proteinMatch.getPeptideMatchesKeys(),
-                                nSurroundingAas,
-                                line + ".",
-                                validatedOnly,
-                                decoys,
-                                null
-                        );
-
-                        writer.decreaseDepth();
+                    if (!first) {
+                        writer.addSeparator();
+                    } else {
+                        first = false;
                     }
 
-                    line++;
+                    writer.write(
+                            getFeature(
+                                    quantificationDetails,
+                                    normalizationFactors,
+                                    quantificationPlan.getFeature(column),
+                                    quantificationPlan.getSampleIndex(column),
+                                    quantificationPlan.getBuffer()
+                            ),
+                            reporterStyle
+                    );
+                }
 
+                writer.newLine();
+
+                if (peptideSection != null) {
+
+                    writer.increaseDepth();
+
+                    peptideSection.writeSection(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            spectrumProvider,
+                            proteinDetailsProvider,
+                            quantificationFeaturesGenerator,
+                            reporterIonQuantification,
+                            reporterSettings,
+                            identificationParameters,
+                            proteinMatch.getPeptideMatchesKeys(),
+                            nSurroundingAas,
+                            line + ".",
+                            validatedOnly,
+                            decoys,
+                            null
+                    );
+
+                    writer.decreaseDepth();
                 }
+
+                return true;
+
             }
         }
+
+        return false;
+
     }
 
     /**
@@ -386,73 +467,63 @@ public class ReporterProteinSection {
             WaitingHandler waitingHandler
     ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        switch (proteinFeatures) {
-
-            case raw_ratio:
+        ProteinQuantificationDetails quantificationDetails
+                = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
+                        spectrumProvider,
+                        proteinKey,
+                        waitingHandler
+                );
 
-                ProteinQuantificationDetails quantificationDetails
-                        = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
-                                spectrumProvider,
-                                proteinKey,
-                                waitingHandler
-                        );
+        return getFeature(
+                quantificationDetails,
+                reporterIonQuantification.getNormalizationFactors(),
+                proteinFeatures,
+                sampleIndex,
+                new StringBuilder()
+        );
+    }
 
-                return quantificationDetails.getRawRatio(sampleIndex).toString();
+    /**
+     * Returns the report component corresponding to a feature at a given
+     * channel from the quantification details of the match.
+     *
+     * @param quantificationDetails the quantification details of the protein
+     * @param normalizationFactors the normalization factors
+     * @param proteinFeatures the protein feature to export
+     * @param sampleIndex the index of the sample in case the feature is channel
+     * dependent, ignored otherwise
+     * @param buffer the buffer to use to format numbers
+     *
+     * @return the report component corresponding to a feature at a given
+     * channel
+     */
+    public static String getFeature(
+            ProteinQuantificationDetails quantificationDetails,
+            NormalizationFactors normalizationFactors,
+            ReporterProteinFeatures proteinFeatures,
+            String sampleIndex,
+            StringBuilder buffer
+    ) {
 
-            case ratio:
+        switch (proteinFeatures) {
 
-                quantificationDetails
-                        = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
-                                spectrumProvider,
-                                proteinKey,
-                                waitingHandler
-                        );
+            case raw_ratio:
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getRawRatio(sampleIndex));
 
-                return quantificationDetails.getRatio(sampleIndex, reporterIonQuantification.getNormalizationFactors()).toString();
+            case ratio:
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getRatio(sampleIndex, normalizationFactors));
 
             case raw_unique_ratio:
-
-                quantificationDetails
-                        = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
-                                spectrumProvider,
-                                proteinKey,
-                                waitingHandler
-                        );
-
-                return quantificationDetails.getUniqueRawRatio(sampleIndex).toString();
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getUniqueRawRatio(sampleIndex));
 
             case unique_ratio:
-
-                quantificationDetails
-                        = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
-                                spectrumProvider,
-                                proteinKey,
-                                waitingHandler
-                        );
-
-                return quantificationDetails.getUniqueRatio(sampleIndex, reporterIonQuantification.getNormalizationFactors()).toString();
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getUniqueRatio(sampleIndex, normalizationFactors));
 
             case raw_shared_ratio:
-
-                quantificationDetails
-                        = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
-                                spectrumProvider,
-                                proteinKey,
-                                waitingHandler
-                        );
-
-                return quantificationDetails.getSharedRawRatio(sampleIndex).toString();
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getSharedRawRatio(sampleIndex));
 
             case shared_ratio:
-
-                quantificationDetails
-                        = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
-                                spectrumProvider,
-                                proteinKey,
-                                waitingHandler
-                        );
-
-                return quantificationDetails.getSharedRatio(sampleIndex, reporterIonQuantification.getNormalizationFactors()).toString();
+                return QuantificationExportPlan.format(buffer, quantificationDetails.getSharedRatio(sampleIndex, normalizationFactors));
 
             default:
                 return "Not implemented";
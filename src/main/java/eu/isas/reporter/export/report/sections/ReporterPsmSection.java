@@ -2,7 +2,6 @@ package eu.isas.reporter.export.report.sections;
 
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
-import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.SpectrumMatchesIterator;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
@@ -12,6 +11,7 @@ import com.compomics.util.experiment.identification.utils.PeptideUtils;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
@@ -56,7 +56,20 @@ public class ReporterPsmSection {
     /**
      * The quantification features to export.
      */
-    private ArrayList<ReporterExportFeature> quantificationFeatures = new ArrayList<>();
+    private ArrayList<ReporterPsmFeatures> quantificationFeatures = new ArrayList<>();
+    /**
+     * The quantification columns compiled from the quantification features.
+     */
+    private QuantificationExportPlan<ReporterPsmFeatures> quantificationPlan = null;
+    /**
+     * Boolean indicating whether the PSM quantification details are needed.
+     */
+    private boolean needPsmDetails = false;
+    /**
+     * Boolean indicating whether the spectrum quantification details are
+     * needed.
+     */
+    private boolean needSpectrumDetails = false;
     /**
      * The fragment subsection if needed.
      */
@@ -98,7 +111,7 @@ public class ReporterPsmSection {
         for (ExportFeature exportFeature : exportFeatures) {
 
             if (exportFeature instanceof ReporterPsmFeatures) {
-                quantificationFeatures.add((ReporterExportFeature) exportFeature);
+                quantificationFeatures.add((ReporterPsmFeatures) exportFeature);
             } else if (exportFeature instanceof PsPsmFeature) {
                 psmFeatures.add((PsPsmFeature) exportFeature);
             } else if (exportFeature instanceof PsIdentificationAlgorithmMatchesFeature) {
@@ -124,6 +137,40 @@ public class ReporterPsmSection {
         }
     }
 
+    /**
+     * Starts the section: writes the header if needed and compiles the
+     * quantification columns.
+     *
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     */
+    public void startSection(
+            ReporterIonQuantification reporterIonQuantification
+    ) throws IOException {
+
+        if (header) {
+            writeHeader(reporterIonQuantification);
+        }
+
+        if (quantificationPlan == null || !quantificationPlan.isCompiledFor(reporterIonQuantification)) {
+            quantificationPlan = new QuantificationExportPlan<>(quantificationFeatures, reporterIonQuantification);
+        }
+
+        // the quantification details to resolve for every match
+        needPsmDetails = quantificationPlan.containsAny(
+                ReporterPsmFeatures.raw_ratio,
+                ReporterPsmFeatures.ratio
+        );
+        needSpectrumDetails = quantificationPlan.containsAny(
+                ReporterPsmFeatures.reporter_intensity,
+                ReporterPsmFeatures.reporter_mz,
+                ReporterPsmFeatures.deisotoped_intensity
+        );
+    }
+
     /**
      * Writes the desired section.
      *
@@ -180,9 +227,7 @@ public class ReporterPsmSection {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        if (header) {
-            writeHeader(reporterIonQuantification);
-        }
+        startSection(reporterIonQuantification);
 
         int line = 1;
         int totalSize = identification.getNumber(SpectrumMatch.class);
@@ -208,238 +253,294 @@ public class ReporterPsmSection {
 
             }
 
-            String spectrumFile = spectrumMatch.getSpectrumFile();
-            String spectrumTitle = spectrumMatch.getSpectrumTitle();
-            PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
-
-            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
-
-                PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
-
-                if (peptideAssumption != null || tagAssumption != null) {
-
-                    if (decoys
-                            || (peptideAssumption != null && !PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider))
-                            || (tagAssumption != null) // @TODO: check whether the tag is a decoy..?
-                            ) {
-
-                        boolean first = true;
-
-                        if (indexes) {
+            if (writeMatch(
+                    spectrumMatch,
+                    line,
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    spectrumProvider,
+                    proteinDetailsProvider,
+                    quantificationFeaturesGenerator,
+                    reporterIonQuantification,
+                    reporterSettings,
+                    identificationParameters,
+                    linePrefix,
+                    nSurroundingAA,
+                    validatedOnly,
+                    decoys,
+                    waitingHandler
+            )) {
+                line++;
+            }
+        }
+    }
 
-                            if (linePrefix != null) {
+    /**
+     * Writes the line of the given spectrum match, followed by its fragment
+     * subsection if any. Nothing is written if the match is filtered out.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param line the index of the line
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator containing the quantification information
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param reporterSettings the reporter settings
+     * @param identificationParameters the identification parameters
+     * @param linePrefix the line prefix
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return a boolean indicating whether the line was written
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while transforming the ratios
+     */
+    public boolean writeMatch(
+            SpectrumMatch spectrumMatch,
+            int line,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            ReporterSettings reporterSettings,
+            IdentificationParameters identificationParameters,
+            String linePrefix,
+            int nSurroundingAA,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MathException {
 
-                                writer.write(linePrefix);
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
 
-                            }
+        String spectrumFile = spectrumMatch.getSpectrumFile();
+        String spectrumTitle = spectrumMatch.getSpectrumTitle();
+        PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
-                            writer.write(Integer.toString(line));
-                            first = false;
-                        }
+        if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
+            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+            TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
 
-                            if (!first) {
+            if (peptideAssumption != null || tagAssumption != null) {
 
-                                writer.addSeparator();
+                if (decoys
+                        || (peptideAssumption != null && !PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider))
+                        || (tagAssumption != null) // @TODO: check whether the tag is a decoy..?
+                        ) {
 
-                            } else {
+                    boolean first = true;
 
-                                first = false;
-                            }
+                    if (indexes) {
 
-                            String feature;
+                        if (linePrefix != null) {
 
-                            if (peptideAssumption != null) {
+                            writer.write(linePrefix);
 
-                                peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                        }
 
-                                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(
-                                        identification,
-                                        identificationFeaturesGenerator,
-                                        sequenceProvider,
-                                        proteinDetailsProvider,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        linePrefix,
-                                        nSurroundingAA,
-                                        peptideAssumption,
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        psParameter,
-                                        identificationAlgorithmMatchesFeature,
-                                        waitingHandler
-                                );
+                        writer.write(Integer.toString(line));
+                        first = false;
+                    }
 
-                            } else if (tagAssumption != null) {
+                    for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
 
-                                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(
-                                        identification,
-                                        identificationFeaturesGenerator,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        linePrefix,
-                                        tagAssumption,
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        psParameter,
-                                        identificationAlgorithmMatchesFeature,
-                                        waitingHandler
-                                );
+                        if (!first) {
 
-                            } else {
+                            writer.addSeparator();
 
-                                throw new IllegalArgumentException(
-                                        "No best match found for spectrum "
-                                        + spectrumMatch.getKey()
-                                        + "."
-                                );
-                            }
+                        } else {
 
-                            writer.write(feature);
+                            first = false;
                         }
 
-                        for (PsPsmFeature psmFeature : psmFeatures) {
-
-                            if (!first) {
-
-                                writer.addSeparator();
-
-                            } else {
+                        String feature;
+
+                        if (peptideAssumption != null) {
+
+                            feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(
+                                    identification,
+                                    identificationFeaturesGenerator,
+                                    sequenceProvider,
+                                    proteinDetailsProvider,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    linePrefix,
+                                    nSurroundingAA,
+                                    peptideAssumption,
+                                    spectrumFile,
+                                    spectrumTitle,
+                                    psParameter,
+                                    identificationAlgorithmMatchesFeature,
+                                    waitingHandler
+                            );
 
-                                first = false;
+                        } else if (tagAssumption != null) {
+
+                            feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(
+                                    identification,
+                                    identificationFeaturesGenerator,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    linePrefix,
+                                    tagAssumption,
+                                    spectrumFile,
+                                    spectrumTitle,
+                                    psParameter,
+                                    identificationAlgorithmMatchesFeature,
+                                    waitingHandler
+                            );
 
-                            }
+                        } else {
 
-                            writer.write(
-                                    PsPsmSection.getFeature(
-                                            identification,
-                                            identificationFeaturesGenerator,
-                                            identificationParameters,
-                                            linePrefix,
-                                            spectrumMatch,
-                                            psParameter,
-                                            psmFeature,
-                                            validatedOnly,
-                                            decoys,
-                                            waitingHandler
-                                    )
+                            throw new IllegalArgumentException(
+                                    "No best match found for spectrum "
+                                    + spectrumMatch.getKey()
+                                    + "."
                             );
                         }
 
-                        ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
-                        Collections.sort(sampleIndexes);
-
-                        for (ExportFeature exportFeature : quantificationFeatures) {
-
-                            ReporterPsmFeatures psmFeature = (ReporterPsmFeatures) exportFeature;
-
-                            if (psmFeature.hasChannels()) {
-
-                                for (String sampleIndex : sampleIndexes) {
+                        writer.write(feature);
+                    }
 
-                                    if (!first) {
-                                        writer.addSeparator();
+                    for (PsPsmFeature psmFeature : psmFeatures) {
 
-                                    } else {
+                        if (!first) {
 
-                                        first = false;
+                            writer.addSeparator();
 
-                                    }
+                        } else {
 
-                                    writer.write(
-                                            getFeature(
-                                                    identification,
-                                                    spectrumProvider,
-                                                    quantificationFeaturesGenerator,
-                                                    reporterIonQuantification,
-                                                    reporterSettings,
-                                                    spectrumMatch.getKey(),
-                                                    psmFeature,
-                                                    sampleIndex),
-                                            reporterStyle
-                                    );
+                            first = false;
 
-                                }
+                        }
 
-                            } else {
+                        writer.write(
+                                PsPsmSection.getFeature(
+                                        identification,
+                                        identificationFeaturesGenerator,
+                                        identificationParameters,
+                                        linePrefix,
+                                        spectrumMatch,
+                                        psParameter,
+                                        psmFeature,
+                                        validatedOnly,
+                                        decoys,
+                                        waitingHandler
+                                )
+                        );
+                    }
 
-                                if (!first) {
+                    PsmQuantificationDetails psmDetails = needPsmDetails
+                            ? quantificationFeaturesGenerator.getPSMQuantificationDetails(spectrumProvider, spectrumMatch)
+                            : null;
+                    SpectrumQuantificationDetails spectrumDetails = needSpectrumDetails
+                            ? quantificationFeaturesGenerator.getSpectrumQuantificationDetails(
+                                    spectrumProvider,
+                                    reporterIonQuantification,
+                                    reporterSettings.getReporterIonSelectionSettings(),
+                                    spectrumMatch
+                            )
+                            : null;
 
-                                    writer.addSeparator();
+                    for (int column = 0; column < quantificationPlan.size(); column++) {
 
-                                } else {
+                        if (!first) {
 
-                                    first = false;
+                            writer.addSeparator();
 
-                                }
+                        } else {
 
-                                writer.write(
-                                        getFeature(
-                                                identification,
-                                                spectrumProvider,
-                                                quantificationFeaturesGenerator,
-                                                reporterIonQuantification,
-                                                reporterSettings,
-                                                spectrumMatch.getKey(),
-                                                psmFeature,
-                                                ""),
-                                        reporterStyle
-                                );
+                            first = false;
 
-                            }
                         }
 
-                        writer.newLine();
+                        writer.write(
+                                getFeature(
+                                        psmDetails,
+                                        spectrumDetails,
+                                        normalizationFactors,
+                                        quantificationPlan.getFeature(column),
+                                        quantificationPlan.getSampleIndex(column),
+                                        quantificationPlan.getBuffer()
+                                ),
+                                reporterStyle
+                        );
+                    }
 
-                        if (fragmentSection != null) {
+                    writer.newLine();
 
-                            String fractionPrefix = "";
+                    if (fragmentSection != null) {
 
-                            if (linePrefix != null) {
+                        String fractionPrefix = "";
 
-                                fractionPrefix += linePrefix;
+                        if (linePrefix != null) {
 
-                            }
+                            fractionPrefix += linePrefix;
 
-                            fractionPrefix += line + ".";
+                        }
 
-                            if (peptideAssumption != null) {
+                        fractionPrefix += line + ".";
 
-                                fragmentSection.writeSection(
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        peptideAssumption,
-                                        sequenceProvider,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        fractionPrefix,
-                                        null
-                                );
-
-                            } else if (tagAssumption != null) {
-
-                                fragmentSection.writeSection(
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        tagAssumption,
-                                        sequenceProvider,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        fractionPrefix,
-                                        null
-                                );
-                            }
+                        if (peptideAssumption != null) {
 
-                        }
+                            fragmentSection.writeSection(
+                                    spectrumFile,
+                                    spectrumTitle,
+                                    peptideAssumption,
+                                    sequenceProvider,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    fractionPrefix,
+                                    null
+                            );
 
-                        line++;
+                        } else if (tagAssumption != null) {
+
+                            fragmentSection.writeSection(
+                                    spectrumFile,
+                                    spectrumTitle,
+                                    tagAssumption,
+                                    sequenceProvider,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    fractionPrefix,
+                                    null
+                            );
+                        }
 
                     }
+
+                    return true;
+
                 }
             }
         }
+
+        return false;
+
     }
 
     /**
@@ -482,77 +583,88 @@ public class ReporterPsmSection {
     ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         SpectrumMatch spectrumMatch = identification.getSpectrumMatch(matchKey);
-        long spectrumKey = spectrumMatch.getKey();
+        PsmQuantificationDetails psmDetails = null;
+        SpectrumQuantificationDetails spectrumDetails = null;
 
         switch (psmFeatures) {
 
             case raw_ratio:
-
-                PsmQuantificationDetails psmDetails
-                        = quantificationFeaturesGenerator.getPSMQuantificationDetails(
-                                spectrumProvider,
-                                matchKey
-                        );
-
-                return psmDetails.getRawRatio(sampleIndex).toString();
-
             case ratio:
 
-                psmDetails
-                        = quantificationFeaturesGenerator.getPSMQuantificationDetails(
-                                spectrumProvider,
-                                matchKey
-                        );
-
-                return psmDetails.getRatio(sampleIndex, reporterIonQuantification.getNormalizationFactors()).toString();
+                psmDetails = quantificationFeaturesGenerator.getPSMQuantificationDetails(
+                        spectrumProvider,
+                        spectrumMatch
+                );
+                break;
 
             case reporter_intensity:
+            case reporter_mz:
+            case deisotoped_intensity:
 
-                SpectrumQuantificationDetails spectrumDetails
-                        = quantificationFeaturesGenerator.getSpectrumQuantificationDetails(
-                                spectrumProvider,
-                                reporterIonQuantification,
-                                reporterSettings.getReporterIonSelectionSettings(),
-                                spectrumMatch
-                        );
+                spectrumDetails = quantificationFeaturesGenerator.getSpectrumQuantificationDetails(
+                        spectrumProvider,
+                        reporterIonQuantification,
+                        reporterSettings.getReporterIonSelectionSettings(),
+                        spectrumMatch
+                );
+                break;
 
-                IonMatch ionMatch = spectrumDetails.getRepoterMatch(sampleIndex);
+            default:
+                break;
+        }
 
-                if (ionMatch == null) {
-                    return "";
-                }
+        return getFeature(
+                psmDetails,
+                spectrumDetails,
+                reporterIonQuantification.getNormalizationFactors(),
+                psmFeatures,
+                sampleIndex,
+                new StringBuilder()
+        );
+    }
 
-                return ionMatch.peakIntensity + "";
+    /**
+     * Returns the report component corresponding to a feature at a given
+     * channel from the quantification details of the match.
+     *
+     * @param psmDetails the quantification details of the PSM, can be null if
+     * no PSM ratio is exported
+     * @param spectrumDetails the quantification details of the spectrum, can
+     * be null if no reporter ion feature is exported
+     * @param normalizationFactors the normalization factors
+     * @param psmFeatures the PSM feature to export
+     * @param sampleIndex the index of the sample in case the feature is channel
+     * dependent, ignored otherwise
+     * @param buffer the buffer to use to format numbers
+     *
+     * @return the report component corresponding to a feature at a given
+     * channel
+     */
+    public static String getFeature(
+            PsmQuantificationDetails psmDetails,
+            SpectrumQuantificationDetails spectrumDetails,
+            NormalizationFactors normalizationFactors,
+            ReporterPsmFeatures psmFeatures,
+            String sampleIndex,
+            StringBuilder buffer
+    ) {
 
-            case reporter_mz:
+        switch (psmFeatures) {
 
-                spectrumDetails
-                        = quantificationFeaturesGenerator.getSpectrumQuantificationDetails(
-                                spectrumProvider,
-                                reporterIonQuantification,
-                                reporterSettings.getReporterIonSelectionSettings(),
-                                spectrumMatch
-                        );
+            case raw_ratio:
+                return QuantificationExportPlan.format(buffer, psmDetails.getRawRatio(sampleIndex));
 
-                ionMatch = spectrumDetails.getRepoterMatch(sampleIndex);
+            case ratio:
+                return QuantificationExportPlan.format(buffer, psmDetails.getRatio(sampleIndex, normalizationFactors));
 
-                if (ionMatch == null) {
-                    return "";
-                }
+            case reporter_intensity:
+                return QuantificationExportPlan.format(buffer, spectrumDetails.getReporterIntensity(sampleIndex));
 
-                return ionMatch.peakMz + "";
+            case reporter_mz:
+                return QuantificationExportPlan.format(buffer, spectrumDetails.getReporterMz(sampleIndex));
 
             case deisotoped_intensity:
-
-                spectrumDetails
-                        = quantificationFeaturesGenerator.getSpectrumQuantificationDetails(
-                                spectrumProvider,
-                                reporterIonQuantification,
-                                reporterSettings.getReporterIonSelectionSettings(),
-                                spectrumMatch
-                        );
-
-                return spectrumDetails.getDeisotopedIntensity(sampleIndex).toString();
+                return QuantificationExportPlan.format(buffer, spectrumDetails.getDeisotopedIntensity(sampleIndex));
 
             default:
                 return "Not implemented";
@@ -0,0 +1,241 @@
+package eu.isas.reporter.export.report.sections;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.io.export.ExportWriter;
+import com.compomics.util.io.export.writers.ExcelWriter;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.export.report.ReporterReportStyle;
+import eu.isas.reporter.quantificationdetails.ProteinPtmQuantificationDetails;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * This class outputs the PTM site level quantification: one line per PTM site
+ * of every protein.
+ *
+ * @author Marc Vaudel
+ */
+public class ReporterPtmSiteSection {
+
+    /**
+     * Boolean indicating whether the line shall be indexed.
+     */
+    private boolean indexes;
+    /**
+     * Boolean indicating whether column headers shall be included.
+     */
+    private boolean header;
+    /**
+     * The writer used to send the output to file.
+     */
+    private ExportWriter writer;
+    /**
+     * Style for the reporter output.
+     */
+    private ReporterReportStyle reporterStyle;
+
+    /**
+     * Constructor.
+     *
+     * @param indexes indicates whether the line index should be written
+     * @param header indicates whether the table header should be written
+     * @param writer the writer which will write to the file
+     */
+    public ReporterPtmSiteSection(
+            boolean indexes,
+            boolean header,
+            ExportWriter writer
+    ) {
+
+        this.indexes = indexes;
+        this.header = header;
+        this.writer = writer;
+
+        if (writer instanceof ExcelWriter) {
+            reporterStyle = ReporterReportStyle.getReportStyle((ExcelWriter) writer);
+        }
+    }
+
+    /**
+     * Writes the section.
+     *
+     * @param identification the identification of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param quantificationFeaturesGenerator the quantification features
+     * generator containing the quantification information
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param ptmNames the names of the PTMs to export
+     * @param keys the keys of the protein matches to output. if null all
+     * proteins will be exported.
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     */
+    public void writeSection(
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            QuantificationFeaturesGenerator quantificationFeaturesGenerator,
+            ReporterIonQuantification reporterIonQuantification,
+            Collection<String> ptmNames,
+            long[] keys,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
+        Collections.sort(sampleIndexes);
+
+        ArrayList<String> sortedPtms = new ArrayList<>(ptmNames);
+        Collections.sort(sortedPtms);
+
+        if (header) {
+            writeHeader(reporterIonQuantification, sampleIndexes);
+        }
+
+        if (keys == null) {
+            keys = identification.getProteinIdentification().stream()
+                    .mapToLong(Long::longValue)
+                    .toArray();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Exporting. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(keys.length);
+        }
+
+        int line = 1;
+        PSParameter psParameter = new PSParameter();
+
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(keys, waitingHandler);
+        ProteinMatch proteinMatch;
+
+        while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+
+            if (decoys || !proteinMatch.isDecoy()) {
+
+                psParameter = (PSParameter) proteinMatch.getUrParam(psParameter);
+
+                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+
+                    HashMap<String, TreeMap<Integer, ProteinPtmQuantificationDetails>> sitesDetails
+                            = quantificationFeaturesGenerator.getPtmSitesQuantificationDetails(
+                                    spectrumProvider,
+                                    proteinMatch,
+                                    ptmNames,
+                                    waitingHandler
+                            );
+
+                    String accession = proteinMatch.getLeadingAccession();
+                    String sequence = sequenceProvider.getSequence(accession);
+
+                    for (String ptmName : sortedPtms) {
+
+                        TreeMap<Integer, ProteinPtmQuantificationDetails> ptmSites = sitesDetails.get(ptmName);
+
+                        if (ptmSites != null) {
+
+                            for (Entry<Integer, ProteinPtmQuantificationDetails> siteEntry : ptmSites.entrySet()) {
+
+                                int site = siteEntry.getKey();
+                                ProteinPtmQuantificationDetails siteDetails = siteEntry.getValue();
+
+                                if (indexes) {
+                                    writer.write(line + "");
+                                    writer.addSeparator();
+                                }
+
+                                writer.write(accession);
+                                writer.addSeparator();
+                                writer.write(ptmName);
+                                writer.addSeparator();
+                                writer.write(site + "");
+                                writer.addSeparator();
+
+                                if (sequence != null && site > 0 && site <= sequence.length()) {
+                                    writer.write(sequence.charAt(site - 1) + "");
+                                }
+
+                                for (String sampleIndex : sampleIndexes) {
+
+                                    writer.addSeparator();
+                                    Double ratio = siteDetails.getRatio(sampleIndex);
+                                    writer.write(ratio == null ? "" : ratio.toString(), reporterStyle);
+
+                                }
+
+                                writer.newLine();
+                                line++;
+
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the header of the section.
+     *
+     * @param reporterIonQuantification the reporter ion quantification object
+     * containing the quantification configuration
+     * @param sampleIndexes the sorted sample indexes
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     */
+    private void writeHeader(
+            ReporterIonQuantification reporterIonQuantification,
+            ArrayList<String> sampleIndexes
+    ) throws IOException {
+
+        if (indexes) {
+            writer.writeHeaderText("");
+            writer.addSeparator();
+        }
+
+        writer.writeHeaderText("Protein");
+        writer.addSeparator();
+        writer.writeHeaderText("Modification");
+        writer.addSeparator();
+        writer.writeHeaderText("Site");
+        writer.addSeparator();
+        writer.writeHeaderText("Residue");
+
+        for (String sampleIndex : sampleIndexes) {
+
+            writer.addSeparator();
+            writer.writeHeaderText(reporterIonQuantification.getSample(sampleIndex), reporterStyle);
+
+        }
+
+        writer.newLine();
+    }
+}
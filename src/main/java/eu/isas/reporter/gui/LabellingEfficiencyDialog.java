@@ -1,28 +1,17 @@
 package eu.isas.reporter.gui;
 
 import com.compomics.util.Util;
-import com.compomics.util.experiment.biology.modifications.Modification;
-import com.compomics.util.experiment.biology.modifications.ModificationFactory;
-import com.compomics.util.experiment.biology.proteins.Peptide;
-import com.compomics.util.experiment.identification.Identification;
-import com.compomics.util.experiment.identification.matches.ModificationMatch;
-import com.compomics.util.experiment.identification.matches.PeptideMatch;
-import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
-import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
-import com.compomics.util.experiment.identification.utils.ModificationUtils;
-import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.exceptions.exception_handlers.FrameExceptionHandler;
 import com.compomics.util.experiment.io.mass_spectrometry.MsFileHandler;
 import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFolder;
-import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.gui.file_handling.FileAndFileFilter;
 import com.compomics.util.gui.file_handling.FileChooserUtil;
 import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
 import com.compomics.util.io.file.LastSelectedFolder;
-import com.compomics.util.parameters.identification.IdentificationParameters;
-import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
-import com.compomics.util.parameters.identification.search.ModificationParameters;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import eu.isas.reporter.Reporter;
+import eu.isas.reporter.calculation.LabellingEfficiency;
+import eu.isas.reporter.calculation.LabellingEfficiencyEstimator;
 import eu.isas.reporter.io.ProjectImporter;
 import java.awt.Dialog;
 import java.awt.Image;
@@ -31,7 +20,6 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -76,10 +64,6 @@ public class LabellingEfficiencyDialog extends javax.swing.JDialog {
      * The spectrum files loaded.
      */
     private ArrayList<File> spectrumFiles = new ArrayList<>();
-    /**
-     * The modification factory.
-     */
-    private ModificationFactory modificationFactory = ModificationFactory.getInstance();
     /**
      * List of the sorted modifications.
      */
@@ -667,85 +651,22 @@ public class LabellingEfficiencyDialog extends javax.swing.JDialog {
      */
     private void estimateLabellingEfficiency() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        IdentificationParameters identificationParameters = psdbParent.getIdentificationParameters();
-        SequenceProvider sequenceProvider = psdbParent.getSequenceProvider();
-        SequenceMatchingParameters proteinSequenceMatchingPreferences = identificationParameters.getSequenceMatchingParameters();
-        ModificationParameters modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
-        sortedModifications = new ArrayList<>(modificationParameters.getAllNotFixedModifications());
-        Collections.sort(sortedModifications);
-
-        HashMap<String, Integer> nModifiedMap = new HashMap<>(sortedModifications.size()),
-                nPossibleMap = new HashMap<>(sortedModifications.size());
-
-        ArrayList<Modification> modifications = new ArrayList<>(sortedModifications.size());
-
-        for (String ptmName : sortedModifications) {
-            nModifiedMap.put(ptmName, 0);
-            nPossibleMap.put(ptmName, 0);
-            modifications.add(modificationFactory.getModification(ptmName));
-        }
-
-        Identification identification = psdbParent.getIdentification();
-
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<>(1);
-        parameters.add(psParameter);
-
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(progressDialog);
-        PeptideMatch peptideMatch;
-
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
-
-            Peptide peptide = peptideMatch.getPeptide();
-
-            for (Modification modification : modifications) {
-
-                String modificationName = modification.getName();
-
-                int nNew = ModificationUtils.getPossibleModificationSites(
-                        peptide,
-                        modification,
-                        sequenceProvider,
-                        proteinSequenceMatchingPreferences
-                ).length;
-
-                if (nNew > 0) {
-                    Integer nPossible = nPossibleMap.get(modificationName);
-                    nPossible += nNew;
-                    nPossibleMap.put(modificationName, nPossible);
-                }
-
-                nNew = 0;
-
-                if (peptide.getNVariableModifications() > 0) {
-
-                    for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
-
-                        if (modificationMatch.getModification().equals(modificationName)) {
-                            nNew++;
-                        }
-
-                    }
-
-                }
-
-                if (nNew > 0) {
-
-                    Integer nModified = nModifiedMap.get(modificationName);
-                    nModified += nNew;
-                    nModifiedMap.put(modificationName, nModified);
+        LabellingEfficiencyEstimator labellingEfficiencyEstimator = new LabellingEfficiencyEstimator();
+        LabellingEfficiency estimate = labellingEfficiencyEstimator.estimateLabellingEfficiency(
+                psdbParent.getIdentification(),
+                psdbParent.getSequenceProvider(),
+                psdbParent.getIdentificationParameters(),
+                null,
+                Runtime.getRuntime().availableProcessors(),
+                new FrameExceptionHandler((JFrame) parentFrame, "https://github.com/compomics/reporter/issues"),
+                progressDialog
+        );
 
-                }
-            }
-        }
+        sortedModifications = estimate.getModifications();
+        labellingEfficiency = new HashMap<>(sortedModifications.size());
 
         for (String ptmName : sortedModifications) {
-
-            Integer nModified = nModifiedMap.get(ptmName);
-            Integer nPossible = nPossibleMap.get(ptmName);
-            Double efficiency = nModified.doubleValue() / nPossible;
-            labellingEfficiency.put(ptmName, efficiency);
-
+            labellingEfficiency.put(ptmName, estimate.getEfficiency(ptmName));
         }
     }
 
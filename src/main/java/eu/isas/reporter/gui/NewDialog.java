@@ -29,6 +29,7 @@ import eu.isas.reporter.io.ProjectImporter;
 import eu.isas.reporter.preferences.DisplayPreferences;
 import eu.isas.reporter.settings.ReporterPreferences;
 import eu.isas.reporter.settings.ReporterSettings;
+import eu.isas.reporter.utils.StartupLoader;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -1458,12 +1459,17 @@ public class NewDialog extends javax.swing.JDialog {
     }
 
     /**
-     * Imports the methods from the methods file.
+     * Imports the methods from the methods file. The default methods file is
+     * only parsed once, possibly in the background at startup.
      */
     private void importMethods() {
 
         try {
-            methodsFactory.importMethods(methodsFile);
+            if (methodsFile.equals(Reporter.getMethodsFile())) {
+                StartupLoader.getMethodsFactory();
+            } else {
+                methodsFactory.importMethods(methodsFile);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             importMethodsError();
@@ -1476,8 +1482,13 @@ public class NewDialog extends javax.swing.JDialog {
      */
     private void loadDefaultPreferences() {
 
-        ReporterPreferences reporterPreferences = ReporterPreferences.getUserPreferences();
-        reporterSettings = reporterPreferences.getDefaultSettings();
+        ReporterPreferences reporterPreferences = StartupLoader.getReporterPreferences();
+
+        try {
+            reporterSettings = reporterPreferences.getDefaultSettings().clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
 
     }
 
@@ -40,18 +40,27 @@ import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import eu.isas.reporter.Reporter;
 import eu.isas.reporter.ReporterWrapper;
+import eu.isas.reporter.calculation.CapacityPlan;
+import eu.isas.reporter.calculation.CapacityPlanner;
 import eu.isas.reporter.calculation.QuantificationFeaturesCache;
 import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.calculation.QuantificationScheduler;
+import eu.isas.reporter.calculation.ReporterMzCalibrator;
+import eu.isas.reporter.calculation.SettingsDependencies;
 import eu.isas.reporter.calculation.clustering.ClusterBuilder;
+import eu.isas.reporter.calculation.normalization.NormalizationPreview;
 import eu.isas.reporter.calculation.normalization.Normalizer;
 import eu.isas.reporter.gui.export.ReportDialog;
 import eu.isas.reporter.gui.resultpanels.OverviewPanel;
+import eu.isas.reporter.gui.settings.ReporterSettingsDialog;
 import eu.isas.reporter.gui.settings.display.ClusteringSettingsDialog;
 import eu.isas.reporter.io.ProjectSaver;
 import eu.isas.reporter.settings.ReporterSettings;
 import eu.isas.reporter.preferences.DisplayPreferences;
 import eu.isas.reporter.settings.ClusteringSettings;
 import eu.isas.reporter.utils.Properties;
+import eu.isas.reporter.utils.StartupLoader;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Frame;
@@ -64,6 +73,7 @@ import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import javax.swing.Box;
 import javax.swing.JOptionPane;
 import javax.swing.LookAndFeel;
@@ -127,6 +137,20 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
      * the identified matches.
      */
     private QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The preview of the normalization factors, created on first use and
+     * discarded when the ratios change.
+     */
+    private NormalizationPreview normalizationPreview = null;
+    /**
+     * The levels whose normalization factors were to be estimated again by an
+     * update of the settings that was canceled.
+     */
+    private final EnumSet<QuantificationLevel> pendingNormalizationLevels = EnumSet.noneOf(QuantificationLevel.class);
+    /**
+     * The capacity plan of the project.
+     */
+    private CapacityPlan capacityPlan = null;
     /**
      * Boolean indicating whether the project has been saved.
      */
@@ -202,12 +226,19 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
         // set up the ErrorLog
         setUpLogFile();
 
+        // load the methods, preferences and export factory in the background while the frame is built
+        StartupLoader.warmUp();
+
         // update the look and feel after adding the panels
+        long start = System.nanoTime();
         setLookAndFeel();
+        StartupLoader.logTiming("Look and feel", start);
 
         // load the utilities user preferences
+        start = System.nanoTime();
         try {
             utilitiesUserParameters = utilitiesUserParameters.loadUserParameters();
+            StartupLoader.logTiming("User parameters", start);
         } catch (Exception e) {
 
             JOptionPane.showMessageDialog(
@@ -263,8 +294,11 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
             }
 
             // Instantiate factories
+            start = System.nanoTime();
             PeptideShaker.instantiateFacories(utilitiesUserParameters);
+            StartupLoader.logTiming("PeptideShaker factories", start);
 
+            start = System.nanoTime();
             initComponents();
 
             overviewPanel = new OverviewPanel(this);
@@ -283,6 +317,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
             this.setExtendedState(MAXIMIZED_BOTH);
 
             overviewPanel.autoResizeComponents();
+            StartupLoader.logTiming("Main frame", start);
 
             // check for 64 bit java and for at least 4 gb memory 
             boolean java64bit = CompomicsWrapper.is64BitJava();
@@ -347,6 +382,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
         selectedPsms = new ArrayList<>();
 
         projectSaved = false;
+        normalizationPreview = null;
         quantificationFeaturesGenerator = new QuantificationFeaturesGenerator(
                 new QuantificationFeaturesCache(),
                 getIdentification(),
@@ -354,9 +390,30 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
                 reporterSettings,
                 reporterIonQuantification,
                 psdbParent.getIdentificationParameters().getSearchParameters(),
-                psdbParent.getIdentificationParameters().getSequenceMatchingParameters()
+                psdbParent.getIdentificationParameters().getSequenceMatchingParameters(),
+                exceptionHandler
         );
 
+        // plan the resources needed and select the strategies accordingly
+        capacityPlan = new CapacityPlanner(
+                getIdentification(),
+                getSpectrumProvider(),
+                reporterIonQuantification
+        ).plan(processingParameters);
+        CapacityPlanner.apply(capacityPlan, processingParameters, quantificationFeaturesGenerator.getQuantificationFeaturesCache());
+        capacityPlanMenuItem.setEnabled(true);
+
+        if (capacityPlan.hasWarnings()) {
+
+            JOptionPane.showMessageDialog(
+                    this,
+                    capacityPlan.getReport(),
+                    "Capacity Plan",
+                    JOptionPane.WARNING_MESSAGE
+            );
+
+        }
+
         progressDialog = new ProgressDialogX(
                 this,
                 Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/reporter.gif")),
@@ -445,71 +502,89 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
     private void displayResults(WaitingHandler waitingHandler)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        // Set Normalization factors
+        // Quantify the matches from the spectra up, and set the normalization factors level by level
         NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        boolean normalize = !normalizationFactors.hasNormalizationFactors();
+        Normalizer normalizer = new Normalizer();
+        QuantificationScheduler quantificationScheduler = new QuantificationScheduler(
+                getIdentification(),
+                getSpectrumProvider(),
+                quantificationFeaturesGenerator,
+                reporterIonQuantification,
+                reporterSettings,
+                processingParameters,
+                exceptionHandler
+        );
 
-        if (!normalizationFactors.hasNormalizationFactors()) {
-
-            Normalizer normalizer = new Normalizer();
-
-            if (!normalizationFactors.hasPsmNormalisationFactors()) {
-
-                normalizer.setPsmNormalizationFactors(
-                        reporterIonQuantification,
-                        reporterSettings.getRatioEstimationSettings(),
-                        reporterSettings.getNormalizationSettings(),
-                        getIdentificationParameters().getSequenceMatchingParameters(),
-                        getIdentification(),
-                        getSpectrumProvider(),
-                        quantificationFeaturesGenerator,
-                        processingParameters,
-                        psdbParent.getIdentificationParameters().getSearchParameters(),
-                        psdbParent.getIdentificationParameters().getFastaParameters(),
-                        psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
-                        exceptionHandler,
-                        progressDialog
-                );
+        quantificationScheduler.quantifySpectra(progressDialog);
+        quantificationScheduler.quantifyPsms(progressDialog);
+
+        if (normalize && !normalizationFactors.hasPsmNormalisationFactors()) {
+
+            normalizer.setPsmNormalizationFactors(
+                    reporterIonQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    getIdentificationParameters().getSequenceMatchingParameters(),
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    quantificationFeaturesGenerator,
+                    processingParameters,
+                    psdbParent.getIdentificationParameters().getSearchParameters(),
+                    psdbParent.getIdentificationParameters().getFastaParameters(),
+                    psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    progressDialog
+            );
 
-            }
+        }
 
-            if (!normalizationFactors.hasPeptideNormalisationFactors()) {
+        quantificationScheduler.quantifyPeptides(progressDialog);
+
+        if (normalize && !normalizationFactors.hasPeptideNormalisationFactors()) {
+
+            normalizer.setPeptideNormalizationFactors(
+                    reporterIonQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    getIdentificationParameters().getSequenceMatchingParameters(),
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    quantificationFeaturesGenerator,
+                    processingParameters,
+                    psdbParent.getIdentificationParameters().getSearchParameters(),
+                    psdbParent.getIdentificationParameters().getFastaParameters(),
+                    psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    progressDialog
+            );
 
-                normalizer.setPeptideNormalizationFactors(
-                        reporterIonQuantification,
-                        reporterSettings.getRatioEstimationSettings(),
-                        reporterSettings.getNormalizationSettings(),
-                        getIdentificationParameters().getSequenceMatchingParameters(),
-                        getIdentification(),
-                        getSpectrumProvider(),
-                        quantificationFeaturesGenerator,
-                        processingParameters,
-                        psdbParent.getIdentificationParameters().getSearchParameters(),
-                        psdbParent.getIdentificationParameters().getFastaParameters(),
-                        psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
-                        exceptionHandler,
-                        progressDialog
-                );
+        }
 
-            }
-            if (!normalizationFactors.hasProteinNormalisationFactors()) {
+        quantificationScheduler.quantifyProteins(progressDialog);
+
+        if (normalize && !normalizationFactors.hasProteinNormalisationFactors()) {
+
+            normalizer.setProteinNormalizationFactors(
+                    reporterIonQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    getMetrics(),
+                    quantificationFeaturesGenerator,
+                    processingParameters,
+                    psdbParent.getIdentificationParameters().getSearchParameters(),
+                    psdbParent.getIdentificationParameters().getFastaParameters(),
+                    psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    progressDialog
+            );
 
-                normalizer.setProteinNormalizationFactors(
-                        reporterIonQuantification,
-                        reporterSettings.getRatioEstimationSettings(),
-                        reporterSettings.getNormalizationSettings(),
-                        getIdentification(),
-                        getSpectrumProvider(),
-                        getMetrics(),
-                        quantificationFeaturesGenerator,
-                        processingParameters,
-                        psdbParent.getIdentificationParameters().getSearchParameters(),
-                        psdbParent.getIdentificationParameters().getFastaParameters(),
-                        psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
-                        exceptionHandler,
-                        progressDialog
-                );
+        }
 
-            }
+        if (waitingHandler.isRunCanceled()) {
+            return;
         }
 
         // cluster the profiles of the selected entities
@@ -524,6 +599,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
                 reporterIonQuantification,
                 quantificationFeaturesGenerator,
                 displayPreferences,
+                processingParameters,
                 true,
                 progressDialog);
 
@@ -536,6 +612,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
         saveMenuItem.setEnabled(true);
         saveAsMenuItem.setEnabled(true);
         exportMenu.setEnabled(true);
+        quantificationSettingsMenuItem.setEnabled(true);
 
         jumpToPanel.setEnabled(true);
         jumpToPanel.setType(JumpToPanel.JumpType.proteinAndPeptides);
@@ -778,8 +855,10 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
         quantificationOptionsMenu = new javax.swing.JMenu();
         categoriesMenuItem = new javax.swing.JMenuItem();
         reagentOrderMenuItem = new javax.swing.JMenuItem();
+        quantificationSettingsMenuItem = new javax.swing.JMenuItem();
         jSeparator4 = new javax.swing.JPopupMenu.Separator();
         processingSettingsMenuItem = new javax.swing.JMenuItem();
+        capacityPlanMenuItem = new javax.swing.JMenuItem();
         javaOptionsMenuItem = new javax.swing.JMenuItem();
         privacyMenuItem = new javax.swing.JMenuItem();
         exportMenu = new javax.swing.JMenu();
@@ -894,6 +973,15 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
             }
         });
         quantificationOptionsMenu.add(reagentOrderMenuItem);
+
+        quantificationSettingsMenuItem.setText("Quantification Settings");
+        quantificationSettingsMenuItem.setEnabled(false);
+        quantificationSettingsMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                quantificationSettingsMenuItemActionPerformed(evt);
+            }
+        });
+        quantificationOptionsMenu.add(quantificationSettingsMenuItem);
         quantificationOptionsMenu.add(jSeparator4);
 
         processingSettingsMenuItem.setText("Processing Settings");
@@ -904,6 +992,15 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
         });
         quantificationOptionsMenu.add(processingSettingsMenuItem);
 
+        capacityPlanMenuItem.setText("Capacity Plan");
+        capacityPlanMenuItem.setEnabled(false);
+        capacityPlanMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                capacityPlanMenuItemActionPerformed(evt);
+            }
+        });
+        quantificationOptionsMenu.add(capacityPlanMenuItem);
+
         javaOptionsMenuItem.setText("Java Settings");
         javaOptionsMenuItem.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -1163,6 +1260,26 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
 
     }//GEN-LAST:event_processingSettingsMenuItemActionPerformed
 
+    /**
+     * Displays the capacity plan of the project.
+     *
+     * @param evt
+     */
+    private void capacityPlanMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_capacityPlanMenuItemActionPerformed
+
+        if (capacityPlan != null) {
+
+            JOptionPane.showMessageDialog(
+                    this,
+                    capacityPlan.getReport(),
+                    "Capacity Plan",
+                    capacityPlan.hasWarnings() ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE
+            );
+
+        }
+
+    }//GEN-LAST:event_capacityPlanMenuItemActionPerformed
+
     /**
      * Open the ClusteringSettingsDialog.
      *
@@ -1215,6 +1332,59 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
 
     }//GEN-LAST:event_reagentOrderMenuItemActionPerformed
 
+    /**
+     * Open the ReporterSettingsDialog.
+     *
+     * @param evt
+     */
+    private void quantificationSettingsMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_quantificationSettingsMenuItemActionPerformed
+
+        if (normalizationPreview == null) {
+
+            normalizationPreview = new NormalizationPreview(
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    quantificationFeaturesGenerator,
+                    reporterSettings.getRatioEstimationSettings(),
+                    getIdentificationParameters().getSearchParameters(),
+                    getIdentificationParameters().getFastaParameters(),
+                    getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler
+            );
+
+            if (capacityPlan != null) {
+                normalizationPreview.setMaxSamplingFraction(capacityPlan.getPreviewSamplingFraction());
+            }
+        }
+
+        ReporterSettingsDialog reporterSettingsDialog = new ReporterSettingsDialog(
+                this,
+                reporterSettings,
+                getIdentificationParameters().getSearchParameters().getModificationParameters(),
+                reporterIonQuantification.getReporterMethod(),
+                normalizationPreview,
+                new ReporterMzCalibrator(
+                        getIdentification(),
+                        getSpectrumProvider(),
+                        quantificationFeaturesGenerator,
+                        reporterIonQuantification,
+                        processingParameters.getnThreads(),
+                        exceptionHandler
+                ),
+                true
+        );
+
+        if (!reporterSettingsDialog.isCanceled()) {
+
+            ReporterSettings newSettings = reporterSettingsDialog.getReporterSettings();
+            newSettings.setAnnotationParameters(reporterSettings.getAnnotationParameters());
+            newSettings.setProjectDetails(reporterSettings.getProjectDetails());
+            updateReporterSettings(newSettings);
+
+        }
+
+    }//GEN-LAST:event_quantificationSettingsMenuItemActionPerformed
+
     /**
      * Saves the quantification details in the psdb file.
      *
@@ -1405,6 +1575,10 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
      */
     public void clearData(boolean clearDatabaseFolder) {
 
+        if (quantificationFeaturesGenerator != null) {
+            quantificationFeaturesGenerator.getQuantificationFeaturesCache().close();
+        }
+
         if (psdbParent != null) {
             psdbParent.setProjectDetails(null);
         }
@@ -1505,6 +1679,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JMenuItem aboutMenuItem;
     private javax.swing.JPanel backgroundPanel;
+    private javax.swing.JMenuItem capacityPlanMenuItem;
     private javax.swing.JMenuItem categoriesMenuItem;
     private javax.swing.JMenuItem exitMenuItem;
     private javax.swing.JMenuItem exportFollowUpJMenuItem;
@@ -1528,6 +1703,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
     private javax.swing.JMenuItem privacyMenuItem;
     private javax.swing.JMenuItem processingSettingsMenuItem;
     private javax.swing.JMenu quantificationOptionsMenu;
+    private javax.swing.JMenuItem quantificationSettingsMenuItem;
     private javax.swing.JMenuItem reagentOrderMenuItem;
     private javax.swing.JMenuItem saveAsMenuItem;
     private javax.swing.JMenuItem saveMenuItem;
@@ -1864,6 +2040,7 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
                             reporterIonQuantification,
                             quantificationFeaturesGenerator,
                             displayPreferences,
+                            processingParameters,
                             loadData,
                             progressDialog
                     );
@@ -1884,6 +2061,222 @@ public class ReporterGUI extends javax.swing.JFrame implements JavaHomeOrMemoryD
         }.start();
     }
 
+    /**
+     * Sets new reporter settings. Only the quantification details and
+     * normalization factors affected by the change are estimated again, in
+     * the background. In the meantime, the previous values are displayed and
+     * flagged in the title of the frame. The new normalization factors are
+     * estimated in a copy of the reporter ion quantification and replace the
+     * factors in use only once the update is complete. If the update is
+     * canceled, the factors in use are kept and estimated again at the next
+     * update.
+     *
+     * @param newSettings the new reporter settings
+     */
+    public void updateReporterSettings(ReporterSettings newSettings) {
+
+        final EnumSet<QuantificationLevel> normalizationLevels = EnumSet.copyOf(new SettingsDependencies(reporterSettings, newSettings).getNormalizationLevels());
+        normalizationLevels.addAll(pendingNormalizationLevels);
+
+        final ReporterIonQuantification updateQuantification = Normalizer.getWorkingCopy(reporterIonQuantification, normalizationLevels);
+        final SettingsDependencies settingsDependencies = quantificationFeaturesGenerator.updateSettings(newSettings, updateQuantification);
+        reporterSettings = newSettings;
+
+        if (!settingsDependencies.hasChanges() && normalizationLevels.isEmpty()) {
+            quantificationFeaturesGenerator.clearStaleValues();
+            return;
+        }
+
+        if (!settingsDependencies.getInvalidatedLevels().isEmpty()) {
+            normalizationPreview = null;
+        }
+
+        projectSaved = false;
+        final String previousTitle = getTitle();
+        setTitle("Reporter " + new Properties().getVersion() + " - Updating (previous values displayed)");
+
+        final ProgressDialogX updateDialog = new ProgressDialogX(
+                this,
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/reporter.gif")),
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/reporter-orange.gif")),
+                false
+        );
+
+        updateDialog.setPrimaryProgressCounterIndeterminate(true);
+        updateDialog.setTitle("Updating Quantification. Please Wait...");
+
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    updateDialog.setVisible(true);
+                } catch (IndexOutOfBoundsException e) {
+                    // ignore
+                }
+            }
+        }, "ProgressDialog").start();
+
+        new Thread("UpdateThread") {
+            @Override
+            public void run() {
+
+                boolean completed = false;
+
+                try {
+
+                    QuantificationFeaturesGenerator updateGenerator = quantificationFeaturesGenerator.getUpdateGenerator();
+
+                    updateNormalizationFactors(
+                            normalizationLevels,
+                            updateQuantification,
+                            updateGenerator,
+                            updateDialog
+                    );
+
+                    if (updateDialog.isRunCanceled()) {
+                        return;
+                    }
+
+                    ClusterBuilder newClusterBuilder = new ClusterBuilder();
+
+                    KMeansClustering newClustering = newClusterBuilder.clusterProfiles(
+                            getIdentification(),
+                            getIdentificationParameters(),
+                            getSequenceProvider(),
+                            getSpectrumProvider(),
+                            getMetrics(),
+                            updateQuantification,
+                            updateGenerator,
+                            displayPreferences,
+                            processingParameters,
+                            true,
+                            updateDialog
+                    );
+
+                    if (!updateDialog.isRunCanceled()) {
+
+                        Normalizer.copyNormalizationFactors(updateQuantification, reporterIonQuantification, normalizationLevels);
+                        pendingNormalizationLevels.clear();
+                        clusterBuilder = newClusterBuilder;
+                        kMeansClutering = newClustering;
+                        quantificationFeaturesGenerator.clearStaleValues();
+                        setTitle("Reporter " + new Properties().getVersion());
+                        overviewPanel.updateDisplay();
+                        completed = true;
+
+                    }
+
+                } catch (Exception e) {
+                    catchException(e);
+                    updateDialog.setRunCanceled();
+                } finally {
+
+                    if (!completed) {
+
+                        // keep the factors in use and stop computing details with the partial ones
+                        pendingNormalizationLevels.addAll(normalizationLevels);
+                        quantificationFeaturesGenerator.updateSettings(reporterSettings);
+                        setTitle(previousTitle);
+
+                    }
+
+                    updateDialog.setRunFinished();
+
+                }
+
+            }
+        }.start();
+    }
+
+    /**
+     * Estimates the normalization factors of the given levels again. The
+     * levels are processed from the PSM level up as the normalization factors
+     * of a level are used to estimate the ratios of the levels above.
+     *
+     * @param normalizationLevels the levels to normalize
+     * @param updateQuantification the reporter ion quantification where to
+     * set the normalization factors, see Normalizer.getWorkingCopy
+     * @param generator the quantification features generator to use
+     * @param waitingHandler the waiting handler
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while interacting with a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     */
+    private void updateNormalizationFactors(
+            EnumSet<QuantificationLevel> normalizationLevels,
+            ReporterIonQuantification updateQuantification,
+            QuantificationFeaturesGenerator generator,
+            WaitingHandler waitingHandler
+    ) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        Normalizer normalizer = new Normalizer();
+
+        if (normalizationLevels.contains(QuantificationLevel.psm) && !waitingHandler.isRunCanceled()) {
+
+            normalizer.setPsmNormalizationFactors(
+                    updateQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    getIdentificationParameters().getSequenceMatchingParameters(),
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    generator,
+                    processingParameters,
+                    psdbParent.getIdentificationParameters().getSearchParameters(),
+                    psdbParent.getIdentificationParameters().getFastaParameters(),
+                    psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    waitingHandler
+            );
+
+        }
+
+        if (normalizationLevels.contains(QuantificationLevel.peptide) && !waitingHandler.isRunCanceled()) {
+
+            normalizer.setPeptideNormalizationFactors(
+                    updateQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    getIdentificationParameters().getSequenceMatchingParameters(),
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    generator,
+                    processingParameters,
+                    psdbParent.getIdentificationParameters().getSearchParameters(),
+                    psdbParent.getIdentificationParameters().getFastaParameters(),
+                    psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    waitingHandler
+            );
+
+        }
+
+        if (normalizationLevels.contains(QuantificationLevel.protein) && !waitingHandler.isRunCanceled()) {
+
+            normalizer.setProteinNormalizationFactors(
+                    updateQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    getIdentification(),
+                    getSpectrumProvider(),
+                    getMetrics(),
+                    generator,
+                    processingParameters,
+                    psdbParent.getIdentificationParameters().getSearchParameters(),
+                    psdbParent.getIdentificationParameters().getFastaParameters(),
+                    psdbParent.getIdentificationParameters().getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    waitingHandler
+            );
+
+        }
+    }
+
     /**
      * Returns the list of selected proteins.
      *
@@ -429,12 +429,13 @@ public class ReportDialog extends javax.swing.JDialog {
         final String schemeName = (String) reportsTable.getValueAt(reportsTable.getSelectedRow(), 1);
         String textFileFilterDescription = "Tab separated text file (.txt)";
         String excelFileFilterDescription = "Excel Workbook (.xls)";
+        String largeExcelFileFilterDescription = "Excel Workbook, large reports (.xlsx)";
         String lastSelectedFolderPath = reporterGUI.getLastSelectedFolder().getLastSelectedFolder();
 
         FileAndFileFilter selectedFileAndFilter = FileChooserUtil.getUserSelectedFile(
                 this,
-                new String[]{".xls", ".txt"},
-                new String[]{excelFileFilterDescription, textFileFilterDescription},
+                new String[]{".xls", ReporterExportFactory.STREAMING_EXCEL_EXTENSION, ".txt"},
+                new String[]{excelFileFilterDescription, largeExcelFileFilterDescription, textFileFilterDescription},
                 "Export Report",
                 lastSelectedFolderPath,
                 schemeName,
@@ -1,5 +1,7 @@
 package eu.isas.reporter.gui.settings;
 
+import eu.isas.reporter.calculation.ReporterMzCalibrator;
+import eu.isas.reporter.calculation.normalization.NormalizationPreview;
 import eu.isas.reporter.gui.settings.quantification.NormalizationSettingsDialog;
 import eu.isas.reporter.gui.settings.quantification.ReporterIonSelectionSettingsDialog;
 import eu.isas.reporter.gui.settings.quantification.RatioEstimationSettingsDialog;
@@ -10,6 +12,7 @@ import eu.isas.reporter.settings.RatioEstimationSettings;
 import eu.isas.reporter.settings.ReporterIonSelectionSettings;
 import eu.isas.reporter.settings.ReporterSettings;
 import javax.swing.JDialog;
+import javax.swing.JFrame;
 
 /**
  * The preferences dialog.
@@ -47,6 +50,14 @@ public class ReporterSettingsDialog extends javax.swing.JDialog {
      * Boolean indicating whether the user can edit the settings.
      */
     private boolean editable;
+    /**
+     * The preview of the normalization factors, null if not available.
+     */
+    private NormalizationPreview normalizationPreview = null;
+    /**
+     * The calibrator of the reporter ion m/z, null if not available.
+     */
+    private ReporterMzCalibrator reporterMzCalibrator = null;
 
     /**
      * Creates a new PreferencesDialog.
@@ -78,6 +89,66 @@ public class ReporterSettingsDialog extends javax.swing.JDialog {
 
     }
 
+    /**
+     * Creates a new PreferencesDialog.
+     *
+     * @param parentFrame the parent frame
+     * @param reporterSettings the reporter settings to display
+     * @param modificationParameters the modification parameters of the search
+     * @param reporterMethod the reporter method used
+     * @param editable boolean indicating whether the settings can be edited
+     */
+    public ReporterSettingsDialog(
+            JFrame parentFrame,
+            ReporterSettings reporterSettings,
+            ModificationParameters modificationParameters,
+            ReporterMethod reporterMethod,
+            boolean editable
+    ) {
+
+        this(parentFrame, reporterSettings, modificationParameters, reporterMethod, null, null, editable);
+
+    }
+
+    /**
+     * Creates a new PreferencesDialog offering a preview of the normalization
+     * factors and the calibration of the reporter ion m/z.
+     *
+     * @param parentFrame the parent frame
+     * @param reporterSettings the reporter settings to display
+     * @param modificationParameters the modification parameters of the search
+     * @param reporterMethod the reporter method used
+     * @param normalizationPreview the preview of the normalization factors,
+     * null if not available
+     * @param reporterMzCalibrator the calibrator of the reporter ion m/z, null
+     * if not available
+     * @param editable boolean indicating whether the settings can be edited
+     */
+    public ReporterSettingsDialog(
+            JFrame parentFrame,
+            ReporterSettings reporterSettings,
+            ModificationParameters modificationParameters,
+            ReporterMethod reporterMethod,
+            NormalizationPreview normalizationPreview,
+            ReporterMzCalibrator reporterMzCalibrator,
+            boolean editable
+    ) {
+
+        super(parentFrame, true);
+        this.normalizationPreview = normalizationPreview;
+        this.reporterMzCalibrator = reporterMzCalibrator;
+        this.reporterIonSelectionSettings = reporterSettings.getReporterIonSelectionSettings();
+        this.ratioEstimationSettings = reporterSettings.getRatioEstimationSettings();
+        this.normalizationSettings = reporterSettings.getNormalizationSettings();
+        this.modificationParameters = modificationParameters;
+        this.reporterMethod = reporterMethod;
+        this.editable = editable;
+        initComponents();
+        setLocationRelativeTo(parentFrame);
+        setVisible(true);
+
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -233,6 +304,7 @@ public class ReporterSettingsDialog extends javax.swing.JDialog {
                         this,
                         reporterIonSelectionSettings,
                         reporterMethod,
+                        reporterMzCalibrator,
                         editable
                 );
 
@@ -274,6 +346,7 @@ public class ReporterSettingsDialog extends javax.swing.JDialog {
                 = new NormalizationSettingsDialog(
                         this,
                         normalizationSettings,
+                        normalizationPreview,
                         editable
                 );
 
@@ -1,14 +1,25 @@
 package eu.isas.reporter.gui.settings.quantification;
 
 import com.compomics.util.gui.renderers.AlignedListCellRenderer;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.calculation.normalization.NormalizationEstimate;
+import eu.isas.reporter.calculation.normalization.NormalizationPreview;
 import eu.isas.reporter.calculation.normalization.NormalizationType;
 import eu.isas.reporter.settings.NormalizationSettings;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
+import javax.swing.table.AbstractTableModel;
 
 /**
  * The preferences dialog.
@@ -42,6 +53,18 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
      * FASTA file containing the contaminant proteins.
      */
     private File contaminantsFile;
+    /**
+     * The preview of the normalization factors, null if not available.
+     */
+    private NormalizationPreview normalizationPreview = null;
+    /**
+     * Executor estimating the factors of the preview.
+     */
+    private ExecutorService previewExecutor = null;
+    /**
+     * The rows of the preview table.
+     */
+    private ArrayList<String[]> previewRows = new ArrayList<>();
 
     /**
      * Creates a new NormalizationSettingsDialog.
@@ -56,10 +79,33 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
             boolean editable
     ) {
 
+        this(parentDialog, normalizationSettings, null, editable);
+
+    }
+
+    /**
+     * Creates a new NormalizationSettingsDialog displaying a preview of the
+     * normalization factors.
+     *
+     * @param parentDialog the parent dialog
+     * @param normalizationSettings the settings to display
+     * @param normalizationPreview the preview of the normalization factors,
+     * null if not available
+     * @param editable boolean indicating whether the settings can be edited
+     */
+    public NormalizationSettingsDialog(
+            JDialog parentDialog,
+            NormalizationSettings normalizationSettings,
+            NormalizationPreview normalizationPreview,
+            boolean editable
+    ) {
+
         super(parentDialog, true);
+        this.normalizationPreview = normalizationPreview;
         initComponents();
         setUpGui(editable);
         populateGUI(normalizationSettings);
+        startPreview();
         setLocationRelativeTo(parentDialog);
         setVisible(true);
 
@@ -84,6 +130,10 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
         peptideNormalizationCmb.setRenderer(new AlignedListCellRenderer(SwingConstants.CENTER));
         proteinNormalizationCmb.setRenderer(new AlignedListCellRenderer(SwingConstants.CENTER));
 
+        previewPanel.setVisible(normalizationPreview != null);
+        previewScrollPane.getViewport().setOpaque(false);
+        pack();
+
     }
 
     /**
@@ -124,6 +174,137 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
             contaminantsTxt.setText("No File Selected");
         }
 
+        updatePreview();
+
+    }
+
+    /**
+     * Starts sampling the matches for the preview, if available.
+     */
+    private void startPreview() {
+
+        if (normalizationPreview != null) {
+
+            previewExecutor = Executors.newSingleThreadExecutor();
+            normalizationPreview.start(() -> updatePreview());
+            updatePreview();
+
+        }
+    }
+
+    /**
+     * Estimates the factors of the preview for the current settings in the
+     * background and displays them when done.
+     */
+    private void updatePreview() {
+
+        if (normalizationPreview == null || previewExecutor == null || previewExecutor.isShutdown()) {
+            return;
+        }
+
+        final NormalizationSettings normalizationSettings = getNormalizationSettings();
+
+        try {
+
+            previewExecutor.submit(() -> {
+
+                ArrayList<String[]> rows = new ArrayList<>();
+                String status;
+
+                try {
+
+                    HashMap<QuantificationLevel, HashMap<String, NormalizationEstimate>> estimates = new HashMap<>(NormalizationPreview.LEVELS.length);
+                    TreeSet<String> sampleIndexes = new TreeSet<>();
+
+                    for (QuantificationLevel level : NormalizationPreview.LEVELS) {
+
+                        HashMap<String, NormalizationEstimate> levelEstimates = normalizationPreview.getEstimates(level, normalizationSettings);
+                        estimates.put(level, levelEstimates);
+                        sampleIndexes.addAll(levelEstimates.keySet());
+
+                    }
+
+                    for (String sampleIndex : sampleIndexes) {
+
+                        String[] row = new String[NormalizationPreview.LEVELS.length + 1];
+                        row[0] = sampleIndex;
+
+                        for (int i = 0; i < NormalizationPreview.LEVELS.length; i++) {
+
+                            NormalizationEstimate estimate = estimates.get(NormalizationPreview.LEVELS[i]).get(sampleIndex);
+                            row[i + 1] = estimate == null || estimate.getnRatios() == 0
+                                    ? "-"
+                                    : String.format("%.3f [%.3f - %.3f]", estimate.getFactor(), estimate.getLowerBound(), estimate.getUpperBound());
+
+                        }
+
+                        rows.add(row);
+
+                    }
+
+                    StringBuilder statusBuilder = new StringBuilder("Estimated from ");
+
+                    for (int i = 0; i < NormalizationPreview.LEVELS.length; i++) {
+
+                        QuantificationLevel level = NormalizationPreview.LEVELS[i];
+
+                        if (i > 0) {
+                            statusBuilder.append(", ");
+                        }
+
+                        statusBuilder.append(Math.round(100 * normalizationPreview.getSamplingFraction(level)))
+                                .append("% of the ")
+                                .append(level.name)
+                                .append("s");
+
+                    }
+
+                    statusBuilder.append(normalizationPreview.isComplete() ? "" : " (sampling)")
+                            .append(". Exact factors are computed when the settings are applied.");
+                    status = statusBuilder.toString();
+
+                } catch (UnsupportedOperationException e) {
+
+                    status = "No preview available for this normalization method.";
+
+                } catch (Exception e) {
+
+                    status = "Preview not available: " + e.getLocalizedMessage();
+
+                }
+
+                final ArrayList<String[]> finalRows = rows;
+                final String finalStatus = status;
+
+                SwingUtilities.invokeLater(() -> {
+
+                    previewRows = finalRows;
+                    ((PreviewTableModel) previewTable.getModel()).fireTableDataChanged();
+                    previewLbl.setText(finalStatus);
+
+                });
+
+            });
+
+        } catch (RejectedExecutionException e) {
+            // the dialog was closed
+        }
+    }
+
+    @Override
+    public void dispose() {
+
+        if (normalizationPreview != null) {
+
+            normalizationPreview.stop();
+
+            if (previewExecutor != null) {
+                previewExecutor.shutdownNow();
+            }
+        }
+
+        super.dispose();
+
     }
 
     /**
@@ -154,6 +335,10 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
         contaminantsBrowseButton = new javax.swing.JButton();
         stableProteinsTxt = new javax.swing.JTextField();
         contaminantsTxt = new javax.swing.JTextField();
+        previewPanel = new javax.swing.JPanel();
+        previewScrollPane = new javax.swing.JScrollPane();
+        previewTable = new javax.swing.JTable();
+        previewLbl = new javax.swing.JLabel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("Normalization Settings");
@@ -328,6 +513,37 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
+        previewPanel.setBorder(javax.swing.BorderFactory.createTitledBorder("Preview"));
+        previewPanel.setOpaque(false);
+
+        previewTable.setModel(new PreviewTableModel());
+        previewTable.getTableHeader().setReorderingAllowed(false);
+        previewScrollPane.setViewportView(previewTable);
+
+        previewLbl.setFont(previewLbl.getFont().deriveFont((previewLbl.getFont().getStyle() | java.awt.Font.ITALIC)));
+        previewLbl.setText("Sampling the matches. Please Wait...");
+
+        javax.swing.GroupLayout previewPanelLayout = new javax.swing.GroupLayout(previewPanel);
+        previewPanel.setLayout(previewPanelLayout);
+        previewPanelLayout.setHorizontalGroup(
+            previewPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(previewPanelLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(previewPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(previewScrollPane, javax.swing.GroupLayout.DEFAULT_SIZE, 683, Short.MAX_VALUE)
+                    .addComponent(previewLbl, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+                .addContainerGap())
+        );
+        previewPanelLayout.setVerticalGroup(
+            previewPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(previewPanelLayout.createSequentialGroup()
+                .addContainerGap()
+                .addComponent(previewScrollPane, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(previewLbl)
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+
         javax.swing.GroupLayout backgroundPanelLayout = new javax.swing.GroupLayout(backgroundPanel);
         backgroundPanel.setLayout(backgroundPanelLayout);
         backgroundPanelLayout.setHorizontalGroup(
@@ -341,7 +557,8 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(cancelButton, javax.swing.GroupLayout.PREFERRED_SIZE, 69, javax.swing.GroupLayout.PREFERRED_SIZE))
                     .addComponent(matchesNormalizationPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                    .addComponent(specialProteinsPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+                    .addComponent(specialProteinsPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(previewPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                 .addContainerGap())
         );
         backgroundPanelLayout.setVerticalGroup(
@@ -352,6 +569,8 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(specialProteinsPanel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(previewPanel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(backgroundPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(cancelButton)
                     .addComponent(okButton))
@@ -464,6 +683,7 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
      */
     private void psmNormalizationCmbActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_psmNormalizationCmbActionPerformed
         psmNormalizationType = (NormalizationType) psmNormalizationCmb.getSelectedItem();
+        updatePreview();
     }//GEN-LAST:event_psmNormalizationCmbActionPerformed
 
     /**
@@ -473,6 +693,7 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
      */
     private void peptideNormalizationCmbActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_peptideNormalizationCmbActionPerformed
         peptideNormalizationType = (NormalizationType) peptideNormalizationCmb.getSelectedItem();
+        updatePreview();
     }//GEN-LAST:event_peptideNormalizationCmbActionPerformed
 
     /**
@@ -482,6 +703,7 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
      */
     private void proteinNormalizationCmbActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_proteinNormalizationCmbActionPerformed
         proteinNormalizationType = (NormalizationType) proteinNormalizationCmb.getSelectedItem();
+        updatePreview();
     }//GEN-LAST:event_proteinNormalizationCmbActionPerformed
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -496,6 +718,10 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
     private javax.swing.JButton okButton;
     private javax.swing.JComboBox peptideNormalizationCmb;
     private javax.swing.JLabel peptideNormalizationLbl;
+    private javax.swing.JLabel previewLbl;
+    private javax.swing.JPanel previewPanel;
+    private javax.swing.JScrollPane previewScrollPane;
+    private javax.swing.JTable previewTable;
     private javax.swing.JComboBox proteinNormalizationCmb;
     private javax.swing.JLabel proteinNormalizationLbl;
     private javax.swing.JComboBox psmNormalizationCmb;
@@ -579,4 +805,41 @@ public class NormalizationSettingsDialog extends javax.swing.JDialog {
         return null;
 
     }
+
+    /**
+     * Table model for the preview of the normalization factors.
+     */
+    private class PreviewTableModel extends AbstractTableModel {
+
+        @Override
+        public int getRowCount() {
+            return previewRows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return NormalizationPreview.LEVELS.length + 1;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+
+            if (column == 0) {
+                return "Sample";
+            }
+
+            return NormalizationPreview.LEVELS[column - 1].name;
+
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return previewRows.get(row)[column];
+        }
+
+        @Override
+        public Class getColumnClass(int columnIndex) {
+            return String.class;
+        }
+    }
 }
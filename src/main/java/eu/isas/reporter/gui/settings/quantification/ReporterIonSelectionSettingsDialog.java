@@ -2,11 +2,17 @@ package eu.isas.reporter.gui.settings.quantification;
 
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
 import com.compomics.util.gui.renderers.AlignedListCellRenderer;
+import eu.isas.reporter.calculation.ReporterMzCalibration;
+import eu.isas.reporter.calculation.ReporterMzCalibrator;
 import eu.isas.reporter.settings.ReporterIonSelectionSettings;
 import eu.isas.reporter.settings.ReporterIonsLocationType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import javax.swing.JDialog;
 import javax.swing.JOptionPane;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 /**
  * The preferences dialog.
@@ -24,6 +30,18 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
      * The reporter method used.
      */
     private ReporterMethod reporterMethod = null;
+    /**
+     * The calibrator of the reporter ion m/z, null if not available.
+     */
+    private ReporterMzCalibrator reporterMzCalibrator = null;
+    /**
+     * Executor running the calibration.
+     */
+    private ExecutorService calibrationExecutor = null;
+    /**
+     * The last calibration of the reporter ion m/z.
+     */
+    private ReporterMzCalibration reporterMzCalibration = null;
 
     /**
      * Creates a new ReporterIonSelectionSettingsDialog.
@@ -40,8 +58,38 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
             boolean editable
     ) {
 
+        this(
+                parentDialog,
+                reporterIonSelectionSettings,
+                reporterMethod,
+                null,
+                editable
+        );
+
+    }
+
+    /**
+     * Creates a new ReporterIonSelectionSettingsDialog offering to calibrate
+     * the reporter ion m/z tolerance and offset.
+     *
+     * @param parentDialog the parent dialog
+     * @param reporterIonSelectionSettings the settings to display
+     * @param reporterMethod the reporter method used
+     * @param reporterMzCalibrator the calibrator of the reporter ion m/z, null
+     * if not available
+     * @param editable boolean indicating whether the settings can be edited
+     */
+    public ReporterIonSelectionSettingsDialog(
+            JDialog parentDialog,
+            ReporterIonSelectionSettings reporterIonSelectionSettings,
+            ReporterMethod reporterMethod,
+            ReporterMzCalibrator reporterMzCalibrator,
+            boolean editable
+    ) {
+
         super(parentDialog, true);
         this.reporterMethod = reporterMethod;
+        this.reporterMzCalibrator = reporterMzCalibrator;
         initComponents();
         setUpGui(editable);
         populateGUI(reporterIonSelectionSettings);
@@ -83,6 +131,11 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
 
         //@TODO: Set editable or not
         ionSelectionComboBox.setRenderer(new AlignedListCellRenderer(SwingConstants.CENTER));
+
+        calibrationPanel.setVisible(reporterMzCalibrator != null);
+        calibrateButton.setEnabled(editable);
+        pack();
+
     }
 
     /**
@@ -93,6 +146,7 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
     private void populateGUI(ReporterIonSelectionSettings reporterIonSelectionSettings) {
 
         ionToleranceTxt.setText(reporterIonSelectionSettings.getReporterIonsMzTolerance() + "");
+        ionOffsetTxt.setText(reporterIonSelectionSettings.getReporterIonsMzOffset() + "");
 
         if (reporterIonSelectionSettings.isMostAccurate()) {
             ionSelectionComboBox.setSelectedIndex(0);
@@ -142,6 +196,8 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
         spectrumAnalysisPanel = new javax.swing.JPanel();
         reporterIonMzToleranceLabel = new javax.swing.JLabel();
         ionToleranceTxt = new javax.swing.JTextField();
+        reporterIonMzOffsetLabel = new javax.swing.JLabel();
+        ionOffsetTxt = new javax.swing.JTextField();
         ionSelectionLabel = new javax.swing.JLabel();
         ionSelectionComboBox = new javax.swing.JComboBox();
         reporterLocationPanel = new javax.swing.JPanel();
@@ -153,6 +209,11 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
         rtToleranceLabel = new javax.swing.JLabel();
         rtTolTxt = new javax.swing.JTextField();
         ms3SpectrumReportersOption = new javax.swing.JRadioButton();
+        calibrationPanel = new javax.swing.JPanel();
+        calibrationScrollPane = new javax.swing.JScrollPane();
+        calibrationTxt = new javax.swing.JTextArea();
+        calibrateButton = new javax.swing.JButton();
+        applyCalibrationButton = new javax.swing.JButton();
         cancelButton = new javax.swing.JButton();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
@@ -175,6 +236,10 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
 
         ionToleranceTxt.setHorizontalAlignment(javax.swing.JTextField.CENTER);
 
+        reporterIonMzOffsetLabel.setText("Reporter Offset (m/z)");
+
+        ionOffsetTxt.setHorizontalAlignment(javax.swing.JTextField.CENTER);
+
         ionSelectionLabel.setText("Ion Selection");
 
         ionSelectionComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Most Accurate", "Most Intense" }));
@@ -190,6 +255,10 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
                         .addComponent(reporterIonMzToleranceLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addGap(18, 18, 18)
                         .addComponent(ionToleranceTxt))
+                    .addGroup(spectrumAnalysisPanelLayout.createSequentialGroup()
+                        .addComponent(reporterIonMzOffsetLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(18, 18, 18)
+                        .addComponent(ionOffsetTxt))
                     .addGroup(spectrumAnalysisPanelLayout.createSequentialGroup()
                         .addComponent(ionSelectionLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addGap(18, 18, 18)
@@ -204,6 +273,10 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
                     .addComponent(reporterIonMzToleranceLabel)
                     .addComponent(ionToleranceTxt, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addGap(0, 0, 0)
+                .addGroup(spectrumAnalysisPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(reporterIonMzOffsetLabel)
+                    .addComponent(ionOffsetTxt, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addGap(0, 0, 0)
                 .addGroup(spectrumAnalysisPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(ionSelectionLabel)
                     .addComponent(ionSelectionComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
@@ -302,6 +375,57 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
+        calibrationPanel.setBorder(javax.swing.BorderFactory.createTitledBorder("Calibration"));
+        calibrationPanel.setOpaque(false);
+
+        calibrationTxt.setEditable(false);
+        calibrationTxt.setColumns(20);
+        calibrationTxt.setRows(5);
+        calibrationTxt.setText("Estimate the reporter ion m/z tolerance and offset on a sample of the identified spectra.");
+        calibrationScrollPane.setViewportView(calibrationTxt);
+
+        calibrateButton.setText("Calibrate");
+        calibrateButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                calibrateButtonActionPerformed(evt);
+            }
+        });
+
+        applyCalibrationButton.setText("Apply");
+        applyCalibrationButton.setEnabled(false);
+        applyCalibrationButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                applyCalibrationButtonActionPerformed(evt);
+            }
+        });
+
+        javax.swing.GroupLayout calibrationPanelLayout = new javax.swing.GroupLayout(calibrationPanel);
+        calibrationPanel.setLayout(calibrationPanelLayout);
+        calibrationPanelLayout.setHorizontalGroup(
+            calibrationPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(calibrationPanelLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(calibrationPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(calibrationScrollPane, javax.swing.GroupLayout.DEFAULT_SIZE, 400, Short.MAX_VALUE)
+                    .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, calibrationPanelLayout.createSequentialGroup()
+                        .addGap(0, 0, Short.MAX_VALUE)
+                        .addComponent(calibrateButton)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(applyCalibrationButton)))
+                .addContainerGap())
+        );
+        calibrationPanelLayout.setVerticalGroup(
+            calibrationPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(calibrationPanelLayout.createSequentialGroup()
+                .addContainerGap()
+                .addComponent(calibrationScrollPane, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(calibrationPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(calibrateButton)
+                    .addComponent(applyCalibrationButton))
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+
         cancelButton.setText("Cancel");
         cancelButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -318,6 +442,7 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
                 .addGroup(backgroundPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(reporterLocationPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(spectrumAnalysisPanel, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(calibrationPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, backgroundPanelLayout.createSequentialGroup()
                         .addGap(0, 0, Short.MAX_VALUE)
                         .addComponent(okButton, javax.swing.GroupLayout.PREFERRED_SIZE, 69, javax.swing.GroupLayout.PREFERRED_SIZE)
@@ -332,6 +457,8 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
                 .addComponent(spectrumAnalysisPanel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(reporterLocationPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(calibrationPanel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addGroup(backgroundPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(okButton)
@@ -412,9 +539,98 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
         updateReporterLocationOptions();
     }//GEN-LAST:event_ms3SpectrumReportersOptionActionPerformed
 
+    /**
+     * Calibrate the reporter ion m/z tolerance and offset in the background
+     * starting from the current settings.
+     *
+     * @param evt
+     */
+    private void calibrateButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_calibrateButtonActionPerformed
+
+        if (reporterMzCalibrator == null || !validateInput()) {
+            return;
+        }
+
+        final ReporterIonSelectionSettings reporterIonSelectionSettings = getReporterIonSelectionSettings();
+
+        if (calibrationExecutor == null) {
+            calibrationExecutor = Executors.newSingleThreadExecutor();
+        }
+
+        calibrateButton.setEnabled(false);
+        applyCalibrationButton.setEnabled(false);
+        calibrationTxt.setText("Sampling the spectra. Please Wait...");
+
+        try {
+
+            calibrationExecutor.submit(() -> {
+
+                ReporterMzCalibration calibration = null;
+                String report;
+
+                try {
+
+                    calibration = reporterMzCalibrator.calibrate(reporterIonSelectionSettings, null);
+                    report = calibration == null
+                            ? "No calibration available."
+                            : calibration.getReport();
+
+                } catch (InterruptedException e) {
+
+                    return;
+
+                } catch (Exception e) {
+
+                    report = "Calibration not available: " + e.getLocalizedMessage();
+
+                }
+
+                final ReporterMzCalibration finalCalibration = calibration;
+                final String finalReport = report;
+
+                SwingUtilities.invokeLater(() -> {
+
+                    reporterMzCalibration = finalCalibration;
+                    calibrationTxt.setText(finalReport);
+                    calibrationTxt.setCaretPosition(0);
+                    calibrateButton.setEnabled(true);
+                    applyCalibrationButton.setEnabled(finalCalibration != null && finalCalibration.isReliable());
+
+                });
+
+            });
+
+        } catch (RejectedExecutionException e) {
+            // the dialog was closed
+        }
+
+    }//GEN-LAST:event_calibrateButtonActionPerformed
+
+    /**
+     * Set the tolerance and offset proposed by the calibration.
+     *
+     * @param evt
+     */
+    private void applyCalibrationButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_applyCalibrationButtonActionPerformed
+
+        if (reporterMzCalibration != null && reporterMzCalibration.isReliable()) {
+
+            ionToleranceTxt.setText(reporterMzCalibration.getTolerance() + "");
+            ionOffsetTxt.setText(reporterMzCalibration.getOffset() + "");
+
+        }
+
+    }//GEN-LAST:event_applyCalibrationButtonActionPerformed
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton applyCalibrationButton;
     private javax.swing.JPanel backgroundPanel;
+    private javax.swing.JButton calibrateButton;
+    private javax.swing.JPanel calibrationPanel;
+    private javax.swing.JScrollPane calibrationScrollPane;
+    private javax.swing.JTextArea calibrationTxt;
     private javax.swing.JButton cancelButton;
+    private javax.swing.JTextField ionOffsetTxt;
     private javax.swing.JComboBox ionSelectionComboBox;
     private javax.swing.JLabel ionSelectionLabel;
     private javax.swing.JTextField ionToleranceTxt;
@@ -425,6 +641,7 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
     private javax.swing.JButton okButton;
     private javax.swing.JComboBox ppmCmb;
     private javax.swing.JRadioButton precursorMatchingReportersOption;
+    private javax.swing.JLabel reporterIonMzOffsetLabel;
     private javax.swing.JLabel reporterIonMzToleranceLabel;
     private javax.swing.ButtonGroup reporterLocationButtonGroup;
     private javax.swing.JPanel reporterLocationPanel;
@@ -433,6 +650,17 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
     private javax.swing.JPanel spectrumAnalysisPanel;
     // End of variables declaration//GEN-END:variables
 
+    @Override
+    public void dispose() {
+
+        if (calibrationExecutor != null) {
+            calibrationExecutor.shutdownNow();
+        }
+
+        super.dispose();
+
+    }
+
     /**
      * Indicates whether the user canceled the editing.
      *
@@ -494,6 +722,22 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
             return false;
         }
 
+        // check the ion offset
+        try {
+            Double.valueOf(ionOffsetTxt.getText().trim());
+        } catch (Exception e) {
+
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Please input a number for the ion offset.",
+                    "Ion Offset Error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+
+            return false;
+
+        }
+
         if (reporterMethod != null) {
 
             for (String reagent1 : reporterMethod.getReagentNames()) {
@@ -594,6 +838,8 @@ public class ReporterIonSelectionSettingsDialog extends javax.swing.JDialog {
         ReporterIonSelectionSettings reporterIonSelectionSettings = new ReporterIonSelectionSettings();
         Double ionTolerance = Double.valueOf(ionToleranceTxt.getText().trim());
         reporterIonSelectionSettings.setReporterIonsMzTolerance(ionTolerance);
+        Double ionOffset = Double.valueOf(ionOffsetTxt.getText().trim());
+        reporterIonSelectionSettings.setReporterIonsMzOffset(ionOffset);
         reporterIonSelectionSettings.setMostAccurate(ionSelectionComboBox.getSelectedIndex() == 0);
 
         if (ms2SpectrumReportersOption.isSelected()) {
@@ -6,11 +6,14 @@ import com.compomics.util.experiment.biology.ions.impl.ReporterIon;
 import com.compomics.util.experiment.biology.modifications.Modification;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
 import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.io.mass_spectrometry.MsFileHandler;
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFolder;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.experiment.quantification.Quantification;
 import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
 import com.compomics.util.experiment.quantification.reporterion.ReporterMethodFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.io.IoUtil;
 import com.compomics.util.math.clustering.settings.KMeansClusteringSettings;
 import com.compomics.util.parameters.identification.IdentificationParameters;
@@ -26,6 +29,7 @@ import eu.isas.reporter.preferences.DisplayPreferences;
 import eu.isas.reporter.settings.ClusteringSettings;
 import eu.isas.reporter.settings.ReporterIonSelectionSettings;
 import eu.isas.reporter.settings.ReporterSettings;
+import eu.isas.reporter.utils.StartupLoader;
 import java.awt.Color;
 import java.awt.Dialog;
 import java.io.File;
@@ -34,8 +38,12 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.compress.archivers.ArchiveException;
 
 /**
@@ -74,6 +82,14 @@ public class ProjectImporter {
      * The default reporter ion tolerance for TMT data.
      */
     public static final double DEFAULT_REPORTER_ION_TOLERANCE_ITRAQ = 0.05;
+    /**
+     * The default maximal number of spectrum files loaded in parallel.
+     */
+    public static final int DEFAULT_SPECTRUM_LOADING_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    /**
+     * The maximal number of spectrum files loaded in parallel.
+     */
+    private int spectrumLoadingThreads = DEFAULT_SPECTRUM_LOADING_THREADS;
 
     /**
      * Constructor.
@@ -151,44 +167,228 @@ public class ProjectImporter {
         }
 
         // load the spectrum files
-        Set<String> spectrumFiles = psdbParent.getProjectDetails().getSpectrumFileNames();
+        ArrayList<String> spectrumFiles = new ArrayList<>(psdbParent.getProjectDetails().getSpectrumFileNames());
         waitingHandler.setWaitingText("Loading Spectrum Files. Please Wait...");
+
+        if (spectrumLoadingThreads > 1 && spectrumFiles.size() > 1) {
+
+            loadSpectrumFilesParallel(psdbParent, spectrumFiles, mgfFiles, waitingHandler);
+
+        } else {
+
+            waitingHandler.setPrimaryProgressCounterIndeterminate(true);
+
+            int cpt = 0, total = spectrumFiles.size();
+
+            for (String spectrumFileName : spectrumFiles) {
+
+                waitingHandler.setWaitingText("Loading Spectrum Files (" + ++cpt + " of " + total + "). Please Wait...");
+
+                if (owner != null) { // GUI
+
+                    try {
+                        psdbParent.loadSpectrumFile(spectrumFileName, mgfFiles, waitingHandler);
+                    } catch (Exception e) {
+                        // Ignore, can be set from the GUI
+                    }
+
+                    if (waitingHandler.isRunCanceled()) {
+                        waitingHandler.setRunFinished();
+                        break;
+                    }
+
+                } else { // CLI
+
+                    if (!psdbParent.loadSpectrumFile(spectrumFileName, mgfFiles, waitingHandler)) {
+                        throw new IllegalArgumentException(spectrumFileName + " was not found. Please provide its location in the command line parameters.");
+                    }
+
+                }
+            }
+        }
+
+        if (waitingHandler.isRunCanceled()) {
+            waitingHandler.setRunFinished();
+            return;
+        }
+
         waitingHandler.setPrimaryProgressCounterIndeterminate(true);
+    }
 
-        int cpt = 0, total = spectrumFiles.size();
+    /**
+     * Loads the spectrum files, parsing and indexing at most
+     * spectrumLoadingThreads files at a time. Every file is indexed in a
+     * handler private to its thread, then the files are registered one by one
+     * in the spectrum handler of the project on the calling thread, where the
+     * indexes written by the first step are reused. In command line, the first
+     * file failing to load cancels the loading of the others.
+     *
+     * @param psdbParent the psdb parent object where the psdb file is loaded
+     * @param spectrumFiles the names of the spectrum files to load
+     * @param mgfFiles the arraylist to add the detected mgf files to
+     * @param waitingHandler a waiting handler to display the progress to the
+     * user and allow interrupting the process
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    private void loadSpectrumFilesParallel(
+            PsdbParent psdbParent,
+            ArrayList<String> spectrumFiles,
+            ArrayList<File> mgfFiles,
+            WaitingHandler waitingHandler
+    ) throws IOException, InterruptedException {
 
-        for (String spectrumFileName : spectrumFiles) {
+        int total = spectrumFiles.size();
 
-            waitingHandler.setWaitingText("Loading Spectrum Files (" + ++cpt + " of " + total + "). Please Wait...");
+        waitingHandler.setPrimaryProgressCounterIndeterminate(false);
+        waitingHandler.resetPrimaryProgressCounter();
+        waitingHandler.setMaxPrimaryProgressCounter(2 * total);
 
-            if (owner != null) { // GUI
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(spectrumLoadingThreads, total));
+        ExecutorCompletionService<String> completionService = new ExecutorCompletionService<>(pool);
+
+        try {
+
+            for (String spectrumFileName : spectrumFiles) {
+
+                String filePath = psdbParent.getProjectDetails().getSpectrumFilePath(spectrumFileName);
+
+                completionService.submit(() -> {
+
+                    indexSpectrumFile(filePath);
+
+                    return spectrumFileName;
+
+                });
+            }
+
+            for (int cpt = 1; cpt <= total; cpt++) {
 
                 try {
-                    psdbParent.loadSpectrumFile(spectrumFileName, mgfFiles, waitingHandler);
-                } catch (Exception e) {
-                    // Ignore, can be set from the GUI
+
+                    String spectrumFileName = completionService.take().get();
+                    waitingHandler.setWaitingText("Indexing Spectrum Files (" + cpt + " of " + total + ", " + spectrumFileName + " done). Please Wait...");
+                    waitingHandler.increasePrimaryProgressCounter();
+
+                } catch (ExecutionException e) {
+
+                    throw new IOException("An error occurred while indexing the spectrum files.", e.getCause());
+
                 }
 
                 if (waitingHandler.isRunCanceled()) {
                     waitingHandler.setRunFinished();
-                    break;
+                    return;
                 }
+            }
+
+        } finally {
+
+            // cancels the files still indexing if an error occurred or the process was canceled
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        }
+
+        // register the files in the spectrum handler of the project, one at a time
+        synchronized (psdbParent) {
+
+            int cpt = 0;
+
+            for (String spectrumFileName : spectrumFiles) {
+
+                waitingHandler.setWaitingText("Loading Spectrum Files (" + ++cpt + " of " + total + "). Please Wait...");
+
+                if (owner != null) { // GUI
+
+                    try {
+                        psdbParent.loadSpectrumFile(spectrumFileName, mgfFiles, waitingHandler);
+                    } catch (Exception e) {
+                        // Ignore, can be set from the GUI
+                    }
+
+                } else { // CLI
 
-            } else { // CLI
+                    if (!psdbParent.loadSpectrumFile(spectrumFileName, mgfFiles, waitingHandler)) {
+                        throw new IllegalArgumentException(spectrumFileName + " was not found. Please provide its location in the command line parameters.");
+                    }
 
-                if (!psdbParent.loadSpectrumFile(spectrumFileName, mgfFiles, waitingHandler)) {
-                    throw new IllegalArgumentException(spectrumFileName + " was not found. Please provide its location in the command line parameters.");
                 }
 
+                waitingHandler.increasePrimaryProgressCounter();
+
+                if (waitingHandler.isRunCanceled()) {
+                    waitingHandler.setRunFinished();
+                    return;
+                }
             }
         }
+    }
 
-        if (waitingHandler.isRunCanceled()) {
-            waitingHandler.setRunFinished();
+    /**
+     * Parses and indexes the given spectrum file in a handler private to the
+     * calling thread so that its index can be reused when the file is
+     * registered in the project. Files which cannot be found or indexed here
+     * are left to the registration, which reports the problem to the user.
+     *
+     * @param filePath the path of the spectrum file as saved in the project
+     */
+    private static void indexSpectrumFile(
+            String filePath
+    ) {
+
+        if (filePath == null) {
             return;
         }
 
-        waitingHandler.setPrimaryProgressCounterIndeterminate(true);
+        File file = new File(filePath);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        File folder = CmsFolder.getParentFolder() == null ? file.getParentFile() : new File(CmsFolder.getParentFolder());
+        MsFileHandler msFileHandler = new MsFileHandler();
+
+        try {
+
+            msFileHandler.register(file, folder, new WaitingHandlerCLIImpl());
+
+        } catch (Exception e) {
+
+            // Ignore, the file is indexed again when registered
+
+        } finally {
+
+            msFileHandler.close();
+
+        }
+    }
+
+    /**
+     * Returns the maximal number of spectrum files loaded in parallel.
+     *
+     * @return the maximal number of spectrum files loaded in parallel
+     */
+    public int getSpectrumLoadingThreads() {
+        return spectrumLoadingThreads;
+    }
+
+    /**
+     * Sets the maximal number of spectrum files loaded in parallel. This limit
+     * is independent of the number of threads used for the processing: loading
+     * is mostly bound by the disk.
+     *
+     * @param spectrumLoadingThreads the maximal number of spectrum files loaded
+     * in parallel
+     */
+    public void setSpectrumLoadingThreads(
+            int spectrumLoadingThreads
+    ) {
+        this.spectrumLoadingThreads = spectrumLoadingThreads;
     }
 
     /**
@@ -333,14 +533,17 @@ public class ProjectImporter {
      * @param identificationParameters the identification parameters
      *
      * @return the default reporter ion quantification
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the methods
      */
     public static ReporterIonQuantification getDefaultReporterIonQuantification(
             IdentificationParameters identificationParameters
-    ) {
+    ) throws IOException {
 
         ReporterMethod selectedMethod = null;
         SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        ReporterMethodFactory reporterMethodFactory = ReporterMethodFactory.getInstance();
+        ReporterMethodFactory reporterMethodFactory = StartupLoader.getMethodsFactory();
 
         // try to detect the method used
         for (String ptmName : searchParameters.getModificationParameters().getAllModifications()) {
@@ -0,0 +1,144 @@
+package eu.isas.reporter.quantificationdetails;
+
+import com.compomics.util.experiment.biology.ions.impl.ReporterIon;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.experiment.quantification.reporterion.ReporterMethod;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Table of the channels of a project, mapping every sample index to an
+ * integer. The table is shared by the quantification details of a project,
+ * which then store their values in arrays indexed by channel.
+ *
+ * @author Marc Vaudel
+ */
+public class ChannelTable {
+
+    /**
+     * The maximal number of channels supported.
+     */
+    public static final int MAX_CHANNELS = Long.SIZE;
+    /**
+     * The sample indexes sorted by channel.
+     */
+    private final String[] sampleIndexes;
+    /**
+     * The reporter ions sorted by channel.
+     */
+    private final ReporterIon[] reporterIons;
+    /**
+     * The channel of every sample index.
+     */
+    private final HashMap<String, Integer> channels;
+
+    /**
+     * Constructor.
+     *
+     * @param reporterIonQuantification the reporter ion quantification
+     */
+    public ChannelTable(
+            ReporterIonQuantification reporterIonQuantification
+    ) {
+
+        ArrayList<String> sortedIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
+        Collections.sort(sortedIndexes);
+
+        if (sortedIndexes.size() > MAX_CHANNELS) {
+            throw new IllegalArgumentException(
+                    "The number of channels (" + sortedIndexes.size() + ") exceeds the maximum (" + MAX_CHANNELS + ")."
+            );
+        }
+
+        ReporterMethod reporterMethod = reporterIonQuantification.getReporterMethod();
+
+        sampleIndexes = new String[sortedIndexes.size()];
+        reporterIons = new ReporterIon[sortedIndexes.size()];
+        channels = new HashMap<>(sortedIndexes.size());
+
+        for (int i = 0; i < sortedIndexes.size(); i++) {
+
+            String sampleIndex = sortedIndexes.get(i);
+
+            sampleIndexes[i] = sampleIndex;
+            reporterIons[i] = reporterMethod == null ? null : reporterMethod.getReporterIon(sampleIndex);
+            channels.put(sampleIndex, i);
+
+        }
+    }
+
+    /**
+     * Returns the channel of the given sample index, -1 if not found.
+     *
+     * @param sampleIndex the sample index
+     *
+     * @return the channel of the given sample index
+     */
+    public int getChannel(
+            String sampleIndex
+    ) {
+
+        Integer channel = channels.get(sampleIndex);
+
+        return channel == null ? -1 : channel;
+
+    }
+
+    /**
+     * Returns the channel of the given sample index and throws an exception
+     * if not found.
+     *
+     * @param sampleIndex the sample index
+     *
+     * @return the channel of the given sample index
+     */
+    public int getExistingChannel(
+            String sampleIndex
+    ) {
+
+        Integer channel = channels.get(sampleIndex);
+
+        if (channel == null) {
+            throw new IllegalArgumentException("Sample index " + sampleIndex + " not found.");
+        }
+
+        return channel;
+
+    }
+
+    /**
+     * Returns the sample index of the given channel.
+     *
+     * @param channel the channel
+     *
+     * @return the sample index of the given channel
+     */
+    public String getSampleIndex(
+            int channel
+    ) {
+        return sampleIndexes[channel];
+    }
+
+    /**
+     * Returns the reporter ion of the given channel.
+     *
+     * @param channel the channel
+     *
+     * @return the reporter ion of the given channel
+     */
+    public ReporterIon getReporterIon(
+            int channel
+    ) {
+        return reporterIons[channel];
+    }
+
+    /**
+     * Returns the number of channels.
+     *
+     * @return the number of channels
+     */
+    public int size() {
+        return sampleIndexes.length;
+    }
+}
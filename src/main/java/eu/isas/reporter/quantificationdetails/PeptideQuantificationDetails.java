@@ -1,6 +1,7 @@
 package eu.isas.reporter.quantificationdetails;
 
 import com.compomics.util.experiment.normalization.NormalizationFactors;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -44,6 +45,47 @@ public class PeptideQuantificationDetails {
         return ratio;
     }
 
+    /**
+     * Returns the ratios of the given samples normalized if the given
+     * reporter ion quantification has normalization factors. NaN for the
+     * samples not set.
+     *
+     * @param reporterIonNames the indexes of the samples of interest
+     * @param normalizationFactors the normalization factors
+     *
+     * @return the ratios of the samples in the order of the given indexes
+     */
+    public double[] getRatios(
+            String[] reporterIonNames,
+            NormalizationFactors normalizationFactors
+    ) {
+
+        double[] ratios = new double[reporterIonNames.length];
+
+        if (rawRatios == null) {
+            Arrays.fill(ratios, Double.NaN);
+            return ratios;
+        }
+
+        boolean normalize = normalizationFactors.hasPeptideNormalisationFactors();
+
+        for (int i = 0; i < reporterIonNames.length; i++) {
+
+            String reporterIonName = reporterIonNames[i];
+            Double ratio = rawRatios.get(reporterIonName);
+
+            if (ratio == null) {
+                ratios[i] = Double.NaN;
+            } else if (normalize) {
+                ratios[i] = ratio / normalizationFactors.getPeptideNormalisationFactor(reporterIonName);
+            } else {
+                ratios[i] = ratio;
+            }
+        }
+
+        return ratios;
+    }
+
     /**
      * Sets a raw (not normalized) normalized ratio.
      *
@@ -1,31 +1,62 @@
 package eu.isas.reporter.quantificationdetails;
 
 import com.compomics.util.experiment.normalization.NormalizationFactors;
-import java.util.HashMap;
 
 /**
- * This class contains the quantitative information at the protein level.
+ * This class contains the quantitative information at the protein level. The
+ * ratios are stored in arrays indexed by the channels of the project.
  *
  * @author Marc Vaudel
  */
 public class ProteinQuantificationDetails {
 
     /**
-     * The reporter raw (not normalized) ratios.
+     * The channel table of the project.
      */
-    private HashMap<String, Double> rawRatios = null;
+    private final ChannelTable channelTable;
+
+    /**
+     * The reporter raw (not normalized) ratios indexed by channel.
+     */
+    private double[] rawRatios = null;
 
     /**
      * The reporter raw (not normalized) ratios obtained using peptides unique
-     * to a group.
+     * to a group indexed by channel.
      */
-    private HashMap<String, Double> uniqueRawRatios = null;
+    private double[] uniqueRawRatios = null;
 
     /**
      * The reporter raw (not normalized) ratios obtained using peptides shared
-     * by groups.
+     * by groups indexed by channel.
      */
-    private HashMap<String, Double> sharedRawRatios = null;
+    private double[] sharedRawRatios = null;
+
+    /**
+     * Mask of the channels with a raw ratio.
+     */
+    private long rawRatiosSet = 0;
+
+    /**
+     * Mask of the channels with a unique raw ratio.
+     */
+    private long uniqueRawRatiosSet = 0;
+
+    /**
+     * Mask of the channels with a shared raw ratio.
+     */
+    private long sharedRawRatiosSet = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param channelTable the channel table of the project
+     */
+    public ProteinQuantificationDetails(
+            ChannelTable channelTable
+    ) {
+        this.channelTable = channelTable;
+    }
 
     /**
      * Returns the ratio of a given sample normalized if the given reporter ion
@@ -41,11 +72,7 @@ public class ProteinQuantificationDetails {
             NormalizationFactors normalizationFactors
     ) {
 
-        if (rawRatios == null) {
-            return null;
-        }
-
-        Double ratio = rawRatios.get(reporterIonName);
+        Double ratio = getValue(rawRatios, rawRatiosSet, reporterIonName);
 
         if (normalizationFactors.hasProteinNormalisationFactors()
                 && ratio != null
@@ -71,11 +98,7 @@ public class ProteinQuantificationDetails {
             NormalizationFactors normalizationFactors
     ) {
 
-        if (uniqueRawRatios == null) {
-            return null;
-        }
-
-        Double ratio = uniqueRawRatios.get(reporterIonName);
+        Double ratio = getValue(uniqueRawRatios, uniqueRawRatiosSet, reporterIonName);
 
         if (normalizationFactors.hasProteinNormalisationFactors()
                 && ratio != null
@@ -101,11 +124,7 @@ public class ProteinQuantificationDetails {
             NormalizationFactors normalizationFactors
     ) {
 
-        if (sharedRawRatios == null) {
-            return null;
-        }
-
-        Double ratio = sharedRawRatios.get(reporterIonName);
+        Double ratio = getValue(sharedRawRatios, sharedRawRatiosSet, reporterIonName);
 
         if (normalizationFactors.hasProteinNormalisationFactors()
                 && ratio != null
@@ -126,10 +145,12 @@ public class ProteinQuantificationDetails {
     public void setRawRatio(String reporterIonName, double value) {
 
         if (rawRatios == null) {
-            rawRatios = new HashMap<String, Double>();
+            rawRatios = new double[channelTable.size()];
         }
 
-        rawRatios.put(reporterIonName, value);
+        int channel = channelTable.getExistingChannel(reporterIonName);
+        rawRatios[channel] = value;
+        rawRatiosSet |= 1L << channel;
 
     }
 
@@ -143,11 +164,7 @@ public class ProteinQuantificationDetails {
      */
     public Double getRawRatio(String reporterIonName) {
 
-        if (rawRatios == null) {
-            return null;
-        }
-
-        return rawRatios.get(reporterIonName);
+        return getValue(rawRatios, rawRatiosSet, reporterIonName);
 
     }
 
@@ -160,10 +177,12 @@ public class ProteinQuantificationDetails {
     public void setUniqueRawRatio(String reporterIonName, double value) {
 
         if (uniqueRawRatios == null) {
-            uniqueRawRatios = new HashMap<String, Double>();
+            uniqueRawRatios = new double[channelTable.size()];
         }
 
-        uniqueRawRatios.put(reporterIonName, value);
+        int channel = channelTable.getExistingChannel(reporterIonName);
+        uniqueRawRatios[channel] = value;
+        uniqueRawRatiosSet |= 1L << channel;
 
     }
 
@@ -177,11 +196,7 @@ public class ProteinQuantificationDetails {
      */
     public Double getUniqueRawRatio(String reporterIonName) {
 
-        if (uniqueRawRatios == null) {
-            return null;
-        }
-
-        return uniqueRawRatios.get(reporterIonName);
+        return getValue(uniqueRawRatios, uniqueRawRatiosSet, reporterIonName);
 
     }
 
@@ -194,10 +209,12 @@ public class ProteinQuantificationDetails {
     public void setSharedRawRatio(String reporterIonName, double value) {
 
         if (sharedRawRatios == null) {
-            sharedRawRatios = new HashMap<String, Double>();
+            sharedRawRatios = new double[channelTable.size()];
         }
 
-        sharedRawRatios.put(reporterIonName, value);
+        int channel = channelTable.getExistingChannel(reporterIonName);
+        sharedRawRatios[channel] = value;
+        sharedRawRatiosSet |= 1L << channel;
 
     }
 
@@ -211,11 +228,29 @@ public class ProteinQuantificationDetails {
      */
     public Double getSharedRawRatio(String reporterIonName) {
 
-        if (sharedRawRatios == null) {
+        return getValue(sharedRawRatios, sharedRawRatiosSet, reporterIonName);
+
+    }
+
+    /**
+     * Returns the value of the given sample in the given array, null if not
+     * set.
+     *
+     * @param values the values indexed by channel
+     * @param mask the mask of the channels set
+     * @param reporterIonName the index of the sample
+     *
+     * @return the value of the given sample
+     */
+    private Double getValue(double[] values, long mask, String reporterIonName) {
+
+        int channel = channelTable.getChannel(reporterIonName);
+
+        if (channel < 0 || (mask & (1L << channel)) == 0) {
             return null;
         }
 
-        return sharedRawRatios.get(reporterIonName);
+        return values[channel];
 
     }
 }
@@ -1,27 +1,59 @@
 package eu.isas.reporter.quantificationdetails;
 
 import com.compomics.util.experiment.identification.matches.IonMatch;
-import java.util.HashMap;
 
 /**
- * This class contains the quantitative information at the spectrum level.
+ * This class contains the quantitative information at the spectrum level. The
+ * values are stored in arrays indexed by the channels of the project, and the
+ * reporter ion matches are reduced to the m/z and intensity of the peak.
  *
  * @author Marc Vaudel
  */
 public class SpectrumQuantificationDetails {
 
     /**
-     * The reporter ratios.
+     * The channel table of the project.
      */
-    private HashMap<String, Double> ratios = null;
+    private final ChannelTable channelTable;
     /**
-     * The reporter ion matches.
+     * The reporter ratios indexed by channel.
      */
-    private HashMap<String, IonMatch> reporterMatches = null;
+    private double[] ratios = null;
     /**
-     * The deisotoped reporter intensities.
+     * Mask of the channels with a ratio.
      */
-    private HashMap<String, Double> deisotopedIntensities = null;
+    private long ratiosSet = 0;
+    /**
+     * The m/z of the reporter peaks indexed by channel.
+     */
+    private double[] reporterMz = null;
+    /**
+     * The intensity of the reporter peaks indexed by channel.
+     */
+    private double[] reporterIntensities = null;
+    /**
+     * Mask of the channels with a reporter peak.
+     */
+    private long reportersSet = 0;
+    /**
+     * The deisotoped reporter intensities indexed by channel.
+     */
+    private double[] deisotopedIntensities = null;
+    /**
+     * Mask of the channels with a deisotoped intensity.
+     */
+    private long deisotopedSet = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param channelTable the channel table of the project
+     */
+    public SpectrumQuantificationDetails(
+            ChannelTable channelTable
+    ) {
+        this.channelTable = channelTable;
+    }
 
     /**
      * Sets a ratio.
@@ -32,10 +64,12 @@ public class SpectrumQuantificationDetails {
     public void setRatio(String sampleIndex, double value) {
 
         if (ratios == null) {
-            ratios = new HashMap<String, Double>();
+            ratios = new double[channelTable.size()];
         }
 
-        ratios.put(sampleIndex, value);
+        int channel = channelTable.getExistingChannel(sampleIndex);
+        ratios[channel] = value;
+        ratiosSet |= 1L << channel;
 
     }
 
@@ -48,11 +82,13 @@ public class SpectrumQuantificationDetails {
      */
     public Double getRatio(String reporterIonName) {
 
-        if (ratios == null) {
+        int channel = channelTable.getChannel(reporterIonName);
+
+        if (!isSet(ratiosSet, channel)) {
             return null;
         }
 
-        return ratios.get(reporterIonName);
+        return ratios[channel];
 
     }
 
@@ -65,10 +101,12 @@ public class SpectrumQuantificationDetails {
     public void setDeisotopedIntensity(String reporterIonName, double value) {
 
         if (deisotopedIntensities == null) {
-            deisotopedIntensities = new HashMap<String, Double>();
+            deisotopedIntensities = new double[channelTable.size()];
         }
 
-        deisotopedIntensities.put(reporterIonName, value);
+        int channel = channelTable.getExistingChannel(reporterIonName);
+        deisotopedIntensities[channel] = value;
+        deisotopedSet |= 1L << channel;
 
     }
 
@@ -81,32 +119,92 @@ public class SpectrumQuantificationDetails {
      */
     public Double getDeisotopedIntensity(String reporterIonName) {
 
-        if (deisotopedIntensities == null) {
+        int channel = channelTable.getChannel(reporterIonName);
+
+        if (!isSet(deisotopedSet, channel)) {
             return null;
         }
 
-        return deisotopedIntensities.get(reporterIonName);
+        return deisotopedIntensities[channel];
 
     }
 
     /**
-     * Sets the value of a reporter ion match.
+     * Sets the value of a reporter ion match. Only the m/z and intensity of
+     * the matched peak are kept.
      *
      * @param reporterIonName the index of the sample
      * @param reporterMatch the reporter ion match
      */
     public void setReporterMatch(String reporterIonName, IonMatch reporterMatch) {
+        setReporterPeak(reporterIonName, reporterMatch.peakMz, reporterMatch.peakIntensity);
+    }
+
+    /**
+     * Sets the m/z and intensity of the peak matched by a reporter ion.
+     *
+     * @param reporterIonName the index of the sample
+     * @param mz the m/z of the peak
+     * @param intensity the intensity of the peak
+     */
+    public void setReporterPeak(String reporterIonName, double mz, double intensity) {
+
+        if (reporterMz == null) {
+            reporterMz = new double[channelTable.size()];
+            reporterIntensities = new double[channelTable.size()];
+        }
+
+        int channel = channelTable.getExistingChannel(reporterIonName);
+        reporterMz[channel] = mz;
+        reporterIntensities[channel] = intensity;
+        reportersSet |= 1L << channel;
+
+    }
+
+    /**
+     * Returns the m/z of the peak matched by the reporter ion of the given
+     * sample. Null if none.
+     *
+     * @param reporterIonName the index of the sample
+     *
+     * @return the m/z of the reporter peak
+     */
+    public Double getReporterMz(String reporterIonName) {
+
+        int channel = channelTable.getChannel(reporterIonName);
 
-        if (reporterMatches == null) {
-            reporterMatches = new HashMap<String, IonMatch>();
+        if (!isSet(reportersSet, channel)) {
+            return null;
         }
 
-        reporterMatches.put(reporterIonName, reporterMatch);
+        return reporterMz[channel];
 
     }
 
     /**
-     * Returns the reporter ion match of the given sample. Null if none.
+     * Returns the intensity of the peak matched by the reporter ion of the
+     * given sample. Null if none.
+     *
+     * @param reporterIonName the index of the sample
+     *
+     * @return the intensity of the reporter peak
+     */
+    public Double getReporterIntensity(String reporterIonName) {
+
+        int channel = channelTable.getChannel(reporterIonName);
+
+        if (!isSet(reportersSet, channel)) {
+            return null;
+        }
+
+        return reporterIntensities[channel];
+
+    }
+
+    /**
+     * Returns the reporter ion match of the given sample. Null if none. The
+     * match is rebuilt from the stored peak, prefer getReporterMz and
+     * getReporterIntensity when only the peak is needed.
      *
      * @param reporterIonName the index of the sample
      *
@@ -114,11 +212,30 @@ public class SpectrumQuantificationDetails {
      */
     public IonMatch getRepoterMatch(String reporterIonName) {
 
-        if (reporterMatches == null) {
+        int channel = channelTable.getChannel(reporterIonName);
+
+        if (!isSet(reportersSet, channel)) {
             return null;
         }
 
-        return reporterMatches.get(reporterIonName);
+        return new IonMatch(
+                reporterMz[channel],
+                reporterIntensities[channel],
+                channelTable.getReporterIon(channel),
+                1
+        );
+
+    }
 
+    /**
+     * Indicates whether the given channel is set in the given mask.
+     *
+     * @param mask the mask
+     * @param channel the channel, -1 if not found
+     *
+     * @return a boolean indicating whether the channel is set
+     */
+    private static boolean isSet(long mask, int channel) {
+        return channel >= 0 && (mask & (1L << channel)) != 0;
     }
 }
@@ -0,0 +1,918 @@
+package eu.isas.reporter.service;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.json.JsonMarshaller;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.calculation.normalization.NormalizationType;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local quantification service keeping projects open between requests. The
+ * service listens on the loopback interface only and answers in json:
+ *
+ * GET /projects: the projects open
+ * POST /projects?id=...&amp;path=...: opens a project
+ * GET /projects/{id}: summary of a project
+ * DELETE /projects/{id}: closes a project
+ * GET /projects/{id}/proteins?offset=...&amp;limit=...: keys of the proteins
+ * GET /projects/{id}/proteins/{key}: quantification details of a protein
+ * GET /projects/{id}/peptides/{key}: quantification details of a peptide
+ * GET /projects/{id}/psms/{key}: quantification details of a PSM
+ * POST /projects/{id}/exports?report=...&amp;folder=...: writes a report
+ * POST /projects/{id}/settings?normalization_psm=...: changes the
+ * normalization
+ * POST /shutdown: closes the projects and stops the service
+ *
+ * Every request must carry the access token of the run, printed at startup,
+ * in the X-Reporter-Token header or as a bearer token in the Authorization
+ * header. Requests addressed to another host than the loopback interface on
+ * the port of the service, or sent from another origin, are rejected, so that
+ * web pages open in a browser cannot reach the service, also through DNS
+ * rebinding.
+ *
+ * Reading requests are served concurrently. Opening projects, writing
+ * reports, and changing settings are limited to a number of concurrent
+ * operations, further requests are rejected with a 503 status and a
+ * Retry-After header.
+ *
+ * @author Marc Vaudel
+ */
+public class ReporterService {
+
+    /**
+     * The default port.
+     */
+    public static final int DEFAULT_PORT = 8642;
+    /**
+     * The default number of expensive operations running concurrently.
+     */
+    public static final int DEFAULT_MAX_EXPENSIVE = 2;
+    /**
+     * The default number of proteins returned per page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    /**
+     * The time in seconds to wait for a slot for an expensive operation
+     * before rejecting the request.
+     */
+    public static final int EXPENSIVE_WAIT = 1;
+    /**
+     * The time in seconds suggested to the client before retrying.
+     */
+    public static final int RETRY_AFTER = 10;
+    /**
+     * The header carrying the access token.
+     */
+    public static final String TOKEN_HEADER = "X-Reporter-Token";
+    /**
+     * The number of random bytes of the access token.
+     */
+    private static final int TOKEN_BYTES = 32;
+    /**
+     * The host names under which the service can be addressed.
+     */
+    private static final String[] LOCAL_HOSTS = new String[]{"localhost", "127.0.0.1", "[::1]"};
+    /**
+     * The port.
+     */
+    private final int port;
+    /**
+     * The access token of this run.
+     */
+    private final String token;
+    /**
+     * The number of threads serving the requests.
+     */
+    private final int nThreads;
+    /**
+     * The semaphore limiting the expensive operations.
+     */
+    private final Semaphore expensiveOperations;
+    /**
+     * The processing parameters of the projects.
+     */
+    private final ProcessingParameters processingParameters;
+    /**
+     * The exception handler.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * The projects open indexed by id.
+     */
+    private final ConcurrentHashMap<String, ServiceProject> projects = new ConcurrentHashMap<>();
+    /**
+     * The json marshaller.
+     */
+    private final JsonMarshaller jsonMarshaller = new JsonMarshaller();
+    /**
+     * Latch released when the service is stopped.
+     */
+    private final CountDownLatch stopLatch = new CountDownLatch(1);
+    /**
+     * The http server.
+     */
+    private HttpServer server;
+    /**
+     * The executor of the http server.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param port the port to listen on
+     * @param nThreads the number of threads serving the requests
+     * @param maxExpensive the number of expensive operations running
+     * concurrently
+     * @param processingParameters the processing parameters of the projects
+     * @param exceptionHandler the exception handler
+     */
+    public ReporterService(
+            int port,
+            int nThreads,
+            int maxExpensive,
+            ProcessingParameters processingParameters,
+            ExceptionHandler exceptionHandler
+    ) {
+
+        this.port = port;
+        this.token = createToken();
+        this.nThreads = nThreads;
+        this.expensiveOperations = new Semaphore(maxExpensive, true);
+        this.processingParameters = processingParameters;
+        this.exceptionHandler = exceptionHandler;
+
+    }
+
+    /**
+     * Starts the service.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * binding the port
+     */
+    public void start() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(nThreads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+    }
+
+    /**
+     * Returns the access token of this run, to be given to the clients.
+     *
+     * @return the access token of this run
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Returns a new random access token.
+     *
+     * @return a new random access token
+     */
+    private static String createToken() {
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+
+        StringBuilder result = new StringBuilder(2 * TOKEN_BYTES);
+
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+
+        return result.toString();
+
+    }
+
+    /**
+     * Waits until the service is stopped.
+     *
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting
+     */
+    public void awaitStop() throws InterruptedException {
+        stopLatch.await();
+    }
+
+    /**
+     * Closes the projects and stops the service.
+     */
+    public synchronized void stop() {
+
+        if (stopLatch.getCount() == 0) {
+            return;
+        }
+
+        if (server != null) {
+            server.stop(1);
+        }
+
+        for (ServiceProject project : projects.values()) {
+
+            try {
+
+                project.close();
+
+            } catch (Exception e) {
+
+                exceptionHandler.catchException(e);
+
+            }
+        }
+
+        projects.clear();
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        stopLatch.countDown();
+
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param exchange the exchange
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the response
+     */
+    private void handle(
+            HttpExchange exchange
+    ) throws IOException {
+
+        try {
+
+            if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+
+                send(exchange, 403, getMessage("Host not allowed."));
+                return;
+
+            }
+
+            String origin = exchange.getRequestHeaders().getFirst("Origin");
+
+            if (origin != null && !isLocalOrigin(origin)) {
+
+                send(exchange, 403, getMessage("Origin not allowed."));
+                return;
+
+            }
+
+            if (!hasToken(exchange)) {
+
+                send(exchange, 401, getMessage("Missing or invalid access token."));
+                return;
+
+            }
+
+            String method = exchange.getRequestMethod();
+            String[] path = getPath(exchange);
+            HashMap<String, String> parameters = getParameters(exchange);
+
+            if (path.length == 1 && path[0].equals("shutdown") && method.equals("POST")) {
+
+                send(exchange, 200, getMessage("Service stopping."));
+                new Thread(this::stop, "Reporter service shutdown").start();
+                return;
+
+            }
+
+            if (path.length == 0 || !path[0].equals("projects")) {
+
+                send(exchange, 404, getMessage("Resource not found."));
+                return;
+
+            }
+
+            if (path.length == 1) {
+
+                if (method.equals("GET")) {
+
+                    ArrayList<String> ids = new ArrayList<>(projects.keySet());
+                    send(exchange, 200, ids);
+
+                } else if (method.equals("POST")) {
+
+                    openProject(exchange, parameters);
+
+                } else {
+
+                    send(exchange, 405, getMessage("Method not allowed."));
+
+                }
+
+                return;
+
+            }
+
+            ServiceProject project = projects.get(path[1]);
+
+            if (project == null) {
+
+                send(exchange, 404, getMessage("Project " + path[1] + " not found."));
+                return;
+
+            }
+
+            if (path.length == 2) {
+
+                if (method.equals("GET")) {
+
+                    send(exchange, 200, project.getSummary());
+
+                } else if (method.equals("DELETE")) {
+
+                    projects.remove(project.getId());
+                    project.close();
+                    send(exchange, 200, getMessage("Project " + project.getId() + " closed."));
+
+                } else {
+
+                    send(exchange, 405, getMessage("Method not allowed."));
+
+                }
+
+                return;
+
+            }
+
+            String resource = path[2];
+
+            if (method.equals("GET")) {
+
+                if (path.length == 3 && resource.equals("proteins")) {
+
+                    int offset = getInteger(parameters, "offset", 0);
+                    int limit = getInteger(parameters, "limit", DEFAULT_PAGE_SIZE);
+
+                    send(exchange, 200, project.getProteinKeys(offset, limit));
+                    return;
+
+                }
+
+                if (path.length == 4) {
+
+                    long key = Long.parseLong(path[3]);
+                    LinkedHashMap<String, Object> details;
+
+                    switch (resource) {
+                        case "proteins":
+                            details = project.getProteinDetails(key);
+                            break;
+                        case "peptides":
+                            details = project.getPeptideDetails(key);
+                            break;
+                        case "psms":
+                            details = project.getPsmDetails(key);
+                            break;
+                        default:
+                            send(exchange, 404, getMessage("Resource not found."));
+                            return;
+                    }
+
+                    if (details == null) {
+
+                        send(exchange, 404, getMessage("Match " + key + " not found."));
+
+                    } else {
+
+                        send(exchange, 200, details);
+
+                    }
+
+                    return;
+
+                }
+            } else if (method.equals("POST") && path.length == 3) {
+
+                if (resource.equals("exports")) {
+
+                    export(exchange, project, parameters);
+                    return;
+
+                }
+
+                if (resource.equals("settings")) {
+
+                    updateSettings(exchange, project, parameters);
+                    return;
+
+                }
+            }
+
+            send(exchange, 404, getMessage("Resource not found."));
+
+        } catch (IllegalArgumentException e) {
+
+            send(exchange, 400, getMessage(e.getMessage()));
+
+        } catch (Exception e) {
+
+            exceptionHandler.catchException(e);
+            send(exchange, 500, getMessage("An error occurred while processing the request: " + e.getMessage()));
+
+        } finally {
+
+            exchange.close();
+
+        }
+    }
+
+    /**
+     * Opens a project.
+     *
+     * @param exchange the exchange
+     * @param parameters the parameters of the request
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * opening the project
+     */
+    private void openProject(
+            HttpExchange exchange,
+            HashMap<String, String> parameters
+    ) throws Exception {
+
+        String id = getMandatory(parameters, "id");
+        File psdbFile = new File(getMandatory(parameters, "path"));
+
+        if (!psdbFile.exists()) {
+            throw new IllegalArgumentException("File " + psdbFile + " not found.");
+        }
+
+        if (projects.containsKey(id)) {
+
+            send(exchange, 409, getMessage("Project " + id + " already open."));
+            return;
+
+        }
+
+        if (!acquireExpensive(exchange)) {
+            return;
+        }
+
+        try {
+
+            ServiceProject project = new ServiceProject(id, psdbFile, processingParameters, exceptionHandler);
+            WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+            project.open(waitingHandler);
+
+            if (waitingHandler.isRunCanceled()) {
+
+                project.close();
+                send(exchange, 500, getMessage("Opening of project " + id + " canceled."));
+                return;
+
+            }
+
+            if (projects.putIfAbsent(id, project) != null) {
+
+                project.close();
+                send(exchange, 409, getMessage("Project " + id + " already open."));
+                return;
+
+            }
+
+            send(exchange, 201, project.getSummary());
+
+        } finally {
+
+            expensiveOperations.release();
+
+        }
+    }
+
+    /**
+     * Writes a report of a project.
+     *
+     * @param exchange the exchange
+     * @param project the project
+     * @param parameters the parameters of the request
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing the report
+     */
+    private void export(
+            HttpExchange exchange,
+            ServiceProject project,
+            HashMap<String, String> parameters
+    ) throws Exception {
+
+        String reportType = getMandatory(parameters, "report");
+        File outputFolder = new File(getMandatory(parameters, "folder"));
+        String format = parameters.get("format");
+        ExportFormat exportFormat = format == null || format.equals("text") ? ExportFormat.text : ExportFormat.excel;
+
+        if (!outputFolder.exists()) {
+            outputFolder.mkdirs();
+        }
+
+        if (!acquireExpensive(exchange)) {
+            return;
+        }
+
+        try {
+
+            File reportFile = project.export(reportType, exportFormat, outputFolder, new WaitingHandlerCLIImpl());
+
+            LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+            result.put("file", reportFile.getAbsolutePath());
+
+            send(exchange, 200, result);
+
+        } finally {
+
+            expensiveOperations.release();
+
+        }
+    }
+
+    /**
+     * Changes the normalization of a project.
+     *
+     * @param exchange the exchange
+     * @param project the project
+     * @param parameters the parameters of the request
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * normalizing
+     */
+    private void updateSettings(
+            HttpExchange exchange,
+            ServiceProject project,
+            HashMap<String, String> parameters
+    ) throws Exception {
+
+        NormalizationType psmNormalization = getNormalizationType(parameters, "normalization_psm");
+        NormalizationType peptideNormalization = getNormalizationType(parameters, "normalization_peptide");
+        NormalizationType proteinNormalization = getNormalizationType(parameters, "normalization_protein");
+
+        if (!acquireExpensive(exchange)) {
+            return;
+        }
+
+        try {
+
+            EnumSet<QuantificationLevel> invalidatedLevels = project.updateNormalization(
+                    psmNormalization,
+                    peptideNormalization,
+                    proteinNormalization,
+                    new WaitingHandlerCLIImpl()
+            );
+
+            ArrayList<String> levels = new ArrayList<>(invalidatedLevels.size());
+
+            for (QuantificationLevel level : invalidatedLevels) {
+                levels.add(level.name);
+            }
+
+            LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+            result.put("invalidated", levels);
+
+            send(exchange, 200, result);
+
+        } finally {
+
+            expensiveOperations.release();
+
+        }
+    }
+
+    /**
+     * Acquires a slot for an expensive operation. If no slot is available in
+     * time, a 503 response is sent.
+     *
+     * @param exchange the exchange
+     *
+     * @return a boolean indicating whether a slot was acquired
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the response
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting
+     */
+    private boolean acquireExpensive(
+            HttpExchange exchange
+    ) throws IOException, InterruptedException {
+
+        if (expensiveOperations.tryAcquire(EXPENSIVE_WAIT, TimeUnit.SECONDS)) {
+            return true;
+        }
+
+        exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER));
+        send(exchange, 503, getMessage("Too many operations running, please retry later."));
+
+        return false;
+
+    }
+
+    /**
+     * Indicates whether the given value of the Host header addresses the
+     * loopback interface on the port of the service.
+     *
+     * @param host the value of the Host header, can be null
+     *
+     * @return a boolean indicating whether the host is local
+     */
+    private boolean isLocalHost(
+            String host
+    ) {
+
+        if (host == null) {
+            return false;
+        }
+
+        for (String localHost : LOCAL_HOSTS) {
+
+            if (host.equalsIgnoreCase(localHost + ":" + port)) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Indicates whether the given value of the Origin header is the service
+     * itself.
+     *
+     * @param origin the value of the Origin header
+     *
+     * @return a boolean indicating whether the origin is local
+     */
+    private boolean isLocalOrigin(
+            String origin
+    ) {
+
+        for (String localHost : LOCAL_HOSTS) {
+
+            if (origin.equalsIgnoreCase("http://" + localHost + ":" + port)) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Indicates whether the request carries the access token of this run.
+     *
+     * @param exchange the exchange
+     *
+     * @return a boolean indicating whether the request carries the access
+     * token
+     */
+    private boolean hasToken(
+            HttpExchange exchange
+    ) {
+
+        String requestToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+
+        if (requestToken == null) {
+
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+            if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+                requestToken = authorization.substring(7).trim();
+            }
+        }
+
+        return requestToken != null
+                && MessageDigest.isEqual(
+                        requestToken.getBytes(StandardCharsets.UTF_8),
+                        token.getBytes(StandardCharsets.UTF_8)
+                );
+
+    }
+
+    /**
+     * Writes an object as json in the response.
+     *
+     * @param exchange the exchange
+     * @param status the http status
+     * @param object the object to send
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the response
+     */
+    private void send(
+            HttpExchange exchange,
+            int status,
+            Object object
+    ) throws IOException {
+
+        byte[] response = jsonMarshaller.toJson(object).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+
+    /**
+     * Returns a message to send as response.
+     *
+     * @param message the message
+     *
+     * @return a message to send as response
+     */
+    private static LinkedHashMap<String, Object> getMessage(
+            String message
+    ) {
+
+        LinkedHashMap<String, Object> result = new LinkedHashMap<>(1);
+        result.put("message", message);
+
+        return result;
+
+    }
+
+    /**
+     * Returns the elements of the path of the request.
+     *
+     * @param exchange the exchange
+     *
+     * @return the elements of the path of the request
+     */
+    private static String[] getPath(
+            HttpExchange exchange
+    ) {
+
+        String path = exchange.getRequestURI().getPath();
+
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        return path.isEmpty() ? new String[0] : path.split("/");
+
+    }
+
+    /**
+     * Returns the parameters of the query of the request.
+     *
+     * @param exchange the exchange
+     *
+     * @return the parameters of the query of the request
+     *
+     * @throws UnsupportedEncodingException exception thrown whenever the
+     * encoding is not supported
+     */
+    private static HashMap<String, String> getParameters(
+            HttpExchange exchange
+    ) throws UnsupportedEncodingException {
+
+        HashMap<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query != null) {
+
+            for (String parameter : query.split("&")) {
+
+                int separator = parameter.indexOf('=');
+
+                if (separator > 0) {
+
+                    parameters.put(
+                            URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8")
+                    );
+
+                }
+            }
+        }
+
+        return parameters;
+
+    }
+
+    /**
+     * Returns the value of a mandatory parameter.
+     *
+     * @param parameters the parameters of the request
+     * @param name the name of the parameter
+     *
+     * @return the value of the parameter
+     */
+    private static String getMandatory(
+            HashMap<String, String> parameters,
+            String name
+    ) {
+
+        String value = parameters.get(name);
+
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Parameter " + name + " not specified.");
+        }
+
+        return value.trim();
+
+    }
+
+    /**
+     * Returns the value of an integer parameter.
+     *
+     * @param parameters the parameters of the request
+     * @param name the name of the parameter
+     * @param defaultValue the value to use if the parameter is not set
+     *
+     * @return the value of the parameter
+     */
+    private static int getInteger(
+            HashMap<String, String> parameters,
+            String name,
+            int defaultValue
+    ) {
+
+        String value = parameters.get(name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+
+            int result = Integer.parseInt(value.trim());
+
+            if (result < 0) {
+                throw new IllegalArgumentException("Parameter " + name + " must be positive.");
+            }
+
+            return result;
+
+        } catch (NumberFormatException e) {
+
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer.");
+
+        }
+    }
+
+    /**
+     * Returns the normalization type of a parameter, null if not set.
+     *
+     * @param parameters the parameters of the request
+     * @param name the name of the parameter
+     *
+     * @return the normalization type
+     */
+    private static NormalizationType getNormalizationType(
+            HashMap<String, String> parameters,
+            String name
+    ) {
+
+        String value = parameters.get(name);
+
+        if (value == null) {
+            return null;
+        }
+
+        try {
+
+            return NormalizationType.getNormalizationType(Integer.parseInt(value.trim()));
+
+        } catch (NumberFormatException e) {
+
+            return NormalizationType.getNormalizationType(value.trim());
+
+        }
+    }
+}
@@ -0,0 +1,726 @@
+package eu.isas.reporter.service;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.normalization.NormalizationFactors;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.export.ExportScheme;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.cmd.PeptideShakerCLI;
+import eu.isas.peptideshaker.utils.PsdbParent;
+import eu.isas.reporter.calculation.QuantificationFeaturesCache;
+import eu.isas.reporter.calculation.QuantificationFeaturesGenerator;
+import eu.isas.reporter.calculation.QuantificationFeaturesSpill;
+import eu.isas.reporter.calculation.QuantificationLevel;
+import eu.isas.reporter.calculation.SettingsDependencies;
+import eu.isas.reporter.calculation.normalization.NormalizationType;
+import eu.isas.reporter.calculation.normalization.Normalizer;
+import eu.isas.reporter.export.report.ReporterExportFactory;
+import eu.isas.reporter.io.ProjectImporter;
+import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
+import eu.isas.reporter.settings.NormalizationSettings;
+import eu.isas.reporter.settings.ReporterSettings;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A project kept open by the quantification service. The identification,
+ * spectrum files, and quantification features cache stay loaded between
+ * requests. Requests reading the project run concurrently, the settings are
+ * swapped under an exclusive lock, and the normalization factors affected by
+ * a change are estimated again while the previous values are still served,
+ * flagged as stale.
+ *
+ * @author Marc Vaudel
+ */
+public class ServiceProject extends PsdbParent {
+
+    /**
+     * The id of the project in the service.
+     */
+    private final String id;
+    /**
+     * The processing parameters.
+     */
+    private final ProcessingParameters processingParameters;
+    /**
+     * The exception handler.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * The spectrum files loaded.
+     */
+    private final ArrayList<File> spectrumFiles = new ArrayList<>();
+    /**
+     * Lock shared by the requests reading the project and held exclusively
+     * while the settings are swapped.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Lock serializing the changes of settings.
+     */
+    private final ReentrantLock updateLock = new ReentrantLock();
+    /**
+     * The reporter settings.
+     */
+    private ReporterSettings reporterSettings;
+    /**
+     * The reporter ion quantification.
+     */
+    private ReporterIonQuantification reporterIonQuantification;
+    /**
+     * The quantification features generator.
+     */
+    private QuantificationFeaturesGenerator quantificationFeaturesGenerator;
+    /**
+     * The sorted keys of the proteins, loaded on first use.
+     */
+    private long[] proteinKeys = null;
+
+    /**
+     * Constructor.
+     *
+     * @param id the id of the project in the service
+     * @param psdbFile the psdb file to open
+     * @param processingParameters the processing parameters
+     * @param exceptionHandler the exception handler
+     */
+    public ServiceProject(
+            String id,
+            File psdbFile,
+            ProcessingParameters processingParameters,
+            ExceptionHandler exceptionHandler
+    ) {
+
+        this.id = id;
+        this.processingParameters = processingParameters;
+        this.exceptionHandler = exceptionHandler;
+
+        setPsdbFile(psdbFile);
+
+    }
+
+    /**
+     * Opens the project, loads the spectrum files and estimates the
+     * normalization factors if not available.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * opening the project
+     */
+    public void open(
+            WaitingHandler waitingHandler
+    ) throws Exception {
+
+        setDbFolder(PeptideShaker.getMatchesFolder());
+
+        ProjectImporter projectImporter = new ProjectImporter();
+        projectImporter.importPeptideShakerProject(this, spectrumFiles, waitingHandler);
+        projectImporter.importReporterProject(this, waitingHandler);
+
+        String error = PeptideShaker.loadModifications(getIdentificationParameters().getSearchParameters());
+
+        if (error != null) {
+            waitingHandler.appendReport(error, true, true);
+        }
+
+        reporterSettings = projectImporter.getReporterSettings();
+        reporterIonQuantification = projectImporter.getReporterIonQuantification();
+
+        quantificationFeaturesGenerator = new QuantificationFeaturesGenerator(
+                new QuantificationFeaturesCache(),
+                getIdentification(),
+                getIdentificationFeaturesGenerator(),
+                reporterSettings,
+                reporterIonQuantification,
+                identificationParameters.getSearchParameters(),
+                identificationParameters.getSequenceMatchingParameters(),
+                exceptionHandler
+        );
+
+        NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+        EnumSet<QuantificationLevel> normalizationLevels = EnumSet.noneOf(QuantificationLevel.class);
+
+        if (!normalizationFactors.hasPsmNormalisationFactors()) {
+            normalizationLevels.add(QuantificationLevel.psm);
+        }
+
+        if (!normalizationFactors.hasPeptideNormalisationFactors()) {
+            normalizationLevels.add(QuantificationLevel.peptide);
+        }
+
+        if (!normalizationFactors.hasProteinNormalisationFactors()) {
+            normalizationLevels.add(QuantificationLevel.protein);
+        }
+
+        setNormalizationFactors(normalizationLevels, quantificationFeaturesGenerator, waitingHandler);
+
+    }
+
+    /**
+     * Closes the project.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * closing the project
+     */
+    public void close() throws Exception {
+
+        lock.writeLock().lock();
+
+        try {
+
+            if (quantificationFeaturesGenerator != null) {
+                quantificationFeaturesGenerator.getQuantificationFeaturesCache().close();
+            }
+
+            PeptideShakerCLI.closePeptideShaker(identification);
+
+        } finally {
+
+            lock.writeLock().unlock();
+
+        }
+    }
+
+    /**
+     * Returns a summary of the project.
+     *
+     * @return a summary of the project
+     */
+    public LinkedHashMap<String, Object> getSummary() {
+
+        lock.readLock().lock();
+
+        try {
+
+            LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+            summary.put("id", id);
+            summary.put("file", getPsdbFile().getAbsolutePath());
+            summary.put("method", reporterIonQuantification.getReporterMethod().getName());
+            summary.put("samples", getSortedSampleIndexes());
+            summary.put("proteins", identification.getProteinIdentification().size());
+            summary.put("peptides", identification.getPeptideIdentification().size());
+            summary.put("normalization", getNormalizationSummary());
+            summary.put("stale", quantificationFeaturesGenerator.isShowingStaleValues());
+
+            QuantificationFeaturesSpill spill = quantificationFeaturesGenerator.getQuantificationFeaturesCache().getSpill();
+
+            if (spill != null && spill.hasSpilled()) {
+                summary.put("spill", spill.getThroughputReport());
+            }
+
+            summary.put("duplicates", quantificationFeaturesGenerator.getDuplicateSuppressionReport());
+
+            return summary;
+
+        } finally {
+
+            lock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * Returns the keys of the proteins, sorted, in the given range.
+     *
+     * @param offset the index of the first key
+     * @param limit the maximal number of keys
+     *
+     * @return the keys of the proteins in the given range
+     */
+    public long[] getProteinKeys(
+            int offset,
+            int limit
+    ) {
+
+        lock.readLock().lock();
+
+        try {
+
+            long[] keys = proteinKeys;
+
+            if (keys == null) {
+
+                ArrayList<Long> keyList = new ArrayList<>(identification.getProteinIdentification());
+                Collections.sort(keyList);
+                keys = keyList.stream().mapToLong(Long::longValue).toArray();
+                proteinKeys = keys;
+
+            }
+
+            int start = Math.min(offset, keys.length);
+            int end = (int) Math.min((long) start + limit, keys.length);
+
+            return Arrays.copyOfRange(keys, start, end);
+
+        } finally {
+
+            lock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * Returns the quantification details of a protein, null if not found.
+     *
+     * @param key the key of the protein match
+     *
+     * @return the quantification details of the protein
+     */
+    public LinkedHashMap<String, Object> getProteinDetails(
+            long key
+    ) {
+
+        lock.readLock().lock();
+
+        try {
+
+            ProteinMatch proteinMatch = identification.getProteinMatch(key);
+
+            if (proteinMatch == null) {
+                return null;
+            }
+
+            ProteinQuantificationDetails details = quantificationFeaturesGenerator.getProteinMatchQuantificationDetails(
+                    msFileHandler,
+                    proteinMatch,
+                    null
+            );
+            NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+
+            LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+            result.put("key", key);
+            result.put("accession", proteinMatch.getLeadingAccession());
+            result.put("accessions", proteinMatch.getAccessions());
+            result.put("decoy", proteinMatch.isDecoy());
+            result.put("validation", getValidation((PSParameter) proteinMatch.getUrParam(PSParameter.dummy)));
+
+            LinkedHashMap<String, Object> ratios = new LinkedHashMap<>(), uniqueRatios = new LinkedHashMap<>(), sharedRatios = new LinkedHashMap<>();
+
+            for (String sampleIndex : getSortedSampleIndexes()) {
+
+                ratios.put(sampleIndex, details.getRatio(sampleIndex, normalizationFactors));
+                uniqueRatios.put(sampleIndex, details.getUniqueRatio(sampleIndex, normalizationFactors));
+                sharedRatios.put(sampleIndex, details.getSharedRatio(sampleIndex, normalizationFactors));
+
+            }
+
+            result.put("ratios", ratios);
+            result.put("unique_ratios", uniqueRatios);
+            result.put("shared_ratios", sharedRatios);
+            result.put("stale", quantificationFeaturesGenerator.isShowingStaleValues());
+
+            return result;
+
+        } finally {
+
+            lock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * Returns the quantification details of a peptide, null if not found.
+     *
+     * @param key the key of the peptide match
+     *
+     * @return the quantification details of the peptide
+     */
+    public LinkedHashMap<String, Object> getPeptideDetails(
+            long key
+    ) {
+
+        lock.readLock().lock();
+
+        try {
+
+            PeptideMatch peptideMatch = identification.getPeptideMatch(key);
+
+            if (peptideMatch == null) {
+                return null;
+            }
+
+            PeptideQuantificationDetails details = quantificationFeaturesGenerator.getPeptideMatchQuantificationDetails(
+                    msFileHandler,
+                    peptideMatch,
+                    null
+            );
+            NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+
+            LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+            result.put("key", key);
+            result.put("sequence", peptideMatch.getPeptide().getSequence());
+            result.put("validation", getValidation((PSParameter) peptideMatch.getUrParam(PSParameter.dummy)));
+
+            LinkedHashMap<String, Object> ratios = new LinkedHashMap<>();
+
+            for (String sampleIndex : getSortedSampleIndexes()) {
+                ratios.put(sampleIndex, details.getRatio(sampleIndex, normalizationFactors));
+            }
+
+            result.put("ratios", ratios);
+            result.put("stale", quantificationFeaturesGenerator.isShowingStaleValues());
+
+            return result;
+
+        } finally {
+
+            lock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * Returns the quantification details of a PSM, null if not found.
+     *
+     * @param key the key of the spectrum match
+     *
+     * @return the quantification details of the PSM
+     */
+    public LinkedHashMap<String, Object> getPsmDetails(
+            long key
+    ) {
+
+        lock.readLock().lock();
+
+        try {
+
+            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(key);
+
+            if (spectrumMatch == null) {
+                return null;
+            }
+
+            PsmQuantificationDetails details = quantificationFeaturesGenerator.getPSMQuantificationDetails(
+                    msFileHandler,
+                    spectrumMatch
+            );
+            NormalizationFactors normalizationFactors = reporterIonQuantification.getNormalizationFactors();
+
+            LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+            result.put("key", key);
+            result.put("file", spectrumMatch.getSpectrumFile());
+            result.put("title", spectrumMatch.getSpectrumTitle());
+            result.put("validation", getValidation((PSParameter) spectrumMatch.getUrParam(PSParameter.dummy)));
+
+            LinkedHashMap<String, Object> ratios = new LinkedHashMap<>();
+
+            for (String sampleIndex : getSortedSampleIndexes()) {
+                ratios.put(sampleIndex, details.getRatio(sampleIndex, normalizationFactors));
+            }
+
+            result.put("ratios", ratios);
+            result.put("stale", quantificationFeaturesGenerator.isShowingStaleValues());
+
+            return result;
+
+        } finally {
+
+            lock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * Writes a report of the given type in the given folder.
+     *
+     * @param reportType the type of report
+     * @param exportFormat the export format
+     * @param outputFolder the folder where to write the report
+     * @param waitingHandler the waiting handler
+     *
+     * @return the report file
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing the report
+     */
+    public File export(
+            String reportType,
+            ExportFormat exportFormat,
+            File outputFolder,
+            WaitingHandler waitingHandler
+    ) throws Exception {
+
+        ExportScheme exportScheme = ReporterExportFactory.getInstance().getExportScheme(reportType);
+
+        if (exportScheme == null) {
+            throw new IllegalArgumentException("Report type " + reportType + " not found.");
+        }
+
+        lock.readLock().lock();
+
+        try {
+
+            String experiment = projectParameters.getProjectUniqueName();
+            String reportName = ReporterExportFactory.getDefaultReportName(experiment, reportType.replaceAll(" ", "_"));
+
+            if (exportFormat == ExportFormat.excel) {
+                reportName = reportName.substring(0, reportName.lastIndexOf('.')) + ReporterExportFactory.STREAMING_EXCEL_EXTENSION;
+            }
+
+            File reportFile = new File(outputFolder, reportName);
+
+            ReporterExportFactory.writeExport(
+                    exportScheme,
+                    reportFile,
+                    exportFormat,
+                    experiment,
+                    projectDetails,
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    msFileHandler,
+                    proteinDetailsProvider,
+                    geneMaps,
+                    quantificationFeaturesGenerator,
+                    reporterIonQuantification,
+                    reporterSettings,
+                    identificationParameters,
+                    null,
+                    null,
+                    null,
+                    null,
+                    displayParameters.getnAASurroundingPeptides(),
+                    spectrumCountingParameters,
+                    waitingHandler
+            );
+
+            return reportFile;
+
+        } finally {
+
+            lock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * Changes the normalization types. The normalization factors affected by
+     * the change are estimated again; in the meantime, the previous values
+     * are returned flagged as stale. Null types are left unchanged.
+     *
+     * @param psmNormalization the normalization at the PSM level
+     * @param peptideNormalization the normalization at the peptide level
+     * @param proteinNormalization the normalization at the protein level
+     * @param waitingHandler the waiting handler
+     *
+     * @return the levels invalidated by the change
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * estimating the normalization factors
+     */
+    public EnumSet<QuantificationLevel> updateNormalization(
+            NormalizationType psmNormalization,
+            NormalizationType peptideNormalization,
+            NormalizationType proteinNormalization,
+            WaitingHandler waitingHandler
+    ) throws Exception {
+
+        updateLock.lock();
+
+        try {
+
+            ReporterSettings newSettings = reporterSettings.clone();
+            NormalizationSettings normalizationSettings = newSettings.getNormalizationSettings();
+
+            if (psmNormalization != null) {
+                normalizationSettings.setPsmNormalization(psmNormalization);
+            }
+
+            if (peptideNormalization != null) {
+                normalizationSettings.setPeptideNormalization(peptideNormalization);
+            }
+
+            if (proteinNormalization != null) {
+                normalizationSettings.setProteinNormalization(proteinNormalization);
+            }
+
+            SettingsDependencies settingsDependencies;
+
+            lock.writeLock().lock();
+
+            try {
+
+                settingsDependencies = quantificationFeaturesGenerator.updateSettings(newSettings);
+                reporterSettings = newSettings;
+
+            } finally {
+
+                lock.writeLock().unlock();
+
+            }
+
+            if (settingsDependencies.hasChanges()) {
+
+                setNormalizationFactors(
+                        settingsDependencies.getNormalizationLevels(),
+                        quantificationFeaturesGenerator.getUpdateGenerator(),
+                        waitingHandler
+                );
+
+            }
+
+            if (!waitingHandler.isRunCanceled()) {
+                quantificationFeaturesGenerator.clearStaleValues();
+            }
+
+            return settingsDependencies.getInvalidatedLevels();
+
+        } finally {
+
+            updateLock.unlock();
+
+        }
+    }
+
+    /**
+     * Estimates the normalization factors of the given levels. The levels are
+     * processed from the PSM level up as the normalization factors of a level
+     * are used to estimate the ratios of the levels above.
+     *
+     * @param normalizationLevels the levels to normalize
+     * @param generator the quantification features generator to use
+     * @param waitingHandler the waiting handler
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * estimating the normalization factors
+     */
+    private void setNormalizationFactors(
+            EnumSet<QuantificationLevel> normalizationLevels,
+            QuantificationFeaturesGenerator generator,
+            WaitingHandler waitingHandler
+    ) throws Exception {
+
+        Normalizer normalizer = new Normalizer();
+
+        if (normalizationLevels.contains(QuantificationLevel.psm) && !waitingHandler.isRunCanceled()) {
+
+            normalizer.setPsmNormalizationFactors(
+                    reporterIonQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    identificationParameters.getSequenceMatchingParameters(),
+                    identification,
+                    msFileHandler,
+                    generator,
+                    processingParameters,
+                    identificationParameters.getSearchParameters(),
+                    identificationParameters.getFastaParameters(),
+                    identificationParameters.getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    waitingHandler
+            );
+
+        }
+
+        if (normalizationLevels.contains(QuantificationLevel.peptide) && !waitingHandler.isRunCanceled()) {
+
+            normalizer.setPeptideNormalizationFactors(
+                    reporterIonQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    identificationParameters.getSequenceMatchingParameters(),
+                    identification,
+                    msFileHandler,
+                    generator,
+                    processingParameters,
+                    identificationParameters.getSearchParameters(),
+                    identificationParameters.getFastaParameters(),
+                    identificationParameters.getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    waitingHandler
+            );
+
+        }
+
+        if (normalizationLevels.contains(QuantificationLevel.protein) && !waitingHandler.isRunCanceled()) {
+
+            normalizer.setProteinNormalizationFactors(
+                    reporterIonQuantification,
+                    reporterSettings.getRatioEstimationSettings(),
+                    reporterSettings.getNormalizationSettings(),
+                    identification,
+                    msFileHandler,
+                    getMetrics(),
+                    generator,
+                    processingParameters,
+                    identificationParameters.getSearchParameters(),
+                    identificationParameters.getFastaParameters(),
+                    identificationParameters.getPeptideVariantsParameters(),
+                    exceptionHandler,
+                    waitingHandler
+            );
+
+        }
+    }
+
+    /**
+     * Returns the normalization types in use.
+     *
+     * @return the normalization types in use
+     */
+    private LinkedHashMap<String, Object> getNormalizationSummary() {
+
+        NormalizationSettings normalizationSettings = reporterSettings.getNormalizationSettings();
+
+        LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+        result.put("psm", normalizationSettings.getPsmNormalization().name);
+        result.put("peptide", normalizationSettings.getPeptideNormalization().name);
+        result.put("protein", normalizationSettings.getProteinNormalization().name);
+
+        return result;
+
+    }
+
+    /**
+     * Returns the sample indexes sorted.
+     *
+     * @return the sample indexes sorted
+     */
+    private ArrayList<String> getSortedSampleIndexes() {
+
+        ArrayList<String> sampleIndexes = new ArrayList<>(reporterIonQuantification.getSampleIndexes());
+        Collections.sort(sampleIndexes);
+
+        return sampleIndexes;
+
+    }
+
+    /**
+     * Returns the name of the validation level of a match, null if not
+     * available.
+     *
+     * @param psParameter the PeptideShaker parameter of the match
+     *
+     * @return the name of the validation level
+     */
+    private static String getValidation(
+            PSParameter psParameter
+    ) {
+        return psParameter == null ? null : psParameter.getMatchValidationLevel().getName();
+    }
+
+    /**
+     * Returns the id of the project in the service.
+     *
+     * @return the id of the project in the service
+     */
+    public String getId() {
+        return id;
+    }
+}
@@ -18,6 +18,11 @@ public class ReporterIonSelectionSettings implements Serializable {
      * Tolerance for reporter ion matching.
      */
     private double reporterIonsMzTolerance = 0.0016;
+    /**
+     * The systematic m/z offset of the reporter ions, added to the theoretic
+     * m/z of the reporter ions when matching them.
+     */
+    private double reporterIonsMzOffset = 0.0;
     /**
      * Boolean indicating whether the most accurate ion should be selected.
      */
@@ -52,6 +57,7 @@ public class ReporterIonSelectionSettings implements Serializable {
         ReporterIonSelectionSettings clone = new ReporterIonSelectionSettings();
 
         clone.setReporterIonsMzTolerance(reporterIonsMzTolerance);
+        clone.setReporterIonsMzOffset(reporterIonsMzOffset);
         clone.setMostAccurate(mostAccurate);
         clone.setReporterIonsLocation(reporterIonsLocation);
         clone.setPrecursorMzTolerance(precursorMzTolerance);
@@ -72,7 +78,8 @@ public class ReporterIonSelectionSettings implements Serializable {
      */
     public boolean isSameAs(ReporterIonSelectionSettings anotherSetting) {
 
-        return reporterIonsMzTolerance == anotherSetting.getPrecursorMzTolerance()
+        return reporterIonsMzTolerance == anotherSetting.getReporterIonsMzTolerance()
+                && reporterIonsMzOffset == anotherSetting.getReporterIonsMzOffset()
                 && mostAccurate == anotherSetting.isMostAccurate()
                 && reporterIonsLocation == anotherSetting.getReporterIonsLocation()
                 && precursorMzTolerance == anotherSetting.getPrecursorMzTolerance()
@@ -99,6 +106,27 @@ public class ReporterIonSelectionSettings implements Serializable {
         this.reporterIonsMzTolerance = ReporterIonsMzTolerance;
     }
 
+    /**
+     * Returns the systematic m/z offset of the reporter ions, added to the
+     * theoretic m/z of the reporter ions when matching them.
+     *
+     * @return the systematic m/z offset of the reporter ions
+     */
+    public double getReporterIonsMzOffset() {
+        return reporterIonsMzOffset;
+    }
+
+    /**
+     * Sets the systematic m/z offset of the reporter ions, added to the
+     * theoretic m/z of the reporter ions when matching them.
+     *
+     * @param reporterIonsMzOffset the systematic m/z offset of the reporter
+     * ions
+     */
+    public void setReporterIonsMzOffset(double reporterIonsMzOffset) {
+        this.reporterIonsMzOffset = reporterIonsMzOffset;
+    }
+
     /**
      * Returns a boolean indicating whether the most accurate ion should be
      * retained for quantification. The most intense will be used otherwise.
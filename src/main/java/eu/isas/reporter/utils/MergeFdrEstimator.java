@@ -0,0 +1,55 @@
+package eu.isas.reporter.utils;
+
+/**
+ * Enum for the estimators of the FDR of the combined protein scores when
+ * merging protein reports.
+ *
+ * @author Marc Vaudel
+ */
+public enum MergeFdrEstimator {
+
+    pepWindows(0, "Summed PEP windows"),
+    targetDecoy(1, "Cumulative target/decoy counts");
+
+    /**
+     * The index of the estimator.
+     */
+    public final int index;
+    /**
+     * The name of the estimator.
+     */
+    public final String name;
+
+    /**
+     * Constructor.
+     *
+     * @param index the index of the estimator
+     * @param name the name of the estimator
+     */
+    private MergeFdrEstimator(int index, String name) {
+        this.index = index;
+        this.name = name;
+    }
+
+    /**
+     * Returns the estimator corresponding to the given index.
+     *
+     * @param index the index of the estimator
+     *
+     * @return the estimator of interest
+     */
+    public static MergeFdrEstimator getMergeFdrEstimator(int index) {
+
+        for (MergeFdrEstimator mergeFdrEstimator : MergeFdrEstimator.values()) {
+
+            if (mergeFdrEstimator.index == index) {
+                return mergeFdrEstimator;
+            }
+
+        }
+
+        throw new IllegalArgumentException(
+                "No FDR estimator found for index " + index + "."
+        );
+    }
+}
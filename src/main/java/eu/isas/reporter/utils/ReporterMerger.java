@@ -1,22 +1,47 @@
 package eu.isas.reporter.utils;
 
-import com.compomics.util.math.BasicMathFunctions;
-import com.compomics.util.math.statistics.Distribution;
-import com.compomics.util.math.statistics.distributions.NonSymmetricalNormalDistribution;
+import com.compomics.util.io.IoUtil;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
-import org.apache.commons.math.util.FastMath;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
 
 /**
- * Merging Reporter protein reports. For testing purposes only!
+ * Merges the protein reports of several Reporter experiments (plexes) into a
+ * single table. The reports are streamed one at a time, the protein groups are
+ * interned into integer ids and the ratios are stored in primitive columns.
+ * The proteins are scored by the product of their posterior error
+ * probabilities in the different reports, and the PEP and FDR of the combined
+ * score are estimated using the decoy proteins, by default summing the PEP
+ * windows, see MergeFdrEstimator. When the reports are too large to be merged
+ * in memory, every report is sorted into a temporary run and the runs are
+ * merged on disk.
+ *
+ * If control channels are given, the ratios of every protein are also
+ * normalized by the median of the control channels of its report. If pathway
+ * files are given, the proteins of every pathway are written to a separate
+ * report next to the merged report.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
@@ -27,1360 +52,1651 @@ public class ReporterMerger {
      * The column separator.
      */
     private static final String SEPARATOR = "\t";
+    /**
+     * The default index of the protein group column.
+     */
+    public static final int DEFAULT_KEY_COLUMN = 2;
+    /**
+     * The default index of the PEP column.
+     */
+    public static final int DEFAULT_PEP_COLUMN = 11;
+    /**
+     * The default index of the decoy column.
+     */
+    public static final int DEFAULT_DECOY_COLUMN = 12;
+    /**
+     * The default index of the first ratio column.
+     */
+    public static final int DEFAULT_RATIO_COLUMN = 15;
+    /**
+     * The default FDR threshold.
+     */
+    public static final double DEFAULT_FDR = 0.01;
+    /**
+     * The share of the free memory the in-memory merge is allowed to use.
+     */
+    private static final double MEMORY_SHARE = 0.5;
+    /**
+     * Estimate of the number of bytes used in memory per byte of report.
+     */
+    private static final int MEMORY_PER_BYTE = 3;
+    /**
+     * The index of the protein group column.
+     */
+    private final int keyColumn;
+    /**
+     * The index of the PEP column.
+     */
+    private final int pepColumn;
+    /**
+     * The index of the decoy column.
+     */
+    private final int decoyColumn;
+    /**
+     * The index of the first ratio column.
+     */
+    private final int ratioColumn;
+    /**
+     * The FDR threshold.
+     */
+    private final double fdrThreshold;
+    /**
+     * Boolean indicating whether the ratios of every report should be
+     * normalized by the median of the target proteins.
+     */
+    private final boolean normalize;
+    /**
+     * The folder where to write the temporary files.
+     */
+    private final File tempFolder;
+    /**
+     * The estimator of the FDR.
+     */
+    private MergeFdrEstimator fdrEstimator = MergeFdrEstimator.pepWindows;
+    /**
+     * The names, or part of the names, of the control channels.
+     */
+    private String[] controlChannels = new String[0];
+    /**
+     * The files listing the proteins of the pathways.
+     */
+    private ArrayList<File> pathwayFiles = new ArrayList<>();
+    /**
+     * The accessions of the proteins of every pathway indexed by pathway name.
+     */
+    private final HashMap<String, HashSet<String>> pathways = new HashMap<>();
+    /**
+     * The names of the reports.
+     */
+    private final ArrayList<String> plexNames = new ArrayList<>();
+    /**
+     * The names of the ratio channels of every report.
+     */
+    private final ArrayList<String[]> channelNames = new ArrayList<>();
+    /**
+     * The index of the first ratio of every report in the merged row.
+     */
+    private int[] plexOffsets;
+    /**
+     * The total number of ratios in the merged row.
+     */
+    private int nRatios;
 
-    public static void main(String[] args) {
+    /**
+     * Constructor using the default columns.
+     *
+     * @param fdrThreshold the FDR threshold, e.g. 0.01 for 1%
+     * @param normalize boolean indicating whether the ratios of every report
+     * should be normalized by the median of the target proteins
+     * @param tempFolder the folder where to write the temporary files
+     */
+    public ReporterMerger(
+            double fdrThreshold,
+            boolean normalize,
+            File tempFolder
+    ) {
+        this(DEFAULT_KEY_COLUMN, DEFAULT_PEP_COLUMN, DEFAULT_DECOY_COLUMN, DEFAULT_RATIO_COLUMN, fdrThreshold, normalize, tempFolder);
+    }
 
-        ReporterMerger rm = new ReporterMerger();
+    /**
+     * Constructor.
+     *
+     * @param keyColumn the index of the protein group column
+     * @param pepColumn the index of the PEP column
+     * @param decoyColumn the index of the decoy column
+     * @param ratioColumn the index of the first ratio column, all following
+     * columns are considered as ratios
+     * @param fdrThreshold the FDR threshold, e.g. 0.01 for 1%
+     * @param normalize boolean indicating whether the ratios of every report
+     * should be normalized by the median of the target proteins
+     * @param tempFolder the folder where to write the temporary files
+     */
+    public ReporterMerger(
+            int keyColumn,
+            int pepColumn,
+            int decoyColumn,
+            int ratioColumn,
+            double fdrThreshold,
+            boolean normalize,
+            File tempFolder
+    ) {
+        this.keyColumn = keyColumn;
+        this.pepColumn = pepColumn;
+        this.decoyColumn = decoyColumn;
+        this.ratioColumn = ratioColumn;
+        this.fdrThreshold = fdrThreshold;
+        this.normalize = normalize;
+        this.tempFolder = tempFolder;
+    }
 
-        try {
-            rm.testReporterGrouping();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Sets the estimator of the FDR.
+     *
+     * @param fdrEstimator the estimator of the FDR
+     */
+    public void setFdrEstimator(
+            MergeFdrEstimator fdrEstimator
+    ) {
+        this.fdrEstimator = fdrEstimator;
+    }
 
+    /**
+     * Sets the control channels. The ratios of every protein are normalized by
+     * the median of the ratios of the channels whose name contains one of the
+     * given control channels, e.g. 126 and 127.
+     *
+     * @param controlChannels the names, or part of the names, of the control
+     * channels
+     */
+    public void setControlChannels(
+            String[] controlChannels
+    ) {
+        this.controlChannels = controlChannels;
     }
 
     /**
-     * Test reporter grouping.
+     * Sets the files listing the proteins of the pathways. Every file is tab
+     * separated with a header line and the protein accessions in the second
+     * column. The target proteins of every pathway are written to
+     * [pathway]_quantification.txt in the folder of the merged report.
      *
-     * @throws FileNotFoundException thrown if a FileNotFoundException occurs
-     * @throws IOException thrown if an IOException occurs
+     * @param pathwayFiles the files listing the proteins of the pathways
      */
-    public void testReporterGrouping() throws FileNotFoundException, IOException {
+    public void setPathwayFiles(
+            ArrayList<File> pathwayFiles
+    ) {
+        this.pathwayFiles = pathwayFiles;
+    }
 
-        try {
+    /**
+     * Indicates whether the given reports are too large to be merged in
+     * memory.
+     *
+     * @param reports the reports to merge
+     *
+     * @return a boolean indicating whether the given reports should be merged
+     * on disk
+     */
+    public static boolean needsExternalMerge(
+            ArrayList<File> reports
+    ) {
 
-            String path = "C:\\Users\\hba041\\Desktop\\heidrun\\reporter_test\\new_tmt_masses_2";
-
-            int nFiles = 3;
-            int nProteins = 20000;
-            int nRatios = 6;
-            int ratioIndex = 15;
-
-            String[] orderedExperiments = {"Mix 1", "Mix 2", "Mix 3"};
-            HashMap<String, String> fileMap = new HashMap<>(nFiles);
-            fileMap.put(orderedExperiments[0], "Mix1.txt");
-            fileMap.put(orderedExperiments[1], "Mix2.txt");
-            fileMap.put(orderedExperiments[2], "Mix3.txt");
-
-            HashMap<String, ArrayList<String>> ratios = new HashMap<>(nFiles);
-
-            HashMap<String, String> keyToMainMatchMap = new HashMap<>(nProteins);
-            HashMap<String, String> keyToOtherMatchesMap = new HashMap<>(nProteins);
-            HashMap<String, String> groupClassMap = new HashMap<>(nProteins);
-            HashMap<String, String> mwMap = new HashMap<>(nProteins);
-            HashMap<String, String> descriptionMap = new HashMap<>(nProteins);
-            HashMap<String, Integer> decoyMap = new HashMap<>(nProteins);
-
-            HashMap<String, ArrayList<String>> proteinKeysMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, Integer>> peptidesMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, Integer>> spectraMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, Integer>> validatedPeptidesMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, Integer>> validatedSpectraMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, Double>> pepMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, Double>> scoreMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, String>> validatedMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, HashMap<String, Double>>> ratiosMap = new HashMap<>(nFiles);
-            HashMap<String, HashMap<String, HashMap<String, Double>>> ratiosMapNormalized = new HashMap<>(nFiles);
-
-            for (String experiment : orderedExperiments) {
-
-                ratios.put(experiment, new ArrayList<>(nRatios));
-                proteinKeysMap.put(experiment, new ArrayList<>(nProteins));
-                peptidesMap.put(experiment, new HashMap<>(nProteins));
-                spectraMap.put(experiment, new HashMap<>(nProteins));
-                validatedPeptidesMap.put(experiment, new HashMap<>(nProteins));
-                validatedSpectraMap.put(experiment, new HashMap<>(nProteins));
-                pepMap.put(experiment, new HashMap<>(nProteins));
-                scoreMap.put(experiment, new HashMap<>(nProteins));
-                validatedMap.put(experiment, new HashMap<>(nProteins));
-                ratiosMap.put(experiment, new HashMap<>(nProteins));
-                ratiosMapNormalized.put(experiment, new HashMap<>(nProteins));
-
-                String fileName = fileMap.get(experiment);
-                File myFile = new File(path, fileName);
-                BufferedReader br = new BufferedReader(new FileReader(myFile));
+        long totalSize = 0;
 
-                String line = br.readLine();
-                String[] split = line.split(SEPARATOR);
+        for (File report : reports) {
+            totalSize += report.length();
+        }
 
-                for (int i = ratioIndex; i < split.length; i++) {
-                    String value = split[i];
-                    ratios.get(experiment).add(value);
-                    ratiosMap.get(experiment).put(value, new HashMap<>());
-                    ratiosMapNormalized.get(experiment).put(value, new HashMap<>());
-                }
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
 
-                // read the data from the input file
-                while ((line = br.readLine()) != null && !line.equals("")) {
-
-                    split = line.split(SEPARATOR);
-                    String completeProteinGroup = split[2];
-
-                    Integer numberOfValidatedPeptides = Integer.valueOf(split[6]);
-                    Integer numberOfValidatedSpectra = Integer.valueOf(split[7]);
-
-                    Integer decoyIntegerValue = Integer.valueOf(split[12]);
-                    decoyMap.put(completeProteinGroup, decoyIntegerValue);
-                    keyToMainMatchMap.put(completeProteinGroup, split[0]);
-                    keyToOtherMatchesMap.put(completeProteinGroup, split[1]);
-                    groupClassMap.put(completeProteinGroup, split[3]);
-                    mwMap.put(completeProteinGroup, split[8]);
-                    descriptionMap.put(completeProteinGroup, split[14]);
-                    Integer numberOfPeptides = Integer.valueOf(split[4]);
-                    peptidesMap.get(experiment).put(completeProteinGroup, numberOfPeptides);
-                    Integer numberOfSpectra = Integer.valueOf(split[5]);
-                    spectraMap.get(experiment).put(completeProteinGroup, numberOfSpectra);
-                    validatedPeptidesMap.get(experiment).put(completeProteinGroup, numberOfValidatedPeptides);
-                    validatedSpectraMap.get(experiment).put(completeProteinGroup, numberOfValidatedSpectra);
-                    Double pScore = Double.valueOf(split[10]);
-                    scoreMap.get(experiment).put(completeProteinGroup, pScore);
-                    Double p = Double.valueOf(split[11]);
-                    pepMap.get(experiment).put(completeProteinGroup, p);
-                    String validatedStatus = split[13];
-                    validatedMap.get(experiment).put(completeProteinGroup, validatedStatus);
-
-                    for (int i = ratioIndex; i < split.length; i++) {
-
-                        int index = i - ratioIndex;
-                        String ratioTitle = ratios.get(experiment).get(index);
-                        Double ratioValue = Double.valueOf(split[i]);
-                        ratiosMap.get(experiment).get(ratioTitle).put(completeProteinGroup, ratioValue);
+        return MEMORY_PER_BYTE * totalSize > MEMORY_SHARE * freeMemory;
 
-                    }
-                }
+    }
 
-                br.close();
-            }
+    /**
+     * Merges the given reports.
+     *
+     * @param reports the protein reports to merge
+     * @param destinationFile the file where to write the merged report
+     * @param external boolean indicating whether the merge should be done on
+     * disk, if null it is decided based on the available memory
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void merge(
+            ArrayList<File> reports,
+            File destinationFile,
+            Boolean external,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        plexNames.clear();
+        channelNames.clear();
+        loadPathways();
+
+        if (external == null) {
+            external = needsExternalMerge(reports);
+        }
 
-            int nKeys = keyToMainMatchMap.size();
-            HashMap<String, Double> keyToScoreMap = new HashMap<>(nKeys);
-            HashMap<Double, Integer> nDecoy = new HashMap<>();
-            HashMap<Double, Integer> nTarget = new HashMap<>();
+        if (external) {
 
-            for (String key : keyToMainMatchMap.keySet()) {
+            waitingHandler.appendReport("Merging " + reports.size() + " reports on disk.", true, true);
+            mergeOnDisk(reports, destinationFile, waitingHandler);
 
-                double score = 1;
+        } else {
 
-                for (String experiment : pepMap.keySet()) {
+            waitingHandler.appendReport("Merging " + reports.size() + " reports in memory.", true, true);
+            mergeInMemory(reports, destinationFile, waitingHandler);
 
-                    Double pep = pepMap.get(experiment).get(key);
+        }
+    }
 
-                    if (pep != null) {
-                        score *= pep;
-                    }
+    /**
+     * Merges the given reports in memory. The rows are written sorted by
+     * protein group like when merging on disk, and a protein group found
+     * twice in a report is rejected in the same way.
+     *
+     * @param reports the protein reports to merge
+     * @param destinationFile the file where to write the merged report
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private void mergeInMemory(
+            ArrayList<File> reports,
+            File destinationFile,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                }
+        HashMap<String, Integer> keyIds = new HashMap<>();
+        ArrayList<String> keys = new ArrayList<>();
+        double[] scores = new double[1024];
+        int[] nPlexes = new int[1024];
+        int[] lastPlexes = new int[1024];
+        BitSet decoys = new BitSet();
 
-                keyToScoreMap.put(key, score);
+        ArrayList<int[]> plexIds = new ArrayList<>(reports.size());
+        ArrayList<PlexTable> plexTables = new ArrayList<>(reports.size());
 
-                if (!nDecoy.containsKey(score)) {
-                    nDecoy.put(score, 0);
-                    nTarget.put(score, 0);
-                }
+        for (File report : reports) {
 
-                if (decoyMap.get(key) == 1) {
-                    nDecoy.put(score, nDecoy.get(score) + 1);
-                } else {
-                    nTarget.put(score, nTarget.get(score) + 1);
-                }
+            waitingHandler.appendReport("Loading " + report.getName() + ".", true, true);
 
-            }
+            PlexTable plexTable = readReport(report);
+            int plex = plexTables.size();
+            plexTables.add(plexTable);
 
-            ArrayList<Double> scores = new ArrayList<>(nDecoy.keySet());
-            Collections.sort(scores);
+            int[] ids = new int[plexTable.nRows];
 
-            int nMax = 0, cpt = -1;
+            for (int row = 0; row < plexTable.nRows; row++) {
 
-            for (Double score : scores) {
+                String key = plexTable.keys[row];
+                Integer id = keyIds.get(key);
 
-                if (nDecoy.get(score) > 0) {
+                if (id == null) {
 
-                    if (cpt > nMax) {
-                        nMax = cpt;
-                    }
+                    id = keys.size();
+                    keys.add(key);
+                    keyIds.put(key, id);
 
-                    if (cpt == -1) {
-                        cpt = 0;
+                    if (id == scores.length) {
+                        scores = Arrays.copyOf(scores, 2 * id);
+                        nPlexes = Arrays.copyOf(nPlexes, 2 * id);
+                        lastPlexes = Arrays.copyOf(lastPlexes, 2 * id);
                     }
 
-                }
-
-                if (cpt != -1) {
-                    cpt += nTarget.get(score);
-                }
-
-            }
-
-            HashMap<Double, Double> peps = new HashMap<>();
-            HashMap<Double, Double> fdr = new HashMap<>();
-            double totalDecoy = 0, lastValidatedScore = 0.0;
-            int nValidated = 0, totalTarget = 0;
-
-            for (int i = 0; i < scores.size(); i++) {
-
-                double tempScore, score = scores.get(i);
-                double nt = nTarget.get(score);
-                double nd = nDecoy.get(score);
-                int j = i;
-                double limit = ((double) (nMax - nt)) / 2;
-
-                while (--j >= 0 && nt < limit) {
-                    tempScore = scores.get(j);
-                    nt += nTarget.get(tempScore);
-                    nd += nDecoy.get(tempScore);
-                }
-
-                j = i;
+                    scores[id] = 1.0;
+                    lastPlexes[id] = -1;
 
-                while (++j < scores.size() && nt < limit) {
-                    tempScore = scores.get(j);
-                    nt += nTarget.get(tempScore);
-                    nd += nDecoy.get(tempScore);
                 }
 
-                double pep = nd / nt;
-                peps.put(score, pep);
-
-                totalDecoy += nd;
-                totalTarget += nt;
-                double tempFdr = totalDecoy / totalTarget;
-
-                if (tempFdr <= 0.01) {
-                    lastValidatedScore = score;
-                    nValidated = totalTarget;
+                if (lastPlexes[id] == plex) {
+                    throw new IllegalArgumentException("Protein group " + key + " found twice in report " + plexNames.get(plexNames.size() - 1) + ".");
                 }
 
-                fdr.put(score, tempFdr);
-            }
-
-            System.out.println("Score threshold: " + lastValidatedScore + ", # validated: " + nValidated);
-
-            // Output results
-            File outputFile = new File(path, "quanification_raw_results.txt");
-            BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-
-            // first header row
-            writer.write("Protein" + SEPARATOR + "Description" + SEPARATOR + "MW" + SEPARATOR + "Other Protein(s) (alphabetical order)"
-                    + SEPARATOR + "Complete Protein Group (alphabetical order)" + SEPARATOR + "Group Class" + SEPARATOR + "#Peptides");
-
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
-
-            writer.write("#Spectra");
+                lastPlexes[id] = plex;
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
-
-            writer.write("#Validated Peptides");
-
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
-
-            writer.write("#Validated Spectra");
-
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
-
-            writer.write("Confidence");
-
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
-
-            writer.write("Validated in mix");
-
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
-
-            writer.write("score" + SEPARATOR + "Overall Confidence" + SEPARATOR + "decoy" + SEPARATOR + "FDR" + SEPARATOR + "Validated" + SEPARATOR);
-
-            for (String experiment : orderedExperiments) {
+                ids[row] = id;
+                scores[id] *= plexTable.peps[row];
+                nPlexes[id]++;
 
-                writer.write(experiment + " ratios");
-
-                for (int i = 0; i < nRatios; i++) {
-                    writer.write(SEPARATOR);
+                if (plexTable.decoys.get(row)) {
+                    decoys.set(id);
                 }
-
-            }
-
-            writer.newLine();
-
-            // second header row
-            writer.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
-
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
-
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
             }
 
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
-
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
-
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
-
-            writer.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
-            for (String experiment : orderedExperiments) {
-
-                for (String ratioName : ratios.get(experiment)) {
-                    writer.write(ratioName + SEPARATOR);
-                }
+            // the keys are interned and not needed anymore
+            plexTable.keys = null;
+            plexIds.add(ids);
 
+            if (waitingHandler.isRunCanceled()) {
+                return;
             }
+        }
 
-            writer.newLine();
-
-            // print the protein details
-            for (String key : keyToMainMatchMap.keySet()) {
-
-                writer.write(keyToMainMatchMap.get(key) + SEPARATOR);
-                writer.write(descriptionMap.get(key) + SEPARATOR);
-                writer.write(mwMap.get(key) + SEPARATOR);
-                writer.write(keyToOtherMatchesMap.get(key) + SEPARATOR);
-                writer.write(key + SEPARATOR);
-                writer.write(groupClassMap.get(key) + SEPARATOR);
-
-                for (String experiment : orderedExperiments) {
-
-                    Object value = peptidesMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        writer.write(value.toString());
-                    }
-
-                    writer.write(SEPARATOR);
-
-                }
-
-                for (String experiment : orderedExperiments) {
-
-                    Object value = spectraMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        writer.write(value.toString());
-
-                    }
-
-                    writer.write(SEPARATOR);
-
-                }
-
-                for (String experiment : orderedExperiments) {
-
-                    Object value = validatedPeptidesMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        writer.write(value.toString());
-
-                    }
-
-                    writer.write(SEPARATOR);
-
-                }
-
-                for (String experiment : orderedExperiments) {
-
-                    Object value = validatedSpectraMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        writer.write(value.toString());
-
-                    }
-
-                    writer.write(SEPARATOR);
-
-                }
-
-                for (String experiment : orderedExperiments) {
-
-                    Double value = pepMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        value = 1 - value;
-                        writer.write(value.toString());
-                    }
-
-                    writer.write(SEPARATOR);
-
-                }
-
-                for (String experiment : orderedExperiments) {
-
-                    String value = validatedMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        writer.write(value);
-
-                    }
-
-                    writer.write(SEPARATOR);
-                }
-
-                double score = keyToScoreMap.get(key);
-                writer.write(score + SEPARATOR);
-                double pep = peps.get(score);
-                double confidence = 1 - pep;
-                writer.write(confidence + SEPARATOR);
-                writer.write(decoyMap.get(key) + SEPARATOR);
-                writer.write(fdr.get(score) + SEPARATOR);
-
-                if (score <= lastValidatedScore) {
-                    writer.write(1 + SEPARATOR);
-                } else {
-                    writer.write(0 + SEPARATOR);
-                }
-
-                // write the raw ratios
-                for (String experiment : orderedExperiments) {
-
-                    for (String ratio : ratios.get(experiment)) {
-
-                        Double value = ratiosMap.get(experiment).get(ratio).get(key);
-
-                        if (value != null && !value.isNaN()) {
-                            writer.write(value.toString());
-                        }
-
-                        writer.write(SEPARATOR);
-
-                    }
-                }
-
-                writer.newLine();
-            }
-
-            writer.close();
-
-            // Import pathway proteins
-            String[] pathwayFiles = {"jak-stat", "stem cell maintenance"};
-            HashMap<String, ArrayList<String>> pathways = new HashMap<String, ArrayList<String>>(nFiles);
+        setPlexOffsets();
 
-            for (String pathway : pathwayFiles) {
+        int nProteins = keys.size();
+        ScoreStatistics scoreStatistics = new ScoreStatistics(scores, decoys, nProteins, fdrThreshold, fdrEstimator);
+        waitingHandler.appendReport(
+                "Score threshold: " + scoreStatistics.getScoreThreshold()
+                + ", # validated: " + scoreStatistics.getnValidated() + ".",
+                true,
+                true
+        );
 
-                ArrayList<String> accessions = new ArrayList<String>();
-                File pathwayFile = new File(path, pathway + ".txt");
-                BufferedReader reader = new BufferedReader(new FileReader(pathwayFile));
-                String line = reader.readLine();
+        // inverse the plex indexes
+        int[][] plexRows = new int[plexTables.size()][nProteins];
 
-                while ((line = reader.readLine()) != null) {
-                    String[] content = line.split("\t");
-                    accessions.add(content[1]);
-                }
+        for (int plex = 0; plex < plexTables.size(); plex++) {
 
-                pathways.put(pathway, accessions);
-                reader.close();
+            int[] rows = plexRows[plex];
+            Arrays.fill(rows, -1);
+            int[] ids = plexIds.get(plex);
 
+            for (int row = 0; row < ids.length; row++) {
+                rows[ids[row]] = row;
             }
+        }
 
-            // Get a list of protein matches amendable for quantification, create list of ratios
-            ArrayList<String> quantificationMatches = new ArrayList<>();
-            HashMap<String, HashMap<String, ArrayList<Double>>> validatedRatios = new HashMap<>();
-            HashMap<String, HashMap<String, HashMap<String, HashMap<String, Double>>>> pathwaysRatios = new HashMap<>(); //Pathway > protein key > experiment > channel > ratio
-
-            for (String key : keyToMainMatchMap.keySet()) {
-
-                int decoy = decoyMap.get(key);
-
-                if (decoy == 0) {
-
-                    double score = keyToScoreMap.get(key);
-
-                    if (score < lastValidatedScore) {
-
-                        for (String experiment : orderedExperiments) {
+        Integer[] order = new Integer[nProteins];
 
-                            Integer nValidatedPeptides = validatedPeptidesMap.get(experiment).get(key);
+        for (int id = 0; id < nProteins; id++) {
+            order[id] = id;
+        }
 
-                            if (nValidatedPeptides != null && nValidatedPeptides > 1) {
+        Arrays.sort(order, Comparator.comparing(keys::get));
 
-                                if (!quantificationMatches.contains(key)) {
-                                    quantificationMatches.add(key);
-                                }
+        float[] ratios = new float[nRatios];
 
-                                HashMap<String, ArrayList<Double>> tempRatiosMap = validatedRatios.get(experiment);
+        try (MergedReportWriter writer = new MergedReportWriter(destinationFile)) {
 
-                                if (tempRatiosMap == null) {
-                                    tempRatiosMap = new HashMap<String, ArrayList<Double>>();
-                                    validatedRatios.put(experiment, tempRatiosMap);
-                                }
+            writer.writeHeader();
 
-                                for (String ratio : ratios.get(experiment)) {
+            for (int id : order) {
 
-                                    Double value = ratiosMap.get(experiment).get(ratio).get(key);
+                Arrays.fill(ratios, Float.NaN);
 
-                                    if (value != null && !value.isNaN()) {
+                for (int plex = 0; plex < plexTables.size(); plex++) {
 
-                                        ArrayList<Double> tempRatios = tempRatiosMap.get(ratio);
+                    int row = plexRows[plex][id];
 
-                                        if (tempRatios == null) {
-                                            tempRatios = new ArrayList<Double>();
-                                            tempRatiosMap.put(ratio, tempRatios);
-                                        }
+                    if (row != -1) {
 
-                                        tempRatios.add(value);
+                        float[][] plexRatios = plexTables.get(plex).ratios;
 
-                                    }
-                                }
-                            }
+                        for (int channel = 0; channel < plexRatios.length; channel++) {
+                            ratios[plexOffsets[plex] + channel] = plexRatios[channel][row];
                         }
                     }
-
-                    throw new IOException("ProteinMatch.getAccessions(key) not yet remplemented!");
-
-//                    for (String accession : ProteinMatch.getAccessions(key)) { // @TODO: this requires identification.getProteinMap().get(accession) which we cannot use here
-//                        for (String pathway : pathways.keySet()) {
-//                            if (pathways.get(pathway).contains(accession)) {
-//                                for (String experiment : orderedExperiments) {
-//                                    HashMap<String, HashMap<String, HashMap<String, Double>>> pathwayRatios = pathwaysRatios.get(pathway);
-//                                    if (pathwayRatios == null) {
-//                                        pathwayRatios = new HashMap<String, HashMap<String, HashMap<String, Double>>>();
-//                                        pathwaysRatios.put(pathway, pathwayRatios);
-//                                    }
-//                                    HashMap<String, HashMap<String, Double>> proteinRatios = pathwayRatios.get(key);
-//                                    if (proteinRatios == null) {
-//                                        proteinRatios = new HashMap<String, HashMap<String, Double>>();
-//                                        pathwayRatios.put(key, proteinRatios);
-//                                    }
-//                                    HashMap<String, Double> tempRatiosMap = proteinRatios.get(experiment);
-//                                    if (tempRatiosMap == null) {
-//                                        tempRatiosMap = new HashMap<String, Double>();
-//                                        proteinRatios.put(experiment, tempRatiosMap);
-//                                    }
-//                                    for (String ratio : ratios.get(experiment)) {
-//                                        Double value = ratiosMap.get(experiment).get(ratio).get(key);
-//                                        if (value != null && !value.isNaN()) {
-//                                            tempRatiosMap.put(ratio, value);
-//                                        }
-//                                    }
-//                                }
-//                            }
-//                        }
-//                    }
                 }
-            }
-
-            // Output medians
-            outputFile = new File(path, "medians.txt");
-            writer = new BufferedWriter(new FileWriter(outputFile));
-            writer.write(SEPARATOR);
-
-            for (String experiment : orderedExperiments) {
 
-                writer.write(experiment);
+                writer.writeRow(keys.get(id), decoys.get(id), nPlexes[id], scores[id], scoreStatistics, ratios);
 
-                for (String ratio : ratios.get(experiment)) {
-                    writer.write(SEPARATOR);
-
-                }
             }
+        }
+    }
 
-            writer.newLine();
-            writer.write(SEPARATOR);
-
-            for (String experiment : orderedExperiments) {
+    /**
+     * Merges the given reports on disk. Every report is loaded in turn and
+     * written as a run sorted by protein group, the runs are then merged into a
+     * temporary table from which the final report is written once the scores
+     * are estimated.
+     *
+     * @param reports the protein reports to merge
+     * @param destinationFile the file where to write the merged report
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private void mergeOnDisk(
+            ArrayList<File> reports,
+            File destinationFile,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                for (String ratio : ratios.get(experiment)) {
-                    writer.write(ratio + SEPARATOR);
-                }
+        File runFolder = Files.createTempDirectory(tempFolder.toPath(), "reporter_merge").toFile();
 
-            }
+        try {
 
-            writer.newLine();
-            writer.write("Median" + SEPARATOR);
+            // write the sorted runs
+            ArrayList<File> runFiles = new ArrayList<>(reports.size());
 
-            HashMap<String, HashMap<String, Double>> medianes = new HashMap<>();
+            for (int plex = 0; plex < reports.size(); plex++) {
 
-            for (String experiment : orderedExperiments) {
+                File report = reports.get(plex);
+                waitingHandler.appendReport("Sorting " + report.getName() + ".", true, true);
 
-                medianes.put(experiment, new HashMap<String, Double>());
+                PlexTable plexTable = readReport(report);
+                File runFile = new File(runFolder, "run_" + plex);
+                writeRun(plexTable, runFile);
+                runFiles.add(runFile);
 
-                for (String ratio : ratios.get(experiment)) {
-                    double median = BasicMathFunctions.median(validatedRatios.get(experiment).get(ratio));
-                    writer.write(median + SEPARATOR);
-                    medianes.get(experiment).put(ratio, median);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
                 }
-
             }
 
-            writer.close();
+            setPlexOffsets();
 
-            // Normalize every column by the median
-            HashMap<String, HashMap<String, HashMap<String, Double>>> medianNormalizedValidatedRatiosMap = new HashMap<>(nFiles);
+            // merge the runs
+            waitingHandler.appendReport("Merging the sorted reports.", true, true);
 
-            for (String key : quantificationMatches) {
+            File mergedFile = new File(runFolder, "merged");
+            double[] scores = new double[1024];
+            BitSet decoys = new BitSet();
+            int nProteins = 0;
 
-                HashMap<String, HashMap<String, Double>> proteinRatios = new HashMap<>();
-                medianNormalizedValidatedRatiosMap.put(key, proteinRatios);
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                    Math.max(1, runFiles.size()),
+                    Comparator.comparing((RunReader runReader) -> runReader.key).thenComparingInt(runReader -> runReader.plex)
+            );
 
-                for (String experiment : orderedExperiments) {
+            try (DataOutputStream mergedStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mergedFile)))) {
 
-                    HashMap<String, Double> experimentRatios = new HashMap<>();
-                    proteinRatios.put(experiment, experimentRatios);
+                try {
 
-                    for (String ratio : ratios.get(experiment)) {
+                    for (int plex = 0; plex < runFiles.size(); plex++) {
 
-                        Double value = ratiosMap.get(experiment).get(ratio).get(key);
+                        RunReader runReader = new RunReader(runFiles.get(plex), plex, channelNames.get(plex).length);
 
-                        if (value != null && !value.isNaN()) {
-                            double median = medianes.get(experiment).get(ratio);
-                            double normalizedValue = value / median;
-                            experimentRatios.put(ratio, normalizedValue);
+                        if (runReader.next()) {
+                            queue.add(runReader);
+                        } else {
+                            runReader.close();
                         }
-
                     }
-                }
-            }
 
-            // Normalize every line by channels 126 and 127
-            HashMap<String, HashMap<String, HashMap<String, Double>>> normalizedValidatedRatiosMap = new HashMap<String, HashMap<String, HashMap<String, Double>>>(nFiles);
+                    float[] ratios = new float[nRatios];
 
-            for (String key : quantificationMatches) {
+                    while (!queue.isEmpty()) {
 
-                HashMap<String, HashMap<String, Double>> proteinRatios = new HashMap<String, HashMap<String, Double>>();
-                normalizedValidatedRatiosMap.put(key, proteinRatios);
+                        String key = queue.peek().key;
+                        boolean decoy = false;
+                        double score = 1.0;
+                        int nPlexes = 0;
+                        Arrays.fill(ratios, Float.NaN);
 
-                for (String experiment : orderedExperiments) {
+                        while (!queue.isEmpty() && queue.peek().key.equals(key)) {
 
-                    ArrayList<Double> controlIntensities = new ArrayList<Double>();
+                            RunReader runReader = queue.poll();
 
-                    for (String ratio : ratios.get(experiment)) {
+                            decoy |= runReader.decoy;
+                            score *= runReader.pep;
+                            nPlexes++;
+                            System.arraycopy(runReader.ratios, 0, ratios, plexOffsets[runReader.plex], runReader.ratios.length);
 
-                        if (ratio.contains("126") || ratio.contains("127")) {
-
-                            Double value = medianNormalizedValidatedRatiosMap.get(key).get(experiment).get(ratio);
-
-                            if (value != null && !value.isNaN()) {
-                                controlIntensities.add(value);
+                            if (runReader.next()) {
+                                queue.add(runReader);
+                            } else {
+                                runReader.close();
                             }
-
                         }
 
-                    }
-
-                    HashMap<String, Double> experimentRatios = new HashMap<String, Double>();
-                    proteinRatios.put(experiment, experimentRatios);
-
-                    if (!controlIntensities.isEmpty()) {
-
-                        double normalizationValue = BasicMathFunctions.median(controlIntensities);
-
-                        for (String ratio : ratios.get(experiment)) {
-
-                            Double value = medianNormalizedValidatedRatiosMap.get(key).get(experiment).get(ratio);
-
-                            if (value != null && !value.isNaN()) {
-                                double normalizedValue = value / normalizationValue;
-                                experimentRatios.put(ratio, normalizedValue);
-                            }
+                        writeString(mergedStream, key);
+                        mergedStream.writeBoolean(decoy);
+                        mergedStream.writeInt(nPlexes);
+                        mergedStream.writeDouble(score);
 
+                        for (float ratio : ratios) {
+                            mergedStream.writeFloat(ratio);
                         }
 
-                    }
-                }
-            }
-
-            // Normalize the pathway proteins
-            HashMap<String, HashMap<String, HashMap<String, HashMap<String, Double>>>> normalizedPathwaysRatiosMap = new HashMap<String, HashMap<String, HashMap<String, HashMap<String, Double>>>>(nFiles);
-
-            for (String pathway : pathwaysRatios.keySet()) {
-
-                for (String key : pathwaysRatios.get(pathway).keySet()) {
-
-                    for (String experiment : pathwaysRatios.get(pathway).get(key).keySet()) {
-
-                        ArrayList<Double> controlIntensities = new ArrayList<Double>();
-                        HashMap<String, Double> allIntensities = new HashMap<String, Double>();
-
-                        for (String channel : pathwaysRatios.get(pathway).get(key).get(experiment).keySet()) {
-
-                            Double value = pathwaysRatios.get(pathway).get(key).get(experiment).get(channel);
-
-                            if (value != null && !value.isNaN()) {
-
-                                double median = medianes.get(experiment).get(channel);
-                                value /= median;
-
-                                if (channel.contains("126") || channel.contains("127")) {
-                                    controlIntensities.add(value);
-                                }
-
-                                allIntensities.put(channel, value);
-
-                            }
-
+                        if (nProteins == scores.length) {
+                            scores = Arrays.copyOf(scores, 2 * nProteins);
                         }
 
-                        if (!allIntensities.isEmpty()) {
-
-                            double normalizationIntensity;
-
-                            if (!controlIntensities.isEmpty()) {
-                                normalizationIntensity = BasicMathFunctions.median(controlIntensities);
-                            } else {
-                                ArrayList<Double> intensities = new ArrayList<>(allIntensities.values());
-                                normalizationIntensity = BasicMathFunctions.median(intensities);
-                            }
-
-                            HashMap<String, HashMap<String, HashMap<String, Double>>> pathwayRatios = normalizedPathwaysRatiosMap.get(pathway);
-
-                            if (pathwayRatios == null) {
-                                pathwayRatios = new HashMap<>();
-                                normalizedPathwaysRatiosMap.put(pathway, pathwayRatios);
-                            }
-
-                            HashMap<String, HashMap<String, Double>> proteinRatios = pathwayRatios.get(key);
-
-                            if (proteinRatios == null) {
-                                proteinRatios = new HashMap<>();
-                                pathwayRatios.put(key, proteinRatios);
-                            }
-
-                            HashMap<String, Double> experimentRatios = proteinRatios.get(experiment);
-
-                            if (experimentRatios == null) {
-                                experimentRatios = new HashMap<String, Double>();
-                                proteinRatios.put(experiment, experimentRatios);
-                            }
-
-                            for (String channel : allIntensities.keySet()) {
-                                double value = allIntensities.get(channel);
-                                value /= normalizationIntensity;
-                                experimentRatios.put(channel, value);
-                            }
+                        scores[nProteins] = score;
 
+                        if (decoy) {
+                            decoys.set(nProteins);
                         }
-                    }
-                }
-            }
-
-            HashMap<String, HashMap<String, HashMap<String, Double>>> logNormalizedValidatedRatiosMap = new HashMap<String, HashMap<String, HashMap<String, Double>>>(nFiles);
-            HashMap<String, HashMap<String, ArrayList<Double>>> logNormalizedValidatedRatios = new HashMap<String, HashMap<String, ArrayList<Double>>>();
-
-            for (String key : quantificationMatches) {
-
-                HashMap<String, HashMap<String, Double>> proteinRatios = new HashMap<String, HashMap<String, Double>>();
-                logNormalizedValidatedRatiosMap.put(key, proteinRatios);
 
-                for (String experiment : orderedExperiments) {
+                        nProteins++;
 
-                    HashMap<String, Double> experimentRatios = new HashMap<String, Double>();
-                    proteinRatios.put(experiment, experimentRatios);
-                    HashMap<String, ArrayList<Double>> experimentRatiosList = logNormalizedValidatedRatios.get(experiment);
-
-                    if (experimentRatiosList == null) {
-                        experimentRatiosList = new HashMap<String, ArrayList<Double>>();
-                        logNormalizedValidatedRatios.put(experiment, experimentRatiosList);
-                    }
-
-                    for (String ratio : ratios.get(experiment)) {
-
-                        Double value = normalizedValidatedRatiosMap.get(key).get(experiment).get(ratio);
-
-                        if (value != null && !value.isNaN()) {
-
-                            double normalizedLogValue = FastMath.log10(value);
-                            ArrayList<Double> tempRatios = experimentRatiosList.get(ratio);
-
-                            if (tempRatios == null) {
-                                tempRatios = new ArrayList<Double>();
-                                experimentRatiosList.put(ratio, tempRatios);
-                            }
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                    }
 
-                            tempRatios.add(normalizedLogValue);
-                            experimentRatios.put(ratio, normalizedLogValue);
+                } finally {
 
-                        }
+                    for (RunReader runReader : queue) {
+                        runReader.close();
                     }
                 }
             }
 
-            HashMap<String, HashMap<String, NonSymmetricalNormalDistribution>> distributionsMap = new HashMap<String, HashMap<String, NonSymmetricalNormalDistribution>>();
+            ScoreStatistics scoreStatistics = new ScoreStatistics(scores, decoys, nProteins, fdrThreshold, fdrEstimator);
+            waitingHandler.appendReport(
+                    "Score threshold: " + scoreStatistics.getScoreThreshold()
+                    + ", # validated: " + scoreStatistics.getnValidated() + ".",
+                    true,
+                    true
+            );
 
-            for (String experiment : orderedExperiments) {
+            // write the merged report
+            try (DataInputStream mergedStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mergedFile)));
+                    MergedReportWriter writer = new MergedReportWriter(destinationFile)) {
 
-                distributionsMap.put(experiment, new HashMap<String, NonSymmetricalNormalDistribution>());
+                writer.writeHeader();
 
-                for (String ratio : ratios.get(experiment)) {
-                    ArrayList<Double> input = logNormalizedValidatedRatios.get(experiment).get(ratio);
-                    distributionsMap.get(experiment).put(ratio, NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistribution(input));
-                }
+                float[] ratios = new float[nRatios];
 
-            }
+                for (int i = 0; i < nProteins; i++) {
 
-            // Output results
-            outputFile = new File(path, "quanification_results.txt");
-            writer = new BufferedWriter(new FileWriter(outputFile));
+                    String key = readString(mergedStream);
+                    boolean decoy = mergedStream.readBoolean();
+                    int nPlexes = mergedStream.readInt();
+                    double score = mergedStream.readDouble();
 
-            // first header row
-            writer.write("Protein" + SEPARATOR + "Description" + SEPARATOR + "MW" + SEPARATOR + "Other Protein(s) (alphabetical order)"
-                    + SEPARATOR + "Complete Protein Group (alphabetical order)" + SEPARATOR + "Group Class" + SEPARATOR + "#Peptides");
+                    for (int j = 0; j < nRatios; j++) {
+                        ratios[j] = mergedStream.readFloat();
+                    }
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
+                    writer.writeRow(key, decoy, nPlexes, score, scoreStatistics, ratios);
+
+                }
             }
 
-            writer.write("#Spectra");
+        } finally {
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
+            IoUtil.deleteDir(runFolder);
 
-            writer.write("#Validated Peptides");
+        }
+    }
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
+    /**
+     * Reads a protein report and normalizes its ratios if needed. The name of
+     * the report and its channels are stored in the attributes.
+     *
+     * @param report the report file
+     *
+     * @return the content of the report
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private PlexTable readReport(
+            File report
+    ) throws IOException {
 
-            writer.write("#Validated Spectra");
+        plexNames.add(IoUtil.removeExtension(report.getName()));
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
-            }
+        try (BufferedReader br = new BufferedReader(new FileReader(report))) {
 
-            writer.write("Confidence");
+            String line = br.readLine();
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
+            if (line == null) {
+                throw new IllegalArgumentException("No header found in " + report + ".");
             }
 
-            writer.write("Validated in mix");
+            String[] split = line.split(SEPARATOR);
 
-            for (int i = 0; i < nFiles; i++) {
-                writer.write(SEPARATOR);
+            if (split.length <= ratioColumn) {
+                throw new IllegalArgumentException("No ratio column found in " + report + ".");
             }
 
-            writer.write("score" + SEPARATOR + "Overall Confidence" + SEPARATOR + "Validated" + SEPARATOR);
+            String[] channels = Arrays.copyOfRange(split, ratioColumn, split.length);
+            channelNames.add(channels);
 
-            for (String experiment : orderedExperiments) {
+            PlexTable plexTable = new PlexTable(channels.length);
+            int lineNumber = 1;
 
-                writer.write(experiment + " raw ratios");
+            while ((line = br.readLine()) != null && !line.equals("")) {
 
-                for (int i = 0; i < nRatios; i++) {
-                    writer.write(SEPARATOR);
-                }
+                lineNumber++;
+                split = line.split(SEPARATOR, -1);
 
-            }
+                try {
 
-            for (String experiment : orderedExperiments) {
+                    boolean decoy = split[decoyColumn].trim().equals("1");
+                    double pep = Double.parseDouble(split[pepColumn]);
+                    int row = plexTable.addRow(split[keyColumn], decoy, pep);
 
-                writer.write(experiment + " normalized ratios");
+                    for (int channel = 0; channel < channels.length; channel++) {
 
-                for (int i = 0; i < nRatios; i++) {
-                    writer.write(SEPARATOR);
-                }
+                        int column = ratioColumn + channel;
+                        String value = column < split.length ? split[column].trim() : "";
+                        plexTable.ratios[channel][row] = value.isEmpty() ? Float.NaN : Float.parseFloat(value);
 
-            }
+                    }
 
-            for (String experiment : orderedExperiments) {
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
 
-                writer.write(experiment + " p");
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + report + " could not be parsed.", e);
 
-                for (int i = 0; i < nRatios; i++) {
-                    writer.write(SEPARATOR);
                 }
+            }
 
+            if (normalize) {
+                plexTable.normalize();
             }
 
-            writer.newLine();
+            return plexTable;
+
+        }
+    }
 
-            // second header row
-            writer.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
+    /**
+     * Writes the rows of a report sorted by protein group to a run file.
+     *
+     * @param plexTable the content of the report
+     * @param runFile the run file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeRun(
+            PlexTable plexTable,
+            File runFile
+    ) throws IOException {
 
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
+        Integer[] order = new Integer[plexTable.nRows];
 
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
+        for (int row = 0; row < order.length; row++) {
+            order[row] = row;
+        }
 
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
+        String[] keys = plexTable.keys;
+        Arrays.sort(order, Comparator.comparing(row -> keys[row]));
 
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
+        try (DataOutputStream runStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)))) {
 
-            for (String experiment : orderedExperiments) {
-                writer.write(experiment + SEPARATOR);
-            }
+            String lastKey = null;
 
-            writer.write(SEPARATOR + SEPARATOR + SEPARATOR);
+            for (int row : order) {
 
-            for (String experiment : orderedExperiments) {
+                String key = keys[row];
 
-                for (String ratioName : ratios.get(experiment)) {
-                    writer.write(ratioName + SEPARATOR);
+                if (key.equals(lastKey)) {
+                    throw new IllegalArgumentException("Protein group " + key + " found twice in report " + plexNames.get(plexNames.size() - 1) + ".");
                 }
 
-            }
+                lastKey = key;
 
-            for (String experiment : orderedExperiments) {
+                writeString(runStream, key);
+                runStream.writeBoolean(plexTable.decoys.get(row));
+                runStream.writeDouble(plexTable.peps[row]);
 
-                for (String ratioName : ratios.get(experiment)) {
-                    writer.write(ratioName + SEPARATOR);
+                for (float[] channelRatios : plexTable.ratios) {
+                    runStream.writeFloat(channelRatios[row]);
                 }
-
             }
+        }
+    }
 
-            for (String experiment : orderedExperiments) {
+    /**
+     * Sets the offsets of the reports in the merged row.
+     */
+    private void setPlexOffsets() {
 
-                for (String ratioName : ratios.get(experiment)) {
-                    writer.write(ratioName + SEPARATOR);
-                }
+        plexOffsets = new int[channelNames.size()];
+        nRatios = 0;
 
-            }
+        for (int plex = 0; plex < channelNames.size(); plex++) {
 
-            writer.newLine();
+            plexOffsets[plex] = nRatios;
+            nRatios += channelNames.get(plex).length;
 
-            // print the protein details
-            for (String key : quantificationMatches) {
+        }
+    }
 
-                writer.write(keyToMainMatchMap.get(key) + SEPARATOR);
-                writer.write(descriptionMap.get(key) + SEPARATOR);
-                writer.write(mwMap.get(key) + SEPARATOR);
-                writer.write(keyToOtherMatchesMap.get(key) + SEPARATOR);
-                writer.write(key + SEPARATOR);
-                writer.write(groupClassMap.get(key) + SEPARATOR);
+    /**
+     * Loads the accessions of the proteins of the pathways.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     */
+    private void loadPathways() throws IOException {
 
-                for (String experiment : orderedExperiments) {
+        pathways.clear();
 
-                    Object value = peptidesMap.get(experiment).get(key);
+        for (File pathwayFile : pathwayFiles) {
 
-                    if (value != null) {
-                        writer.write(value.toString());
-                    }
+            HashSet<String> accessions = new HashSet<>();
 
-                    writer.write(SEPARATOR);
+            try (BufferedReader br = new BufferedReader(new FileReader(pathwayFile))) {
 
-                }
+                // skip the header
+                String line = br.readLine();
 
-                for (String experiment : orderedExperiments) {
+                while ((line = br.readLine()) != null) {
 
-                    Object value = spectraMap.get(experiment).get(key);
+                    String[] split = line.split(SEPARATOR);
 
-                    if (value != null) {
-                        writer.write(value.toString());
+                    if (split.length > 1) {
+                        accessions.add(split[1].trim());
                     }
-
-                    writer.write(SEPARATOR);
-
                 }
+            }
 
-                for (String experiment : orderedExperiments) {
-
-                    Object value = validatedPeptidesMap.get(experiment).get(key);
+            pathways.put(IoUtil.removeExtension(pathwayFile.getName()), accessions);
 
-                    if (value != null) {
-                        writer.write(value.toString());
-                    }
+        }
+    }
 
-                    writer.write(SEPARATOR);
-                }
+    /**
+     * Returns the ratios normalized by the median of the control channels of
+     * every report, NaN for the reports without control ratio.
+     *
+     * @param ratios the ratios in the merged row
+     * @param fallbackToAll boolean indicating whether the median of all
+     * channels should be used for the reports without control ratio
+     *
+     * @return the normalized ratios
+     */
+    private float[] getNormalizedRatios(
+            float[] ratios,
+            boolean fallbackToAll
+    ) {
 
-                for (String experiment : orderedExperiments) {
+        float[] result = new float[ratios.length];
+        Arrays.fill(result, Float.NaN);
 
-                    Object value = validatedSpectraMap.get(experiment).get(key);
+        for (int plex = 0; plex < plexNames.size(); plex++) {
 
-                    if (value != null) {
-                        writer.write(value.toString());
-                    }
+            String[] channels = channelNames.get(plex);
+            int offset = plexOffsets[plex];
+            float[] controlRatios = new float[channels.length];
+            float[] allRatios = new float[channels.length];
+            int nControls = 0, nAll = 0;
 
-                    writer.write(SEPARATOR);
+            for (int channel = 0; channel < channels.length; channel++) {
 
-                }
+                float ratio = ratios[offset + channel];
 
-                for (String experiment : orderedExperiments) {
+                if (!Float.isNaN(ratio)) {
 
-                    Double value = pepMap.get(experiment).get(key);
+                    allRatios[nAll++] = ratio;
 
-                    if (value != null) {
-                        value = 1 - value;
-                        writer.write(value.toString());
+                    if (isControl(channels[channel])) {
+                        controlRatios[nControls++] = ratio;
                     }
-
-                    writer.write(SEPARATOR);
-
                 }
+            }
 
-                for (String experiment : orderedExperiments) {
-
-                    String value = validatedMap.get(experiment).get(key);
-
-                    if (value != null) {
-                        writer.write(value);
-                    }
+            float normalizationRatio = nControls > 0 ? median(controlRatios, nControls)
+                    : fallbackToAll && nAll > 0 ? median(allRatios, nAll)
+                    : Float.NaN;
 
-                    writer.write(SEPARATOR);
+            if (normalizationRatio > 0) {
 
+                for (int channel = 0; channel < channels.length; channel++) {
+                    result[offset + channel] = ratios[offset + channel] / normalizationRatio;
                 }
+            }
+        }
 
-                double score = keyToScoreMap.get(key);
-                writer.write(score + SEPARATOR);
-                double pep = peps.get(score);
-                double confidence = 1 - pep;
-                writer.write(confidence + SEPARATOR);
-
-                if (score <= lastValidatedScore) {
-                    writer.write(1 + SEPARATOR);
-                } else {
-                    writer.write(0 + SEPARATOR);
-                }
+        return result;
 
-                // write the raw ratios
-                for (String experiment : orderedExperiments) {
+    }
 
-                    Integer nValidatedPeptides = validatedPeptidesMap.get(experiment).get(key);
+    /**
+     * Indicates whether the given channel is a control channel.
+     *
+     * @param channel the name of the channel
+     *
+     * @return a boolean indicating whether the given channel is a control
+     * channel
+     */
+    private boolean isControl(
+            String channel
+    ) {
 
-                    for (String ratio : ratios.get(experiment)) {
+        for (String controlChannel : controlChannels) {
 
-                        if (nValidatedPeptides != null && nValidatedPeptides > 1) {
+            if (channel.contains(controlChannel)) {
+                return true;
+            }
+        }
 
-                            Double value = ratiosMap.get(experiment).get(ratio).get(key);
+        return false;
 
-                            if (value != null && !value.isNaN()) {
-                                writer.write(value.toString());
-                            }
+    }
 
-                        }
+    /**
+     * Returns the median of the given number of values. Note that the array is
+     * sorted.
+     *
+     * @param values the values
+     * @param nValues the number of values to use in the array
+     *
+     * @return the median of the values
+     */
+    private static float median(
+            float[] values,
+            int nValues
+    ) {
 
-                        writer.write(SEPARATOR);
-                    }
+        Arrays.sort(values, 0, nValues);
 
-                }
+        return nValues % 2 == 1
+                ? values[nValues / 2]
+                : (values[nValues / 2 - 1] + values[nValues / 2]) / 2;
 
-                // write the normalized ratios
-                for (String experiment : orderedExperiments) {
+    }
 
-                    Integer nValidatedPeptides = validatedPeptidesMap.get(experiment).get(key);
+    /**
+     * Indicates whether one of the proteins of the given protein group belongs
+     * to the given pathway.
+     *
+     * @param key the protein group
+     * @param accessions the accessions of the proteins of the pathway
+     *
+     * @return a boolean indicating whether the protein group belongs to the
+     * pathway
+     */
+    private static boolean inPathway(
+            String key,
+            HashSet<String> accessions
+    ) {
 
-                    for (String ratio : ratios.get(experiment)) {
+        for (String accession : key.split(",")) {
 
-                        if (nValidatedPeptides != null && nValidatedPeptides > 1) {
+            if (accessions.contains(accession.trim())) {
+                return true;
+            }
+        }
 
-                            Double value = normalizedValidatedRatiosMap.get(key).get(experiment).get(ratio);
+        return false;
 
-                            if (value != null && !value.isNaN()) {
-                                writer.write(value.toString());
-                            }
+    }
 
-                        }
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.
+     *
+     * @param stream the stream to write to
+     * @param value the value to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static void writeString(
+            DataOutputStream stream,
+            String value
+    ) throws IOException {
 
-                        writer.write(SEPARATOR);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
 
-                    }
+    }
 
-                }
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param stream the stream to read from
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static String readString(
+            DataInputStream stream
+    ) throws IOException {
 
-                // write the p
-                for (String experiment : orderedExperiments) {
+        byte[] bytes = new byte[stream.readInt()];
+        stream.readFully(bytes);
 
-                    Integer nValidatedPeptides = validatedPeptidesMap.get(experiment).get(key);
+        return new String(bytes, StandardCharsets.UTF_8);
 
-                    for (String ratio : ratios.get(experiment)) {
+    }
 
-                        if (nValidatedPeptides != null && nValidatedPeptides > 1) {
+    /**
+     * Writer of the merged report and of the reports of the pathways.
+     */
+    private class MergedReportWriter implements Closeable {
+
+        /**
+         * The writer of the merged report.
+         */
+        private final BufferedWriter writer;
+        /**
+         * The writers of the pathway reports indexed by pathway name.
+         */
+        private final HashMap<String, BufferedWriter> pathwayWriters = new HashMap<>(pathways.size());
+
+        /**
+         * Constructor.
+         *
+         * @param destinationFile the file where to write the merged report
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * opening a file
+         */
+        private MergedReportWriter(
+                File destinationFile
+        ) throws IOException {
+
+            writer = new BufferedWriter(new FileWriter(destinationFile));
+
+            File folder = destinationFile.getAbsoluteFile().getParentFile();
+
+            for (String pathway : pathways.keySet()) {
+                pathwayWriters.put(pathway, new BufferedWriter(new FileWriter(new File(folder, pathway + "_quantification.txt"))));
+            }
+        }
 
-                            Double logValue = logNormalizedValidatedRatiosMap.get(key).get(experiment).get(ratio);
+        /**
+         * Writes the headers of the reports.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing a file
+         */
+        private void writeHeader() throws IOException {
 
-                            if (logValue != null && !logValue.isNaN()) {
+            writeHeader(writer, controlChannels.length > 0);
 
-                                Distribution distribution = distributionsMap.get(experiment).get(ratio);
-                                Double p = distribution.getProbabilityAt(logValue);
-                                writer.write(p.toString());
+            for (BufferedWriter pathwayWriter : pathwayWriters.values()) {
+                writeHeader(pathwayWriter, true);
+            }
+        }
 
-                            }
+        /**
+         * Writes the header of a report.
+         *
+         * @param writer the writer
+         * @param normalized boolean indicating whether the normalized ratios
+         * are written
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        private void writeHeader(
+                BufferedWriter writer,
+                boolean normalized
+        ) throws IOException {
+
+            writer.write("Protein Group" + SEPARATOR + "Decoy" + SEPARATOR + "#Reports" + SEPARATOR
+                    + "Score" + SEPARATOR + "PEP" + SEPARATOR + "FDR" + SEPARATOR + "Validated");
+
+            writeChannels(writer, "");
+
+            if (normalized) {
+                writeChannels(writer, " normalized");
+            }
 
-                            writer.write(SEPARATOR);
+            writer.newLine();
 
-                        }
-                    }
+        }
 
+        /**
+         * Writes the names of the ratio columns.
+         *
+         * @param writer the writer
+         * @param suffix the suffix to append to the name of the columns
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        private void writeChannels(
+                BufferedWriter writer,
+                String suffix
+        ) throws IOException {
+
+            for (int plex = 0; plex < plexNames.size(); plex++) {
+
+                String plexName = plexNames.get(plex);
+
+                for (String channel : channelNames.get(plex)) {
+                    writer.write(SEPARATOR + plexName + " " + channel + suffix);
                 }
-
-                writer.newLine();
             }
-            writer.close();
-
-            // output pathways
-            for (String pathway : normalizedPathwaysRatiosMap.keySet()) {
+        }
 
-                outputFile = new File(path, pathway + "_quantification.txt");
-                writer = new BufferedWriter(new FileWriter(outputFile));
+        /**
+         * Writes a protein group in the merged report, and in the reports of
+         * the pathways of its proteins if it is a target.
+         *
+         * @param key the protein group
+         * @param decoy boolean indicating whether the protein group is a decoy
+         * @param nPlexes the number of reports where the protein group was
+         * found
+         * @param score the combined score
+         * @param scoreStatistics the statistics on the combined scores
+         * @param ratios the ratios in the merged row
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing a file
+         */
+        private void writeRow(
+                String key,
+                boolean decoy,
+                int nPlexes,
+                double score,
+                ScoreStatistics scoreStatistics,
+                float[] ratios
+        ) throws IOException {
+
+            float[] normalizedRatios = controlChannels.length > 0 ? getNormalizedRatios(ratios, false) : null;
+            writeRow(writer, key, decoy, nPlexes, score, scoreStatistics, ratios, normalizedRatios);
+
+            if (!decoy) {
+
+                float[] pathwayRatios = null;
+
+                for (Entry<String, BufferedWriter> entry : pathwayWriters.entrySet()) {
+
+                    if (inPathway(key, pathways.get(entry.getKey()))) {
+
+                        if (pathwayRatios == null) {
+                            pathwayRatios = getNormalizedRatios(ratios, true);
+                        }
 
-                // first header row
-                writer.write("Protein" + SEPARATOR + "Description" + SEPARATOR + "MW" + SEPARATOR + "Other Protein(s) (alphabetical order)"
-                        + SEPARATOR + "Complete Protein Group (alphabetical order)" + SEPARATOR + "Group Class" + SEPARATOR + "#Peptides");
+                        writeRow(entry.getValue(), key, decoy, nPlexes, score, scoreStatistics, ratios, pathwayRatios);
 
-                for (int i = 0; i < nFiles; i++) {
-                    writer.write(SEPARATOR);
+                    }
                 }
+            }
+        }
 
-                writer.write("#Spectra");
-
-                for (int i = 0; i < nFiles; i++) {
-                    writer.write(SEPARATOR);
-                }
+        /**
+         * Writes a row of a report.
+         *
+         * @param writer the writer
+         * @param key the protein group
+         * @param decoy boolean indicating whether the protein group is a decoy
+         * @param nPlexes the number of reports where the protein group was
+         * found
+         * @param score the combined score
+         * @param scoreStatistics the statistics on the combined scores
+         * @param ratios the ratios in the merged row
+         * @param normalizedRatios the normalized ratios in the merged row, null
+         * if not written
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        private void writeRow(
+                BufferedWriter writer,
+                String key,
+                boolean decoy,
+                int nPlexes,
+                double score,
+                ScoreStatistics scoreStatistics,
+                float[] ratios,
+                float[] normalizedRatios
+        ) throws IOException {
+
+            int scoreIndex = scoreStatistics.getIndex(score);
+
+            writer.write(key);
+            writer.write(SEPARATOR);
+            writer.write(decoy ? "1" : "0");
+            writer.write(SEPARATOR);
+            writer.write(Integer.toString(nPlexes));
+            writer.write(SEPARATOR);
+            writer.write(Double.toString(score));
+            writer.write(SEPARATOR);
+            writer.write(Double.toString(scoreStatistics.getPep(scoreIndex)));
+            writer.write(SEPARATOR);
+            writer.write(Double.toString(scoreStatistics.getFdr(scoreIndex)));
+            writer.write(SEPARATOR);
+            writer.write(!decoy && score <= scoreStatistics.getScoreThreshold() ? "1" : "0");
 
-                writer.write("#Validated Peptides");
+            writeRatios(writer, ratios);
 
-                for (int i = 0; i < nFiles; i++) {
-                    writer.write(SEPARATOR);
-                }
+            if (normalizedRatios != null) {
+                writeRatios(writer, normalizedRatios);
+            }
 
-                writer.write("#Validated Spectra");
-                for (int i = 0; i < nFiles; i++) {
-                    writer.write(SEPARATOR);
-                }
+            writer.newLine();
 
-                writer.write("Confidence");
+        }
 
-                for (int i = 0; i < nFiles; i++) {
-                    writer.write(SEPARATOR);
-                }
+        /**
+         * Writes ratios, NaN are written as empty cells.
+         *
+         * @param writer the writer
+         * @param ratios the ratios
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        private void writeRatios(
+                BufferedWriter writer,
+                float[] ratios
+        ) throws IOException {
+
+            for (float ratio : ratios) {
 
-                writer.write("Validated in mix");
+                writer.write(SEPARATOR);
 
-                for (int i = 0; i < nFiles; i++) {
-                    writer.write(SEPARATOR);
+                if (!Float.isNaN(ratio)) {
+                    writer.write(Float.toString(ratio));
                 }
+            }
+        }
 
-                writer.write("score" + SEPARATOR + "Overall Confidence" + SEPARATOR + "Validated" + SEPARATOR);
+        @Override
+        public void close() throws IOException {
 
-                for (String experiment : orderedExperiments) {
+            writer.close();
 
-                    writer.write(experiment + " raw ratios");
+            for (BufferedWriter pathwayWriter : pathwayWriters.values()) {
+                pathwayWriter.close();
+            }
+        }
+    }
 
-                    for (int i = 0; i < nRatios; i++) {
-                        writer.write(SEPARATOR);
-                    }
+    /**
+     * The content of a report stored in primitive columns.
+     */
+    private static class PlexTable {
+
+        /**
+         * The protein groups.
+         */
+        private String[] keys = new String[1024];
+        /**
+         * The decoy flags.
+         */
+        private final BitSet decoys = new BitSet();
+        /**
+         * The PEPs.
+         */
+        private double[] peps = new double[1024];
+        /**
+         * The ratios indexed by channel and row.
+         */
+        private final float[][] ratios;
+        /**
+         * The number of rows.
+         */
+        private int nRows = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param nChannels the number of ratio channels
+         */
+        private PlexTable(
+                int nChannels
+        ) {
+
+            ratios = new float[nChannels][1024];
+
+        }
 
+        /**
+         * Adds a row and returns its index. The ratios are to be set by the
+         * caller.
+         *
+         * @param key the protein group
+         * @param decoy the decoy flag
+         * @param pep the PEP
+         *
+         * @return the index of the row
+         */
+        private int addRow(
+                String key,
+                boolean decoy,
+                double pep
+        ) {
+
+            if (nRows == keys.length) {
+
+                int capacity = 2 * nRows;
+                keys = Arrays.copyOf(keys, capacity);
+                peps = Arrays.copyOf(peps, capacity);
+
+                for (int channel = 0; channel < ratios.length; channel++) {
+                    ratios[channel] = Arrays.copyOf(ratios[channel], capacity);
                 }
+            }
 
-                for (String experiment : orderedExperiments) {
+            keys[nRows] = key;
+            peps[nRows] = pep;
 
-                    writer.write(experiment + " normalized ratios");
+            if (decoy) {
+                decoys.set(nRows);
+            }
 
-                    for (int i = 0; i < nRatios; i++) {
-                        writer.write(SEPARATOR);
-                    }
+            return nRows++;
 
-                }
+        }
 
-                writer.newLine();
+        /**
+         * Normalizes the ratios of every channel by the median of the target
+         * proteins.
+         */
+        private void normalize() {
 
-                // second header row
-                writer.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
+            float[] values = new float[nRows];
 
-                for (String experiment : orderedExperiments) {
-                    writer.write(experiment + SEPARATOR);
-                }
+            for (float[] channelRatios : ratios) {
 
-                for (String experiment : orderedExperiments) {
-                    writer.write(experiment + SEPARATOR);
-                }
+                int nValues = 0;
 
-                for (String experiment : orderedExperiments) {
-                    writer.write(experiment + SEPARATOR);
-                }
+                for (int row = 0; row < nRows; row++) {
 
-                for (String experiment : orderedExperiments) {
-                    writer.write(experiment + SEPARATOR);
-                }
+                    float ratio = channelRatios[row];
 
-                for (String experiment : orderedExperiments) {
-                    writer.write(experiment + SEPARATOR);
+                    if (!decoys.get(row) && !Float.isNaN(ratio) && !Float.isInfinite(ratio)) {
+                        values[nValues++] = ratio;
+                    }
                 }
 
-                for (String experiment : orderedExperiments) {
-                    writer.write(experiment + SEPARATOR);
-                }
+                if (nValues > 0) {
 
-                writer.write(SEPARATOR + SEPARATOR + SEPARATOR);
+                    Arrays.sort(values, 0, nValues);
+                    float median = nValues % 2 == 1
+                            ? values[nValues / 2]
+                            : (values[nValues / 2 - 1] + values[nValues / 2]) / 2;
 
-                for (String experiment : orderedExperiments) {
+                    if (median > 0) {
 
-                    for (String ratioName : ratios.get(experiment)) {
-                        writer.write(ratioName + SEPARATOR);
+                        for (int row = 0; row < nRows; row++) {
+                            channelRatios[row] /= median;
+                        }
                     }
-
                 }
+            }
+        }
+    }
 
-                for (String experiment : orderedExperiments) {
+    /**
+     * Reader for a run file.
+     */
+    private static class RunReader implements Closeable {
+
+        /**
+         * The stream.
+         */
+        private final DataInputStream stream;
+        /**
+         * The index of the report.
+         */
+        private final int plex;
+        /**
+         * The protein group of the current row.
+         */
+        private String key;
+        /**
+         * The decoy flag of the current row.
+         */
+        private boolean decoy;
+        /**
+         * The PEP of the current row.
+         */
+        private double pep;
+        /**
+         * The ratios of the current row.
+         */
+        private final float[] ratios;
+
+        /**
+         * Constructor.
+         *
+         * @param runFile the run file
+         * @param plex the index of the report
+         * @param nChannels the number of ratio channels
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * opening the file
+         */
+        private RunReader(
+                File runFile,
+                int plex,
+                int nChannels
+        ) throws IOException {
+
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+            this.plex = plex;
+            ratios = new float[nChannels];
 
-                    for (String ratioName : ratios.get(experiment)) {
-                        writer.write(ratioName + SEPARATOR);
-                    }
+        }
 
-                }
+        /**
+         * Reads the next row.
+         *
+         * @return a boolean indicating whether a row was read
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the file
+         */
+        private boolean next() throws IOException {
 
-                writer.newLine();
+            try {
 
-                // print the protein details
-                for (String key : normalizedPathwaysRatiosMap.get(pathway).keySet()) {
+                key = readString(stream);
 
-                    writer.write(keyToMainMatchMap.get(key) + SEPARATOR);
-                    writer.write(descriptionMap.get(key) + SEPARATOR);
-                    writer.write(mwMap.get(key) + SEPARATOR);
-                    writer.write(keyToOtherMatchesMap.get(key) + SEPARATOR);
-                    writer.write(key + SEPARATOR);
-                    writer.write(groupClassMap.get(key) + SEPARATOR);
+            } catch (EOFException e) {
 
-                    for (String experiment : orderedExperiments) {
+                return false;
 
-                        Object value = peptidesMap.get(experiment).get(key);
+            }
 
-                        if (value != null) {
-                            writer.write(value.toString());
-                        }
+            decoy = stream.readBoolean();
+            pep = stream.readDouble();
 
-                        writer.write(SEPARATOR);
+            for (int channel = 0; channel < ratios.length; channel++) {
+                ratios[channel] = stream.readFloat();
+            }
 
-                    }
+            return true;
 
-                    for (String experiment : orderedExperiments) {
+        }
 
-                        Object value = spectraMap.get(experiment).get(key);
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
 
-                        if (value != null) {
-                            writer.write(value.toString());
-                        }
+    /**
+     * Estimation of the PEP and FDR of the combined scores. The scores are
+     * sorted in primitive arrays, the lower the score the better. The PEP is
+     * estimated on a window of scores around every score. The FDR is
+     * estimated either from the sums of the PEP windows, or from the
+     * cumulative target and decoy counts, see MergeFdrEstimator.
+     */
+    private static class ScoreStatistics {
+
+        /**
+         * The distinct scores in ascending order.
+         */
+        private final double[] distinctScores;
+        /**
+         * The PEP at every distinct score.
+         */
+        private final double[] peps;
+        /**
+         * The FDR at every distinct score.
+         */
+        private final double[] fdrs;
+        /**
+         * The score threshold.
+         */
+        private double scoreThreshold = 0.0;
+        /**
+         * The number of validated target proteins.
+         */
+        private int nValidated = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param scores the scores of the proteins
+         * @param decoys the decoy flags of the proteins
+         * @param nProteins the number of proteins
+         * @param fdrThreshold the FDR threshold
+         * @param fdrEstimator the estimator of the FDR
+         */
+        private ScoreStatistics(
+                double[] scores,
+                BitSet decoys,
+                int nProteins,
+                double fdrThreshold,
+                MergeFdrEstimator fdrEstimator
+        ) {
+
+            // sort target and decoy scores separately
+            int nDecoys = decoys.cardinality();
+            double[] targetScores = new double[nProteins - nDecoys];
+            double[] decoyScores = new double[nDecoys];
+            int targetIndex = 0, decoyIndex = 0;
+
+            for (int i = 0; i < nProteins; i++) {
+
+                if (decoys.get(i)) {
+                    decoyScores[decoyIndex++] = scores[i];
+                } else {
+                    targetScores[targetIndex++] = scores[i];
+                }
+            }
 
-                        writer.write(SEPARATOR);
+            Arrays.sort(targetScores);
+            Arrays.sort(decoyScores);
 
-                    }
+            // count targets and decoys per distinct score
+            double[] tempScores = new double[nProteins];
+            int[] nTarget = new int[nProteins];
+            int[] nDecoy = new int[nProteins];
+            int nScores = 0;
+            targetIndex = 0;
+            decoyIndex = 0;
 
-                    for (String experiment : orderedExperiments) {
+            while (targetIndex < targetScores.length || decoyIndex < decoyScores.length) {
 
-                        Object value = validatedPeptidesMap.get(experiment).get(key);
+                double score = targetIndex == targetScores.length ? decoyScores[decoyIndex]
+                        : decoyIndex == decoyScores.length ? targetScores[targetIndex]
+                        : Math.min(targetScores[targetIndex], decoyScores[decoyIndex]);
 
-                        if (value != null) {
-                            writer.write(value.toString());
-                        }
+                tempScores[nScores] = score;
+
+                while (targetIndex < targetScores.length && targetScores[targetIndex] == score) {
+                    nTarget[nScores]++;
+                    targetIndex++;
+                }
 
-                        writer.write(SEPARATOR);
+                while (decoyIndex < decoyScores.length && decoyScores[decoyIndex] == score) {
+                    nDecoy[nScores]++;
+                    decoyIndex++;
+                }
 
-                    }
+                nScores++;
 
-                    for (String experiment : orderedExperiments) {
+            }
 
-                        Object value = validatedSpectraMap.get(experiment).get(key);
+            distinctScores = Arrays.copyOf(tempScores, nScores);
+            peps = new double[nScores];
+            fdrs = new double[nScores];
 
-                        if (value != null) {
+            // the largest number of targets between two decoys
+            int nMax = 0, cpt = -1;
 
-                            writer.write(value.toString());
-                        }
+            for (int i = 0; i < nScores; i++) {
 
-                        writer.write(SEPARATOR);
+                if (nDecoy[i] > 0) {
 
+                    if (cpt > nMax) {
+                        nMax = cpt;
                     }
 
-                    for (String experiment : orderedExperiments) {
-
-                        Double value = pepMap.get(experiment).get(key);
+                    if (cpt == -1) {
+                        cpt = 0;
+                    }
+                }
 
-                        if (value != null) {
-                            value = 1 - value;
-                            writer.write(value.toString());
-                        }
+                if (cpt != -1) {
+                    cpt += nTarget[i];
+                }
+            }
 
-                        writer.write(SEPARATOR);
+            // cumulative counts
+            long[] targetSums = new long[nScores + 1];
+            long[] decoySums = new long[nScores + 1];
 
-                    }
+            for (int i = 0; i < nScores; i++) {
+                targetSums[i + 1] = targetSums[i] + nTarget[i];
+                decoySums[i + 1] = decoySums[i] + nDecoy[i];
+            }
 
-                    for (String experiment : orderedExperiments) {
+            double windowTargets = 0, windowDecoys = 0;
 
-                        String value = validatedMap.get(experiment).get(key);
-                        if (value != null) {
+            for (int i = 0; i < nScores; i++) {
 
-                            writer.write(value);
-                        }
+                // PEP estimated on a window around the score containing at least half of the targets between two decoys
+                double limit = ((double) (nMax - nTarget[i])) / 2;
+                int lowIndex = i;
 
-                        writer.write(SEPARATOR);
+                if (nTarget[i] < limit) {
+                    lowIndex = Math.max(0, lastIndexAtMost(targetSums, 0, i, targetSums[i + 1] - limit));
+                }
 
-                    }
+                int highIndex = i;
 
-                    double score = keyToScoreMap.get(key);
-                    writer.write(score + SEPARATOR);
-                    double pep = peps.get(score);
-                    double confidence = 1 - pep;
-                    writer.write(confidence + SEPARATOR);
+                if (targetSums[i + 1] - targetSums[lowIndex] < limit) {
+                    highIndex = Math.min(nScores - 1, firstIndexAtLeast(targetSums, i + 2, nScores, targetSums[lowIndex] + limit) - 1);
+                }
 
-                    if (score <= lastValidatedScore) {
-                        writer.write(1 + SEPARATOR);
-                    } else {
-                        writer.write(0 + SEPARATOR);
-                    }
+                double nt = targetSums[highIndex + 1] - targetSums[lowIndex];
+                double nd = decoySums[highIndex + 1] - decoySums[lowIndex];
+                peps[i] = nt > 0 ? nd / nt : 1.0;
 
-                    // write the raw ratios
-                    for (String experiment : orderedExperiments) {
+                double totalTarget = targetSums[i + 1];
 
-                        for (String ratio : ratios.get(experiment)) {
+                switch (fdrEstimator) {
 
-                            Double value = ratiosMap.get(experiment).get(ratio).get(key);
+                    case pepWindows:
 
-                            if (value != null && !value.isNaN()) {
-                                writer.write(value.toString());
-                            }
+                        windowTargets += nt;
+                        windowDecoys += nd;
+                        fdrs[i] = windowTargets > 0 ? windowDecoys / windowTargets : 1.0;
+                        break;
 
-                            writer.write(SEPARATOR);
+                    case targetDecoy:
 
-                        }
+                        fdrs[i] = totalTarget > 0 ? decoySums[i + 1] / totalTarget : 1.0;
+                        break;
 
-                    }
+                    default:
+                        throw new UnsupportedOperationException("FDR estimator " + fdrEstimator.name + " not implemented.");
+                }
 
-                    // write the normalized ratios
-                    for (String experiment : orderedExperiments) {
+                if (fdrs[i] <= fdrThreshold) {
+                    scoreThreshold = distinctScores[i];
+                    nValidated = (int) totalTarget;
+                }
+            }
+        }
 
-                        for (String ratio : ratios.get(experiment)) {
+        /**
+         * Returns the largest index in the given range where the value is
+         * lower than or equal to the given value, -1 if none.
+         *
+         * @param values the values in ascending order
+         * @param from the first index of the range, inclusive
+         * @param to the last index of the range, exclusive
+         * @param value the value
+         *
+         * @return the largest index where the value is lower than or equal to
+         * the given value
+         */
+        private static int lastIndexAtMost(
+                long[] values,
+                int from,
+                int to,
+                double value
+        ) {
+
+            int low = from, high = to;
+
+            while (low < high) {
+
+                int middle = (low + high) >>> 1;
+
+                if (values[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
 
-                            if (normalizedPathwaysRatiosMap.get(pathway).get(key).get(experiment) != null) {
+            return low - 1;
 
-                                Double value = normalizedPathwaysRatiosMap.get(pathway).get(key).get(experiment).get(ratio);
+        }
 
-                                if (value != null && !value.isNaN()) {
-                                    writer.write(value.toString());
-                                }
+        /**
+         * Returns the smallest index in the given range where the value is
+         * greater than or equal to the given value, the end of the range if
+         * none.
+         *
+         * @param values the values in ascending order
+         * @param from the first index of the range, inclusive
+         * @param to the last index of the range, inclusive
+         * @param value the value
+         *
+         * @return the smallest index where the value is greater than or equal
+         * to the given value
+         */
+        private static int firstIndexAtLeast(
+                long[] values,
+                int from,
+                int to,
+                double value
+        ) {
+
+            int low = from, high = to + 1;
+
+            while (low < high) {
+
+                int middle = (low + high) >>> 1;
+
+                if (values[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
 
-                            }
+            return Math.min(low, to + 1);
 
-                            writer.write(SEPARATOR);
-                        }
+        }
 
-                    }
+        /**
+         * Returns the index of the given score.
+         *
+         * @param score the score
+         *
+         * @return the index of the given score
+         */
+        private int getIndex(
+                double score
+        ) {
+            return Arrays.binarySearch(distinctScores, score);
+        }
 
-                    writer.newLine();
-                }
+        /**
+         * Returns the PEP at the given score index.
+         *
+         * @param index the score index
+         *
+         * @return the PEP
+         */
+        private double getPep(
+                int index
+        ) {
+            return peps[index];
+        }
 
-                writer.close();
+        /**
+         * Returns the FDR at the given score index.
+         *
+         * @param index the score index
+         *
+         * @return the FDR
+         */
+        private double getFdr(
+                int index
+        ) {
+            return fdrs[index];
+        }
 
-            }
+        /**
+         * Returns the score threshold.
+         *
+         * @return the score threshold
+         */
+        private double getScoreThreshold() {
+            return scoreThreshold;
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        /**
+         * Returns the number of validated target proteins.
+         *
+         * @return the number of validated target proteins
+         */
+        private int getnValidated() {
+            return nValidated;
         }
     }
 }
@@ -1,205 +1,761 @@
 package eu.isas.reporter.utils;
 
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 /**
- * Merging of MS2 and MS3 data from Fusion instruments to merge the reporters
- * from HCD MS3 with the identification from CID MS2. Work in progress...
+ * Merging of MS2 and MS3 data from synchronous precursor selection (SPS)
+ * acquisitions: the reporter ions of the HCD MS3 spectra are spliced into the
+ * CID MS2 spectra used for identification. The mzML file is streamed once,
+ * the binary arrays are decoded in parallel, the MS2 spectra waiting for their
+ * MS3 are kept in a bounded buffer, and the merged spectra are written to an
+ * mgf file as they are completed.
  *
  * @author Harald Barsnes
+ * @author Marc Vaudel
  */
 public class SpectrumMerger {
 
-//    private double upperReporterRange = 135;
-//    private File mzmlFileFolder = new File("C:\\Users\\hba041\\Desktop\\heidrun\\data\\mzml");
-//    private File mgfFileFolder = new File("C:\\Users\\hba041\\Desktop\\heidrun\\data\\mgf");
-//
-//    /**
-//     * Main method for testing purposes.
-//     * 
-//     * @param args the command line arguments
-//     */
-//    public static void main(String[] args) {
-//        SpectrumMerger spectrumMerge = new SpectrumMerger();
-//        spectrumMerge.mergeData();
-//        System.exit(0);
-//    }
-//    
-//    /**
-//     * Merge the MS2 and MS3 for all mzML files in the mzML folder.
-//     */
-//    private void mergeData() {
-//        for (File tempMzmlFile : mzmlFileFolder.listFiles()) {
-//            mergeData(tempMzmlFile);
-//            System.out.println();
-//        }
-//    }
-//
-//    /**
-//     * Merge the MS2 and MS3 for the given mzML file.
-//     * 
-//     * @param mzMlFile the mzML file
-//     */
-//    private void mergeData(File mzMlFile) {
-//
-//        String mzmlFileName = mzMlFile.getName();
-//        String mgfFileName = mzmlFileName.substring(0, mzmlFileName.length() - 5) + ".mgf";
-//        File mgfFile = new File(mgfFileFolder, mgfFileName);
-//        
-//        System.out.println("Processing: " + mzMlFile.getAbsolutePath());
-//        
-//        try {
-//            FileWriter f = new FileWriter(mgfFile);
-//            BufferedWriter bw = new BufferedWriter(f);
-//
-//            MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(mzMlFile);
-//            Set<String> spectrumIds = unmarshaller.getSpectrumIDs();
-//            //System.out.println("#spectra: " + spectrumIds.size());
-//
-//            ArrayList<String> ms2Spectra = new ArrayList<String>();
-//
-//            for (String tempId : spectrumIds) {
-//
-//                Spectrum currentSpectrum = unmarshaller.getSpectrumById(tempId);
-//
-//                int msLevel = -1;
-//                List<CVParam> specParams = currentSpectrum.getCvParam();
-//
-//                for (Iterator lCVParamIterator = specParams.iterator(); lCVParamIterator.hasNext() && msLevel == -1;) {
-//                    CVParam lCVParam = (CVParam) lCVParamIterator.next();
-//                    if (lCVParam.getAccession().equals("MS:1000511")) {
-//                        msLevel = Integer.parseInt(lCVParam.getValue().trim());
-//                    }
-//                }
-//
-//                if (msLevel == 3) {
-//                    Precursor tempMs3Precursor = currentSpectrum.getPrecursorList().getPrecursor().get(0);
-//                    String precursorSpectrumRef = tempMs3Precursor.getSpectrumRef();
-//                    Spectrum ms2Spectrum = unmarshaller.getSpectrumById(precursorSpectrumRef);
-//
-//                    if (ms2Spectrum != null) {
-//
-//                        if (ms2Spectra.contains(precursorSpectrumRef)) { // @TODO: how to handle multiple MS3 for the same MS2..?
-//                            System.out.println(precursorSpectrumRef);
-//                        } else {
-//                            ms2Spectra.add(precursorSpectrumRef);
-//                        }
-//
-//                        // get the ms2 precuror details
-//                        double precursorMz = 0.0;
-//                        int precursorCharge = 0;
-//                        double precursorIntensity = 0.0;
-//                        Precursor tempMs2Precursor = ms2Spectrum.getPrecursorList().getPrecursor().get(0);
-//                        SelectedIonList sIonList = tempMs2Precursor.getSelectedIonList();
-//
-//                        List<CVParam> cvParams = sIonList.getSelectedIon().get(0).getCvParam();
-//
-//                        for (Object cvParam : cvParams) {
-//                            CVParam lCVParam = (CVParam) cvParam;
-//                            if (lCVParam.getAccession().equals("MS:1000744")) {
-//                                precursorMz = Double.parseDouble(lCVParam.getValue().trim());
-//                            } else if (lCVParam.getAccession().equals("MS:1000041")) {
-//                                precursorCharge = Integer.parseInt(lCVParam.getValue());
-//                            } else if (lCVParam.getAccession().equals("MS:1000042")) {
-//                                precursorIntensity = Double.parseDouble(lCVParam.getValue()); // @TODO: extract retention time..?
-//                            }
-//                        }
-//
-//                        // get the ms2 data and remove peaks in the reporter range
-//                        List<BinaryDataArray> bdal = ms2Spectrum.getBinaryDataArrayList().getBinaryDataArray();
-//                        BinaryDataArray mzBinaryDataArray = (BinaryDataArray) bdal.get(0);
-//                        if (mzBinaryDataArray.getEncodedLength() == 0) {
-//                            throw new Exception("mzBinaryDataArray empty!");
-//                        }
-//
-//                        Number[] mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
-//                        if (mzNumbers.length < 1) {
-//                            throw new Exception("mzBinaryDataArray empty!");
-//                        }
-//
-//                        BinaryDataArray intBinaryDataArray = (BinaryDataArray) bdal.get(1);
-//                        Number[] intNumbers = intBinaryDataArray.getBinaryDataAsNumberArray();
-//
-//                        ArrayList<Double> ms2MzValues = new ArrayList<Double>();
-//                        ArrayList<Double> ms2IntensityValues = new ArrayList<Double>();
-//                        double ms2MaxIntensity = 0.0;
-//
-//                        for (int i = 0; i < mzNumbers.length; i++) {
-//                            if (mzNumbers[i].doubleValue() >= upperReporterRange) {
-//                                ms2MzValues.add(mzNumbers[i].doubleValue());
-//                                ms2IntensityValues.add(intNumbers[i].doubleValue());
-//                            }
-//
-//                            if (intNumbers[i].doubleValue() > ms2MaxIntensity) {
-//                                ms2MaxIntensity = intNumbers[i].doubleValue();
-//                            }
-//                        }
-//
-//                        // get the ms3 data and find the peaks in the reporter range
-//                        Spectrum ms3Spectrum = currentSpectrum;
-//                        bdal = ms3Spectrum.getBinaryDataArrayList().getBinaryDataArray();
-//                        mzBinaryDataArray = (BinaryDataArray) bdal.get(0);
-//                        if (mzBinaryDataArray.getEncodedLength() == 0) {
-//                            throw new Exception("mzBinaryDataArray empty!");
-//                        }
-//
-//                        mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
-//                        if (mzNumbers.length < 1) {
-//                            throw new Exception("mzBinaryDataArray empty!");
-//                        }
-//
-//                        intBinaryDataArray = (BinaryDataArray) bdal.get(1);
-//                        intNumbers = intBinaryDataArray.getBinaryDataAsNumberArray();
-//
-//                        double ms3MaxIntensity = 0.0;
-//                        ArrayList<Double> ms3MzValues = new ArrayList<Double>();
-//                        ArrayList<Double> ms3IntensityValues = new ArrayList<Double>();
-//
-//                        for (int i = 0; i < mzNumbers.length; i++) {
-//                            if (mzNumbers[i].doubleValue() < upperReporterRange) {
-//                                ms3MzValues.add(mzNumbers[i].doubleValue());
-//                                ms3IntensityValues.add(intNumbers[i].doubleValue());
-//
-//                                if (intNumbers[i].doubleValue() > ms3MaxIntensity) {
-//                                    ms3MaxIntensity = intNumbers[i].doubleValue();
-//                                }
-//                            }
-//                        }
-//
-//                        // normalize the ms3 intensities relative to the average ms2 intensity
-//                        double normalizationFactor = (ms2MaxIntensity / ms3MaxIntensity) / 2; // @TODO: verify the normalization
-//                        ArrayList< Double> ms3IntensityValuesNormalized = new ArrayList<Double>();
-//                        for (Double tempIntensityValue : ms3IntensityValues) {
-//                            ms3IntensityValuesNormalized.add(tempIntensityValue * normalizationFactor);
-//                        }
-//
-//                        // create the new mgf spectrum
-//                        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>();
-//                        for (int i = 0; i < ms3MzValues.size(); i++) {
-//                            peakMap.put(ms3MzValues.get(i), new Peak(ms3MzValues.get(i), ms3IntensityValuesNormalized.get(i)));
-//                        }
-//                        for (int i = 0; i < ms2MzValues.size(); i++) {
-//                            peakMap.put(ms2MzValues.get(i), new Peak(ms2MzValues.get(i), ms2IntensityValues.get(i)));
-//                        }
-//
-//                        ArrayList<Integer> possibleCharges = new ArrayList<>();
-//                        possibleCharges.add(precursorCharge);
-//                        com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum mgfSpectrum = new com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum(2,
-//                                new com.compomics.util.experiment.mass_spectrometry.spectra.Precursor(-1, precursorMz, precursorIntensity, possibleCharges),
-//                                precursorSpectrumRef + " (MS2) and " + tempId + " (MS3)", peakMap, mgfFileName);
-//
-//                        bw.write(mgfSpectrum.asMgf());
-//                    } else {
-//                        throw new Exception(precursorSpectrumRef + " not found!");
-//                    }
-//                }
-//            }
-//
-//            bw.close();
-//            f.close();
-//            
-//            System.out.println("Created: " + mgfFile.getAbsolutePath());
-//
-//        } catch (Exception e) {
-//            e.printStackTrace();
-//        }
-//    }
+    /**
+     * The default upper bound of the reporter ion m/z range.
+     */
+    public static final double DEFAULT_UPPER_REPORTER_RANGE = 135;
+    /**
+     * The default maximal number of MS2 spectra waiting for their MS3.
+     */
+    public static final int DEFAULT_MAX_PENDING_MS2 = 10000;
+    /**
+     * The number of spectra being decoded per thread.
+     */
+    private static final int DECODING_WINDOW_PER_THREAD = 4;
+    /**
+     * Accession of the MS level.
+     */
+    private static final String MS_LEVEL = "MS:1000511";
+    /**
+     * Accession of the scan start time.
+     */
+    private static final String SCAN_START_TIME = "MS:1000016";
+    /**
+     * Accession of the selected ion m/z.
+     */
+    private static final String SELECTED_ION_MZ = "MS:1000744";
+    /**
+     * Accession of the charge state.
+     */
+    private static final String CHARGE_STATE = "MS:1000041";
+    /**
+     * Accession of the peak intensity.
+     */
+    private static final String PEAK_INTENSITY = "MS:1000042";
+    /**
+     * Accession of the 32-bit float encoding.
+     */
+    private static final String FLOAT_32 = "MS:1000521";
+    /**
+     * Accession of the 64-bit float encoding.
+     */
+    private static final String FLOAT_64 = "MS:1000523";
+    /**
+     * Accession of the zlib compression.
+     */
+    private static final String ZLIB_COMPRESSION = "MS:1000574";
+    /**
+     * Accession of the m/z array.
+     */
+    private static final String MZ_ARRAY = "MS:1000514";
+    /**
+     * Accession of the intensity array.
+     */
+    private static final String INTENSITY_ARRAY = "MS:1000515";
+    /**
+     * Accession of the minute unit.
+     */
+    private static final String UNIT_MINUTE = "UO:0000031";
+    /**
+     * The upper bound of the reporter ion m/z range: peaks below are taken
+     * from the MS3, peaks above from the MS2.
+     */
+    private final double upperReporterRange;
+    /**
+     * The maximal number of MS2 spectra waiting for their MS3.
+     */
+    private final int maxPendingMs2;
+    /**
+     * The number of threads to use for decoding.
+     */
+    private final int nThreads;
+    /**
+     * The number of merged spectra written by the last merge.
+     */
+    private int nMerged = 0;
+    /**
+     * The number of MS3 spectra of the last merge for which the MS2 was not
+     * found.
+     */
+    private int nMissingMs2 = 0;
+
+    /**
+     * Constructor using the default settings.
+     */
+    public SpectrumMerger() {
+        this(DEFAULT_UPPER_REPORTER_RANGE, DEFAULT_MAX_PENDING_MS2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param upperReporterRange the upper bound of the reporter ion m/z range
+     * @param maxPendingMs2 the maximal number of MS2 spectra waiting for their
+     * MS3
+     * @param nThreads the number of threads to use for decoding
+     */
+    public SpectrumMerger(
+            double upperReporterRange,
+            int maxPendingMs2,
+            int nThreads
+    ) {
+        this.upperReporterRange = upperReporterRange;
+        this.maxPendingMs2 = maxPendingMs2;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Merges the MS2 and MS3 spectra of the given mzML file and writes the
+     * merged spectra to the given mgf file.
+     *
+     * @param mzmlFile the mzML file
+     * @param mgfFile the mgf file
+     * @param waitingHandler the waiting handler
+     *
+     * @return the number of merged spectra
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws XMLStreamException exception thrown whenever an error occurred
+     * while parsing the mzML file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws ExecutionException exception thrown whenever an error occurred
+     * while decoding a spectrum
+     */
+    public int merge(
+            File mzmlFile,
+            File mgfFile,
+            WaitingHandler waitingHandler
+    ) throws IOException, XMLStreamException, InterruptedException, ExecutionException {
+
+        nMerged = 0;
+        nMissingMs2 = 0;
+
+        // MS2 spectra waiting for their MS3, the oldest are dropped when the buffer is full
+        LinkedHashMap<String, DecodedSpectrum> pendingMs2 = new LinkedHashMap<String, DecodedSpectrum>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DecodedSpectrum> eldest) {
+                return size() > maxPendingMs2;
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayDeque<Future<DecodedSpectrum>> decoding = new ArrayDeque<>();
+        int decodingWindow = DECODING_WINDOW_PER_THREAD * nThreads;
+
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(mzmlFile));
+                BufferedWriter writer = new BufferedWriter(new FileWriter(mgfFile))) {
+
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+
+            try {
+
+                while (reader.hasNext()) {
+
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && reader.getLocalName().equals("spectrum")) {
+
+                        EncodedSpectrum encodedSpectrum = readSpectrum(reader);
+
+                        if (encodedSpectrum.msLevel == 2 || encodedSpectrum.msLevel == 3) {
+
+                            decoding.add(pool.submit(() -> encodedSpectrum.decode(upperReporterRange)));
+
+                            while (decoding.size() >= decodingWindow) {
+                                processSpectrum(decoding.poll().get(), pendingMs2, writer);
+                            }
+                        }
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return nMerged;
+                        }
+                    }
+                }
+
+                while (!decoding.isEmpty()) {
+                    processSpectrum(decoding.poll().get(), pendingMs2, writer);
+                }
+
+            } finally {
+
+                reader.close();
+
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        }
+
+        if (nMissingMs2 > 0) {
+            waitingHandler.appendReport(nMissingMs2 + " MS3 spectra without MS2 in " + mzmlFile.getName() + ".", true, true);
+        }
+
+        return nMerged;
+
+    }
+
+    /**
+     * Processes a decoded spectrum: MS2 spectra are buffered, MS3 spectra are
+     * merged with their MS2 and written.
+     *
+     * @param spectrum the decoded spectrum
+     * @param pendingMs2 the MS2 spectra waiting for their MS3
+     * @param writer the mgf writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void processSpectrum(
+            DecodedSpectrum spectrum,
+            LinkedHashMap<String, DecodedSpectrum> pendingMs2,
+            BufferedWriter writer
+    ) throws IOException {
+
+        if (spectrum.msLevel == 2) {
+
+            pendingMs2.put(spectrum.id, spectrum);
+
+        } else {
+
+            DecodedSpectrum ms2Spectrum = spectrum.precursorRef == null ? null : pendingMs2.get(spectrum.precursorRef);
+
+            if (ms2Spectrum == null) {
+
+                nMissingMs2++;
+
+            } else {
+
+                writeMergedSpectrum(ms2Spectrum, spectrum, writer);
+                nMerged++;
+
+            }
+        }
+    }
+
+    /**
+     * Writes the merged spectrum in the mgf format. The reporter region is
+     * taken from the MS3 with intensities scaled to the MS2, the rest of the
+     * spectrum from the MS2.
+     *
+     * @param ms2Spectrum the MS2 spectrum
+     * @param ms3Spectrum the MS3 spectrum
+     * @param writer the mgf writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeMergedSpectrum(
+            DecodedSpectrum ms2Spectrum,
+            DecodedSpectrum ms3Spectrum,
+            BufferedWriter writer
+    ) throws IOException {
+
+        double normalizationFactor = ms3Spectrum.maxIntensity > 0
+                ? (ms2Spectrum.maxIntensity / ms3Spectrum.maxIntensity) / 2
+                : 1.0;
+
+        writer.write("BEGIN IONS");
+        writer.newLine();
+        writer.write("TITLE=" + ms2Spectrum.id + " (MS2) and " + ms3Spectrum.id + " (MS3)");
+        writer.newLine();
+        writer.write("PEPMASS=" + ms2Spectrum.precursorMz);
+
+        if (ms2Spectrum.precursorIntensity > 0) {
+            writer.write(" " + ms2Spectrum.precursorIntensity);
+        }
+
+        writer.newLine();
+
+        if (ms2Spectrum.precursorCharge > 0) {
+            writer.write("CHARGE=" + ms2Spectrum.precursorCharge + "+");
+            writer.newLine();
+        }
+
+        if (!Double.isNaN(ms2Spectrum.retentionTime)) {
+            writer.write("RTINSECONDS=" + ms2Spectrum.retentionTime);
+            writer.newLine();
+        }
+
+        for (int i = 0; i < ms3Spectrum.mz.length; i++) {
+            writer.write(ms3Spectrum.mz[i] + " " + ms3Spectrum.intensity[i] * normalizationFactor);
+            writer.newLine();
+        }
+
+        for (int i = 0; i < ms2Spectrum.mz.length; i++) {
+            writer.write(ms2Spectrum.mz[i] + " " + ms2Spectrum.intensity[i]);
+            writer.newLine();
+        }
+
+        writer.write("END IONS");
+        writer.newLine();
+        writer.newLine();
+
+    }
+
+    /**
+     * Reads a spectrum element. The reader must be positioned on the start of
+     * the spectrum element and is left at its end.
+     *
+     * @param reader the XML reader
+     *
+     * @return the spectrum with its binary arrays still encoded
+     *
+     * @throws XMLStreamException exception thrown whenever an error occurred
+     * while parsing the file
+     */
+    private static EncodedSpectrum readSpectrum(
+            XMLStreamReader reader
+    ) throws XMLStreamException {
+
+        EncodedSpectrum spectrum = new EncodedSpectrum();
+        spectrum.id = reader.getAttributeValue(null, "id");
+
+        int nPrecursors = 0;
+        boolean inSelectedIon = false, inBinaryArray = false;
+        boolean doublePrecision = true, zlib = false;
+        int arrayType = 0; // 1: m/z, 2: intensity
+
+        while (reader.hasNext()) {
+
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+
+                switch (reader.getLocalName()) {
+
+                    case "precursor":
+
+                        if (nPrecursors++ == 0) {
+                            spectrum.precursorRef = reader.getAttributeValue(null, "spectrumRef");
+                        }
+                        break;
+
+                    case "selectedIon":
+                        inSelectedIon = nPrecursors == 1;
+                        break;
+
+                    case "binaryDataArray":
+                        inBinaryArray = true;
+                        doublePrecision = true;
+                        zlib = false;
+                        arrayType = 0;
+                        break;
+
+                    case "cvParam":
+
+                        String accession = reader.getAttributeValue(null, "accession");
+                        String value = reader.getAttributeValue(null, "value");
+
+                        if (inBinaryArray) {
+
+                            if (FLOAT_32.equals(accession)) {
+                                doublePrecision = false;
+                            } else if (FLOAT_64.equals(accession)) {
+                                doublePrecision = true;
+                            } else if (ZLIB_COMPRESSION.equals(accession)) {
+                                zlib = true;
+                            } else if (MZ_ARRAY.equals(accession)) {
+                                arrayType = 1;
+                            } else if (INTENSITY_ARRAY.equals(accession)) {
+                                arrayType = 2;
+                            }
+
+                        } else if (inSelectedIon) {
+
+                            if (SELECTED_ION_MZ.equals(accession)) {
+                                spectrum.precursorMz = Double.parseDouble(value.trim());
+                            } else if (CHARGE_STATE.equals(accession)) {
+                                spectrum.precursorCharge = Integer.parseInt(value.trim());
+                            } else if (PEAK_INTENSITY.equals(accession)) {
+                                spectrum.precursorIntensity = Double.parseDouble(value.trim());
+                            }
+
+                        } else if (MS_LEVEL.equals(accession)) {
+
+                            spectrum.msLevel = Integer.parseInt(value.trim());
+
+                        } else if (SCAN_START_TIME.equals(accession)) {
+
+                            double time = Double.parseDouble(value.trim());
+                            spectrum.retentionTime = UNIT_MINUTE.equals(reader.getAttributeValue(null, "unitAccession")) ? 60 * time : time;
+
+                        }
+                        break;
+
+                    case "binary":
+
+                        String encoded = reader.getElementText();
+
+                        if (arrayType == 1) {
+                            spectrum.mzArray = encoded;
+                            spectrum.mzDouble = doublePrecision;
+                            spectrum.mzZlib = zlib;
+                        } else if (arrayType == 2) {
+                            spectrum.intensityArray = encoded;
+                            spectrum.intensityDouble = doublePrecision;
+                            spectrum.intensityZlib = zlib;
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+
+                switch (reader.getLocalName()) {
+
+                    case "selectedIon":
+                        inSelectedIon = false;
+                        break;
+
+                    case "binaryDataArray":
+                        inBinaryArray = false;
+                        break;
+
+                    case "spectrum":
+                        return spectrum;
+
+                    default:
+                        break;
+                }
+            }
+        }
+
+        throw new XMLStreamException("Unexpected end of file in spectrum " + spectrum.id + ".");
+
+    }
+
+    /**
+     * Returns the number of merged spectra written by the last merge.
+     *
+     * @return the number of merged spectra written by the last merge
+     */
+    public int getnMerged() {
+        return nMerged;
+    }
+
+    /**
+     * Returns the number of MS3 spectra of the last merge for which the MS2
+     * was not found.
+     *
+     * @return the number of MS3 spectra of the last merge for which the MS2
+     * was not found
+     */
+    public int getnMissingMs2() {
+        return nMissingMs2;
+    }
+
+    /**
+     * A spectrum as read from the mzML file with its binary arrays encoded.
+     */
+    private static class EncodedSpectrum {
+
+        /**
+         * The spectrum id.
+         */
+        private String id;
+        /**
+         * The MS level.
+         */
+        private int msLevel = -1;
+        /**
+         * The id of the precursor spectrum.
+         */
+        private String precursorRef = null;
+        /**
+         * The precursor m/z.
+         */
+        private double precursorMz = 0.0;
+        /**
+         * The precursor charge.
+         */
+        private int precursorCharge = 0;
+        /**
+         * The precursor intensity.
+         */
+        private double precursorIntensity = 0.0;
+        /**
+         * The retention time in seconds.
+         */
+        private double retentionTime = Double.NaN;
+        /**
+         * The encoded m/z array.
+         */
+        private String mzArray = null;
+        /**
+         * Boolean indicating whether the m/z array is in 64-bit precision.
+         */
+        private boolean mzDouble = true;
+        /**
+         * Boolean indicating whether the m/z array is zlib compressed.
+         */
+        private boolean mzZlib = false;
+        /**
+         * The encoded intensity array.
+         */
+        private String intensityArray = null;
+        /**
+         * Boolean indicating whether the intensity array is in 64-bit
+         * precision.
+         */
+        private boolean intensityDouble = true;
+        /**
+         * Boolean indicating whether the intensity array is zlib compressed.
+         */
+        private boolean intensityZlib = false;
+
+        /**
+         * Decodes the spectrum and keeps only the peaks needed for the merge:
+         * above the reporter range for MS2 and in the reporter range for MS3.
+         *
+         * @param upperReporterRange the upper bound of the reporter ion m/z
+         * range
+         *
+         * @return the decoded spectrum
+         *
+         * @throws DataFormatException exception thrown whenever an error
+         * occurred while decompressing an array
+         */
+        private DecodedSpectrum decode(
+                double upperReporterRange
+        ) throws DataFormatException {
+
+            double[] mz = decodeArray(mzArray, mzDouble, mzZlib);
+            double[] intensity = decodeArray(intensityArray, intensityDouble, intensityZlib);
+
+            if (mz.length != intensity.length) {
+                throw new IllegalArgumentException("Different number of m/z and intensity values in spectrum " + id + ".");
+            }
+
+            // the MS2 maximal intensity is taken on all peaks, the MS3 one in the reporter region
+            double maxIntensity = 0.0;
+            int nKept = 0;
+
+            for (int i = 0; i < mz.length; i++) {
+
+                boolean inReporterRange = mz[i] < upperReporterRange;
+
+                if (msLevel == 2 || inReporterRange) {
+                    maxIntensity = Math.max(maxIntensity, intensity[i]);
+                }
+
+                if (msLevel == 2 ^ inReporterRange) {
+
+                    mz[nKept] = mz[i];
+                    intensity[nKept] = intensity[i];
+                    nKept++;
+
+                }
+            }
+
+            return new DecodedSpectrum(
+                    this,
+                    Arrays.copyOf(mz, nKept),
+                    Arrays.copyOf(intensity, nKept),
+                    maxIntensity
+            );
+        }
+
+        /**
+         * Decodes a base64 binary array.
+         *
+         * @param encoded the encoded array
+         * @param doublePrecision boolean indicating whether the values are in
+         * 64-bit precision
+         * @param zlib boolean indicating whether the array is zlib compressed
+         *
+         * @return the decoded values
+         *
+         * @throws DataFormatException exception thrown whenever an error
+         * occurred while decompressing the array
+         */
+        private static double[] decodeArray(
+                String encoded,
+                boolean doublePrecision,
+                boolean zlib
+        ) throws DataFormatException {
+
+            if (encoded == null || encoded.isEmpty()) {
+                return new double[0];
+            }
+
+            byte[] bytes = Base64.getMimeDecoder().decode(encoded);
+
+            if (zlib) {
+
+                Inflater inflater = new Inflater();
+
+                try {
+
+                    inflater.setInput(bytes);
+                    byte[] buffer = new byte[Math.max(1024, 4 * bytes.length)];
+                    int length = 0;
+
+                    while (!inflater.finished()) {
+
+                        if (length == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                        }
+
+                        int inflated = inflater.inflate(buffer, length, buffer.length - length);
+
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new DataFormatException("Truncated zlib array.");
+                        }
+
+                        length += inflated;
+
+                    }
+
+                    bytes = Arrays.copyOf(buffer, length);
+
+                } finally {
+
+                    inflater.end();
+
+                }
+            }
+
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            double[] values;
+
+            if (doublePrecision) {
+
+                values = new double[bytes.length / 8];
+                byteBuffer.asDoubleBuffer().get(values);
+
+            } else {
+
+                values = new double[bytes.length / 4];
+
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = byteBuffer.getFloat(4 * i);
+                }
+            }
+
+            return values;
+
+        }
+    }
+
+    /**
+     * A decoded spectrum reduced to the peaks needed for the merge.
+     */
+    private static class DecodedSpectrum {
+
+        /**
+         * The spectrum id.
+         */
+        private final String id;
+        /**
+         * The MS level.
+         */
+        private final int msLevel;
+        /**
+         * The id of the precursor spectrum.
+         */
+        private final String precursorRef;
+        /**
+         * The precursor m/z.
+         */
+        private final double precursorMz;
+        /**
+         * The precursor charge.
+         */
+        private final int precursorCharge;
+        /**
+         * The precursor intensity.
+         */
+        private final double precursorIntensity;
+        /**
+         * The retention time in seconds.
+         */
+        private final double retentionTime;
+        /**
+         * The m/z values of the peaks kept.
+         */
+        private final double[] mz;
+        /**
+         * The intensities of the peaks kept.
+         */
+        private final double[] intensity;
+        /**
+         * The maximal intensity used for the normalization.
+         */
+        private final double maxIntensity;
+
+        /**
+         * Constructor.
+         *
+         * @param encodedSpectrum the encoded spectrum
+         * @param mz the m/z values of the peaks kept
+         * @param intensity the intensities of the peaks kept
+         * @param maxIntensity the maximal intensity used for the normalization
+         */
+        private DecodedSpectrum(
+                EncodedSpectrum encodedSpectrum,
+                double[] mz,
+                double[] intensity,
+                double maxIntensity
+        ) {
+            this.id = encodedSpectrum.id;
+            this.msLevel = encodedSpectrum.msLevel;
+            this.precursorRef = encodedSpectrum.precursorRef;
+            this.precursorMz = encodedSpectrum.precursorMz;
+            this.precursorCharge = encodedSpectrum.precursorCharge;
+            this.precursorIntensity = encodedSpectrum.precursorIntensity;
+            this.retentionTime = encodedSpectrum.retentionTime;
+            this.mz = mz;
+            this.intensity = intensity;
+            this.maxIntensity = maxIntensity;
+        }
+    }
 }
@@ -0,0 +1,250 @@
+package eu.isas.reporter.utils;
+
+import com.compomics.util.experiment.quantification.reporterion.ReporterMethodFactory;
+import eu.isas.reporter.Reporter;
+import eu.isas.reporter.export.report.ReporterExportFactory;
+import eu.isas.reporter.settings.ReporterPreferences;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the factories and preferences needed by Reporter on first use. The
+ * GUI can warm them up in the background while the first screen is built;
+ * whichever of the warm-up thread or the first caller comes first loads the
+ * resource, the other waits for the result. The time taken by every step is
+ * recorded and printed when the reporter.startup.timing system property is
+ * set to true.
+ *
+ * @author Marc Vaudel
+ */
+public class StartupLoader {
+
+    /**
+     * The name of the system property enabling the printing of the startup
+     * timing.
+     */
+    public static final String TIMING_PROPERTY = "reporter.startup.timing";
+    /**
+     * Boolean indicating whether the startup timing should be printed.
+     */
+    private static final boolean PRINT_TIMING = Boolean.getBoolean(TIMING_PROPERTY);
+    /**
+     * The startup timing steps.
+     */
+    private static final ArrayList<String> TIMING = new ArrayList<>();
+    /**
+     * The loading of the default reporter methods.
+     */
+    private static final FutureTask<ReporterMethodFactory> METHODS = new FutureTask<>(
+            timed("Reporter methods", () -> {
+
+                ReporterMethodFactory methodsFactory = ReporterMethodFactory.getInstance();
+                methodsFactory.importMethods(Reporter.getMethodsFile());
+
+                return methodsFactory;
+
+            })
+    );
+    /**
+     * The loading of the export factory.
+     */
+    private static final FutureTask<ReporterExportFactory> EXPORT_FACTORY = new FutureTask<>(
+            timed("Export factory", ReporterExportFactory::getInstance)
+    );
+    /**
+     * The loading of the user preferences.
+     */
+    private static final FutureTask<ReporterPreferences> PREFERENCES = new FutureTask<>(
+            timed("Reporter preferences", ReporterPreferences::getUserPreferences)
+    );
+    /**
+     * Boolean indicating whether the warm-up was started.
+     */
+    private static boolean warmUpStarted = false;
+
+    /**
+     * Empty default constructor.
+     */
+    private StartupLoader() {
+    }
+
+    /**
+     * Starts loading the factories and preferences in a background thread.
+     * Only the first call has an effect.
+     */
+    public static synchronized void warmUp() {
+
+        if (warmUpStarted) {
+            return;
+        }
+
+        warmUpStarted = true;
+
+        Thread warmUpThread = new Thread(() -> {
+
+            METHODS.run();
+            PREFERENCES.run();
+            EXPORT_FACTORY.run();
+
+        }, "Reporter warm-up");
+
+        warmUpThread.setDaemon(true);
+        warmUpThread.setPriority(Thread.MIN_PRIORITY);
+        warmUpThread.start();
+
+    }
+
+    /**
+     * Returns the reporter methods factory with the default methods loaded.
+     *
+     * @return the reporter methods factory
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the methods
+     */
+    public static ReporterMethodFactory getMethodsFactory() throws IOException {
+        return get(METHODS, "An error occurred while loading the methods.");
+    }
+
+    /**
+     * Returns the export factory.
+     *
+     * @return the export factory
+     */
+    public static ReporterExportFactory getExportFactory() {
+
+        try {
+
+            return get(EXPORT_FACTORY, "An error occurred while loading the export factory.");
+
+        } catch (IOException e) {
+
+            // the export factory falls back to the default reports
+            e.printStackTrace();
+            return ReporterExportFactory.getInstance();
+
+        }
+    }
+
+    /**
+     * Returns the user preferences.
+     *
+     * @return the user preferences
+     */
+    public static ReporterPreferences getReporterPreferences() {
+
+        try {
+
+            return get(PREFERENCES, "An error occurred while loading the preferences.");
+
+        } catch (IOException e) {
+
+            // the preferences fall back to the default
+            e.printStackTrace();
+            return ReporterPreferences.getUserPreferences();
+
+        }
+    }
+
+    /**
+     * Records the time taken by a startup step.
+     *
+     * @param step the name of the step
+     * @param start the start of the step as given by System.nanoTime()
+     */
+    public static void logTiming(
+            String step,
+            long start
+    ) {
+
+        String line = step + ": " + (System.nanoTime() - start) / 1000000 + " ms";
+
+        synchronized (TIMING) {
+            TIMING.add(line);
+        }
+
+        if (PRINT_TIMING) {
+            System.out.println("Startup timing - " + line + " (" + Thread.currentThread().getName() + ")");
+        }
+    }
+
+    /**
+     * Returns the startup steps recorded so far with the time they took.
+     *
+     * @return the startup steps recorded so far
+     */
+    public static ArrayList<String> getTiming() {
+
+        synchronized (TIMING) {
+            return new ArrayList<>(TIMING);
+        }
+    }
+
+    /**
+     * Runs the given task if not done or running, and returns its result.
+     *
+     * @param <T> the type of result
+     * @param task the task
+     * @param errorMessage the message of the exception thrown if the task
+     * failed
+     *
+     * @return the result of the task
+     *
+     * @throws IOException exception thrown whenever the task failed
+     */
+    private static <T> T get(
+            FutureTask<T> task,
+            String errorMessage
+    ) throws IOException {
+
+        task.run();
+
+        try {
+
+            return task.get();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new IOException(errorMessage, e);
+
+        } catch (ExecutionException e) {
+
+            throw new IOException(errorMessage, e.getCause());
+
+        }
+    }
+
+    /**
+     * Wraps a loading step so that its duration is recorded.
+     *
+     * @param <T> the type of result
+     * @param step the name of the step
+     * @param callable the loading step
+     *
+     * @return the loading step timed
+     */
+    private static <T> Callable<T> timed(
+            String step,
+            Callable<T> callable
+    ) {
+
+        return () -> {
+
+            long start = System.nanoTime();
+
+            try {
+
+                return callable.call();
+
+            } finally {
+
+                logTiming(step, start);
+
+            }
+        };
+    }
+}
@@ -0,0 +1,139 @@
+package eu.isas.reporter.calculation;
+
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Test of the batch deisotoping kernel against the per-spectrum correction.
+ *
+ * @author Marc Vaudel
+ */
+public class DeisotopingKernelTest extends TestCase {
+
+    /**
+     * The number of isotopes of the test matrix.
+     */
+    private static final int N_ISOTOPES = 9;
+
+    /**
+     * Returns a correction matrix with random coefficients for five labels.
+     *
+     * @param random the random number generator
+     *
+     * @return a correction matrix
+     */
+    private static CorrectionMatrix getCorrectionMatrix(Random random) {
+
+        double[][] coefficients = new double[N_ISOTOPES][N_ISOTOPES];
+
+        for (int i = 0; i < N_ISOTOPES; i++) {
+
+            for (int j = 0; j < N_ISOTOPES; j++) {
+                coefficients[i][j] = i == j ? 1.0 + random.nextDouble() : 0.2 * random.nextDouble() - 0.1;
+            }
+        }
+
+        HashMap<Integer, String> reagentNames = new HashMap<>();
+        reagentNames.put(2, "126");
+        reagentNames.put(3, "127");
+        reagentNames.put(4, "128");
+        reagentNames.put(5, "129");
+        reagentNames.put(6, "130");
+
+        return new CorrectionMatrix(coefficients, reagentNames, 124.1);
+
+    }
+
+    /**
+     * Returns the deisotoped intensity of a label in a spectrum as computed
+     * spectrum by spectrum from the correction matrix.
+     *
+     * @param correctionMatrix the correction matrix
+     * @param label the label
+     * @param intensities the isotope intensities of the spectrum
+     *
+     * @return the deisotoped intensity
+     */
+    private static double deisotope(CorrectionMatrix correctionMatrix, String label, double[] intensities) {
+
+        int lineNumber = -1;
+
+        for (int i = 0; i < correctionMatrix.getDimension(); i++) {
+
+            if (label.equals(correctionMatrix.getReagentsNames().get(i))) {
+                lineNumber = i;
+            }
+        }
+
+        double result = 0;
+
+        for (int j = 0; j < intensities.length; j++) {
+            result += intensities[j] * correctionMatrix.getValueAt(lineNumber, j);
+        }
+
+        return result < 0 ? 0 : result;
+
+    }
+
+    /**
+     * Tests that the batch kernel returns the per-spectrum results over
+     * several blocks of spectra.
+     */
+    public void testBatchDeisotoping() {
+
+        Random random = new Random(42);
+        CorrectionMatrix correctionMatrix = getCorrectionMatrix(random);
+        DeisotopingKernel deisotopingKernel = new DeisotopingKernel(correctionMatrix);
+        String[] labels = deisotopingKernel.getLabels();
+
+        assertEquals(N_ISOTOPES, deisotopingKernel.getnIsotopes());
+        assertEquals(5, labels.length);
+
+        int nSpectra = 3 * DeisotopingKernel.BLOCK_SIZE + 7;
+        double[] isotopeIntensities = new double[nSpectra * N_ISOTOPES];
+
+        for (int i = 0; i < isotopeIntensities.length; i++) {
+            isotopeIntensities[i] = random.nextInt(4) == 0 ? 0.0 : 1e5 * random.nextDouble();
+        }
+
+        double[] result = deisotopingKernel.deisotope(isotopeIntensities, nSpectra);
+
+        assertEquals(nSpectra * labels.length, result.length);
+
+        for (int spectrum = 0; spectrum < nSpectra; spectrum++) {
+
+            double[] spectrumIntensities = new double[N_ISOTOPES];
+            System.arraycopy(isotopeIntensities, spectrum * N_ISOTOPES, spectrumIntensities, 0, N_ISOTOPES);
+
+            double[] single = deisotopingKernel.deisotope(spectrumIntensities, 1);
+
+            for (String label : labels) {
+
+                int labelIndex = deisotopingKernel.getLabelIndex(label);
+                double expected = deisotope(correctionMatrix, label, spectrumIntensities);
+
+                assertEquals(expected, result[spectrum * labels.length + labelIndex], 1e-9 * Math.max(1.0, expected));
+                assertEquals(expected, single[labelIndex], 1e-9 * Math.max(1.0, expected));
+
+            }
+        }
+    }
+
+    /**
+     * Tests that an unknown label throws an exception.
+     */
+    public void testUnknownLabel() {
+
+        DeisotopingKernel deisotopingKernel = new DeisotopingKernel(getCorrectionMatrix(new Random(1)));
+
+        try {
+
+            deisotopingKernel.getLabelIndex("131");
+            fail("No exception thrown for an unknown label.");
+
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package eu.isas.reporter.calculation;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Test of the registry of the computations in progress.
+ *
+ * @author Marc Vaudel
+ */
+public class InFlightComputationsTest extends TestCase {
+
+    /**
+     * The time in milliseconds after which a concurrent test is considered
+     * stuck.
+     */
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * Tests that concurrent requests of a key wait for the computation in
+     * progress instead of running it again.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the threads
+     */
+    public void testConcurrentRequests() throws Exception {
+
+        InFlightComputations<String, Integer> inFlightComputations = new InFlightComputations<>();
+        AtomicInteger nRuns = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int nWaiting = 4;
+
+        ExecutorService pool = Executors.newFixedThreadPool(nWaiting + 1);
+
+        try {
+
+            Future<Integer> first = pool.submit(() -> inFlightComputations.get("key", () -> {
+
+                nRuns.incrementAndGet();
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                return 42;
+
+            }));
+
+            assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            ArrayList<Future<Integer>> waiting = new ArrayList<>(nWaiting);
+
+            for (int i = 0; i < nWaiting; i++) {
+
+                waiting.add(pool.submit(() -> inFlightComputations.get("key", () -> {
+
+                    nRuns.incrementAndGet();
+                    return -1;
+
+                })));
+            }
+
+            long end = System.currentTimeMillis() + TIMEOUT;
+
+            while (inFlightComputations.getnSuppressed() < nWaiting && System.currentTimeMillis() < end) {
+                Thread.sleep(1);
+            }
+
+            release.countDown();
+
+            assertEquals(42, (int) first.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            for (Future<Integer> future : waiting) {
+                assertEquals(42, (int) future.get(TIMEOUT, TimeUnit.MILLISECONDS));
+            }
+
+        } finally {
+
+            release.countDown();
+            pool.shutdownNow();
+
+        }
+
+        assertEquals(1, nRuns.get());
+        assertEquals(1, inFlightComputations.getnComputed());
+        assertEquals(nWaiting, inFlightComputations.getnSuppressed());
+
+    }
+
+    /**
+     * Tests that a key is computed again once its computation is complete and
+     * that different keys are computed independently.
+     */
+    public void testSequentialRequests() {
+
+        InFlightComputations<String, Integer> inFlightComputations = new InFlightComputations<>();
+
+        assertEquals(1, (int) inFlightComputations.get("key", () -> 1));
+        assertEquals(2, (int) inFlightComputations.get("key", () -> 2));
+        assertEquals(3, (int) inFlightComputations.get("other", () -> 3));
+
+        assertEquals(3, inFlightComputations.getnComputed());
+        assertEquals(0, inFlightComputations.getnSuppressed());
+
+    }
+
+    /**
+     * Tests that the exceptions thrown by a computation are rethrown and that
+     * the key can be computed again afterwards.
+     */
+    public void testException() {
+
+        InFlightComputations<String, Integer> inFlightComputations = new InFlightComputations<>();
+
+        try {
+
+            inFlightComputations.get("key", () -> {
+                throw new IllegalArgumentException("test");
+            });
+
+            fail("No exception thrown by the computation.");
+
+        } catch (IllegalArgumentException e) {
+
+            assertEquals("test", e.getMessage());
+
+        }
+
+        assertEquals(1, (int) inFlightComputations.get("key", () -> 1));
+
+    }
+}
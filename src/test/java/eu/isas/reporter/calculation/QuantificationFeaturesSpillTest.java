@@ -0,0 +1,341 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import com.compomics.util.experiment.quantification.Quantification;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import eu.isas.reporter.quantificationdetails.ChannelTable;
+import eu.isas.reporter.quantificationdetails.PeptideQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.ProteinQuantificationDetails;
+import eu.isas.reporter.quantificationdetails.PsmQuantificationDetails;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.HashMap;
+import junit.framework.TestCase;
+
+/**
+ * Test of the second tier of the quantification features cache.
+ *
+ * @author Marc Vaudel
+ */
+public class QuantificationFeaturesSpillTest extends TestCase {
+
+    /**
+     * The sample indexes of the test channels.
+     */
+    private static final String[] SAMPLES = {"126", "127", "128"};
+    /**
+     * The folder where the spill file is written.
+     */
+    private File folder;
+    /**
+     * The channel table of the tests.
+     */
+    private ChannelTable channelTable;
+    /**
+     * The spill tested.
+     */
+    private QuantificationFeaturesSpill spill;
+
+    @Override
+    protected void setUp() throws IOException {
+
+        folder = Files.createTempDirectory("spill_test").toFile();
+
+        ReporterIonQuantification reporterIonQuantification = new ReporterIonQuantification(Quantification.QuantificationMethod.REPORTER_IONS);
+
+        for (String sampleIndex : SAMPLES) {
+            reporterIonQuantification.assignSample(sampleIndex, sampleIndex);
+        }
+
+        channelTable = new ChannelTable(reporterIonQuantification);
+        spill = new QuantificationFeaturesSpill(folder, channelTable, new CommandLineExceptionHandler());
+
+    }
+
+    @Override
+    protected void tearDown() {
+
+        spill.close();
+
+        File[] files = folder.listFiles();
+
+        if (files != null) {
+
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        folder.delete();
+
+    }
+
+    /**
+     * Returns the number of spill files in the folder.
+     *
+     * @return the number of spill files in the folder
+     */
+    private int getNSpillFiles() {
+
+        File[] files = folder.listFiles();
+
+        return files == null ? 0 : files.length;
+
+    }
+
+    /**
+     * Returns protein details where the ratios depend on the given seed, the
+     * last channel of the shared ratios being left unset.
+     *
+     * @param seed the seed of the ratios
+     *
+     * @return protein details
+     */
+    private ProteinQuantificationDetails getProtein(double seed) {
+
+        ProteinQuantificationDetails proteinDetails = new ProteinQuantificationDetails(channelTable);
+
+        for (int i = 0; i < SAMPLES.length; i++) {
+
+            proteinDetails.setRawRatio(SAMPLES[i], seed + i);
+            proteinDetails.setUniqueRawRatio(SAMPLES[i], seed + 10 + i);
+
+            if (i < SAMPLES.length - 1) {
+                proteinDetails.setSharedRawRatio(SAMPLES[i], seed + 20 + i);
+            }
+        }
+
+        return proteinDetails;
+
+    }
+
+    /**
+     * Returns peptide details where the ratios depend on the given seed.
+     *
+     * @param seed the seed of the ratios
+     *
+     * @return peptide details
+     */
+    private static PeptideQuantificationDetails getPeptide(double seed) {
+
+        PeptideQuantificationDetails peptideDetails = new PeptideQuantificationDetails();
+
+        for (int i = 0; i < SAMPLES.length; i++) {
+            peptideDetails.setRawRatio(SAMPLES[i], seed + i);
+        }
+
+        return peptideDetails;
+
+    }
+
+    /**
+     * Returns PSM details where the ratios depend on the given seed, the
+     * first channel being left unset.
+     *
+     * @param seed the seed of the ratios
+     *
+     * @return PSM details
+     */
+    private static PsmQuantificationDetails getPsm(double seed) {
+
+        PsmQuantificationDetails psmDetails = new PsmQuantificationDetails();
+
+        for (int i = 1; i < SAMPLES.length; i++) {
+            psmDetails.setRawRatio(SAMPLES[i], seed + i);
+        }
+
+        return psmDetails;
+
+    }
+
+    /**
+     * Spills two proteins, two peptides and two PSMs and waits for them to be
+     * written.
+     *
+     * @throws InterruptedException exception thrown whenever the test was
+     * interrupted while waiting for the writes
+     */
+    private void spillAll() throws InterruptedException {
+
+        HashMap<Long, ProteinQuantificationDetails> proteins = new HashMap<>();
+        proteins.put(1L, getProtein(1.0));
+        proteins.put(2L, getProtein(2.0));
+        spill.spillProteins(proteins);
+
+        HashMap<Long, PeptideQuantificationDetails> peptides = new HashMap<>();
+        peptides.put(3L, getPeptide(3.0));
+        peptides.put(4L, getPeptide(4.0));
+        spill.spillPeptides(peptides);
+
+        PsmQuantificationDetails[] psms = new PsmQuantificationDetails[5];
+        psms[1] = getPsm(5.0);
+        psms[4] = getPsm(6.0);
+        spill.spillPsms(psms);
+
+        spill.flush();
+
+    }
+
+    /**
+     * Asserts that the given protein details were read back from the file
+     * with the ratios of the given seed.
+     *
+     * @param seed the seed of the ratios
+     * @param proteinDetails the protein details read back
+     */
+    private static void assertProtein(double seed, ProteinQuantificationDetails proteinDetails) {
+
+        assertNotNull(proteinDetails);
+
+        for (int i = 0; i < SAMPLES.length; i++) {
+
+            assertEquals(seed + i, proteinDetails.getRawRatio(SAMPLES[i]));
+            assertEquals(seed + 10 + i, proteinDetails.getUniqueRawRatio(SAMPLES[i]));
+
+            if (i < SAMPLES.length - 1) {
+                assertEquals(seed + 20 + i, proteinDetails.getSharedRawRatio(SAMPLES[i]));
+            } else {
+                assertNull(proteinDetails.getSharedRawRatio(SAMPLES[i]));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the given peptide details were read back from the file
+     * with the ratios of the given seed.
+     *
+     * @param seed the seed of the ratios
+     * @param peptideDetails the peptide details read back
+     */
+    private static void assertPeptide(double seed, PeptideQuantificationDetails peptideDetails) {
+
+        assertNotNull(peptideDetails);
+
+        for (int i = 0; i < SAMPLES.length; i++) {
+            assertEquals(seed + i, peptideDetails.getRawRatio(SAMPLES[i]));
+        }
+    }
+
+    /**
+     * Asserts that the given PSM details were read back from the file with
+     * the ratios of the given seed.
+     *
+     * @param seed the seed of the ratios
+     * @param psmDetails the PSM details read back
+     */
+    private static void assertPsm(double seed, PsmQuantificationDetails psmDetails) {
+
+        assertNotNull(psmDetails);
+        assertNull(psmDetails.getRawRatio(SAMPLES[0]));
+
+        for (int i = 1; i < SAMPLES.length; i++) {
+            assertEquals(seed + i, psmDetails.getRawRatio(SAMPLES[i]));
+        }
+    }
+
+    /**
+     * Tests that the details spilled are read back from the file.
+     *
+     * @throws InterruptedException exception thrown whenever the test was
+     * interrupted while waiting for the writes
+     */
+    public void testRoundTrip() throws InterruptedException {
+
+        spillAll();
+
+        assertTrue(spill.hasSpilled());
+        assertEquals(1, getNSpillFiles());
+
+        assertProtein(1.0, spill.getProteinMatchQuantificationDetails(1L));
+        assertProtein(2.0, spill.getProteinMatchQuantificationDetails(2L));
+        assertPeptide(3.0, spill.getPeptideMatchQuantificationDetails(3L));
+        assertPeptide(4.0, spill.getPeptideMatchQuantificationDetails(4L));
+        assertPsm(5.0, spill.getPSMQuantificationDetails(1));
+        assertPsm(6.0, spill.getPSMQuantificationDetails(4));
+
+        assertNull(spill.getProteinMatchQuantificationDetails(3L));
+        assertNull(spill.getPeptideMatchQuantificationDetails(1L));
+        assertNull(spill.getPSMQuantificationDetails(0));
+        assertNull(spill.getPSMQuantificationDetails(5));
+
+    }
+
+    /**
+     * Tests that the records of the levels not invalidated are kept, and that
+     * the file is deleted and started over once all levels are invalidated.
+     *
+     * @throws InterruptedException exception thrown whenever the test was
+     * interrupted while waiting for the writes
+     */
+    public void testInvalidate() throws InterruptedException {
+
+        spillAll();
+
+        spill.invalidate(EnumSet.of(QuantificationLevel.psm));
+        spill.flush();
+
+        assertNull(spill.getPSMQuantificationDetails(1));
+        assertNull(spill.getPSMQuantificationDetails(4));
+        assertProtein(1.0, spill.getProteinMatchQuantificationDetails(1L));
+        assertProtein(2.0, spill.getProteinMatchQuantificationDetails(2L));
+        assertPeptide(3.0, spill.getPeptideMatchQuantificationDetails(3L));
+        assertPeptide(4.0, spill.getPeptideMatchQuantificationDetails(4L));
+        assertEquals(1, getNSpillFiles());
+
+        spill.invalidate(EnumSet.of(QuantificationLevel.peptide, QuantificationLevel.protein));
+        spill.flush();
+
+        assertNull(spill.getProteinMatchQuantificationDetails(1L));
+        assertNull(spill.getPeptideMatchQuantificationDetails(3L));
+        assertEquals(0, getNSpillFiles());
+
+        PsmQuantificationDetails[] psms = new PsmQuantificationDetails[3];
+        psms[2] = getPsm(7.0);
+        spill.spillPsms(psms);
+        spill.flush();
+
+        assertPsm(7.0, spill.getPSMQuantificationDetails(2));
+        assertNull(spill.getPSMQuantificationDetails(1));
+        assertEquals(1, getNSpillFiles());
+
+    }
+
+    /**
+     * Tests that the details spilled before an invalidation but written after
+     * it are discarded.
+     *
+     * @throws InterruptedException exception thrown whenever the test was
+     * interrupted while waiting for the writes
+     */
+    public void testInvalidatePending() throws InterruptedException {
+
+        HashMap<Long, PeptideQuantificationDetails> peptides = new HashMap<>();
+        peptides.put(3L, getPeptide(3.0));
+        spill.spillPeptides(peptides);
+        spill.invalidate(EnumSet.of(QuantificationLevel.peptide));
+        spill.flush();
+
+        assertNull(spill.getPeptideMatchQuantificationDetails(3L));
+        assertEquals(0, getNSpillFiles());
+
+    }
+
+    /**
+     * Tests that closing the spill deletes the file and drops the details.
+     *
+     * @throws InterruptedException exception thrown whenever the test was
+     * interrupted while waiting for the writes
+     */
+    public void testClose() throws InterruptedException {
+
+        spillAll();
+        spill.close();
+
+        assertNull(spill.getProteinMatchQuantificationDetails(1L));
+        assertNull(spill.getPSMQuantificationDetails(1));
+        assertEquals(0, getNSpillFiles());
+
+    }
+}
@@ -0,0 +1,116 @@
+package eu.isas.reporter.calculation;
+
+import eu.isas.reporter.settings.ReporterIonSelectionSettings;
+import junit.framework.TestCase;
+
+/**
+ * Test of the calibration of the reporter ion m/z.
+ *
+ * @author Marc Vaudel
+ */
+public class ReporterMzCalibrationTest extends TestCase {
+
+    /**
+     * The labels of the test channels.
+     */
+    private static final String[] LABELS = {"126", "127", "128"};
+
+    /**
+     * Returns m/z errors spread evenly around the given center by steps of
+     * 0.00001 m/z.
+     *
+     * @param center the center of the errors
+     * @param n the number of errors
+     *
+     * @return the m/z errors
+     */
+    private static double[] getErrors(double center, int n) {
+
+        double[] errors = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            errors[i] = center + (i - (n - 1) / 2.0) * 0.00001;
+        }
+
+        return errors;
+
+    }
+
+    /**
+     * Tests the fit of the error distributions, and that a channel with too
+     * few ions is ignored in the proposed tolerance.
+     */
+    public void testFit() {
+
+        double[][] errors = {getErrors(0.001, 100), getErrors(0.001, 100), {0.01, 0.01, 0.01, 0.01}};
+        ReporterIonSelectionSettings settings = new ReporterIonSelectionSettings();
+        double currentTolerance = settings.getReporterIonsMzTolerance();
+
+        ReporterMzCalibration calibration = new ReporterMzCalibration(LABELS, errors, 150, 0.01, 0.01, settings);
+
+        assertTrue(calibration.isReliable());
+
+        assertEquals(100, calibration.getCount(0));
+        assertEquals(4, calibration.getCount(2));
+        assertEquals(0.001, calibration.getMedian(0), 1e-12);
+        assertEquals(0.01, calibration.getMedian(2), 1e-12);
+        assertEquals(1.4826 * 0.00025, calibration.getSd(0), 1e-12);
+        assertEquals(0.0, calibration.getSd(2), 1e-12);
+
+        // the median of all errors, rounded to 0.00001
+        assertEquals(0.00101, calibration.getOffset(), 1e-12);
+        // |0.001 - 0.00101| + 3 * 0.000370650, rounded up to 0.00001
+        assertEquals(0.00113, calibration.getTolerance(), 1e-12);
+
+        assertEquals(currentTolerance, settings.getReporterIonsMzTolerance(), 0.0);
+        assertTrue(calibration.apply(settings));
+        assertEquals(0.00113, settings.getReporterIonsMzTolerance(), 1e-12);
+        assertEquals(0.00101, settings.getReporterIonsMzOffset(), 1e-12);
+
+        assertTrue(calibration.getReport().contains(
+                String.format("Proposed: tolerance %.5f m/z, offset %.5f m/z", 0.00113, 0.00101)
+        ));
+
+    }
+
+    /**
+     * Tests that the proposed tolerance does not exceed the maximal
+     * tolerance.
+     */
+    public void testMaxTolerance() {
+
+        double[][] errors = {getErrors(0.0, 100), getErrors(0.0, 100), getErrors(0.0, 100)};
+
+        ReporterMzCalibration calibration = new ReporterMzCalibration(LABELS, errors, 100, 0.01, 0.001, new ReporterIonSelectionSettings());
+
+        assertEquals(0.0, calibration.getOffset(), 1e-12);
+        assertEquals(0.001, calibration.getTolerance(), 1e-12);
+
+    }
+
+    /**
+     * Tests that the current settings are kept when too few reporter ions are
+     * found.
+     */
+    public void testNotReliable() {
+
+        double[][] errors = {getErrors(0.001, 40), getErrors(0.001, 40), new double[0]};
+        ReporterIonSelectionSettings settings = new ReporterIonSelectionSettings();
+        double currentTolerance = settings.getReporterIonsMzTolerance();
+        double currentOffset = settings.getReporterIonsMzOffset();
+
+        ReporterMzCalibration calibration = new ReporterMzCalibration(LABELS, errors, 50, 0.01, 0.01, settings);
+
+        assertFalse(calibration.isReliable());
+        assertEquals(currentTolerance, calibration.getTolerance(), 0.0);
+        assertEquals(currentOffset, calibration.getOffset(), 0.0);
+
+        assertFalse(calibration.apply(settings));
+        assertEquals(currentTolerance, settings.getReporterIonsMzTolerance(), 0.0);
+        assertEquals(currentOffset, settings.getReporterIonsMzOffset(), 0.0);
+
+        assertEquals(0, calibration.getCount(2));
+        assertTrue(calibration.getReport().contains("Not enough reporter ions found"));
+
+    }
+}
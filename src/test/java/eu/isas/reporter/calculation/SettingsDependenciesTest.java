@@ -0,0 +1,175 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
+import eu.isas.reporter.calculation.normalization.NormalizationType;
+import eu.isas.reporter.settings.ReporterSettings;
+import java.io.File;
+import java.util.EnumSet;
+import junit.framework.TestCase;
+
+/**
+ * Test of the propagation of settings changes through the quantification
+ * levels.
+ *
+ * @author Marc Vaudel
+ */
+public class SettingsDependenciesTest extends TestCase {
+
+    /**
+     * Tests that identical settings do not affect the results.
+     */
+    public void testNoChange() {
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), new ReporterSettings());
+
+        assertFalse(settingsDependencies.hasChanges());
+        assertTrue(settingsDependencies.getInvalidatedLevels().isEmpty());
+        assertTrue(settingsDependencies.getNormalizationLevels().isEmpty());
+
+    }
+
+    /**
+     * Tests that a change of reporter ion selection invalidates all levels and
+     * all normalization factors.
+     */
+    public void testReporterIonSelection() {
+
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getReporterIonSelectionSettings().setReporterIonsMzTolerance(0.003);
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertEquals(EnumSet.allOf(QuantificationLevel.class), settingsDependencies.getInvalidatedLevels());
+        assertEquals(
+                EnumSet.of(QuantificationLevel.psm, QuantificationLevel.peptide, QuantificationLevel.protein),
+                settingsDependencies.getNormalizationLevels()
+        );
+
+    }
+
+    /**
+     * Tests that a change of ratio estimation keeps the spectrum level.
+     */
+    public void testRatioResolution() {
+
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getRatioEstimationSettings().setRatioResolution(0.001);
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertEquals(
+                EnumSet.of(QuantificationLevel.psm, QuantificationLevel.peptide, QuantificationLevel.protein, QuantificationLevel.ptm),
+                settingsDependencies.getInvalidatedLevels()
+        );
+        assertEquals(
+                EnumSet.of(QuantificationLevel.psm, QuantificationLevel.peptide, QuantificationLevel.protein),
+                settingsDependencies.getNormalizationLevels()
+        );
+
+    }
+
+    /**
+     * Tests that a change of PSM normalization keeps the PSM details and
+     * invalidates the levels above.
+     */
+    public void testPsmNormalization() {
+
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getNormalizationSettings().setPsmNormalization(NormalizationType.median);
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertEquals(
+                EnumSet.of(QuantificationLevel.peptide, QuantificationLevel.protein, QuantificationLevel.ptm),
+                settingsDependencies.getInvalidatedLevels()
+        );
+        assertEquals(
+                EnumSet.of(QuantificationLevel.psm, QuantificationLevel.peptide, QuantificationLevel.protein),
+                settingsDependencies.getNormalizationLevels()
+        );
+
+    }
+
+    /**
+     * Tests that a change of peptide selection keeps the PSM and peptide
+     * details.
+     */
+    public void testPeptideValidationLevel() {
+
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getRatioEstimationSettings().setPeptideValidationLevel(MatchValidationLevel.confident);
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertEquals(
+                EnumSet.of(QuantificationLevel.protein, QuantificationLevel.ptm),
+                settingsDependencies.getInvalidatedLevels()
+        );
+        assertEquals(
+                EnumSet.of(QuantificationLevel.peptide, QuantificationLevel.protein),
+                settingsDependencies.getNormalizationLevels()
+        );
+
+    }
+
+    /**
+     * Tests that a change of the minimal number of unique peptides only
+     * affects the proteins.
+     */
+    public void testMinUnique() {
+
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getRatioEstimationSettings().setMinUnique(1);
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertEquals(EnumSet.of(QuantificationLevel.protein), settingsDependencies.getInvalidatedLevels());
+        assertEquals(EnumSet.of(QuantificationLevel.protein), settingsDependencies.getNormalizationLevels());
+
+    }
+
+    /**
+     * Tests that a change of protein selection or protein normalization only
+     * affects the protein normalization factors.
+     */
+    public void testProteinNormalization() {
+
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getRatioEstimationSettings().setProteinValidationLevel(MatchValidationLevel.confident);
+        newSettings.getNormalizationSettings().setProteinNormalization(NormalizationType.mean);
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertTrue(settingsDependencies.hasChanges());
+        assertTrue(settingsDependencies.getInvalidatedLevels().isEmpty());
+        assertEquals(EnumSet.of(QuantificationLevel.protein), settingsDependencies.getNormalizationLevels());
+
+    }
+
+    /**
+     * Tests that a change of stable proteins invalidates all normalization
+     * factors and the details depending on them, and that equivalent paths
+     * are considered the same.
+     */
+    public void testStableProteins() {
+
+        ReporterSettings oldSettings = new ReporterSettings();
+        oldSettings.getNormalizationSettings().setStableProteinsFastaFile(new File("stable.fasta"));
+        ReporterSettings newSettings = new ReporterSettings();
+        newSettings.getNormalizationSettings().setStableProteinsFastaFile(new File(new File("stable.fasta").getAbsolutePath()));
+
+        assertFalse(new SettingsDependencies(oldSettings, newSettings).hasChanges());
+
+        SettingsDependencies settingsDependencies = new SettingsDependencies(new ReporterSettings(), newSettings);
+
+        assertEquals(
+                EnumSet.of(QuantificationLevel.peptide, QuantificationLevel.protein, QuantificationLevel.ptm),
+                settingsDependencies.getInvalidatedLevels()
+        );
+        assertEquals(
+                EnumSet.of(QuantificationLevel.psm, QuantificationLevel.peptide, QuantificationLevel.protein),
+                settingsDependencies.getNormalizationLevels()
+        );
+
+    }
+}
@@ -0,0 +1,135 @@
+package eu.isas.reporter.calculation;
+
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Test of the registry of the spectra of a project.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumRegistryTest extends TestCase {
+
+    /**
+     * The spectrum titles of the test provider indexed by file, in the order
+     * of the provider, including a file without spectra.
+     */
+    private static final LinkedHashMap<String, String[]> TITLES = new LinkedHashMap<>();
+
+    static {
+        TITLES.put("file1", new String[]{"a", "b", "c"});
+        TITLES.put("empty", new String[0]);
+        TITLES.put("file2", new String[]{"a", "d"});
+    }
+
+    /**
+     * Returns a spectrum provider serving the test titles, where the
+     * precursor of spectrum i of a file has an m/z of 100 + i and a retention
+     * time of 10 * i. Only the methods used by the registry are supported.
+     *
+     * @param nPrecursors counter of the precursors requested
+     *
+     * @return a spectrum provider
+     */
+    private static SpectrumProvider getSpectrumProvider(AtomicInteger nPrecursors) {
+
+        return (SpectrumProvider) Proxy.newProxyInstance(
+                SpectrumProvider.class.getClassLoader(),
+                new Class<?>[]{SpectrumProvider.class},
+                (proxy, method, args) -> {
+
+                    switch (method.getName()) {
+
+                        case "getOrderedFileNamesWithoutExtensions":
+                            return TITLES.keySet().toArray(new String[TITLES.size()]);
+
+                        case "getSpectrumTitles":
+                            return TITLES.get((String) args[0]);
+
+                        case "getPrecursor":
+                            nPrecursors.incrementAndGet();
+                            int i = Arrays.asList(TITLES.get((String) args[0])).indexOf((String) args[1]);
+                            return new Precursor(10.0 * i, 100.0 + i, new int[]{2});
+
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+
+                    }
+                }
+        );
+    }
+
+    /**
+     * Tests that the spectra of a file have consecutive indexes in the order
+     * of the provider and that the indexes map back to the spectra.
+     */
+    public void testIndexes() {
+
+        SpectrumRegistry spectrumRegistry = new SpectrumRegistry(getSpectrumProvider(new AtomicInteger()));
+
+        assertEquals(5, spectrumRegistry.size());
+
+        String[] expectedFiles = {"file1", "file1", "file1", "file2", "file2"};
+        String[] expectedTitles = {"a", "b", "c", "a", "d"};
+
+        for (int i = 0; i < expectedTitles.length; i++) {
+
+            assertEquals(i, spectrumRegistry.getIndex(expectedFiles[i], expectedTitles[i]));
+            assertEquals(expectedFiles[i], spectrumRegistry.getSpectrumFile(i));
+            assertEquals(expectedTitles[i], spectrumRegistry.getSpectrumTitle(i));
+
+        }
+
+        assertEquals(-1, spectrumRegistry.getIndex("file2", "b"));
+        assertEquals(-1, spectrumRegistry.getIndex("file3", "a"));
+
+    }
+
+    /**
+     * Tests the file boundaries, including for a file without spectra.
+     */
+    public void testFileBoundaries() {
+
+        SpectrumRegistry spectrumRegistry = new SpectrumRegistry(getSpectrumProvider(new AtomicInteger()));
+
+        assertEquals(0, spectrumRegistry.getFileStart("file1"));
+        assertEquals(3, spectrumRegistry.getFileEnd("file1"));
+        assertEquals(3, spectrumRegistry.getFileStart("empty"));
+        assertEquals(3, spectrumRegistry.getFileEnd("empty"));
+        assertEquals(3, spectrumRegistry.getFileStart("file2"));
+        assertEquals(5, spectrumRegistry.getFileEnd("file2"));
+        assertEquals(-1, spectrumRegistry.getFileStart("file3"));
+        assertEquals(-1, spectrumRegistry.getFileEnd("file3"));
+
+    }
+
+    /**
+     * Tests that the precursors are loaded once per file when first needed.
+     */
+    public void testPrecursors() {
+
+        AtomicInteger nPrecursors = new AtomicInteger();
+        SpectrumRegistry spectrumRegistry = new SpectrumRegistry(getSpectrumProvider(nPrecursors));
+
+        assertEquals(0, nPrecursors.get());
+
+        double[] mz = spectrumRegistry.getPrecursorMz("file2");
+        double[] rt = spectrumRegistry.getPrecursorRt("file2");
+
+        assertEquals(2, nPrecursors.get());
+        assertTrue(Arrays.equals(new double[]{100.0, 101.0}, mz));
+        assertTrue(Arrays.equals(new double[]{0.0, 10.0}, rt));
+
+        assertSame(mz, spectrumRegistry.getPrecursorMz("file2"));
+        assertEquals(2, nPrecursors.get());
+
+        assertEquals(0, spectrumRegistry.getPrecursorMz("empty").length);
+        assertNull(spectrumRegistry.getPrecursorRt("file3"));
+
+    }
+}
@@ -0,0 +1,120 @@
+package eu.isas.reporter.calculation.normalization;
+
+import com.compomics.util.experiment.quantification.Quantification;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import eu.isas.reporter.quantificationdetails.ChannelTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Test of the channel sums used for the sum normalization.
+ *
+ * @author Marc Vaudel
+ */
+public class ChannelSumsTest extends TestCase {
+
+    /**
+     * Returns a channel table with the given sample indexes.
+     *
+     * @param sampleIndexes the sample indexes
+     *
+     * @return a channel table
+     */
+    private static ChannelTable getChannelTable(String... sampleIndexes) {
+
+        ReporterIonQuantification reporterIonQuantification = new ReporterIonQuantification(Quantification.QuantificationMethod.REPORTER_IONS);
+
+        for (String sampleIndex : sampleIndexes) {
+            reporterIonQuantification.assignSample(sampleIndex, sampleIndex);
+        }
+
+        return new ChannelTable(reporterIonQuantification);
+
+    }
+
+    /**
+     * Tests that the reference channel is normalized to 1 and the other
+     * channels relative to it.
+     */
+    public void testReferenceChannel() {
+
+        ChannelSums channelSums = new ChannelSums(getChannelTable("126", "127", "128"));
+
+        channelSums.add("126", 100.0);
+        channelSums.add("126", 300.0);
+        channelSums.add("127", 800.0);
+        channelSums.add("128", 200.0);
+
+        ArrayList<String> reference = new ArrayList<>(Arrays.asList("126"));
+
+        assertEquals(1.0, channelSums.getNormalizationFactor("126", reference), 1e-12);
+        assertEquals(2.0, channelSums.getNormalizationFactor("127", reference), 1e-12);
+        assertEquals(0.5, channelSums.getNormalizationFactor("128", reference), 1e-12);
+
+        reference = new ArrayList<>(Arrays.asList("127"));
+
+        assertEquals(1.0, channelSums.getNormalizationFactor("127", reference), 1e-12);
+        assertEquals(0.5, channelSums.getNormalizationFactor("126", reference), 1e-12);
+
+    }
+
+    /**
+     * Tests the reference sum over several reference channels and the
+     * fallback on all channels when no reference channel has values.
+     */
+    public void testReferenceFallback() {
+
+        ChannelSums channelSums = new ChannelSums(getChannelTable("126", "127", "128", "129"));
+
+        channelSums.add("126", 100.0);
+        channelSums.add("127", 300.0);
+        channelSums.add("128", 400.0);
+
+        ArrayList<String> reference = new ArrayList<>(Arrays.asList("126", "127"));
+
+        assertEquals(0.5, channelSums.getNormalizationFactor("126", reference), 1e-12);
+        assertEquals(2.0, channelSums.getNormalizationFactor("128", reference), 1e-12);
+
+        reference = new ArrayList<>(Arrays.asList("129", "130"));
+
+        assertEquals(1.5, channelSums.getNormalizationFactor("128", reference), 1e-12);
+        assertEquals(1.5, channelSums.getNormalizationFactor("128", null), 1e-12);
+        assertEquals(1.0, channelSums.getNormalizationFactor("129", reference), 1e-12);
+
+    }
+
+    /**
+     * Tests that merging sums gives the same factors as summing in a single
+     * instance, and that the compensation keeps small values.
+     */
+    public void testMerge() {
+
+        ChannelTable channelTable = getChannelTable("126", "127");
+        ChannelSums single = new ChannelSums(channelTable);
+        ChannelSums first = new ChannelSums(channelTable);
+        ChannelSums second = new ChannelSums(channelTable);
+
+        single.add(0, 1e16);
+        first.add(0, 1e16);
+
+        for (int i = 0; i < 1000; i++) {
+
+            single.add(0, 1.0);
+            second.add(0, 1.0);
+            single.add(1, 2.0);
+            second.add(1, 2.0);
+
+        }
+
+        first.merge(second);
+
+        assertEquals(1e16 + 1000, first.getSum(0), 0.0);
+        assertEquals(single.getSum(0), first.getSum(0), 0.0);
+        assertEquals(single.getSum(1), first.getSum(1), 0.0);
+        assertEquals(1001, first.getCount(0));
+        assertFalse(first.isEmpty());
+        assertTrue(new ChannelSums(channelTable).isEmpty());
+
+    }
+}
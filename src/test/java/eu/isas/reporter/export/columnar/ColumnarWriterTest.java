@@ -0,0 +1,288 @@
+package eu.isas.reporter.export.columnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import junit.framework.TestCase;
+
+/**
+ * Test of the writer of the columnar binary format.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarWriterTest extends TestCase {
+
+    /**
+     * The number of rows per row group.
+     */
+    private static final int ROW_GROUP_SIZE = 100;
+    /**
+     * The number of rows written, the last row group being short.
+     */
+    private static final int N_ROWS = 250;
+    /**
+     * The names of the columns.
+     */
+    private static final String[] NAMES = {"Index", "Random", "Ratio", "Accession"};
+    /**
+     * The types of the columns.
+     */
+    private static final ColumnType[] TYPES = {ColumnType.int64, ColumnType.int64, ColumnType.float32, ColumnType.dictionary};
+    /**
+     * The values of the dictionary column, null for missing values.
+     */
+    private static final String[] ACCESSIONS = {"P12345", null, "Q9Y6K9", "P12345", "O75475"};
+    /**
+     * The file written.
+     */
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("columnar_test", ".rcol").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Returns the value of the ratio column for the given row, NaN for every
+     * eleventh row.
+     *
+     * @param row the index of the row
+     *
+     * @return the value of the ratio column
+     */
+    private static float getRatio(int row) {
+        return row % 11 == 0 ? Float.NaN : 1.0f + row / 8.0f;
+    }
+
+    /**
+     * Reads a string written as its length followed by its UTF-8 bytes.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the string
+     */
+    private static String readString(ByteBuffer buffer) {
+
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Reads a chunk and returns its raw bytes.
+     *
+     * @param buffer the buffer to read from
+     * @param codecs the number of chunks read per codec
+     *
+     * @return the raw bytes of the chunk
+     *
+     * @throws DataFormatException exception thrown whenever a compressed chunk
+     * could not be inflated
+     */
+    private static ByteBuffer readChunk(ByteBuffer buffer, int[] codecs) throws DataFormatException {
+
+        byte codec = buffer.get();
+        int rawLength = buffer.getInt();
+        int storedLength = buffer.getInt();
+
+        byte[] stored = new byte[storedLength];
+        buffer.get(stored);
+        codecs[codec]++;
+
+        byte[] raw;
+
+        if (codec == ColumnarWriter.CODEC_DEFLATE) {
+
+            assertTrue(storedLength < rawLength);
+
+            Inflater inflater = new Inflater();
+
+            try {
+
+                inflater.setInput(stored);
+                raw = new byte[rawLength];
+                assertEquals(rawLength, inflater.inflate(raw));
+                assertTrue(inflater.finished());
+
+            } finally {
+                inflater.end();
+            }
+
+        } else {
+
+            assertEquals(ColumnarWriter.CODEC_NONE, codec);
+            assertEquals(rawLength, storedLength);
+            raw = stored;
+
+        }
+
+        return ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+
+    }
+
+    /**
+     * Writes several row groups, the last one being short, with columns that
+     * are stored compressed and raw, reads the file back and checks the
+     * header, the values and the dictionary.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing or reading the file
+     */
+    public void testRoundTrip() throws Exception {
+
+        Random random = new Random(42);
+        long[] randomValues = new long[N_ROWS];
+
+        try (ColumnarWriter writer = new ColumnarWriter(file, new ArrayList<>(Arrays.asList(NAMES)), new ArrayList<>(Arrays.asList(TYPES)), ROW_GROUP_SIZE)) {
+
+            for (int row = 0; row < N_ROWS; row++) {
+
+                randomValues[row] = random.nextLong();
+
+                writer.setLong(0, row);
+                writer.setLong(1, randomValues[row]);
+
+                // missing ratios are left unset
+                if (row % 11 != 0) {
+                    writer.setFloat(2, getRatio(row));
+                }
+
+                writer.setString(3, ACCESSIONS[row % ACCESSIONS.length]);
+                writer.endRow();
+
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+
+        // header
+        byte[] magic = new byte[ColumnarWriter.MAGIC.length];
+        buffer.get(magic);
+        assertTrue(Arrays.equals(ColumnarWriter.MAGIC, magic));
+        assertEquals(ColumnarWriter.VERSION, buffer.getInt());
+        assertEquals(NAMES.length, buffer.getInt());
+
+        for (int column = 0; column < NAMES.length; column++) {
+
+            assertEquals(NAMES[column], readString(buffer));
+            assertEquals(TYPES[column].index, buffer.get());
+
+        }
+
+        int firstRowGroupOffset = buffer.position();
+
+        // trailer
+        int end = buffer.capacity();
+        buffer.position(end - ColumnarWriter.MAGIC.length);
+        buffer.get(magic);
+        assertTrue(Arrays.equals(ColumnarWriter.MAGIC, magic));
+        assertEquals(N_ROWS, buffer.getLong(end - ColumnarWriter.MAGIC.length - 16));
+        long footerOffset = buffer.getLong(end - ColumnarWriter.MAGIC.length - 8);
+
+        // footer
+        buffer.position((int) footerOffset);
+
+        int nEntries = buffer.getInt();
+        String[] dictionary = new String[nEntries];
+
+        for (int i = 0; i < nEntries; i++) {
+            dictionary[i] = readString(buffer);
+        }
+
+        assertTrue(Arrays.equals(new String[]{"P12345", "Q9Y6K9", "O75475"}, dictionary));
+
+        int nRowGroups = buffer.getInt();
+        assertEquals(3, nRowGroups);
+
+        long[] rowGroupOffsets = new long[nRowGroups];
+
+        for (int i = 0; i < nRowGroups; i++) {
+            rowGroupOffsets[i] = buffer.getLong();
+        }
+
+        assertEquals(firstRowGroupOffset, rowGroupOffsets[0]);
+        assertEquals(end - ColumnarWriter.MAGIC.length - 16, buffer.position());
+
+        // row groups
+        int[] codecs = new int[2];
+        int row = 0;
+
+        for (int rowGroup = 0; rowGroup < nRowGroups; rowGroup++) {
+
+            buffer.position((int) rowGroupOffsets[rowGroup]);
+
+            int nRows = buffer.getInt();
+            assertEquals(rowGroup < nRowGroups - 1 ? ROW_GROUP_SIZE : N_ROWS % ROW_GROUP_SIZE, nRows);
+
+            ByteBuffer indexChunk = readChunk(buffer, codecs);
+            ByteBuffer randomChunk = readChunk(buffer, codecs);
+            ByteBuffer ratioChunk = readChunk(buffer, codecs);
+            ByteBuffer accessionChunk = readChunk(buffer, codecs);
+
+            assertEquals(nRows * ColumnType.int64.width, indexChunk.capacity());
+            assertEquals(nRows * ColumnType.int64.width, randomChunk.capacity());
+            assertEquals(nRows * ColumnType.float32.width, ratioChunk.capacity());
+            assertEquals(nRows * ColumnType.dictionary.width, accessionChunk.capacity());
+
+            for (int i = 0; i < nRows; i++, row++) {
+
+                assertEquals(row, indexChunk.getLong());
+                assertEquals(randomValues[row], randomChunk.getLong());
+                assertEquals(Float.floatToIntBits(getRatio(row)), Float.floatToIntBits(ratioChunk.getFloat()));
+
+                int entry = accessionChunk.getInt();
+                String accession = ACCESSIONS[row % ACCESSIONS.length];
+
+                if (accession == null) {
+                    assertEquals(-1, entry);
+                } else {
+                    assertEquals(accession, dictionary[entry]);
+                }
+            }
+
+            if (rowGroup < nRowGroups - 1) {
+                assertEquals(rowGroupOffsets[rowGroup + 1], buffer.position());
+            } else {
+                assertEquals(footerOffset, buffer.position());
+            }
+        }
+
+        assertEquals(N_ROWS, row);
+        assertTrue(codecs[ColumnarWriter.CODEC_NONE] > 0);
+        assertTrue(codecs[ColumnarWriter.CODEC_DEFLATE] > 0);
+
+    }
+
+    /**
+     * Tests that column names and types of different lengths are rejected.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void testColumnMismatch() throws IOException {
+
+        try {
+
+            new ColumnarWriter(file, new ArrayList<>(Arrays.asList(NAMES)), new ArrayList<>(Arrays.asList(ColumnType.int64)), ROW_GROUP_SIZE).close();
+            fail("No exception thrown for a column mismatch.");
+
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
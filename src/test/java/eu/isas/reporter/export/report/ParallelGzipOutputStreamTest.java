@@ -0,0 +1,165 @@
+package eu.isas.reporter.export.report;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+
+/**
+ * Test of the parallel gzip output stream.
+ *
+ * @author Marc Vaudel
+ */
+public class ParallelGzipOutputStreamTest extends TestCase {
+
+    /**
+     * The size of the blocks used in the tests.
+     */
+    private static final int BLOCK_SIZE = 1000;
+
+    /**
+     * Returns test data spanning several blocks, alternating compressible text
+     * and random bytes.
+     *
+     * @param length the length of the data
+     *
+     * @return the test data
+     */
+    private static byte[] getData(int length) {
+
+        byte[] data = new byte[length];
+        Random random = new Random(42);
+        byte[] text = "Protein\tPeptide\t1.0\t0.5\n".getBytes();
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (i / 3000) % 2 == 0 ? text[i % text.length] : (byte) random.nextInt();
+        }
+
+        return data;
+
+    }
+
+    /**
+     * Decompresses the given gzip data with GZIPInputStream.
+     *
+     * @param compressed the compressed data
+     *
+     * @return the decompressed data
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decompressing
+     */
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+        }
+
+        return result.toByteArray();
+
+    }
+
+    /**
+     * Tests that data spanning more blocks than threads is read back
+     * identical, written in arrays of various sizes and byte per byte.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or decompressing
+     */
+    public void testRoundTrip() throws IOException {
+
+        byte[] data = getData(25 * BLOCK_SIZE + 17);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (ParallelGzipOutputStream outputStream = new ParallelGzipOutputStream(compressed, 3, BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION)) {
+
+            int offset = 0;
+            int step = 1;
+
+            while (offset < data.length) {
+
+                int length = Math.min(step, data.length - offset);
+
+                if (length == 1) {
+                    outputStream.write(data[offset]);
+                } else {
+                    outputStream.write(data, offset, length);
+                }
+
+                offset += length;
+                step = step * 3 % 2477 + 1;
+
+            }
+        }
+
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+
+    }
+
+    /**
+     * Tests that flushing in the middle of the writing, including in the
+     * middle of a block and twice in a row, does not alter the data read
+     * back, and that the data written before a flush can be read back before
+     * the stream is closed.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or decompressing
+     */
+    public void testFlush() throws IOException {
+
+        byte[] data = getData(12 * BLOCK_SIZE + 500);
+        int firstFlush = 3 * BLOCK_SIZE + 250;
+        int secondFlush = 7 * BLOCK_SIZE;
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (ParallelGzipOutputStream outputStream = new ParallelGzipOutputStream(compressed, 2, BLOCK_SIZE, Deflater.BEST_SPEED)) {
+
+            outputStream.write(data, 0, firstFlush);
+            outputStream.flush();
+
+            assertTrue(Arrays.equals(Arrays.copyOf(data, firstFlush), gunzip(compressed.toByteArray())));
+
+            outputStream.write(data, firstFlush, secondFlush - firstFlush);
+            outputStream.flush();
+            outputStream.flush();
+
+            assertTrue(Arrays.equals(Arrays.copyOf(data, secondFlush), gunzip(compressed.toByteArray())));
+
+            outputStream.write(data, secondFlush, data.length - secondFlush);
+
+        }
+
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+
+    }
+
+    /**
+     * Tests that an empty stream is read back empty.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or decompressing
+     */
+    public void testEmpty() throws IOException {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        new ParallelGzipOutputStream(compressed, 2, BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION).close();
+
+        if (compressed.size() > 0) {
+            assertEquals(0, gunzip(compressed.toByteArray()).length);
+        }
+    }
+}
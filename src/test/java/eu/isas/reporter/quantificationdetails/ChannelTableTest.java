@@ -0,0 +1,107 @@
+package eu.isas.reporter.quantificationdetails;
+
+import com.compomics.util.experiment.quantification.Quantification;
+import com.compomics.util.experiment.quantification.reporterion.ReporterIonQuantification;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Test of the table of the channels of a project.
+ *
+ * @author Marc Vaudel
+ */
+public class ChannelTableTest extends TestCase {
+
+    /**
+     * Returns a reporter ion quantification with the given sample indexes.
+     *
+     * @param sampleIndexes the sample indexes
+     *
+     * @return a reporter ion quantification
+     */
+    private static ReporterIonQuantification getReporterIonQuantification(String... sampleIndexes) {
+
+        ReporterIonQuantification reporterIonQuantification = new ReporterIonQuantification(Quantification.QuantificationMethod.REPORTER_IONS);
+
+        for (String sampleIndex : sampleIndexes) {
+            reporterIonQuantification.assignSample(sampleIndex, sampleIndex);
+        }
+
+        return reporterIonQuantification;
+
+    }
+
+    /**
+     * Tests that the channels follow the sorted sample indexes whatever the
+     * order of assignment.
+     */
+    public void testChannels() {
+
+        ChannelTable channelTable = new ChannelTable(getReporterIonQuantification("128", "126", "127N", "127C"));
+
+        assertEquals(4, channelTable.size());
+
+        String[] expected = {"126", "127C", "127N", "128"};
+
+        for (int channel = 0; channel < expected.length; channel++) {
+
+            assertEquals(expected[channel], channelTable.getSampleIndex(channel));
+            assertEquals(channel, channelTable.getChannel(expected[channel]));
+            assertEquals(channel, channelTable.getExistingChannel(expected[channel]));
+
+        }
+    }
+
+    /**
+     * Tests the handling of sample indexes not in the table.
+     */
+    public void testMissingChannel() {
+
+        ChannelTable channelTable = new ChannelTable(getReporterIonQuantification("126", "127"));
+
+        assertEquals(-1, channelTable.getChannel("131"));
+
+        try {
+            channelTable.getExistingChannel("131");
+            fail("No exception thrown for a missing sample index.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the reporter ions are null when no reporter method is set.
+     */
+    public void testNoReporterMethod() {
+
+        ChannelTable channelTable = new ChannelTable(getReporterIonQuantification("126", "127"));
+
+        assertNull(channelTable.getReporterIon(0));
+        assertNull(channelTable.getReporterIon(1));
+
+    }
+
+    /**
+     * Tests the maximal number of channels.
+     */
+    public void testMaxChannels() {
+
+        String[] sampleIndexes = new String[ChannelTable.MAX_CHANNELS + 1];
+
+        for (int i = 0; i < sampleIndexes.length; i++) {
+            sampleIndexes[i] = String.format("%03d", i);
+        }
+
+        ChannelTable channelTable = new ChannelTable(getReporterIonQuantification(Arrays.copyOf(sampleIndexes, ChannelTable.MAX_CHANNELS)));
+
+        assertEquals(ChannelTable.MAX_CHANNELS, channelTable.size());
+        assertEquals(ChannelTable.MAX_CHANNELS - 1, channelTable.getChannel(sampleIndexes[ChannelTable.MAX_CHANNELS - 1]));
+
+        try {
+            new ChannelTable(getReporterIonQuantification(sampleIndexes));
+            fail("No exception thrown for too many channels.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
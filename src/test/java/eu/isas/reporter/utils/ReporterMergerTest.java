@@ -0,0 +1,209 @@
+package eu.isas.reporter.utils;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.io.IoUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Test of the merging of protein reports.
+ *
+ * @author Marc Vaudel
+ */
+public class ReporterMergerTest extends TestCase {
+
+    /**
+     * The folder of the test files.
+     */
+    private File folder;
+
+    @Override
+    protected void setUp() throws IOException {
+        folder = Files.createTempDirectory("merge_test").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        IoUtil.deleteDir(folder);
+    }
+
+    /**
+     * Writes a protein report with the protein group in the first column, the
+     * PEP in the second, the decoy flag in the third and three ratio columns.
+     * The proteins are listed in reverse order, every tenth is a decoy and
+     * every seventh misses a ratio.
+     *
+     * @param name the name of the report
+     * @param first the index of the first protein
+     * @param last the index of the last protein
+     * @param seed the seed of the random values
+     * @param duplicate a protein group to write twice, null for none
+     *
+     * @return the report file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private File writeReport(String name, int first, int last, long seed, String duplicate) throws IOException {
+
+        File report = new File(folder, name + ".txt");
+        Random random = new Random(seed);
+
+        try (PrintWriter writer = new PrintWriter(report)) {
+
+            writer.println("Protein Group\tPEP\tDecoy\t126\t127\t128");
+
+            for (int i = last; i >= first; i--) {
+
+                String pep = Double.toString(random.nextDouble() * (i % 5 == 0 ? 1.0 : 0.05));
+                String decoy = i % 10 == 0 ? "1" : "0";
+                String ratio126 = i % 7 == 0 ? "" : Double.toString(1 + random.nextDouble());
+
+                writer.println(
+                        "P" + i + ", Q" + i
+                        + "\t" + pep + "\t" + decoy
+                        + "\t" + ratio126
+                        + "\t" + (1 + random.nextDouble())
+                        + "\t" + (2 + random.nextDouble())
+                );
+            }
+
+            if (duplicate != null) {
+                writer.println(duplicate + "\t0.01\t0\t1.0\t1.0\t1.0");
+            }
+        }
+
+        return report;
+
+    }
+
+    /**
+     * Returns a merger using the columns of the test reports.
+     *
+     * @param fdrEstimator the FDR estimator
+     * @param pathwayFile the pathway file
+     *
+     * @return a merger
+     */
+    private ReporterMerger getMerger(MergeFdrEstimator fdrEstimator, File pathwayFile) {
+
+        ReporterMerger reporterMerger = new ReporterMerger(0, 1, 2, 3, 0.05, true, folder);
+        reporterMerger.setFdrEstimator(fdrEstimator);
+        reporterMerger.setControlChannels(new String[]{"126", "127"});
+        reporterMerger.setPathwayFiles(new ArrayList<>(Arrays.asList(pathwayFile)));
+
+        return reporterMerger;
+
+    }
+
+    /**
+     * Merges the given reports in the given output folder.
+     *
+     * @param reports the reports to merge
+     * @param fdrEstimator the FDR estimator
+     * @param pathwayFile the pathway file
+     * @param external boolean indicating whether the merge should be done on
+     * disk
+     * @param outputName the name of the output folder
+     *
+     * @return the merged report
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private File merge(ArrayList<File> reports, MergeFdrEstimator fdrEstimator, File pathwayFile, boolean external, String outputName) throws IOException {
+
+        File outputFolder = new File(folder, outputName);
+        outputFolder.mkdir();
+        File destinationFile = new File(outputFolder, "merged.txt");
+
+        getMerger(fdrEstimator, pathwayFile).merge(reports, destinationFile, external, new WaitingHandlerCLIImpl());
+
+        return destinationFile;
+
+    }
+
+    /**
+     * Tests that merging in memory and on disk produces the same report and
+     * pathway files.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void testInMemoryAndOnDisk() throws IOException {
+
+        ArrayList<File> reports = new ArrayList<>();
+        reports.add(writeReport("plex1", 0, 120, 1, null));
+        reports.add(writeReport("plex2", 60, 200, 2, null));
+        reports.add(writeReport("plex3", 100, 150, 3, null));
+
+        File pathwayFile = new File(folder, "pathway.txt");
+
+        try (PrintWriter writer = new PrintWriter(pathwayFile)) {
+
+            writer.println("Pathway\tAccession");
+            writer.println("pathway\tQ5");
+            writer.println("pathway\tP70");
+            writer.println("pathway\tQ130");
+
+        }
+
+        for (MergeFdrEstimator fdrEstimator : MergeFdrEstimator.values()) {
+
+            File inMemory = merge(reports, fdrEstimator, pathwayFile, false, "memory_" + fdrEstimator);
+            File onDisk = merge(reports, fdrEstimator, pathwayFile, true, "disk_" + fdrEstimator);
+
+            byte[] inMemoryReport = Files.readAllBytes(inMemory.toPath());
+
+            assertTrue(inMemoryReport.length > 0);
+            assertTrue(Arrays.equals(inMemoryReport, Files.readAllBytes(onDisk.toPath())));
+
+            File inMemoryPathway = new File(inMemory.getParentFile(), "pathway_quantification.txt");
+            File onDiskPathway = new File(onDisk.getParentFile(), "pathway_quantification.txt");
+
+            assertTrue(Files.readAllLines(inMemoryPathway.toPath()).size() > 1);
+            assertTrue(Arrays.equals(Files.readAllBytes(inMemoryPathway.toPath()), Files.readAllBytes(onDiskPathway.toPath())));
+
+        }
+    }
+
+    /**
+     * Tests that a protein group found twice in a report is rejected both in
+     * memory and on disk.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void testDuplicate() throws IOException {
+
+        ArrayList<File> reports = new ArrayList<>();
+        reports.add(writeReport("plex1", 0, 20, 1, null));
+        reports.add(writeReport("plex2", 10, 30, 2, "P15, Q15"));
+
+        File pathwayFile = new File(folder, "pathway.txt");
+
+        try (PrintWriter writer = new PrintWriter(pathwayFile)) {
+            writer.println("Pathway\tAccession");
+        }
+
+        for (boolean external : new boolean[]{false, true}) {
+
+            try {
+
+                merge(reports, MergeFdrEstimator.pepWindows, pathwayFile, external, "duplicate_" + external);
+                fail("No exception thrown for a duplicate protein group.");
+
+            } catch (IllegalArgumentException e) {
+
+                assertEquals("Protein group P15, Q15 found twice in report plex2.", e.getMessage());
+
+            }
+        }
+    }
+}